@@ -25,6 +25,9 @@ TupleOutputStream::TupleOutputStream(void *data, std::size_t length) :
     ReferenceSerializeOutput(data, length),
     m_rowCount(0),
     m_rowCountPosition(0),
+    m_blockCount(0),
+    m_blockRowCount(0),
+    m_blockRowCountPosition(0),
     m_totalBytesSerialized(0)
 {
 }
@@ -38,16 +41,44 @@ std::size_t TupleOutputStream::startRows(int32_t partitionId)
     writeInt(partitionId);
     m_rowCount = 0;
     m_rowCountPosition = reserveBytes(4);
+    m_blockCount = 0;
+    m_blockRowCountPosition = 0;
     m_totalBytesSerialized = 0;
     return m_rowCountPosition;
 }
 
+void TupleOutputStream::startBlock(int64_t blockId)
+{
+    endBlock();
+    writeLong(blockId);
+    m_blockRowCount = 0;
+    m_blockRowCountPosition = reserveBytes(4);
+    m_blockCount++;
+}
+
+void TupleOutputStream::writeUnmodifiedBlock(int64_t blockId)
+{
+    endBlock();
+    writeLong(blockId);
+    writeInt(UNMODIFIED_BLOCK);
+    m_blockCount++;
+}
+
+void TupleOutputStream::endBlock()
+{
+    if (m_blockRowCountPosition != 0) {
+        writeIntAt(m_blockRowCountPosition, m_blockRowCount);
+        m_blockRowCountPosition = 0;
+    }
+}
+
 std::size_t TupleOutputStream::writeRow(const TableTuple &tuple)
 {
     const std::size_t startPos = position();
     tuple.serializeTo(*this, true);
     const std::size_t endPos = position();
     m_rowCount++;
+    m_blockRowCount++;
     std::size_t bytesSerialized = endPos - startPos;
     m_totalBytesSerialized += bytesSerialized;
     return bytesSerialized;
@@ -60,7 +91,13 @@ bool TupleOutputStream::canFit(std::size_t nbytes) const
 
 void TupleOutputStream::endRows()
 {
-    writeIntAt(m_rowCountPosition, m_rowCount);
+    if (m_blockCount > 0) {
+        endBlock();
+        writeIntAt(m_rowCountPosition, m_blockCount);
+    }
+    else {
+        writeIntAt(m_rowCountPosition, m_rowCount);
+    }
 }
 
 } // namespace voltdb
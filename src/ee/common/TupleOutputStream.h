@@ -49,6 +49,19 @@ public:
      */
     std::size_t startRows(int32_t partitionId);
 
+    /**
+     * Start a segment of rows from one tuple block, for incremental snapshots.
+     * Once a segment is started the count written by endRows() is the number
+     * of segments instead of rows, and each segment has its own row count.
+     */
+    void startBlock(int64_t blockId);
+
+    /**
+     * Write an empty segment for a block whose rows aren't in this snapshot
+     * because they didn't change since the previous one.
+     */
+    void writeUnmodifiedBlock(int64_t blockId);
+
     /**
      * Write a tuple and return the number of bytes written.
      */
@@ -78,10 +91,21 @@ public:
         return m_rowCount;
     }
 
+    /** Block id and row count in front of every segment. */
+    static const std::size_t BLOCK_HEADER_SIZE = sizeof(int64_t) + sizeof(int32_t);
+
+    /** Row count of a segment for a block that didn't change. */
+    static const int32_t UNMODIFIED_BLOCK = -1;
+
 private:
 
+    void endBlock();
+
     int32_t     m_rowCount;
     std::size_t m_rowCountPosition;
+    int32_t     m_blockCount;
+    int32_t     m_blockRowCount;
+    std::size_t m_blockRowCountPosition;
     /** Keep track of bytes written for throttling to yield control. */
     std::size_t m_totalBytesSerialized;
 };
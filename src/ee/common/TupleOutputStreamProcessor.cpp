@@ -90,6 +90,30 @@ void TupleOutputStreamProcessor::close()
     clearState();
 }
 
+void TupleOutputStreamProcessor::startBlock(int64_t blockId)
+{
+    for (TupleOutputStreamProcessor::iterator iter = begin(); iter != end(); ++iter) {
+        iter->startBlock(blockId);
+    }
+}
+
+void TupleOutputStreamProcessor::writeUnmodifiedBlock(int64_t blockId)
+{
+    for (TupleOutputStreamProcessor::iterator iter = begin(); iter != end(); ++iter) {
+        iter->writeUnmodifiedBlock(blockId);
+    }
+}
+
+bool TupleOutputStreamProcessor::canFit(std::size_t nbytes) const
+{
+    for (TupleOutputStreamProcessor::const_iterator iter = begin(); iter != end(); ++iter) {
+        if (!iter->canFit(nbytes)) {
+            return false;
+        }
+    }
+    return true;
+}
+
 /**
  * Write a tuple to the output streams.
  * Expects buffer space was already checked.
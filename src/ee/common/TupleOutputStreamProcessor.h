@@ -55,6 +55,15 @@ public:
     /** Stop serializing. */
     void close();
 
+    /** Start a segment for a tuple block in every output stream, see TupleOutputStream::startBlock(). */
+    void startBlock(int64_t blockId);
+
+    /** Write an unmodified block segment to every output stream. */
+    void writeUnmodifiedBlock(int64_t blockId);
+
+    /** Return true if every output stream can fit nbytes more. */
+    bool canFit(std::size_t nbytes) const;
+
     /**
      * Write a tuple to the output streams.
      * Expects buffer space was already checked.
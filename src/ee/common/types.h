@@ -191,6 +191,8 @@ enum PlanNodeType {
     //
     PLAN_NODE_TYPE_NESTLOOP         = 20,
     PLAN_NODE_TYPE_NESTLOOPINDEX    = 21,
+    PLAN_NODE_TYPE_HASHJOIN         = 22,
+    PLAN_NODE_TYPE_MERGEJOIN        = 23,
 
     //
     // Operator Nodes
@@ -401,6 +403,10 @@ enum TableStreamType {
     // that tableStreamTypeHasPredicates() doesn't have to change.
     TABLE_STREAM_RECOVERY,
 
+    // Snapshot of only the tuple blocks modified since the previous one.
+    // Uses predicates, see tableStreamTypeHasPredicates().
+    TABLE_STREAM_INCREMENTAL_SNAPSHOT,
+
     // Table stream type provided when no stream is active.
     TABLE_STREAM_NONE = -1
 };
@@ -417,14 +423,16 @@ enum TableStreamSerializationError {
 inline bool tableStreamTypeHasPredicates(TableStreamType streamType) {
     return streamType == TABLE_STREAM_SNAPSHOT
         || streamType == TABLE_STREAM_ELASTIC_INDEX
-        || streamType == TABLE_STREAM_ELASTIC_INDEX_READ;
+        || streamType == TABLE_STREAM_ELASTIC_INDEX_READ
+        || streamType == TABLE_STREAM_INCREMENTAL_SNAPSHOT;
 }
 
 /**
  * Return true if the table stream type is performing a snapshot.
  */
 inline bool tableStreamTypeIsSnapshot(TableStreamType streamType) {
-    return streamType == TABLE_STREAM_SNAPSHOT;
+    return streamType == TABLE_STREAM_SNAPSHOT
+        || streamType == TABLE_STREAM_INCREMENTAL_SNAPSHOT;
 }
 
 /**
@@ -0,0 +1,300 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB Inc. are licensed under the following
+ * terms and conditions:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include "hashjoinexecutor.h"
+
+#include "common/debuglog.h"
+#include "common/TupleSchema.h"
+#include "executors/aggregateexecutor.h"
+#include "executors/executorutil.h"
+#include "execution/ProgressMonitorProxy.h"
+#include "expressions/abstractexpression.h"
+#include "plannodes/hashjoinnode.h"
+#include "plannodes/limitnode.h"
+#include "storage/table.h"
+#include "storage/tableiterator.h"
+#include "storage/temptable.h"
+#include "storage/TempTableLimits.h"
+
+#include <algorithm>
+
+using namespace std;
+using namespace voltdb;
+
+const int64_t JoinHashTable::NO_MATCH;
+
+JoinHashTable::JoinHashTable(const TupleSchema* keySchema, TempTableLimits* limits)
+    : m_keySchema(keySchema)
+    , m_limits(limits)
+    , m_allocated(0)
+    , m_keyPool()
+    , m_probePool()
+    , m_probeKey(keySchema)
+    , m_hash()
+    , m_entries()
+{ }
+
+JoinHashTable::~JoinHashTable()
+{
+    if (m_limits != NULL) {
+        m_limits->reduceAllocated(static_cast<int>(m_allocated));
+    }
+}
+
+void JoinHashTable::increaseAllocated(std::size_t bytes)
+{
+    // Count the bytes first so that the destructor releases them even if the limit is hit
+    m_allocated += bytes;
+    if (m_limits != NULL) {
+        m_limits->increaseAllocated(static_cast<int>(bytes));
+    }
+}
+
+bool JoinHashTable::setKey(TableTuple& key, const vector<AbstractExpression*>& keyExpressions,
+                           const TableTuple* outerTuple, const TableTuple* innerTuple, Pool* pool)
+{
+    for (int ii = 0; ii < keyExpressions.size(); ii++) {
+        NValue value = keyExpressions[ii]->eval(outerTuple, innerTuple);
+        // NULL is not equal to anything, including another NULL
+        if (value.isNull()) {
+            return false;
+        }
+        key.setNValueAllocateForObjectCopies(ii, value, pool);
+    }
+    return true;
+}
+
+void JoinHashTable::build(Table* table, const vector<AbstractExpression*>& keyExpressions,
+                          ProgressMonitorProxy* pmp)
+{
+    TableTuple tuple(table->schema());
+    TableTuple key(m_keySchema);
+    TableIterator iterator = table->iterator();
+    int64_t keyPoolSize = m_keyPool.getAllocatedMemory();
+    while (iterator.next(tuple)) {
+        if (pmp != NULL) {
+            pmp->countdownProgress();
+        }
+        if (key.isNullTuple()) {
+            key.move(m_keyPool.allocateZeroes(m_keySchema->tupleLength() + TUPLE_HEADER_SIZE));
+        }
+        if ( ! setKey(key, keyExpressions, NULL, &tuple, &m_keyPool)) {
+            continue;
+        }
+
+        int64_t entry = m_entries.size();
+        Entry newEntry = { tuple.address(), NO_MATCH };
+        m_entries.push_back(newEntry);
+        size_t bytes = sizeof(Entry);
+
+        HashMapType::iterator chain = m_hash.find(key);
+        if (chain == m_hash.end()) {
+            Chain newChain = { entry, entry };
+            m_hash.insert(HashMapType::value_type(key, newChain));
+            // The map is referencing the key tuple now, so the next key needs new storage
+            key.move(NULL);
+            bytes += sizeof(HashMapType::value_type) + 2 * sizeof(void*);
+        }
+        else {
+            m_entries[chain->second.m_last].m_next = entry;
+            chain->second.m_last = entry;
+        }
+        bytes += m_keyPool.getAllocatedMemory() - keyPoolSize;
+        keyPoolSize = m_keyPool.getAllocatedMemory();
+        increaseAllocated(bytes);
+    }
+    VOLT_TRACE("Hashed %d tuples under %d keys", (int)m_entries.size(), (int)m_hash.size());
+}
+
+int64_t JoinHashTable::find(const TableTuple& outerTuple, const vector<AbstractExpression*>& keyExpressions)
+{
+    if (m_hash.empty()) {
+        return NO_MATCH;
+    }
+    if (m_probeKey.isNullTuple()) {
+        m_probeKey.move(m_probePool.allocateZeroes(m_keySchema->tupleLength() + TUPLE_HEADER_SIZE));
+    }
+    // Only the objects of the previous probe key live in the pool, so recycle it
+    m_probePool.purge();
+    if ( ! setKey(m_probeKey, keyExpressions, &outerTuple, NULL, &m_probePool)) {
+        return NO_MATCH;
+    }
+    HashMapType::const_iterator chain = m_hash.find(m_probeKey);
+    if (chain == m_hash.end()) {
+        return NO_MATCH;
+    }
+    return chain->second.m_first;
+}
+
+HashJoinExecutor::~HashJoinExecutor()
+{
+    // NULL safe operation
+    TupleSchema::freeTupleSchema(m_keySchema);
+}
+
+bool HashJoinExecutor::p_init(AbstractPlanNode* abstractNode,
+                              TempTableLimits* limits)
+{
+    VOLT_TRACE("init HashJoin Executor");
+    assert(limits);
+
+    HashJoinPlanNode* node = dynamic_cast<HashJoinPlanNode*>(m_abstractNode);
+    assert(node);
+
+    // Init parent first
+    if (!AbstractJoinExecutor::p_init(abstractNode, limits)) {
+        return false;
+    }
+    // Unmatched inner tuples are not tracked
+    assert(m_joinType != JOIN_TYPE_FULL);
+    m_limits = limits;
+
+    // The key columns are wide enough for the values from either side
+    const vector<AbstractExpression*>& outerKeys = node->getOuterHashExpressions();
+    const vector<AbstractExpression*>& innerKeys = node->getInnerHashExpressions();
+    assert(outerKeys.size() == innerKeys.size());
+    vector<ValueType> keyColumnTypes;
+    vector<int32_t> keyColumnSizes;
+    vector<bool> keyColumnAllowNull;
+    vector<bool> keyColumnInBytes;
+    for (int ii = 0; ii < outerKeys.size(); ii++) {
+        keyColumnTypes.push_back(outerKeys[ii]->getValueType());
+        keyColumnSizes.push_back(std::max(outerKeys[ii]->getValueSize(), innerKeys[ii]->getValueSize()));
+        keyColumnAllowNull.push_back(true);
+        keyColumnInBytes.push_back(outerKeys[ii]->getInBytes());
+    }
+    TupleSchema::freeTupleSchema(m_keySchema);
+    m_keySchema = TupleSchema::createTupleSchema(keyColumnTypes,
+                                                 keyColumnSizes,
+                                                 keyColumnAllowNull,
+                                                 keyColumnInBytes);
+
+    // NULL tuples for left joins
+    p_init_null_tuples(node->getInputTable(), node->getInputTable(1));
+
+    return true;
+}
+
+bool HashJoinExecutor::p_execute(const NValueArray &params) {
+    VOLT_DEBUG("executing HashJoin...");
+
+    HashJoinPlanNode* node = dynamic_cast<HashJoinPlanNode*>(m_abstractNode);
+    assert(node);
+    assert(node->getInputTableCount() == 2);
+
+    // output table must be a temp table
+    assert(m_tmpOutputTable);
+
+    Table* outer_table = node->getInputTable();
+    assert(outer_table);
+
+    Table* inner_table = node->getInputTable(1);
+    assert(inner_table);
+
+    VOLT_TRACE ("input table left:\n %s", outer_table->debug().c_str());
+    VOLT_TRACE ("input table right:\n %s", inner_table->debug().c_str());
+
+    AbstractExpression *preJoinPredicate = node->getPreJoinPredicate();
+    AbstractExpression *joinPredicate = node->getJoinPredicate();
+    AbstractExpression *wherePredicate = node->getWherePredicate();
+
+    LimitPlanNode* limit_node = dynamic_cast<LimitPlanNode*>(node->getInlinePlanNode(PLAN_NODE_TYPE_LIMIT));
+    int limit = CountingPostfilter::NO_LIMIT;
+    int offset = CountingPostfilter::NO_OFFSET;
+    if (limit_node) {
+        limit_node->getLimitAndOffsetByReference(params, limit, offset);
+    }
+
+    int outer_cols = outer_table->columnCount();
+    int inner_cols = inner_table->columnCount();
+    TableTuple outer_tuple(outer_table->schema());
+    TableTuple inner_tuple(inner_table->schema());
+    const TableTuple& null_inner_tuple = m_null_inner_tuple.tuple();
+
+    ProgressMonitorProxy pmp(m_engine, this);
+
+    // The hash table gives its memory back to the limits when it goes out of scope,
+    // including when the limit is exceeded while it is being built.
+    JoinHashTable hashTable(m_keySchema, m_limits);
+    hashTable.build(inner_table, node->getInnerHashExpressions(), &pmp);
+    const vector<AbstractExpression*>& outerKeys = node->getOuterHashExpressions();
+
+    TableIterator iterator0 = outer_table->iteratorDeletingAsWeGo();
+    // Init the postfilter
+    CountingPostfilter postfilter(m_tmpOutputTable, wherePredicate, limit, offset);
+
+    TableTuple join_tuple;
+    if (m_aggExec != NULL) {
+        VOLT_TRACE("Init inline aggregate...");
+        const TupleSchema * aggInputSchema = node->getTupleSchemaPreAgg();
+        join_tuple = m_aggExec->p_execute_init(params, &pmp, aggInputSchema, m_tmpOutputTable, &postfilter);
+    } else {
+        join_tuple = m_tmpOutputTable->tempTuple();
+    }
+
+    while (postfilter.isUnderLimit() && iterator0.next(outer_tuple)) {
+        pmp.countdownProgress();
+
+        join_tuple.setNValues(0, outer_tuple, 0, outer_cols);
+
+        // did this loop body find at least one match for this tuple?
+        bool outerMatch = false;
+        // For outer joins if outer tuple fails pre-join predicate
+        // (join expression based on the outer table only)
+        // it can't match any of inner tuples
+        if (preJoinPredicate == NULL || preJoinPredicate->eval(&outer_tuple, NULL).isTrue()) {
+            for (int64_t entry = hashTable.find(outer_tuple, outerKeys);
+                    entry != JoinHashTable::NO_MATCH && postfilter.isUnderLimit();
+                    entry = hashTable.next(entry)) {
+                pmp.countdownProgress();
+                inner_tuple.move(hashTable.tupleAddress(entry));
+                // The keys are equal, the rest of the join condition still has to hold
+                if (joinPredicate == NULL || joinPredicate->eval(&outer_tuple, &inner_tuple).isTrue()) {
+                    outerMatch = true;
+                    if (postfilter.eval(&outer_tuple, &inner_tuple)) {
+                        join_tuple.setNValues(outer_cols, inner_tuple, 0, inner_cols);
+                        outputTuple(postfilter, join_tuple, pmp);
+                    }
+                }
+            }
+        }
+
+        //
+        // Left Outer Join
+        //
+        if (m_joinType == JOIN_TYPE_LEFT && !outerMatch && postfilter.isUnderLimit()) {
+            // Still needs to pass the filter
+            if (postfilter.eval(&outer_tuple, &null_inner_tuple)) {
+                join_tuple.setNValues(outer_cols, null_inner_tuple, 0, inner_cols);
+                outputTuple(postfilter, join_tuple, pmp);
+            }
+        }
+    }
+
+    if (m_aggExec != NULL) {
+        m_aggExec->p_execute_finish();
+    }
+
+    cleanupInputTempTable(inner_table);
+    cleanupInputTempTable(outer_table);
+
+    return (true);
+}
@@ -0,0 +1,132 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB Inc. are licensed under the following
+ * terms and conditions:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#ifndef HSTOREHASHJOINEXECUTOR_H
+#define HSTOREHASHJOINEXECUTOR_H
+
+#include "common/common.h"
+#include "common/Pool.hpp"
+#include "common/tabletuple.h"
+#include "common/valuevector.h"
+#include "executors/abstractjoinexecutor.h"
+
+#include "boost/unordered_map.hpp"
+
+#include <vector>
+
+namespace voltdb {
+
+class AbstractExpression;
+class ProgressMonitorProxy;
+class Table;
+class TempTableLimits;
+class TupleSchema;
+
+/**
+ * Hash table of the tuples of a join input keyed by the values of the join keys.
+ * Tuples with equal keys are chained in the order they were added.
+ * The memory used by the table is counted against the temp table limits
+ * until the table is destroyed.
+ */
+class JoinHashTable {
+public:
+    static const int64_t NO_MATCH = -1;
+
+    JoinHashTable(const TupleSchema* keySchema, TempTableLimits* limits);
+    ~JoinHashTable();
+
+    /**
+     * Hash the tuples of a table by the key expressions evaluated as the inner
+     * tuple of a join. Tuples with a NULL key can not match anything and are skipped.
+     */
+    void build(Table* table, const std::vector<AbstractExpression*>& keyExpressions,
+               ProgressMonitorProxy* pmp);
+
+    /**
+     * Find the first tuple whose key matches the key expressions evaluated
+     * as the outer tuple of a join, or NO_MATCH.
+     */
+    int64_t find(const TableTuple& outerTuple, const std::vector<AbstractExpression*>& keyExpressions);
+
+    /** The next tuple with the same key or NO_MATCH */
+    int64_t next(int64_t entry) const { return m_entries[entry].m_next; }
+
+    void* tupleAddress(int64_t entry) const { return m_entries[entry].m_address; }
+
+    std::size_t tupleCount() const { return m_entries.size(); }
+
+private:
+    struct Entry {
+        void* m_address;
+        int64_t m_next;
+    };
+
+    struct Chain {
+        int64_t m_first;
+        int64_t m_last;
+    };
+
+    typedef boost::unordered_map<TableTuple,
+                                 Chain,
+                                 TableTupleHasher,
+                                 TableTupleEqualityChecker> HashMapType;
+
+    // Set the key columns and return false if any of them is NULL
+    bool setKey(TableTuple& key, const std::vector<AbstractExpression*>& keyExpressions,
+                const TableTuple* outerTuple, const TableTuple* innerTuple, Pool* pool);
+
+    void increaseAllocated(std::size_t bytes);
+
+    const TupleSchema* m_keySchema;
+    TempTableLimits* m_limits;
+    int64_t m_allocated;
+
+    // Keys of the hashed tuples
+    Pool m_keyPool;
+    // The probe key, recycled for each outer tuple
+    Pool m_probePool;
+    TableTuple m_probeKey;
+
+    HashMapType m_hash;
+    std::vector<Entry> m_entries;
+};
+
+/**
+ * Executor for HashJoinPlanNode. The inner table is hashed once and probed
+ * for each outer tuple, so the outer order is preserved like in a nested loop join.
+ */
+class HashJoinExecutor : public AbstractJoinExecutor {
+    public:
+        HashJoinExecutor(VoltDBEngine *engine, AbstractPlanNode* abstract_node) :
+            AbstractJoinExecutor(engine, abstract_node), m_keySchema(NULL), m_limits(NULL) { }
+        ~HashJoinExecutor();
+    private:
+
+        bool p_init(AbstractPlanNode*, TempTableLimits* limits);
+        bool p_execute(const NValueArray &params);
+
+        TupleSchema* m_keySchema;
+        TempTableLimits* m_limits;
+};
+
+}
+
+#endif
@@ -0,0 +1,270 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB Inc. are licensed under the following
+ * terms and conditions:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include "mergejoinexecutor.h"
+
+#include "common/debuglog.h"
+#include "common/SerializableEEException.h"
+#include "executors/aggregateexecutor.h"
+#include "executors/executorutil.h"
+#include "execution/ProgressMonitorProxy.h"
+#include "expressions/abstractexpression.h"
+#include "plannodes/limitnode.h"
+#include "plannodes/mergejoinnode.h"
+#include "storage/table.h"
+#include "storage/temptable.h"
+
+using namespace std;
+using namespace voltdb;
+
+MergeJoinInnerScan::MergeJoinInnerScan(Table* table, const vector<AbstractExpression*>& keyExpressions,
+                                       ProgressMonitorProxy* pmp)
+    : m_keyExpressions(keyExpressions)
+    , m_pmp(pmp)
+    , m_iterator(table->iterator())
+    , m_next(table->schema())
+    , m_hasNext(false)
+    , m_nextKey(keyExpressions.size())
+    , m_hasLastInnerKey(false)
+    , m_lastInnerKey()
+    , m_run()
+    , m_runKey()
+    , m_outerKey(keyExpressions.size())
+    , m_hasLastOuterKey(false)
+    , m_lastOuterKey()
+    , m_noMatch()
+{
+    advance();
+}
+
+bool MergeJoinInnerScan::advance()
+{
+    while ((m_hasNext = m_iterator.next(m_next))) {
+        if (m_pmp != NULL) {
+            m_pmp->countdownProgress();
+        }
+        bool hasNull = false;
+        for (int ii = 0; ii < m_keyExpressions.size(); ii++) {
+            m_nextKey[ii] = m_keyExpressions[ii]->eval(NULL, &m_next);
+            if (m_nextKey[ii].isNull()) {
+                hasNull = true;
+                break;
+            }
+        }
+        if ( ! hasNull) {
+            if (m_hasLastInnerKey && compareKeys(m_nextKey, m_lastInnerKey) == VALUE_COMPARE_LESSTHAN) {
+                throwOutOfOrder("inner");
+            }
+            m_lastInnerKey = m_nextKey;
+            m_hasLastInnerKey = true;
+            return true;
+        }
+    }
+    return false;
+}
+
+void MergeJoinInnerScan::throwOutOfOrder(const char* side)
+{
+    // A plan that feeds an unsorted input would silently lose matches
+    char message[128];
+    snprintf(message, sizeof(message),
+             "The %s input of a merge join is not in ascending order of the join key.", side);
+    throw SerializableEEException(VOLT_EE_EXCEPTION_TYPE_EEEXCEPTION, message);
+}
+
+int MergeJoinInnerScan::compareKeys(const vector<NValue>& left, const vector<NValue>& right)
+{
+    for (int ii = 0; ii < left.size(); ii++) {
+        int cmp = left[ii].compare(right[ii]);
+        if (cmp != VALUE_COMPARE_EQUAL) {
+            return cmp;
+        }
+    }
+    return VALUE_COMPARE_EQUAL;
+}
+
+const vector<void*>& MergeJoinInnerScan::match(const TableTuple& outerTuple,
+                                               const vector<AbstractExpression*>& keyExpressions)
+{
+    assert(keyExpressions.size() == m_keyExpressions.size());
+    for (int ii = 0; ii < keyExpressions.size(); ii++) {
+        m_outerKey[ii] = keyExpressions[ii]->eval(&outerTuple, NULL);
+        // NULL is not equal to anything, including another NULL
+        if (m_outerKey[ii].isNull()) {
+            return m_noMatch;
+        }
+    }
+    if (m_hasLastOuterKey && compareKeys(m_outerKey, m_lastOuterKey) == VALUE_COMPARE_LESSTHAN) {
+        throwOutOfOrder("outer");
+    }
+    m_lastOuterKey = m_outerKey;
+    m_hasLastOuterKey = true;
+
+    if ( ! m_run.empty()) {
+        // The run was collected for an earlier outer key, which is not greater than this one
+        if (compareKeys(m_outerKey, m_runKey) == VALUE_COMPARE_EQUAL) {
+            return m_run;
+        }
+        m_run.clear();
+    }
+
+    // Skip the inner tuples with smaller keys, which no later outer tuple can match either
+    while (m_hasNext && compareKeys(m_outerKey, m_nextKey) == VALUE_COMPARE_GREATERTHAN) {
+        advance();
+    }
+    if ( ! m_hasNext || compareKeys(m_outerKey, m_nextKey) != VALUE_COMPARE_EQUAL) {
+        return m_noMatch;
+    }
+
+    // Collect the run of inner tuples with the same key
+    m_runKey = m_nextKey;
+    do {
+        m_run.push_back(m_next.address());
+        advance();
+    } while (m_hasNext && compareKeys(m_runKey, m_nextKey) == VALUE_COMPARE_EQUAL);
+    VOLT_TRACE("Merged a run of %d inner tuples", (int)m_run.size());
+    return m_run;
+}
+
+bool MergeJoinExecutor::p_init(AbstractPlanNode* abstractNode,
+                               TempTableLimits* limits)
+{
+    VOLT_TRACE("init MergeJoin Executor");
+    assert(limits);
+
+    MergeJoinPlanNode* node = dynamic_cast<MergeJoinPlanNode*>(m_abstractNode);
+    assert(node);
+
+    // Init parent first
+    if (!AbstractJoinExecutor::p_init(abstractNode, limits)) {
+        return false;
+    }
+    // Unmatched inner tuples are not tracked
+    assert(m_joinType != JOIN_TYPE_FULL);
+    assert(node->getOuterKeyExpressions().size() == node->getInnerKeyExpressions().size());
+
+    // NULL tuples for left joins
+    p_init_null_tuples(node->getInputTable(), node->getInputTable(1));
+
+    return true;
+}
+
+bool MergeJoinExecutor::p_execute(const NValueArray &params) {
+    VOLT_DEBUG("executing MergeJoin...");
+
+    MergeJoinPlanNode* node = dynamic_cast<MergeJoinPlanNode*>(m_abstractNode);
+    assert(node);
+    assert(node->getInputTableCount() == 2);
+
+    // output table must be a temp table
+    assert(m_tmpOutputTable);
+
+    Table* outer_table = node->getInputTable();
+    assert(outer_table);
+
+    Table* inner_table = node->getInputTable(1);
+    assert(inner_table);
+
+    VOLT_TRACE ("input table left:\n %s", outer_table->debug().c_str());
+    VOLT_TRACE ("input table right:\n %s", inner_table->debug().c_str());
+
+    AbstractExpression *preJoinPredicate = node->getPreJoinPredicate();
+    AbstractExpression *joinPredicate = node->getJoinPredicate();
+    AbstractExpression *wherePredicate = node->getWherePredicate();
+
+    LimitPlanNode* limit_node = dynamic_cast<LimitPlanNode*>(node->getInlinePlanNode(PLAN_NODE_TYPE_LIMIT));
+    int limit = CountingPostfilter::NO_LIMIT;
+    int offset = CountingPostfilter::NO_OFFSET;
+    if (limit_node) {
+        limit_node->getLimitAndOffsetByReference(params, limit, offset);
+    }
+
+    int outer_cols = outer_table->columnCount();
+    int inner_cols = inner_table->columnCount();
+    TableTuple outer_tuple(outer_table->schema());
+    TableTuple inner_tuple(inner_table->schema());
+    const TableTuple& null_inner_tuple = m_null_inner_tuple.tuple();
+
+    ProgressMonitorProxy pmp(m_engine, this);
+
+    MergeJoinInnerScan innerScan(inner_table, node->getInnerKeyExpressions(), &pmp);
+    const vector<AbstractExpression*>& outerKeys = node->getOuterKeyExpressions();
+
+    TableIterator iterator0 = outer_table->iteratorDeletingAsWeGo();
+    // Init the postfilter
+    CountingPostfilter postfilter(m_tmpOutputTable, wherePredicate, limit, offset);
+
+    TableTuple join_tuple;
+    if (m_aggExec != NULL) {
+        VOLT_TRACE("Init inline aggregate...");
+        const TupleSchema * aggInputSchema = node->getTupleSchemaPreAgg();
+        join_tuple = m_aggExec->p_execute_init(params, &pmp, aggInputSchema, m_tmpOutputTable, &postfilter);
+    } else {
+        join_tuple = m_tmpOutputTable->tempTuple();
+    }
+
+    while (postfilter.isUnderLimit() && iterator0.next(outer_tuple)) {
+        pmp.countdownProgress();
+
+        join_tuple.setNValues(0, outer_tuple, 0, outer_cols);
+
+        // did this loop body find at least one match for this tuple?
+        bool outerMatch = false;
+        // For outer joins if outer tuple fails pre-join predicate
+        // (join expression based on the outer table only)
+        // it can't match any of inner tuples
+        if (preJoinPredicate == NULL || preJoinPredicate->eval(&outer_tuple, NULL).isTrue()) {
+            const vector<void*>& run = innerScan.match(outer_tuple, outerKeys);
+            for (int ii = 0; ii < run.size() && postfilter.isUnderLimit(); ii++) {
+                pmp.countdownProgress();
+                inner_tuple.move(run[ii]);
+                // The keys are equal, the rest of the join condition still has to hold
+                if (joinPredicate == NULL || joinPredicate->eval(&outer_tuple, &inner_tuple).isTrue()) {
+                    outerMatch = true;
+                    if (postfilter.eval(&outer_tuple, &inner_tuple)) {
+                        join_tuple.setNValues(outer_cols, inner_tuple, 0, inner_cols);
+                        outputTuple(postfilter, join_tuple, pmp);
+                    }
+                }
+            }
+        }
+
+        //
+        // Left Outer Join
+        //
+        if (m_joinType == JOIN_TYPE_LEFT && !outerMatch && postfilter.isUnderLimit()) {
+            // Still needs to pass the filter
+            if (postfilter.eval(&outer_tuple, &null_inner_tuple)) {
+                join_tuple.setNValues(outer_cols, null_inner_tuple, 0, inner_cols);
+                outputTuple(postfilter, join_tuple, pmp);
+            }
+        }
+    }
+
+    if (m_aggExec != NULL) {
+        m_aggExec->p_execute_finish();
+    }
+
+    cleanupInputTempTable(inner_table);
+    cleanupInputTempTable(outer_table);
+
+    return (true);
+}
@@ -0,0 +1,103 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB Inc. are licensed under the following
+ * terms and conditions:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#ifndef HSTOREMERGEJOINEXECUTOR_H
+#define HSTOREMERGEJOINEXECUTOR_H
+
+#include "common/common.h"
+#include "common/NValue.hpp"
+#include "common/tabletuple.h"
+#include "executors/abstractjoinexecutor.h"
+#include "storage/tableiterator.h"
+
+#include <vector>
+
+namespace voltdb {
+
+class AbstractExpression;
+class ProgressMonitorProxy;
+class Table;
+
+/**
+ * Walks the inner input of a merge join in step with the outer tuples and collects
+ * the run of inner tuples whose key equals the key of the current outer tuple.
+ * Both inputs must be in ascending order of their keys, a key smaller than the one
+ * before it on either side fails the statement rather than give a wrong answer.
+ * Tuples with a NULL key can not match anything and are skipped.
+ */
+class MergeJoinInnerScan {
+public:
+    MergeJoinInnerScan(Table* table, const std::vector<AbstractExpression*>& keyExpressions,
+                       ProgressMonitorProxy* pmp);
+
+    /**
+     * The addresses of the inner tuples whose key matches the key expressions
+     * evaluated as the outer tuple of a join. The run is kept until an outer
+     * tuple with a greater key comes, so outer tuples with equal keys share it.
+     */
+    const std::vector<void*>& match(const TableTuple& outerTuple,
+                                    const std::vector<AbstractExpression*>& keyExpressions);
+
+private:
+    // Move to the next inner tuple whose key has no NULL in it and return false at the end
+    bool advance();
+
+    static int compareKeys(const std::vector<NValue>& left, const std::vector<NValue>& right);
+
+    static void throwOutOfOrder(const char* side);
+
+    const std::vector<AbstractExpression*>& m_keyExpressions;
+    ProgressMonitorProxy* m_pmp;
+    TableIterator m_iterator;
+
+    // The first inner tuple that is not part of the run yet
+    TableTuple m_next;
+    bool m_hasNext;
+    std::vector<NValue> m_nextKey;
+    bool m_hasLastInnerKey;
+    std::vector<NValue> m_lastInnerKey;
+
+    std::vector<void*> m_run;
+    std::vector<NValue> m_runKey;
+
+    std::vector<NValue> m_outerKey;
+    bool m_hasLastOuterKey;
+    std::vector<NValue> m_lastOuterKey;
+    const std::vector<void*> m_noMatch;
+};
+
+/**
+ * Executor for MergeJoinPlanNode. Both inputs are read once, in key order,
+ * and the outer order is preserved like in a nested loop join.
+ */
+class MergeJoinExecutor : public AbstractJoinExecutor {
+    public:
+        MergeJoinExecutor(VoltDBEngine *engine, AbstractPlanNode* abstract_node) :
+            AbstractJoinExecutor(engine, abstract_node) { }
+    private:
+
+        bool p_init(AbstractPlanNode*, TempTableLimits* limits);
+        bool p_execute(const NValueArray &params);
+};
+
+}
+
+#endif
@@ -0,0 +1,55 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB Inc. are licensed under the following
+ * terms and conditions:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#include "mergejoinnode.h"
+
+#include <sstream>
+
+namespace voltdb {
+
+MergeJoinPlanNode::~MergeJoinPlanNode() { }
+
+PlanNodeType MergeJoinPlanNode::getPlanNodeType() const { return PLAN_NODE_TYPE_MERGEJOIN; }
+
+std::string MergeJoinPlanNode::debugInfo(const std::string& spacer) const
+{
+    std::ostringstream buffer;
+    buffer << AbstractJoinPlanNode::debugInfo(spacer);
+    buffer << spacer << "Outer Merge Keys\n";
+    for (int ctr = 0, cnt = (int)m_outerKeyExpressions.size(); ctr < cnt; ctr++) {
+        buffer << m_outerKeyExpressions[ctr]->debug(spacer);
+    }
+    buffer << spacer << "Inner Merge Keys\n";
+    for (int ctr = 0, cnt = (int)m_innerKeyExpressions.size(); ctr < cnt; ctr++) {
+        buffer << m_innerKeyExpressions[ctr]->debug(spacer);
+    }
+    return buffer.str();
+}
+
+void MergeJoinPlanNode::loadFromJSONObject(PlannerDomValue obj)
+{
+    AbstractJoinPlanNode::loadFromJSONObject(obj);
+
+    m_outerKeyExpressions.loadExpressionArrayFromJSONObject("OUTER_KEY_EXPRESSIONS", obj);
+    m_innerKeyExpressions.loadExpressionArrayFromJSONObject("INNER_KEY_EXPRESSIONS", obj);
+}
+
+} // namespace voltdb
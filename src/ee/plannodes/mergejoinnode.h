@@ -0,0 +1,57 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This file contains original code and/or modifications of original code.
+ * Any modifications made by VoltDB Inc. are licensed under the following
+ * terms and conditions:
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+#ifndef HSTOREMERGEJOINNODE_H
+#define HSTOREMERGEJOINNODE_H
+
+#include "abstractjoinnode.h"
+
+#include <vector>
+
+namespace voltdb {
+
+/**
+ * Equi-join of two inputs that are both in ascending order of their key expressions.
+ * Each outer tuple is matched with the run of inner tuples that has the same key.
+ */
+class MergeJoinPlanNode : public AbstractJoinPlanNode
+{
+public:
+    MergeJoinPlanNode() { }
+    ~MergeJoinPlanNode();
+    PlanNodeType getPlanNodeType() const;
+    std::string debugInfo(const std::string& spacer) const;
+
+    const std::vector<AbstractExpression*>& getOuterKeyExpressions() const { return m_outerKeyExpressions; }
+    const std::vector<AbstractExpression*>& getInnerKeyExpressions() const { return m_innerKeyExpressions; }
+
+protected:
+    void loadFromJSONObject(PlannerDomValue obj);
+
+    // The i-th outer expression is compared to the i-th inner expression.
+    // Both inputs are sorted on their key expressions in list order.
+    OwningExpressionVector m_outerKeyExpressions;
+    OwningExpressionVector m_innerKeyExpressions;
+};
+
+} // namespace voltdb
+
+#endif
@@ -22,6 +22,7 @@
 #include "common/TupleOutputStream.h"
 #include "common/FatalException.hpp"
 #include "common/StreamPredicateList.h"
+#include "common/PlannerDomValue.h"
 #include "logging/LogManager.h"
 #include <algorithm>
 #include <cassert>
@@ -50,8 +51,27 @@ CopyOnWriteContext::CopyOnWriteContext(
              m_serializationBatches(0),
              m_inserts(0),
              m_deletes(0),
-             m_updates(0)
+             m_updates(0),
+             m_incremental(false),
+             m_incrementalBase(false),
+             m_activationBlocksWritten(0),
+             m_backedUpTupleIndex(0),
+             m_segmentBlock(NULL),
+             m_skippedTuples(0)
 {
+    for (std::vector<std::string>::const_iterator iter = predicateStrings.begin();
+         iter != predicateStrings.end(); ++iter) {
+        if (!iter->empty()) {
+            PlannerDomRoot domRoot(iter->c_str());
+            if (!domRoot.isNull()) {
+                PlannerDomValue predicateObject = domRoot.rootObject();
+                if (predicateObject.hasKey("incrementalBase") &&
+                        predicateObject.valueForKey("incrementalBase").asBool()) {
+                    m_incrementalBase = true;
+                }
+            }
+        }
+    }
 }
 
 /**
@@ -68,10 +88,18 @@ TableStreamerContext::ActivationReturnCode
 CopyOnWriteContext::handleActivation(TableStreamType streamType)
 {
     // Only support snapshot streams.
-    if (streamType != TABLE_STREAM_SNAPSHOT) {
+    if (!tableStreamTypeIsSnapshot(streamType)) {
         return ACTIVATION_UNSUPPORTED;
     }
 
+    // Both kinds of snapshot use the blocks pending snapshot, only one can run at a time.
+    if (m_surgeon.hasStreamType(streamType == TABLE_STREAM_SNAPSHOT ?
+                                TABLE_STREAM_INCREMENTAL_SNAPSHOT : TABLE_STREAM_SNAPSHOT)) {
+        LogManager::getThreadLogger(LOGGERID_HOST)->log(LOGLEVEL_WARN,
+            "COW context activation is not allowed while another kind of snapshot is in progress.");
+        return ACTIVATION_FAILED;
+    }
+
     if (m_surgeon.hasIndex() && !m_surgeon.isIndexingComplete()) {
         LogManager::getThreadLogger(LOGGERID_HOST)->log(LOGLEVEL_WARN,
             "COW context activation is not allowed while elastic indexing is in progress.");
@@ -80,7 +108,24 @@ CopyOnWriteContext::handleActivation(TableStreamType streamType)
 
     m_surgeon.activateSnapshot();
 
-    m_iterator.reset(new CopyOnWriteIterator(&getTable(), &m_surgeon));
+    int64_t since = 0;
+    if (streamType == TABLE_STREAM_INCREMENTAL_SNAPSHOT) {
+        m_incremental = true;
+        since = m_surgeon.startIncrementalSnapshot(m_incrementalBase);
+        for (TBMapI iter = m_surgeon.getData().begin(); iter != m_surgeon.getData().end(); iter++) {
+            m_activationBlocks.push_back(iter.key());
+            if (iter.data()->lastModifiedGeneration() >= since) {
+                m_modifiedBlocks.insert(iter.key());
+            }
+        }
+    }
+
+    CopyOnWriteIterator *iter = new CopyOnWriteIterator(&getTable(), &m_surgeon);
+    m_iterator.reset(iter);
+    if (m_incremental) {
+        // Anything written after activation stamps the block with a newer generation
+        iter->skipBlocksModifiedBefore(since);
+    }
 
     return ACTIVATION_SUCCEEDED;
 }
@@ -103,7 +148,7 @@ int64_t CopyOnWriteContext::handleStreamMore(TupleOutputStreamProcessor &outputS
         throwFatalException("serializeMore() expects at least one output stream.");
     }
     outputStreams.open(getTable(),
-                       getMaxTupleLength(),
+                       getMaxTupleLength() + (m_incremental ? TupleOutputStream::BLOCK_HEADER_SIZE : 0),
                        getPartitionId(),
                        getPredicates(),
                        getPredicateDeleteFlags());
@@ -116,10 +161,24 @@ int64_t CopyOnWriteContext::handleStreamMore(TupleOutputStreamProcessor &outputS
     // Set to true to break out of the loop after the tuples dry up
     // or the byte count threshold is hit.
     bool yield = false;
+    if (m_incremental) {
+        // The rows follow the segments of all the blocks, continue those first
+        m_segmentBlock = NULL;
+        m_skippedTuples = 0;
+        yield = !writeBlockSegments(outputStreams);
+    }
     while (!yield) {
 
         // Next tuple?
         bool hasMore = m_iterator->next(tuple);
+        if (m_incremental && !m_finishedTableScan) {
+            // Whole blocks passed over by the iterator count as streamed
+            CopyOnWriteIterator *iter = static_cast<CopyOnWriteIterator*>(m_iterator.get());
+            if (m_tuplesRemaining > 0) {
+                m_tuplesRemaining -= iter->m_skippedBlockTuples;
+            }
+            iter->m_skippedBlockTuples = 0;
+        }
         if (hasMore) {
 
             // -1 is used as a sentinel value to disable counting for tests.
@@ -133,7 +192,12 @@ int64_t CopyOnWriteContext::handleStreamMore(TupleOutputStreamProcessor &outputS
              * The returned copy count helps decide when to delete if m_doDelete is true.
              */
             bool deleteTuple = false;
-            yield = outputStreams.writeRow(tuple, &deleteTuple);
+            if (m_incremental) {
+                yield = writeIncrementalRow(outputStreams, tuple, &deleteTuple);
+            }
+            else {
+                yield = outputStreams.writeRow(tuple, &deleteTuple);
+            }
             /*
              * May want to delete tuple if processing the actual table.
              */
@@ -288,6 +352,85 @@ int64_t CopyOnWriteContext::handleStreamMore(TupleOutputStreamProcessor &outputS
     return retValue;
 }
 
+/*
+ * Write the segments of the blocks at activation and of the blocks modified by compaction
+ * since the last batch, leaving room for at least one row. Return false if they didn't all fit.
+ */
+bool CopyOnWriteContext::writeBlockSegments(TupleOutputStreamProcessor &outputStreams) {
+    const std::size_t needed = getMaxTupleLength() + 3 * TupleOutputStream::BLOCK_HEADER_SIZE;
+    while (m_activationBlocksWritten < m_activationBlocks.size()) {
+        if (!outputStreams.canFit(needed)) {
+            return false;
+        }
+        char *block = m_activationBlocks[m_activationBlocksWritten++];
+        if (m_modifiedBlocks.find(block) != m_modifiedBlocks.end()) {
+            outputStreams.startBlock(reinterpret_cast<intptr_t>(block));
+            m_segmentBlock = block;
+        }
+        else {
+            outputStreams.writeUnmodifiedBlock(reinterpret_cast<intptr_t>(block));
+            m_segmentBlock = NULL;
+        }
+    }
+    while (!m_compactedBlocks.empty()) {
+        if (!outputStreams.canFit(needed)) {
+            return false;
+        }
+        m_segmentBlock = m_compactedBlocks.back();
+        m_compactedBlocks.pop_back();
+        outputStreams.startBlock(reinterpret_cast<intptr_t>(m_segmentBlock));
+    }
+    return true;
+}
+
+/*
+ * Write a tuple to the segment of its block if the block is modified, otherwise skip it.
+ * Return true when the caller should yield.
+ */
+bool CopyOnWriteContext::writeIncrementalRow(TupleOutputStreamProcessor &outputStreams,
+                                             TableTuple &tuple,
+                                             bool *deleteTuple) {
+    char *block;
+    if (!m_finishedTableScan) {
+        block = static_cast<CopyOnWriteIterator*>(m_iterator.get())->m_currentBlock->address();
+    }
+    else {
+        assert(m_backedUpTupleIndex < m_backedUpTupleBlocks.size());
+        block = m_backedUpTupleBlocks[m_backedUpTupleIndex++];
+    }
+
+    if (m_modifiedBlocks.find(block) == m_modifiedBlocks.end()) {
+        return ++m_skippedTuples > m_skippedTuplesThreshold;
+    }
+    if (block != m_segmentBlock) {
+        outputStreams.startBlock(reinterpret_cast<intptr_t>(block));
+        m_segmentBlock = block;
+    }
+    bool yield = outputStreams.writeRow(tuple, deleteTuple);
+    // Keep room for the header of another segment along with the next row
+    return yield || !outputStreams.canFit(getMaxTupleLength() + 2 * TupleOutputStream::BLOCK_HEADER_SIZE);
+}
+
+void CopyOnWriteContext::notifyTupleMovement(TBPtr sourceBlock, TBPtr targetBlock,
+                                             TableTuple &sourceTuple, TableTuple &targetTuple) {
+    if (!m_incremental || m_finishedTableScan) {
+        return;
+    }
+    // Compaction only moves tuples between blocks that are both pending or both done
+    // with the scan, it only matters for the pending ones. The done ones are already
+    // in the snapshot as they were at activation.
+    CopyOnWriteIterator *iter = static_cast<CopyOnWriteIterator*>(m_iterator.get());
+    if (iter->m_blocks.find(sourceBlock->address()) == iter->m_blocks.end()) {
+        return;
+    }
+    if (m_modifiedBlocks.insert(sourceBlock->address()).second) {
+        m_compactedBlocks.push_back(sourceBlock->address());
+    }
+    if (m_modifiedBlocks.insert(targetBlock->address()).second) {
+        m_compactedBlocks.push_back(targetBlock->address());
+    }
+}
+
 bool CopyOnWriteContext::notifyTupleDelete(TableTuple &tuple) {
     assert(m_iterator != NULL);
 
@@ -341,6 +484,13 @@ void CopyOnWriteContext::markTupleDirty(TableTuple tuple, bool newTuple) {
         else {
             m_updates++;
             m_backedUpTuples->insertTempTupleDeepCopy(tuple, &m_pool);
+            if (m_incremental) {
+                TBPtr block = m_surgeon.findBlock(tuple.address());
+                if (block.get() == NULL) {
+                    throwFatalException("Tried to find a tuple block for a backed up tuple but couldn't find one");
+                }
+                m_backedUpTupleBlocks.push_back(block->address());
+            }
         }
     } else {
         tuple.setDirtyFalse();
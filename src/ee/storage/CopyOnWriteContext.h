@@ -28,6 +28,7 @@
 #include "common/tabletuple.h"
 #include <boost/scoped_ptr.hpp>
 #include <boost/ptr_container/ptr_vector.hpp>
+#include <boost/unordered_set.hpp>
 
 namespace voltdb {
 class TupleIterator;
@@ -85,6 +86,12 @@ public:
      */
     virtual bool notifyTupleDelete(TableTuple &tuple);
 
+    /**
+     * Optional tuple compaction handler.
+     */
+    virtual void notifyTupleMovement(TBPtr sourceBlock, TBPtr targetBlock,
+                                     TableTuple &sourceTuple, TableTuple &targetTuple);
+
 private:
 
     /**
@@ -126,6 +133,58 @@ private:
     int64_t m_deletes;
     int64_t m_updates;
 
+    /**
+     * Incremental snapshot state. An incremental snapshot starts with a segment for every
+     * block of the table at activation, empty for the blocks that didn't change since the
+     * previous one, and then has the rows of the modified blocks in segments tagged with
+     * the block they came from.
+     */
+    bool m_incremental;
+
+    /**
+     * Set by the "incrementalBase" predicate key to include every block.
+     */
+    bool m_incrementalBase;
+
+    /**
+     * Blocks at activation in address order and how many have been written.
+     */
+    std::vector<char*> m_activationBlocks;
+    size_t m_activationBlocksWritten;
+
+    /**
+     * Blocks whose rows are in this snapshot. Compaction of blocks not scanned yet
+     * adds both blocks so the moved tuples don't end up in a block taken from an older snapshot.
+     */
+    boost::unordered_set<char*> m_modifiedBlocks;
+
+    /**
+     * Blocks that became modified by compaction and still need a segment saying so.
+     */
+    std::vector<char*> m_compactedBlocks;
+
+    /**
+     * Block of every backed up tuple, in the order they are in m_backedUpTuples.
+     */
+    std::vector<char*> m_backedUpTupleBlocks;
+    size_t m_backedUpTupleIndex;
+
+    /**
+     * Block of the segment being written in the current batch.
+     */
+    char *m_segmentBlock;
+
+    /**
+     * Give the site back after skipping this many tuples of unmodified blocks in a batch.
+     */
+    static const int64_t m_skippedTuplesThreshold = 256 * 1024;
+    int64_t m_skippedTuples;
+
+    bool writeBlockSegments(TupleOutputStreamProcessor &outputStreams);
+    bool writeIncrementalRow(TupleOutputStreamProcessor &outputStreams,
+                             TableTuple &tuple,
+                             bool *deleteTuple);
+
     void checkRemainingTuples(const std::string &label);
 
 };
@@ -29,8 +29,10 @@ CopyOnWriteIterator::CopyOnWriteIterator(
         m_blockOffset(0),
         m_currentBlock(NULL),
         m_tableEmpty(false),
+        m_skipBlocksBefore(0),
         m_skippedDirtyRows(0),
-        m_skippedInactiveRows(0) {
+        m_skippedInactiveRows(0),
+        m_skippedBlockTuples(0) {
 
     if ((m_blocks.size() == 1) && m_blockIterator.data()->isEmpty()) {
         // Empty persistent table - no tuples in table and table only
@@ -104,6 +106,12 @@ bool CopyOnWriteIterator::next(TableTuple &out) {
         return false;
     }
     while (true) {
+        if (m_blockOffset == 0 && m_currentBlock->lastModifiedGeneration() < m_skipBlocksBefore) {
+            // Nothing wrote to the block, so none of its tuples are dirty or pending delete
+            m_skippedBlockTuples += m_currentBlock->activeTuples();
+            m_blockOffset = m_currentBlock->unusedTupleBoundry();
+            m_location = m_currentBlock->address() + m_blockOffset * m_tupleLength;
+        }
         if (m_blockOffset >= m_currentBlock->unusedTupleBoundry()) {
             if (m_blockIterator == m_end) {
                 m_surgeon->snapshotFinishedScanningBlock(m_currentBlock, TBPtr());
@@ -127,6 +135,8 @@ bool CopyOnWriteIterator::next(TableTuple &out) {
             m_blocks.erase(finishedBlock);
             m_blockIterator = m_blocks.upper_bound(m_currentBlock->address());
             m_end = m_blocks.end();
+            // The new block may be skipped or have no tuples at all
+            continue;
         }
         assert(m_location < m_currentBlock.get()->address() + m_table->getTableAllocationSize());
         assert(m_location < m_currentBlock.get()->address() + (m_table->getTupleLength() * m_table->getTuplesPerBlock()));
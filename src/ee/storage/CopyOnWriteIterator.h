@@ -39,6 +39,14 @@ public:
 
     bool next(TableTuple &out);
 
+    /**
+     * Pass over whole blocks last modified before the given generation without
+     * returning their tuples. They are counted in m_skippedBlockTuples instead.
+     */
+    void skipBlocksModifiedBefore(int64_t generation) {
+        m_skipBlocksBefore = generation;
+    }
+
     void notifyBlockWasCompactedAway(TBPtr block) {
         if (m_blockIterator != m_end) {
             TBPtr nextBlock = m_blockIterator.data();
@@ -110,9 +118,12 @@ private:
     TBPtr m_currentBlock;
     // flag to track if the snapshot was activated when the table was empty
     bool m_tableEmpty;
+    // 0 unless unmodified blocks are skipped
+    int64_t m_skipBlocksBefore;
 public:
     int32_t m_skippedDirtyRows;
     int32_t m_skippedInactiveRows;
+    int64_t m_skippedBlockTuples;
 };
 }
 
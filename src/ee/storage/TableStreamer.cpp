@@ -97,6 +97,7 @@ bool TableStreamer::activateStream(PersistentTableSurgeon &surgeon,
             boost::shared_ptr<TableStreamerContext> context;
             switch (streamType) {
                 case TABLE_STREAM_SNAPSHOT:
+                case TABLE_STREAM_INCREMENTAL_SNAPSHOT:
                     // Constructor can throw exception when it parses the predicates.
                     context.reset(
                         new CopyOnWriteContext(m_table, surgeon, m_partitionId,
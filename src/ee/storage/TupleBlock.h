@@ -235,6 +235,18 @@ public:
     inline TBBucketPtr currentBucket() {
         return m_bucket;
     }
+
+    /**
+     * Incremental snapshot generation of the table when a tuple of this block was
+     * last inserted, updated, deleted or moved by compaction.
+     */
+    inline int64_t lastModifiedGeneration() const {
+        return m_lastModifiedGeneration;
+    }
+
+    inline void markModified(int64_t generation) {
+        m_lastModifiedGeneration = generation;
+    }
 private:
     char*   m_storage;
     uint32_t m_references;
@@ -255,6 +267,7 @@ private:
 
     TBBucketPtr m_bucket;
     int m_bucketIndex;
+    int64_t m_lastModifiedGeneration;
 };
 
 /**
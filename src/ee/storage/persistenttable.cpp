@@ -122,6 +122,7 @@ PersistentTable::PersistentTable(int partitionColumn, const char * signature, bo
     m_purgeExecutorVector(),
     m_stats(this),
     m_failedCompactionCount(0),
+    m_blockModificationGeneration(0),
     m_invisibleTuplesPendingDeleteCount(0),
     m_surgeon(*this),
     m_isMaterialized(isMaterialized),
@@ -227,6 +228,7 @@ void PersistentTable::nextFreeTuple(TableTuple *tuple) {
         stx::btree_set<TBPtr >::iterator begin = m_blocksWithSpace.begin();
         TBPtr block = (*begin);
         std::pair<char*, int> retval = block->nextFreeTuple();
+        markBlockModified(block);
 
         /**
          * Check to see if the block needs to move to a new bucket
@@ -263,6 +265,7 @@ void PersistentTable::nextFreeTuple(TableTuple *tuple) {
     assert (m_columnCount == tuple->sizeInValues());
 
     std::pair<char*, int> retval = block->nextFreeTuple();
+    markBlockModified(block);
 
     /**
      * Check to see if the block needs to move to a new bucket
@@ -899,6 +902,7 @@ void PersistentTable::updateTupleWithSpecificIndexes(TableTuple &targetTupleToUp
 
     // this is the actual write of the new values
     targetTupleToUpdate.copyForPersistentUpdate(sourceTupleWithNewValues, oldObjects, newObjects);
+    markBlockModified(targetTupleToUpdate.address());
 
     if (uq) {
         /*
@@ -989,6 +993,7 @@ void PersistentTable::updateTupleForUndo(char* tupleWithUnwantedValues,
     bool dirty = targetTupleToUpdate.isDirty();
     // this is the actual in-place revert to the old version
     targetTupleToUpdate.copy(sourceTupleWithNewValues);
+    markBlockModified(targetTupleToUpdate.address());
     if (dirty) {
         targetTupleToUpdate.setDirtyTrue();
     }
@@ -1113,6 +1118,8 @@ void PersistentTable::deleteTupleFinalize(TableTuple &target) {
 
         ++m_invisibleTuplesPendingDeleteCount;
         target.setPendingDeleteTrue();
+        // The snapshot has to visit the block to free the tuple
+        markBlockModified(target.address());
         return;
     }
 
@@ -1518,6 +1525,8 @@ void PersistentTable::notifyBlockWasCompactedAway(TBPtr block) {
 // Call-back from TupleBlock::merge() for each tuple moved.
 void PersistentTable::notifyTupleMovement(TBPtr sourceBlock, TBPtr targetBlock,
                                           TableTuple &sourceTuple, TableTuple &targetTuple) {
+    markBlockModified(sourceBlock);
+    markBlockModified(targetBlock);
     if (m_tableStreamer != NULL) {
         m_tableStreamer->notifyTupleMovement(sourceBlock, targetBlock, sourceTuple, targetTuple);
     }
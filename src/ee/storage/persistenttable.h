@@ -143,6 +143,8 @@ public:
     boost::shared_ptr<ElasticIndexTupleRangeIterator>
             getIndexTupleRangeIterator(const ElasticIndexHashRange &range);
     void activateSnapshot();
+    int64_t startIncrementalSnapshot(bool base);
+    TBPtr findBlock(char *tuple);
     void printIndex(std::ostream &os, int32_t limit) const;
     ElasticHash generateTupleHash(TableTuple &tuple) const;
 
@@ -636,6 +638,24 @@ private:
 
     TBPtr allocateNextBlock();
 
+    // Stamp a block with the current incremental snapshot generation so the next
+    // incremental snapshot includes it. Does nothing until the table has been
+    // incrementally snapshotted once.
+    void markBlockModified(TBPtr block) {
+        if (m_blockModificationGeneration > 0) {
+            block->markModified(m_blockModificationGeneration);
+        }
+    }
+
+    void markBlockModified(char *tuple) {
+        if (m_blockModificationGeneration > 0) {
+            TBPtr block = findBlock(tuple, m_data, m_tableAllocationSize);
+            if (block.get() != NULL) {
+                block->markModified(m_blockModificationGeneration);
+            }
+        }
+    }
+
     inline AbstractDRTupleStream *getDRTupleStream(ExecutorContext *ec) {
         if (isReplicatedTable()) {
             return ec->drReplicatedStream();
@@ -700,6 +720,10 @@ private:
     TBMap m_data;
     int m_failedCompactionCount;
 
+    // Generation stamped on modified blocks, bumped by every incremental snapshot.
+    // 0 until the first incremental snapshot turns the tracking on.
+    int64_t m_blockModificationGeneration;
+
     // This is a testability feature not intended for use in product logic.
     int m_invisibleTuplesPendingDeleteCount;
 
@@ -799,6 +823,21 @@ inline void PersistentTableSurgeon::snapshotFinishedScanningBlock(TBPtr finished
     m_table.snapshotFinishedScanningBlock(finishedBlock, nextBlock);
 }
 
+/**
+ * Start a new incremental snapshot generation and return the oldest generation whose
+ * blocks it has to include. 0, every block, for a base snapshot or when the table
+ * wasn't tracking modifications yet.
+ */
+inline int64_t PersistentTableSurgeon::startIncrementalSnapshot(bool base) {
+    int64_t since = base ? 0 : m_table.m_blockModificationGeneration;
+    m_table.m_blockModificationGeneration++;
+    return since;
+}
+
+inline TBPtr PersistentTableSurgeon::findBlock(char *tuple) {
+    return PersistentTable::findBlock(tuple, m_table.m_data, m_table.m_tableAllocationSize);
+}
+
 inline bool PersistentTableSurgeon::hasIndex() const {
     return (m_index != NULL);
 }
@@ -956,6 +995,7 @@ inline void PersistentTable::deleteTupleStorage(TableTuple &tuple, TBPtr block,
             throwFatalException("Tried to find a tuple block for a tuple but couldn't find one");
         }
     }
+    markBlockModified(block);
 
     bool transitioningToBlockWithSpace = !block->hasFreeTuples();
 
@@ -76,7 +76,11 @@ public class ForeignHost {
     public static final int CRASH_ME = 1;
     public static final int CRASH_SPECIFIED = 2;
 
-    /** ForeignHost's implementation of InputHandler */
+    /**
+     * ForeignHost's implementation of InputHandler. Messages are always copied out of the read
+     * buffers, the VoltMessages deserialized from them keep references into the message after
+     * handleMessage returns.
+     */
     public class FHInputHandler extends VoltProtocolHandler {
 
         @Override
@@ -56,6 +56,7 @@ import org.voltcore.agreement.AgreementSite;
 import org.voltcore.agreement.InterfaceToMessenger;
 import org.voltcore.common.Constants;
 import org.voltcore.logging.VoltLogger;
+import org.voltcore.network.CoreBinder;
 import org.voltcore.network.PicoNetwork;
 import org.voltcore.network.VoltNetworkPool;
 import org.voltcore.network.VoltNetworkPool.IOStatsIntf;
@@ -116,6 +117,8 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
 
         private static final String ACCEPTOR = "acceptor";
         private static final String NETWORK_THREADS = "networkThreads";
+        private static final String NETWORK_PLACEMENT = "networkPlacement";
+        private static final String NETWORK_BUSY_POLL_MICROS = "networkBusyPollMicros";
         private static final String BACKWARDS_TIME_FORGIVENESS_WINDOW = "backwardstimeforgivenesswindow";
         private static final String DEAD_HOST_TIMEOUT = "deadhosttimeout";
         private static final String INTERNAL_PORT = "internalport";
@@ -134,6 +137,11 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
         public VoltMessageFactory factory = new VoltMessageFactory();
         public int networkThreads =  Math.max(2, CoreUtils.availableProcessors() / 4);
         public Queue<String> coreBindIds;
+        // Binds network threads to coreBindIds, supplied by the server since it needs native code
+        public CoreBinder coreBinder = null;
+        public VoltNetworkPool.Placement networkPlacement = VoltNetworkPool.Placement.LEAST_LOADED;
+        // 0 means network threads block in the selector as soon as they are idle
+        public long networkBusyPollNanos = 0;
         public JoinAcceptor acceptor = null;
 
         public Config(String coordIp, int coordPort) {
@@ -205,6 +213,20 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
             } catch (Exception e) {
                 m_networkLog.error("Error setting network thread count", e);
             }
+            try {
+                String placement = System.getProperty(NETWORK_PLACEMENT);
+                if (placement != null) {
+                    this.networkPlacement = VoltNetworkPool.Placement.valueOf(placement.trim().toUpperCase());
+                    m_networkLog.info("Overridden network connection placement: " + this.networkPlacement);
+                }
+                Long busyPollMicros = Long.getLong(NETWORK_BUSY_POLL_MICROS);
+                if (busyPollMicros != null && busyPollMicros > 0) {
+                    this.networkBusyPollNanos = TimeUnit.MICROSECONDS.toNanos(busyPollMicros);
+                    m_networkLog.info("Network threads busy poll for " + busyPollMicros + " microseconds");
+                }
+            } catch (Exception e) {
+                m_networkLog.error("Error setting network thread placement and polling", e);
+            }
         }
 
         @Override
@@ -341,7 +363,8 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
     public HostMessenger(Config config, HostWatcher hostWatcher) {
         m_config = config;
         m_hostWatcher = hostWatcher;
-        m_network = new VoltNetworkPool(m_config.networkThreads, 0, m_config.coreBindIds, "Server");
+        m_network = new VoltNetworkPool(m_config.networkThreads, 0, m_config.coreBindIds, m_config.coreBinder,
+                "Server", m_config.networkPlacement, m_config.networkBusyPollNanos);
         m_acceptor = config.acceptor;
         m_joiner = new SocketJoiner(
                 m_config.internalInterface,
@@ -1455,6 +1478,11 @@ public class HostMessenger implements SocketJoiner.JoinHandler, InterfaceToMesse
         return m_network.getIOStats(interval, picoNetworks);
     }
 
+    public Map<Integer, Pair<String, long[]>>
+        getReactorStats(final boolean interval) throws InterruptedException, ExecutionException {
+        return m_network.getReactorStats(interval);
+    }
+
     /**
      * Cut the network connection between two hostids immediately
      * Useful for simulating network partitions
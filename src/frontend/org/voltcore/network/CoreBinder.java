@@ -0,0 +1,30 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.voltcore.network;
+
+/*
+ * Binds network threads to CPUs. Binding needs native code that only the server
+ * ships, so the server hands an implementation to its VoltNetworkPool.
+ */
+public interface CoreBinder {
+    /**
+     * Bind the calling thread to a set of CPUs.
+     * @param cpus A CPU number or an inclusive range of them, like 4 or 2-3
+     * @return true if the thread was bound
+     */
+    public boolean bindCurrentThread(String cpus);
+}
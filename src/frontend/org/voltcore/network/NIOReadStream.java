@@ -63,7 +63,22 @@ public class NIOReadStream {
     }
 
     int getInt() {
-        // TODO: Optimize?
+        if (m_totalAvailable < 4) {
+            throw new IllegalStateException("Requested 4 bytes; only have "
+                    + m_totalAvailable + " bytes; call tryRead() first");
+        }
+        final ByteBuffer first = firstReadBuffer().b();
+        //Fast path, the int is in a single buffer
+        if (first.remaining() >= 4) {
+            //Assemble it by hand, a pooled buffer may have been left in either byte order
+            final int output = ((first.get() & 0xff) << 24) | ((first.get() & 0xff) << 16) |
+                               ((first.get() & 0xff) << 8) | (first.get() & 0xff);
+            m_totalAvailable -= 4;
+            if (first.remaining() == 0) {
+                retire(m_readBuffers.poll());
+            }
+            return output;
+        }
         byte[] intbytes = new byte[4];
         getBytes(intbytes);
         int output = 0;
@@ -74,6 +89,72 @@ public class NIOReadStream {
         return output;
     }
 
+    /**
+     * Return a view of the next length bytes without copying them, if they lie entirely
+     * within a single read buffer. Returns null if they span buffers, in which case nothing is consumed
+     * and the caller has to copy them out with getBytes.
+     *
+     * The view points into a pooled buffer, so it is only valid until releaseSlices() is called.
+     * Until then the stream holds on to every buffer it has finished with instead of
+     * returning it to the pool. Slices aren't reference counted, the network thread releases all
+     * of them after each message, so none can be kept past the handleMessage call it was passed to.
+     */
+    ByteBuffer getSlice(int length) {
+        if (m_totalAvailable < length) {
+            throw new IllegalStateException("Requested " + length + " bytes; only have "
+                    + m_totalAvailable + " bytes; call tryRead() first");
+        }
+        final BBContainer firstC = firstReadBuffer();
+        final ByteBuffer first = firstC.b();
+        if (first.remaining() < length) {
+            return null;
+        }
+        final ByteBuffer slice = first.slice();
+        slice.limit(length);
+        first.position(first.position() + length);
+        m_totalAvailable -= length;
+        m_slices++;
+        if (first.remaining() == 0) {
+            retire(m_readBuffers.poll());
+        }
+        return slice;
+    }
+
+    /**
+     * Invalidate the views returned by getSlice() and return the buffers they pinned to the pool
+     */
+    void releaseSlices() {
+        m_slices = 0;
+        BBContainer c = null;
+        while ((c = m_retiredBuffers.poll()) != null) {
+            c.discard();
+        }
+    }
+
+    /*
+     * Return a buffer that has been read completely to the pool, unless
+     * a slice handed out by getSlice() may still point into it
+     */
+    private void retire(BBContainer c) {
+        if (m_slices > 0) {
+            m_retiredBuffers.add(c);
+        } else {
+            c.discard();
+        }
+    }
+
+    private BBContainer firstReadBuffer() {
+        BBContainer firstC = m_readBuffers.peekFirst();
+        if (firstC == null) {
+            // Steal the write buffer
+            m_writeBuffer.b().flip();
+            m_readBuffers.add(m_writeBuffer);
+            firstC = m_writeBuffer;
+            m_writeBuffer = null;
+        }
+        return firstC;
+    }
+
     void getBytes(byte[] output) {
         if (m_totalAvailable < output.length) {
             throw new IllegalStateException("Requested " + output.length + " bytes; only have "
@@ -82,14 +163,7 @@ public class NIOReadStream {
 
         int bytesCopied = 0;
         while (bytesCopied < output.length) {
-            BBContainer firstC = m_readBuffers.peekFirst();
-            if (firstC == null) {
-                // Steal the write buffer
-                m_writeBuffer.b().flip();
-                m_readBuffers.add(m_writeBuffer);
-                firstC = m_writeBuffer;
-                m_writeBuffer = null;
-            }
+            BBContainer firstC = firstReadBuffer();
             ByteBuffer first = firstC.b();
             assert first.remaining() > 0;
 
@@ -104,7 +178,7 @@ public class NIOReadStream {
             if (first.remaining() == 0) {
                 // read an entire block: move it to the empty buffers list
                 m_readBuffers.poll();
-                firstC.discard();
+                retire(firstC);
             }
         }
     }
@@ -175,9 +249,14 @@ public class NIOReadStream {
         }
         m_readBuffers.clear();
         m_writeBuffer = null;
+        releaseSlices();
     }
 
     private final ArrayDeque<BBContainer> m_readBuffers = new ArrayDeque<BBContainer>();
+    /** Buffers that have been read completely but may still be referenced by slices */
+    private final ArrayDeque<BBContainer> m_retiredBuffers = new ArrayDeque<BBContainer>();
+    /** Slices handed out since the last releaseSlices() */
+    private int m_slices = 0;
     private BBContainer m_writeBuffer = null;
     private int m_totalAvailable = 0;
     private long m_bytesRead = 0;
@@ -30,8 +30,9 @@ import org.voltcore.utils.EstTime;
 /**
 *
 *  Provide a queue for ByteBuffers and DeferredSerializations and drain them to gathering ByteChannel.
-*  Uses a thread local memory pool for serializing messages that are < MAX_GATHERING_WRITE size and HeapByteBuffers
-*  otherwise. Jumps through serious hoops to avoid ever writing large HeapByteBuffers to the channel
+*  Messages are serialized straight into the network thread's pool of slab sized DirectByteBuffers, messages
+*  bigger than a slab are serialized to a HeapByteBuffer and copied across several slabs. The slabs are flushed
+*  with a single gathering write per drain. Jumps through serious hoops to avoid ever writing large HeapByteBuffers to the channel
 *  because Java will allocate a DirectByteBuffer and copy ALL the data into the DirectByteBuffer even if only
 *  a small fraction can reasonably be written to the channel. This wastes time in copying data that can never possibly
 *  make it into the channel in non blocking mode and space because the DirectByteBuffer is never released unlike
@@ -312,10 +313,10 @@ public class NIOWriteStream extends NIOWriteStreamBase implements WriteStream {
     }
 
     /**
-     * Does the work of queueing addititional buffers that have been serialized
-     * and choosing between gathering and regular writes to the channel. Also splits up very large
-     * writes of HeapByteBuffers into many smaller writes so Java doesn't allocate a monster DirectByteBuffer
-     * that will never be freed
+     * Does the work of flushing the serialized buffers to the channel. All of them go out in a single
+     * gathering write per call, unless there are more than fit in one write. Messages are serialized
+     * into pooled direct buffers so Java never has to copy a HeapByteBuffer into a temporary
+     * DirectByteBuffer on the way to the socket.
      * @param channel
      * @return
      * @throws IOException
@@ -329,38 +330,24 @@ public class NIOWriteStream extends NIOWriteStreamBase implements WriteStream {
                 /*
                  * Nothing to write
                  */
-                if (m_currentWriteBuffer == null && m_queuedBuffers.isEmpty()) {
+                if (m_writingBuffers.isEmpty() && m_queuedBuffers.isEmpty()) {
                     return bytesWritten;
                 }
 
-                ByteBuffer buffer = null;
-                if (m_currentWriteBuffer == null) {
-                    m_currentWriteBuffer = m_queuedBuffers.poll();
-                    buffer = m_currentWriteBuffer.b();
-                    buffer.flip();
-                } else {
-                    buffer = m_currentWriteBuffer.b();
-                }
-
-                rc = channel.write(buffer);
-
-                //Discard the buffer back to a pool if no data remains
-                if (buffer.hasRemaining()) {
-                    if (!m_hadBackPressure) {
-                        backpressureStarted();
-                    }
-                } else {
-                    m_currentWriteBuffer.discard();
-                    m_currentWriteBuffer = null;
-                    m_messagesWritten++;
-                }
+                rc = gatheringWrite(channel);
                 bytesWritten += rc;
+            } while (rc > 0 && hasMoreToGather());
 
-            } while (rc > 0);
+            if (!m_writingBuffers.isEmpty()) {
+                if (!m_hadBackPressure) {
+                    backpressureStarted();
+                }
+            }
         } finally {
             //We might fail after writing few bytes. make sure the ones that are written accounted for.
             //Not sure if we need to do any backpressure magic as client is dead and so no backpressure on this may be needed.
-            if (m_queuedBuffers.isEmpty() && m_hadBackPressure && m_queuedWrites.size() <= m_maxQueuedWritesBeforeBackpressure) {
+            if (m_queuedBuffers.isEmpty() && m_writingBuffers.isEmpty() && m_hadBackPressure &&
+                    m_queuedWrites.size() <= m_maxQueuedWritesBeforeBackpressure) {
                 backpressureEnded();
             }
             //Same here I dont know if we do need to do this housekeeping??
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.GatheringByteChannel;
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
 import org.voltcore.logging.Level;
@@ -38,15 +39,29 @@ import org.voltcore.utils.RateLimitedLogger;
 public abstract class NIOWriteStreamBase {
     private static final VoltLogger networkLog = new VoltLogger("NETWORK");
 
-    protected boolean m_isShutdown = false;
+    /*
+     * Cap on the buffers handed to a single gathering write, the kernel won't take more
+     * than IOV_MAX (1024 on Linux) per call anyway
+     */
+    private static final int MAX_GATHERING_BUFFERS = 256;
 
-    protected BBContainer m_currentWriteBuffer = null;
+    protected boolean m_isShutdown = false;
 
     /**
      * Contains serialized buffers ready to write to the socket
      */
     protected final ArrayDeque<BBContainer> m_queuedBuffers = new ArrayDeque<BBContainer>();
 
+    /**
+     * Buffers that have been flipped and handed to the channel, the first one may be partially written
+     */
+    protected final ArrayDeque<BBContainer> m_writingBuffers = new ArrayDeque<BBContainer>();
+
+    /*
+     * Reused by every gathering write so draining allocates nothing
+     */
+    private ByteBuffer[] m_gatherArray = new ByteBuffer[16];
+
     protected long m_bytesWritten = 0;
     protected long m_messagesWritten = 0;
 
@@ -77,16 +92,67 @@ public abstract class NIOWriteStreamBase {
      */
     public int getOutstandingMessageCount()
     {
-        return m_queuedBuffers.size();
+        return m_queuedBuffers.size() + m_writingBuffers.size();
     }
 
     public boolean isEmpty()
     {
-        return m_queuedBuffers.isEmpty() && m_currentWriteBuffer == null;
+        return m_queuedBuffers.isEmpty() && m_writingBuffers.isEmpty();
     }
 
     abstract int drainTo (final GatheringByteChannel channel) throws IOException;
 
+    /**
+     * Hand every serialized buffer to the channel with one gathering write. Buffers that
+     * were completely written are returned to the pool.
+     * @param channel
+     * @return the number of bytes written
+     * @throws IOException
+     */
+    protected final long gatheringWrite(final GatheringByteChannel channel) throws IOException {
+        //Everything serialized so far is final, new messages start a fresh buffer
+        BBContainer cont = null;
+        while ((cont = m_queuedBuffers.poll()) != null) {
+            cont.b().flip();
+            m_writingBuffers.offer(cont);
+        }
+
+        final int count = Math.min(m_writingBuffers.size(), MAX_GATHERING_BUFFERS);
+        if (count == 0) return 0;
+        if (m_gatherArray.length < count) {
+            m_gatherArray = new ByteBuffer[Integer.highestOneBit(count) << 1];
+        }
+        int ii = 0;
+        for (BBContainer c : m_writingBuffers) {
+            if (ii == count) break;
+            m_gatherArray[ii++] = c.b();
+        }
+
+        final long rc;
+        try {
+            rc = channel.write(m_gatherArray, 0, count);
+        } finally {
+            //Don't keep pooled buffers reachable from the array
+            Arrays.fill(m_gatherArray, 0, count, null);
+        }
+
+        //Discard the buffers back to the pool if no data remains
+        while ((cont = m_writingBuffers.peek()) != null && !cont.b().hasRemaining()) {
+            m_writingBuffers.poll().discard();
+            m_messagesWritten++;
+        }
+        return rc;
+    }
+
+    /**
+     * True when the last gathering write took everything it was offered but there were more
+     * buffers than fit in one write. A partially written buffer means the socket is full.
+     */
+    protected final boolean hasMoreToGather() {
+        final BBContainer next = m_writingBuffers.peek();
+        return next != null && next.b().position() == 0;
+    }
+
     protected abstract ArrayDeque<DeferredSerialization> getQueuedWrites();
 
     /**
@@ -108,7 +174,14 @@ public abstract class NIOWriteStreamBase {
             if (serializedSize == DeferredSerialization.EMPTY_MESSAGE_LENGTH) continue;
             BBContainer outCont = m_queuedBuffers.peekLast();
             ByteBuffer outbuf = null;
-            if (outCont == null || !outCont.b().hasRemaining()) {
+            /*
+             * Start a new buffer if the last one is full, or if this message
+             * would fit in a buffer of its own but not in what is left of the last one,
+             * the gathering write doesn't care about the unused tail.
+             */
+            if (outCont == null ||
+                    !outCont.b().hasRemaining() ||
+                    (outCont.b().remaining() < serializedSize && outCont.b().capacity() >= serializedSize)) {
                 outCont = pool.acquire();
                 outCont.b().clear();
                 m_queuedBuffers.offer(outCont);
@@ -128,7 +201,7 @@ public abstract class NIOWriteStreamBase {
                 outbuf.position(outbuf.limit());
                 outbuf.limit(oldLimit);
             } else {
-                //Slow path serialize to heap, and then put in buffers
+                //Slow path for messages bigger than a pool buffer, serialize to heap and then put in buffers
                 ByteBuffer buf = ByteBuffer.allocate(serializedSize);
                 ds.serialize(buf);
                 checkSloppySerialization(buf, ds);
@@ -189,9 +262,9 @@ public abstract class NIOWriteStreamBase {
         int bytesReleased = 0;
         m_isShutdown = true;
         BBContainer c = null;
-        if (m_currentWriteBuffer != null) {
-            bytesReleased += m_currentWriteBuffer.b().remaining();
-            m_currentWriteBuffer.discard();
+        while ((c = m_writingBuffers.poll()) != null) {
+            bytesReleased += c.b().remaining();
+            c.discard();
         }
         while ((c = m_queuedBuffers.poll()) != null) {
             //Buffer is not flipped after being written to in swap and serialize, need to do it here
@@ -236,7 +236,12 @@ public class PicoNetwork implements Runnable, Connection, IOStatsIntf
              */
             try {
                 while ((message = m_ih.retrieveNextMessage( m_readStream )) != null) {
-                    m_ih.handleMessage( message, this);
+                    try {
+                        m_ih.handleMessage( message, this);
+                    } finally {
+                        //Invalidates the message if the handler was given a slice of a read buffer
+                        m_readStream.releaseSlices();
+                    }
                     m_messagesRead++;
                 }
             }
@@ -81,6 +81,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import jsr166y.ThreadLocalRandom;
@@ -103,10 +104,33 @@ class VoltNetwork implements Runnable, IOStatsIntf
     private final AtomicInteger m_numPorts = new AtomicInteger();
     final NetworkDBBPool m_pool = new NetworkDBBPool();
     private final String m_coreBindId;
+    private final CoreBinder m_coreBinder;
     final String networkThreadName;
+    final int m_networkId;
+    // How long to keep polling the selector without blocking after the last event, 0 to always block
+    private final long m_busyPollNanos;
 
     private final NinjaKeySet m_ninjaSelectedKeys;
 
+    /*
+     * Reactor statistics, only touched by the network thread. Busy time is time
+     * spent handling ready ports and tasks rather than waiting in the selector.
+     */
+    private final long m_startNanos = System.nanoTime();
+    private long m_selects = 0;
+    private long m_tasksRun = 0;
+    private long m_busyNanos = 0;
+    // Counters of ports that have been unregistered, so reactor totals don't go backwards
+    private final long m_closedPortCounters[] = new long[4];
+    private long m_lastReactorStats[] = new long[VoltNetworkPool.REACTOR_STAT_COUNT];
+    private long m_lastReactorStatsNanos = m_startNanos;
+
+    // Share of the last load sample spent busy, in thousandths, read by the pool for placement
+    static final long LOAD_SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private volatile int m_loadPermille = 0;
+    private long m_loadSampleStartNanos = m_startNanos;
+    private long m_loadSampleBusyNanos = 0;
+
     /**
      * Start this VoltNetwork's thread;
      */
@@ -120,10 +144,17 @@ class VoltNetwork implements Runnable, IOStatsIntf
      * and runOnce should be called periodically
      **/
     VoltNetwork(int networkId, String coreBindId, String networkName) {
+        this(networkId, coreBindId, null, networkName, 0);
+    }
+
+    VoltNetwork(int networkId, String coreBindId, CoreBinder coreBinder, String networkName, long busyPollNanos) {
+        m_networkId = networkId;
+        m_busyPollNanos = busyPollNanos;
         m_thread = new Thread(this, "Volt " + networkName + " Network - " + networkId);
         networkThreadName = new String("Volt " + networkName + " Network - " + networkId);
         m_thread.setDaemon(true);
         m_coreBindId = coreBindId;
+        m_coreBinder = coreBinder;
         try {
             m_selector = Selector.open();
         } catch (IOException ex) {
@@ -134,9 +165,12 @@ class VoltNetwork implements Runnable, IOStatsIntf
     }
 
     VoltNetwork( Selector s) {
+        m_networkId = 0;
+        m_busyPollNanos = 0;
         m_thread = null;
         m_selector = s;
         m_coreBindId = null;
+        m_coreBinder = null;
         networkThreadName = new String("Test Selector Thread");
         m_ninjaSelectedKeys = NinjaKeySet.instrumentSelector(m_selector);
     }
@@ -236,7 +270,9 @@ class VoltNetwork implements Runnable, IOStatsIntf
                             selectionKey.attach(null);
                             selectionKey.cancel();
                         } finally {
-                            m_ports.remove(port);
+                            if (m_ports.remove(port)) {
+                                retirePortCounters(port);
+                            }
                             m_numPorts.decrementAndGet();
                         }
                     }
@@ -286,9 +322,14 @@ class VoltNetwork implements Runnable, IOStatsIntf
     public void run() {
         final ThreadLocalRandom r = ThreadLocalRandom.current();
         if (m_coreBindId != null) {
-            // Remove Affinity for now to make this dependency dissapear from the client.
-            // Goal is to remove client dependency on this class in the medium term.
-            //PosixJNAAffinity.INSTANCE.setAffinity(m_coreBindId);
+            if (m_coreBinder == null) {
+                networkLog.warn("Unable to bind " + networkThreadName + " to CPU " + m_coreBindId +
+                        ", core binding is not available");
+            } else if (m_coreBinder.bindCurrentThread(m_coreBindId)) {
+                networkLog.info(networkThreadName + " bound to CPU " + m_coreBindId);
+            } else {
+                networkLog.warn("Unable to bind " + networkThreadName + " to CPU " + m_coreBindId);
+            }
         }
         try {
             while (m_shouldStop == false) {
@@ -296,7 +337,8 @@ class VoltNetwork implements Runnable, IOStatsIntf
                     while (m_shouldStop == false) {
                         LatencyWatchdog.pet();
 
-                        final int readyKeys = m_selector.select();
+                        final int readyKeys = m_busyPollNanos > 0 ? busyPollSelect() : m_selector.select();
+                        final long busyStartNanos = System.nanoTime();
 
                         /*
                          * Run the task queue immediately after selection to catch
@@ -305,6 +347,7 @@ class VoltNetwork implements Runnable, IOStatsIntf
                         Runnable task = null;
                         while ((task = m_tasks.poll()) != null) {
                             task.run();
+                            m_tasksRun++;
                         }
 
                         if (readyKeys > 0) {
@@ -322,7 +365,10 @@ class VoltNetwork implements Runnable, IOStatsIntf
                         task = null;
                         while ((task = m_tasks.poll()) != null) {
                             task.run();
+                            m_tasksRun++;
                         }
+
+                        accountBusyTime(busyStartNanos, System.nanoTime());
                     }
                 } catch (Throwable ex) {
                     ex.printStackTrace();
@@ -341,6 +387,43 @@ class VoltNetwork implements Runnable, IOStatsIntf
         }
     }
 
+    /*
+     * Poll the selector without blocking until something is ready or the busy poll
+     * period passes with nothing to do, then fall back to a blocking select. Trades a
+     * core for not paying the wakeup latency of a blocked selector.
+     */
+    private int busyPollSelect() throws IOException {
+        final long pollUntilNanos = System.nanoTime() + m_busyPollNanos;
+        do {
+            final int readyKeys = m_selector.selectNow();
+            if (readyKeys > 0 || !m_tasks.isEmpty()) {
+                return readyKeys;
+            }
+        } while (System.nanoTime() - pollUntilNanos < 0 && m_shouldStop == false);
+        return m_selector.select();
+    }
+
+    private void accountBusyTime(long busyStartNanos, long nowNanos) {
+        m_selects++;
+        m_busyNanos += nowNanos - busyStartNanos;
+        m_loadSampleBusyNanos += nowNanos - busyStartNanos;
+        final long sampleNanos = nowNanos - m_loadSampleStartNanos;
+        if (sampleNanos >= LOAD_SAMPLE_NANOS) {
+            m_loadPermille = (int)Math.min(1000, m_loadSampleBusyNanos * 1000 / sampleNanos);
+            m_loadSampleStartNanos = nowNanos;
+            m_loadSampleBusyNanos = 0;
+        }
+    }
+
+    /**
+     * Share of recent time this network thread spent busy, in thousandths. The
+     * sample is only refreshed when the thread wakes up, so an idle thread may
+     * report the load from its last burst of activity.
+     */
+    int getLoadPermille() {
+        return m_loadPermille;
+    }
+
     private void p_shutdown() {
         Set<SelectionKey> keys = m_selector.keys();
 
@@ -392,11 +475,21 @@ class VoltNetwork implements Runnable, IOStatsIntf
         if (key.isValid()) {
             key.interestOps (port.interestOps());
         } else {
-            m_ports.remove(port);
+            if (m_ports.remove(port)) {
+                retirePortCounters(port);
+            }
             m_numPorts.decrementAndGet();
         }
     }
 
+    private void retirePortCounters(VoltPort port) {
+        final long writeInfo[] = port.writeStream().getBytesAndMessagesWritten(false);
+        m_closedPortCounters[0] += port.readStream().getBytesRead(false);
+        m_closedPortCounters[1] += port.getMessagesRead(false);
+        m_closedPortCounters[2] += writeInfo[0];
+        m_closedPortCounters[3] += writeInfo[1];
+    }
+
     private void callPort(final VoltPort port) {
         try {
             port.lockForHandlingWork();
@@ -535,6 +628,56 @@ class VoltNetwork implements Runnable, IOStatsIntf
         return ft;
     }
 
+    private long[] getReactorStatsImpl(boolean interval) {
+        final long nowNanos = System.nanoTime();
+        final long stats[] = new long[VoltNetworkPool.REACTOR_STAT_COUNT];
+        stats[VoltNetworkPool.REACTOR_BYTES_READ] = m_closedPortCounters[0];
+        stats[VoltNetworkPool.REACTOR_MESSAGES_READ] = m_closedPortCounters[1];
+        stats[VoltNetworkPool.REACTOR_BYTES_WRITTEN] = m_closedPortCounters[2];
+        stats[VoltNetworkPool.REACTOR_MESSAGES_WRITTEN] = m_closedPortCounters[3];
+        for (VoltPort p : m_ports) {
+            final long writeInfo[] = p.writeStream().getBytesAndMessagesWritten(false);
+            stats[VoltNetworkPool.REACTOR_BYTES_READ] += p.readStream().getBytesRead(false);
+            stats[VoltNetworkPool.REACTOR_MESSAGES_READ] += p.getMessagesRead(false);
+            stats[VoltNetworkPool.REACTOR_BYTES_WRITTEN] += writeInfo[0];
+            stats[VoltNetworkPool.REACTOR_MESSAGES_WRITTEN] += writeInfo[1];
+        }
+        stats[VoltNetworkPool.REACTOR_SELECTS] = m_selects;
+        stats[VoltNetworkPool.REACTOR_TASKS] = m_tasksRun;
+        stats[VoltNetworkPool.REACTOR_BUSY_NANOS] = m_busyNanos;
+        stats[VoltNetworkPool.REACTOR_ELAPSED_NANOS] = nowNanos - m_startNanos;
+
+        if (interval) {
+            final long cumulative[] = stats.clone();
+            for (int ii = VoltNetworkPool.REACTOR_BYTES_READ; ii < VoltNetworkPool.REACTOR_STAT_COUNT; ii++) {
+                stats[ii] -= m_lastReactorStats[ii];
+            }
+            stats[VoltNetworkPool.REACTOR_ELAPSED_NANOS] = nowNanos - m_lastReactorStatsNanos;
+            m_lastReactorStats = cumulative;
+            m_lastReactorStatsNanos = nowNanos;
+        }
+        stats[VoltNetworkPool.REACTOR_CONNECTIONS] = m_ports.size();
+        return stats;
+    }
+
+    /**
+     * Statistics for this network thread as a whole, laid out as described in
+     * {@link VoltNetworkPool#getReactorStats(boolean)}
+     */
+    Future<long[]> getReactorStats(final boolean interval) {
+        FutureTask<long[]> ft = new FutureTask<long[]>(new Callable<long[]>() {
+            @Override
+            public long[] call() throws Exception {
+                return getReactorStatsImpl(interval);
+            }
+        });
+
+        m_tasks.offer(ft);
+        m_selector.wakeup();
+
+        return ft;
+    }
+
     Long getThreadId() {
         return m_thread.getId();
     }
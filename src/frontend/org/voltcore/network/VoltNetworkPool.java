@@ -28,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -43,10 +44,35 @@ public class VoltNetworkPool {
         Future<Map<Long, Pair<String, long[]>>> getIOStats(final boolean interval);
     }
 
+    /**
+     * How new connections are assigned to network threads
+     */
+    public enum Placement {
+        // Take turns regardless of load
+        ROUND_ROBIN,
+        // The thread that was least busy recently, then the one with the fewest connections
+        LEAST_LOADED
+    }
+
+    /*
+     * Layout of the per network thread statistics returned by getReactorStats
+     */
+    public static final int REACTOR_CONNECTIONS = 0;
+    public static final int REACTOR_BYTES_READ = 1;
+    public static final int REACTOR_MESSAGES_READ = 2;
+    public static final int REACTOR_BYTES_WRITTEN = 3;
+    public static final int REACTOR_MESSAGES_WRITTEN = 4;
+    public static final int REACTOR_SELECTS = 5;
+    public static final int REACTOR_TASKS = 6;
+    public static final int REACTOR_BUSY_NANOS = 7;
+    public static final int REACTOR_ELAPSED_NANOS = 8;
+    public static final int REACTOR_STAT_COUNT = 9;
+
     private static final VoltLogger m_logger = new VoltLogger(VoltNetworkPool.class.getName());
 
     private final VoltNetwork m_networks[];
     private final AtomicLong m_nextNetwork = new AtomicLong();
+    private final Placement m_placement;
     public final String m_poolName;
 
     public VoltNetworkPool() {
@@ -54,7 +80,31 @@ public class VoltNetworkPool {
     }
 
     public VoltNetworkPool(int numThreads, int startThreadId, Queue<String> coreBindIds, String poolName) {
+        this(numThreads, startThreadId, coreBindIds, poolName, Placement.LEAST_LOADED, 0);
+    }
+
+    /**
+     * @param numThreads Number of network threads, ignored if core bindings are provided
+     * @param startThreadId Number of the first thread, used in thread names
+     * @param coreBindIds CPUs to bind each network thread to, one thread is started for each
+     * @param poolName Name used in thread names
+     * @param placement How connections are assigned to network threads
+     * @param busyPollNanos How long network threads poll their selector without blocking
+     *                      after the last event, 0 to always block
+     */
+    public VoltNetworkPool(int numThreads, int startThreadId, Queue<String> coreBindIds, String poolName,
+            Placement placement, long busyPollNanos) {
+        this(numThreads, startThreadId, coreBindIds, null, poolName, placement, busyPollNanos);
+    }
+
+    /**
+     * @param coreBinder Binds network threads to the CPUs in coreBindIds, if null the
+     *                   threads are left unbound
+     */
+    public VoltNetworkPool(int numThreads, int startThreadId, Queue<String> coreBindIds, CoreBinder coreBinder,
+            String poolName, Placement placement, long busyPollNanos) {
         m_poolName = poolName;
+        m_placement = placement;
         if (numThreads < 1) {
             throw new IllegalArgumentException("Must specify a positive number of threads");
         }
@@ -62,14 +112,14 @@ public class VoltNetworkPool {
             m_networks = new VoltNetwork[numThreads];
             for (int ii = 0; ii < numThreads; ii++) {
                 // Adding startThreadId avoids unnecessary polling for non-Server VoltNetworkPools
-                m_networks[ii] = new VoltNetwork(ii+startThreadId, null, poolName);
+                m_networks[ii] = new VoltNetwork(ii+startThreadId, null, null, poolName, busyPollNanos);
             }
         } else {
             final int coreBindIdsSize = coreBindIds.size();
             m_networks = new VoltNetwork[coreBindIdsSize];
             for (int ii = 0; ii < coreBindIdsSize; ii++) {
                 // Adding startThreadId avoids unnecessary polling for non-Server VoltNetworkPools
-                m_networks[ii] = new VoltNetwork(ii+startThreadId, coreBindIds.poll(), poolName);
+                m_networks[ii] = new VoltNetwork(ii+startThreadId, coreBindIds.poll(), coreBinder, poolName, busyPollNanos);
             }
         }
     }
@@ -99,16 +149,31 @@ public class VoltNetworkPool {
             final ReverseDNSPolicy dns) throws IOException {
         //Start with a round robin base policy
         VoltNetwork vn = m_networks[(int)(m_nextNetwork.getAndIncrement() % m_networks.length)];
-        //Then do a load based policy which is a little racy
-        for (int ii = 0; ii < m_networks.length; ii++) {
-            if (m_networks[ii] == vn) continue;
-            if (vn.numPorts() > m_networks[ii].numPorts()) {
-                vn = m_networks[ii];
+        if (m_placement == Placement.LEAST_LOADED) {
+            //Then do a load based policy which is a little racy
+            for (int ii = 0; ii < m_networks.length; ii++) {
+                if (m_networks[ii] == vn) continue;
+                if (isLessLoaded(m_networks[ii], vn)) {
+                    vn = m_networks[ii];
+                }
             }
         }
         return vn.registerChannel(channel, handler, interestOps, dns);
     }
 
+    /*
+     * Busy time is compared in 10% steps so that noise doesn't override the
+     * connection count when all the threads are lightly loaded
+     */
+    private static boolean isLessLoaded(VoltNetwork a, VoltNetwork b) {
+        final int aLoad = a.getLoadPermille() / 100;
+        final int bLoad = b.getLoadPermille() / 100;
+        if (aLoad != bLoad) {
+            return aLoad < bLoad;
+        }
+        return a.numPorts() < b.numPorts();
+    }
+
     public List<Long> getThreadIds() {
         ArrayList<Long> ids = new ArrayList<Long>();
         for (VoltNetwork vn : m_networks) {
@@ -153,6 +218,32 @@ public class VoltNetworkPool {
         return retval;
     }
 
+    /**
+     * Get statistics for each network thread, keyed by the thread's number. The
+     * counters are laid out as described by the REACTOR_ constants. Byte and message
+     * counts cover every connection the thread has handled, busy time is time spent
+     * handling ready connections and tasks, and elapsed time is the time covered by
+     * the counters. With interval set the counters cover the time since the last
+     * interval request.
+     */
+    public Map<Integer, Pair<String, long[]>> getReactorStats(final boolean interval)
+            throws ExecutionException, InterruptedException {
+        final Map<Integer, Pair<String, long[]>> retval = new TreeMap<Integer, Pair<String, long[]>>();
+        final List<Future<long[]>> statTasks = new ArrayList<Future<long[]>>(m_networks.length);
+        for (VoltNetwork vn : m_networks) {
+            statTasks.add(vn.getReactorStats(interval));
+        }
+        for (int ii = 0; ii < m_networks.length; ii++) {
+            try {
+                final long stats[] = statTasks.get(ii).get(500, TimeUnit.MILLISECONDS);
+                retval.put(m_networks[ii].m_networkId, Pair.of(m_networks[ii].networkThreadName, stats));
+            } catch (TimeoutException e) {
+                m_logger.warn("Timed out retrieving stats from network thread, probably harmless", e);
+            }
+        }
+        return retval;
+    }
+
     public Set<Connection> getConnections() {
         Set<Connection> conns = new HashSet<>();
         for (VoltNetwork vn : m_networks) {
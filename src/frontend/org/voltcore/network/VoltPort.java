@@ -175,7 +175,12 @@ public class VoltPort implements Connection
                      */
                     try {
                         while ((message = m_handler.retrieveNextMessage( readStream() )) != null) {
-                            m_handler.handleMessage( message, this);
+                            try {
+                                m_handler.handleMessage( message, this);
+                            } finally {
+                                //Invalidates the message if the handler was given a slice of a read buffer
+                                readStream().releaseSlices();
+                            }
                             m_messagesRead++;
                         }
                     }
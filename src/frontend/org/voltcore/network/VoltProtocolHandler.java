@@ -76,14 +76,30 @@ public abstract class VoltProtocolHandler implements InputHandler {
             assert m_nextLength > 0;
         }
         if (m_nextLength > 0 && inputStream.dataAvailable() >= m_nextLength) {
-            result = ByteBuffer.allocate(m_nextLength);
-            inputStream.getBytes(result.array());
+            if (sliceMessages()) {
+                result = inputStream.getSlice(m_nextLength);
+            }
+            //Messages that span read buffers are always copied
+            if (result == null) {
+                result = ByteBuffer.allocate(m_nextLength);
+                inputStream.getBytes(result.array());
+            }
             m_nextLength = 0;
             m_sequenceId++;
         }
         return result;
     }
 
+    /**
+     * Return true to have messages that lie within a single read buffer handed to
+     * handleMessage as a slice of that buffer instead of a heap copy. The slice points into
+     * a pooled direct buffer that is reused as soon as handleMessage returns, so a handler
+     * that opts in must copy anything it holds on to.
+     */
+    protected boolean sliceMessages() {
+        return false;
+    }
+
     @Override
     public void started(Connection c) {
     }
@@ -0,0 +1,210 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.voltcore.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive longs to objects. Keys are never
+ * boxed and nothing is allocated per entry, so it suits maps of transaction
+ * ids or handles that see an insert and a remove for every transaction.
+ *
+ * Collisions are resolved by linear probing and removal shifts the rest of
+ * the probe run back, so there are no tombstones and the table never has to
+ * be rebuilt because of churn. Null values are not allowed, get() returning
+ * null means the key is absent. Not thread safe.
+ */
+public class LongObjectHashMap<V> {
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] m_keys;
+    private Object[] m_values;
+    private int m_mask;
+    private int m_shift;
+    private int m_size = 0;
+    private int m_resizeThreshold;
+
+    /**
+     * Visits the entries of the map, see {@link LongObjectHashMap#forEach(Visitor)}.
+     */
+    public interface Visitor<V> {
+        void visit(long key, V value);
+    }
+
+    public LongObjectHashMap() {
+        this(16);
+    }
+
+    public LongObjectHashMap(int expectedSize) {
+        allocate(Math.max(16, Integer.highestOneBit(Math.max(1, (int)(expectedSize / LOAD_FACTOR)) - 1) << 1));
+    }
+
+    private void allocate(int capacity) {
+        m_keys = new long[capacity];
+        m_values = new Object[capacity];
+        m_mask = capacity - 1;
+        m_shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        m_resizeThreshold = (int)(capacity * LOAD_FACTOR);
+    }
+
+    // Transaction ids keep the partition in the low bits and a counter in
+    // the high bits, so mix before taking the slot
+    private int slot(long key) {
+        return (int)((key * 0x9E3779B97F4A7C15L) >>> m_shift);
+    }
+
+    public int size() {
+        return m_size;
+    }
+
+    public boolean isEmpty() {
+        return m_size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int index = slot(key);
+        Object value;
+        while ((value = m_values[index]) != null) {
+            if (m_keys[index] == key) {
+                return (V)value;
+            }
+            index = (index + 1) & m_mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the previous value for the key or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("LongObjectHashMap does not store null values");
+        }
+        int index = slot(key);
+        Object existing;
+        while ((existing = m_values[index]) != null) {
+            if (m_keys[index] == key) {
+                m_values[index] = value;
+                return (V)existing;
+            }
+            index = (index + 1) & m_mask;
+        }
+        m_keys[index] = key;
+        m_values[index] = value;
+        if (++m_size > m_resizeThreshold) {
+            rehash(m_keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return the removed value or null if the key was absent
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int index = slot(key);
+        Object value;
+        while ((value = m_values[index]) != null) {
+            if (m_keys[index] == key) {
+                m_values[index] = null;
+                m_size--;
+                closeGap(index);
+                return (V)value;
+            }
+            index = (index + 1) & m_mask;
+        }
+        return null;
+    }
+
+    /*
+     * Move entries later in the probe run into the freed slot when their home
+     * slot does not lie between the gap and their current position, so every
+     * remaining key is still reachable from its home slot.
+     */
+    private void closeGap(int gap) {
+        int index = (gap + 1) & m_mask;
+        Object value;
+        while ((value = m_values[index]) != null) {
+            final int home = slot(m_keys[index]);
+            if (((index - home) & m_mask) >= ((index - gap) & m_mask)) {
+                m_keys[gap] = m_keys[index];
+                m_values[gap] = value;
+                m_values[index] = null;
+                gap = index;
+            }
+            index = (index + 1) & m_mask;
+        }
+    }
+
+    private void rehash(int capacity) {
+        final long[] oldKeys = m_keys;
+        final Object[] oldValues = m_values;
+        allocate(capacity);
+        for (int ii = 0; ii < oldValues.length; ii++) {
+            final Object value = oldValues[ii];
+            if (value != null) {
+                int index = slot(oldKeys[ii]);
+                while (m_values[index] != null) {
+                    index = (index + 1) & m_mask;
+                }
+                m_keys[index] = oldKeys[ii];
+                m_values[index] = value;
+            }
+        }
+    }
+
+    public void clear() {
+        if (m_size > 0) {
+            Arrays.fill(m_values, null);
+            m_size = 0;
+        }
+    }
+
+    /**
+     * Visit every entry in no particular order. The visitor must not modify
+     * the map.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Visitor<? super V> visitor) {
+        for (int ii = 0; ii < m_values.length; ii++) {
+            final Object value = m_values[ii];
+            if (value != null) {
+                visitor.visit(m_keys[ii], (V)value);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("{");
+        for (int ii = 0; ii < m_values.length; ii++) {
+            if (m_values[ii] != null) {
+                if (sb.length() > 1) {
+                    sb.append(", ");
+                }
+                sb.append(m_keys[ii]).append('=').append(m_values[ii]);
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
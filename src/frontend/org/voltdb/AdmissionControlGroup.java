@@ -302,6 +302,10 @@ public class AdmissionControlGroup implements org.voltcore.network.QueueMonitor
         if (!procedureName.equals("@SnapshotRestore")) {
             m_latencyInfo.recordValue(Math.max(1, Math.min(TimeUnit.NANOSECONDS.toMicros(deltaNanos), m_latencyInfo.getHighestTrackableValue())));
         }
+        // Only user procedures slow down snapshots, system procedures like @SnapshotSave are slow anyway
+        if (procedureName.charAt(0) != '@') {
+            DefaultSnapshotDataTarget.reportTransactionLatency(TimeUnit.NANOSECONDS.toMicros(deltaNanos));
+        }
         if (needToInsert) {
             m_connectionStates.put(connectionId, procInfoMap);
         }
@@ -33,6 +33,7 @@ import org.voltdb.catalog.Deployment;
 import org.voltdb.catalog.Procedure;
 import org.voltdb.catalog.SnapshotSchedule;
 import org.voltdb.catalog.Table;
+import org.voltdb.compiler.DatabaseEstimates;
 import org.voltdb.compiler.PlannerTool;
 import org.voltdb.compiler.deploymentfile.DeploymentType;
 import org.voltdb.settings.ClusterSettings;
@@ -80,7 +81,7 @@ public class CatalogContext {
 
     /*
      * Planner associated with this catalog version.
-     * Not thread-safe, should only be accessed by AsyncCompilerAgent
+     * Thread-safe, each planning thread gets an HSQL session of its own
      */
     public final PlannerTool m_ptool;
 
@@ -156,7 +157,7 @@ public class CatalogContext {
         m_defaultProcs = new DefaultProcedureManager(database);
 
         m_jdbc = new JdbcDatabaseMetaDataGenerator(catalog, m_defaultProcs, m_jarfile);
-        m_ptool = new PlannerTool(cluster, database, catalogHash);
+        m_ptool = new PlannerTool(cluster, database, catalogHash, DatabaseEstimates.fromJarfile(m_jarfile));
         catalogVersion = version;
 
         if (procedures != null) {
@@ -144,6 +144,10 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
     private static final VoltLogger networkLog = new VoltLogger("NETWORK");
     private static final VoltLogger consoleLog = new VoltLogger("CONSOLE");
 
+    /**
+     * Parse invocations in place in the network read buffers, only the serialized parameters are copied out
+     */
+    private static final boolean CLIENT_SLICE_READS = Boolean.getBoolean("CLIENT_SLICE_READS");
 
     /** Ad hoc async work is either regular planning, ad hoc explain, or default proc explain. */
     public enum ExplainMode {
@@ -758,21 +762,63 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
             }
         }
 
+        @Override
+        protected boolean sliceMessages() {
+            return CLIENT_SLICE_READS;
+        }
+
         @Override
         public void handleMessage(ByteBuffer message, Connection c) {
             try {
-                final ClientResponseImpl error = handleRead(message, this, c);
-                if (error != null) {
-                    ByteBuffer buf = ByteBuffer.allocate(error.getSerializedSize() + 4);
-                    buf.putInt(buf.capacity() - 4);
-                    error.flattenToBuffer(buf).flip();
-                    c.writeStream().enqueue(buf);
+                if (message.remaining() > 0 && message.get(message.position()) == Constants.MULTI_INVOCATION_FRAME) {
+                    handleMultiInvocation(message, c);
+                } else {
+                    handleInvocation(message, c);
                 }
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
         }
 
+        /*
+         * A multi-invocation frame holds a count followed by length prefixed invocations.
+         * Each invocation is handed on as a slice of the frame without copying. With
+         * CLIENT_SLICE_READS the frame is itself a view of a pooled read buffer that
+         * VoltPort releases once handleMessage returns, so nothing may keep a slice past
+         * this call. handleRead detaches the parameters of invocations read from direct
+         * buffers for that reason.
+         */
+        private void handleMultiInvocation(ByteBuffer frame, Connection c) throws IOException {
+            frame.get();
+            final int count = frame.getInt();
+            if (count < 0) {
+                throw new IOException("Malformed multi-invocation frame, invocation count " + count);
+            }
+            for (int ii = 0; ii < count; ii++) {
+                if (frame.remaining() < 4) {
+                    throw new IOException("Malformed multi-invocation frame, truncated at invocation " + ii);
+                }
+                final int length = frame.getInt();
+                if (length <= 0 || length > frame.remaining()) {
+                    throw new IOException("Malformed multi-invocation frame, invocation length " + length);
+                }
+                final ByteBuffer invocation = frame.slice();
+                invocation.limit(length);
+                frame.position(frame.position() + length);
+                handleInvocation(invocation, c);
+            }
+        }
+
+        private void handleInvocation(ByteBuffer message, Connection c) throws IOException {
+            final ClientResponseImpl error = handleRead(message, this, c);
+            if (error != null) {
+                ByteBuffer buf = ByteBuffer.allocate(error.getSerializedSize() + 4);
+                buf.putInt(buf.capacity() - 4);
+                error.flattenToBuffer(buf).flip();
+                c.writeStream().enqueue(buf);
+            }
+        }
+
         @Override
         public void started(final Connection c) {
             m_connection = c;
@@ -1356,6 +1402,10 @@ public class ClientInterface implements SnapshotDaemon.DaemonInitiator {
         StoredProcedureInvocation task = new StoredProcedureInvocation();
         try {
             task.initFromBuffer(buf);
+            //The invocation outlives a slice of a network read buffer
+            if (buf.isDirect()) {
+                task.detachSerializedParams();
+            }
         } catch (Exception ex) {
             return new ClientResponseImpl(
                     ClientResponseImpl.UNEXPECTED_FAILURE,
@@ -186,6 +186,12 @@ public interface CommandLog {
      */
     public void requestTruncationSnapshot(final boolean queueIfPending);
 
+    /**
+     * Is the log truncated by snapshots? A rejoining node's log is only complete
+     * once a truncation snapshot has run.
+     */
+    public abstract boolean isTruncatedBySnapshots();
+
     /**
      * Statistics-related interface
      * Implementation should populate the stats based on column name to index mapping
@@ -0,0 +1,440 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.hadoop_voltpatches.util.PureJavaCrc32C;
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.MBBContainer;
+import org.voltcore.utils.InstanceId;
+import org.voltdb.messaging.Iv2InitiateTaskMessage;
+import org.voltdb.messaging.VoltDbMessageFactory;
+
+/**
+ * A command log segment is a preallocated, memory-mapped file that records are
+ * appended to in batches by {@link GroupCommitCommandLog}. The layout is
+ *
+ * <pre>
+ * header:  magic(4) version(4) headerLength(4) segmentIndex(8)
+ *          instanceCoord(4) instanceTimestamp(8) initialTxnId(8)
+ *          partitionCount(4) [partitionId(4) txnId(8)]*
+ * records: length(4) crc32c(4) type(1) payload(length)
+ * </pre>
+ *
+ * Initiate record payloads start with the partition id and SP handle of the
+ * site that logged them, so the log writer can tell which segments a
+ * truncation snapshot has made obsolete without deserializing the messages.
+ *
+ * The unused tail of the file is zero filled by preallocation, so a zero
+ * length marks the end of the log. A record whose checksum doesn't match is
+ * treated as a torn write and also ends the log.
+ */
+public class CommandLogSegment {
+    public static final int MAGIC = 0x56434c31; // "VCL1"
+    public static final int VERSION = 1;
+
+    public static final String FILE_PREFIX = "cl_";
+    public static final String FILE_SUFFIX = ".vcl";
+
+    public static final byte RECORD_INITIATE = 1;
+    public static final byte RECORD_FAULT = 2;
+
+    // length + crc + type
+    public static final int RECORD_HEADER_SIZE = 4 + 4 + 1;
+
+    private static final VoltDbMessageFactory s_messageFactory = new VoltDbMessageFactory();
+
+    public static final FilenameFilter FILE_FILTER = new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String name) {
+            return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+        }
+    };
+
+    private final File m_file;
+    private final long m_index;
+    private final RandomAccessFile m_raf;
+    private final MBBContainer m_container;
+    private final MappedByteBuffer m_buf;
+    private int m_records = 0;
+    private boolean m_closed = false;
+
+    /**
+     * Create and preallocate a new segment, writing and syncing its header.
+     */
+    public CommandLogSegment(File dir, long index, int size, InstanceId instanceId,
+            long initialTxnId, Map<Integer, Long> perPartitionTxnId) throws IOException
+    {
+        m_file = new File(dir, fileName(index));
+        m_index = index;
+        m_raf = new RandomAccessFile(m_file, "rw");
+        boolean success = false;
+        try {
+            m_raf.setLength(size);
+            m_container = DBBPool.wrapMBB(m_raf.getChannel().map(MapMode.READ_WRITE, 0, size));
+            m_buf = m_container.b();
+            final Map<Integer, Long> partitions = perPartitionTxnId == null ?
+                    Collections.<Integer, Long>emptyMap() : perPartitionTxnId;
+            final int headerLength = headerSize(partitions.size());
+            if (headerLength > size) {
+                throw new IOException("Command log segment size " + size + " is too small for its header");
+            }
+            m_buf.putInt(MAGIC);
+            m_buf.putInt(VERSION);
+            m_buf.putInt(headerLength);
+            m_buf.putLong(index);
+            m_buf.putInt(instanceId == null ? 0 : instanceId.getCoord());
+            m_buf.putLong(instanceId == null ? 0 : instanceId.getTimestamp());
+            m_buf.putLong(initialTxnId);
+            m_buf.putInt(partitions.size());
+            for (Map.Entry<Integer, Long> e : partitions.entrySet()) {
+                m_buf.putInt(e.getKey());
+                m_buf.putLong(e.getValue());
+            }
+            m_buf.force();
+            success = true;
+        } finally {
+            if (!success) {
+                m_raf.close();
+            }
+        }
+    }
+
+    public static String fileName(long index) {
+        return String.format("%s%016d%s", FILE_PREFIX, index, FILE_SUFFIX);
+    }
+
+    public static long indexOf(String fileName) {
+        return Long.parseLong(fileName.substring(FILE_PREFIX.length(), fileName.length() - FILE_SUFFIX.length()));
+    }
+
+    public static int headerSize(int partitionCount) {
+        return 4 + 4 + 4 + 8 + 4 + 8 + 8 + 4 + partitionCount * (4 + 8);
+    }
+
+    public long index() {
+        return m_index;
+    }
+
+    public File file() {
+        return m_file;
+    }
+
+    public int remaining() {
+        return m_buf.remaining();
+    }
+
+    public int recordCount() {
+        return m_records;
+    }
+
+    /**
+     * Copy a batch of complete records into the segment. The caller is
+     * responsible for checking {@link #remaining()} first.
+     */
+    public void append(ByteBuffer records) {
+        assert(!m_closed);
+        int pos = records.position();
+        while (pos < records.limit()) {
+            m_records++;
+            pos += RECORD_HEADER_SIZE + records.getInt(pos);
+        }
+        m_buf.put(records);
+    }
+
+    /**
+     * Flush the dirty pages of the mapping to disk.
+     */
+    public void sync() {
+        m_buf.force();
+    }
+
+    public void close() throws IOException {
+        if (m_closed) {
+            return;
+        }
+        m_closed = true;
+        m_buf.force();
+        m_container.discard();
+        m_raf.close();
+    }
+
+    /*
+     * Record serialization. Records are written with a zero checksum on the
+     * producer thread and sealed by the log writer thread just before the batch
+     * is copied into a segment, so that checksumming stays off the site threads.
+     */
+
+    public static int initiateRecordSize(Iv2InitiateTaskMessage message, int[] involvedPartitions) {
+        int involved = involvedPartitions == null ? 0 : involvedPartitions.length;
+        return RECORD_HEADER_SIZE + 4 + 8 + 4 + involved * 4 + message.getSerializedSize();
+    }
+
+    public static void writeInitiateRecord(ByteBuffer buf, int partitionId, long spHandle,
+            int[] involvedPartitions, Iv2InitiateTaskMessage message) throws IOException
+    {
+        final int start = buf.position();
+        buf.position(start + RECORD_HEADER_SIZE);
+        buf.putInt(partitionId);
+        buf.putLong(spHandle);
+        if (involvedPartitions == null) {
+            buf.putInt(-1);
+        } else {
+            buf.putInt(involvedPartitions.length);
+            for (int p : involvedPartitions) {
+                buf.putInt(p);
+            }
+        }
+        // Messages insist on flattening into a buffer of exactly their size
+        final int messageSize = message.getSerializedSize();
+        final int limit = buf.limit();
+        buf.limit(buf.position() + messageSize);
+        message.flattenToBuffer(buf.slice());
+        buf.limit(limit);
+        buf.position(buf.position() + messageSize);
+        finishRecordHeader(buf, start, RECORD_INITIATE);
+    }
+
+    public static int faultRecordSize(Set<Long> survivors) {
+        return RECORD_HEADER_SIZE + 8 + 4 + 8 + 4 + survivors.size() * 8;
+    }
+
+    public static void writeFaultRecord(ByteBuffer buf, long writerHSId, Set<Long> survivors,
+            int partitionId, long spHandle)
+    {
+        final int start = buf.position();
+        buf.position(start + RECORD_HEADER_SIZE);
+        buf.putLong(writerHSId);
+        buf.putInt(partitionId);
+        buf.putLong(spHandle);
+        buf.putInt(survivors.size());
+        for (long hsId : survivors) {
+            buf.putLong(hsId);
+        }
+        finishRecordHeader(buf, start, RECORD_FAULT);
+    }
+
+    private static void finishRecordHeader(ByteBuffer buf, int start, byte type) {
+        buf.putInt(start, buf.position() - start - RECORD_HEADER_SIZE);
+        buf.putInt(start + 4, 0);
+        buf.put(start + 8, type);
+    }
+
+    /**
+     * Fill in the checksum of every record in [position, limit) of the buffer.
+     */
+    public static void sealRecords(ByteBuffer buf) {
+        final PureJavaCrc32C crc = new PureJavaCrc32C();
+        int pos = buf.position();
+        while (pos < buf.limit()) {
+            final int length = buf.getInt(pos);
+            crc.reset();
+            updateChecksum(crc, buf, pos + 8, length + 1);
+            buf.putInt(pos + 4, (int)crc.getValue());
+            pos += RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    private static void updateChecksum(PureJavaCrc32C crc, ByteBuffer buf, int offset, int length) {
+        if (buf.hasArray()) {
+            crc.update(buf.array(), buf.arrayOffset() + offset, length);
+        } else {
+            for (int ii = 0; ii < length; ii++) {
+                crc.update(buf.get(offset + ii));
+            }
+        }
+    }
+
+    /**
+     * A decoded initiate record.
+     */
+    public static class InitiateRecord {
+        public final int partitionId;
+        public final long spHandle;
+        // null for single partition transactions
+        public final int[] involvedPartitions;
+        public final Iv2InitiateTaskMessage message;
+
+        InitiateRecord(int partitionId, long spHandle, int[] involvedPartitions,
+                Iv2InitiateTaskMessage message) {
+            this.partitionId = partitionId;
+            this.spHandle = spHandle;
+            this.involvedPartitions = involvedPartitions;
+            this.message = message;
+        }
+
+        public boolean isMultiPartition() {
+            return involvedPartitions != null;
+        }
+
+        @Override
+        public String toString() {
+            return "InitiateRecord partition " + partitionId + " involved " +
+                    Arrays.toString(involvedPartitions) + " " + message;
+        }
+    }
+
+    /**
+     * Sequential, read only view of a segment file. Reading stops at the first
+     * zero length or corrupt record.
+     */
+    public static class Reader {
+        private final File m_file;
+        private final MBBContainer m_container;
+        private final MappedByteBuffer m_buf;
+        private final long m_index;
+        private final InstanceId m_instanceId;
+        private final long m_initialTxnId;
+        private final Map<Integer, Long> m_perPartitionTxnId = new TreeMap<Integer, Long>();
+        private final PureJavaCrc32C m_crc = new PureJavaCrc32C();
+        private byte[] m_scratch = new byte[0];
+        private boolean m_torn = false;
+
+        public Reader(File file) throws IOException {
+            m_file = file;
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileChannel fc = raf.getChannel();
+                m_container = DBBPool.wrapMBB(fc.map(MapMode.READ_ONLY, 0, fc.size()));
+                m_buf = m_container.b();
+            } finally {
+                raf.close();
+            }
+            if (m_buf.remaining() < headerSize(0) || m_buf.getInt() != MAGIC) {
+                throw new IOException("Command log segment " + file + " has an invalid header");
+            }
+            final int version = m_buf.getInt();
+            if (version != VERSION) {
+                throw new IOException("Command log segment " + file + " has unsupported version " + version);
+            }
+            final int headerLength = m_buf.getInt();
+            m_index = m_buf.getLong();
+            final int coord = m_buf.getInt();
+            final long timestamp = m_buf.getLong();
+            m_instanceId = timestamp == 0 ? null : new InstanceId(coord, timestamp);
+            m_initialTxnId = m_buf.getLong();
+            final int partitionCount = m_buf.getInt();
+            for (int ii = 0; ii < partitionCount; ii++) {
+                m_perPartitionTxnId.put(m_buf.getInt(), m_buf.getLong());
+            }
+            m_buf.position(headerLength);
+        }
+
+        public File file() {
+            return m_file;
+        }
+
+        public long index() {
+            return m_index;
+        }
+
+        public InstanceId instanceId() {
+            return m_instanceId;
+        }
+
+        public long initialTxnId() {
+            return m_initialTxnId;
+        }
+
+        public Map<Integer, Long> perPartitionTxnId() {
+            return m_perPartitionTxnId;
+        }
+
+        /**
+         * @return true if reading stopped because of a checksum mismatch or a
+         * record that runs past the end of the file
+         */
+        public boolean sawTornWrite() {
+            return m_torn;
+        }
+
+        /**
+         * Return the next initiate record, skipping fault records, or null at
+         * the end of the segment.
+         */
+        public InitiateRecord nextInitiate() throws IOException {
+            ByteBuffer payload;
+            while ((payload = nextPayload()) != null) {
+                if (payload.get() != RECORD_INITIATE) {
+                    continue;
+                }
+                final int partitionId = payload.getInt();
+                final long spHandle = payload.getLong();
+                final int involvedCount = payload.getInt();
+                int[] involved = null;
+                if (involvedCount >= 0) {
+                    involved = new int[involvedCount];
+                    for (int ii = 0; ii < involvedCount; ii++) {
+                        involved[ii] = payload.getInt();
+                    }
+                }
+                Iv2InitiateTaskMessage message =
+                        (Iv2InitiateTaskMessage)s_messageFactory.createMessageFromBuffer(payload, -1);
+                return new InitiateRecord(partitionId, spHandle, involved, message);
+            }
+            return null;
+        }
+
+        /**
+         * Return the type byte followed by the payload of the next valid record.
+         */
+        private ByteBuffer nextPayload() {
+            if (m_torn || m_buf.remaining() < RECORD_HEADER_SIZE) {
+                return null;
+            }
+            final int start = m_buf.position();
+            final int length = m_buf.getInt(start);
+            if (length == 0) {
+                return null;
+            }
+            if (length < 0 || length > m_buf.limit() - start - RECORD_HEADER_SIZE) {
+                m_torn = true;
+                return null;
+            }
+            if (m_scratch.length < length + 1) {
+                m_scratch = new byte[length + 1];
+            }
+            m_buf.position(start + 8);
+            m_buf.get(m_scratch, 0, length + 1);
+            m_crc.reset();
+            m_crc.update(m_scratch, 0, length + 1);
+            if ((int)m_crc.getValue() != m_buf.getInt(start + 4)) {
+                m_torn = true;
+                return null;
+            }
+            return ByteBuffer.wrap(Arrays.copyOf(m_scratch, length + 1));
+        }
+
+        public void close() {
+            m_container.discard();
+        }
+    }
+}
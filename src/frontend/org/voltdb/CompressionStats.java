@@ -0,0 +1,114 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.voltcore.utils.Pair;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.utils.PersistentBinaryDeque;
+
+/**
+ * One row per open persistent binary deque, like the export overflow of each stream
+ * and partition, with how well and how fast the objects written to it compress.
+ */
+public class CompressionStats extends StatsSource {
+    private Map<String, Pair<String, long[]>> m_dequeStats = new TreeMap<String, Pair<String, long[]>>();
+    // Counters as of the last interval, for deques that were open then
+    private Map<String, long[]> m_lastInterval = new HashMap<String, long[]>();
+    private boolean m_interval = false;
+
+    public CompressionStats() {
+        super(false);
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo("DEQUE", VoltType.STRING));
+        columns.add(new ColumnInfo("CODEC", VoltType.STRING));
+        columns.add(new ColumnInfo("OBJECTS_COMPRESSED", VoltType.BIGINT));
+        columns.add(new ColumnInfo("UNCOMPRESSED_BYTES", VoltType.BIGINT));
+        columns.add(new ColumnInfo("COMPRESSED_BYTES", VoltType.BIGINT));
+        columns.add(new ColumnInfo("COMPRESSION_RATIO", VoltType.FLOAT));
+        columns.add(new ColumnInfo("COMPRESSION_MILLIS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("AVG_COMPRESSION_MICROS", VoltType.FLOAT));
+        columns.add(new ColumnInfo("PENDING_OBJECTS", VoltType.INTEGER));
+    }
+
+    @Override
+    protected void updateStatsRow(Object rowKey, Object[] rowValues) {
+        final Pair<String, long[]> info = m_dequeStats.get(rowKey);
+        final long[] counters = info.getSecond().clone();
+        if (m_interval) {
+            final long[] last = m_lastInterval.get(rowKey);
+            m_lastInterval.put((String)rowKey, info.getSecond());
+            if (last != null) {
+                for (int ii = 0; ii < PersistentBinaryDeque.PENDING_OBJECTS; ii++) {
+                    counters[ii] -= last[ii];
+                }
+            }
+        }
+        final long objects = counters[PersistentBinaryDeque.COMPRESSED_OBJECTS];
+        final long input = counters[PersistentBinaryDeque.COMPRESSED_INPUT_BYTES];
+        final long output = counters[PersistentBinaryDeque.COMPRESSED_OUTPUT_BYTES];
+        final long nanos = counters[PersistentBinaryDeque.COMPRESSION_NANOS];
+
+        rowValues[columnNameToIndex.get("DEQUE")] = rowKey;
+        rowValues[columnNameToIndex.get("CODEC")] = info.getFirst();
+        rowValues[columnNameToIndex.get("OBJECTS_COMPRESSED")] = objects;
+        rowValues[columnNameToIndex.get("UNCOMPRESSED_BYTES")] = input;
+        rowValues[columnNameToIndex.get("COMPRESSED_BYTES")] = output;
+        rowValues[columnNameToIndex.get("COMPRESSION_RATIO")] = input == 0 ? 0.0 : output / (double)input;
+        rowValues[columnNameToIndex.get("COMPRESSION_MILLIS")] = nanos / 1000000;
+        rowValues[columnNameToIndex.get("AVG_COMPRESSION_MICROS")] = objects == 0 ? 0.0 : nanos / 1000.0 / objects;
+        rowValues[columnNameToIndex.get("PENDING_OBJECTS")] = (int)counters[PersistentBinaryDeque.PENDING_OBJECTS];
+        super.updateStatsRow(rowKey, rowValues);
+    }
+
+    @Override
+    protected Iterator<Object> getStatsRowKeyIterator(boolean interval) {
+        m_dequeStats = PersistentBinaryDeque.getCompressionStats();
+        m_interval = interval;
+        if (interval) {
+            // Forget deques that have been closed
+            m_lastInterval.keySet().retainAll(m_dequeStats.keySet());
+        }
+        final Iterator<String> i = m_dequeStats.keySet().iterator();
+        return new Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+                return i.hasNext();
+            }
+
+            @Override
+            public Object next() {
+                return i.next();
+            }
+
+            @Override
+            public void remove() {
+                i.remove();
+            }
+        };
+    }
+}
@@ -17,18 +17,107 @@
 
 package org.voltdb;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
 
+import org.voltcore.logging.VoltLogger;
+import org.voltcore.messaging.HostMessenger;
+import org.voltcore.utils.CoreUtils;
 import org.voltcore.utils.InstanceId;
+import org.voltdb.client.ClientResponse;
 import org.voltdb.dtxn.TransactionCreator;
+import org.voltdb.iv2.LeaderCache;
+import org.voltdb.iv2.MpInitiator;
+import org.voltdb.messaging.Iv2InitiateTaskMessage;
+
+import com.google_voltpatches.common.collect.ImmutableMap;
 
 /**
- * The default command log reinitiator for community edition VoltDB.
+ * The default command log reinitiator for community edition VoltDB. It
+ * replays segments written by {@link GroupCommitCommandLog}, if there are any.
+ *
+ * Each host replays the single partition transactions of the partitions it
+ * leads and sends a sentinel for every multi-partition transaction in their
+ * streams. Multi-partition transactions are initiated by the host running
+ * the MPI, from its own copy of the log, so that they reach the MPI in order.
  */
 public class DefaultCommandLogReinitiator implements CommandLogReinitiator
 {
+    private static final VoltLogger LOG = new VoltLogger("LOGGING");
+
+    // Bound on replayed transactions waiting for a response
+    static final int MAX_OUTSTANDING_REPLAY_TXNS = 5000;
+
     private Callback m_callback;
 
+    private final int m_hostId;
+    private final HostMessenger m_messenger;
+    private final List<File> m_segmentFiles = new ArrayList<File>();
+    private boolean m_hasSegments = false;
+    private InstanceId m_instanceId = null;
+    private Long m_maxLastSeenTxn = null;
+    private Map<Integer, Long> m_maxLastSeenTxnByPartition = null;
+
+    private TransactionCreator m_initiator;
+    private RestoreAgent.SnapshotInfo m_snapshotInfo;
+    private boolean m_isMpiNode = false;
+    private volatile boolean m_replayedTxns = false;
+
+    private final SimpleClientResponseAdapter m_replayAdapter =
+        new SimpleClientResponseAdapter(ClientInterface.CL_REPLAY_BASE_CID, "CommandLogReplayAdapter");
+
+    /**
+     * Reinitiator for a cluster without a command log, there is nothing to replay.
+     */
+    public DefaultCommandLogReinitiator() {
+        m_hostId = -1;
+        m_messenger = null;
+    }
+
+    public DefaultCommandLogReinitiator(int hostId, HostMessenger messenger, String clPath) {
+        m_hostId = hostId;
+        m_messenger = messenger;
+        File[] files = clPath == null ? null : new File(clPath).listFiles(CommandLogSegment.FILE_FILTER);
+        if (files == null || files.length == 0) {
+            return;
+        }
+        // Segment file names sort by index
+        Arrays.sort(files);
+        if (CommandLogSegment.indexOf(files[0].getName()) != 0) {
+            // Replaying what is left into an empty database would silently lose data
+            VoltDB.crashLocalVoltDB("The command log in " + clPath + " starts at segment " + files[0].getName() +
+                    ", its older segments were deleted when it grew past its retention limit. It can't " +
+                    "recover the database, start it with create instead.", false, null);
+        }
+        for (File f : files) {
+            try {
+                CommandLogSegment.Reader reader = new CommandLogSegment.Reader(f);
+                try {
+                    if (m_segmentFiles.isEmpty()) {
+                        // The oldest segment says which snapshot the log starts from
+                        m_instanceId = reader.instanceId();
+                        m_maxLastSeenTxn = reader.initialTxnId();
+                        m_maxLastSeenTxnByPartition = new TreeMap<Integer, Long>(reader.perPartitionTxnId());
+                    }
+                } finally {
+                    reader.close();
+                }
+                m_segmentFiles.add(f);
+                m_hasSegments = true;
+            } catch (IOException e) {
+                LOG.warn("Skipping unreadable command log segment " + f + ": " + e.getMessage());
+            }
+        }
+    }
+
     @Override
     public void setCallback(Callback callback) {
         m_callback = callback;
@@ -39,34 +128,149 @@ public class DefaultCommandLogReinitiator implements CommandLogReinitiator
         new Thread(new Runnable() {
             @Override
             public void run() {
+                if (!m_segmentFiles.isEmpty() && m_initiator != null) {
+                    try {
+                        replaySegments();
+                    } catch (Exception e) {
+                        VoltDB.crashLocalVoltDB("Failed to replay the command log", true, e);
+                    }
+                }
                 if (m_callback != null) {
                     m_callback.onReplayCompletion();
                 }
             }
-        }).start();
+        }, "Command log replay").start();
+    }
+
+    private void replaySegments() throws Exception {
+        final ImmutableMap<Integer, Long> masters;
+        final LeaderCache leaders = new LeaderCache(m_messenger.getZK(), VoltZK.iv2masters);
+        leaders.start(true);
+        try {
+            masters = leaders.pointInTimeCache();
+        } finally {
+            leaders.shutdown();
+        }
+        final Set<Integer> ledPartitions = new HashSet<Integer>();
+        for (Map.Entry<Integer, Long> e : masters.entrySet()) {
+            if (CoreUtils.getHostIdFromHSId(e.getValue()) == m_hostId) {
+                ledPartitions.add(e.getKey());
+            }
+        }
+
+        final Semaphore outstanding = new Semaphore(MAX_OUTSTANDING_REPLAY_TXNS);
+        final SimpleClientResponseAdapter.Callback releaser = new SimpleClientResponseAdapter.Callback() {
+            @Override
+            public void handleResponse(ClientResponse response) {
+                if (response.getStatus() != ClientResponse.SUCCESS && LOG.isDebugEnabled()) {
+                    LOG.debug("Replayed transaction completed with " + response.getStatusString());
+                }
+                outstanding.release();
+            }
+        };
+
+        // A multi-partition transaction is logged by every site it involves
+        final Set<Long> replayedMpUniqueIds = new HashSet<Long>();
+        long txnCount = 0;
+        for (File f : m_segmentFiles) {
+            CommandLogSegment.Reader reader = new CommandLogSegment.Reader(f);
+            try {
+                CommandLogSegment.InitiateRecord record;
+                while ((record = reader.nextInitiate()) != null) {
+                    if (isCoveredBySnapshot(record)) {
+                        continue;
+                    }
+                    final Iv2InitiateTaskMessage msg = record.message;
+                    if (record.isMultiPartition()) {
+                        if (ledPartitions.contains(record.partitionId)) {
+                            m_initiator.sendSentinel(msg.getUniqueId(), record.partitionId);
+                        }
+                        if (!m_isMpiNode || !replayedMpUniqueIds.add(msg.getUniqueId())) {
+                            continue;
+                        }
+                    }
+                    else if (!ledPartitions.contains(record.partitionId)) {
+                        continue;
+                    }
+                    outstanding.acquire();
+                    initiate(record, releaser);
+                    txnCount++;
+                }
+                if (reader.sawTornWrite()) {
+                    LOG.warn("Command log segment " + f + " ends with a torn write, " +
+                             "replay stops at the last complete record");
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        // The MPI forwards the end of log to every partition once the replayed
+        // multi-partition transactions are done, an earlier one would drop the
+        // sentinels still waiting for their fragments
+        if (m_isMpiNode) {
+            m_initiator.sendEOLMessage(MpInitiator.MP_INIT_PID);
+        }
+        outstanding.acquire(MAX_OUTSTANDING_REPLAY_TXNS);
+        m_replayedTxns = txnCount > 0;
+        LOG.info("Replayed " + txnCount + " transactions from " + m_segmentFiles.size() +
+                 " command log segments");
+    }
+
+    private boolean isCoveredBySnapshot(CommandLogSegment.InitiateRecord record) {
+        if (m_snapshotInfo == null) {
+            return false;
+        }
+        if (record.isMultiPartition()) {
+            return record.message.getTxnId() <= m_snapshotInfo.txnId;
+        }
+        final Long snapshotSpHandle = m_snapshotInfo.partitionToTxnId.get(record.partitionId);
+        return snapshotSpHandle != null && record.spHandle <= snapshotSpHandle;
+    }
+
+    private void initiate(CommandLogSegment.InitiateRecord record, SimpleClientResponseAdapter.Callback cb) {
+        final Iv2InitiateTaskMessage msg = record.message;
+        final StoredProcedureInvocation invocation = msg.getStoredProcedureInvocation();
+        invocation.setClientHandle(m_replayAdapter.registerCallback(cb));
+        final boolean initiated = m_initiator.createTransaction(m_replayAdapter.connectionId(),
+                msg.getTxnId(),
+                msg.getUniqueId(),
+                invocation,
+                msg.isReadOnly(),
+                !record.isMultiPartition(),
+                false,
+                record.partitionId,
+                invocation.getSerializedSize(),
+                System.nanoTime());
+        if (!initiated) {
+            VoltDB.crashLocalVoltDB("Unable to initiate replayed transaction " + record, false, null);
+        }
     }
 
     @Override
     public boolean hasReplayedSegments() {
-        return false;
+        return m_hasSegments;
     }
 
     @Override
     public Long getMaxLastSeenTxn() {
-        return null;
+        return m_maxLastSeenTxn;
     }
 
     @Override
     public Map<Integer, Long> getMaxLastSeenTxnByPartition() {
-        return null;
+        return m_maxLastSeenTxnByPartition;
     }
 
     @Override
     public void setSnapshotTxnId(RestoreAgent.SnapshotInfo info) {
+        m_snapshotInfo = info;
     }
 
     @Override
     public void returnAllSegments() {
+        // The segments are discarded by the command log once it is initialized
+        m_segmentFiles.clear();
     }
 
     @Override
@@ -77,23 +281,28 @@ public class DefaultCommandLogReinitiator implements CommandLogReinitiator
 
     @Override
     public boolean hasReplayedTxns() {
-        return false;
+        return m_replayedTxns;
     }
 
     @Override
     public void generateReplayPlan(long snapshotTimeStamp, long snapshotTxnId,
             int newPartitionCount, boolean isMpiNode) {
+        m_isMpiNode = isMpiNode;
     }
 
     @Override
     public void setInitiator(TransactionCreator initiator) {
+        m_initiator = initiator;
+        if (m_initiator != null && !m_segmentFiles.isEmpty()) {
+            m_initiator.bindAdapter(m_replayAdapter);
+        }
     }
 
     @Override
     public InstanceId getInstanceId() {
         // When we don't have a command log, return null to cause the instance ID
         // check to get skipped entirely in RestoreAgent.generatePlans()
-        return null;
+        return m_instanceId;
     }
 
     @Override
@@ -22,15 +22,19 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -55,7 +59,8 @@ import com.google_voltpatches.common.util.concurrent.ListenableFuture;
 import com.google_voltpatches.common.util.concurrent.ListeningExecutorService;
 import com.google_voltpatches.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google_voltpatches.common.util.concurrent.MoreExecutors;
-import com.google_voltpatches.common.util.concurrent.UnsynchronizedRateLimiter;
+import com.google_voltpatches.common.util.concurrent.RateLimiter;
+import com.google_voltpatches.common.util.concurrent.SettableFuture;
 
 
 public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
@@ -105,7 +110,28 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
     private final Condition m_noMoreOutstandingWriteTasksCondition =
             m_outstandingWriteTasksLock.newCondition();
 
-    private static final ListeningExecutorService m_es = CoreUtils.getListeningSingleThreadExecutor("Snapshot write service ");
+    /*
+     * Chunks waiting for this target's writer thread. The writer takes up to
+     * SNAPSHOT_WRITE_BATCH of them at a time and writes them with one gathering write.
+     */
+    private final ConcurrentLinkedQueue<PendingWrite> m_pendingWrites = new ConcurrentLinkedQueue<PendingWrite>();
+    private final AtomicBoolean m_drainScheduled = new AtomicBoolean(false);
+    private final ListeningExecutorService m_writer;
+
+    /*
+     * Targets are spread round robin over the writer threads, and each target's
+     * writes are done in order by one of them
+     */
+    public static final int SNAPSHOT_WRITE_THREADS = Math.max(1, Integer.getInteger("SNAPSHOT_WRITE_THREADS",
+            Math.min(4, CoreUtils.availableProcessors() / 2)));
+    public static final int SNAPSHOT_WRITE_BATCH = Math.max(1, Integer.getInteger("SNAPSHOT_WRITE_BATCH", 8));
+    private static final ListeningExecutorService m_writers[] = new ListeningExecutorService[SNAPSHOT_WRITE_THREADS];
+    private static final AtomicInteger m_nextWriter = new AtomicInteger(0);
+    static {
+        for (int ii = 0; ii < SNAPSHOT_WRITE_THREADS; ii++) {
+            m_writers[ii] = CoreUtils.getListeningSingleThreadExecutor("Snapshot write service " + ii);
+        }
+    }
     static final ListeningScheduledExecutorService m_syncService = MoreExecutors.listeningDecorator(
             Executors.newSingleThreadScheduledExecutor(CoreUtils.getThreadFactory("Snapshot sync service")));
 
@@ -114,6 +140,18 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
     public static final int SNAPSHOT_RATELIMIT_MEGABYTES;
     public static final boolean USE_SNAPSHOT_RATELIMIT;
 
+    /*
+     * With a target latency the snapshot rate follows the latency of foreground
+     * transactions. Every SNAPSHOT_RATE_ADJUST_MILLIS the rate is halved if their
+     * average latency is above the target, and otherwise grows by a quarter. It stays
+     * between SNAPSHOT_MIN_RATE_MEGABYTES and the rate limit, or 10 gigabytes/sec
+     * without one.
+     */
+    public static final int SNAPSHOT_TARGET_LATENCY_MICROS = Integer.getInteger("SNAPSHOT_TARGET_LATENCY_MICROS", 0);
+    public static final int SNAPSHOT_MIN_RATE_MEGABYTES = Math.max(1, Integer.getInteger("SNAPSHOT_MIN_RATE_MEGABYTES", 16));
+    private static final int SNAPSHOT_RATE_ADJUST_MILLIS = 100;
+    private static final int SNAPSHOT_MAX_ADAPTIVE_RATE_MEGABYTES = 1024 * 10;
+
     static {
         int limit = Integer.getInteger("SNAPSHOT_RATELIMIT_MEGABYTES", Integer.MAX_VALUE);
         if (limit < 1) {
@@ -122,7 +160,11 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
         } else {
             SNAPSHOT_RATELIMIT_MEGABYTES = limit;
         }
-        if (SNAPSHOT_RATELIMIT_MEGABYTES < Integer.MAX_VALUE) {
+        if (SNAPSHOT_TARGET_LATENCY_MICROS > 0) {
+            USE_SNAPSHOT_RATELIMIT = true;
+            SNAP_LOG.info("Rate limiting snapshots to keep transaction latency under "
+                    + SNAPSHOT_TARGET_LATENCY_MICROS + " microseconds");
+        } else if (SNAPSHOT_RATELIMIT_MEGABYTES < Integer.MAX_VALUE) {
             USE_SNAPSHOT_RATELIMIT = true;
             SNAP_LOG.info("Rate limiting snapshots to " + SNAPSHOT_RATELIMIT_MEGABYTES + " megabytes/second");
         } else {
@@ -130,8 +172,91 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
         }
     }
 
-    public static final UnsynchronizedRateLimiter SNAPSHOT_RATELIMITER =
-            UnsynchronizedRateLimiter.create(SNAPSHOT_RATELIMIT_MEGABYTES * 1024.0 * 1024.0, 1, TimeUnit.SECONDS);
+    private static final double MAX_RATE_MEGABYTES = SNAPSHOT_TARGET_LATENCY_MICROS > 0 ?
+            Math.min(SNAPSHOT_RATELIMIT_MEGABYTES, SNAPSHOT_MAX_ADAPTIVE_RATE_MEGABYTES) : SNAPSHOT_RATELIMIT_MEGABYTES;
+
+    /*
+     * Shared by all the writer threads. Permits are reserved under the limiter's
+     * own lock and the wait happens outside of it, so writers don't queue behind
+     * a sleeping thread.
+     */
+    public static final RateLimiter SNAPSHOT_RATELIMITER =
+            RateLimiter.create(MAX_RATE_MEGABYTES * 1024.0 * 1024.0, 1, TimeUnit.SECONDS);
+
+    /*
+     * Rate changes, from setRate and the rate controller, are only made on this
+     * thread so the site thread never waits on them.
+     */
+    private static final ScheduledExecutorService m_rateService =
+            Executors.newSingleThreadScheduledExecutor(CoreUtils.getThreadFactory("Snapshot rate controller"));
+    private static final RateController m_rateController = new RateController(SNAPSHOT_TARGET_LATENCY_MICROS,
+            SNAPSHOT_MIN_RATE_MEGABYTES, MAX_RATE_MEGABYTES);
+    // Only accessed on m_rateService
+    private static boolean m_rateOverridden = false;
+
+    static {
+        if (SNAPSHOT_TARGET_LATENCY_MICROS > 0) {
+            m_rateService.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    final double rate = m_rateController.adjust();
+                    if (!m_rateOverridden) {
+                        SNAPSHOT_RATELIMITER.setRate(rate * 1024.0 * 1024.0);
+                    }
+                }
+            }, SNAPSHOT_RATE_ADJUST_MILLIS, SNAPSHOT_RATE_ADJUST_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Picks the snapshot rate from the average latency of foreground transactions.
+     * Each adjustment halves the rate if the average is above the target, and
+     * otherwise grows it by a quarter, staying between the minimum and maximum.
+     */
+    static class RateController {
+        private final long m_targetLatencyMicros;
+        private final double m_minRateMegabytes;
+        private final double m_maxRateMegabytes;
+
+        // Reported from the network threads, updates racing with each other may be
+        // lost which is fine for an average
+        private volatile long m_latencyAverageMicros = 0;
+        private volatile long m_latencySamples = 0;
+
+        // Only accessed by the thread calling adjust()
+        private long m_latencySamplesAtLastAdjust = 0;
+        private double m_rateMegabytes;
+
+        RateController(long targetLatencyMicros, double minRateMegabytes, double maxRateMegabytes) {
+            m_targetLatencyMicros = targetLatencyMicros;
+            m_minRateMegabytes = Math.min(minRateMegabytes, maxRateMegabytes);
+            m_maxRateMegabytes = maxRateMegabytes;
+            m_rateMegabytes = maxRateMegabytes;
+        }
+
+        void reportLatency(long micros) {
+            m_latencyAverageMicros += (micros - m_latencyAverageMicros) / 16;
+            m_latencySamples++;
+        }
+
+        /**
+         * @return the new rate in megabytes/second
+         */
+        double adjust() {
+            // No transactions since the last adjustment means none to slow down
+            final long samples = m_latencySamples;
+            final boolean slow = samples != m_latencySamplesAtLastAdjust
+                    && m_latencyAverageMicros > m_targetLatencyMicros;
+            m_latencySamplesAtLastAdjust = samples;
+            m_rateMegabytes = slow ? Math.max(m_minRateMegabytes, m_rateMegabytes / 2)
+                                   : Math.min(m_maxRateMegabytes, m_rateMegabytes * 1.25);
+            return m_rateMegabytes;
+        }
+
+        double rateMegabytes() {
+            return m_rateMegabytes;
+        }
+    }
 
     public static void enforceSnapshotRateLimit(int permits) {
         if (USE_SNAPSHOT_RATELIMIT) {
@@ -139,6 +264,16 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
         }
     }
 
+    /**
+     * Feed the latency of a completed transaction to the adaptive snapshot rate limit.
+     * Called from the network threads.
+     */
+    public static void reportTransactionLatency(long micros) {
+        if (SNAPSHOT_TARGET_LATENCY_MICROS > 0) {
+            m_rateController.reportLatency(micros);
+        }
+    }
+
     public DefaultSnapshotDataTarget(
             final File file,
             final int hostId,
@@ -182,6 +317,7 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
             ) throws IOException {
         String hostname = CoreUtils.getHostnameOrAddress();
         m_file = file;
+        m_writer = m_writers[(m_nextWriter.getAndIncrement() & Integer.MAX_VALUE) % SNAPSHOT_WRITE_THREADS];
         m_tableName = tableName;
         m_fos = new FileOutputStream(file);
         m_channel = m_fos.getChannel();
@@ -447,91 +583,153 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
             cont.b().position(12);
             compressionTask = CompressionService.compressAndCRC32cBufferAsync(tupleData, cont);
         }
-        final Future<BBContainer> compressionTaskFinal = compressionTask;
+        final PendingWrite pending = new PendingWrite(tupleDataCont, compressionTask);
+        m_pendingWrites.offer(pending);
+        scheduleDrain();
+        return pending.m_future;
+    }
 
-        ListenableFuture<?> writeTask = m_es.submit(new Callable<Object>() {
-            @Override
-            public Object call() throws Exception {
-                try {
-                    if (m_acceptOneWrite) {
-                        m_acceptOneWrite = false;
-                    } else {
-                        if (m_simulateBlockedWrite != null) {
-                            m_simulateBlockedWrite.await();
-                        }
-                        if (m_simulateFullDiskWritingChunk) {
-                            //Make sure to consume the result of the compression
-                            compressionTaskFinal.get().discard();
-                            throw new IOException("Disk full");
-                        }
+    /*
+     * A chunk and the compression of it when it is table data
+     */
+    private static final class PendingWrite {
+        private final BBContainer m_tupleData;
+        private final Future<BBContainer> m_compressionTask;
+        private final SettableFuture<Object> m_future = SettableFuture.create();
+        private BBContainer m_payload;
+
+        private PendingWrite(BBContainer tupleData, Future<BBContainer> compressionTask) {
+            m_tupleData = tupleData;
+            m_compressionTask = compressionTask;
+        }
+    }
+
+    private void scheduleDrain() {
+        if (m_drainScheduled.compareAndSet(false, true)) {
+            m_writer.execute(m_drainTask);
+        }
+    }
+
+    /*
+     * Write one batch and go to the back of the writer's queue if there is more,
+     * so the targets sharing a writer take turns
+     */
+    private final Runnable m_drainTask = new Runnable() {
+        @Override
+        public void run() {
+            final List<PendingWrite> batch = new ArrayList<PendingWrite>(SNAPSHOT_WRITE_BATCH);
+            PendingWrite pending;
+            while (batch.size() < SNAPSHOT_WRITE_BATCH && (pending = m_pendingWrites.poll()) != null) {
+                batch.add(pending);
+            }
+            try {
+                writeBatch(batch);
+            } finally {
+                m_drainScheduled.set(false);
+                if (!m_pendingWrites.isEmpty()) {
+                    scheduleDrain();
+                }
+            }
+        }
+    };
+
+    private void writeBatch(List<PendingWrite> batch) {
+        final ByteBuffer buffers[] = new ByteBuffer[batch.size()];
+        Throwable failure = null;
+        try {
+            long totalBytes = 0;
+            for (int ii = 0; ii < batch.size(); ii++) {
+                final PendingWrite pending = batch.get(ii);
+                if (m_acceptOneWrite) {
+                    m_acceptOneWrite = false;
+                } else {
+                    if (m_simulateBlockedWrite != null) {
+                        m_simulateBlockedWrite.await();
+                    }
+                    if (m_simulateFullDiskWritingChunk) {
+                        throw new IOException("Disk full");
                     }
+                }
+
+                final ByteBuffer tupleData = pending.m_tupleData.b();
+                if (pending.m_compressionTask == null) {
+                    buffers[ii] = tupleData;
+                } else {
+                    pending.m_payload = pending.m_compressionTask.get();
+                    final ByteBuffer payloadBuffer = pending.m_payload.b();
+                    payloadBuffer.position(0);
+
+                    ByteBuffer lengthPrefix = ByteBuffer.allocate(12);
+                    m_bytesAllowedBeforeSync.acquire(payloadBuffer.remaining());
+                    //Length prefix does not include 4 header items, just compressd payload
+                    //that follows
+                    lengthPrefix.putInt(payloadBuffer.remaining() - 16);//length prefix
+                    lengthPrefix.putInt(tupleData.getInt(0)); // partitionId
 
-                    final ByteBuffer tupleData = tupleDataCont.b();
-                    int totalWritten = 0;
-                    if (prependLength) {
-                        BBContainer payloadContainer = compressionTaskFinal.get();
+                    /*
+                     * Checksum the header and put it in the payload buffer
+                     */
+                    PureJavaCrc32C crc = new PureJavaCrc32C();
+                    crc.update(lengthPrefix.array(), 0, 8);
+                    lengthPrefix.putInt((int)crc.getValue());
+                    lengthPrefix.flip();
+                    payloadBuffer.put(lengthPrefix);
+                    payloadBuffer.position(0);
+                    buffers[ii] = payloadBuffer;
+                }
+                totalBytes += buffers[ii].remaining();
+            }
+
+            enforceSnapshotRateLimit((int)totalBytes);
+
+            /*
+             * Write the batch to file
+             */
+            long totalWritten = 0;
+            while (totalWritten < totalBytes) {
+                totalWritten += m_channel.write(buffers);
+            }
+            m_bytesWritten += totalWritten;
+            m_bytesWrittenSinceLastSync.addAndGet((int)totalWritten);
+        } catch (IOException e) {
+            m_writeException = e;
+            SNAP_LOG.error("Error while attempting to write snapshot data to file " + m_file, e);
+            m_writeFailed = true;
+            failure = e;
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            for (PendingWrite pending : batch) {
+                try {
+                    //Make sure to consume the result of the compression
+                    if (pending.m_payload == null && pending.m_compressionTask != null) {
                         try {
-                            final ByteBuffer payloadBuffer = payloadContainer.b();
-                            payloadBuffer.position(0);
-
-                            ByteBuffer lengthPrefix = ByteBuffer.allocate(12);
-                            m_bytesAllowedBeforeSync.acquire(payloadBuffer.remaining());
-                            //Length prefix does not include 4 header items, just compressd payload
-                            //that follows
-                            lengthPrefix.putInt(payloadBuffer.remaining() - 16);//length prefix
-                            lengthPrefix.putInt(tupleData.getInt(0)); // partitionId
-
-                            /*
-                             * Checksum the header and put it in the payload buffer
-                             */
-                            PureJavaCrc32C crc = new PureJavaCrc32C();
-                            crc.update(lengthPrefix.array(), 0, 8);
-                            lengthPrefix.putInt((int)crc.getValue());
-                            lengthPrefix.flip();
-                            payloadBuffer.put(lengthPrefix);
-                            payloadBuffer.position(0);
-
-                            enforceSnapshotRateLimit(payloadBuffer.remaining());
-
-                            /*
-                             * Write payload to file
-                             */
-                            while (payloadBuffer.hasRemaining()) {
-                                totalWritten += m_channel.write(payloadBuffer);
-                            }
-                        } finally {
-                            payloadContainer.discard();
-                        }
-                    } else {
-                        while (tupleData.hasRemaining()) {
-                            totalWritten += m_channel.write(tupleData);
+                            pending.m_compressionTask.get().discard();
+                        } catch (Exception e) {
+                            SNAP_LOG.error("Error compressing snapshot data for file " + m_file, e);
                         }
                     }
-                    m_bytesWritten += totalWritten;
-                    m_bytesWrittenSinceLastSync.addAndGet(totalWritten);
-                } catch (IOException e) {
-                    m_writeException = e;
-                    SNAP_LOG.error("Error while attempting to write snapshot data to file " + m_file, e);
-                    m_writeFailed = true;
-                    throw e;
+                    if (pending.m_payload != null) {
+                        pending.m_payload.discard();
+                    }
+                    pending.m_tupleData.discard();
                 } finally {
+                    m_outstandingWriteTasksLock.lock();
                     try {
-                        tupleDataCont.discard();
-                    } finally {
-                        m_outstandingWriteTasksLock.lock();
-                        try {
-                            if (m_outstandingWriteTasks.decrementAndGet() == 0) {
-                                m_noMoreOutstandingWriteTasksCondition.signalAll();
-                            }
-                        } finally {
-                            m_outstandingWriteTasksLock.unlock();
+                        if (m_outstandingWriteTasks.decrementAndGet() == 0) {
+                            m_noMoreOutstandingWriteTasksCondition.signalAll();
                         }
+                    } finally {
+                        m_outstandingWriteTasksLock.unlock();
                     }
                 }
-                return null;
+                if (failure == null) {
+                    pending.m_future.set(null);
+                } else {
+                    pending.m_future.setException(failure);
+                }
             }
-        });
-        return writeTask;
+        }
     }
 
     @Override
@@ -575,11 +773,12 @@ public class DefaultSnapshotDataTarget implements SnapshotDataTarget {
     }
 
     public static void setRate(final Integer megabytesPerSecond) {
-        m_es.execute(new Runnable() {
+        m_rateService.execute(new Runnable() {
             @Override
             public void run() {
+                m_rateOverridden = megabytesPerSecond != null;
                 if (megabytesPerSecond == null) {
-                    SNAPSHOT_RATELIMITER.setRate(SNAPSHOT_RATELIMIT_MEGABYTES * 1024.0 * 1024.0);
+                    SNAPSHOT_RATELIMITER.setRate(m_rateController.rateMegabytes() * 1024.0 * 1024.0);
                 } else {
                     SNAPSHOT_RATELIMITER.setRate(megabytesPerSecond * 1024.0 * 1024.0);
                 }
@@ -78,6 +78,12 @@ public class DummyCommandLog implements CommandLog {
         return;
     }
 
+    @Override
+    public boolean isTruncatedBySnapshots()
+    {
+        return false;
+    }
+
     @Override
     public void populateCommandLogStats(Map<String, Integer> columnNameToIndex,
             Object[] rowValues) {
@@ -0,0 +1,509 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltcore.messaging.HostMessenger;
+import org.voltcore.utils.CoreUtils;
+import org.voltcore.utils.InstanceId;
+import org.voltdb.iv2.TransactionTask;
+import org.voltdb.iv2.TxnEgo;
+import org.voltdb.messaging.Iv2InitiateTaskMessage;
+
+import com.google_voltpatches.common.util.concurrent.ListenableFuture;
+import com.google_voltpatches.common.util.concurrent.SettableFuture;
+
+/**
+ * Community command log. Every SpInitiator appends its initiate records to one
+ * shared in-memory batch and a single writer thread commits that batch to a
+ * preallocated, memory-mapped {@link CommandLogSegment} once per fsync interval
+ * (or sooner, when the configured number of transactions is pending).
+ *
+ * Durability is reported per batch rather than per transaction. With
+ * synchronous logging the SpScheduler hands its tasks to the durability
+ * listener instead of executing them, and the writer releases the whole batch
+ * through {@link CommandLog.CompletionChecks} after the sync returns. With
+ * asynchronous logging tasks run immediately and the log only applies
+ * backpressure when too many bytes are waiting to be written.
+ *
+ * Snapshots are a commercial feature, so there is no truncation snapshot to
+ * retire segments with. A recover replays every segment through
+ * {@link DefaultCommandLogReinitiator} and keeps logging to new segments after
+ * them. Segments are kept until the log is bigger than its retention limit,
+ * the configured log size unless {@link #RETENTION_MB} says otherwise. Past
+ * that the oldest segments are deleted, and since the log then no longer holds
+ * every transaction since the create, recover refuses to start from it.
+ */
+public class GroupCommitCommandLog implements CommandLog {
+    private static final VoltLogger LOG = new VoltLogger("LOGGING");
+
+    /**
+     * System property with the most megabytes of segments the log keeps
+     */
+    public static final String RETENTION_MB = "COMMAND_LOG_RETENTION_MB";
+
+    // The configured log size is split into this many segments
+    static final int SEGMENTS_PER_LOG = 8;
+    static final int MIN_SEGMENT_SIZE = 1024 * 1024;
+    static final int MAX_SEGMENT_SIZE = 256 * 1024 * 1024;
+
+    // Async logging blocks execution once this many bytes are waiting to be written
+    static final int MAX_OUTSTANDING_BYTES = 64 * 1024 * 1024;
+    static final int INITIAL_BATCH_CAPACITY = 1024 * 1024;
+
+    private final boolean m_synchronous;
+    private final long m_fsyncIntervalNanos;
+    private final int m_maxTxns;
+    private final File m_logDir;
+    private final boolean m_recover;
+
+    private final Object m_lock = new Object();
+
+    /*
+     * Guarded by m_lock. Producers serialize records into m_pending, the writer
+     * swaps it with m_spare at the start of each group commit.
+     */
+    private ByteBuffer m_pending = ByteBuffer.allocate(INITIAL_BATCH_CAPACITY);
+    private ByteBuffer m_spare = ByteBuffer.allocate(INITIAL_BATCH_CAPACITY);
+    private int m_pendingTxns = 0;
+    private final List<DurabilityListener> m_listeners = new ArrayList<DurabilityListener>();
+    private List<SettableFuture<Boolean>> m_pendingFaultWrites = new ArrayList<SettableFuture<Boolean>>();
+    private SettableFuture<Object> m_backpressureFuture = null;
+    private boolean m_initialized = false;
+    private boolean m_shutdown = false;
+
+    // Owned by the writer thread once initialized
+    private final ArrayDeque<CommandLogSegment> m_segments = new ArrayDeque<CommandLogSegment>();
+    private int m_segmentSize;
+    private long m_nextSegmentIndex = 0;
+    private InstanceId m_instanceId;
+    private long m_initialTxnId;
+    private Map<Integer, Long> m_initialPerPartitionTxnId = new TreeMap<Integer, Long>();
+    // Every segment file of the log, oldest first, including the replayed ones
+    private final ArrayDeque<File> m_segmentFiles = new ArrayDeque<File>();
+    private long m_segmentBytes = 0;
+    private long m_retentionBytes;
+    private boolean m_retiredSegments = false;
+
+    // Read by the stats thread
+    private volatile int m_segmentCount = 0;
+    private volatile int m_inUseSegmentCount = 0;
+    private volatile int m_lastFsyncIntervalMs = 0;
+
+    private final Thread m_writer;
+
+    /**
+     * @param recover whether the database is recovering from this log, otherwise
+     *                the segments of a previous database are deleted
+     */
+    public GroupCommitCommandLog(boolean synchronous, int fsyncInterval, int maxTxns,
+            String logPath, boolean recover)
+    {
+        m_synchronous = synchronous;
+        m_fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, fsyncInterval));
+        m_maxTxns = maxTxns;
+        m_logDir = new File(logPath);
+        m_recover = recover;
+        m_writer = CoreUtils.getThreadFactory(null, "Command log writer",
+                CoreUtils.SMALL_STACK_SIZE, false, null).newThread(new Runnable() {
+            @Override
+            public void run() {
+                runWriter();
+            }
+        });
+        m_writer.start();
+    }
+
+    @Override
+    public void init(int logSize, long txnId, int partitionCount, String coreBinding,
+            Map<Integer, Long> perPartitionTxnId)
+    {
+        if (!m_logDir.exists() && !m_logDir.mkdirs()) {
+            VoltDB.crashLocalVoltDB("Unable to create command log directory " + m_logDir, false, null);
+        }
+        // Segments that were replayed hold the only copy of their transactions,
+        // new segments go after them. A create starts from an empty log.
+        File[] existing = m_logDir.listFiles(CommandLogSegment.FILE_FILTER);
+        if (existing != null) {
+            // Segment file names sort by index
+            Arrays.sort(existing);
+            for (File f : existing) {
+                if (m_recover) {
+                    m_nextSegmentIndex = Math.max(m_nextSegmentIndex, CommandLogSegment.indexOf(f.getName()) + 1);
+                    m_segmentFiles.add(f);
+                    m_segmentBytes += f.length();
+                }
+                else if (!f.delete()) {
+                    LOG.warn("Unable to delete stale command log segment " + f);
+                }
+            }
+        }
+        m_segmentCount = m_segmentFiles.size();
+
+        final long logSizeBytes = Math.max(1, logSize) * 1024L * 1024L;
+        m_segmentSize = (int)Math.max(MIN_SEGMENT_SIZE,
+                Math.min(MAX_SEGMENT_SIZE, logSizeBytes / SEGMENTS_PER_LOG));
+        m_retentionBytes = Math.max(1, Long.getLong(RETENTION_MB, Math.max(1, logSize))) * 1024L * 1024L;
+        m_initialTxnId = txnId;
+        if (perPartitionTxnId != null) {
+            m_initialPerPartitionTxnId = new TreeMap<Integer, Long>(perPartitionTxnId);
+        }
+        final HostMessenger messenger = VoltDB.instance().getHostMessenger();
+        m_instanceId = messenger == null ? null : messenger.getInstanceId();
+
+        LOG.info("Command logging to " + m_logDir + ", " + (m_synchronous ? "synchronous" : "asynchronous") +
+                 " with " + TimeUnit.NANOSECONDS.toMillis(m_fsyncIntervalNanos) + "ms group commit and " +
+                 (m_segmentSize / (1024 * 1024)) + "MB segments");
+        LOG.info("Without snapshots the command log can only recover the database until it grows past " +
+                 (m_retentionBytes / (1024 * 1024)) + "MB, the oldest segments are deleted after that");
+
+        synchronized (m_lock) {
+            m_initialized = true;
+        }
+    }
+
+    @Override
+    public void initForRejoin(int logSize, long txnId, int partitionCount, boolean isRejoin,
+            String coreBinding, Map<Integer, Long> perPartitionTxnId)
+    {
+        init(logSize, txnId, partitionCount, coreBinding, perPartitionTxnId);
+    }
+
+    @Override
+    public boolean needsInitialization() {
+        synchronized (m_lock) {
+            return !m_initialized;
+        }
+    }
+
+    @Override
+    public ListenableFuture<Object> log(Iv2InitiateTaskMessage message, long spHandle,
+            int[] involvedPartitions, DurabilityListener listener, TransactionTask durabilityHandle)
+    {
+        // Reads only wait for the writes ahead of them, there is nothing to replay
+        final int size = message.isReadOnly() ? 0 : CommandLogSegment.initiateRecordSize(message, involvedPartitions);
+        synchronized (m_lock) {
+            if (!m_initialized) {
+                // Replayed transactions are already in the segments, and they
+                // can't wait on the writer because the multi-partition fragments
+                // of a replay are never logged and would run ahead of them
+                return CoreUtils.COMPLETED_FUTURE;
+            }
+            if (size > 0) {
+                ensurePendingCapacity(size);
+                try {
+                    CommandLogSegment.writeInitiateRecord(m_pending, TxnEgo.getPartitionId(spHandle), spHandle,
+                                                          involvedPartitions, message);
+                } catch (IOException e) {
+                    VoltDB.crashLocalVoltDB("Unable to serialize command log record", true, e);
+                }
+            }
+            listener.addTransaction(durabilityHandle);
+            if (++m_pendingTxns >= m_maxTxns) {
+                m_lock.notify();
+            }
+
+            if (m_synchronous) {
+                // The listener releases the task once the batch is durable
+                return null;
+            }
+            if (m_pending.position() < MAX_OUTSTANDING_BYTES) {
+                return CoreUtils.COMPLETED_FUTURE;
+            }
+            if (m_backpressureFuture == null) {
+                m_backpressureFuture = SettableFuture.create();
+            }
+            return m_backpressureFuture;
+        }
+    }
+
+    @Override
+    public SettableFuture<Boolean> logIv2Fault(long writerHSId, Set<Long> survivorHSId,
+            int partitionId, long spHandle)
+    {
+        final SettableFuture<Boolean> written = SettableFuture.create();
+        synchronized (m_lock) {
+            ensurePendingCapacity(CommandLogSegment.faultRecordSize(survivorHSId));
+            CommandLogSegment.writeFaultRecord(m_pending, writerHSId, survivorHSId, partitionId, spHandle);
+            m_pendingFaultWrites.add(written);
+            m_lock.notify();
+        }
+        return written;
+    }
+
+    @Override
+    public void initializeLastDurableUniqueId(DurabilityListener listener, long uniqueId) {
+        synchronized (m_lock) {
+            listener.initializeLastDurableUniqueId(uniqueId);
+        }
+    }
+
+    @Override
+    public void registerDurabilityListener(DurabilityListener durabilityListener) {
+        synchronized (m_lock) {
+            m_listeners.add(durabilityListener);
+        }
+    }
+
+    private void ensurePendingCapacity(int size) {
+        if (m_pending.remaining() >= size) {
+            return;
+        }
+        int capacity = m_pending.capacity();
+        while (capacity - m_pending.position() < size) {
+            capacity *= 2;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        m_pending.flip();
+        grown.put(m_pending);
+        m_pending = grown;
+    }
+
+    /*
+     * Group commit loop. Each iteration waits for the fsync interval (or for
+     * enough transactions), takes the pending batch and one CompletionChecks
+     * per listener while holding the lock, then writes, syncs and notifies
+     * without it so producers are never blocked on the disk.
+     */
+    private void runWriter() {
+        long lastCommit = System.nanoTime();
+        while (true) {
+            final ByteBuffer batch;
+            final List<DurabilityListener> listeners;
+            final List<CompletionChecks> checks;
+            final List<SettableFuture<Boolean>> faultWrites;
+            final SettableFuture<Object> backpressure;
+            final boolean initialized;
+            final boolean shutdown;
+            synchronized (m_lock) {
+                final long deadline = lastCommit + m_fsyncIntervalNanos;
+                long now;
+                while (!m_shutdown && m_pendingTxns < m_maxTxns && m_pendingFaultWrites.isEmpty() &&
+                       (now = System.nanoTime()) < deadline) {
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(m_lock, deadline - now);
+                    } catch (InterruptedException e) {
+                        // Only shutdown interrupts the writer, and it sets m_shutdown first
+                    }
+                }
+
+                batch = m_pending;
+                m_pending = m_spare;
+                m_spare = null;
+                m_pendingTxns = 0;
+                listeners = new ArrayList<DurabilityListener>(m_listeners);
+                checks = new ArrayList<CompletionChecks>(listeners.size());
+                for (DurabilityListener listener : listeners) {
+                    checks.add(listener.startNewTaskList(listener.getNumberOfTasks()));
+                }
+                faultWrites = m_pendingFaultWrites;
+                m_pendingFaultWrites = new ArrayList<SettableFuture<Boolean>>();
+                backpressure = m_backpressureFuture;
+                m_backpressureFuture = null;
+                initialized = m_initialized;
+                shutdown = m_shutdown;
+            }
+
+            final long commitStart = System.nanoTime();
+            m_lastFsyncIntervalMs = (int)TimeUnit.NANOSECONDS.toMillis(commitStart - lastCommit);
+            lastCommit = commitStart;
+
+            batch.flip();
+            // Before init() this node is still replaying, nothing is logged
+            if (initialized && batch.hasRemaining()) {
+                try {
+                    writeBatch(batch);
+                } catch (IOException e) {
+                    VoltDB.crashLocalVoltDB("Unable to write to the command log", true, e);
+                }
+            }
+            batch.clear();
+            synchronized (m_lock) {
+                m_spare = batch;
+            }
+
+            for (int ii = 0; ii < listeners.size(); ii++) {
+                listeners.get(ii).processDurabilityChecks(checks.get(ii));
+            }
+            for (SettableFuture<Boolean> written : faultWrites) {
+                written.set(true);
+            }
+            if (backpressure != null) {
+                backpressure.set(null);
+            }
+
+            if (shutdown) {
+                break;
+            }
+        }
+        closeSegments();
+    }
+
+    /**
+     * Copy a sealed batch into segments, rolling to a new segment whenever
+     * the next record doesn't fit, and sync once at the end.
+     */
+    private void writeBatch(ByteBuffer batch) throws IOException {
+        CommandLogSegment.sealRecords(batch);
+        CommandLogSegment active = m_segments.peekLast();
+        if (active == null) {
+            active = openSegment();
+        }
+        while (batch.hasRemaining()) {
+            // Find the longest run of whole records that fits
+            int end = batch.position();
+            while (end < batch.limit()) {
+                final int recordSize = CommandLogSegment.RECORD_HEADER_SIZE + batch.getInt(end);
+                if (end + recordSize - batch.position() > active.remaining()) {
+                    break;
+                }
+                end += recordSize;
+            }
+            if (end == batch.position()) {
+                if (active.recordCount() == 0) {
+                    throw new IOException("Command log record of " + batch.getInt(end) +
+                            " bytes doesn't fit in a " + m_segmentSize + " byte segment");
+                }
+                active.close();
+                active = openSegment();
+                continue;
+            }
+            final ByteBuffer run = batch.duplicate();
+            run.limit(end);
+            active.append(run);
+            batch.position(end);
+        }
+        active.sync();
+    }
+
+    private CommandLogSegment openSegment() throws IOException {
+        CommandLogSegment segment = new CommandLogSegment(m_logDir, m_nextSegmentIndex++, m_segmentSize,
+                m_instanceId, m_initialTxnId, m_initialPerPartitionTxnId);
+        m_segments.add(segment);
+        m_segmentFiles.add(segment.file());
+        m_segmentBytes += segment.file().length();
+        retireSegments();
+        m_segmentCount = m_segmentFiles.size();
+        m_inUseSegmentCount = m_segments.size();
+        return segment;
+    }
+
+    /*
+     * Delete the oldest segments while the log is over its retention limit,
+     * always keeping the one being written
+     */
+    private void retireSegments() throws IOException {
+        while (m_segmentBytes > m_retentionBytes && m_segmentFiles.size() > 1) {
+            final File oldest = m_segmentFiles.poll();
+            final Iterator<CommandLogSegment> iter = m_segments.iterator();
+            while (iter.hasNext()) {
+                final CommandLogSegment segment = iter.next();
+                if (segment.file().equals(oldest)) {
+                    segment.close();
+                    iter.remove();
+                }
+            }
+            m_segmentBytes -= oldest.length();
+            if (!oldest.delete()) {
+                throw new IOException("Unable to delete command log segment " + oldest);
+            }
+            if (!m_retiredSegments) {
+                m_retiredSegments = true;
+                LOG.error("The command log in " + m_logDir + " grew past its retention limit of " +
+                          (m_retentionBytes / (1024 * 1024)) + "MB and its oldest segments are being deleted. " +
+                          "It no longer holds every transaction since the database was created, so it " +
+                          "can't be recovered from. Raise " + RETENTION_MB + " or the command log size " +
+                          "to keep more of it.");
+            }
+        }
+    }
+
+    private void closeSegments() {
+        for (CommandLogSegment segment : m_segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to close command log segment " + segment.file(), e);
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() throws InterruptedException {
+        synchronized (m_lock) {
+            m_shutdown = true;
+            m_lock.notify();
+        }
+        m_writer.join();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void requestTruncationSnapshot(final boolean queueIfPending) {
+        // Without snapshots there is nothing to truncate the log with
+    }
+
+    @Override
+    public boolean isTruncatedBySnapshots() {
+        return false;
+    }
+
+    @Override
+    public void populateCommandLogStats(Map<String, Integer> columnNameToIndex, Object[] rowValues) {
+        final long outstandingBytes;
+        final long outstandingTxns;
+        synchronized (m_lock) {
+            outstandingBytes = m_pending.position();
+            outstandingTxns = m_pendingTxns;
+        }
+        rowValues[columnNameToIndex.get(CommandLogStats.StatName.OUTSTANDING_BYTES.name())] = outstandingBytes;
+        rowValues[columnNameToIndex.get(CommandLogStats.StatName.OUTSTANDING_TXNS.name())] = outstandingTxns;
+        rowValues[columnNameToIndex.get(CommandLogStats.StatName.IN_USE_SEGMENT_COUNT.name())] = m_inUseSegmentCount;
+        rowValues[columnNameToIndex.get(CommandLogStats.StatName.SEGMENT_COUNT.name())] = m_segmentCount;
+        rowValues[columnNameToIndex.get(CommandLogStats.StatName.FSYNC_INTERVAL.name())] = m_lastFsyncIntervalMs;
+    }
+
+    @Override
+    public boolean isSynchronous() {
+        return m_synchronous;
+    }
+
+    @Override
+    public boolean canOfferTask() {
+        synchronized (m_lock) {
+            return !m_synchronous || !m_initialized;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.voltcore.network.VoltNetworkPool;
+import org.voltcore.utils.Pair;
+import org.voltdb.VoltTable.ColumnInfo;
+
+/**
+ * One row per network thread of the host messenger's network pool, so an
+ * operator can see when a single thread saturates. Like {@link IOStats} the
+ * rows are fetched from the network threads each time stats are requested.
+ */
+public class IOReactorStats extends StatsSource {
+    private Map<Integer, Pair<String, long[]>> m_reactorStats =
+        new TreeMap<Integer, Pair<String, long[]>>();
+
+    public IOReactorStats() {
+        super(false);
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo("REACTOR_ID", VoltType.INTEGER));
+        columns.add(new ColumnInfo("THREAD_NAME", VoltType.STRING));
+        columns.add(new ColumnInfo("CONNECTIONS", VoltType.INTEGER));
+        columns.add(new ColumnInfo("BYTES_READ", VoltType.BIGINT));
+        columns.add(new ColumnInfo("MESSAGES_READ", VoltType.BIGINT));
+        columns.add(new ColumnInfo("BYTES_WRITTEN", VoltType.BIGINT));
+        columns.add(new ColumnInfo("MESSAGES_WRITTEN", VoltType.BIGINT));
+        columns.add(new ColumnInfo("SELECTS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("TASKS", VoltType.BIGINT));
+        columns.add(new ColumnInfo("PERCENT_BUSY", VoltType.FLOAT));
+    }
+
+    @Override
+    protected void updateStatsRow(Object rowKey, Object[] rowValues) {
+        final Pair<String, long[]> info = m_reactorStats.get(rowKey);
+        final long[] counters = info.getSecond();
+        final long elapsedNanos = counters[VoltNetworkPool.REACTOR_ELAPSED_NANOS];
+
+        rowValues[columnNameToIndex.get("REACTOR_ID")] = rowKey;
+        rowValues[columnNameToIndex.get("THREAD_NAME")] = info.getFirst();
+        rowValues[columnNameToIndex.get("CONNECTIONS")] = (int)counters[VoltNetworkPool.REACTOR_CONNECTIONS];
+        rowValues[columnNameToIndex.get("BYTES_READ")] = counters[VoltNetworkPool.REACTOR_BYTES_READ];
+        rowValues[columnNameToIndex.get("MESSAGES_READ")] = counters[VoltNetworkPool.REACTOR_MESSAGES_READ];
+        rowValues[columnNameToIndex.get("BYTES_WRITTEN")] = counters[VoltNetworkPool.REACTOR_BYTES_WRITTEN];
+        rowValues[columnNameToIndex.get("MESSAGES_WRITTEN")] = counters[VoltNetworkPool.REACTOR_MESSAGES_WRITTEN];
+        rowValues[columnNameToIndex.get("SELECTS")] = counters[VoltNetworkPool.REACTOR_SELECTS];
+        rowValues[columnNameToIndex.get("TASKS")] = counters[VoltNetworkPool.REACTOR_TASKS];
+        rowValues[columnNameToIndex.get("PERCENT_BUSY")] = elapsedNanos <= 0 ? 0.0 :
+            Math.min(100.0, counters[VoltNetworkPool.REACTOR_BUSY_NANOS] * 100.0 / elapsedNanos);
+        super.updateStatsRow(rowKey, rowValues);
+    }
+
+    @Override
+    protected Iterator<Object> getStatsRowKeyIterator(boolean interval) {
+        try {
+            m_reactorStats = VoltDB.instance().getHostMessenger().getReactorStats(interval);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        final Iterator<Integer> i = m_reactorStats.keySet().iterator();
+        return new Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+                return i.hasNext();
+            }
+
+            @Override
+            public Object next() {
+                return i.next();
+            }
+
+            @Override
+            public void remove() {
+                i.remove();
+            }
+        };
+    }
+}
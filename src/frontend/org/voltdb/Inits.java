@@ -464,6 +464,13 @@ public class Inits {
                         VoltDB.crashLocalVoltDB("Unable to instantiate command log", true, e);
                     }
                 }
+                else {
+                    m_rvdb.m_commandLog = new GroupCommitCommandLog(logConfig.getSynchronous(),
+                                                                    logConfig.getFsyncinterval(),
+                                                                    logConfig.getMaxtxns(),
+                                                                    VoltDB.instance().getCommandLogPath(),
+                                                                    m_config.m_startAction.doesRecover());
+                }
             }
         }
     }
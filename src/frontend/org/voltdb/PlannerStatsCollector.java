@@ -24,6 +24,8 @@ import org.voltcore.logging.VoltLogger;
 import org.voltcore.utils.CoreUtils;
 import org.voltdb.VoltTable.ColumnInfo;
 
+import com.google_voltpatches.common.base.Supplier;
+
 /**
  * Collects global cache use stats
  */
@@ -37,9 +39,10 @@ public class PlannerStatsCollector extends StatsSource {
     private boolean m_interval = false;
 
     /**
-     * Record timings every N invocations
+     * Reports how many ad hoc planner tasks are waiting, only set for the
+     * collector of the ad hoc planner
      */
-    final long m_collectionFrequency = 20;
+    private static volatile Supplier<Integer> s_queueDepth = null;
 
     /**
      * Flag indicating cache disposition of a planned statement.
@@ -49,6 +52,8 @@ public class PlannerStatsCollector extends StatsSource {
         HIT1,
         /// Plan came from cache #2.
         HIT2,
+        /// Plan came from cache #2, found by lexing the statement without parsing it.
+        LEXED_HIT,
         /// Plan not found in either cache.
         MISS,
         /// An unexpected failure interrupted cache lookup or planning.
@@ -90,15 +95,16 @@ public class PlannerStatsCollector extends StatsSource {
     long m_lastCache2Hits = 0;
 
     /**
-     * Cache misses
+     * Cache 2 hits found by the lexer
      */
-    long m_cacheMisses = 0;
-    long m_lastCacheMisses = 0;
+    long m_cacheLexedHits = 0;
+    long m_lastCacheLexedHits = 0;
 
     /**
-     * Time of last planning start
+     * Cache misses
      */
-    Long m_currentStartTime = null;
+    long m_cacheMisses = 0;
+    long m_lastCacheMisses = 0;
 
     /**
      * Total amount of planning time
@@ -106,6 +112,25 @@ public class PlannerStatsCollector extends StatsSource {
     long m_totalPlanningTime = 0;
     long m_lastTimedPlanningTime = 0;
 
+    /**
+     * Planning time of cache 2 hits that parsed the statement, the estimate of
+     * what a hit found by the lexer saves
+     */
+    long m_totalCache2HitTime = 0;
+    long m_timedCache2Hits = 0;
+
+    /**
+     * Estimated planning time saved by not parsing cache 2 hits found by the lexer
+     */
+    long m_planningTimeSaved = 0;
+    long m_lastPlanningTimeSaved = 0;
+
+    /**
+     * Number of plannings that were timed
+     */
+    long m_timedInvocations = 0;
+    long m_lastTimedInvocations = 0;
+
     /**
      * Shortest amount of time used for planning
      */
@@ -135,7 +160,7 @@ public class PlannerStatsCollector extends StatsSource {
      * Calculate the invocation count based on the cache hit/miss counts.
      * @return  invocation count
      */
-    long getInvocations() {
+    synchronized long getInvocations() {
         return m_invocations;
     }
 
@@ -143,18 +168,10 @@ public class PlannerStatsCollector extends StatsSource {
      * Calculate the last invocation count based on the last cache hit/miss counts.
      * @return  last invocation count
      */
-    long getLastInvocations() {
+    synchronized long getLastInvocations() {
         return m_lastInvocations;
     }
 
-    /**
-     * Calculate the sample count based on the invocation count and the collection frequency.
-     * @return  sample count
-     */
-    long getSampleCount() {
-        return getInvocations() / m_collectionFrequency;
-    }
-
     /**
      * Constructor
      *
@@ -165,10 +182,17 @@ public class PlannerStatsCollector extends StatsSource {
         m_siteId = siteId;
     }
 
+    /**
+     * Set where the ad hoc planner queue depth comes from.
+     */
+    public static void setQueueDepthSupplier(Supplier<Integer> queueDepth) {
+        s_queueDepth = queueDepth;
+    }
+
     /**
      * Used to update EE cache stats without changing tracked time
      */
-    public void updateEECacheStats(long eeCacheSize, long hits, long misses, int partitionId) {
+    public synchronized void updateEECacheStats(long eeCacheSize, long hits, long misses, int partitionId) {
         m_cache1Level = eeCacheSize;
         m_cache1Hits += hits;
         m_cacheMisses += misses;
@@ -178,39 +202,48 @@ public class PlannerStatsCollector extends StatsSource {
     }
 
     /**
-     * Called before doing planning. Starts timer.
+     * Called before doing planning. Starts timer. Every planning is timed, and the
+     * start time is handed back to the caller so that several planner threads
+     * can share the collector.
+     *
+     * @return  start time to pass to {@link #endStatsCollection}
      */
-    public void startStatsCollection() {
-        if (getInvocations() % m_collectionFrequency == 0) {
-            m_currentStartTime = System.nanoTime();
-        }
+    public long startStatsCollection() {
+        return System.nanoTime();
     }
 
     /**
      * Called after planning or failing to plan. Records timer and cache stats.
      *
+     * @param startTime    value returned by {@link #startStatsCollection}
      * @param cache1Size   number of entries in level 1 cache
      * @param cache2Size   number of entries in level 2 cache
      * @param cacheUse     where the planned statement came from
      * @param partitionId  partition id
      */
-    public void endStatsCollection(long cache1Size, long cache2Size, CacheUse cacheUse, long partitionId) {
-        if (m_currentStartTime != null) {
-            long delta = System.nanoTime() - m_currentStartTime;
-            if (delta < 0) {
-                if (Math.abs(delta) > 1000000000) {
-                    log.info("Planner statistics recorded a negative planning time larger than one second: " +
-                             delta);
-                }
+    public synchronized void endStatsCollection(long startTime, long cache1Size, long cache2Size,
+                                                CacheUse cacheUse, long partitionId) {
+        long delta = System.nanoTime() - startTime;
+        if (delta < 0) {
+            if (Math.abs(delta) > 1000000000) {
+                log.info("Planner statistics recorded a negative planning time larger than one second: " +
+                         delta);
             }
-            else {
-                m_totalPlanningTime += delta;
-                m_minPlanningTime = Math.min(delta, m_minPlanningTime);
-                m_maxPlanningTime = Math.max(delta, m_maxPlanningTime);
-                m_lastMinPlanningTime = Math.min(delta, m_lastMinPlanningTime);
-                m_lastMaxPlanningTime = Math.max(delta, m_lastMaxPlanningTime);
+        }
+        else {
+            m_totalPlanningTime += delta;
+            m_minPlanningTime = Math.min(delta, m_minPlanningTime);
+            m_maxPlanningTime = Math.max(delta, m_maxPlanningTime);
+            m_lastMinPlanningTime = Math.min(delta, m_lastMinPlanningTime);
+            m_lastMaxPlanningTime = Math.max(delta, m_lastMaxPlanningTime);
+            m_timedInvocations++;
+            if (cacheUse == CacheUse.HIT2) {
+                m_totalCache2HitTime += delta;
+                m_timedCache2Hits++;
+            }
+            else if (cacheUse == CacheUse.LEXED_HIT && m_timedCache2Hits > 0) {
+                m_planningTimeSaved += Math.max(0, m_totalCache2HitTime / m_timedCache2Hits - delta);
             }
-            m_currentStartTime = null;
         }
 
         m_cache1Level = cache1Size;
@@ -223,6 +256,10 @@ public class PlannerStatsCollector extends StatsSource {
           case HIT2:
             m_cache2Hits++;
             break;
+          case LEXED_HIT:
+            m_cache2Hits++;
+            m_cacheLexedHits++;
+            break;
           case MISS:
             m_cacheMisses++;
             break;
@@ -242,7 +279,7 @@ public class PlannerStatsCollector extends StatsSource {
      * @param values Values of each column of the row of stats. Used as output.
      */
     @Override
-    protected void updateStatsRow(Object rowKey, Object rowValues[]) {
+    protected synchronized void updateStatsRow(Object rowKey, Object rowValues[]) {
         super.updateStatsRow(rowKey, rowValues);
 
         rowValues[columnNameToIndex.get("PARTITION_ID")] = m_partitionId;
@@ -253,13 +290,19 @@ public class PlannerStatsCollector extends StatsSource {
         long cache2Level = m_cache2Level;
         long cache1Hits  = m_cache1Hits;
         long cache2Hits  = m_cache2Hits;
+        long cacheLexedHits = m_cacheLexedHits;
+        long planningTimeSaved = m_planningTimeSaved;
         long cacheMisses = m_cacheMisses;
         long failureCount = m_failures;
+        long timedInvocations = m_timedInvocations;
 
         if (m_interval) {
             totalTimedExecutionTime = m_totalPlanningTime - m_lastTimedPlanningTime;
             m_lastTimedPlanningTime = m_totalPlanningTime;
 
+            timedInvocations = m_timedInvocations - m_lastTimedInvocations;
+            m_lastTimedInvocations = m_timedInvocations;
+
             minExecutionTime = m_lastMinPlanningTime;
             maxExecutionTime = m_lastMaxPlanningTime;
             m_lastMinPlanningTime = Long.MAX_VALUE;
@@ -277,6 +320,12 @@ public class PlannerStatsCollector extends StatsSource {
             cache2Hits = m_cache2Hits - m_lastCache2Hits;
             m_lastCache2Hits = m_cache2Hits;
 
+            cacheLexedHits = m_cacheLexedHits - m_lastCacheLexedHits;
+            m_lastCacheLexedHits = m_cacheLexedHits;
+
+            planningTimeSaved = m_planningTimeSaved - m_lastPlanningTimeSaved;
+            m_lastPlanningTimeSaved = m_planningTimeSaved;
+
             cacheMisses = m_cacheMisses - m_lastCacheMisses;
             m_lastCacheMisses = m_cacheMisses;
 
@@ -295,13 +344,21 @@ public class PlannerStatsCollector extends StatsSource {
         rowValues[columnNameToIndex.get("CACHE_MISSES")] = cacheMisses;
         rowValues[columnNameToIndex.get("PLAN_TIME_MIN")] = minExecutionTime;
         rowValues[columnNameToIndex.get("PLAN_TIME_MAX")] = maxExecutionTime;
-        if (getSampleCount() != 0) {
+        if (timedInvocations != 0) {
             rowValues[columnNameToIndex.get("PLAN_TIME_AVG")] =
-                 (totalTimedExecutionTime / getSampleCount());
+                 (totalTimedExecutionTime / timedInvocations);
         } else {
             rowValues[columnNameToIndex.get("PLAN_TIME_AVG")] = 0L;
         }
         rowValues[columnNameToIndex.get("FAILURES")] = failureCount;
+        final Supplier<Integer> queueDepth = s_queueDepth;
+        if (m_siteId == -1 && queueDepth != null) {
+            rowValues[columnNameToIndex.get("QUEUE_DEPTH")] = queueDepth.get();
+        } else {
+            rowValues[columnNameToIndex.get("QUEUE_DEPTH")] = 0;
+        }
+        rowValues[columnNameToIndex.get("CACHE_LEXED_HITS")] = cacheLexedHits;
+        rowValues[columnNameToIndex.get("PLAN_TIME_SAVED")] = planningTimeSaved;
     }
 
     /**
@@ -322,6 +379,9 @@ public class PlannerStatsCollector extends StatsSource {
         columns.add(new ColumnInfo("PLAN_TIME_MAX", VoltType.BIGINT));
         columns.add(new ColumnInfo("PLAN_TIME_AVG", VoltType.BIGINT));
         columns.add(new ColumnInfo("FAILURES",      VoltType.BIGINT));
+        columns.add(new ColumnInfo("QUEUE_DEPTH",   VoltType.INTEGER));
+        columns.add(new ColumnInfo("CACHE_LEXED_HITS", VoltType.INTEGER));
+        columns.add(new ColumnInfo("PLAN_TIME_SAVED", VoltType.BIGINT));
     }
 
     @Override
@@ -20,51 +20,61 @@ package org.voltdb;
 import java.util.ArrayList;
 import java.util.Iterator;
 
+import org.HdrHistogram_voltpatches.AbstractHistogram;
+import org.HdrHistogram_voltpatches.Histogram;
+import org.HdrHistogram_voltpatches.SingleWriterRecorder;
 import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.CompressionStrategySnappy;
 import org.voltdb.catalog.Procedure;
 
 /**
  * Derivation of StatsSource to expose timing information of procedure invocations.
  *
+ * Every invocation is timed. Execution times, result sizes and parameter set sizes go
+ * into HdrHistograms that the site thread records into without locking. The stats
+ * thread swaps out what was recorded when the statistics are read and adds it to a
+ * histogram since the start and one since the last interval poll, which the min, max,
+ * average and percentile columns are computed from. The percentiles of a row are those of
+ * the site, the execution time histogram goes along with the row so that PROCEDUREPROFILE
+ * can merge the histograms of every site into percentiles of the procedure.
  */
 class ProcedureStatsCollector extends SiteStatsSource {
 
     private static final VoltLogger log = new VoltLogger("HOST");
 
     /**
-     * Record procedure execution time ever N invocations
+     * Significant digits of the histograms. Two keep the values within 1% while the
+     * histograms of a procedure stay a few KB each.
      */
-    final int timeCollectionInterval = 20;
+    static final int HISTOGRAM_PRECISION = Integer.getInteger("PROCEDURE_STATS_PRECISION", 2);
 
     /**
-     * Number of times this procedure has been invoked.
+     * Column of the compressed execution time histogram, only PROCEDUREPROFILE returns it
      */
-    private long m_invocations = 0;
-    private long m_lastInvocations = 0;
+    static final String EXECUTION_TIME_HISTOGRAM = "EXECUTION_TIME_HISTOGRAM";
 
     /**
-     * Number of timed invocations
+     * Recorded values of one measurement
      */
-    private long m_timedInvocations = 0;
-    private long m_lastTimedInvocations = 0;
-
-    /**
-     * Total amount of timed execution time
-     */
-    private long m_totalTimedExecutionTime = 0;
-    private long m_lastTotalTimedExecutionTime = 0;
-
-    /**
-     * Shortest amount of time this procedure has executed in
-     */
-    private long m_minExecutionTime = Long.MAX_VALUE;
-    private long m_lastMinExecutionTime = Long.MAX_VALUE;
+    private static class Distribution {
+        private final SingleWriterRecorder m_recorder = new SingleWriterRecorder(HISTOGRAM_PRECISION);
+        // Interval sample handed back to the recorder on the next roll up
+        private Histogram m_sample = null;
+        private final Histogram m_sinceStart = new Histogram(HISTOGRAM_PRECISION);
+        private final Histogram m_sinceLastInterval = new Histogram(HISTOGRAM_PRECISION);
+
+        private void rollUp() {
+            m_sample = m_recorder.getIntervalHistogram(m_sample);
+            m_sinceStart.add(m_sample);
+            m_sinceLastInterval.add(m_sample);
+        }
+    }
 
     /**
-     * Longest amount of time this procedure has executed in
+     * Number of times this procedure has been invoked.
      */
-    private long m_maxExecutionTime = Long.MIN_VALUE;
-    private long m_lastMaxExecutionTime = Long.MIN_VALUE;
+    private long m_invocations = 0;
+    private long m_lastInvocations = 0;
 
     /**
      * Time the procedure was last started
@@ -84,40 +94,12 @@ class ProcedureStatsCollector extends SiteStatsSource {
     private long m_lastFailureCount = 0;
 
     /**
-     * Smallest result size
-     */
-    private int m_minResultSize = Integer.MAX_VALUE;
-    private int m_lastMinResultSize = Integer.MAX_VALUE;
-
-    /**
-     * Largest result size
-     */
-    private int m_maxResultSize = Integer.MIN_VALUE;
-    private int m_lastMaxResultSize = Integer.MIN_VALUE;
-
-    /**
-     * Total result size for calculating averages
-     */
-    private long m_totalResultSize = 0;
-    private long m_lastTotalResultSize = 0;
-
-    /**
-     * Smallest parameter set size
-     */
-    private long m_minParameterSetSize = Long.MAX_VALUE;
-    private long m_lastMinParameterSetSize = Long.MAX_VALUE;
-
-    /**
-     * Largest parameter set size
+     * Created by the site thread on the first invocation, a lot of procedures are never
+     * called on most sites
      */
-    private long m_maxParameterSetSize = Long.MIN_VALUE;
-    private long m_lastMaxParameterSetSize = Long.MIN_VALUE;
-
-    /**
-     * Total parameter set size for calculating averages
-     */
-    private long m_totalParameterSetSize = 0;
-    private long m_lastTotalParameterSetSize = 0;
+    private volatile Distribution m_executionTimes = null;
+    private volatile Distribution m_resultSizes = null;
+    private volatile Distribution m_parameterSetSizes = null;
 
     /**
      * Whether to return results in intervals since polling or since the beginning
@@ -140,13 +122,11 @@ class ProcedureStatsCollector extends SiteStatsSource {
      * Called when a procedure begins executing. Caches the time the procedure starts.
      */
     public final void beginProcedure() {
-        if (m_invocations % timeCollectionInterval == 0) {
-            m_currentStartTime = System.nanoTime();
-        }
+        m_currentStartTime = System.nanoTime();
     }
 
     /**
-     * Called after a procedure is finished executing. Compares the start and end time and calculates
+     * Called after a procedure is finished executing. Compares the start and end time and records
      * the statistics.
      */
     public final void endProcedure(
@@ -155,8 +135,6 @@ class ProcedureStatsCollector extends SiteStatsSource {
             VoltTable[] results,
             ParameterSet parameterSet) {
         if (m_currentStartTime > 0) {
-            // This is a sampled invocation.
-            // Update timings and size statistics.
             final long endTime = System.nanoTime();
             final long delta = endTime - m_currentStartTime;
             if (delta < 0)
@@ -170,34 +148,22 @@ class ProcedureStatsCollector extends SiteStatsSource {
             }
             else
             {
-                m_totalTimedExecutionTime += delta;
-                m_timedInvocations++;
-
-                // sampled timings
-                m_minExecutionTime = Math.min( delta, m_minExecutionTime);
-                m_maxExecutionTime = Math.max( delta, m_maxExecutionTime);
-                m_lastMinExecutionTime = Math.min( delta, m_lastMinExecutionTime);
-                m_lastMaxExecutionTime = Math.max( delta, m_lastMaxExecutionTime);
+                if (m_executionTimes == null) {
+                    m_resultSizes = new Distribution();
+                    m_parameterSetSizes = new Distribution();
+                    m_executionTimes = new Distribution();
+                }
+                m_executionTimes.m_recorder.recordValue(delta);
 
-                // sampled size statistics
                 int resultSize = 0;
                 if (results != null) {
                     for (VoltTable result : results ) {
                         resultSize += result.getSerializedSize();
                     }
                 }
-                m_totalResultSize += resultSize;
-                m_minResultSize = Math.min(resultSize, m_minResultSize);
-                m_maxResultSize = Math.max(resultSize, m_maxResultSize);
-                m_lastMinResultSize = Math.min(resultSize, m_lastMinResultSize);
-                m_lastMaxResultSize = Math.max(resultSize, m_lastMaxResultSize);
-                long parameterSetSize = (
+                m_resultSizes.m_recorder.recordValue(resultSize);
+                m_parameterSetSizes.m_recorder.recordValue(
                         parameterSet != null ? parameterSet.getSerializedSize() : 0);
-                m_totalParameterSetSize += parameterSetSize;
-                m_minParameterSetSize = Math.min(parameterSetSize, m_minParameterSetSize);
-                m_maxParameterSetSize = Math.max(parameterSetSize, m_maxParameterSetSize);
-                m_lastMinParameterSetSize = Math.min(parameterSetSize, m_lastMinParameterSetSize);
-                m_lastMaxParameterSetSize = Math.max(parameterSetSize, m_lastMaxParameterSetSize);
             }
             m_currentStartTime = -1;
         }
@@ -222,74 +188,85 @@ class ProcedureStatsCollector extends SiteStatsSource {
         rowValues[columnNameToIndex.get("PARTITION_ID")] = m_partitionId;
         rowValues[columnNameToIndex.get("PROCEDURE")] = m_catProc.getClassname();
         long invocations = m_invocations;
-        long totalTimedExecutionTime = m_totalTimedExecutionTime;
-        long timedInvocations = m_timedInvocations;
-        long minExecutionTime = m_minExecutionTime;
-        long maxExecutionTime = m_maxExecutionTime;
         long abortCount = m_abortCount;
         long failureCount = m_failureCount;
-        int minResultSize = m_minResultSize;
-        int maxResultSize = m_maxResultSize;
-        long totalResultSize = m_totalResultSize;
-        long minParameterSetSize = m_minParameterSetSize;
-        long maxParameterSetSize = m_maxParameterSetSize;
-        long totalParameterSetSize = m_totalParameterSetSize;
 
         if (m_interval) {
             invocations = m_invocations - m_lastInvocations;
             m_lastInvocations = m_invocations;
 
-            totalTimedExecutionTime = m_totalTimedExecutionTime - m_lastTotalTimedExecutionTime;
-            m_lastTotalTimedExecutionTime = m_totalTimedExecutionTime;
-
-            timedInvocations = m_timedInvocations - m_lastTimedInvocations;
-            m_lastTimedInvocations = m_timedInvocations;
-
             abortCount = m_abortCount - m_lastAbortCount;
             m_lastAbortCount = m_abortCount;
 
             failureCount = m_failureCount - m_lastFailureCount;
             m_lastFailureCount = m_failureCount;
+        }
 
-            minExecutionTime = m_lastMinExecutionTime;
-            maxExecutionTime = m_lastMaxExecutionTime;
-            m_lastMinExecutionTime = Long.MAX_VALUE;
-            m_lastMaxExecutionTime = Long.MIN_VALUE;
-
-            minResultSize = m_lastMinResultSize;
-            maxResultSize = m_lastMaxResultSize;
-            m_lastMinResultSize = Integer.MAX_VALUE;
-            m_lastMaxResultSize = Integer.MIN_VALUE;
-
-            totalResultSize = m_totalResultSize - m_lastTotalResultSize;
-            m_lastTotalResultSize = m_totalResultSize;
-
-            totalParameterSetSize = m_totalParameterSetSize - m_lastTotalParameterSetSize;
-            m_lastTotalParameterSetSize = m_totalParameterSetSize;
+        // The execution times are created last, once they are visible the others are too
+        final Distribution executionTimes = m_executionTimes;
+        Histogram times = null;
+        Histogram resultSizes = null;
+        Histogram parameterSetSizes = null;
+        if (executionTimes != null) {
+            times = rollUp(executionTimes);
+            resultSizes = rollUp(m_resultSizes);
+            parameterSetSizes = rollUp(m_parameterSetSizes);
         }
 
         rowValues[columnNameToIndex.get("INVOCATIONS")] = invocations;
-        rowValues[columnNameToIndex.get("TIMED_INVOCATIONS")] = timedInvocations;
-        rowValues[columnNameToIndex.get("MIN_EXECUTION_TIME")] = minExecutionTime;
-        rowValues[columnNameToIndex.get("MAX_EXECUTION_TIME")] = maxExecutionTime;
-        if (timedInvocations != 0) {
-            rowValues[columnNameToIndex.get("AVG_EXECUTION_TIME")] =
-                 (totalTimedExecutionTime / timedInvocations);
-            rowValues[columnNameToIndex.get("AVG_RESULT_SIZE")] =
-                    (totalResultSize / timedInvocations);
-            rowValues[columnNameToIndex.get("AVG_PARAMETER_SET_SIZE")] =
-                    (totalParameterSetSize / timedInvocations);
-        } else {
-            rowValues[columnNameToIndex.get("AVG_EXECUTION_TIME")] = 0L;
-            rowValues[columnNameToIndex.get("AVG_RESULT_SIZE")] = 0L;
-            rowValues[columnNameToIndex.get("AVG_PARAMETER_SET_SIZE")] = 0L;
-        }
+        rowValues[columnNameToIndex.get("TIMED_INVOCATIONS")] = times == null ? 0L : times.getTotalCount();
+        rowValues[columnNameToIndex.get("MIN_EXECUTION_TIME")] = min(times);
+        rowValues[columnNameToIndex.get("MAX_EXECUTION_TIME")] = max(times);
+        rowValues[columnNameToIndex.get("AVG_EXECUTION_TIME")] = mean(times);
+        rowValues[columnNameToIndex.get("MIN_RESULT_SIZE")] = (int)min(resultSizes);
+        rowValues[columnNameToIndex.get("MAX_RESULT_SIZE")] = (int)max(resultSizes);
+        rowValues[columnNameToIndex.get("AVG_RESULT_SIZE")] = (int)mean(resultSizes);
+        rowValues[columnNameToIndex.get("MIN_PARAMETER_SET_SIZE")] = (int)min(parameterSetSizes);
+        rowValues[columnNameToIndex.get("MAX_PARAMETER_SET_SIZE")] = (int)max(parameterSetSizes);
+        rowValues[columnNameToIndex.get("AVG_PARAMETER_SET_SIZE")] = (int)mean(parameterSetSizes);
         rowValues[columnNameToIndex.get("ABORTS")] = abortCount;
         rowValues[columnNameToIndex.get("FAILURES")] = failureCount;
-        rowValues[columnNameToIndex.get("MIN_RESULT_SIZE")] = minResultSize;
-        rowValues[columnNameToIndex.get("MAX_RESULT_SIZE")] = maxResultSize;
-        rowValues[columnNameToIndex.get("MIN_PARAMETER_SET_SIZE")] = minParameterSetSize;
-        rowValues[columnNameToIndex.get("MAX_PARAMETER_SET_SIZE")] = maxParameterSetSize;
+        rowValues[columnNameToIndex.get("P50_EXECUTION_TIME")] = percentile(times, 50.0);
+        rowValues[columnNameToIndex.get("P95_EXECUTION_TIME")] = percentile(times, 95.0);
+        rowValues[columnNameToIndex.get("P99_EXECUTION_TIME")] = percentile(times, 99.0);
+        rowValues[columnNameToIndex.get("P999_EXECUTION_TIME")] = percentile(times, 99.9);
+        rowValues[columnNameToIndex.get("P50_RESULT_SIZE")] = (int)percentile(resultSizes, 50.0);
+        rowValues[columnNameToIndex.get("P99_RESULT_SIZE")] = (int)percentile(resultSizes, 99.0);
+        rowValues[columnNameToIndex.get("P50_PARAMETER_SET_SIZE")] = (int)percentile(parameterSetSizes, 50.0);
+        rowValues[columnNameToIndex.get("P99_PARAMETER_SET_SIZE")] = (int)percentile(parameterSetSizes, 99.0);
+        rowValues[columnNameToIndex.get(EXECUTION_TIME_HISTOGRAM)] =
+                times == null || times.getTotalCount() == 0 ? null :
+                    AbstractHistogram.toCompressedBytes(times.toUncompressedBytes(), CompressionStrategySnappy.INSTANCE);
+
+        if (m_interval && executionTimes != null) {
+            executionTimes.m_sinceLastInterval.reset();
+            m_resultSizes.m_sinceLastInterval.reset();
+            m_parameterSetSizes.m_sinceLastInterval.reset();
+        }
+    }
+
+    /*
+     * Move what the site recorded since the last read into the histogram being reported
+     */
+    private Histogram rollUp(Distribution distribution) {
+        distribution.rollUp();
+        return m_interval ? distribution.m_sinceLastInterval : distribution.m_sinceStart;
+    }
+
+    private static long min(AbstractHistogram histogram) {
+        return histogram == null || histogram.getTotalCount() == 0 ? 0 : histogram.getMinValue();
+    }
+
+    private static long max(AbstractHistogram histogram) {
+        return histogram == null || histogram.getTotalCount() == 0 ? 0 : histogram.getMaxValue();
+    }
+
+    private static long mean(AbstractHistogram histogram) {
+        return histogram == null || histogram.getTotalCount() == 0 ? 0 : (long)histogram.getMean();
+    }
+
+    private static long percentile(AbstractHistogram histogram, double percentile) {
+        return histogram == null || histogram.getTotalCount() == 0 ? 0 : histogram.getValueAtPercentile(percentile);
     }
 
     /**
@@ -314,6 +291,15 @@ class ProcedureStatsCollector extends SiteStatsSource {
         columns.add(new VoltTable.ColumnInfo("AVG_PARAMETER_SET_SIZE", VoltType.INTEGER));
         columns.add(new VoltTable.ColumnInfo("ABORTS", VoltType.BIGINT));
         columns.add(new VoltTable.ColumnInfo("FAILURES", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("P50_EXECUTION_TIME", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("P95_EXECUTION_TIME", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("P99_EXECUTION_TIME", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("P999_EXECUTION_TIME", VoltType.BIGINT));
+        columns.add(new VoltTable.ColumnInfo("P50_RESULT_SIZE", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("P99_RESULT_SIZE", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("P50_PARAMETER_SET_SIZE", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo("P99_PARAMETER_SET_SIZE", VoltType.INTEGER));
+        columns.add(new VoltTable.ColumnInfo(EXECUTION_TIME_HISTOGRAM, VoltType.VARBINARY));
     }
 
     @Override
@@ -81,6 +81,7 @@ import org.voltcore.logging.Level;
 import org.voltcore.logging.VoltLogger;
 import org.voltcore.messaging.HostMessenger;
 import org.voltcore.messaging.SiteMailbox;
+import org.voltcore.network.CoreBinder;
 import org.voltcore.utils.CoreUtils;
 import org.voltcore.utils.OnDemandBinaryLogger;
 import org.voltcore.utils.Pair;
@@ -113,6 +114,7 @@ import org.voltdb.dtxn.LatencyHistogramStats;
 import org.voltdb.dtxn.LatencyStats;
 import org.voltdb.dtxn.SiteTracker;
 import org.voltdb.export.ExportManager;
+import org.voltdb.export.ExportStats;
 import org.voltdb.importer.ImportManager;
 import org.voltdb.iv2.BaseInitiator;
 import org.voltdb.iv2.Cartographer;
@@ -530,14 +532,14 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, HostM
 
     private final List<String> pathsWithRecoverableArtifacts(DeploymentType deployment) {
         ImmutableList.Builder<String> nonEmptyPaths = ImmutableList.builder();
-        if (!MiscUtils.isPro()) {
-            return nonEmptyPaths.build();
-        }
         PathsType paths = deployment.getPaths();
         String voltDbRoot = getVoltDBRootPath(paths.getVoltdbroot());
         String path;
-        if ((path = managedPathEmptyCheck(voltDbRoot, getSnapshotPath(paths.getSnapshots()))) != null)
-            nonEmptyPaths.add(path);
+        // the community edition only recovers from its own command log
+        if (MiscUtils.isPro()) {
+            if ((path = managedPathEmptyCheck(voltDbRoot, getSnapshotPath(paths.getSnapshots()))) != null)
+                nonEmptyPaths.add(path);
+        }
         if ((path = managedPathEmptyCheck(voltDbRoot, getCommandLogPath(paths.getCommandlog()))) != null)
             nonEmptyPaths.add(path);
         if ((path = managedPathEmptyCheck(voltDbRoot, getCommandLogSnapshotPath(paths.getCommandlogsnapshot()))) != null)
@@ -992,6 +994,12 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, HostM
             m_ioStats = new IOStats();
             getStatsAgent().registerStatsSource(StatsSelector.IOSTATS,
                     0, m_ioStats);
+            getStatsAgent().registerStatsSource(StatsSelector.IOREACTOR,
+                    0, new IOReactorStats());
+            getStatsAgent().registerStatsSource(StatsSelector.COMPRESSION,
+                    0, new CompressionStats());
+            getStatsAgent().registerStatsSource(StatsSelector.EXPORT,
+                    0, new ExportStats());
             m_memoryStats = new MemoryStats();
             getStatsAgent().registerStatsSource(StatsSelector.MEMORY,
                     0, m_memoryStats);
@@ -1221,10 +1229,7 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, HostM
             if (m_configuredReplicationFactor == 0) {
                 consoleLog.warn("This is not a highly available cluster. K-Safety is set to 0.");
             }
-            boolean usingCommandLog = m_config.m_isEnterprise
-                    && (m_catalogContext.cluster.getLogconfig() != null)
-                    && (m_catalogContext.cluster.getLogconfig().get("log") != null)
-                    && m_catalogContext.cluster.getLogconfig().get("log").getEnabled();
+            boolean usingCommandLog = m_commandLog.isEnabled();
             if (!usingCommandLog) {
                 // figure out if using a snapshot schedule
                 boolean usingPeridoicSnapshots = false;
@@ -1641,6 +1646,7 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, HostM
     }
 
     private final List<ScheduledFuture<?>> m_periodicWorks = new ArrayList<>();
+    private StatsPublisher m_statsPublisher = null;
 
 
     /**
@@ -1683,6 +1689,13 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, HostM
             }
         }, 0, 6, TimeUnit.MINUTES));
 
+        // statistics pushed to /metrics and the statistics log instead of polled
+        m_statsPublisher = StatsPublisher.create(getStatsAgent());
+        if (m_statsPublisher != null) {
+            m_periodicWorks.add(scheduleWork(m_statsPublisher,
+                    StatsPublisher.INTERVAL, StatsPublisher.INTERVAL, TimeUnit.MILLISECONDS));
+        }
+
         GCInspector.instance.start(m_periodicPriorityWorkThread);
     }
 
@@ -1914,18 +1927,13 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, HostM
                             "in the community edition of VoltDB.");
                     shutdownDeployment = true;
                 }
-                if ((deployment.getCommandlog() != null) && (deployment.getCommandlog().isEnabled())) {
-                    consoleLog.error("Command logging is not supported " +
-                            "in the community edition of VoltDB.");
-                    shutdownDeployment = true;
-                }
                 if ((deployment.getExport() != null) && Boolean.TRUE.equals(deployment.getExport().isEnabled())) {
                     consoleLog.error("Export is not supported " +
                             "in the community edition of VoltDB.");
                     shutdownDeployment = true;
                 }
                 // check the start action for the community edition
-                if (m_config.m_startAction != StartAction.CREATE) {
+                if (m_config.m_startAction != StartAction.CREATE && !m_config.m_startAction.doesRecover()) {
                     consoleLog.error("Start action \"" + m_config.m_startAction.getClass().getSimpleName() +
                             "\" is not supported in the community edition of VoltDB.");
                     shutdownAction = true;
@@ -1942,7 +1950,7 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, HostM
                     }
 
                     if (shutdownAction && !shutdownDeployment) {
-                        msg += "the CREATE start action";
+                        msg += "the CREATE or RECOVER start action";
                     }
                     msg += ".";
 
@@ -2157,18 +2165,13 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, HostM
                             "in the community edition of VoltDB.");
                     shutdownDeployment = true;
                 }
-                if ((deployment.getCommandlog() != null) && (deployment.getCommandlog().isEnabled())) {
-                    consoleLog.error("Command logging is not supported " +
-                            "in the community edition of VoltDB.");
-                    shutdownDeployment = true;
-                }
                 if ((deployment.getExport() != null) && Boolean.TRUE.equals(deployment.getExport().isEnabled())) {
                     consoleLog.error("Export is not supported " +
                             "in the community edition of VoltDB.");
                     shutdownDeployment = true;
                 }
                 // check the start action for the community edition
-                if (m_config.m_startAction != StartAction.CREATE) {
+                if (m_config.m_startAction != StartAction.CREATE && !m_config.m_startAction.doesRecover()) {
                     consoleLog.error("Start action \"" + m_config.m_startAction.getClass().getSimpleName() +
                             "\" is not supported in the community edition of VoltDB.");
                     shutdownAction = true;
@@ -2185,7 +2188,7 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, HostM
                     }
 
                     if (shutdownAction && !shutdownDeployment) {
-                        msg += "the CREATE start action";
+                        msg += "the CREATE or RECOVER start action";
                     }
                     msg += ".";
 
@@ -2362,6 +2365,12 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, HostM
         hmconfig.deadHostTimeout = m_config.m_deadHostTimeoutMS;
         hmconfig.factory = new VoltDbMessageFactory();
         hmconfig.coreBindIds = m_config.m_networkCoreBindings;
+        hmconfig.coreBinder = new CoreBinder() {
+            @Override
+            public boolean bindCurrentThread(String cpus) {
+                return CLibrary.bindCurrentThread(cpus);
+            }
+        };
         hmconfig.acceptor = criteria;
 
         m_messenger = new org.voltcore.messaging.HostMessenger(hmconfig, this);
@@ -2691,6 +2700,10 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, HostM
                 ImportManager.instance().shutdown();
 
                 m_periodicWorks.clear();
+                if (m_statsPublisher != null) {
+                    m_statsPublisher.shutdown();
+                    m_statsPublisher = null;
+                }
                 m_snapshotCompletionMonitor.shutdown();
                 m_periodicWorkThread.shutdown();
                 m_periodicWorkThread.awaitTermination(356, TimeUnit.DAYS);
@@ -2727,6 +2740,11 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, HostM
                         init.shutdown();
                 }
 
+                // flush the last group commit once the sites have stopped logging
+                if (m_commandLog != null) {
+                    m_commandLog.shutdown();
+                }
+
                 if (m_cartographer != null) {
                     m_cartographer.shutdown();
                 }
@@ -3238,7 +3256,7 @@ public class RealVoltDB implements VoltDBInterface, RestoreAgent.Callback, HostM
         try {
             final ZooKeeper zk = m_messenger.getZK();
             boolean logRecoveryCompleted = false;
-            if (getCommandLog().getClass().getName().equals("org.voltdb.CommandLogImpl")) {
+            if (getCommandLog().isTruncatedBySnapshots()) {
                 String requestNode = zk.create(VoltZK.request_truncation_snapshot_node, null,
                         Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT_SEQUENTIAL);
                 if (m_rejoinTruncationReqId == null) {
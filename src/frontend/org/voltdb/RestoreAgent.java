@@ -125,11 +125,15 @@ SnapshotCompletionInterest, Promotable
     private final Integer m_hostId;
     private final StartAction m_action;
     private final boolean m_clEnabled;
+    // Only the enterprise edition takes the truncation snapshot that ends a replay,
+    // the community command log keeps its segments instead
+    private final boolean m_clTruncates;
     private final String m_clPath;
     private final String m_clSnapshotPath;
     private final String m_snapshotPath;
     private final String m_voltdbrootPath;
     private final Set<Integer> m_liveHosts;
+    private final int m_partitionCount;
 
     private boolean m_planned = false;
 
@@ -464,12 +468,14 @@ SnapshotCompletionInterest, Promotable
         m_callback = callback;
         m_action = action;
         m_zk = hostMessenger.getZK();
-        m_clEnabled = VoltDB.instance().getConfig().m_isEnterprise ? clEnabled : false;
+        m_clEnabled = clEnabled;
+        m_clTruncates = VoltDB.instance().getConfig().m_isEnterprise;
         m_clPath = clPath;
         m_clSnapshotPath = clSnapshotPath;
         m_snapshotPath = snapshotPath;
         m_liveHosts = ImmutableSet.copyOf(hostMessenger.getLiveHostIds());
         m_voltdbrootPath = voltdbrootPath;
+        m_partitionCount = allPartitions.length;
 
         initialize(hostMessenger);
     }
@@ -494,6 +500,11 @@ SnapshotCompletionInterest, Promotable
                                                                     m_clPath,
                                                                     m_liveHosts);
             }
+            else {
+                // Segments left behind by a previous database are only replayed on recover
+                m_replayAgent = new DefaultCommandLogReinitiator(m_hostId, hostMessenger,
+                                                                 m_action.doesRecover() ? m_clPath : null);
+            }
         } catch (Exception e) {
             VoltDB.crashGlobalVoltDB("Unable to instantiate command log reinitiator",
                                      true, e);
@@ -703,6 +714,10 @@ SnapshotCompletionInterest, Promotable
                 m_replayAgent.generateReplayPlan(infoWithMinHostId.instanceId.getTimestamp(),
                         infoWithMinHostId.txnId, infoWithMinHostId.newPartitionCount, m_isLeader);
             }
+            else if (!m_clTruncates) {
+                // The community command log is replayed from an empty database
+                m_replayAgent.generateReplayPlan(Long.MIN_VALUE, Long.MIN_VALUE, m_partitionCount, m_isLeader);
+            }
         }
 
         m_planned = true;
@@ -1110,6 +1125,11 @@ SnapshotCompletionInterest, Promotable
             }
         }
 
+        // The community command log never starts from a snapshot
+        if (!m_clTruncates && snapshotFragments.isEmpty()) {
+            return null;
+        }
+
         // If we have a command log and it requires a snapshot but no snapshot
         // fragments were found, simply bail (or, if we didn't find a viable
         // snapshot from which to recover)
@@ -1283,8 +1303,8 @@ SnapshotCompletionInterest, Promotable
              * log to replay. But the user asked for recover
              */
             VoltDB.crashGlobalVoltDB("Nothing to recover from", false, null);
-        } else if (!m_clEnabled && !m_replayAgent.hasReplayedTxns()) {
-            // Nothing was replayed, so no need to initiate truncation snapshot
+        } else if (!m_clTruncates || (!m_clEnabled && !m_replayAgent.hasReplayedTxns())) {
+            // Nothing was replayed or nothing can be truncated, so no need to initiate truncation snapshot
             m_state = State.TRUNCATE;
         }
 
@@ -1314,7 +1334,7 @@ SnapshotCompletionInterest, Promotable
          * ENG-1516: Use truncation snapshot to save the catalog if CL is
          * enabled.
          */
-        if (m_clEnabled || m_replayAgent.hasReplayedTxns()) {
+        if (m_clTruncates && (m_clEnabled || m_replayAgent.hasReplayedTxns())) {
             /*
              * If this has the lowest host ID, initiate the snapshot that
              * will truncate the logs
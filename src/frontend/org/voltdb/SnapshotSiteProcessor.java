@@ -472,6 +472,9 @@ public class SnapshotSiteProcessor {
             }
 
             predicates.addPredicate(task.m_predicate, task.m_deleteTuples);
+            if (task.m_incrementalBase) {
+                predicates.setIncrementalBase(true);
+            }
         }
 
         for (Map.Entry<Integer, SnapshotPredicates> e : tablesAndPredicates.entrySet()) {
@@ -30,6 +30,7 @@ public class SnapshotTableTask
     public final SnapshotDataFilter m_filters[];
     public final AbstractExpression m_predicate;
     public final boolean m_deleteTuples;
+    public final boolean m_incrementalBase;
 
     volatile SnapshotDataTarget m_target;
 
@@ -38,11 +39,26 @@ public class SnapshotTableTask
             final SnapshotDataFilter filters[],
             final AbstractExpression predicate,
             final boolean deleteTuples)
+    {
+        this(table, filters, predicate, deleteTuples, false);
+    }
+
+    /**
+     * @param incrementalBase For an incremental snapshot, include every tuple block
+     * of the table instead of only the ones modified since the previous one
+     */
+    public SnapshotTableTask(
+            final Table table,
+            final SnapshotDataFilter filters[],
+            final AbstractExpression predicate,
+            final boolean deleteTuples,
+            final boolean incrementalBase)
     {
         m_table = table;
         m_filters = filters;
         m_predicate = predicate;
         m_deleteTuples = deleteTuples;
+        m_incrementalBase = incrementalBase;
     }
 
     public void setTarget(SnapshotDataTarget target)
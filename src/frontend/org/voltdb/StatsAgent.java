@@ -122,7 +122,8 @@ public class StatsAgent extends OpsAgent
                     baseStats[0].getLong("MAX_EXECUTION_TIME"),
                     baseStats[0].getLong("AVG_EXECUTION_TIME"),
                     baseStats[0].getLong("FAILURES"),
-                    baseStats[0].getLong("ABORTS"));
+                    baseStats[0].getLong("ABORTS"),
+                    baseStats[0].getVarbinary(ProcedureStatsCollector.EXECUTION_TIME_HISTOGRAM));
         }
         return new VoltTable[] { timeTable.sortByAverage("EXECUTION_TIME") };
     }
@@ -179,6 +180,40 @@ public class StatsAgent extends OpsAgent
         return new VoltTable[] { timeTable.sortByOutput("PROCEDURE_OUTPUT") };
     }
 
+    /**
+     * Drop the execution time histograms from the PROCEDURE statistics,
+     * they are only shipped for the PROCEDUREPROFILE aggregation.
+     */
+    private static VoltTable[] withoutExecutionTimeHistograms(VoltTable[] stats)
+    {
+        if (stats == null) {
+            return null;
+        }
+        for (int ii = 0; ii < stats.length; ii++) {
+            final VoltTable table = stats[ii];
+            final int histogramIndex = table.getColumnIndex(ProcedureStatsCollector.EXECUTION_TIME_HISTOGRAM);
+            final VoltTable.ColumnInfo[] columns = new VoltTable.ColumnInfo[table.getColumnCount() - 1];
+            for (int col = 0, out = 0; col < table.getColumnCount(); col++) {
+                if (col != histogramIndex) {
+                    columns[out++] = new VoltTable.ColumnInfo(table.getColumnName(col), table.getColumnType(col));
+                }
+            }
+            final VoltTable result = new VoltTable(columns);
+            final Object[] row = new Object[columns.length];
+            table.resetRowPosition();
+            while (table.advanceRow()) {
+                for (int col = 0, out = 0; col < table.getColumnCount(); col++) {
+                    if (col != histogramIndex) {
+                        row[out++] = table.get(col, table.getColumnType(col));
+                    }
+                }
+                result.addRow(row);
+            }
+            stats[ii] = result;
+        }
+        return stats;
+    }
+
 
     /**
      * Need to release references to catalog related stats sources
@@ -382,6 +417,15 @@ public class StatsAgent extends OpsAgent
         case IOSTATS:
             stats = collectStats(StatsSelector.IOSTATS, interval);
             break;
+        case IOREACTOR:
+            stats = collectStats(StatsSelector.IOREACTOR, interval);
+            break;
+        case COMPRESSION:
+            stats = collectStats(StatsSelector.COMPRESSION, interval);
+            break;
+        case EXPORT:
+            stats = collectStats(StatsSelector.EXPORT, interval);
+            break;
         case INITIATOR:
             stats = collectStats(StatsSelector.INITIATOR, interval);
             break;
@@ -394,6 +438,8 @@ public class StatsAgent extends OpsAgent
         case PROCEDURE:
         case PROCEDUREINPUT:
         case PROCEDUREOUTPUT:
+            stats = withoutExecutionTimeHistograms(collectStats(StatsSelector.PROCEDURE, interval));
+            break;
         case PROCEDUREPROFILE:
             stats = collectStats(StatsSelector.PROCEDURE, interval);
             break;
@@ -480,7 +526,7 @@ public class StatsAgent extends OpsAgent
     {
         VoltTable[] mStats = collectStats(StatsSelector.MEMORY, interval);
         VoltTable[] iStats = collectStats(StatsSelector.INITIATOR, interval);
-        VoltTable[] pStats = collectStats(StatsSelector.PROCEDURE, interval);
+        VoltTable[] pStats = withoutExecutionTimeHistograms(collectStats(StatsSelector.PROCEDURE, interval));
         VoltTable[] ioStats = collectStats(StatsSelector.IOSTATS, interval);
         VoltTable[] tStats = collectStats(StatsSelector.TABLE, interval);
         VoltTable[] indStats = collectStats(StatsSelector.INDEX, interval);
@@ -23,6 +23,10 @@ import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
+import org.HdrHistogram_voltpatches.AbstractHistogram;
+import org.HdrHistogram_voltpatches.Histogram;
+import org.voltcore.utils.CompressionStrategySnappy;
+
 public class StatsProcProfTable {
 
     // A table of ProcProfRows: set of unique procedure names
@@ -40,6 +44,8 @@ public class StatsProcProfTable {
         long avg;
         long failures;
         long aborts;
+        // execution times of every site, null until one has been timed
+        Histogram executionTimes;
 
         // track which partitions have been witnessed.
         private final Set<Long> seenPartitions;
@@ -60,6 +66,29 @@ public class StatsProcProfTable {
             seenPartitions.add(partition);
         }
 
+        // Add a compressed execution time histogram of a site, like the average
+        // the percentiles are computed from every replica.
+        void addExecutionTimes(byte[] compressedHistogram)
+        {
+            if (compressedHistogram == null) {
+                return;
+            }
+            Histogram in = AbstractHistogram.fromCompressedBytes(compressedHistogram, CompressionStrategySnappy.INSTANCE);
+            if (executionTimes == null) {
+                // the sites' histograms cover different ranges
+                executionTimes = new Histogram(in.getNumberOfSignificantValueDigits());
+            }
+            executionTimes.add(in);
+        }
+
+        long percentile(double percentile)
+        {
+            if (executionTimes == null || executionTimes.getTotalCount() == 0) {
+                return 0L;
+            }
+            return executionTimes.getValueAtPercentile(percentile);
+        }
+
         // Augment this ProcProfRow with a new input row.
         // dedup flag indicates if we should dedup data based on partition for proc.
         void updateWith(boolean dedup, ProcProfRow in)        {
@@ -125,6 +154,14 @@ public class StatsProcProfTable {
     // Add or update the corresponding row. dedup flag indicates if we should dedup data based on partition for proc.
     public void updateTable(boolean dedup, long timestamp, String procedure, long partition,
             long invocations, long min, long max, long avg, long failures, long aborts)
+    {
+        updateTable(dedup, timestamp, procedure, partition, invocations, min, max, avg, failures, aborts, null);
+    }
+
+    // Same as above with the compressed execution time histogram of the site, or null if it has none.
+    public void updateTable(boolean dedup, long timestamp, String procedure, long partition,
+            long invocations, long min, long max, long avg, long failures, long aborts,
+            byte[] executionTimes)
     {
         ProcProfRow in = new ProcProfRow(timestamp, procedure, partition,
                 invocations,
@@ -132,8 +169,10 @@ public class StatsProcProfTable {
         ProcProfRow exists = m_table.ceiling(in);
         if (exists != null && in.procedure.equals(exists.procedure)) {
             exists.updateWith(dedup, in);
+            exists.addExecutionTimes(executionTimes);
         }
         else {
+            in.addExecutionTimes(executionTimes);
             m_table.add(in);
         }
     }
@@ -156,10 +195,12 @@ public class StatsProcProfTable {
 
         VoltTable result = TableShorthand.tableFromShorthand(
                 tableName + "(TIMESTAMP:BIGINT, PROCEDURE:VARCHAR, WEIGHTED_PERC:BIGINT, INVOCATIONS:BIGINT," +
-                "AVG:BIGINT, MIN:BIGINT, MAX:BIGINT, ABORTS:BIGINT, FAILURES:BIGINT)");
+                "AVG:BIGINT, MIN:BIGINT, MAX:BIGINT, ABORTS:BIGINT, FAILURES:BIGINT," +
+                "P50:BIGINT, P95:BIGINT, P99:BIGINT, P999:BIGINT)");
         for (ProcProfRow row : sorted ) {
             result.addRow(row.timestamp, row.procedure, calculatePercent(row.avg * row.invocations, sumOfAverage),
-                    row.invocations, row.avg, row.min, row.max, row.aborts, row.failures);
+                    row.invocations, row.avg, row.min, row.max, row.aborts, row.failures,
+                    row.percentile(50.0), row.percentile(95.0), row.percentile(99.0), row.percentile(99.9));
         }
 
         return result;
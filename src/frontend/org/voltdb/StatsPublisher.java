@@ -0,0 +1,596 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltdb.VoltTable.ColumnInfo;
+
+import com.google_voltpatches.common.base.Charsets;
+import com.google_voltpatches.common.collect.ImmutableSet;
+
+/**
+ * Samples the statistics of this node on the periodic work thread so monitoring doesn't
+ * have to poll @Statistics. Every sample reads the registered StatsSources of the
+ * selected selectors directly, without going to the other hosts or through the sites,
+ * and is published
+ * <ul>
+ * <li>as Prometheus text served from /metrics of the HTTP interface, and</li>
+ * <li>optionally appended to a rolling binary log, where every value is written as the
+ * difference from the previous sample of the same row so unchanged values take a byte.</li>
+ * </ul>
+ * Publishing is off unless STATS_PUBLISH_INTERVAL is set to a number of milliseconds.
+ */
+public class StatsPublisher implements Runnable {
+    private static final VoltLogger hostLog = new VoltLogger("HOST");
+
+    /**
+     * Milliseconds between samples, 0 turns publishing off
+     */
+    public static final int INTERVAL = Integer.getInteger("STATS_PUBLISH_INTERVAL", 0);
+
+    public static final String SELECTORS = System.getProperty("STATS_PUBLISH_SELECTORS",
+            "PROCEDURE,MEMORY,CPU,IOSTATS,IOREACTOR,LIVECLIENTS,COMMANDLOG,EXPORT,COMPRESSION");
+
+    /**
+     * Directory of the binary log, no log unless it is set
+     */
+    public static final String LOG_DIR = System.getProperty("STATS_PUBLISH_LOG_DIR");
+    public static final long LOG_SEGMENT_BYTES = Long.getLong("STATS_PUBLISH_LOG_SEGMENT_BYTES", 64L * 1024 * 1024);
+    public static final int LOG_SEGMENTS = Integer.getInteger("STATS_PUBLISH_LOG_SEGMENTS", 8);
+
+    static final int LOG_MAGIC = 0x5653544C;
+    static final byte LOG_VERSION = 1;
+    static final String LOG_PREFIX = "stats-";
+    static final String LOG_EXTENSION = ".bin";
+
+    // Log record types
+    private static final byte SCHEMA_RECORD = 1;
+    private static final byte SAMPLE_RECORD = 2;
+
+    private static volatile StatsPublisher s_instance = null;
+
+    private final StatsAgent m_agent;
+    private final List<StatsSelector> m_selectors;
+    private final File m_logDir;
+
+    private volatile String m_prometheusText = "";
+
+    // The open log segment and what its records are encoded against
+    private DataOutputStream m_log = null;
+    private File m_logFile = null;
+    private long m_logBytes = 0;
+    private long m_lastSampleTime = 0;
+    private final Map<String, String> m_loggedSchemas = new HashMap<String, String>();
+    private final Map<String, Map<List<Object>, long[]>> m_previousValues =
+            new HashMap<String, Map<List<Object>, long[]>>();
+
+    public StatsPublisher(StatsAgent agent, List<StatsSelector> selectors, File logDir) {
+        m_agent = agent;
+        m_selectors = new ArrayList<StatsSelector>(selectors);
+        m_logDir = logDir;
+    }
+
+    /**
+     * Create the publisher configured by the system properties, or null if publishing is off
+     */
+    public static StatsPublisher create(StatsAgent agent) {
+        if (INTERVAL <= 0) {
+            return null;
+        }
+        final List<StatsSelector> selectors = parseSelectors(SELECTORS);
+        File logDir = null;
+        if (LOG_DIR != null) {
+            logDir = new File(LOG_DIR);
+            if (!logDir.isDirectory() && !logDir.mkdirs()) {
+                hostLog.warn("Unable to create statistics log directory " + logDir + ", not logging statistics");
+                logDir = null;
+            }
+        }
+        hostLog.info("Publishing statistics " + selectors + " every " + INTERVAL + "ms" +
+                (logDir == null ? "" : " and logging them to " + logDir));
+        final StatsPublisher publisher = new StatsPublisher(agent, selectors, logDir);
+        s_instance = publisher;
+        return publisher;
+    }
+
+    /*
+     * A misspelled selector is skipped rather than failing startup
+     */
+    static List<StatsSelector> parseSelectors(String names) {
+        final List<StatsSelector> selectors = new ArrayList<StatsSelector>();
+        for (String name : names.split(",")) {
+            if (name.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                selectors.add(StatsSelector.valueOf(name.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                hostLog.warn("Ignoring unknown statistics selector \"" + name.trim() + "\" in STATS_PUBLISH_SELECTORS");
+            }
+        }
+        return selectors;
+    }
+
+    /**
+     * Latest sample in Prometheus text format, or null if publishing is off
+     */
+    public static String getPrometheusText() {
+        final StatsPublisher publisher = s_instance;
+        return publisher == null ? null : publisher.m_prometheusText;
+    }
+
+    @Override
+    public void run() {
+        final long now = System.currentTimeMillis();
+        final Map<String, VoltTable> tables = new LinkedHashMap<String, VoltTable>();
+        for (StatsSelector selector : m_selectors) {
+            try {
+                final VoltTable table = m_agent.getStatsAggregate(selector, false, now);
+                if (table != null) {
+                    tables.put(selector.name(), table);
+                }
+            } catch (Exception e) {
+                hostLog.warn("Failed to sample " + selector + " statistics", e);
+            }
+        }
+        publish(now, tables);
+    }
+
+    void publish(long now, Map<String, VoltTable> tables) {
+        m_prometheusText = toPrometheusText(tables);
+        if (m_logDir != null) {
+            try {
+                log(now, tables);
+            } catch (IOException e) {
+                hostLog.warn("Failed to write statistics log " + m_logFile + ", starting a new segment", e);
+                closeLog();
+            }
+        }
+    }
+
+    public void shutdown() {
+        if (s_instance == this) {
+            s_instance = null;
+        }
+        closeLog();
+    }
+
+    /*
+     * Columns that only ever grow while the process is up. The publisher samples the
+     * cumulative statistics, so these are exported as counters, and the other numbers
+     * as gauges.
+     */
+    private static final Set<String> COUNTER_COLUMNS = ImmutableSet.of(
+            "INVOCATIONS", "TIMED_INVOCATIONS", "ABORTS", "FAILURES",
+            "BYTES_READ", "MESSAGES_READ", "BYTES_WRITTEN", "MESSAGES_WRITTEN", "SELECTS", "TASKS",
+            "OBJECTS_COMPRESSED", "UNCOMPRESSED_BYTES", "COMPRESSED_BYTES", "COMPRESSION_MILLIS",
+            "BUFFERS_ACKED", "ACKS_SENT");
+
+    /*
+     * String columns and ids are labels
+     */
+    private static boolean isLabel(ColumnInfo column) {
+        return column.type == VoltType.STRING ||
+               (column.name.endsWith("_ID") && column.type.isBackendIntegerType());
+    }
+
+    private static boolean isValue(ColumnInfo column) {
+        return !isLabel(column) && !column.name.equals("TIMESTAMP") &&
+               (column.type.isBackendIntegerType() || column.type == VoltType.FLOAT);
+    }
+
+    private static List<ColumnInfo> columns(VoltTable table) {
+        final List<ColumnInfo> columns = new ArrayList<ColumnInfo>();
+        for (int ii = 0; ii < table.getColumnCount(); ii++) {
+            columns.add(new ColumnInfo(table.getColumnName(ii), table.getColumnType(ii)));
+        }
+        return columns;
+    }
+
+    static String toPrometheusText(Map<String, VoltTable> tables) {
+        final StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, VoltTable> e : tables.entrySet()) {
+            final VoltTable table = e.getValue();
+            final List<ColumnInfo> columns = columns(table);
+
+            final List<String> labels = new ArrayList<String>();
+            table.resetRowPosition();
+            while (table.advanceRow()) {
+                final StringBuilder rowLabels = new StringBuilder();
+                for (int ii = 0; ii < columns.size(); ii++) {
+                    if (!isLabel(columns.get(ii))) {
+                        continue;
+                    }
+                    final Object value = table.get(ii, columns.get(ii).type);
+                    rowLabels.append(rowLabels.length() == 0 ? "{" : ",");
+                    rowLabels.append(metricName(columns.get(ii).name)).append("=\"");
+                    rowLabels.append(escapeLabel(table.wasNull() ? "" : value.toString())).append('"');
+                }
+                labels.add(rowLabels.length() == 0 ? "" : rowLabels.append('}').toString());
+            }
+
+            for (int ii = 0; ii < columns.size(); ii++) {
+                if (!isValue(columns.get(ii))) {
+                    continue;
+                }
+                final boolean counter = COUNTER_COLUMNS.contains(columns.get(ii).name);
+                final String name = "voltdb_" + metricName(e.getKey()) + "_" + metricName(columns.get(ii).name) +
+                        (counter ? "_total" : "");
+                sb.append("# TYPE ").append(name).append(counter ? " counter\n" : " gauge\n");
+                table.resetRowPosition();
+                int row = 0;
+                while (table.advanceRow()) {
+                    final Object value = table.get(ii, columns.get(ii).type);
+                    if (!table.wasNull()) {
+                        sb.append(name).append(labels.get(row)).append(' ').append(value).append('\n');
+                    }
+                    row++;
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String metricName(String name) {
+        return name.toLowerCase().replaceAll("[^a-z0-9_]", "_");
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /*
+     * A segment starts with the magic and version, followed by records. The schema of a
+     * selector is logged before its first sample in the segment. A sample has the
+     * milliseconds since the previous one and the rows of every selector. Labels are
+     * written in full, integers as the zigzag varint difference from the same row of the
+     * previous sample in the segment and floats as the varint of their bits xor the
+     * previous bits, so values that didn't change take one byte. Other columns aren't logged.
+     */
+    private void log(long now, Map<String, VoltTable> tables) throws IOException {
+        if (m_log == null || m_logBytes >= LOG_SEGMENT_BYTES) {
+            openLog(now);
+        }
+        final RecordBuffer out = new RecordBuffer();
+        for (Map.Entry<String, VoltTable> e : tables.entrySet()) {
+            final List<ColumnInfo> columns = columns(e.getValue());
+            final StringBuilder schema = new StringBuilder();
+            for (ColumnInfo column : columns) {
+                schema.append(column.name).append(':').append(column.type.getValue()).append(',');
+            }
+            if (!schema.toString().equals(m_loggedSchemas.get(e.getKey()))) {
+                out.writeByte(SCHEMA_RECORD);
+                out.writeString(e.getKey());
+                out.writeVarLong(columns.size());
+                for (ColumnInfo column : columns) {
+                    out.writeString(column.name);
+                    out.writeByte(column.type.getValue());
+                }
+                m_loggedSchemas.put(e.getKey(), schema.toString());
+                m_previousValues.remove(e.getKey());
+            }
+        }
+
+        out.writeByte(SAMPLE_RECORD);
+        out.writeVarLong(now - m_lastSampleTime);
+        m_lastSampleTime = now;
+        out.writeVarLong(tables.size());
+        for (Map.Entry<String, VoltTable> e : tables.entrySet()) {
+            final VoltTable table = e.getValue();
+            final List<ColumnInfo> columns = columns(table);
+            Map<List<Object>, long[]> previousRows = m_previousValues.get(e.getKey());
+            if (previousRows == null) {
+                previousRows = new HashMap<List<Object>, long[]>();
+                m_previousValues.put(e.getKey(), previousRows);
+            }
+            final Map<List<Object>, long[]> rows = new HashMap<List<Object>, long[]>();
+
+            out.writeString(e.getKey());
+            out.writeVarLong(table.getRowCount());
+            table.resetRowPosition();
+            while (table.advanceRow()) {
+                final List<Object> key = new ArrayList<Object>();
+                for (int ii = 0; ii < columns.size(); ii++) {
+                    if (columns.get(ii).type == VoltType.STRING) {
+                        final String value = table.getString(ii);
+                        key.add(value);
+                        out.writeString(table.wasNull() ? "" : value);
+                    } else if (isLabel(columns.get(ii))) {
+                        final long value = table.getLong(ii);
+                        key.add(value);
+                        out.writeVarLong(zigzag(value));
+                    }
+                }
+                long[] previous = previousRows.get(key);
+                if (previous == null) {
+                    previous = new long[columns.size()];
+                }
+                final long[] values = new long[columns.size()];
+                for (int ii = 0; ii < columns.size(); ii++) {
+                    final ColumnInfo column = columns.get(ii);
+                    if (column.type == VoltType.FLOAT) {
+                        values[ii] = Double.doubleToLongBits(table.getDouble(ii));
+                        out.writeVarLong(values[ii] ^ previous[ii]);
+                    } else if (column.type.isBackendIntegerType() && !isLabel(column)) {
+                        values[ii] = table.getLong(ii);
+                        out.writeVarLong(zigzag(values[ii] - previous[ii]));
+                    }
+                }
+                rows.put(key, values);
+            }
+            // Rows that went away don't need to be remembered
+            m_previousValues.put(e.getKey(), rows);
+        }
+        out.writeTo(m_log);
+        m_log.flush();
+        m_logBytes += out.size();
+    }
+
+    private void openLog(long now) throws IOException {
+        closeLog();
+        m_logFile = new File(m_logDir, LOG_PREFIX + now + LOG_EXTENSION);
+        m_log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(m_logFile)));
+        m_log.writeInt(LOG_MAGIC);
+        m_log.writeByte(LOG_VERSION);
+        m_logBytes = 5;
+        m_lastSampleTime = 0;
+        m_loggedSchemas.clear();
+        m_previousValues.clear();
+
+        // Drop the oldest segments, the names sort by their start time
+        final File[] files = m_logDir.listFiles();
+        final TreeMap<Long, File> segments = new TreeMap<Long, File>();
+        if (files != null) {
+            for (File f : files) {
+                final String name = f.getName();
+                if (name.startsWith(LOG_PREFIX) && name.endsWith(LOG_EXTENSION)) {
+                    try {
+                        segments.put(Long.parseLong(name.substring(LOG_PREFIX.length(),
+                                name.length() - LOG_EXTENSION.length())), f);
+                    } catch (NumberFormatException ignore) {}
+                }
+            }
+        }
+        while (segments.size() > LOG_SEGMENTS) {
+            final File oldest = segments.pollFirstEntry().getValue();
+            if (!oldest.delete()) {
+                hostLog.warn("Unable to delete statistics log " + oldest);
+            }
+        }
+    }
+
+    private void closeLog() {
+        if (m_log != null) {
+            try {
+                m_log.close();
+            } catch (IOException ignore) {}
+            m_log = null;
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /*
+     * Encodes a record in memory so a failed write never leaves half of one in the log
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        private void writeByte(int b) {
+            write(b);
+        }
+
+        private void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int)((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int)value);
+        }
+
+        private void writeString(String s) {
+            final byte[] bytes = s.getBytes(Charsets.UTF_8);
+            writeVarLong(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Reads the samples of a binary log segment back as VoltTables.
+     */
+    public static class LogReader implements Closeable {
+        private final DataInputStream m_in;
+        private final Map<String, List<ColumnInfo>> m_schemas = new HashMap<String, List<ColumnInfo>>();
+        private final Map<String, Map<List<Object>, long[]>> m_previousValues =
+                new HashMap<String, Map<List<Object>, long[]>>();
+        private long m_lastSampleTime = 0;
+        private long m_sampleTime = 0;
+
+        public LogReader(File file) throws IOException {
+            m_in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (m_in.readInt() != LOG_MAGIC || m_in.readByte() != LOG_VERSION) {
+                m_in.close();
+                throw new IOException(file + " is not a statistics log");
+            }
+        }
+
+        /**
+         * Time of the sample last returned by {@link #next()}
+         */
+        public long getSampleTime() {
+            return m_sampleTime;
+        }
+
+        /**
+         * Next sample keyed by selector, or null at the end of the log
+         */
+        public Map<String, VoltTable> next() throws IOException {
+            while (true) {
+                final int type = m_in.read();
+                if (type == -1) {
+                    return null;
+                }
+                try {
+                    if (type == SCHEMA_RECORD) {
+                        final String selector = readString();
+                        final int count = (int)readVarLong();
+                        final List<ColumnInfo> columns = new ArrayList<ColumnInfo>();
+                        for (int ii = 0; ii < count; ii++) {
+                            final String name = readString();
+                            columns.add(new ColumnInfo(name, VoltType.get(m_in.readByte())));
+                        }
+                        m_schemas.put(selector, columns);
+                        m_previousValues.remove(selector);
+                    } else if (type == SAMPLE_RECORD) {
+                        return readSample();
+                    } else {
+                        throw new IOException("Unknown statistics log record " + type);
+                    }
+                } catch (EOFException e) {
+                    // The last record was cut short
+                    return null;
+                }
+            }
+        }
+
+        private Map<String, VoltTable> readSample() throws IOException {
+            m_sampleTime = m_lastSampleTime + readVarLong();
+            m_lastSampleTime = m_sampleTime;
+            final Map<String, VoltTable> tables = new LinkedHashMap<String, VoltTable>();
+            final int tableCount = (int)readVarLong();
+            for (int t = 0; t < tableCount; t++) {
+                final String selector = readString();
+                final List<ColumnInfo> columns = m_schemas.get(selector);
+                if (columns == null) {
+                    throw new IOException("No schema for " + selector + " statistics");
+                }
+                Map<List<Object>, long[]> previousRows = m_previousValues.get(selector);
+                if (previousRows == null) {
+                    previousRows = new HashMap<List<Object>, long[]>();
+                }
+                final Map<List<Object>, long[]> rows = new HashMap<List<Object>, long[]>();
+                final VoltTable table = new VoltTable(columns.toArray(new ColumnInfo[columns.size()]));
+
+                final int rowCount = (int)readVarLong();
+                for (int r = 0; r < rowCount; r++) {
+                    final Object[] row = new Object[columns.size()];
+                    final List<Object> key = new ArrayList<Object>();
+                    for (int ii = 0; ii < columns.size(); ii++) {
+                        if (columns.get(ii).type == VoltType.STRING) {
+                            row[ii] = readString();
+                            key.add(row[ii]);
+                        } else if (isLabel(columns.get(ii))) {
+                            final long value = unzigzag(readVarLong());
+                            key.add(value);
+                            row[ii] = value;
+                        }
+                    }
+                    long[] previous = previousRows.get(key);
+                    if (previous == null) {
+                        previous = new long[columns.size()];
+                    }
+                    final long[] values = new long[columns.size()];
+                    for (int ii = 0; ii < columns.size(); ii++) {
+                        final ColumnInfo column = columns.get(ii);
+                        if (column.type == VoltType.FLOAT) {
+                            values[ii] = readVarLong() ^ previous[ii];
+                            row[ii] = Double.longBitsToDouble(values[ii]);
+                        } else if (column.type.isBackendIntegerType() && !isLabel(column)) {
+                            values[ii] = unzigzag(readVarLong()) + previous[ii];
+                            row[ii] = values[ii];
+                        }
+                    }
+                    rows.put(key, values);
+                    table.addRow(row);
+                }
+                m_previousValues.put(selector, rows);
+                tables.put(selector, table);
+            }
+            return tables;
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                final byte b = m_in.readByte();
+                value |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        private String readString() throws IOException {
+            final byte[] bytes = new byte[(int)readVarLong()];
+            m_in.readFully(bytes);
+            return new String(bytes, Charsets.UTF_8);
+        }
+
+        @Override
+        public void close() throws IOException {
+            m_in.close();
+        }
+    }
+
+    /**
+     * Print the samples of binary log segments
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: StatsPublisher <statistics log> ...");
+            System.exit(-1);
+        }
+        for (String path : args) {
+            final LogReader reader = new LogReader(new File(path));
+            try {
+                Map<String, VoltTable> sample;
+                while ((sample = reader.next()) != null) {
+                    for (Map.Entry<String, VoltTable> e : sample.entrySet()) {
+                        System.out.println(reader.getSampleTime() + " " + e.getKey());
+                        System.out.println(e.getValue().toFormattedString());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+}
@@ -26,6 +26,9 @@ public enum StatsSelector {
     LATENCY_HISTOGRAM,
     PARTITIONCOUNT,
     IOSTATS,
+    IOREACTOR,        // per network thread load and throughput
+    COMPRESSION,      // compression ratio and time of disk backed queues like export overflow
+    EXPORT,           // backlog, in flight buffers and ack latency per export stream and partition
     MEMORY,           // info about node's memory usage
     LIVECLIENTS,      // info about the currently connected clients
     PLANNER,          // info about planner and EE performance and cache usage
@@ -319,6 +319,27 @@ public class StoredProcedureInvocation implements JSONString {
         });
     }
 
+    /**
+     * Copy the serialized parameters out of the buffer the invocation was read from. Needed when
+     * that buffer is a network read buffer that is reused once the invocation has been read.
+     */
+    public void detachSerializedParams() {
+        if (serializedParams == null || serializedParams.hasArray()) {
+            return;
+        }
+        final ByteBuffer copy = ByteBuffer.allocate(serializedParams.remaining());
+        copy.put(serializedParams.duplicate());
+        copy.flip();
+        serializedParams = copy;
+        final ByteBuffer duplicate = copy.duplicate();
+        params = new FutureTask<ParameterSet>(new Callable<ParameterSet>() {
+            @Override
+            public ParameterSet call() throws Exception {
+                return ParameterSet.fromByteBuffer(duplicate);
+            }
+        });
+    }
+
     @Override
     public String toString() {
         String retval = type.name() + " Invocation: " + procName + "(";
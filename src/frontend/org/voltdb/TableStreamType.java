@@ -48,5 +48,11 @@ public enum TableStreamType {
      * that is actively being modified. The stream starts by transporting all the tuple data
      * and then transports the set of modified and deleted tuples in a separate synchronous phase.
      */
-    RECOVERY
+    RECOVERY,
+    /*
+     * A snapshot stream that only contains the tuple blocks modified since the previous
+     * incremental snapshot of the table, along with the ids of all the blocks so the
+     * unmodified ones can be taken from the earlier snapshots of the chain.
+     */
+    INCREMENTAL_SNAPSHOT
 }
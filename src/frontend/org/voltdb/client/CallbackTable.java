@@ -0,0 +1,221 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock free table of the procedure calls outstanding on one connection, keyed
+ * by client handle.
+ *
+ * Handles are handed out sequentially, so the low bits of the handle pick a
+ * slot and a short linear probe resolves collisions. Each slot owns an entry
+ * that is reused for every call placed in it, so a connection stops allocating
+ * bookkeeping once it has warmed up. Calls that find no free entry within the
+ * probe distance go to an overflow map, which only happens when more calls
+ * than slots are outstanding.
+ *
+ * An entry is claimed by compare-and-swapping its handle to BUSY, so exactly
+ * one of the response, timeout and connection-lost paths completes each call.
+ * The claimer must call {@link #release(Entry)} once it has read the entry.
+ */
+final class CallbackTable {
+
+    static final int DEFAULT_CAPACITY = Integer.getInteger("CLIENT_CALLBACK_TABLE_SIZE", 4096);
+    static final int MAX_PROBE = 8;
+
+    // Handle values that can never be assigned to a call
+    static final long FREE = Long.MIN_VALUE;
+    static final long BUSY = Long.MIN_VALUE + 1;
+
+    static final class Entry {
+        private static final AtomicLongFieldUpdater<Entry> s_handle =
+                AtomicLongFieldUpdater.newUpdater(Entry.class, "m_handle");
+
+        private volatile long m_handle = FREE;
+        private final boolean m_overflow;
+
+        long timestampNanos;
+        //Time the caller spent in the rate limiter
+        long throttledNanos;
+        //Timeout in ms 0 means use conenction specified procedure timeoutMS.
+        long procedureTimeoutNanos;
+        ProcedureCallback callback;
+        String name;
+        boolean ignoreBackpressure;
+
+        private Entry(boolean overflow) {
+            m_overflow = overflow;
+        }
+
+        private boolean claim(long handle) {
+            return s_handle.compareAndSet(this, handle, BUSY);
+        }
+    }
+
+    /**
+     * Visits the outstanding calls, see {@link CallbackTable#forEach(Visitor)}.
+     */
+    interface Visitor {
+        void visit(long handle, long timestampNanos, long timeoutNanos, String name);
+    }
+
+    private final AtomicReferenceArray<Entry> m_slots;
+    private final int m_mask;
+    private final ConcurrentHashMap<Long, Entry> m_overflow = new ConcurrentHashMap<>();
+    private final AtomicInteger m_overflowCount = new AtomicInteger(0);
+
+    CallbackTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    CallbackTable(int capacity) {
+        assert(capacity > 0);
+        final int size = Integer.highestOneBit(Math.max(MAX_PROBE, capacity - 1) << 1);
+        m_slots = new AtomicReferenceArray<>(size);
+        m_mask = size - 1;
+    }
+
+    /**
+     * Record an outstanding call. The handle must not already be in the table.
+     */
+    void put(long handle, long timestampNanos, long throttledNanos, ProcedureCallback callback, String name,
+            long timeoutNanos, boolean ignoreBackpressure) {
+        assert(handle != FREE && handle != BUSY);
+        Entry entry = null;
+        final int home = (int)handle;
+        for (int ii = 0; ii < MAX_PROBE; ii++) {
+            final int slot = (home + ii) & m_mask;
+            Entry candidate = m_slots.get(slot);
+            if (candidate == null) {
+                candidate = new Entry(false);
+                if (!m_slots.compareAndSet(slot, null, candidate)) {
+                    candidate = m_slots.get(slot);
+                }
+            }
+            if (candidate.m_handle == FREE && candidate.claim(FREE)) {
+                entry = candidate;
+                break;
+            }
+        }
+        if (entry == null) {
+            entry = new Entry(true);
+        }
+        entry.timestampNanos = timestampNanos;
+        entry.throttledNanos = throttledNanos;
+        entry.callback = callback;
+        entry.name = name;
+        entry.procedureTimeoutNanos = timeoutNanos;
+        entry.ignoreBackpressure = ignoreBackpressure;
+        // Publishes the fields written above
+        entry.m_handle = handle;
+        if (entry.m_overflow) {
+            m_overflowCount.incrementAndGet();
+            m_overflow.put(handle, entry);
+        }
+    }
+
+    /**
+     * Claim the entry for a handle. Returns null if the call was already
+     * completed by another thread, otherwise the caller owns the entry until
+     * it calls {@link #release(Entry)}.
+     */
+    Entry remove(long handle) {
+        final int home = (int)handle;
+        for (int ii = 0; ii < MAX_PROBE; ii++) {
+            final Entry entry = m_slots.get((home + ii) & m_mask);
+            if (entry != null && entry.m_handle == handle && entry.claim(handle)) {
+                return entry;
+            }
+        }
+        if (m_overflowCount.get() > 0) {
+            final Entry entry = m_overflow.get(handle);
+            if (entry != null && entry.claim(handle)) {
+                m_overflow.remove(handle);
+                m_overflowCount.decrementAndGet();
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return a claimed entry to its slot.
+     */
+    void release(Entry entry) {
+        assert(entry.m_handle == BUSY);
+        entry.callback = null;
+        entry.name = null;
+        if (!entry.m_overflow) {
+            entry.m_handle = FREE;
+        }
+    }
+
+    boolean contains(long handle) {
+        final int home = (int)handle;
+        for (int ii = 0; ii < MAX_PROBE; ii++) {
+            final Entry entry = m_slots.get((home + ii) & m_mask);
+            if (entry != null && entry.m_handle == handle) {
+                return true;
+            }
+        }
+        return m_overflowCount.get() > 0 && m_overflow.containsKey(handle);
+    }
+
+    /**
+     * Visit every call that is outstanding for the whole visit. Calls placed
+     * or completed concurrently may or may not be visited. The visitor may
+     * remove the call it is visiting.
+     */
+    void forEach(Visitor visitor) {
+        for (int ii = 0; ii < m_slots.length(); ii++) {
+            final Entry entry = m_slots.get(ii);
+            if (entry != null) {
+                visit(entry, visitor);
+            }
+        }
+        if (m_overflowCount.get() > 0) {
+            for (Entry entry : m_overflow.values()) {
+                visit(entry, visitor);
+            }
+        }
+    }
+
+    private static void visit(Entry entry, Visitor visitor) {
+        final long handle = entry.m_handle;
+        if (handle == FREE || handle == BUSY) {
+            return;
+        }
+        final long timestampNanos = entry.timestampNanos;
+        final long timeoutNanos = entry.procedureTimeoutNanos;
+        final String name = entry.name;
+        // The entry may have been completed and reused while it was read
+        if (entry.m_handle == handle) {
+            visitor.visit(handle, timestampNanos, timeoutNanos, name);
+        }
+    }
+}
@@ -47,6 +47,7 @@ public class ClientConfig {
     int m_maxOutstandingTxns = 3000;
     int m_maxTransactionsPerSecond = Integer.MAX_VALUE;
     boolean m_autoTune = false;
+    boolean m_adaptiveConcurrency = false;
     int m_autoTuneTargetInternalLatency = 5;
     long m_procedureCallTimeoutNanos = DEFAULT_PROCEDURE_TIMOUT_NANOS;
     long m_connectionResponseTimeoutMS = DEFAULT_CONNECTION_TIMOUT_MS;
@@ -56,6 +57,8 @@ public class ClientConfig {
     long m_initialConnectionRetryIntervalMS = DEFAULT_INITIAL_CONNECTION_RETRY_INTERVAL_MS;
     long m_maxConnectionRetryIntervalMS = DEFAULT_MAX_CONNECTION_RETRY_INTERVAL_MS;
     boolean m_sendReadsToReplicasBytDefaultIfCAEnabled = false;
+    int m_maxInvocationBatchSize = 1;
+    long m_invocationBatchLingerNanos = 0;
 
 
     final static String getUserNameFromSubject(Subject subject) {
@@ -287,7 +290,9 @@ public class ClientConfig {
      * <p>Set the maximum number of transactions that can be run in 1 second. Note this
      * specifies a rate, not a ceiling. If the limit is set to 10, you can't send 10 in
      * the first half of the second and 5 in the later half; the client will let you send
-     * about 1 transaction every 100ms. Default is {link Integer#MAX_VALUE}.</p>
+     * about 1 transaction every 100ms. Permits are handed out with nanosecond precision and
+     * a caller may run ahead of the rate by at most 10ms worth of transactions.
+     * Default is {link Integer#MAX_VALUE}.</p>
      *
      * @param maxTxnsPerSecond Requested ceiling on rate of call in transaction per second.
      */
@@ -311,6 +316,21 @@ public class ClientConfig {
         m_autoTune = true;
     }
 
+    /**
+     * <p>Enable adaptive concurrency, which dynamically adjusts the maximum number of
+     * outstanding transactions from the round trip latency measured by the client. Whenever
+     * the latency rises above the lowest recently seen by more than a few transactions'
+     * worth of queueing, the limit is lowered, and it is raised while callers are waiting
+     * on it and latency stays near that baseline. No latency target needs to be chosen.</p>
+     *
+     * <p>The value set with {@link #setMaxOutstandingTxns(int)} becomes the upper bound
+     * for the limit and {@link #setMaxTransactionsPerSecond(int)} still applies. Auto tune
+     * takes precedence if both are enabled.</p>
+     */
+    public void enableAdaptiveConcurrency() {
+        m_adaptiveConcurrency = true;
+    }
+
     /**
      * <p>Attempts to route transactions to the correct master partition improving latency
      * and throughput</p>
@@ -342,6 +362,34 @@ public class ClientConfig {
         m_sendReadsToReplicasBytDefaultIfCAEnabled = on;
     }
 
+    /**
+     * <p>Coalesce invocations queued for the same server into a single multi-invocation
+     * frame. Combined with client affinity this groups the calls bound for each partition
+     * master, which cuts framing and system call overhead for small procedures.</p>
+     *
+     * <p>A frame is sent when it holds <code>maxBatchSize</code> invocations or when the
+     * first invocation in it has waited <code>lingerMicros</code>, so batching adds up to the
+     * linger time to the latency of each call. Requires servers that understand multi-invocation
+     * frames.</p>
+     *
+     * <p>Defaults to a batch size of 1, which disables batching.</p>
+     *
+     * @param maxBatchSize Maximum number of invocations in one frame.
+     * @param lingerMicros Maximum time in microseconds an invocation waits for its frame to fill.
+     */
+    public void setInvocationBatching(int maxBatchSize, long lingerMicros) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException(
+                    "Max batch size must be greater than 0, " + maxBatchSize + " was specified");
+        }
+        if (maxBatchSize > 1 && lingerMicros < 1) {
+            throw new IllegalArgumentException(
+                    "Batch linger must be greater than 0, " + lingerMicros + " was specified");
+        }
+        m_maxInvocationBatchSize = maxBatchSize;
+        m_invocationBatchLingerNanos = TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+    }
+
     /**
      * <p>Attempts to reconnect to a node with retry after connection loss. See the {@link ReconnectStatusListener}.</p>
      *
@@ -113,6 +113,7 @@ public final class ClientImpl implements Client, ReplicaProcCaller {
                 config.m_sendReadsToReplicasBytDefaultIfCAEnabled,
                 config.m_subject);
         m_distributer.addClientStatusListener(m_listener);
+        m_distributer.setInvocationBatching(config.m_maxInvocationBatchSize, config.m_invocationBatchLingerNanos);
         String username = config.m_username;
         if (config.m_subject != null) {
             username = ClientConfig.getUserNameFromSubject(config.m_subject);
@@ -142,6 +143,10 @@ public final class ClientImpl implements Client, ReplicaProcCaller {
             m_distributer.m_rateLimiter.enableAutoTuning(
                     config.m_autoTuneTargetInternalLatency);
         }
+        else if (config.m_adaptiveConcurrency) {
+            m_distributer.m_rateLimiter.enableAdaptiveConcurrency(
+                    config.m_maxTransactionsPerSecond, config.m_maxOutstandingTxns);
+        }
         else {
             m_distributer.m_rateLimiter.setLimits(
                     config.m_maxTransactionsPerSecond, config.m_maxOutstandingTxns);
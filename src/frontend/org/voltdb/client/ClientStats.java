@@ -62,6 +62,10 @@ public class ClientStats {
     // cumulative latency measured by the cluster, used to calculate avg lat.
     long m_clusterRoundTripTime; // milliseconds
 
+    // invocations whose caller was held back by the rate limiter and for how long in total
+    long m_invocationsThrottled;
+    long m_throttledTimeNanos;
+
     /** The number of buckets tracking latency with 1ms granularity. */
     final public static int ONE_MS_BUCKET_COUNT = 50;
     /** The number of buckets tracking latency with 10ms granularity. */
@@ -95,6 +99,7 @@ public class ClientStats {
         m_endTS = Long.MIN_VALUE;
         m_invocationsCompleted = m_invocationAborts = m_invocationErrors = 0;
         m_roundTripTimeNanos = m_clusterRoundTripTime = 0;
+        m_invocationsThrottled = m_throttledTimeNanos = 0;
         m_bytesSent = m_bytesReceived = 0;
         m_latencyHistogram = constructHistogram();
     }
@@ -112,6 +117,8 @@ public class ClientStats {
         m_invocationTimeouts = other.m_invocationTimeouts;
         m_roundTripTimeNanos = other.m_roundTripTimeNanos;
         m_clusterRoundTripTime = other.m_clusterRoundTripTime;
+        m_invocationsThrottled = other.m_invocationsThrottled;
+        m_throttledTimeNanos = other.m_throttledTimeNanos;
         m_latencyHistogram = other.m_latencyHistogram.copy();
         m_latencyHistogram.reestablishTotalCount();
         m_bytesSent = other.m_bytesSent;
@@ -141,6 +148,8 @@ public class ClientStats {
 
         retval.m_roundTripTimeNanos = newer.m_roundTripTimeNanos - older.m_roundTripTimeNanos;
         retval.m_clusterRoundTripTime = newer.m_clusterRoundTripTime - older.m_clusterRoundTripTime;
+        retval.m_invocationsThrottled = newer.m_invocationsThrottled - older.m_invocationsThrottled;
+        retval.m_throttledTimeNanos = newer.m_throttledTimeNanos - older.m_throttledTimeNanos;
 
         retval.m_latencyHistogram = Histogram.diff(newer.m_latencyHistogram, older.m_latencyHistogram);
 
@@ -189,6 +198,8 @@ public class ClientStats {
 
         m_roundTripTimeNanos += other.m_roundTripTimeNanos;
         m_clusterRoundTripTime += other.m_clusterRoundTripTime;
+        m_invocationsThrottled += other.m_invocationsThrottled;
+        m_throttledTimeNanos += other.m_throttledTimeNanos;
 
         m_latencyHistogram.add(other.m_latencyHistogram);
         m_latencyHistogram.reestablishTotalCount();
@@ -197,13 +208,18 @@ public class ClientStats {
         m_bytesReceived += other.m_bytesReceived;
     }
 
-    void update(long roundTripTimeNanos, int clusterRoundTripTime, boolean abort, boolean error, boolean timeout) {
+    void update(long roundTripTimeNanos, int clusterRoundTripTime, long throttledTimeNanos,
+            boolean abort, boolean error, boolean timeout) {
         m_invocationsCompleted++;
         if (abort) m_invocationAborts++;
         if (error) m_invocationErrors++;
         if (timeout) m_invocationTimeouts++;
         m_roundTripTimeNanos += roundTripTimeNanos;
         m_clusterRoundTripTime += clusterRoundTripTime;
+        if (throttledTimeNanos > 0) {
+            m_invocationsThrottled++;
+            m_throttledTimeNanos += throttledTimeNanos;
+        }
 
         //Round up to 50 microseconds. Average is still accurate and it doesn't change the percentile distribution
         //above 50 micros
@@ -363,6 +379,33 @@ public class ClientStats {
         return (double)m_clusterRoundTripTime / (double)m_invocationsCompleted;
     }
 
+    /**
+     * Get the number of invocations whose caller was blocked by the client's rate limit
+     * or cap on outstanding transactions before the invocation could be sent, for the
+     * time period covered by this stats instance.
+     *
+     * @return The number of throttled invocations.
+     */
+    public long getInvocationsThrottled() {
+        return m_invocationsThrottled;
+    }
+
+    /**
+     * <p>Get the average time in milliseconds callers were blocked by the client's rate
+     * limit or cap on outstanding transactions, for the time period covered by this stats
+     * instance. This is computed by summing the time spent blocked and dividing by the
+     * completed invocation count.</p>
+     *
+     * <p>The client measured latency reported by {@link #getAverageLatency()} includes
+     * this time.</p>
+     *
+     * @return Average throttle time in milliseconds.
+     */
+    public double getAverageThrottleTime() {
+        if (m_invocationsCompleted == 0) return 0;
+        return (m_throttledTimeNanos / (double)m_invocationsCompleted) / 1000000.0D;
+    }
+
     /**
      * <p>Get the raw buckets used for latency tracking in 1ms increments. For example, if
      * a transaction returns in 3.2ms, then the array at index 3 will be incremented by
@@ -594,6 +637,8 @@ public class ClientStats {
         if (m_invocationsCompleted > 0) {
             sb.append(String.format("    avg latency client/internal: %.2f/%d\n",
                     (m_roundTripTimeNanos / (double)m_invocationsCompleted) / 1000000.0, m_clusterRoundTripTime / m_invocationsCompleted));
+            sb.append(String.format("    invocations throttled: %d avg throttle time: %.2f\n",
+                    m_invocationsThrottled, (m_throttledTimeNanos / (double)m_invocationsCompleted) / 1000000.0));
             sb.append(latencyHistoReport()).append("\n");
         }
 
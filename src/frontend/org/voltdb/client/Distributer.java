@@ -96,8 +96,11 @@ class Distributer {
     //Selector and connection handling, does all work in blocking selection thread
     private final VoltNetworkPool m_network;
 
+    // Snapshot of m_connections for routing without the distributer lock
+    private volatile NodeConnection[] m_connectionSnapshot = new NodeConnection[0];
+
     // Temporary until a distribution/affinity algorithm is written
-    private int m_nextConnection = 0;
+    private final AtomicInteger m_nextConnection = new AtomicInteger(0);
 
     private final boolean m_useMultipleThreads;
     private final boolean m_useClientAffinity;
@@ -120,26 +123,36 @@ class Distributer {
         }
     }
 
-    private final Map<Integer, NodeConnection> m_partitionMasters = new HashMap<>();
-    private final Map<Integer, NodeConnection[]> m_partitionReplicas = new HashMap<>();
+    /*
+     * Routing state is read by queue() without the distributer lock. It is replaced,
+     * never modified, under the lock.
+     */
+    private volatile Map<Integer, NodeConnection> m_partitionMasters = new HashMap<>();
+    private volatile Map<Integer, NodeConnection[]> m_partitionReplicas = new HashMap<>();
     private final Map<Integer, NodeConnection> m_hostIdToConnection = new HashMap<>();
-    private final Map<String, Procedure> m_procedureInfo = new HashMap<>();
+    private volatile Map<String, Procedure> m_procedureInfo = new HashMap<>();
 
     private final AtomicReference<ImmutableSet<Integer>> m_partitionKeys = new AtomicReference<ImmutableSet<Integer>>();
     private final AtomicLong m_lastPartitionKeyFetched = new AtomicLong(0);
     private final AtomicReference<ClientResponse> m_partitionUpdateStatus = new AtomicReference<ClientResponse>();
 
     //This is the instance of the Hashinator we picked from TOPO used only for client affinity.
-    private HashinatorLite m_hashinator = null;
+    private volatile HashinatorLite m_hashinator = null;
     //This is a global timeout that will be used if a per-procedure timeout is not provided with the procedure call.
     private final long m_procedureCallTimeoutNanos;
     private static final long MINIMUM_LONG_RUNNING_SYSTEM_CALL_TIMEOUT_MS = 30 * 60 * 1000; // 30 minutes
     private final long m_connectionResponseTimeoutNanos;
-    private final Map<Integer, ClientAffinityStats> m_clientAffinityStats =
-        new HashMap<>();
+    private final ConcurrentMap<Integer, ClientAffinityStats> m_clientAffinityStats =
+        new ConcurrentHashMap<>();
 
     public final RateLimiter m_rateLimiter = new RateLimiter();
 
+    // Multi-invocation framing, a batch size of 1 sends every invocation in its own frame
+    private int m_maxInvocationBatchSize = 1;
+    private long m_invocationBatchLingerNanos = 0;
+    // Keep frames well under the server's maximum message length
+    static final int MAX_INVOCATION_BATCH_BYTES = 2 * 1024 * 1024;
+
     //private final Timer m_timer;
     private final ScheduledExecutorService m_ex =
         Executors.newSingleThreadScheduledExecutor(
@@ -326,25 +339,25 @@ class Distributer {
                     }
 
                     // for each outstanding procedure
-                    for (final Map.Entry<Long, CallbackBookeeping> e : c.m_callbacks.entrySet()) {
-                        final long handle = e.getKey();
-                        final CallbackBookeeping cb = e.getValue();
-
-                        // if the timeout is expired, call the callback and remove the
-                        // bookeeping data
-                        final long deltaNanos = Math.max(1, nowNanos - cb.timestampNanos);
-                        if (deltaNanos > cb.procedureTimeoutNanos) {
-
-                            //For expected long operations don't use the default timeout
-                            //unless it is > MINIMUM_LONG_RUNNING_SYSTEM_CALL_TIMEOUT_MS
-                            final boolean isLongOp = isLongOp(cb.name);
-                            if (isLongOp && (deltaNanos < TimeUnit.MILLISECONDS.toNanos(MINIMUM_LONG_RUNNING_SYSTEM_CALL_TIMEOUT_MS))) {
-                                continue;
-                            }
+                    c.m_callbacks.forEach(new CallbackTable.Visitor() {
+                        @Override
+                        public void visit(long handle, long timestampNanos, long timeoutNanos, String name) {
+                            // if the timeout is expired, call the callback and remove the
+                            // bookeeping data
+                            final long deltaNanos = Math.max(1, nowNanos - timestampNanos);
+                            if (deltaNanos > timeoutNanos) {
+
+                                //For expected long operations don't use the default timeout
+                                //unless it is > MINIMUM_LONG_RUNNING_SYSTEM_CALL_TIMEOUT_MS
+                                final boolean isLongOp = isLongOp(name);
+                                if (isLongOp && (deltaNanos < TimeUnit.MILLISECONDS.toNanos(MINIMUM_LONG_RUNNING_SYSTEM_CALL_TIMEOUT_MS))) {
+                                    return;
+                                }
 
-                            c.handleTimedoutCallback(handle, nowNanos);
+                                c.handleTimedoutCallback(handle, nowNanos);
+                            }
                         }
-                    }
+                    });
                 }
             } catch (Throwable t) {
                 t.printStackTrace();
@@ -368,27 +381,14 @@ class Distributer {
         return false;
     }
 
-    class CallbackBookeeping {
-        public CallbackBookeeping(long timestampNanos, ProcedureCallback callback, String name, long timeoutNanos, boolean ignoreBackpressure) {
-            assert(callback != null);
-            this.timestampNanos = timestampNanos;
-            this.callback = callback;
-            this.name = name;
-            this.procedureTimeoutNanos = timeoutNanos;
-            this.ignoreBackpressure = ignoreBackpressure;
-        }
-        long timestampNanos;
-        //Timeout in ms 0 means use conenction specified procedure timeoutMS.
-        final long procedureTimeoutNanos;
-        ProcedureCallback callback;
-        String name;
-        boolean ignoreBackpressure;
-    }
-
     class NodeConnection extends VoltProtocolHandler implements org.voltcore.network.QueueMonitor {
         private final AtomicInteger m_callbacksToInvoke = new AtomicInteger(0);
-        private final ConcurrentMap<Long, CallbackBookeeping> m_callbacks = new ConcurrentHashMap<>();
+        private final CallbackTable m_callbacks = new CallbackTable();
         private final NonBlockingHashMap<String, ClientStats> m_stats = new NonBlockingHashMap<>();
+        // Invocations waiting for the next multi-invocation frame, guarded by itself
+        private final ArrayList<ByteBuffer> m_batch = new ArrayList<>();
+        private int m_batchBytes = 0;
+        private long m_batchGeneration = 0;
         private Connection m_connection;
         private volatile boolean m_isConnected = true;
 
@@ -432,18 +432,22 @@ class Distributer {
                  * the transaction out on the wire due to max outstanding
                  */
                 final long deltaNanos = Math.max(1, System.nanoTime() - nowNanos);
-                    invokeCallbackWithTimeout(name, callback, deltaNanos, afterRateLimitNanos,  timeoutNanos, handle, ignoreBackpressure);
+                //The timeout is counted as an invocation but no permit was taken
+                m_callbacksToInvoke.incrementAndGet();
+                invokeCallbackWithTimeout(name, callback, deltaNanos, afterRateLimitNanos, deltaNanos,
+                        timeoutNanos, handle, true);
                 return;
             }
 
-            assert(m_callbacks.containsKey(handle) == false);
+            assert(m_callbacks.contains(handle) == false);
 
             //Drain needs to know when all callbacks have been invoked
             final int callbacksToInvoke = m_callbacksToInvoke.incrementAndGet();
             assert(callbacksToInvoke >= 0);
 
             //Optimistically submit the task
-            m_callbacks.put(handle, new CallbackBookeeping(nowNanos, callback, name, timeoutNanos, ignoreBackpressure));
+            m_callbacks.put(handle, nowNanos, afterRateLimitNanos - nowNanos, callback, name,
+                    timeoutNanos, ignoreBackpressure);
 
             //Schedule the timeout to fire relative to the amount of time
             //spent getting to this point. Might fire immediately
@@ -459,9 +463,11 @@ class Distributer {
             //Check for disconnect
             if (!m_isConnected) {
                 //Check if the disconnect or expiration already handled the callback
-                if (m_callbacks.remove(handle) == null) {
+                final CallbackTable.Entry entry = m_callbacks.remove(handle);
+                if (entry == null) {
                     return;
                 }
+                m_callbacks.release(entry);
                 final ClientResponse r = new ClientResponseImpl(
                         ClientResponse.CONNECTION_LOST, new VoltTable[0],
                         "Connection to database host (" + m_connection.getHostnameAndIPAndPort() +
@@ -477,23 +483,88 @@ class Distributer {
                 assert(remainingToInvoke >= 0);
 
                 //for bookkeeping, but it feels dishonest to call this here
-                m_rateLimiter.transactionResponseReceived(nowNanos, -1, ignoreBackpressure);
+                m_rateLimiter.transactionResponseReceived(nowNanos, -1, -1, ignoreBackpressure);
                 return;
+            } else if (m_maxInvocationBatchSize > 1) {
+                batchWork(c);
             } else {
                 m_connection.writeStream().enqueue(c);
             }
         }
 
+        /*
+         * Add a framed invocation to the pending multi-invocation frame. The frame is
+         * sent once it is full or when the first invocation in it has lingered long enough.
+         * Frames are enqueued while holding the batch lock so they go out in order.
+         */
+        private void batchWork(ByteBuffer c) {
+            synchronized (m_batch) {
+                m_batch.add(c);
+                m_batchBytes += c.remaining();
+                if (m_batch.size() >= m_maxInvocationBatchSize || m_batchBytes >= MAX_INVOCATION_BATCH_BYTES) {
+                    sendBatch();
+                } else if (m_batch.size() == 1) {
+                    final long generation = m_batchGeneration;
+                    try {
+                        m_ex.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                synchronized (m_batch) {
+                                    // The frame may have filled up and been sent already
+                                    if (m_batchGeneration == generation) {
+                                        sendBatch();
+                                    }
+                                }
+                            }
+                        }, m_invocationBatchLingerNanos, TimeUnit.NANOSECONDS);
+                    } catch (RejectedExecutionException ree) {
+                        // shutting down, nothing will come along to fill the frame
+                        sendBatch();
+                    }
+                }
+            }
+        }
+
+        /*
+         * Send the pending invocations, must hold the batch lock. A lone invocation is
+         * sent in its own frame. Otherwise the frame header is followed by the invocations
+         * as they were framed for sending individually, so nothing is copied here.
+         */
+        private void sendBatch() {
+            m_batchGeneration++;
+            final int count = m_batch.size();
+            if (count == 0) {
+                return;
+            }
+            if (count == 1) {
+                m_connection.writeStream().enqueue(m_batch.get(0));
+            } else {
+                final ByteBuffer frame[] = new ByteBuffer[count + 1];
+                final ByteBuffer header = ByteBuffer.allocate(4 + Constants.MULTI_INVOCATION_HEADER_SIZE);
+                header.putInt(Constants.MULTI_INVOCATION_HEADER_SIZE + m_batchBytes);
+                header.put(Constants.MULTI_INVOCATION_FRAME);
+                header.putInt(count);
+                header.flip();
+                frame[0] = header;
+                for (int ii = 0; ii < count; ii++) {
+                    frame[ii + 1] = m_batch.get(ii);
+                }
+                m_connection.writeStream().enqueue(frame);
+            }
+            m_batch.clear();
+            m_batchBytes = 0;
+        }
+
         /*
          * For high precision timeouts, submit a discrete task to a scheduled
          * executor service to time out the transaction. The timeout task
-         * when run checks if the task is still present in the concurrent map
-         * of tasks and removes it. If it wins the race to remove the map
+         * when run checks if the task is still present in the callback table
+         * and claims it. If it wins the race to claim the entry
          * then the transaction will be timed out even if a response is received
          * at the same time.
          *
          * This will race with the periodic task that checks lower resolution timeouts
-         * and it is fine, the concurrent map makes sure each callback is handled exactly once
+         * and it is fine, the callback table makes sure each callback is handled exactly once
          */
         void submitDiscreteTimeoutTask(final long handle, long timeoutNanos) {
             m_ex.schedule(new Runnable() {
@@ -511,7 +582,7 @@ class Distributer {
         void handleTimedoutCallback(long handle, long nowNanos) {
             //Callback doesn't have to be there, it may have already
             //received a response or been expired by the periodic expiration task, or a discrete expiration task
-            final CallbackBookeeping cb = m_callbacks.remove(handle);
+            final CallbackTable.Entry cb = m_callbacks.remove(handle);
 
             //It was handled during the race
             if (cb == null) {
@@ -519,8 +590,15 @@ class Distributer {
             }
 
             final long deltaNanos = Math.max(1, nowNanos - cb.timestampNanos);
-
-            invokeCallbackWithTimeout(cb.name, cb.callback, deltaNanos, nowNanos, cb.procedureTimeoutNanos, handle, cb.ignoreBackpressure);
+            final String name = cb.name;
+            final ProcedureCallback callback = cb.callback;
+            final long timeoutNanos = cb.procedureTimeoutNanos;
+            final long throttledNanos = cb.throttledNanos;
+            final boolean ignoreBackpressure = cb.ignoreBackpressure;
+            m_callbacks.release(cb);
+
+            invokeCallbackWithTimeout(name, callback, deltaNanos, nowNanos, throttledNanos, timeoutNanos, handle,
+                    ignoreBackpressure);
         }
 
         /*
@@ -530,6 +608,7 @@ class Distributer {
                                        ProcedureCallback callback,
                                        long deltaNanos,
                                        long nowNanos,
+                                       long throttledNanos,
                                        long timeoutNanos,
                                        long handle,
                                        boolean ignoreBackpressure) {
@@ -553,8 +632,8 @@ class Distributer {
             final int remainingToInvoke = m_callbacksToInvoke.decrementAndGet();
             assert(remainingToInvoke >= 0);
 
-            m_rateLimiter.transactionResponseReceived(nowNanos, -1, ignoreBackpressure);
-            updateStatsForTimeout(procName, r.getClientRoundtripNanos(), r.getClusterRoundtrip());
+            m_rateLimiter.transactionResponseReceived(nowNanos, -1, -1, ignoreBackpressure);
+            updateStatsForTimeout(procName, r.getClientRoundtripNanos(), r.getClusterRoundtrip(), throttledNanos);
         }
 
         void sendPing() {
@@ -574,11 +653,12 @@ class Distributer {
         private void updateStatsForTimeout(
                 final String procName,
                 final long roundTripNanos,
-                final int clusterRoundTrip) {
+                final int clusterRoundTrip,
+                final long throttledNanos) {
             m_connection.queueTask(new Runnable() {
                 @Override
                 public void run() {
-                    updateStats(procName, roundTripNanos, clusterRoundTrip, false, false, true);
+                    updateStats(procName, roundTripNanos, clusterRoundTrip, throttledNanos, false, false, true);
                 }
             });
         }
@@ -588,6 +668,7 @@ class Distributer {
          * @param procName Name of procedure being updated
          * @param roundTrip round trip from client queued to client response callback invocation
          * @param clusterRoundTrip round trip measured within the VoltDB cluster
+         * @param throttledNanos time the caller was held back by the rate limiter
          * @param abort true of the procedure was aborted
          * @param failure true if the procedure failed
          */
@@ -595,6 +676,7 @@ class Distributer {
                 String procName,
                 long roundTripNanos,
                 int clusterRoundTrip,
+                long throttledNanos,
                 boolean abort,
                 boolean failure,
                 boolean timeout) {
@@ -609,7 +691,7 @@ class Distributer {
                 stats.m_endTS = Long.MIN_VALUE;
                 m_stats.put(procName, stats);
             }
-            stats.update(roundTripNanos, clusterRoundTrip, abort, failure, timeout);
+            stats.update(roundTripNanos, clusterRoundTrip, throttledNanos, abort, failure, timeout);
         }
 
         @Override
@@ -649,8 +731,8 @@ class Distributer {
             }
 
             //Race with expiration thread to be the first to remove the callback
-            //from the map and process it
-            final CallbackBookeeping stuff = m_callbacks.remove(response.getClientHandle());
+            //from the table and process it
+            final CallbackTable.Entry stuff = m_callbacks.remove(handle);
 
             // presumably (hopefully) this is a response for a timed-out message
             if (stuff == null) {
@@ -669,7 +751,11 @@ class Distributer {
             else {
                 final long callTimeNanos = stuff.timestampNanos;
                 final long deltaNanos = Math.max(1, nowNanos - callTimeNanos);
+                final long throttledNanos = stuff.throttledNanos;
                 final ProcedureCallback cb = stuff.callback;
+                final String name = stuff.name;
+                final boolean ignoreBackpressure = stuff.ignoreBackpressure;
+                m_callbacks.release(stuff);
                 assert(cb != null);
                 final byte status = response.getStatus();
                 boolean abort = false;
@@ -681,8 +767,11 @@ class Distributer {
                 }
 
                 int clusterRoundTrip = response.getClusterRoundtrip();
-                m_rateLimiter.transactionResponseReceived(nowNanos, clusterRoundTrip, stuff.ignoreBackpressure);
-                updateStats(stuff.name, deltaNanos, clusterRoundTrip, abort, error, false);
+                // Time spent waiting on the client's own rate limiter is not server latency,
+                // leave it out or adaptive concurrency shrinks the cap in response to itself
+                m_rateLimiter.transactionResponseReceived(nowNanos, Math.max(1, deltaNanos - throttledNanos),
+                        clusterRoundTrip, ignoreBackpressure);
+                updateStats(name, deltaNanos, clusterRoundTrip, throttledNanos, abort, error, false);
                 response.setClientRoundtrip(deltaNanos);
                 assert(response.getHash() == null); // make sure it didn't sneak into wire protocol
                 try {
@@ -716,7 +805,8 @@ class Distributer {
                 /*
                  * Repair all cluster topology data with the node connection removed
                  */
-                Iterator<Map.Entry<Integer, NodeConnection>> i = m_partitionMasters.entrySet().iterator();
+                final Map<Integer, NodeConnection> partitionMasters = new HashMap<>(m_partitionMasters);
+                Iterator<Map.Entry<Integer, NodeConnection>> i = partitionMasters.entrySet().iterator();
                 while (i.hasNext()) {
                     Map.Entry<Integer, NodeConnection> entry = i.next();
                     if (entry.getValue() == this) {
@@ -732,7 +822,8 @@ class Distributer {
                     }
                 }
 
-                Iterator<Map.Entry<Integer, NodeConnection[]>> i2 = m_partitionReplicas.entrySet().iterator();
+                final Map<Integer, NodeConnection[]> partitionReplicas = new HashMap<>(m_partitionReplicas);
+                Iterator<Map.Entry<Integer, NodeConnection[]>> i2 = partitionReplicas.entrySet().iterator();
                 List<Pair<Integer, NodeConnection[]>> entriesToRewrite = new ArrayList<>();
                 while (i2.hasNext()) {
                     Map.Entry<Integer, NodeConnection[]> entry = i2.next();
@@ -744,7 +835,7 @@ class Distributer {
                 }
 
                 for (Pair<Integer, NodeConnection[]> entry : entriesToRewrite) {
-                    m_partitionReplicas.remove(entry.getFirst());
+                    partitionReplicas.remove(entry.getFirst());
                     NodeConnection survivors[] = new NodeConnection[entry.getSecond().length - 1];
                     if (survivors.length == 0) {
                         break;
@@ -755,10 +846,13 @@ class Distributer {
                             survivors[zz++] = entry.getSecond()[ii];
                         }
                     }
-                    m_partitionReplicas.put(entry.getFirst(), survivors);
+                    partitionReplicas.put(entry.getFirst(), survivors);
                 }
+                m_partitionMasters = partitionMasters;
+                m_partitionReplicas = partitionReplicas;
 
                 m_connections.remove(this);
+                m_connectionSnapshot = m_connections.toArray(new NodeConnection[0]);
                 //Notify listeners that a connection has been lost
                 for (ClientStatusListenerExt s : m_listeners) {
                     s.connectionLost(
@@ -801,25 +895,31 @@ class Distributer {
                         ClientResponse.CONNECTION_LOST, new VoltTable[0],
                         "Connection to database host (" + m_connection.getHostnameAndIPAndPort() +
                 ") was lost before a response was received");
-            for (Map.Entry<Long, CallbackBookeeping> e : m_callbacks.entrySet()) {
-                //Check for race with other threads
-                if (m_callbacks.remove(e.getKey()) == null) {
-                    continue;
-                }
-                final CallbackBookeeping callBk = e.getValue();
-                try {
-                    callBk.callback.clientCallback(r);
-                }
-                catch (Exception ex) {
-                    uncaughtException(callBk.callback, r, ex);
-                }
+            m_callbacks.forEach(new CallbackTable.Visitor() {
+                @Override
+                public void visit(long handle, long timestampNanos, long timeoutNanos, String name) {
+                    //Check for race with other threads
+                    final CallbackTable.Entry callBk = m_callbacks.remove(handle);
+                    if (callBk == null) {
+                        return;
+                    }
+                    final ProcedureCallback callback = callBk.callback;
+                    final boolean ignoreBackpressure = callBk.ignoreBackpressure;
+                    m_callbacks.release(callBk);
+                    try {
+                        callback.clientCallback(r);
+                    }
+                    catch (Exception ex) {
+                        uncaughtException(callback, r, ex);
+                    }
 
-                //Drain needs to know when all callbacks have been invoked
-                final int remainingToInvoke = m_callbacksToInvoke.decrementAndGet();
-                assert(remainingToInvoke >= 0);
+                    //Drain needs to know when all callbacks have been invoked
+                    final int remainingToInvoke = m_callbacksToInvoke.decrementAndGet();
+                    assert(remainingToInvoke >= 0);
 
-                m_rateLimiter.transactionResponseReceived(System.nanoTime(), -1, callBk.ignoreBackpressure);
-            }
+                    m_rateLimiter.transactionResponseReceived(System.nanoTime(), -1, -1, ignoreBackpressure);
+                }
+            });
         }
 
         @Override
@@ -924,6 +1024,17 @@ class Distributer {
         m_subject = subject;
     }
 
+    /**
+     * Coalesce invocations bound for the same connection into multi-invocation frames.
+     * Must be called before any connections are created.
+     * @param maxBatchSize Most invocations in one frame, 1 disables batching
+     * @param lingerNanos Longest the first invocation in a frame waits for it to fill
+     */
+    void setInvocationBatching(int maxBatchSize, long lingerNanos) {
+        m_maxInvocationBatchSize = maxBatchSize;
+        m_invocationBatchLingerNanos = lingerNanos;
+    }
+
     void createConnection(String host, String program, String password, int port, ClientAuthScheme scheme)
     throws UnknownHostException, IOException
     {
@@ -970,6 +1081,7 @@ class Distributer {
             m_buildString = (String)socketChannelAndInstanceIdAndBuildString[2];
 
             m_connections.add(cxn);
+            m_connectionSnapshot = m_connections.toArray(new NodeConnection[0]);
         }
 
         if (m_useClientAffinity) {
@@ -1066,81 +1178,124 @@ class Distributer {
         assert(invocation != null);
         assert(cb != null);
 
-        NodeConnection cxn = null;
-        boolean backpressure = true;
-
         /*
-         * Synchronization is necessary to ensure that m_connections is not modified
-         * as well as to ensure that backpressure is reported correctly
+         * Route without holding the distributer lock, the routing state is published
+         * copy-on-write. Backpressure is rechecked and reported under the lock so that it
+         * can't be reported after offBackPressure has announced that it ended.
          */
-        synchronized (this) {
-            final int totalConnections = m_connections.size();
+        NodeConnection cxn = route(invocation, ignoreBackpressure, true);
+        if (cxn == null) {
+            synchronized (this) {
+                cxn = route(invocation, ignoreBackpressure, false);
+                if (cxn == null) {
+                    for (ClientStatusListenerExt s : m_listeners) {
+                        s.backpressure(true);
+                    }
+                }
+            }
+        }
+        final boolean backpressure = cxn == null;
 
-            if (totalConnections == 0) {
-                throw new NoConnectionsException("No connections.");
+        /*
+         * Do the heavy weight serialization outside the synchronized block.
+         * createWork synchronizes on an individual connection which allows for more concurrency
+         */
+        if (cxn != null) {
+            ByteBuffer buf = null;
+            try {
+                buf = serializeSPI(invocation);
+            } catch (Exception e) {
+                Throwables.propagate(e);
             }
+            cxn.createWork(nowNanos, invocation.getHandle(), invocation.getProcName(), buf, cb, ignoreBackpressure, timeoutNanos);
+        }
 
-            /*
-             * Check if the master for the partition is known. No back pressure check to ensure correct
-             * routing, but backpressure will be managed anyways. This is where we guess partition based on client
-             * affinity and known topology (hashinator initialized).
-             */
-            if (m_useClientAffinity && (m_hashinator != null)) {
-                final Procedure procedureInfo = m_procedureInfo.get(invocation.getProcName());
-                Integer hashedPartition = -1;
-
-                if (procedureInfo != null) {
-                    hashedPartition = Constants.MP_INIT_PID;
-                    if (( ! procedureInfo.multiPart) &&
-                        // User may have passed too few parameters to allow dispatching.
-                        // Avoid an indexing error here to fall through to the proper ProcCallException.
-                            (procedureInfo.partitionParameter < invocation.getPassedParamCount())) {
-                        hashedPartition = m_hashinator.getHashedPartitionForParameter(
-                                procedureInfo.partitionParameterType,
-                                invocation.getPartitionParamValue(procedureInfo.partitionParameter));
-                    }
-                    /*
-                     * If the procedure is read only and single part and the user wants it, load balance across replicas
-                     * This is probably slower for SAFE consistency.
-                     */
-                    if (!procedureInfo.multiPart && procedureInfo.readOnly && m_sendReadsToReplicasBytDefaultIfCAEnabled) {
-                        NodeConnection partitionReplicas[] = m_partitionReplicas.get(hashedPartition);
-                        if (partitionReplicas != null && partitionReplicas.length > 0) {
-                            cxn = partitionReplicas[ThreadLocalRandom.current().nextInt(partitionReplicas.length)];
-                            if (cxn.hadBackPressure()) {
-                                //See if there is one without backpressure, make sure it's still connected
-                                for (NodeConnection nc : partitionReplicas) {
-                                    if (!nc.hadBackPressure() && nc.m_isConnected) {
-                                        cxn = nc;
-                                        break;
-                                    }
+        return !backpressure;
+    }
+
+    /**
+     * Pick the connection for an invocation, returns null if it should be rejected
+     * because of backpressure.
+     * @param countAffinity Whether to count the choice in the client affinity statistics
+     */
+    private NodeConnection route(ProcedureInvocation invocation, boolean ignoreBackpressure, boolean countAffinity)
+            throws NoConnectionsException {
+        NodeConnection cxn = null;
+        boolean backpressure = true;
+
+        final NodeConnection[] connections = m_connectionSnapshot;
+        final int totalConnections = connections.length;
+
+        if (totalConnections == 0) {
+            throw new NoConnectionsException("No connections.");
+        }
+
+        /*
+         * Check if the master for the partition is known. No back pressure check to ensure correct
+         * routing, but backpressure will be managed anyways. This is where we guess partition based on client
+         * affinity and known topology (hashinator initialized).
+         */
+        final HashinatorLite hashinator = m_hashinator;
+        if (m_useClientAffinity && (hashinator != null)) {
+            final Procedure procedureInfo = m_procedureInfo.get(invocation.getProcName());
+            Integer hashedPartition = -1;
+
+            if (procedureInfo != null) {
+                hashedPartition = Constants.MP_INIT_PID;
+                if (( ! procedureInfo.multiPart) &&
+                    // User may have passed too few parameters to allow dispatching.
+                    // Avoid an indexing error here to fall through to the proper ProcCallException.
+                        (procedureInfo.partitionParameter < invocation.getPassedParamCount())) {
+                    hashedPartition = hashinator.getHashedPartitionForParameter(
+                            procedureInfo.partitionParameterType,
+                            invocation.getPartitionParamValue(procedureInfo.partitionParameter));
+                }
+                /*
+                 * If the procedure is read only and single part and the user wants it, load balance across replicas
+                 * This is probably slower for SAFE consistency.
+                 */
+                if (!procedureInfo.multiPart && procedureInfo.readOnly && m_sendReadsToReplicasBytDefaultIfCAEnabled) {
+                    NodeConnection partitionReplicas[] = m_partitionReplicas.get(hashedPartition);
+                    if (partitionReplicas != null && partitionReplicas.length > 0) {
+                        cxn = partitionReplicas[ThreadLocalRandom.current().nextInt(partitionReplicas.length)];
+                        if (cxn.hadBackPressure()) {
+                            //See if there is one without backpressure, make sure it's still connected
+                            for (NodeConnection nc : partitionReplicas) {
+                                if (!nc.hadBackPressure() && nc.m_isConnected) {
+                                    cxn = nc;
+                                    break;
                                 }
                             }
-                            if (!cxn.hadBackPressure() || ignoreBackpressure) {
-                                backpressure = false;
-                            }
                         }
-                    } else {
-                        /*
-                         * For writes or SAFE reads, this is the best way to go
-                         */
-                        cxn = m_partitionMasters.get(hashedPartition);
-                        if (cxn != null && !cxn.hadBackPressure() || ignoreBackpressure) {
+                        if (!cxn.hadBackPressure() || ignoreBackpressure) {
                             backpressure = false;
                         }
                     }
+                } else {
+                    /*
+                     * For writes or SAFE reads, this is the best way to go
+                     */
+                    cxn = m_partitionMasters.get(hashedPartition);
+                    if (cxn != null && !cxn.hadBackPressure() || ignoreBackpressure) {
+                        backpressure = false;
+                    }
                 }
-                if (cxn != null && !cxn.m_isConnected) {
-                    // Would be nice to log something here
-                    // Client affinity picked a connection that was actually disconnected.  Reset to null
-                    // and let the round-robin choice pick a connection
-                    cxn = null;
-                }
-                ClientAffinityStats stats = m_clientAffinityStats.get(hashedPartition);
-                if (stats == null) {
-                    stats = new ClientAffinityStats(hashedPartition, 0, 0, 0, 0);
-                    m_clientAffinityStats.put(hashedPartition, stats);
+            }
+            if (cxn != null && !cxn.m_isConnected) {
+                // Would be nice to log something here
+                // Client affinity picked a connection that was actually disconnected.  Reset to null
+                // and let the round-robin choice pick a connection
+                cxn = null;
+            }
+            ClientAffinityStats stats = m_clientAffinityStats.get(hashedPartition);
+            if (stats == null) {
+                stats = new ClientAffinityStats(hashedPartition, 0, 0, 0, 0);
+                final ClientAffinityStats existing = m_clientAffinityStats.putIfAbsent(hashedPartition, stats);
+                if (existing != null) {
+                    stats = existing;
                 }
+            }
+            if (countAffinity) {
                 if (cxn != null) {
                     if (procedureInfo != null && procedureInfo.readOnly) {
                         stats.addAffinityRead();
@@ -1160,40 +1315,19 @@ class Distributer {
                     }
                 }
             }
-            if (cxn == null) {
-                for (int i=0; i < totalConnections; ++i) {
-                    cxn = m_connections.get(Math.abs(++m_nextConnection % totalConnections));
-                    if (!cxn.hadBackPressure() || ignoreBackpressure) {
-                        // serialize and queue the invocation
-                        backpressure = false;
-                        break;
-                    }
-                }
-            }
-
-            if (backpressure) {
-                cxn = null;
-                for (ClientStatusListenerExt s : m_listeners) {
-                    s.backpressure(true);
-                }
-            }
         }
-
-        /*
-         * Do the heavy weight serialization outside the synchronized block.
-         * createWork synchronizes on an individual connection which allows for more concurrency
-         */
-        if (cxn != null) {
-            ByteBuffer buf = null;
-            try {
-                buf = serializeSPI(invocation);
-            } catch (Exception e) {
-                Throwables.propagate(e);
+        if (cxn == null) {
+            for (int i=0; i < totalConnections; ++i) {
+                cxn = connections[Math.abs(m_nextConnection.incrementAndGet() % totalConnections)];
+                if (!cxn.hadBackPressure() || ignoreBackpressure) {
+                    // serialize and queue the invocation
+                    backpressure = false;
+                    break;
+                }
             }
-            cxn.createWork(nowNanos, invocation.getHandle(), invocation.getProcName(), buf, cb, ignoreBackpressure, timeoutNanos);
         }
 
-        return !backpressure;
+        return backpressure ? null : cxn;
     }
 
     /**
@@ -1288,11 +1422,9 @@ class Distributer {
     Map<Integer, ClientAffinityStats> getAffinityStatsSnapshot()
     {
         Map<Integer, ClientAffinityStats> retval = new HashMap<>();
-        // these get modified under this lock in queue()
-        synchronized(this) {
-            for (Entry<Integer, ClientAffinityStats> e : m_clientAffinityStats.entrySet()) {
-                retval.put(e.getKey(), (ClientAffinityStats)e.getValue().clone());
-            }
+        // each instance is updated and cloned under its own lock
+        for (Entry<Integer, ClientAffinityStats> e : m_clientAffinityStats.entrySet()) {
+            retval.put(e.getKey(), (ClientAffinityStats)e.getValue().clone());
         }
         return retval;
     }
@@ -1330,11 +1462,12 @@ class Distributer {
 
         //In future let TOPO return cooked bytes when cooked and we use correct recipe
         boolean cooked = false;
+        final HashinatorLite hashinator;
         if (tables.length == 1) {
             //Just in case the new client connects to the old version of Volt that only returns 1 topology table
             // We're going to get the MPI back in this table, so subtract it out from the number of partitions.
             int numPartitions = vt.getRowCount() - 1;
-            m_hashinator = new HashinatorLite(numPartitions); // legacy only
+            hashinator = new HashinatorLite(numPartitions); // legacy only
         } else {
             //Second table contains the hash function
             boolean advanced = tables[1].advanceRow();
@@ -1343,13 +1476,13 @@ class Distributer {
                                    "performance will be lower because transactions can't be routed at this client");
                 return;
             }
-            m_hashinator = new HashinatorLite(
+            hashinator = new HashinatorLite(
                     HashinatorLiteType.valueOf(tables[1].getString("HASHTYPE")),
                     tables[1].getVarbinary("HASHCONFIG"),
                     cooked);
         }
-        m_partitionMasters.clear();
-        m_partitionReplicas.clear();
+        final Map<Integer, NodeConnection> partitionMasters = new HashMap<>();
+        final Map<Integer, NodeConnection[]> partitionReplicas = new HashMap<>();
         // The MPI's partition ID is 16383 (MpInitiator.MP_INIT_PID), so we shouldn't inadvertently
         // hash to it.  Go ahead and include it in the maps, we can use it at some point to
         // route MP transactions directly to the MPI node.
@@ -1364,19 +1497,23 @@ class Distributer {
                     connections.add(m_hostIdToConnection.get(hostId));
                 }
             }
-            m_partitionReplicas.put(partition, connections.toArray(new NodeConnection[0]));
+            partitionReplicas.put(partition, connections.toArray(new NodeConnection[0]));
 
             Integer leaderHostId = Integer.valueOf(vt.getString("Leader").split(":")[0]);
             if (m_hostIdToConnection.containsKey(leaderHostId)) {
-                m_partitionMasters.put(partition, m_hostIdToConnection.get(leaderHostId));
+                partitionMasters.put(partition, m_hostIdToConnection.get(leaderHostId));
             }
         }
+        m_partitionMasters = partitionMasters;
+        m_partitionReplicas = partitionReplicas;
+        // Publish the hash function last so it is never used with stale masters
+        m_hashinator = hashinator;
 
         refreshPartitionKeys(true);
     }
 
     private void updateProcedurePartitioning(VoltTable vt) {
-        m_procedureInfo.clear();
+        final Map<String, Procedure> procedureInfo = new HashMap<>();
         while (vt.advanceRow()) {
             try {
                 //Data embedded in JSON object in remarks column
@@ -1388,11 +1525,11 @@ class Distributer {
                     int partitionParameter = jsObj.getInt(Constants.JSON_PARTITION_PARAMETER);
                     int partitionParameterType =
                         jsObj.getInt(Constants.JSON_PARTITION_PARAMETER_TYPE);
-                    m_procedureInfo.put(procedureName,
+                    procedureInfo.put(procedureName,
                             new Procedure(false,readOnly, partitionParameter, partitionParameterType));
                 } else {
                     // Multi Part procedure JSON descriptors omit the partitionParameter
-                    m_procedureInfo.put(procedureName, new Procedure(true, readOnly, Procedure.PARAMETER_NONE,
+                    procedureInfo.put(procedureName, new Procedure(true, readOnly, Procedure.PARAMETER_NONE,
                                 Procedure.PARAMETER_NONE));
                 }
 
@@ -1400,6 +1537,7 @@ class Distributer {
                 e.printStackTrace();
             }
         }
+        m_procedureInfo = procedureInfo;
     }
 
     private void updatePartitioning(VoltTable vt) {
@@ -15,12 +15,14 @@
  * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+
 package org.voltdb.client;
 
-import java.util.ArrayDeque;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import com.google_voltpatches.common.base.Throwables;
 
@@ -28,128 +30,145 @@ import com.google_voltpatches.common.base.Throwables;
  * Provide the {@link Client} with a way to throttle throughput in one
  * of several ways. First, it can cap outstanding transactions or
  * limit the rate of new transactions. Second, it can auto-tune the
- * send rate to get a good balance of througput and latency on the
- * server.
+ * cap on outstanding transactions to get a good balance of throughput
+ * and latency on the server.
+ *
+ * The rate is enforced with a token bucket that hands out permits at
+ * nanosecond precision. Callers reserve the next permit with a CAS and
+ * park until it is due, so there is no lock and no fixed sleep quantum.
+ *
+ * The outstanding transaction cap is a counter that callers increment
+ * while it is under the cap. Callers that find the cap reached wait on
+ * a monitor that responses only touch when someone is waiting.
  *
+ * In the tuning modes the cap is revisited every {@link #TUNING_INTERVAL_NANOS}
+ * from the latency of the responses received in that interval. Auto tune
+ * does additive increase, multiplicative decrease against a target internal
+ * latency. Adaptive concurrency follows TCP Vegas, comparing the round trip
+ * latency to the lowest recently seen to estimate how many transactions are
+ * queued at the server, and keeps that estimate between two thresholds.
  */
 class RateLimiter {
 
-    final int BLOCK_SIZE = 100; // ms
-    final int HISTORY_SIZE = 25;
-    final int RECENT_HISTORY_SIZE = 5;
-    final int MINIMUM_MOVEMENT = 5;
-
-    //Boolean indicating whether the only thing being tracked is max outstanding
-    protected boolean m_doesAnyTuning = false;
-    protected boolean m_autoTune = false;
-    protected int m_targetTxnsPerSecond = Integer.MAX_VALUE;
-    //protected int m_targetTxnsPerBlock = Integer.MAX_VALUE;
-    protected int m_latencyTarget = 5;
-
-    protected int m_currentBlockSendCount = 0;
-    protected int m_currentBlockRecvSuccessCount = 0;
-    protected int m_outstandingTxns = 0;
-    protected Semaphore m_outstandingTxnsSemaphore = new Semaphore(10);
-
-    protected int m_maxOutstandingTxns = 10;
-
-    protected long m_currentBlockTimestamp = -1;
-
-    protected long m_currentBlockTotalInternalLatency = 0;
-
-    protected ArrayDeque<Double> m_prevInternalLatencyAvgs = new ArrayDeque<Double>();
-
-    protected void autoTuneTargetFromHistory() {
-        double recentLatency = 0, mediumTermLatency = 0;
-        if (m_prevInternalLatencyAvgs.size() > 0) {
-            int i = 0;
-            for (double value : m_prevInternalLatencyAvgs) {
-                if (i < RECENT_HISTORY_SIZE) recentLatency += value;
-                mediumTermLatency += value;
-                ++i;
-            }
-            recentLatency /= Math.min(m_prevInternalLatencyAvgs.size(), RECENT_HISTORY_SIZE);
-            mediumTermLatency /= m_prevInternalLatencyAvgs.size();
-        }
-
-        if ((mediumTermLatency > m_latencyTarget) && (recentLatency > m_latencyTarget)) {
-            m_maxOutstandingTxns -= Math.max(0.1 * m_maxOutstandingTxns, MINIMUM_MOVEMENT);
-        }
-        else if ((mediumTermLatency < m_latencyTarget) && (recentLatency > m_latencyTarget)) {
-            --m_maxOutstandingTxns;
-        }
-        else if ((mediumTermLatency > m_latencyTarget) && (recentLatency < m_latencyTarget)) {
-            m_maxOutstandingTxns++;
-        }
-        else { // if ((mediumTermLatency < m_latencyTarget) && (recentLatency < m_latencyTarget)) {
-            m_maxOutstandingTxns += Math.max(0.1 * m_maxOutstandingTxns, MINIMUM_MOVEMENT);
-        }
-
-        // don't let this go to 0, latency be damned
-        if (m_maxOutstandingTxns <= 0) {
-            m_maxOutstandingTxns = 1;
-        }
+    enum Mode {
+        FIXED,
+        AUTO_TUNE,
+        ADAPTIVE
     }
 
-    protected void ensureCurrentBlockIsKosher(long timestamp) {
-        long thisBlock = timestamp - (timestamp % BLOCK_SIZE);
-
-        // handle first time initialization
-        if (m_currentBlockTimestamp == -1) {
-            m_currentBlockTimestamp = thisBlock;
-        }
-
-        // handle time moving backwards (a bit)
-        if (thisBlock < m_currentBlockTimestamp) {
-            thisBlock = m_currentBlockTimestamp;
-        }
-
-        // check for new block
-        if (thisBlock > m_currentBlockTimestamp) {
-            // need to deal with 100ms skips here TODO
-            m_currentBlockTimestamp = thisBlock;
-            m_prevInternalLatencyAvgs.addFirst(
-                    m_currentBlockTotalInternalLatency / (double) m_currentBlockRecvSuccessCount);
-            while (m_prevInternalLatencyAvgs.size() > HISTORY_SIZE) {
-                m_prevInternalLatencyAvgs.pollLast();
-            }
-            m_currentBlockSendCount = 0;
-            m_currentBlockRecvSuccessCount = 0;
-            m_currentBlockTotalInternalLatency = 0;
-
-            if (m_autoTune) {
-                autoTuneTargetFromHistory();
-            }
-        }
-    }
+    static final long TUNING_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // Smallest step auto tune moves the cap by
+    static final int MINIMUM_MOVEMENT = 5;
+    static final int INITIAL_TUNED_OUTSTANDING = 20;
+    // Vegas thresholds on transactions queued at the server, scaled by log10 of the cap
+    static final int VEGAS_ALPHA = 3;
+    static final int VEGAS_BETA = 6;
+    // Intervals after which the adaptive baseline latency is measured afresh
+    static final int BASELINE_RESET_INTERVALS = 100;
+    // The bucket holds up to 1/BURSTS_PER_SECOND of a second's permits
+    static final int BURSTS_PER_SECOND = 100;
+
+    private volatile Mode m_mode = Mode.FIXED;
+
+    private volatile int m_targetTxnsPerSecond = Integer.MAX_VALUE;
+    // 0 when the rate is not limited
+    private volatile long m_permitIntervalNanos = 0;
+    private volatile long m_burstNanos = 0;
+    private final AtomicLong m_nextPermitNanos = new AtomicLong(System.nanoTime());
+
+    private final AtomicInteger m_outstandingTxns = new AtomicInteger(0);
+    private volatile int m_maxOutstandingTxns = 10;
+    // Most the tuning modes will raise the cap to
+    private volatile int m_outstandingCeiling = Integer.MAX_VALUE;
+    private final Object m_outstandingLock = new Object();
+    private final AtomicInteger m_waiters = new AtomicInteger(0);
+    // Set when a caller found the cap reached, only then is raising the cap useful
+    private volatile boolean m_limited = false;
+
+    // Current tuning interval, guarded by this
+    private int m_latencyTarget = 5;
+    private long m_intervalStartNanos = -1;
+    private int m_intervalResponses = 0;
+    private long m_intervalLatencyTotal = 0;
+    private long m_intervalMinRoundTripNanos = Long.MAX_VALUE;
+    private long m_baselineRoundTripNanos = Long.MAX_VALUE;
+    private int m_intervalsSinceBaseline = 0;
 
     /**
-     * May not be reflected until the next 100ms.
+     * Tune the cap on outstanding transactions to hold the internal latency
+     * reported by the servers near the target. The rate is not limited.
+     * May not be reflected until the next tuning interval.
      */
     synchronized void enableAutoTuning(int latencyTarget) {
-        m_autoTune = true;
-        m_doesAnyTuning = true;
-        m_targetTxnsPerSecond = Integer.MAX_VALUE;
-        m_maxOutstandingTxns = 20;
+        m_mode = Mode.AUTO_TUNE;
         m_latencyTarget = latencyTarget;
+        resetTuning();
+        setRate(Integer.MAX_VALUE);
+        m_outstandingCeiling = Integer.MAX_VALUE;
+        setMaxOutstanding(INITIAL_TUNED_OUTSTANDING);
     }
 
     /**
-     * May not be reflected until the next 100ms.
+     * Tune the cap on outstanding transactions from the round trip latency
+     * measured by the client, never raising it above maxOutstanding.
      */
+    synchronized void enableAdaptiveConcurrency(int txnsPerSec, int maxOutstanding) {
+        m_mode = Mode.ADAPTIVE;
+        resetTuning();
+        setRate(txnsPerSec);
+        m_outstandingCeiling = maxOutstanding;
+        setMaxOutstanding(Math.min(INITIAL_TUNED_OUTSTANDING, maxOutstanding));
+    }
+
     synchronized void setLimits(int txnsPerSec, int maxOutstanding) {
-        m_autoTune = false;
+        m_mode = Mode.FIXED;
+        setRate(txnsPerSec);
+        m_outstandingCeiling = maxOutstanding;
+        setMaxOutstanding(maxOutstanding);
+    }
+
+    private void setRate(int txnsPerSec) {
+        m_targetTxnsPerSecond = txnsPerSec;
         /*
          * If the rate limit is some reasonably low value then go through the effort
          * of rate limiting
          */
-        if (txnsPerSec < Integer.MAX_VALUE / 2) {
-            m_doesAnyTuning = true;
+        if (txnsPerSec >= Integer.MAX_VALUE / 2) {
+            m_permitIntervalNanos = 0;
+            return;
         }
-        m_targetTxnsPerSecond = txnsPerSec;
+        final long intervalNanos = Math.max(1, TimeUnit.SECONDS.toNanos(1) / txnsPerSec);
+        final long burst = Math.max(1, txnsPerSec / BURSTS_PER_SECOND);
+        m_burstNanos = (burst - 1) * intervalNanos;
+        m_nextPermitNanos.set(System.nanoTime());
+        m_permitIntervalNanos = intervalNanos;
+    }
+
+    private void setMaxOutstanding(int maxOutstanding) {
         m_maxOutstandingTxns = maxOutstanding;
-        m_outstandingTxnsSemaphore.drainPermits();
-        m_outstandingTxnsSemaphore.release(maxOutstanding);
+        if (m_waiters.get() > 0) {
+            synchronized (m_outstandingLock) {
+                m_outstandingLock.notifyAll();
+            }
+        }
+    }
+
+    private void resetTuning() {
+        m_intervalStartNanos = -1;
+        m_intervalResponses = 0;
+        m_intervalLatencyTotal = 0;
+        m_intervalMinRoundTripNanos = Long.MAX_VALUE;
+        m_baselineRoundTripNanos = Long.MAX_VALUE;
+        m_intervalsSinceBaseline = 0;
+        m_limited = false;
+    }
+
+    Mode getMode() {
+        return m_mode;
+    }
+
+    int getOutstanding() {
+        return m_outstandingTxns.get();
     }
 
     /**
@@ -157,7 +176,7 @@ class RateLimiter {
      * @return A length-2 array of integers representing max throughput/sec and
      * max outstanding txns.
      */
-    synchronized int[] getLimits() {
+    int[] getLimits() {
         int[] limits = new int[2];
         limits[0] = m_targetTxnsPerSecond;
         limits[1] = m_maxOutstandingTxns;
@@ -166,102 +185,175 @@ class RateLimiter {
 
     /**
      *
-     * @param timestampNanos The time as measured when the call is made.
+     * @param nowNanos The time as measured when the call is made.
+     * @param roundTripNanos Client measured round trip of this transaction, -1 if it didn't complete
      * @param internalLatency Latency measurement of this transaction in millis
      * @param ignoreBackpressure Don't return a permit for backpressure purposes since none was ever taken
      */
-    void transactionResponseReceived(long timestampNanos, int internalLatency, boolean ignoreBackpressure) {
-        if (m_doesAnyTuning) {
-            synchronized (this) {
-                ensureCurrentBlockIsKosher(TimeUnit.NANOSECONDS.toMillis(timestampNanos));
-                --m_outstandingTxns;
-                assert(m_outstandingTxns >= 0);
-                if (internalLatency != -1) {
-                    ++m_currentBlockRecvSuccessCount;
-                    m_currentBlockTotalInternalLatency += internalLatency;
+    void transactionResponseReceived(long nowNanos, long roundTripNanos, int internalLatency,
+            boolean ignoreBackpressure) {
+        if (!ignoreBackpressure) {
+            m_outstandingTxns.decrementAndGet();
+            if (m_waiters.get() > 0) {
+                synchronized (m_outstandingLock) {
+                    m_outstandingLock.notify();
                 }
             }
-        } else {
-            if (ignoreBackpressure) return;
-            m_outstandingTxnsSemaphore.release();
+        }
+        if (m_mode != Mode.FIXED && roundTripNanos >= 0) {
+            synchronized (this) {
+                recordLatency(nowNanos, roundTripNanos, internalLatency);
+            }
         }
     }
 
     /**
+     * Wait for a permit from the rate limit, then for room under the cap on
+     * outstanding transactions.
      *
-     *
-     * @param timestamp The time as measured when the call is made.
+     * @param timestampNanos The time as measured when the call is made.
+     * @param timeoutNanos How long after timestampNanos to give up.
      * @param ignoreBackpressure If true, never block.
      * @return The time as measured when the call returns.
      */
-    long sendTxnWithOptionalBlockAndReturnCurrentTime(long timestampNanos, long timeoutNanos, boolean ignoreBackpressure) throws TimeoutException {
-        if (m_doesAnyTuning) {
-            long timestamp = TimeUnit.NANOSECONDS.toMillis(timestampNanos);
-            while (true) {
-                synchronized(this) {
-                    // switch to a new block if 100ms has passed
-                    // possibly compute a new target rate
-                    ensureCurrentBlockIsKosher(timestamp);
-
-                    assert((timestamp - m_currentBlockTimestamp) <= BLOCK_SIZE);
-
-                    // don't let the time be before the start of the current block
-                    // also ensure faketime - m_currentBlockTimestamp is positive
-                    long faketime = timestamp < m_currentBlockTimestamp ? m_currentBlockTimestamp : timestamp;
-
-                    long targetTxnsPerBlock = m_targetTxnsPerSecond / (1000 / BLOCK_SIZE);
-
-                    // compute the percentage of the current 100ms block that has passed
-                    double expectedTxnsSent =
-                            targetTxnsPerBlock * (faketime - m_currentBlockTimestamp + 1.0) / BLOCK_SIZE;
-                    expectedTxnsSent = Math.ceil(expectedTxnsSent);
-
-                    assert(expectedTxnsSent <= targetTxnsPerBlock); // stupid fp math
-                    assert((expectedTxnsSent >= 1.0) || (targetTxnsPerBlock == 0));
-
-                    // if the rate is under target, no problems
-                    if (((m_currentBlockSendCount < expectedTxnsSent) &&
-                         (m_outstandingTxns < m_maxOutstandingTxns)) ||
-                        (ignoreBackpressure == true)) {
-
-                        // bookkeeping
-                        ++m_currentBlockSendCount;
-                        ++m_outstandingTxns;
+    long sendTxnWithOptionalBlockAndReturnCurrentTime(long timestampNanos, long timeoutNanos, boolean ignoreBackpressure)
+            throws TimeoutException {
+        if (ignoreBackpressure) {
+            return timestampNanos;
+        }
+        long nowNanos = timestampNanos;
+        if (m_permitIntervalNanos != 0) {
+            nowNanos = acquirePermit(timestampNanos, timeoutNanos);
+        }
+        if (!tryAcquireOutstanding()) {
+            nowNanos = awaitOutstanding(timestampNanos, timeoutNanos);
+        }
+        return nowNanos;
+    }
 
-                        // exit the while loop
-                        break;
-                    }
-                }
+    /*
+     * Reserve the next permit, the bucket is full when the next permit is due at least
+     * the burst length in the past. Returns the time once the permit is due.
+     */
+    private long acquirePermit(long timestampNanos, long timeoutNanos) throws TimeoutException {
+        final long intervalNanos = m_permitIntervalNanos;
+        long permitNanos;
+        while (true) {
+            final long nextPermitNanos = m_nextPermitNanos.get();
+            permitNanos = Math.max(nextPermitNanos, timestampNanos - m_burstNanos);
+            if (permitNanos - timestampNanos > timeoutNanos) {
+                throw new TimeoutException();
+            }
+            if (m_nextPermitNanos.compareAndSet(nextPermitNanos, permitNanos + intervalNanos)) {
+                break;
+            }
+        }
+        if (permitNanos - timestampNanos <= 0) {
+            return timestampNanos;
+        }
+        long nowNanos;
+        while ((nowNanos = System.nanoTime()) - permitNanos < 0) {
+            LockSupport.parkNanos(this, permitNanos - nowNanos);
+        }
+        return nowNanos;
+    }
 
-                // if the rate is above target, pause for the smallest time possible
-                try { Thread.sleep(1); } catch (InterruptedException e) {}
-                timestampNanos = System.nanoTime();
-                timestamp = TimeUnit.NANOSECONDS.toMillis(timestampNanos);
+    private boolean tryAcquireOutstanding() {
+        while (true) {
+            final int outstanding = m_outstandingTxns.get();
+            if (outstanding >= m_maxOutstandingTxns) {
+                return false;
             }
-        } else {
-            if (ignoreBackpressure) return timestampNanos;
-            boolean acquired = m_outstandingTxnsSemaphore.tryAcquire();
+            if (m_outstandingTxns.compareAndSet(outstanding, outstanding + 1)) {
+                return true;
+            }
+        }
+    }
 
-            if (!acquired) {
-                try {
-                    if (!m_outstandingTxnsSemaphore.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+    /*
+     * Waiters register before checking the count again and responses decrement
+     * the count before checking for waiters, so a response can't be missed.
+     */
+    private long awaitOutstanding(long timestampNanos, long timeoutNanos) throws TimeoutException {
+        m_limited = true;
+        synchronized (m_outstandingLock) {
+            m_waiters.incrementAndGet();
+            try {
+                while (!tryAcquireOutstanding()) {
+                    final long remainingNanos = timeoutNanos - (System.nanoTime() - timestampNanos);
+                    if (remainingNanos <= 0) {
                         throw new TimeoutException();
                     }
-                } catch (InterruptedException e) {
-                    Throwables.propagate(e);
+                    TimeUnit.NANOSECONDS.timedWait(m_outstandingLock, remainingNanos);
                 }
-                return System.nanoTime();
+            } catch (InterruptedException e) {
+                Throwables.propagate(e);
+            } finally {
+                m_waiters.decrementAndGet();
             }
         }
+        return System.nanoTime();
+    }
 
-        // this time may have changed if this call blocked during a sleep
-        return timestampNanos;
+    private void recordLatency(long nowNanos, long roundTripNanos, int internalLatency) {
+        if (m_intervalStartNanos == -1) {
+            m_intervalStartNanos = nowNanos;
+        }
+        m_intervalResponses++;
+        if (m_mode == Mode.AUTO_TUNE) {
+            m_intervalLatencyTotal += Math.max(0, internalLatency);
+        } else {
+            m_intervalLatencyTotal += roundTripNanos;
+            m_intervalMinRoundTripNanos = Math.min(m_intervalMinRoundTripNanos, roundTripNanos);
+        }
+        if (nowNanos - m_intervalStartNanos < TUNING_INTERVAL_NANOS) {
+            return;
+        }
+
+        final double averageLatency = m_intervalLatencyTotal / (double)m_intervalResponses;
+        final int limit = m_mode == Mode.AUTO_TUNE ? autoTune(averageLatency) : adapt(averageLatency);
+        setMaxOutstanding(Math.max(1, Math.min(m_outstandingCeiling, limit)));
+
+        m_intervalStartNanos = nowNanos;
+        m_intervalResponses = 0;
+        m_intervalLatencyTotal = 0;
+        m_intervalMinRoundTripNanos = Long.MAX_VALUE;
+        m_limited = false;
+    }
+
+    private int autoTune(double averageInternalLatency) {
+        final int limit = m_maxOutstandingTxns;
+        if (averageInternalLatency > m_latencyTarget) {
+            return limit - Math.max(limit / 10, MINIMUM_MOVEMENT);
+        } else if (m_limited) {
+            return limit + MINIMUM_MOVEMENT;
+        }
+        return limit;
+    }
+
+    private int adapt(double averageRoundTripNanos) {
+        if (++m_intervalsSinceBaseline >= BASELINE_RESET_INTERVALS) {
+            // Let the baseline rise if the network or server got slower for good
+            m_baselineRoundTripNanos = m_intervalMinRoundTripNanos;
+            m_intervalsSinceBaseline = 0;
+        } else {
+            m_baselineRoundTripNanos = Math.min(m_baselineRoundTripNanos, m_intervalMinRoundTripNanos);
+        }
+        final int limit = m_maxOutstandingTxns;
+        final double queued = limit * (1.0 - m_baselineRoundTripNanos / averageRoundTripNanos);
+        final int step = Math.max(1, (int)Math.log10(limit));
+        if (queued > VEGAS_BETA * step) {
+            return limit - step;
+        } else if (queued < VEGAS_ALPHA * step && m_limited) {
+            return limit + step;
+        }
+        return limit;
     }
 
-    public synchronized void debug() {
+    public void debug() {
         System.out.printf("Target throughput/s is %d and max outstanding txns is %d\n",
                 m_targetTxnsPerSecond, m_maxOutstandingTxns);
-        System.out.printf("Current outstanding is %d and recent internal latency is %.2f\n",
-                m_outstandingTxns, m_prevInternalLatencyAvgs.peekFirst());
+        System.out.printf("Current outstanding is %d in mode %s\n",
+                m_outstandingTxns.get(), m_mode);
     }
 }
@@ -46,6 +46,12 @@ public class Constants
     public static final byte AUTHENTICATION_FAILURE_DUE_TO_REJOIN = 4;
     public static final byte EXPORT_DISABLED_REJECTION = 5;
 
+    // Leading byte of a client frame that carries several invocations, each with its own
+    // length prefix. Distinct from every invocation version byte (see ProcedureInvocationType).
+    public static final byte MULTI_INVOCATION_FRAME = 64;
+    // frame type byte followed by the invocation count
+    public static final int MULTI_INVOCATION_HEADER_SIZE = 1 + 4;
+
     // from jdbc metadata generation
     public static final String JSON_PARTITION_PARAMETER = "partitionParameter";
     public static final String JSON_PARTITION_PARAMETER_TYPE = "partitionParameterType";
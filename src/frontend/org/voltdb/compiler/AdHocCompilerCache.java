@@ -19,11 +19,14 @@ package org.voltdb.compiler;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.voltdb.common.Constants;
 import org.voltdb.planner.BoundPlan;
@@ -43,6 +46,17 @@ import com.google_voltpatches.common.cache.CacheBuilder;
  * statement mapped to core parameterized plans. These parameterized
  * plans need parameter values and sql literals in order to be
  * actually used.
+ *
+ * Third, store the text of statements with their literals taken out by
+ * the lexer, mapped to the parsed statement of the second level, so that
+ * statements differing only in their literals find their core plan
+ * without being parsed.
+ *
+ * Every level is split into segments by the hash of their key, each with
+ * its own lock and its own share of the size limits, so that the ad hoc
+ * planner threads don't serialize on the cache. Each segment is an LRU of
+ * ceil(limit / SEGMENTS) entries, so an entry can be evicted before the
+ * level as a whole is full if its segment is busier than the others.
  */
 public class AdHocCompilerCache implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -82,23 +96,44 @@ public class AdHocCompilerCache implements Serializable {
     // max cache size for parameterized plans
     final long MAX_LITERAL_MEM  = Long.getLong("ADHOC_COMPILER_CACHE_MAX_LITERAL_MEM_BYTES", 32*1024*1024);
     final int MAX_CORE_ENTRIES;
+    // number of independently locked segments of each cache level
+    static final int SEGMENTS = Integer.getInteger("ADHOC_COMPILER_CACHE_SEGMENTS", 16);
 
-    /** cache of literals to full plans */
-    final Map<String, AdHocPlannedStatement> m_literalCache;
+    /** cache of literals to full plans, a segment is locked on its own monitor */
+    final AdHocStatementCache[] m_literalCache;
     /** cache of parameterized plan descriptions to one or more core parameterized plans,
      *  each plan optionally has its own requirements for which parameters need to be bound
-     *  to what values to enable its specialized (expression-indexed) plan. */
-    final Map<String, List<BoundPlan> > m_coreCache;
+     *  to what values to enable its specialized (expression-indexed) plan.
+     *  A segment is locked on its own monitor. */
+    final List<LRUSegment<List<BoundPlan> > > m_coreCache;
+    /** cache of statement text with literals taken out by the lexer to parsed statements,
+     *  a segment is locked on its own monitor */
+    final List<LRUSegment<LexedStatement> > m_lexedCache;
+
+    /**
+     * Where to find the core plans of a statement parameterized by the lexer.
+     */
+    public static class LexedStatement {
+        /** parameterized parsed statement the core plans are cached with */
+        public final String parsedToken;
+        /** for each parameter of the core plans, the index of its literal in the lexer's list */
+        public final int[] literalOrder;
+
+        LexedStatement(String parsedToken, int[] literalOrder) {
+            this.parsedToken = parsedToken;
+            this.literalOrder = literalOrder;
+        }
+    }
 
     // placeholder stats used during development that may/may not survive
-    long m_literalHits = 0;
-    long m_literalQueries = 0;
-    long m_literalInsertions = 0;
-    long m_literalEvictions = 0;
-    long m_planHits = 0;
-    long m_planQueries = 0;
-    long m_planInsertions = 0;
-    long m_planEvictions = 0;
+    final AtomicLong m_literalHits = new AtomicLong();
+    final AtomicLong m_literalQueries = new AtomicLong();
+    final AtomicLong m_literalInsertions = new AtomicLong();
+    final AtomicLong m_literalEvictions = new AtomicLong();
+    final AtomicLong m_planHits = new AtomicLong();
+    final AtomicLong m_planQueries = new AtomicLong();
+    final AtomicLong m_planInsertions = new AtomicLong();
+    final AtomicLong m_planEvictions = new AtomicLong();
 
     /** {@see this#startPeriodicStatsPrinting() } */
     Timer m_statsTimer = null;
@@ -112,6 +147,7 @@ public class AdHocCompilerCache implements Serializable {
 
     /**
      * Constructor with specific cache sizes is only called directly for testing.
+     * The limits are divided between the segments, rounding up.
      *
      * @param maxLiteralEntries cache size for literals
      * @param maxLiteralMem cache memory for literals
@@ -120,24 +156,60 @@ public class AdHocCompilerCache implements Serializable {
         MAX_LITERAL_ENTRIES = maxLiteralEntries;
         MAX_CORE_ENTRIES = maxCoreEntries;
 
-        // an LRU cache map
-        m_literalCache = new AdHocStatementCache(MAX_LITERAL_ENTRIES, MAX_LITERAL_MEM);
+        final int maxLiteralSegmentEntries = (MAX_LITERAL_ENTRIES + SEGMENTS - 1) / SEGMENTS;
+        final long maxLiteralSegmentMem = (MAX_LITERAL_MEM + SEGMENTS - 1) / SEGMENTS;
+        final int maxCoreSegmentEntries = (MAX_CORE_ENTRIES + SEGMENTS - 1) / SEGMENTS;
+
+        m_literalCache = new AdHocStatementCache[SEGMENTS];
+        final List<LRUSegment<List<BoundPlan> > > coreCache = new ArrayList<LRUSegment<List<BoundPlan> > >(SEGMENTS);
+        final List<LRUSegment<LexedStatement> > lexedCache = new ArrayList<LRUSegment<LexedStatement> >(SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            // an LRU cache map
+            m_literalCache[i] = new AdHocStatementCache(maxLiteralSegmentEntries, maxLiteralSegmentMem);
+            coreCache.add(new LRUSegment<List<BoundPlan> >(maxCoreSegmentEntries, m_planEvictions));
+            // as large as the core cache it points into
+            lexedCache.add(new LRUSegment<LexedStatement>(maxCoreSegmentEntries, null));
+        }
+        m_coreCache = Collections.unmodifiableList(coreCache);
+        m_lexedCache = Collections.unmodifiableList(lexedCache);
+    }
 
-        // an LRU cache map
-        m_coreCache = new LinkedHashMap<String, List<BoundPlan> >(MAX_CORE_ENTRIES * 2, .75f, true) {
-            private static final long serialVersionUID = 1L;
+    /**
+     * One segment of the core or lexed cache level, an LRU cache map of at most
+     * maxEntries. Callers lock the segment on its own monitor.
+     */
+    static class LRUSegment<V> extends LinkedHashMap<String, V> {
+        private static final long serialVersionUID = 1L;
+        private final int m_maxEntries;
+        private final AtomicLong m_evictions;
+
+        /**
+         * @param evictions counted for the stats, or null if they aren't
+         */
+        LRUSegment(int maxEntries, AtomicLong evictions) {
+            // set accessOrder to true for LRU
+            super(maxEntries * 2, .75f, true);
+            m_maxEntries = maxEntries;
+            m_evictions = evictions;
+        }
 
-            // This method is called just after a new entry has been added
-            @Override
-            public boolean removeEldestEntry(Map.Entry<String, List<BoundPlan> > eldest) {
-                if (size() > MAX_CORE_ENTRIES) {
-                    ++m_planEvictions;
-                    return true;
+        // This method is called just after a new entry has been added
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            if (size() > m_maxEntries) {
+                if (m_evictions != null) {
+                    m_evictions.incrementAndGet();
                 }
-                return false;
+                return true;
             }
+            return false;
+        }
+    }
 
-        };
+    private static int segmentFor(String key) {
+        // spread the hash bits the way HashMap does before picking a segment
+        final int h = key.hashCode();
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % SEGMENTS;
     }
 
     // define a LinkedHashMap based LRU cache bounds by both entry number and entry value on-heap size
@@ -171,7 +243,7 @@ public class AdHocCompilerCache implements Serializable {
         @Override
         public boolean removeEldestEntry(final Map.Entry<String, AdHocPlannedStatement> eldest) {
             if ((size() > maxEntries) || (this.currentMemory > this.maxMemory))  {
-                ++m_literalEvictions;
+                m_literalEvictions.incrementAndGet();
                 this.currentMemory -= eldest.getValue().getSerializedSize();
                 return true;
             }
@@ -205,36 +277,35 @@ public class AdHocCompilerCache implements Serializable {
      * Probably shouldn't live past real stats integration.
      */
     synchronized void printStats() {
+        // read and reset these
+        final long literalHits = m_literalHits.getAndSet(0);
+        final long literalQueries = m_literalQueries.getAndSet(0);
+        final long planHits = m_planHits.getAndSet(0);
+        final long planQueries = m_planQueries.getAndSet(0);
         String line1 = String.format("CACHE STATS - Literals: Hits %d/%d (%.1f%%), Inserts %d Evictions %d\n",
-                m_literalHits, m_literalQueries, (m_literalHits * 100.0) / m_literalQueries,
-                m_literalInsertions, m_literalEvictions);
+                literalHits, literalQueries, (literalHits * 100.0) / literalQueries,
+                m_literalInsertions.getAndSet(0), m_literalEvictions.getAndSet(0));
         String line2 = String.format("CACHE STATS - Plans:    Hits %d/%d (%.1f%%), Inserts %d Evictions %d\n",
-                m_planHits, m_planQueries, (m_planHits * 100.0) /m_planQueries,
-                m_planInsertions, m_planEvictions);
+                planHits, planQueries, (planHits * 100.0) / planQueries,
+                m_planInsertions.getAndSet(0), m_planEvictions.getAndSet(0));
 
         System.out.print(line1 + line2);
         System.out.flush();
-
-        // reset these
-        m_literalHits = 0;
-        m_literalQueries = 0;
-        m_literalInsertions = 0;
-        m_literalEvictions = 0;
-        m_planHits = 0;
-        m_planQueries = 0;
-        m_planInsertions = 0;
-        m_planEvictions = 0;
     }
 
     /**
      * @param sql SQL literal
      * @return full, ready-to-go plan
      */
-    public synchronized AdHocPlannedStatement getWithSQL(String sql) {
-        ++m_literalQueries;
-        AdHocPlannedStatement retval = m_literalCache.get(sql);
+    public AdHocPlannedStatement getWithSQL(String sql) {
+        m_literalQueries.incrementAndGet();
+        final AdHocStatementCache segment = m_literalCache[segmentFor(sql)];
+        AdHocPlannedStatement retval;
+        synchronized (segment) {
+            retval = segment.get(sql);
+        }
         if (retval != null) {
-            ++m_literalHits;
+            m_literalHits.incrementAndGet();
         }
         return retval;
     }
@@ -242,17 +313,77 @@ public class AdHocCompilerCache implements Serializable {
     /**
      * @param parsedToken String representing a parameterized and parsed
      * SQL statement
-     * @return A CorePlan that needs parameter values to run.
+     * @return A CorePlan that needs parameter values to run. The list may have
+     * more variants added to it by other planners while it is being read.
      */
-    public synchronized List<BoundPlan> getWithParsedToken(String parsedToken) {
-        ++m_planQueries;
-        List<BoundPlan> retval = m_coreCache.get(parsedToken);
+    public List<BoundPlan> getWithParsedToken(String parsedToken) {
+        m_planQueries.incrementAndGet();
+        final Map<String, List<BoundPlan> > segment = m_coreCache.get(segmentFor(parsedToken));
+        List<BoundPlan> retval;
+        synchronized (segment) {
+            retval = segment.get(parsedToken);
+        }
         if (retval != null) {
-            ++m_planHits;
+            m_planHits.incrementAndGet();
         }
         return retval;
     }
 
+    /**
+     * @param lexedKey statement text with its literals taken out by the lexer
+     * @return where to find the core plans of the statement, or null
+     */
+    public LexedStatement getWithLexedKey(String lexedKey) {
+        final Map<String, LexedStatement> segment = m_lexedCache.get(segmentFor(lexedKey));
+        synchronized (segment) {
+            return segment.get(lexedKey);
+        }
+    }
+
+    /**
+     * Match the literals the lexer took out of a statement with the parameters the
+     * planner extracted from it, and remember the match so that the next statement
+     * with the same lexed key can skip parsing. Nothing is remembered unless every
+     * parameter matches exactly one literal, since the match must hold for any
+     * values of the literals.
+     *
+     * @param lexedKey          statement text with its literals taken out by the lexer
+     * @param lexedLiterals     literals in the order the lexer found them
+     * @param parsedToken       parameterized parsed statement the core plans were cached with
+     * @param extractedLiterals literals in the order of the planner's parameters
+     */
+    public void putLexed(String lexedKey,
+                         String[] lexedLiterals,
+                         String parsedToken,
+                         String[] extractedLiterals)
+    {
+        if (extractedLiterals == null || lexedLiterals.length != extractedLiterals.length) {
+            return;
+        }
+        final int[] literalOrder = new int[extractedLiterals.length];
+        final boolean[] used = new boolean[lexedLiterals.length];
+        for (int i = 0; i < extractedLiterals.length; i++) {
+            literalOrder[i] = -1;
+            for (int j = 0; j < lexedLiterals.length; j++) {
+                if (lexedLiterals[j].equals(extractedLiterals[i])) {
+                    if (literalOrder[i] != -1 || used[j]) {
+                        // ambiguous, the same value appears more than once
+                        return;
+                    }
+                    literalOrder[i] = j;
+                    used[j] = true;
+                }
+            }
+            if (literalOrder[i] == -1) {
+                return;
+            }
+        }
+        final Map<String, LexedStatement> segment = m_lexedCache.get(segmentFor(lexedKey));
+        synchronized (segment) {
+            segment.put(lexedKey, new LexedStatement(parsedToken, literalOrder));
+        }
+    }
+
     /**
      * Called from the PlannerTool directly when it finishes planning.
      * This is the only way to populate the cache.
@@ -271,12 +402,12 @@ public class AdHocCompilerCache implements Serializable {
      * @param hasUserQuestionMarkParameters is user provided parameterized query
      * @param hasAutoParameterizedException is the auto parameterized query has parameter exception
      */
-    public synchronized void put(String sql,
-                                 String parsedToken,
-                                 AdHocPlannedStatement planIn,
-                                 String[] extractedLiterals,
-                                 boolean hasUserQuestionMarkParameters,
-                                 boolean hasAutoParameterizedException)
+    public void put(String sql,
+                    String parsedToken,
+                    AdHocPlannedStatement planIn,
+                    String[] extractedLiterals,
+                    boolean hasUserQuestionMarkParameters,
+                    boolean hasAutoParameterizedException)
     {
         assert(sql != null);
         assert(parsedToken != null);
@@ -296,49 +427,56 @@ public class AdHocCompilerCache implements Serializable {
             BoundPlan matched = null;
             BoundPlan unmatched = new BoundPlan(planIn.core, planIn.parameterBindings(extractedLiterals));
             // deal with the parameterized plan cache first
-            List<BoundPlan> boundVariants = m_coreCache.get(parsedToken);
-            if (boundVariants == null) {
-                boundVariants = new ArrayList<BoundPlan>();
-                m_coreCache.put(parsedToken, boundVariants);
-                // Note that there is an edge case in which more than one plan is getting counted as one
-                // "plan insertion". This only happens when two different plans arose from the same parameterized
-                // query (token) because one invocation used the correct constants to trigger an expression index and
-                // another invocation did not.  These are not counted separately (which would have to happen below
-                // after each call to boundVariants.add) because they are not evicted separately.
-                // It seems saner to use consistent units when counting insertions vs. evictions.
-                ++m_planInsertions;
-            } else {
-                for (BoundPlan boundPlan : boundVariants) {
-                    if (boundPlan.equals(unmatched)) {
-                        matched = boundPlan;
-                        break;
+            final Map<String, List<BoundPlan> > segment = m_coreCache.get(segmentFor(parsedToken));
+            synchronized (segment) {
+                List<BoundPlan> boundVariants = segment.get(parsedToken);
+                if (boundVariants == null) {
+                    // Copied on write since planners read the variants without holding the lock
+                    boundVariants = new CopyOnWriteArrayList<BoundPlan>();
+                    segment.put(parsedToken, boundVariants);
+                    // Note that there is an edge case in which more than one plan is getting counted as one
+                    // "plan insertion". This only happens when two different plans arose from the same parameterized
+                    // query (token) because one invocation used the correct constants to trigger an expression index and
+                    // another invocation did not.  These are not counted separately (which would have to happen below
+                    // after each call to boundVariants.add) because they are not evicted separately.
+                    // It seems saner to use consistent units when counting insertions vs. evictions.
+                    m_planInsertions.incrementAndGet();
+                } else {
+                    for (BoundPlan boundPlan : boundVariants) {
+                        if (boundPlan.equals(unmatched)) {
+                            matched = boundPlan;
+                            break;
+                        }
                     }
-                }
-                if (matched != null) {
-                    // if a different core is found, reuse it
-                    // this is useful when updating the literal cache
-                    if (unmatched.m_core != matched.m_core) {
-                        plan = new AdHocPlannedStatement(planIn, matched.m_core);
-                        plan.setBoundConstants(matched.m_constants);
+                    if (matched != null) {
+                        // if a different core is found, reuse it
+                        // this is useful when updating the literal cache
+                        if (unmatched.m_core != matched.m_core) {
+                            plan = new AdHocPlannedStatement(planIn, matched.m_core);
+                            plan.setBoundConstants(matched.m_constants);
+                        }
                     }
                 }
-            }
-            if (matched == null) {
-                // Don't count insertions (of possibly repeated tokens) here
-                //  -- see the comment above where only UNIQUE token insertions are being counted, instead.
-                boundVariants.add(unmatched);
+                if (matched == null) {
+                    // Don't count insertions (of possibly repeated tokens) here
+                    //  -- see the comment above where only UNIQUE token insertions are being counted, instead.
+                    boundVariants.add(unmatched);
+                }
             }
         }
 
         // then deal with the L1 cache
         if (! hasUserQuestionMarkParameters) {
-            AdHocPlannedStatement cachedPlan = m_literalCache.get(sql);
-            if (cachedPlan == null) {
-                m_literalCache.put(sql, plan);
-                ++m_literalInsertions;
-            }
-            else {
-                assert(cachedPlan.equals(plan));
+            final AdHocStatementCache segment = m_literalCache[segmentFor(sql)];
+            synchronized (segment) {
+                AdHocPlannedStatement cachedPlan = segment.get(sql);
+                if (cachedPlan == null) {
+                    segment.put(sql, plan);
+                    m_literalInsertions.incrementAndGet();
+                }
+                else {
+                    assert(cachedPlan.equals(plan));
+                }
             }
         }
     }
@@ -364,7 +502,13 @@ public class AdHocCompilerCache implements Serializable {
      * @return  literal cache size as a count
      */
     public int getLiteralCacheSize() {
-        return m_literalCache.size();
+        int size = 0;
+        for (AdHocStatementCache segment : m_literalCache) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
     }
 
     /**
@@ -372,6 +516,12 @@ public class AdHocCompilerCache implements Serializable {
      * @return  core cache size as a count
      */
     public int getCoreCacheSize() {
-        return m_coreCache.size();
+        int size = 0;
+        for (Map<String, List<BoundPlan> > segment : m_coreCache) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
     }
 }
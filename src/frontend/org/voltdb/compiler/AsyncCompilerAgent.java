@@ -23,8 +23,10 @@ import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.StringUtils;
 import org.voltcore.logging.VoltLogger;
@@ -36,6 +38,7 @@ import org.voltcore.utils.CoreUtils;
 import org.voltdb.CatalogContext;
 import org.voltdb.ClientInterface.ExplainMode;
 import org.voltdb.OperationMode;
+import org.voltdb.PlannerStatsCollector;
 import org.voltdb.VoltDB;
 import org.voltdb.VoltType;
 import org.voltdb.client.ClientResponse;
@@ -45,6 +48,7 @@ import org.voltdb.parser.SQLLexer;
 import org.voltdb.planner.StatementPartitioning;
 import org.voltdb.utils.MiscUtils;
 
+import com.google_voltpatches.common.base.Supplier;
 import com.google_voltpatches.common.util.concurrent.ListeningExecutorService;
 
 public class AsyncCompilerAgent {
@@ -52,23 +56,51 @@ public class AsyncCompilerAgent {
     private static final VoltLogger hostLog = new VoltLogger("HOST");
     private static final VoltLogger adhocLog = new VoltLogger("ADHOC");
 
-    // if more than this amount of work is queued, reject new work
+    // if more than this amount of work is queued for a planner thread, reject new work
     static public final int MAX_QUEUE_DEPTH = 250;
 
+    // number of threads planning ad hoc statements concurrently
+    static public final int PLANNER_THREADS =
+        Integer.getInteger("ADHOC_PLANNER_THREADS", CoreUtils.availableProcessors());
+
     // accept work via this mailbox
     Mailbox m_mailbox;
 
     public AsyncCompilerAgent(LicenseApi licenseApi) {
         m_helper = new AsyncCompilerAgentHelper(licenseApi);
+        for (int ii = 0; ii < Math.max(1, PLANNER_THREADS); ii++) {
+            final LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>(MAX_QUEUE_DEPTH);
+            m_plannerQueues.add(queue);
+            m_planners.add(CoreUtils.getListeningExecutorService("Ad Hoc Planner " + ii, 1, queue, null));
+        }
+        PlannerStatsCollector.setQueueDepthSupplier(new Supplier<Integer>() {
+            @Override
+            public Integer get() {
+                int depth = 0;
+                for (LinkedBlockingQueue<Runnable> queue : m_plannerQueues) {
+                    depth += queue.size();
+                }
+                return depth;
+            }
+        });
     }
 
     // The helper for catalog updates, back after its exclusive three year tour
     // of Europe, Scandinavia, and the sub-continent.
     final AsyncCompilerAgentHelper m_helper;
 
-    // do work in this executor service
-    final ListeningExecutorService m_es =
-        CoreUtils.getBoundedSingleThreadExecutor("Ad Hoc Planner", MAX_QUEUE_DEPTH);
+    // do work in these single threaded executor services. Statements are planned
+    // concurrently, each planner thread using its own HSQL session of the catalog's
+    // PlannerTool. Work from a client connection always goes to the same planner so
+    // its statements are planned, and handed back to be run, in the order they came in.
+    final List<LinkedBlockingQueue<Runnable>> m_plannerQueues = new ArrayList<LinkedBlockingQueue<Runnable>>();
+    final List<ListeningExecutorService> m_planners = new ArrayList<ListeningExecutorService>();
+    // work from stored procedures has no order to keep and goes round robin
+    private final AtomicInteger m_nextPlanner = new AtomicInteger();
+
+    // catalog changes are prepared one at a time in this executor service
+    final ListeningExecutorService m_catalogEs =
+        CoreUtils.getBoundedSingleThreadExecutor("Ad Hoc Catalog Updater", MAX_QUEUE_DEPTH);
 
     // Enable debug hooks when the "asynccompilerdebug" sys prop is set to "true" or "yes".
     private final static MiscUtils.BooleanSystemProperty DEBUG_MODE =
@@ -82,9 +114,15 @@ public class AsyncCompilerAgent {
     // intended for integration test use. finish planning what's in
     // the queue and terminate the TPE.
     public void shutdown() throws InterruptedException {
-        if (m_es != null) {
-            m_es.shutdown();
-            m_es.awaitTermination(120, TimeUnit.SECONDS);
+        for (ListeningExecutorService planner : m_planners) {
+            planner.shutdown();
+        }
+        for (ListeningExecutorService planner : m_planners) {
+            planner.awaitTermination(120, TimeUnit.SECONDS);
+        }
+        if (m_catalogEs != null) {
+            m_catalogEs.shutdown();
+            m_catalogEs.awaitTermination(120, TimeUnit.SECONDS);
         }
     }
 
@@ -99,8 +137,12 @@ public class AsyncCompilerAgent {
 
             @Override
             public void deliver(final VoltMessage message) {
+                // Catalog changes are not planned, so they skip the planner threads
+                // and go straight to the catalog executor.
+                final Object payload = ((LocalObjectMessage)message).payload;
+                final boolean isCatalogChange = payload instanceof CatalogChangeWork;
                 try {
-                    m_es.submit(new Runnable() {
+                    (isCatalogChange ? m_catalogEs : plannerFor((AsyncCompilerWork)payload)).submit(new Runnable() {
                         @Override
                         public void run() {
                             handleMailboxMessage(message);
@@ -116,6 +158,19 @@ public class AsyncCompilerAgent {
         hostMessenger.createMailbox(hsId, m_mailbox);
     }
 
+    /**
+     * The planner thread for a piece of work, the same one for all the work of a connection.
+     */
+    ListeningExecutorService plannerFor(AsyncCompilerWork work) {
+        final int index;
+        if (work.clientData == null) {
+            index = m_nextPlanner.getAndIncrement() & Integer.MAX_VALUE;
+        } else {
+            index = (int)((work.connectionId ^ (work.connectionId >>> 32)) & Integer.MAX_VALUE);
+        }
+        return m_planners.get(index % m_planners.size());
+    }
+
     void generateErrorResult(String errorMsg, AsyncCompilerWork work) {
         AsyncCompilerResult retval = new AsyncCompilerResult();
         retval.clientHandle = work.clientHandle;
@@ -309,11 +364,12 @@ public class AsyncCompilerAgent {
             w.completionHandler.onCompletion(errResult);
             return;
         }
-        dispatchCatalogChangeWork(w);
+        // Already running on the catalog executor
+        prepareCatalogChange(w);
     }
 
     public void compileAdHocPlanForProcedure(final AdHocPlannerWork apw) {
-        m_es.submit(new Runnable() {
+        plannerFor(apw).submit(new Runnable() {
             @Override
             public void run(){
                 apw.completionHandler.onCompletion(compileAdHocPlan(apw));
@@ -321,7 +377,34 @@ public class AsyncCompilerAgent {
         });
     }
 
-    private void dispatchCatalogChangeWork(CatalogChangeWork work)
+    /**
+     * Prepare a catalog change on the catalog executor, where changes are
+     * prepared one at a time, ad hoc DDL found by the planner threads included.
+     */
+    private void dispatchCatalogChangeWork(final CatalogChangeWork work)
+    {
+        try {
+            m_catalogEs.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        prepareCatalogChange(work);
+                    }
+                    catch (RuntimeException e) {
+                        AsyncCompilerResult errResult =
+                            AsyncCompilerResult.makeErrorResult(work,
+                                String.format("Unexpected async compiler exception for %s: %s",
+                                        work.getClass().getName(), e.getLocalizedMessage()));
+                        work.completionHandler.onCompletion(errResult);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException rejected) {
+            generateErrorResult("Ad Hoc Planner task queue is full. Try again.", work);
+        }
+    }
+
+    private void prepareCatalogChange(CatalogChangeWork work)
     {
         final AsyncCompilerResult result = m_helper.prepareApplicationCatalogDiff(work);
         if (result.errorMsg != null) {
@@ -316,7 +316,10 @@ public class AsyncCompilerAgentHelper
             InMemoryJarfile newJarfile = new InMemoryJarfile(newClassBytes);
             for (Entry<String, byte[]> e : newJarfile.entrySet()) {
                 String filename = e.getKey();
-                if (!filename.endsWith(".class")) {
+                // Table statistics from an analyze go along with the classes,
+                // they get picked up by the recompile
+                if (!filename.endsWith(".class") &&
+                    !filename.equals(DatabaseEstimates.STATISTICS_FILE_NAME)) {
                     continue;
                 }
                 foundClasses = true;
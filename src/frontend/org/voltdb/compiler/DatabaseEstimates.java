@@ -18,22 +18,213 @@
 package org.voltdb.compiler;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.json_voltpatches.JSONArray;
+import org.json_voltpatches.JSONException;
+import org.json_voltpatches.JSONObject;
+import org.json_voltpatches.JSONStringer;
+import org.voltcore.logging.VoltLogger;
+import org.voltdb.common.Constants;
+import org.voltdb.utils.InMemoryJarfile;
+
+/**
+ * Row count and value distribution estimates the planner costs plans with. Without
+ * statistics every table gets the same made up row counts. Statistics gathered by
+ * {@link org.voltdb.utils.StatisticsAnalyzer} are kept in the catalog jar as
+ * {@link #STATISTICS_FILE_NAME} and replace the defaults for the tables they cover.
+ */
 public class DatabaseEstimates {
 
+    private static final VoltLogger compilerLog = new VoltLogger("COMPILER");
+
+    public static final String STATISTICS_FILE_NAME = "statistics.json";
+
+    /**
+     * Selectivities assumed for predicates on columns without statistics
+     */
+    public static final double DEFAULT_EQUALITY_SELECTIVITY = 0.1;
+    public static final double DEFAULT_RANGE_SELECTIVITY = 1.0 / 3.0;
+
+    public static class ColumnEstimates {
+        public long distinctValues = 0;
+        /**
+         * Bounds of an equi-depth histogram of the non-null values, each bucket holding
+         * about the same number of rows. Empty for columns that are not numeric.
+         */
+        public double[] histogram = new double[0];
+
+        public double equalitySelectivity() {
+            if (distinctValues <= 0) {
+                return DEFAULT_EQUALITY_SELECTIVITY;
+            }
+            return 1.0 / distinctValues;
+        }
+
+        /**
+         * @return the fraction of the values below the given one, or -1 without a histogram
+         */
+        public double fractionBelow(double value) {
+            final int buckets = histogram.length - 1;
+            if (buckets < 1) {
+                return -1.0;
+            }
+            if (value <= histogram[0]) {
+                return 0.0;
+            }
+            if (value >= histogram[buckets]) {
+                return 1.0;
+            }
+            int bucket = 0;
+            while (value >= histogram[bucket + 1]) {
+                ++bucket;
+            }
+            final double width = histogram[bucket + 1] - histogram[bucket];
+            final double withinBucket = width > 0.0 ? (value - histogram[bucket]) / width : 0.0;
+            return (bucket + withinBucket) / buckets;
+        }
+    }
+
     public static class TableEstimates {
         public long maxTuples = 1000000;
         public long minTuples = 100000;
         public ArrayList<ScalarValueHints> valueHints = new ArrayList<ScalarValueHints>();
+        /** Set when the tuple counts come from gathered statistics instead of the defaults */
+        public boolean analyzed = false;
+        public HashMap<String, ColumnEstimates> columns = new HashMap<String, ColumnEstimates>();
+
+        public ColumnEstimates getEstimatesForColumn(String columnName) {
+            return columns.get(columnName);
+        }
     }
 
-    HashMap<String, TableEstimates> tables = new HashMap<String, TableEstimates>();
+    // Shared by all the planner threads of a catalog
+    final ConcurrentHashMap<String, TableEstimates> tables = new ConcurrentHashMap<String, TableEstimates>();
+    private volatile boolean m_hasStatistics = false;
 
     public TableEstimates getEstimatesForTable(String tableName) {
-        if (tables.containsKey(tableName) == false)
-            tables.put(tableName, new TableEstimates());
+        TableEstimates estimates = tables.get(tableName);
+        if (estimates == null) {
+            estimates = new TableEstimates();
+            TableEstimates existing = tables.putIfAbsent(tableName, estimates);
+            if (existing != null) {
+                estimates = existing;
+            }
+        }
+        return estimates;
+    }
+
+    /**
+     * @return true if at least one table has gathered statistics
+     */
+    public boolean hasStatistics() {
+        return m_hasStatistics;
+    }
+
+    /**
+     * Record the row count of a table gathered by an analyze.
+     */
+    public TableEstimates setTableStatistics(String tableName, long tupleCount) {
+        TableEstimates estimates = new TableEstimates();
+        estimates.maxTuples = tupleCount;
+        estimates.minTuples = tupleCount;
+        estimates.analyzed = true;
+        tables.put(tableName, estimates);
+        m_hasStatistics = true;
+        return estimates;
+    }
+
+    /**
+     * Forget the tables that are not in the given collection, e.g. the ones dropped from the schema.
+     */
+    public void retainTables(Collection<String> tableNames) {
+        Iterator<Entry<String, TableEstimates>> iter = tables.entrySet().iterator();
+        while (iter.hasNext()) {
+            if (!tableNames.contains(iter.next().getKey())) {
+                iter.remove();
+            }
+        }
+        boolean hasStatistics = false;
+        for (TableEstimates estimates : tables.values()) {
+            hasStatistics |= estimates.analyzed;
+        }
+        m_hasStatistics = hasStatistics;
+    }
+
+    public String toJSONString() throws JSONException {
+        JSONStringer stringer = new JSONStringer();
+        stringer.object();
+        stringer.key("tables").object();
+        for (Entry<String, TableEstimates> table : tables.entrySet()) {
+            if (!table.getValue().analyzed) {
+                continue;
+            }
+            stringer.key(table.getKey()).object();
+            stringer.key("tupleCount").value(table.getValue().maxTuples);
+            stringer.key("columns").object();
+            for (Entry<String, ColumnEstimates> column : table.getValue().columns.entrySet()) {
+                stringer.key(column.getKey()).object();
+                stringer.key("distinctValues").value(column.getValue().distinctValues);
+                stringer.key("histogram").array();
+                for (double bound : column.getValue().histogram) {
+                    stringer.value(bound);
+                }
+                stringer.endArray();
+                stringer.endObject();
+            }
+            stringer.endObject();
+            stringer.endObject();
+        }
+        stringer.endObject();
+        stringer.endObject();
+        return stringer.toString();
+    }
+
+    public static DatabaseEstimates fromJSONString(String json) throws JSONException {
+        DatabaseEstimates estimates = new DatabaseEstimates();
+        JSONObject tables = new JSONObject(json).getJSONObject("tables");
+        Iterator<String> tableNames = tables.keys();
+        while (tableNames.hasNext()) {
+            String tableName = tableNames.next();
+            JSONObject table = tables.getJSONObject(tableName);
+            TableEstimates tableEstimates = estimates.setTableStatistics(tableName, table.getLong("tupleCount"));
+            JSONObject columns = table.getJSONObject("columns");
+            Iterator<String> columnNames = columns.keys();
+            while (columnNames.hasNext()) {
+                String columnName = columnNames.next();
+                JSONObject column = columns.getJSONObject(columnName);
+                ColumnEstimates columnEstimates = new ColumnEstimates();
+                columnEstimates.distinctValues = column.getLong("distinctValues");
+                JSONArray histogram = column.getJSONArray("histogram");
+                columnEstimates.histogram = new double[histogram.length()];
+                for (int i = 0; i < histogram.length(); i++) {
+                    columnEstimates.histogram[i] = histogram.getDouble(i);
+                }
+                tableEstimates.columns.put(columnName, columnEstimates);
+            }
+        }
+        return estimates;
+    }
 
-        return tables.get(tableName);
+    /**
+     * Load the statistics kept in a catalog jar. A jar without statistics, or with
+     * statistics that can't be read, gets the defaults.
+     */
+    public static DatabaseEstimates fromJarfile(InMemoryJarfile jarfile) {
+        byte[] bytes = jarfile.get(STATISTICS_FILE_NAME);
+        if (bytes == null) {
+            return new DatabaseEstimates();
+        }
+        try {
+            return fromJSONString(new String(bytes, Constants.UTF8ENCODING));
+        }
+        catch (JSONException e) {
+            compilerLog.warn("Ignoring unreadable table statistics in the catalog: " + e.getMessage());
+            return new DatabaseEstimates();
+        }
     }
 }
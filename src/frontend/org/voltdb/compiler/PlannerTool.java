@@ -18,6 +18,7 @@
 package org.voltdb.compiler;
 
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.hsqldb_voltpatches.HSQLInterface;
 import org.hsqldb_voltpatches.HSQLInterface.HSQLParseException;
@@ -31,19 +32,27 @@ import org.voltdb.VoltDB;
 import org.voltdb.catalog.Cluster;
 import org.voltdb.catalog.Database;
 import org.voltdb.common.Constants;
+import org.voltdb.compiler.AdHocCompilerCache.LexedStatement;
+import org.voltdb.parser.SQLLexer;
+import org.voltdb.parser.SQLLexer.ParameterizedStatement;
+import org.voltdb.planner.AbstractCostModel;
 import org.voltdb.planner.BoundPlan;
 import org.voltdb.planner.CompiledPlan;
 import org.voltdb.planner.CorePlan;
 import org.voltdb.planner.PlanningErrorException;
 import org.voltdb.planner.QueryPlanner;
 import org.voltdb.planner.StatementPartitioning;
-import org.voltdb.planner.TrivialCostModel;
+import org.voltdb.planner.StatisticsCostModel;
 import org.voltdb.plannodes.AbstractPlanNode;
 import org.voltdb.utils.Encoder;
 
 /**
  * Planner tool accepts an already compiled VoltDB catalog and then
  * interactively accept SQL and outputs plans on standard out.
+ *
+ * Several threads can plan at the same time. Each planning borrows an HSQL
+ * session loaded with the schema of the catalog, and a new one is loaded when
+ * all of them are in use, so there are as many sessions as concurrent planners.
  */
 public class PlannerTool {
     private static final VoltLogger hostLog = new VoltLogger("HOST");
@@ -51,14 +60,22 @@ public class PlannerTool {
 
     private final Database m_database;
     private final Cluster m_cluster;
-    private final HSQLInterface m_hsql;
+    private final String[] m_ddl;
+    private final ConcurrentLinkedQueue<HSQLInterface> m_idleHsql = new ConcurrentLinkedQueue<HSQLInterface>();
     private final byte[] m_catalogHash;
+    private final DatabaseEstimates m_estimates;
     private final AdHocCompilerCache m_cache;
     private static PlannerStatsCollector m_plannerStats;
 
     private static final int AD_HOC_JOINED_TABLE_LIMIT = 5;
 
     public PlannerTool(final Cluster cluster, final Database database, byte[] catalogHash)
+    {
+        this(cluster, database, catalogHash, new DatabaseEstimates());
+    }
+
+    public PlannerTool(final Cluster cluster, final Database database, byte[] catalogHash,
+                       DatabaseEstimates estimates)
     {
         assert(cluster != null);
         assert(database != null);
@@ -66,28 +83,15 @@ public class PlannerTool {
         m_database = database;
         m_cluster = cluster;
         m_catalogHash = catalogHash;
+        m_estimates = estimates;
         m_cache = AdHocCompilerCache.getCacheForCatalogHash(catalogHash);
 
-        // LOAD HSQL
-        m_hsql = HSQLInterface.loadHsqldb();
         String binDDL = m_database.getSchema();
         String ddl = Encoder.decodeBase64AndDecompress(binDDL);
-        String[] commands = ddl.split("\n");
-        for (String command : commands) {
-            String decoded_cmd = Encoder.hexDecodeToString(command);
-            decoded_cmd = decoded_cmd.trim();
-            if (decoded_cmd.length() == 0)
-                continue;
-            try {
-                m_hsql.runDDLCommand(decoded_cmd);
-            }
-            catch (HSQLParseException e) {
-                // need a good error message here
-                throw new RuntimeException("Error creating hsql: " + e.getMessage() + " in DDL statement: " + decoded_cmd);
-            }
-        }
+        m_ddl = ddl.split("\n");
 
-        hostLog.debug("hsql loaded");
+        // LOAD HSQL
+        m_idleHsql.offer(loadHsql());
 
         // Create and register a singleton planner stats collector, if this is the first time.
         if (m_plannerStats == null) {
@@ -104,6 +108,42 @@ public class PlannerTool {
         }
     }
 
+    private HSQLInterface loadHsql() {
+        HSQLInterface hsql = HSQLInterface.loadHsqldb();
+        for (String command : m_ddl) {
+            String decoded_cmd = Encoder.hexDecodeToString(command);
+            decoded_cmd = decoded_cmd.trim();
+            if (decoded_cmd.length() == 0)
+                continue;
+            try {
+                hsql.runDDLCommand(decoded_cmd);
+            }
+            catch (HSQLParseException e) {
+                // need a good error message here
+                throw new RuntimeException("Error creating hsql: " + e.getMessage() + " in DDL statement: " + decoded_cmd);
+            }
+        }
+
+        hostLog.debug("hsql loaded");
+        return hsql;
+    }
+
+    /**
+     * Take an HSQL session no other planner is using, loading a new one if needed.
+     * Give it back with {@link #releaseHsql} when the planning is done.
+     */
+    private HSQLInterface acquireHsql() {
+        HSQLInterface hsql = m_idleHsql.poll();
+        if (hsql == null) {
+            hsql = loadHsql();
+        }
+        return hsql;
+    }
+
+    private void releaseHsql(HSQLInterface hsql) {
+        m_idleHsql.offer(hsql);
+    }
+
     public AdHocPlannedStatement planSqlForTest(String sqlIn) {
         StatementPartitioning infer = StatementPartitioning.inferPartitioning();
         return planSql(sqlIn, infer, false, null);
@@ -116,12 +156,12 @@ public class PlannerTool {
     /**
      * Stripped down compile that is ONLY used to plan default procedures.
      */
-    public synchronized CompiledPlan planSqlCore(String sql, StatementPartitioning partitioning) {
-        TrivialCostModel costModel = new TrivialCostModel();
-        DatabaseEstimates estimates = new DatabaseEstimates();
+    public CompiledPlan planSqlCore(String sql, StatementPartitioning partitioning) {
+        AbstractCostModel costModel = StatisticsCostModel.forEstimates(m_estimates);
+        HSQLInterface hsql = acquireHsql();
         QueryPlanner planner = new QueryPlanner(
             sql, "PlannerTool", "PlannerToolProc", m_cluster, m_database,
-            partitioning, m_hsql, estimates, !VoltCompiler.DEBUG_MODE,
+            partitioning, hsql, m_estimates, !VoltCompiler.DEBUG_MODE,
             AD_HOC_JOINED_TABLE_LIMIT, costModel, null, null, DeterminismMode.FASTER);
 
         CompiledPlan plan = null;
@@ -143,6 +183,9 @@ public class PlannerTool {
             }
             throw new RuntimeException("Error compiling query: " + e.toString() + loggedMsg, e);
         }
+        finally {
+            releaseHsql(hsql);
+        }
 
         if (plan == null) {
             throw new RuntimeException("Null plan received in PlannerTool.planSql");
@@ -151,13 +194,63 @@ public class PlannerTool {
         return plan;
     }
 
-    synchronized AdHocPlannedStatement planSql(String sqlIn, StatementPartitioning partitioning,
+    /**
+     * Find the core plan of a statement parameterized by the lexer in the cache and
+     * bind the statement's literals to it, the way a cache #2 hit does after parsing.
+     *
+     * @return the planned statement, or null if the slow path has to be taken
+     */
+    private AdHocPlannedStatement planWithLexedStatement(String sql, ParameterizedStatement lexed) {
+        LexedStatement lexedStatement = m_cache.getWithLexedKey(lexed.key);
+        if (lexedStatement == null || lexedStatement.literalOrder.length != lexed.literals.length) {
+            return null;
+        }
+        List<BoundPlan> boundVariants = m_cache.getWithParsedToken(lexedStatement.parsedToken);
+        if (boundVariants == null) {
+            return null;
+        }
+
+        // Put the literals in the order of the plan's parameters
+        String[] extractedLiterals = new String[lexed.literals.length];
+        for (int i = 0; i < extractedLiterals.length; i++) {
+            extractedLiterals[i] = lexed.literals[lexedStatement.literalOrder[i]];
+        }
+        for (BoundPlan boundPlan : boundVariants) {
+            if (boundPlan.allowsParams(extractedLiterals)) {
+                CorePlan core = boundPlan.m_core;
+                if (core.parameterTypes.length != extractedLiterals.length) {
+                    return null;
+                }
+                ParameterSet params;
+                try {
+                    params = QueryPlanner.paramValuesForLiterals(extractedLiterals, core.parameterTypes);
+                }
+                catch (Exception e) {
+                    // e.g. a value out of range for the type the plan was made for
+                    return null;
+                }
+                AdHocPlannedStatement ahps = new AdHocPlannedStatement(sql.getBytes(Constants.UTF8ENCODING),
+                                                                       core,
+                                                                       params,
+                                                                       null);
+                ahps.setBoundConstants(boundPlan.m_constants);
+                m_cache.put(sql, lexedStatement.parsedToken, ahps, extractedLiterals, false, false);
+                return ahps;
+            }
+        }
+        return null;
+    }
+
+    AdHocPlannedStatement planSql(String sqlIn, StatementPartitioning partitioning,
             boolean isExplainMode, final Object[] userParams) {
 
         CacheUse cacheUse = CacheUse.FAIL;
+        long startTime = 0;
         if (m_plannerStats != null) {
-            m_plannerStats.startStatsCollection();
+            startTime = m_plannerStats.startStatsCollection();
         }
+        HSQLInterface hsql = null;
+        ParameterizedStatement lexed = null;
         boolean hasUserQuestionMark = false;
         boolean wrongNumberParameters = false;
         try {
@@ -184,6 +277,19 @@ public class PlannerTool {
                 else {
                     cacheUse = CacheUse.MISS;
                 }
+
+                // Statements without user parameters that differ from a cached one only
+                // in their literals can be matched to its core plan without parsing.
+                if (userParams == null || userParams.length == 0) {
+                    lexed = SQLLexer.parameterizeLiterals(sql);
+                    if (lexed != null) {
+                        AdHocPlannedStatement lexedPlan = planWithLexedStatement(sql, lexed);
+                        if (lexedPlan != null) {
+                            cacheUse = CacheUse.LEXED_HIT;
+                            return lexedPlan;
+                        }
+                    }
+                }
             }
 
             // Reset plan node id counter
@@ -193,11 +299,11 @@ public class PlannerTool {
             // PLAN THE STMT
             //////////////////////
 
-            TrivialCostModel costModel = new TrivialCostModel();
-            DatabaseEstimates estimates = new DatabaseEstimates();
+            AbstractCostModel costModel = StatisticsCostModel.forEstimates(m_estimates);
+            hsql = acquireHsql();
             QueryPlanner planner = new QueryPlanner(
                     sql, "PlannerTool", "PlannerToolProc", m_cluster, m_database,
-                    partitioning, m_hsql, estimates, !VoltCompiler.DEBUG_MODE,
+                    partitioning, hsql, m_estimates, !VoltCompiler.DEBUG_MODE,
                     AD_HOC_JOINED_TABLE_LIMIT, costModel, null, null, DeterminismMode.FASTER);
 
             CompiledPlan plan = null;
@@ -256,6 +362,10 @@ public class PlannerTool {
                             ahps.setBoundConstants(matched.m_constants);
                             // parameterized plan from the cache does not have exception
                             m_cache.put(sql, parsedToken, ahps, extractedLiterals, hasUserQuestionMark, false);
+                            if (lexed != null && !hasUserQuestionMark &&
+                                    planner.literalsOnlyInParameters(lexed.literals)) {
+                                m_cache.putLexed(lexed.key, lexed.literals, parsedToken, extractedLiterals);
+                            }
                             cacheUse = CacheUse.HIT2;
                             return ahps;
                         }
@@ -307,12 +417,20 @@ public class PlannerTool {
                 assert(parsedToken != null);
                 // Again, plans with inferred partitioning are the only ones supported in the cache.
                 m_cache.put(sqlIn, parsedToken, ahps, extractedLiterals, hasUserQuestionMark, planner.wasBadPameterized());
+                if (lexed != null && !hasUserQuestionMark && !planner.wasBadPameterized() &&
+                        planner.literalsOnlyInParameters(lexed.literals)) {
+                    m_cache.putLexed(lexed.key, lexed.literals, parsedToken, extractedLiterals);
+                }
             }
             return ahps;
         }
         finally {
+            if (hsql != null) {
+                releaseHsql(hsql);
+            }
             if (m_plannerStats != null) {
-                m_plannerStats.endStatsCollection(m_cache.getLiteralCacheSize(), m_cache.getCoreCacheSize(), cacheUse, -1);
+                m_plannerStats.endStatsCollection(startTime, m_cache.getLiteralCacheSize(),
+                                                  m_cache.getCoreCacheSize(), cacheUse, -1);
             }
         }
     }
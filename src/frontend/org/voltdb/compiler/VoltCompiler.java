@@ -1185,7 +1185,7 @@ public class VoltCompiler {
         ddlcompiler.compileToCatalog(db);
 
         // add database estimates info
-        addDatabaseEstimatesInfo(m_estimates, db);
+        m_estimates = getDatabaseEstimates(db, jarOutput);
 
         // Process DDL exported tables
         NavigableMap<String, NavigableSet<String>> exportTables = voltDdlTracker.getExportedTables();
@@ -1385,15 +1385,18 @@ public class VoltCompiler {
         m_capturedDiagnosticDetail.add(json);
     }
 
-    static void addDatabaseEstimatesInfo(final DatabaseEstimates estimates, final Database db) {
-        // Not implemented yet. Don't panic.
-
-        /*for (Table table : db.getTables()) {
-            DatabaseEstimates.TableEstimates tableEst = new DatabaseEstimates.TableEstimates();
-            tableEst.maxTuples = 1000000;
-            tableEst.minTuples = 100000;
-            estimates.tables.put(table, tableEst);
-        }*/
+    /**
+     * Plan against the table statistics an earlier analyze stored in the jar, if any,
+     * for the tables that are still in the schema.
+     */
+    static DatabaseEstimates getDatabaseEstimates(final Database db, final InMemoryJarfile jarOutput) {
+        DatabaseEstimates estimates = DatabaseEstimates.fromJarfile(jarOutput);
+        List<String> tableNames = new ArrayList<String>();
+        for (Table table : db.getTables()) {
+            tableNames.add(table.getTypeName());
+        }
+        estimates.retainTables(tableNames);
+        return estimates;
     }
 
     ProcedureDescriptor getProcedure(
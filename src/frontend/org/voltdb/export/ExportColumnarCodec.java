@@ -0,0 +1,463 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.export;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.voltdb.VoltType;
+
+/**
+ * Converts the rows of an export block between the row at a time format written by
+ * the EE and a columnar format that is smaller and compresses better for wide,
+ * repetitive streams.
+ *
+ * A row block is a sequence of rows, each a 4 byte length, the null array with one bit
+ * per column, and the non-null values, all little endian. A columnar block is
+ * <pre>
+ *   int COLUMNAR_MARKER, int row count, int length of the row block
+ *   null arrays of all the rows
+ *   per column an encoding byte followed by the non-null values of the column
+ * </pre>
+ * Integer and timestamp columns are stored as zig-zag varint deltas from the previous
+ * value, VARCHAR columns with few distinct values as a dictionary and varint indexes,
+ * and everything else as the plain values with varint lengths. Since a row length is
+ * never negative a block starting with the marker can't be a row block.
+ *
+ * Streams with GEOGRAPHY or GEOGRAPHY_POINT columns aren't supported.
+ */
+public class ExportColumnarCodec {
+    public static final int COLUMNAR_MARKER = -1;
+    private static final int HEADER_SIZE = 12;
+
+    private static final byte PLAIN = 0;
+    private static final byte DELTA = 1;
+    private static final byte DICTIONARY = 2;
+
+    // VARCHAR columns get a dictionary when at most this fraction of the values are distinct
+    private static final int DICTIONARY_RATIO = 4;
+    private static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+    private final VoltType[] m_types;
+    private final int m_nullArrayLength;
+
+    public ExportColumnarCodec(List<Integer> columnTypes) {
+        m_types = new VoltType[columnTypes.size()];
+        for (int ii = 0; ii < m_types.length; ii++) {
+            m_types[ii] = VoltType.get(columnTypes.get(ii).byteValue());
+        }
+        m_nullArrayLength = ((m_types.length + 7) & -8) >> 3;
+    }
+
+    /**
+     * Whether blocks of a stream with these column types can be encoded
+     */
+    public static boolean supports(List<Integer> columnTypes) {
+        for (Integer type : columnTypes) {
+            switch (VoltType.get(type.byteValue())) {
+            case TINYINT:
+            case SMALLINT:
+            case INTEGER:
+            case BIGINT:
+            case TIMESTAMP:
+            case FLOAT:
+            case DECIMAL:
+            case STRING:
+            case VARBINARY:
+                break;
+            default:
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the block starting at the given offset is columnar
+     */
+    public static boolean isColumnar(ByteBuffer block, int offset) {
+        return block.limit() - offset >= 4
+                && block.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(offset) == COLUMNAR_MARKER;
+    }
+
+    /**
+     * Length of the row block a columnar block starting at the given offset decodes to
+     */
+    public static int decodedLength(ByteBuffer block, int offset) {
+        return block.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt(offset + 8);
+    }
+
+    private static boolean isNull(byte[] nulls, int row, int nullArrayLength, int column) {
+        return (nulls[row * nullArrayLength + (column >> 3)] & (0x80 >> (column & 7))) != 0;
+    }
+
+    private static int fixedSize(VoltType type) {
+        switch (type) {
+        case TINYINT:
+            return 1;
+        case SMALLINT:
+            return 2;
+        case INTEGER:
+            return 4;
+        case BIGINT:
+        case TIMESTAMP:
+        case FLOAT:
+            return 8;
+        case DECIMAL:
+            // scale, precision and 16 bytes of value
+            return 18;
+        default:
+            return -1;
+        }
+    }
+
+    private static long readInteger(ByteBuffer buf, VoltType type) {
+        switch (type) {
+        case TINYINT:
+            return buf.get();
+        case SMALLINT:
+            return buf.getShort();
+        case INTEGER:
+            return buf.getInt();
+        default:
+            return buf.getLong();
+        }
+    }
+
+    private static boolean isInteger(VoltType type) {
+        return type == VoltType.TINYINT || type == VoltType.SMALLINT || type == VoltType.INTEGER
+                || type == VoltType.BIGINT || type == VoltType.TIMESTAMP;
+    }
+
+    /**
+     * Encode the row block between the position and limit of rows. Returns a heap buffer
+     * with the columnar block ready to read, or null if the rows don't parse with this
+     * stream's column types or the columnar block isn't smaller.
+     */
+    public ByteBuffer encode(ByteBuffer rows) {
+        final ByteBuffer in = rows.slice().order(ByteOrder.LITTLE_ENDIAN);
+        final int columns = m_types.length;
+        try {
+            // Count and validate the rows first so the column arrays can be sized
+            int rowCount = 0;
+            while (in.hasRemaining()) {
+                final int length = in.getInt();
+                if (length < m_nullArrayLength || length > in.remaining()) {
+                    return null;
+                }
+                in.position(in.position() + length);
+                rowCount++;
+            }
+            if (rowCount == 0) {
+                return null;
+            }
+            in.position(0);
+
+            final byte[] nulls = new byte[rowCount * m_nullArrayLength];
+            // Per column the integer values, or the offsets and lengths of the values in the block
+            final long[][] integers = new long[columns][];
+            final int[][] offsets = new int[columns][];
+            final int[][] lengths = new int[columns][];
+            final int[] counts = new int[columns];
+            for (int col = 0; col < columns; col++) {
+                if (isInteger(m_types[col])) {
+                    integers[col] = new long[rowCount];
+                } else {
+                    offsets[col] = new int[rowCount];
+                    lengths[col] = new int[rowCount];
+                }
+            }
+            for (int row = 0; row < rowCount; row++) {
+                final int end = in.getInt() + in.position();
+                in.get(nulls, row * m_nullArrayLength, m_nullArrayLength);
+                for (int col = 0; col < columns; col++) {
+                    if (isNull(nulls, row, m_nullArrayLength, col)) {
+                        continue;
+                    }
+                    final VoltType type = m_types[col];
+                    final int index = counts[col]++;
+                    if (integers[col] != null) {
+                        integers[col][index] = readInteger(in, type);
+                    } else {
+                        int length = fixedSize(type);
+                        if (length < 0) {
+                            length = in.getInt();
+                            if (length < 0) {
+                                return null;
+                            }
+                        }
+                        offsets[col][index] = in.position();
+                        lengths[col][index] = length;
+                        in.position(in.position() + length);
+                    }
+                }
+                if (in.position() != end) {
+                    return null;
+                }
+            }
+
+            final Output out = new Output(in.limit() / 2);
+            out.putInt(COLUMNAR_MARKER);
+            out.putInt(rowCount);
+            out.putInt(in.limit());
+            out.put(nulls, 0, nulls.length);
+            for (int col = 0; col < columns; col++) {
+                final VoltType type = m_types[col];
+                final int count = counts[col];
+                if (integers[col] != null) {
+                    out.put(DELTA);
+                    long previous = 0;
+                    for (int ii = 0; ii < count; ii++) {
+                        out.putVarLong(integers[col][ii] - previous);
+                        previous = integers[col][ii];
+                    }
+                } else if (fixedSize(type) > 0) {
+                    out.put(PLAIN);
+                    for (int ii = 0; ii < count; ii++) {
+                        out.put(in, offsets[col][ii], lengths[col][ii]);
+                    }
+                } else if (type != VoltType.STRING || !putDictionary(out, in, offsets[col], lengths[col], count)) {
+                    out.put(PLAIN);
+                    for (int ii = 0; ii < count; ii++) {
+                        out.putVarLong(lengths[col][ii]);
+                        out.put(in, offsets[col][ii], lengths[col][ii]);
+                    }
+                }
+                if (out.m_position >= in.limit()) {
+                    return null;
+                }
+            }
+            return ByteBuffer.wrap(out.m_buffer, 0, out.m_position).order(ByteOrder.LITTLE_ENDIAN);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Write the column as a dictionary if few enough of its values are distinct
+     */
+    private static boolean putDictionary(Output out, ByteBuffer in, int[] offsets, int[] lengths, int count) {
+        final int maxEntries = Math.min(MAX_DICTIONARY_SIZE, count / DICTIONARY_RATIO);
+        final Map<ByteBuffer, Integer> dictionary = new HashMap<ByteBuffer, Integer>();
+        final int[] indexes = new int[count];
+        final int[] entries = new int[maxEntries + 1];
+        for (int ii = 0; ii < count; ii++) {
+            final ByteBuffer value = in.duplicate();
+            value.limit(offsets[ii] + lengths[ii]).position(offsets[ii]);
+            Integer index = dictionary.get(value);
+            if (index == null) {
+                if (dictionary.size() == maxEntries) {
+                    return false;
+                }
+                index = dictionary.size();
+                dictionary.put(value, index);
+                entries[index] = ii;
+            }
+            indexes[ii] = index;
+        }
+        out.put(DICTIONARY);
+        out.putVarLong(dictionary.size());
+        for (int ii = 0; ii < dictionary.size(); ii++) {
+            out.putVarLong(lengths[entries[ii]]);
+            out.put(in, offsets[entries[ii]], lengths[entries[ii]]);
+        }
+        for (int ii = 0; ii < count; ii++) {
+            out.putVarLong(indexes[ii]);
+        }
+        return true;
+    }
+
+    /**
+     * Decode the columnar block between the position and limit of columnar into the row
+     * block it was encoded from, written at the position of rows which must have
+     * {@link #decodedLength} bytes remaining. Both positions are advanced.
+     */
+    public void decode(ByteBuffer columnar, ByteBuffer rows) {
+        final ByteBuffer in = columnar.slice().order(ByteOrder.LITTLE_ENDIAN);
+        final ByteBuffer out = rows.slice().order(ByteOrder.LITTLE_ENDIAN);
+        final int columns = m_types.length;
+        if (in.getInt() != COLUMNAR_MARKER) {
+            throw new IllegalArgumentException("Not a columnar export block");
+        }
+        final int rowCount = in.getInt();
+        final int decodedLength = in.getInt();
+        final byte[] nulls = new byte[rowCount * m_nullArrayLength];
+        in.get(nulls);
+
+        final long[][] integers = new long[columns][];
+        final int[][] offsets = new int[columns][];
+        final int[][] lengths = new int[columns][];
+        for (int col = 0; col < columns; col++) {
+            int count = 0;
+            for (int row = 0; row < rowCount; row++) {
+                if (!isNull(nulls, row, m_nullArrayLength, col)) {
+                    count++;
+                }
+            }
+            final VoltType type = m_types[col];
+            final byte encoding = in.get();
+            if (encoding == DELTA) {
+                integers[col] = new long[count];
+                long previous = 0;
+                for (int ii = 0; ii < count; ii++) {
+                    previous += getVarLong(in);
+                    integers[col][ii] = previous;
+                }
+                continue;
+            }
+            offsets[col] = new int[count];
+            lengths[col] = new int[count];
+            if (encoding == DICTIONARY) {
+                final int size = (int)getVarLong(in);
+                final int[] entryOffsets = new int[size];
+                final int[] entryLengths = new int[size];
+                for (int ii = 0; ii < size; ii++) {
+                    entryLengths[ii] = (int)getVarLong(in);
+                    entryOffsets[ii] = in.position();
+                    in.position(in.position() + entryLengths[ii]);
+                }
+                for (int ii = 0; ii < count; ii++) {
+                    final int index = (int)getVarLong(in);
+                    offsets[col][ii] = entryOffsets[index];
+                    lengths[col][ii] = entryLengths[index];
+                }
+            } else if (encoding == PLAIN) {
+                final int size = fixedSize(type);
+                for (int ii = 0; ii < count; ii++) {
+                    lengths[col][ii] = size < 0 ? (int)getVarLong(in) : size;
+                    offsets[col][ii] = in.position();
+                    in.position(in.position() + lengths[col][ii]);
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown encoding " + encoding + " for column " + col);
+            }
+        }
+
+        final int[] next = new int[columns];
+        for (int row = 0; row < rowCount; row++) {
+            final int start = out.position();
+            out.putInt(0);
+            out.put(nulls, row * m_nullArrayLength, m_nullArrayLength);
+            for (int col = 0; col < columns; col++) {
+                if (isNull(nulls, row, m_nullArrayLength, col)) {
+                    continue;
+                }
+                final int index = next[col]++;
+                final VoltType type = m_types[col];
+                if (integers[col] != null) {
+                    final long value = integers[col][index];
+                    switch (type) {
+                    case TINYINT:
+                        out.put((byte)value);
+                        break;
+                    case SMALLINT:
+                        out.putShort((short)value);
+                        break;
+                    case INTEGER:
+                        out.putInt((int)value);
+                        break;
+                    default:
+                        out.putLong(value);
+                    }
+                } else {
+                    if (fixedSize(type) < 0) {
+                        out.putInt(lengths[col][index]);
+                    }
+                    final ByteBuffer value = in.duplicate();
+                    value.limit(offsets[col][index] + lengths[col][index]).position(offsets[col][index]);
+                    out.put(value);
+                }
+            }
+            out.putInt(start, out.position() - start - 4);
+        }
+        assert(out.position() == decodedLength);
+        columnar.position(columnar.position() + in.position());
+        rows.position(rows.position() + out.position());
+    }
+
+    private static long getVarLong(ByteBuffer in) {
+        long zigzag = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            zigzag |= (long)(b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /*
+     * Growable little endian output with zig-zag varints
+     */
+    private static final class Output {
+        private byte[] m_buffer;
+        private int m_position = 0;
+
+        Output(int capacity) {
+            m_buffer = new byte[Math.max(capacity, 64)];
+        }
+
+        private void ensure(int length) {
+            if (m_position + length > m_buffer.length) {
+                m_buffer = Arrays.copyOf(m_buffer, Math.max(m_buffer.length * 2, m_position + length));
+            }
+        }
+
+        void put(byte b) {
+            ensure(1);
+            m_buffer[m_position++] = b;
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            for (int ii = 0; ii < 4; ii++) {
+                m_buffer[m_position++] = (byte)(value >>> (ii * 8));
+            }
+        }
+
+        void put(byte[] src, int offset, int length) {
+            ensure(length);
+            System.arraycopy(src, offset, m_buffer, m_position, length);
+            m_position += length;
+        }
+
+        void put(ByteBuffer src, int offset, int length) {
+            ensure(length);
+            final ByteBuffer dup = src.duplicate();
+            dup.position(offset);
+            dup.get(m_buffer, m_position, length);
+            m_position += length;
+        }
+
+        void putVarLong(long value) {
+            ensure(10);
+            long zigzag = (value << 1) ^ (value >> 63);
+            while ((zigzag & ~0x7fL) != 0) {
+                m_buffer[m_position++] = (byte)((zigzag & 0x7f) | 0x80);
+                zigzag >>>= 7;
+            }
+            m_buffer[m_position++] = (byte)zigzag;
+        }
+    }
+}
@@ -27,7 +27,10 @@ import java.util.Iterator;
 import java.util.concurrent.Callable;
 import java.util.concurrent.LinkedTransferQueue;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.json_voltpatches.JSONArray;
@@ -72,6 +75,24 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
      */
     private static final VoltLogger exportLog = new VoltLogger("EXPORT");
 
+    /*
+     * Buffers discarded by the processor are acked together, at most once per this many
+     * milliseconds, so a fast processor doesn't send an ack to every replica per buffer.
+     * 0 acks each buffer as it is discarded.
+     */
+    private static final long ACK_INTERVAL_MS = Long.getLong("EXPORT_ACK_INTERVAL_MS", 5);
+    /*
+     * Overflow blocks loaded into memory beyond the one handed to the processor, so the
+     * next poll doesn't wait on the disk. Each block is up to 2 megabytes.
+     */
+    private static final int READ_AHEAD_BLOCKS = Integer.getInteger("EXPORT_READ_AHEAD_BLOCKS", 2);
+    /*
+     * Write overflow blocks in the columnar format of ExportColumnarCodec, which takes
+     * less disk for wide, repetitive streams. Columnar blocks are decoded back to rows
+     * when read so the processor always sees rows.
+     */
+    private static final boolean COLUMNAR_OVERFLOW = Boolean.getBoolean("EXPORT_COLUMNAR_OVERFLOW");
+
     private final String m_database;
     private final String m_tableName;
     private String m_partitionColumnName = "";
@@ -111,6 +132,19 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
     private final LinkedTransferQueue<RunnableWithES> m_queuedActions = new LinkedTransferQueue<>();
     private RunnableWithES m_firstAction = null;
 
+    // Buffers discarded by the processor that haven't been acked yet
+    private final ConcurrentLinkedQueue<AckingContainer> m_discarded = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean m_ackFlushScheduled = new AtomicBoolean(false);
+
+    // Statistics, only written by the executor
+    private volatile long m_backlogBytes = 0;
+    private volatile int m_inFlightBuffers = 0;
+    private volatile long m_inFlightBytes = 0;
+    private volatile long m_buffersAcked = 0;
+    private volatile long m_acksSent = 0;
+    private volatile long m_ackLatencyNanos = 0;
+    private volatile long m_maxAckLatencyNanos = 0;
+
     /**
      * Create a new data source.
      * @param db
@@ -219,6 +253,7 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
         // compute the number of bytes necessary to hold one bit per
         // schema column
         m_nullArrayLength = ((m_columnTypes.size() + 7) & -8) >> 3;
+        m_committedBuffers.setColumnTypes(m_columnTypes, COLUMNAR_OVERFLOW);
 
         // This is not being loaded from file, so activate immediately
         if (!m_dontActivateForTest) {
@@ -302,6 +337,7 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
         // compute the number of bytes necessary to hold one bit per
         // schema column
         m_nullArrayLength = ((m_columnTypes.size() + 7) & -8) >> 3;
+        m_committedBuffers.setColumnTypes(m_columnTypes, COLUMNAR_OVERFLOW);
     }
 
     public void activate() {
@@ -535,6 +571,7 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
         if (poll) {
             pollImpl(m_pollFuture);
         }
+        m_backlogBytes = m_committedBuffers.sizeInBytes();
     }
 
     public void pushExportBuffer(
@@ -770,10 +807,15 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
             if (first_unpolled_block == null) {
                 m_pollFuture = fut;
             } else {
-                fut.set(
+                final AckingContainer cont =
                         new AckingContainer(first_unpolled_block.unreleasedContainer(),
-                                first_unpolled_block.uso() + first_unpolled_block.totalUso()));
+                                first_unpolled_block.uso() + first_unpolled_block.totalUso());
+                m_inFlightBuffers++;
+                m_inFlightBytes += cont.m_size;
+                fut.set(cont);
                 m_pollFuture = null;
+                //Load the next blocks while the processor works on this one
+                m_committedBuffers.readAhead(m_firstUnpolledUso, READ_AHEAD_BLOCKS);
             }
         } catch (Throwable t) {
             fut.setException(t);
@@ -783,38 +825,100 @@ public class ExportDataSource implements Comparable<ExportDataSource> {
     class AckingContainer extends BBContainer {
         final long m_uso;
         final BBContainer m_backingCont;
+        final int m_size;
+        final long m_polledNanos = System.nanoTime();
+        long m_discardedNanos;
         public AckingContainer(BBContainer cont, long uso) {
             super(cont.b());
             m_uso = uso;
             m_backingCont = cont;
+            m_size = cont.b().remaining();
         }
 
         @Override
         public void discard() {
             checkDoubleFree();
-            RunnableWithES runnable = new RunnableWithES("discard") {
-                @Override
-                public void run() {
+            m_discardedNanos = System.nanoTime();
+            m_discarded.offer(this);
+            scheduleAckFlush();
+        }
+    }
+
+    /*
+     * Ack everything discarded so far once the ack interval has passed. Discards
+     * arriving before the flush runs ride along with it, and acking the highest
+     * USO releases everything before it.
+     */
+    private void scheduleAckFlush() {
+        if (!m_ackFlushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        final RunnableWithES flush = new RunnableWithES("discard") {
+            @Override
+            public void run() {
+                //Clear the flag first so a discard racing with the flush schedules another one
+                m_ackFlushScheduled.set(false);
+                long uso = Long.MIN_VALUE;
+                AckingContainer cont;
+                while ((cont = m_discarded.poll()) != null) {
+                    uso = Math.max(uso, cont.m_uso);
                     try {
-                        m_backingCont.discard();
-                        try {
-                            if (!getLocalExecutorService().isShutdown()) {
-                                ackImpl(m_uso);
-                            }
-                        } finally {
-                            forwardAckToOtherReplicas(m_uso);
-                        }
+                        cont.m_backingCont.discard();
                     } catch (Exception e) {
-                        exportLog.error("Error acking export buffer", e);
+                        //Keep going, the rest of the batch still needs to be released and acked
+                        exportLog.error("Error discarding export buffer", e);
                     } catch (Error e) {
                         VoltDB.crashLocalVoltDB("Error acking export buffer", true, e);
                     }
+                    final long latency = cont.m_discardedNanos - cont.m_polledNanos;
+                    m_ackLatencyNanos += latency;
+                    m_maxAckLatencyNanos = Math.max(m_maxAckLatencyNanos, latency);
+                    m_inFlightBuffers--;
+                    m_inFlightBytes -= cont.m_size;
+                    m_buffersAcked++;
                 }
-            };
-            stashOrSubmitTask(runnable, true, false);
+                if (uso == Long.MIN_VALUE) {
+                    return;
+                }
+                m_acksSent++;
+                try {
+                    try {
+                        if (!getLocalExecutorService().isShutdown()) {
+                            ackImpl(uso);
+                            m_backlogBytes = m_committedBuffers.sizeInBytes();
+                        }
+                    } finally {
+                        forwardAckToOtherReplicas(uso);
+                    }
+                } catch (Exception e) {
+                    exportLog.error("Error acking export buffer", e);
+                } catch (Error e) {
+                    VoltDB.crashLocalVoltDB("Error acking export buffer", true, e);
+                }
+            }
+        };
+        if (ACK_INTERVAL_MS <= 0) {
+            stashOrSubmitTask(flush, true, false);
+        } else {
+            VoltDB.instance().scheduleWork(new Runnable() {
+                @Override
+                public void run() {
+                    stashOrSubmitTask(flush, true, false);
+                }
+            }, ACK_INTERVAL_MS, -1, TimeUnit.MILLISECONDS);
         }
     }
 
+    /**
+     * Statistics of this source for {@link ExportStats}: backlog bytes, buffers and bytes
+     * handed to the processor and not yet acked, buffers acked, acks applied and sent to
+     * the replicas, and the total and max nanoseconds from poll to discard of acked buffers.
+     */
+    long[] getStatistics() {
+        return new long[] { m_backlogBytes, m_inFlightBuffers, m_inFlightBytes, m_buffersAcked,
+                m_acksSent, m_ackLatencyNanos, m_maxAckLatencyNanos };
+    }
+
     private void forwardAckToOtherReplicas(long uso) {
         if (m_runEveryWhere && m_replicaRunning) {
            //we dont forward if we are running as replica in replicated export
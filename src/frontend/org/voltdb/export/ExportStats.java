@@ -0,0 +1,133 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.export;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.voltdb.StatsSource;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.VoltType;
+
+/**
+ * One row per export stream and partition of every generation with the bytes waiting
+ * to be exported, the buffers handed to the export processor and not yet acked, and
+ * how long the processor takes from polling a buffer to discarding it.
+ */
+public class ExportStats extends StatsSource {
+    // Indexes into ExportDataSource.getStatistics()
+    private static final int BACKLOG_BYTES = 0;
+    private static final int IN_FLIGHT_BUFFERS = 1;
+    private static final int IN_FLIGHT_BYTES = 2;
+    private static final int BUFFERS_ACKED = 3;
+    private static final int ACKS_SENT = 4;
+    private static final int ACK_LATENCY_NANOS = 5;
+    private static final int MAX_ACK_LATENCY_NANOS = 6;
+
+    private Map<ExportDataSource, long[]> m_sourceStats = new IdentityHashMap<ExportDataSource, long[]>();
+    // Counters as of the last interval, for sources that existed then. Identity maps
+    // because sources of different generations for the same stream are equal
+    private Map<ExportDataSource, long[]> m_lastInterval = new IdentityHashMap<ExportDataSource, long[]>();
+    private boolean m_interval = false;
+
+    public ExportStats() {
+        super(false);
+    }
+
+    @Override
+    protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+        super.populateColumnSchema(columns);
+        columns.add(new ColumnInfo("GENERATION", VoltType.BIGINT));
+        columns.add(new ColumnInfo("TABLE_NAME", VoltType.STRING));
+        columns.add(new ColumnInfo("PARTITION_ID", VoltType.INTEGER));
+        columns.add(new ColumnInfo("BACKLOG_BYTES", VoltType.BIGINT));
+        columns.add(new ColumnInfo("IN_FLIGHT_BUFFERS", VoltType.INTEGER));
+        columns.add(new ColumnInfo("IN_FLIGHT_BYTES", VoltType.BIGINT));
+        columns.add(new ColumnInfo("BUFFERS_ACKED", VoltType.BIGINT));
+        columns.add(new ColumnInfo("ACKS_SENT", VoltType.BIGINT));
+        columns.add(new ColumnInfo("AVG_ACK_LATENCY_MILLIS", VoltType.FLOAT));
+        columns.add(new ColumnInfo("MAX_ACK_LATENCY_MILLIS", VoltType.FLOAT));
+    }
+
+    @Override
+    protected void updateStatsRow(Object rowKey, Object[] rowValues) {
+        final ExportDataSource source = (ExportDataSource)rowKey;
+        final long[] counters = m_sourceStats.get(source).clone();
+        if (m_interval) {
+            final long[] last = m_lastInterval.get(source);
+            m_lastInterval.put(source, m_sourceStats.get(source));
+            if (last != null) {
+                for (int ii = BUFFERS_ACKED; ii <= ACK_LATENCY_NANOS; ii++) {
+                    counters[ii] -= last[ii];
+                }
+            }
+        }
+        final long acked = counters[BUFFERS_ACKED];
+
+        rowValues[columnNameToIndex.get("GENERATION")] = source.getGeneration();
+        rowValues[columnNameToIndex.get("TABLE_NAME")] = source.getTableName();
+        rowValues[columnNameToIndex.get("PARTITION_ID")] = source.getPartitionId();
+        rowValues[columnNameToIndex.get("BACKLOG_BYTES")] = counters[BACKLOG_BYTES];
+        rowValues[columnNameToIndex.get("IN_FLIGHT_BUFFERS")] = (int)counters[IN_FLIGHT_BUFFERS];
+        rowValues[columnNameToIndex.get("IN_FLIGHT_BYTES")] = counters[IN_FLIGHT_BYTES];
+        rowValues[columnNameToIndex.get("BUFFERS_ACKED")] = acked;
+        rowValues[columnNameToIndex.get("ACKS_SENT")] = counters[ACKS_SENT];
+        rowValues[columnNameToIndex.get("AVG_ACK_LATENCY_MILLIS")] =
+            acked == 0 ? 0.0 : counters[ACK_LATENCY_NANOS] / 1e6 / acked;
+        rowValues[columnNameToIndex.get("MAX_ACK_LATENCY_MILLIS")] = counters[MAX_ACK_LATENCY_NANOS] / 1e6;
+        super.updateStatsRow(rowKey, rowValues);
+    }
+
+    List<ExportDataSource> getDataSources() {
+        return ExportManager.getDataSources();
+    }
+
+    @Override
+    protected Iterator<Object> getStatsRowKeyIterator(boolean interval) {
+        final List<ExportDataSource> sources = getDataSources();
+        m_sourceStats = new IdentityHashMap<ExportDataSource, long[]>();
+        for (ExportDataSource source : sources) {
+            m_sourceStats.put(source, source.getStatistics());
+        }
+        m_interval = interval;
+        if (interval) {
+            // Forget sources of drained generations and dropped streams
+            m_lastInterval.keySet().retainAll(m_sourceStats.keySet());
+        }
+        final Iterator<ExportDataSource> i = sources.iterator();
+        return new Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+                return i.hasNext();
+            }
+
+            @Override
+            public Object next() {
+                return i.next();
+            }
+
+            @Override
+            public void remove() {
+                i.remove();
+            }
+        };
+    }
+}
@@ -21,9 +21,12 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.DBBPool;
 import org.voltcore.utils.DBBPool.BBContainer;
 import org.voltdb.utils.BinaryDeque;
 import org.voltdb.utils.BinaryDeque.BinaryDequeReader;
@@ -46,6 +49,13 @@ public class StreamBlockQueue {
 
     private static final VoltLogger exportLog = new VoltLogger("EXPORT");
 
+    /*
+     * Overflow is compressed off the export thread by default, with up to this many blocks
+     * waiting to be compressed. 0 compresses them on the export thread.
+     */
+    private static final int COMPRESSION_PIPELINE_DEPTH = Integer.getInteger("EXPORT_OVERFLOW_COMPRESSION_PIPELINE", 8);
+    private static final PersistentBinaryDeque.Codec CODEC = overflowCodec();
+
     /**
      * Deque containing reference to stream blocks that are in memory. Some of these
      * stream blocks may still be persisted to disk others are stored completely in memory
@@ -60,12 +70,112 @@ public class StreamBlockQueue {
     private final String m_nonce;
     private final BinaryDequeReader m_reader;
 
+    /*
+     * Decodes columnar blocks read from the overflow, and encodes blocks written
+     * to it if m_encodeOverflow is set
+     */
+    private ExportColumnarCodec m_codec;
+    private boolean m_encodeOverflow = false;
+
+    /*
+     * A bad codec name would otherwise fail class initialization and take export down with it
+     */
+    private static PersistentBinaryDeque.Codec overflowCodec() {
+        final PersistentBinaryDeque.Codec defaultCodec = PersistentBinaryDeque.Codec.SNAPPY;
+        final String name = System.getProperty("EXPORT_OVERFLOW_CODEC", defaultCodec.name());
+        try {
+            return PersistentBinaryDeque.Codec.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            exportLog.warn("Unknown EXPORT_OVERFLOW_CODEC \"" + name + "\", using " + defaultCodec +
+                    ". Valid codecs are " + Arrays.toString(PersistentBinaryDeque.Codec.values()));
+            return defaultCodec;
+        }
+    }
+
     public StreamBlockQueue(String path, String nonce) throws java.io.IOException {
-        m_persistentDeque = new PersistentBinaryDeque( nonce, new VoltFile(path), exportLog);
+        m_persistentDeque = new PersistentBinaryDeque( nonce, new VoltFile(path), exportLog, true,
+                Boolean.getBoolean(PersistentBinaryDeque.MAP_SEALED_SEGMENTS), CODEC, COMPRESSION_PIPELINE_DEPTH);
         m_nonce = nonce;
         m_reader = m_persistentDeque.openForRead(m_nonce);
     }
 
+    /**
+     * Provide the column types of the stream so columnar blocks in the overflow can be
+     * decoded, and optionally encode blocks written to the overflow from now on. Blocks
+     * of streams the columnar encoding doesn't support are always written as rows.
+     */
+    public void setColumnTypes(List<Integer> columnTypes, boolean encodeOverflow) {
+        m_codec = new ExportColumnarCodec(columnTypes);
+        m_encodeOverflow = encodeOverflow && ExportColumnarCodec.supports(columnTypes);
+    }
+
+    /*
+     * Replace a container about to be persisted with its columnar encoding,
+     * keeping the container if the encoding doesn't make it smaller
+     */
+    private BBContainer encodeForOverflow(BBContainer cont) {
+        if (!m_encodeOverflow) {
+            return cont;
+        }
+        final ByteBuffer rows = cont.b().duplicate();
+        rows.position(rows.position() + StreamBlock.HEADER_SIZE);
+        final ByteBuffer columnar = m_codec.encode(rows);
+        if (columnar == null) {
+            return cont;
+        }
+        final BBContainer encoded = DBBPool.allocateDirect(StreamBlock.HEADER_SIZE + columnar.remaining());
+        final ByteBuffer uso = cont.b().duplicate();
+        uso.limit(uso.position() + StreamBlock.HEADER_SIZE);
+        encoded.b().put(uso);
+        encoded.b().put(columnar);
+        encoded.b().flip();
+        cont.discard();
+        return encoded;
+    }
+
+    /*
+     * Replace a container read from the overflow with the row block it encodes. The
+     * overflow container is only discarded along with the decoded block, discarding it
+     * tells the persistent deque the block was acked and its segment may be deleted.
+     */
+    private BBContainer decodeFromOverflow(final BBContainer cont) {
+        final ByteBuffer buf = cont.b();
+        final int offset = buf.position() + StreamBlock.HEADER_SIZE;
+        if (!ExportColumnarCodec.isColumnar(buf, offset)) {
+            return cont;
+        }
+        if (m_codec == null) {
+            cont.discard();
+            throw new IllegalStateException("Columnar export block in " + m_nonce + " without column types");
+        }
+        final BBContainer decoded = DBBPool.allocateDirect(
+                StreamBlock.HEADER_SIZE + ExportColumnarCodec.decodedLength(buf, offset));
+        try {
+            final ByteBuffer uso = buf.duplicate();
+            uso.limit(offset);
+            decoded.b().put(uso);
+            final ByteBuffer columnar = buf.duplicate();
+            columnar.position(offset);
+            m_codec.decode(columnar, decoded.b());
+            decoded.b().flip();
+        } catch (RuntimeException e) {
+            decoded.discard();
+            cont.discard();
+            throw e;
+        }
+        return new BBContainer(decoded.b()) {
+            @Override
+            public void discard() {
+                checkDoubleFree();
+                try {
+                    decoded.discard();
+                } finally {
+                    cont.discard();
+                }
+            }
+        };
+    }
+
     public boolean isEmpty() throws IOException {
         if (m_memoryDeque.isEmpty() && m_reader.isEmpty()) {
             return true;
@@ -94,8 +204,8 @@ public class StreamBlockQueue {
             return null;
         } else {
             //If the container is not null, unpack it.
-            final BBContainer fcont = cont;
-            long uso = cont.b().getLong(0);
+            final BBContainer fcont = decodeFromOverflow(cont);
+            long uso = fcont.b().getLong(0);
             //Pass the stream block a subset of the bytes, provide
             //a container that discards the original returned by the persistent deque
             StreamBlock block = new StreamBlock( fcont,
@@ -191,18 +301,36 @@ public class StreamBlockQueue {
         }
     }
 
+    /*
+     * Load blocks from the persistent deque into memory until there are at least
+     * the requested number of blocks with data past the given USO, so a
+     * poll after a fast ack finds its block already read. Blocks are only pulled
+     * from the head of the persistent deque so the order of the queue is unchanged.
+     */
+    public void readAhead(long uso, int blocks) {
+        int loaded = 0;
+        for (StreamBlock sb : m_memoryDeque) {
+            if (sb.uso() + sb.totalUso() > uso) {
+                loaded++;
+            }
+        }
+        while (loaded < blocks && pollPersistentDeque(false) != null) {
+            loaded++;
+        }
+    }
+
     /*
      * Only allow two blocks in memory, put the rest in the persistent deque
      */
     public void offer(StreamBlock streamBlock) throws IOException {
         //Already have two blocks, put it in the deque
         if (m_memoryDeque.size() > 1) {
-            m_persistentDeque.offer(streamBlock.asBBContainer());
+            m_persistentDeque.offer(encodeForOverflow(streamBlock.asBBContainer()));
         } else {
             //Don't offer into the memory deque if there is anything waiting to be
             //polled out of the persistent deque. Check the persistent deque
             if (pollPersistentDeque(false) != null) {
-               m_persistentDeque.offer( streamBlock.asBBContainer());
+               m_persistentDeque.offer(encodeForOverflow(streamBlock.asBBContainer()));
             } else {
             //Persistent deque is empty put this in memory
                m_memoryDeque.offer(streamBlock);
@@ -225,7 +353,7 @@ public class StreamBlockQueue {
                     break;
                 }
                 m_memoryDeque.poll();
-                buffersToPush.offer(sb.asBBContainer());
+                buffersToPush.offer(encodeForOverflow(sb.asBBContainer()));
             }
 
             if (!buffersToPush.isEmpty()) {
@@ -278,6 +406,20 @@ public class StreamBlockQueue {
         @Override
         public TruncatorResponse parse(BBContainer bbc) {
             ByteBuffer b = bbc.b();
+            if (ExportColumnarCodec.isColumnar(b, b.position() + StreamBlock.HEADER_SIZE)) {
+                //Truncate the rows the block encodes, a partial block is written back as rows
+                final int offset = b.position() + StreamBlock.HEADER_SIZE;
+                final ByteBuffer rows = ByteBuffer.allocate(
+                        StreamBlock.HEADER_SIZE + ExportColumnarCodec.decodedLength(b, offset));
+                final ByteBuffer uso = b.duplicate();
+                uso.limit(offset);
+                rows.put(uso);
+                final ByteBuffer columnar = b.duplicate();
+                columnar.position(offset);
+                m_codec.decode(columnar, rows);
+                rows.flip();
+                b = rows;
+            }
             b.order(ByteOrder.LITTLE_ENDIAN);
             try {
                 b.position(b.position() + 8);//Don't need the USO
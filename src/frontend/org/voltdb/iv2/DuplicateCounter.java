@@ -45,12 +45,15 @@ public class DuplicateCounter
     protected static final VoltLogger tmLog = new VoltLogger("TM");
 
     final long m_destinationId;
-    Long m_responseHash = null;
+    long m_responseHash;
+    boolean m_hasResponseHash = false;
     protected VoltMessage m_lastResponse = null;
     protected VoltTable m_lastResultTables[] = null;
     final List<Long> m_expectedHSIds;
     final long m_txnId;
     final VoltMessage m_openMessage;
+    // Next counter with the same spHandle, see DuplicateCounterMap
+    DuplicateCounter m_nextWithSpHandle = null;
 
     DuplicateCounter(
             long destinationHSId,
@@ -132,10 +135,11 @@ public class DuplicateCounter
     protected int checkCommon(long hash, boolean rejoining, VoltTable resultTables[], VoltMessage message)
     {
         if (!rejoining) {
-            if (m_responseHash == null) {
-                m_responseHash = Long.valueOf(hash);
+            if (!m_hasResponseHash) {
+                m_responseHash = hash;
+                m_hasResponseHash = true;
             }
-            else if (!m_responseHash.equals(hash)) {
+            else if (m_responseHash != hash) {
                 tmLog.fatal("Stored procedure " + getStoredProcedureName()
                         + " generated different SQL queries at different partitions."
                         + " Shutting down to preserve data integrity.");
@@ -157,7 +161,7 @@ public class DuplicateCounter
             m_lastResultTables = resultTables;
         }
 
-        m_expectedHSIds.remove(message.m_sourceHSId);
+        removeExpectedHSId(message.m_sourceHSId);
         if (m_expectedHSIds.size() == 0) {
             return DONE;
         }
@@ -166,6 +170,17 @@ public class DuplicateCounter
         }
     }
 
+    // Avoids boxing the HSId on every response
+    private void removeExpectedHSId(long hsId)
+    {
+        for (int ii = 0; ii < m_expectedHSIds.size(); ii++) {
+            if (m_expectedHSIds.get(ii) == hsId) {
+                m_expectedHSIds.remove(ii);
+                return;
+            }
+        }
+    }
+
     int offer(InitiateResponseMessage message)
     {
         ClientResponseImpl r = message.getClientResponseData();
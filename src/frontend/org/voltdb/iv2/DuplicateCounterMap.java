@@ -0,0 +1,109 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.voltdb.iv2;
+
+import org.voltcore.utils.LongObjectHashMap;
+
+/**
+ * The duplicate counters a partition leader has outstanding, keyed by
+ * (txnId, spHandle) without allocating a key per transaction.
+ *
+ * Counters are hashed by spHandle, which is nearly always unique on its own.
+ * The exception is a CompleteTransactionMessage, which takes the current
+ * spHandle and can share it with a transaction that is still waiting on its
+ * replicas, so counters with the same spHandle and different txnIds are
+ * chained through the counters themselves. Not thread safe, SpScheduler uses
+ * it under the mailbox lock.
+ */
+class DuplicateCounterMap
+{
+    /**
+     * Visits the counters, see {@link DuplicateCounterMap#forEach(Visitor)}.
+     */
+    interface Visitor {
+        void visit(long txnId, long spHandle, DuplicateCounter counter);
+    }
+
+    private final LongObjectHashMap<DuplicateCounter> m_bySpHandle = new LongObjectHashMap<DuplicateCounter>();
+    private int m_size = 0;
+
+    DuplicateCounter get(long txnId, long spHandle)
+    {
+        DuplicateCounter counter = m_bySpHandle.get(spHandle);
+        while (counter != null && counter.getTxnId() != txnId) {
+            counter = counter.m_nextWithSpHandle;
+        }
+        return counter;
+    }
+
+    /**
+     * Add a counter for the given spHandle, the counter carries the txnId.
+     * The caller must make sure the key is not already in use.
+     */
+    void put(long spHandle, DuplicateCounter counter)
+    {
+        assert(get(counter.getTxnId(), spHandle) == null);
+        counter.m_nextWithSpHandle = m_bySpHandle.put(spHandle, counter);
+        m_size++;
+    }
+
+    DuplicateCounter remove(long txnId, long spHandle)
+    {
+        DuplicateCounter counter = m_bySpHandle.get(spHandle);
+        DuplicateCounter prev = null;
+        while (counter != null && counter.getTxnId() != txnId) {
+            prev = counter;
+            counter = counter.m_nextWithSpHandle;
+        }
+        if (counter == null) {
+            return null;
+        }
+        if (prev != null) {
+            prev.m_nextWithSpHandle = counter.m_nextWithSpHandle;
+        }
+        else if (counter.m_nextWithSpHandle != null) {
+            m_bySpHandle.put(spHandle, counter.m_nextWithSpHandle);
+        }
+        else {
+            m_bySpHandle.remove(spHandle);
+        }
+        counter.m_nextWithSpHandle = null;
+        m_size--;
+        return counter;
+    }
+
+    int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Visit every counter in no particular order. The visitor must not add or
+     * remove counters.
+     */
+    void forEach(final Visitor visitor)
+    {
+        m_bySpHandle.forEach(new LongObjectHashMap.Visitor<DuplicateCounter>() {
+            @Override
+            public void visit(long spHandle, DuplicateCounter counter) {
+                for (; counter != null; counter = counter.m_nextWithSpHandle) {
+                    visitor.visit(counter.getTxnId(), spHandle, counter);
+                }
+            }
+        });
+    }
+}
@@ -142,6 +142,10 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
     // Manages pending tasks.
     final SiteTaskerQueue m_scheduler;
 
+    // Tasks drained from the scheduler in one go, only touched by the site thread
+    private static final int TASK_BATCH_SIZE = Integer.getInteger("SITE_TASK_BATCH_SIZE", 64);
+    private final SiteTasker[] m_taskBatch = new SiteTasker[TASK_BATCH_SIZE];
+
     /*
      * There is really no legitimate reason to touch the initiator mailbox from the site,
      * but it turns out to be necessary at startup when restoring a snapshot. The snapshot
@@ -738,13 +742,22 @@ public class Site implements Runnable, SiteProcedureConnection, SiteSnapshotConn
         try {
             while (m_shouldContinue) {
                 if (m_rejoinState == kStateRunning) {
-                    // Normal operation blocks the site thread on the sitetasker queue.
-                    SiteTasker task = m_scheduler.take();
-                    if (task instanceof TransactionTask) {
-                        m_currentTxnId = ((TransactionTask)task).getTxnId();
-                        m_lastTxnTime = EstTime.currentTimeMillis();
+                    // Normal operation blocks the site thread on the sitetasker queue,
+                    // then runs every task that queued up in the meantime before checking again.
+                    int count = m_scheduler.drainTo(m_taskBatch);
+                    if (count == 0) {
+                        m_taskBatch[0] = m_scheduler.take();
+                        count = 1;
+                    }
+                    for (int ii = 0; ii < count && m_shouldContinue; ii++) {
+                        final SiteTasker task = m_taskBatch[ii];
+                        m_taskBatch[ii] = null;
+                        if (task instanceof TransactionTask) {
+                            m_currentTxnId = ((TransactionTask)task).getTxnId();
+                            m_lastTxnTime = EstTime.currentTimeMillis();
+                        }
+                        task.run(getSiteProcedureConnection());
                     }
-                    task.run(getSiteProcedureConnection());
                 } else if (m_rejoinState == kStateReplayingRejoin) {
                     // Rejoin operation poll and try to do some catchup work. Tasks
                     // are responsible for logging any rejoin work they might have.
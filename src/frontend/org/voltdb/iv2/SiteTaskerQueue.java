@@ -17,52 +17,192 @@
 
 package org.voltdb.iv2;
 
-import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 import org.voltcore.utils.CoreUtils;
 import org.voltdb.StarvationTracker;
 
-/** SiteTaskerScheduler orders SiteTaskers for execution. */
+/**
+ * SiteTaskerScheduler orders SiteTaskers for execution.
+ *
+ * Any thread may offer a task but only the site thread takes them. Tasks are kept in a chain
+ * of fixed size chunks, a producer claims a slot in the tail chunk with a single atomic increment
+ * so offering a task doesn't allocate a queue node. Only the producer that overflows a chunk
+ * allocates the next one. The site can drain a run of tasks at once with drainTo() and when the
+ * queue is empty it backs off by spinning, then yielding, then parking until a producer wakes it.
+ */
 public class SiteTaskerQueue
 {
-    private final LinkedTransferQueue<SiteTasker> m_tasks = new LinkedTransferQueue<SiteTasker>();
+    static final int CHUNK_SIZE = 1024;
+
+    /*
+     * Back off when the queue is empty. Spins for SITE_QUEUE_SPIN_MICROS (by default the same
+     * as every other queue, QUEUE_SPIN_MICROS) then yields SITE_QUEUE_YIELDS times before parking.
+     */
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(Integer.getInteger(
+            "SITE_QUEUE_SPIN_MICROS", (int)TimeUnit.NANOSECONDS.toMicros(CoreUtils.QUEUE_SPIN_MICROSECONDS)));
+    private static final int YIELDS = Integer.getInteger("SITE_QUEUE_YIELDS", 0);
+
+    private static final class Chunk {
+        final AtomicReferenceArray<SiteTasker> m_slots = new AtomicReferenceArray<SiteTasker>(CHUNK_SIZE);
+        // May run past CHUNK_SIZE, producers that see that move on to the next chunk
+        final AtomicInteger m_claimed = new AtomicInteger(0);
+        final AtomicReference<Chunk> m_next = new AtomicReference<Chunk>();
+    }
+
+    private final AtomicReference<Chunk> m_tail;
+    // Only the site thread moves the head
+    private Chunk m_head;
+    private int m_headIndex = 0;
+    // Set while the site thread is parked or about to park
+    private volatile Thread m_waiter = null;
+
+    private final long m_spinNanos;
+    private final int m_yields;
     private StarvationTracker m_starvationTracker;
 
+    public SiteTaskerQueue()
+    {
+        this(SPIN_NANOS, YIELDS);
+    }
+
+    SiteTaskerQueue(long spinNanos, int yields)
+    {
+        m_head = new Chunk();
+        m_tail = new AtomicReference<Chunk>(m_head);
+        m_spinNanos = spinNanos;
+        m_yields = yields;
+    }
+
     public boolean offer(SiteTasker task)
     {
-        return m_tasks.offer(task);
+        assert(task != null);
+        Chunk tail = m_tail.get();
+        for (;;) {
+            final int slot = tail.m_claimed.getAndIncrement();
+            if (slot < CHUNK_SIZE) {
+                // Volatile store, must be visible before m_waiter is read below
+                tail.m_slots.set(slot, task);
+                break;
+            }
+            // The chunk is full, link in a new one unless another producer beat us to it
+            Chunk next = tail.m_next.get();
+            if (next == null) {
+                final Chunk chunk = new Chunk();
+                next = tail.m_next.compareAndSet(null, chunk) ? chunk : tail.m_next.get();
+            }
+            m_tail.compareAndSet(tail, next);
+            tail = next;
+        }
+        final Thread waiter = m_waiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+        return true;
     }
 
     // Block on the site tasker queue.
     public SiteTasker take() throws InterruptedException
     {
-        SiteTasker task = m_tasks.poll();
+        SiteTasker task = poll();
         if (task == null) {
             m_starvationTracker.beginStarvation();
         } else {
             return task;
         }
         try {
-            return CoreUtils.queueSpinTake(m_tasks);
+            return awaitTask();
         } finally {
             m_starvationTracker.endStarvation();
         }
     }
 
+    private SiteTasker awaitTask() throws InterruptedException
+    {
+        SiteTasker task = null;
+        if (m_spinNanos > 0) {
+            final long start = System.nanoTime();
+            do {
+                if ((task = poll()) != null) return task;
+            } while (System.nanoTime() - start < m_spinNanos);
+        }
+        for (int ii = 0; ii < m_yields; ii++) {
+            Thread.yield();
+            if ((task = poll()) != null) return task;
+        }
+        final Thread self = Thread.currentThread();
+        for (;;) {
+            m_waiter = self;
+            // Catches a task published before the producer could see the waiter
+            if ((task = poll()) != null) {
+                m_waiter = null;
+                return task;
+            }
+            LockSupport.park(this);
+            m_waiter = null;
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if ((task = poll()) != null) return task;
+        }
+    }
+
+    /**
+     * Move as many queued tasks as fit into batch without blocking, in the order they were offered.
+     * Only the site thread may drain the queue.
+     * @return the number of tasks placed at the start of batch
+     */
+    public int drainTo(SiteTasker[] batch)
+    {
+        int count = 0;
+        SiteTasker task = null;
+        while (count < batch.length && (task = poll()) != null) {
+            batch[count++] = task;
+        }
+        return count;
+    }
+
     // Non-blocking poll on the site tasker queue.
     public SiteTasker poll()
     {
-        return m_tasks.poll();
+        final SiteTasker task = peek();
+        if (task != null) {
+            // Don't keep the task reachable from the chunk
+            m_head.m_slots.lazySet(m_headIndex++, null);
+        }
+        return task;
     }
 
     // Non-blocking peek on the site tasker queue.
     public SiteTasker peek()
     {
-        return m_tasks.peek();
+        if (m_headIndex == CHUNK_SIZE) {
+            final Chunk next = m_head.m_next.get();
+            if (next == null) {
+                return null;
+            }
+            m_head = next;
+            m_headIndex = 0;
+        }
+        // Null if the slot isn't claimed yet or its producer hasn't finished storing the task
+        return m_head.m_slots.get(m_headIndex);
     }
 
     public boolean isEmpty() {
-        return m_tasks.isEmpty();
+        Chunk head = m_head;
+        int index = m_headIndex;
+        if (index == CHUNK_SIZE) {
+            head = head.m_next.get();
+            index = 0;
+            if (head == null) {
+                return true;
+            }
+        }
+        return head.m_slots.get(index) == null;
     }
 
     public void setStarvationTracker(StarvationTracker tracker) {
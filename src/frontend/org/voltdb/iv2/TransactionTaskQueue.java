@@ -18,29 +18,51 @@
 package org.voltdb.iv2;
 
 import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.Iterator;
+import java.util.ArrayList;
 
 import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.LongObjectHashMap;
 import org.voltdb.dtxn.TransactionState;
 
 public class TransactionTaskQueue
 {
     protected static final VoltLogger hostLog = new VoltLogger("HOST");
 
+    // Keep a few drained segments around so steady state MP traffic doesn't allocate
+    private static final int MAX_FREE_SEGMENTS = 16;
+
     final protected SiteTaskerQueue m_taskQueue;
 
     /*
-     * Multi-part transactions create a backlog of tasks behind them. A queue is
-     * created for each multi-part task to maintain the backlog until the next
-     * multi-part task.
+     * Multi-part transactions create a backlog of tasks behind them. A segment
+     * is created for each multi-part transaction to hold the tasks that arrive
+     * after it until the next multi-part transaction. The first segment belongs
+     * to the multi-part that is running (its first task has been offered), the
+     * rest are blocked behind it.
+     */
+    private static final class Segment {
+        TransactionTask m_mpTask;
+        // Further tasks for this multi-part that arrived before it reached the head
+        final ArrayList<TransactionTask> m_sameTxn = new ArrayList<TransactionTask>(2);
+        // Tasks that arrived after this multi-part and before the next one
+        final ArrayDeque<TransactionTask> m_followers = new ArrayDeque<TransactionTask>();
+    }
+
+    private final ArrayDeque<Segment> m_segments = new ArrayDeque<Segment>();
+    private final LongObjectHashMap<Segment> m_segmentsByTxnId = new LongObjectHashMap<Segment>();
+    private final ArrayDeque<Segment> m_freeSegments = new ArrayDeque<Segment>();
+
+    /*
+     * Number of tasks in the backlog, including the running multi-part's first
+     * task. Only written with the monitor held, but read without it by the
+     * single part fast path in offer() and by size().
      */
-    private Deque<TransactionTask> m_backlog = new ArrayDeque<TransactionTask>();
+    private volatile int m_backlogSize = 0;
 
     /*
      * Track the maximum spHandle offered to the task queue
      */
-    private long m_maxTaskedSpHandle;
+    private volatile long m_maxTaskedSpHandle;
 
     TransactionTaskQueue(SiteTaskerQueue queue, long initialSpHandle)
     {
@@ -50,47 +72,83 @@ public class TransactionTaskQueue
 
     /**
      * If necessary, stick this task in the backlog.
-     * Many network threads may be racing to reach here, synchronize to
-     * serialize queue order
+     * Callers serialize offers (the scheduler holds its mailbox lock), so a
+     * single part that finds the backlog empty can go straight to the site
+     * without the monitor: only an offer can make the backlog non-empty, and
+     * flush() shrinks the backlog only after the tasks it releases are queued.
      * @param task
      * @return true if this task was stored, false if not
      */
-    synchronized boolean offer(TransactionTask task)
+    boolean offer(TransactionTask task)
     {
         Iv2Trace.logTransactionTaskQueueOffer(task);
         TransactionState txnState = task.getTransactionState();
-        m_maxTaskedSpHandle = Math.max(m_maxTaskedSpHandle, txnState.m_spHandle);
-        boolean retval = false;
-        if (!m_backlog.isEmpty()) {
-            /*
-             * This branch happens during regular execution when a multi-part is in progress.
-             * The first task for the multi-part is the head of the queue, and all the single parts
-             * are being queued behind it. The txnid check catches tasks that are part of the multi-part
-             * and immediately queues them for execution.
-             */
-            if (task.getTxnId() != m_backlog.getFirst().getTxnId())
-            {
-                m_backlog.addLast(task);
-                retval = true;
-            }
-            else {
-                taskQueueOffer(task);
-            }
+        if (txnState.m_spHandle > m_maxTaskedSpHandle) {
+            m_maxTaskedSpHandle = txnState.m_spHandle;
+        }
+        if (m_backlogSize == 0 && txnState.isSinglePartition()) {
+            taskQueueOffer(task);
+            return false;
+        }
+        synchronized (this) {
+            return offerToBacklog(task, txnState);
         }
-        else {
+    }
+
+    private boolean offerToBacklog(TransactionTask task, TransactionState txnState)
+    {
+        final Segment head = m_segments.peekFirst();
+        if (head == null) {
             /*
              * Base case nothing queued nothing in progress
-             * If the task is a multipart then put an entry in the backlog which
+             * If the task is a multipart then create a segment which
              * will act as a barrier for single parts, queuing them for execution after the
              * multipart
              */
-            if (!txnState.isSinglePartition()) {
-                m_backlog.addLast(task);
-                retval = true;
+            if (txnState.isSinglePartition()) {
+                taskQueueOffer(task);
+                return false;
             }
+            addSegment(task);
+            taskQueueOffer(task);
+            return true;
+        }
+        /*
+         * This branch happens during regular execution when a multi-part is in progress.
+         * The first task for the multi-part is the head of the queue, and all the single parts
+         * are being queued behind it. The txnid check catches tasks that are part of the multi-part
+         * and immediately queues them for execution.
+         */
+        if (task.getTxnId() == head.m_mpTask.getTxnId()) {
             taskQueueOffer(task);
+            return false;
+        }
+        if (!txnState.isSinglePartition()) {
+            final Segment segment = m_segmentsByTxnId.get(task.getTxnId());
+            if (segment != null) {
+                segment.m_sameTxn.add(task);
+                m_backlogSize++;
+            }
+            else {
+                addSegment(task);
+            }
+            return true;
         }
-        return retval;
+        m_segments.peekLast().m_followers.addLast(task);
+        m_backlogSize++;
+        return true;
+    }
+
+    private void addSegment(TransactionTask task)
+    {
+        Segment segment = m_freeSegments.pollFirst();
+        if (segment == null) {
+            segment = new Segment();
+        }
+        segment.m_mpTask = task;
+        m_segments.addLast(segment);
+        m_segmentsByTxnId.put(task.getTxnId(), segment);
+        m_backlogSize++;
     }
 
     // Add a local method to offer to the SiteTaskerQueue so we have
@@ -115,9 +173,8 @@ public class TransactionTaskQueue
      */
     synchronized int flush(long txnId)
     {
-        int offered = 0;
-        // If the first entry of the backlog is a completed transaction, clear it so it no longer
-        // blocks the backlog then iterate the backlog for more work.
+        // If the first segment belongs to a completed transaction, release the tasks
+        // queued behind it up to and including the next multi-part.
         //
         // Note the kooky corner case where a multi-part transaction can actually have multiple outstanding
         // tasks. At first glance you would think that because the relationship is request response there
@@ -130,38 +187,46 @@ public class TransactionTaskQueue
         // If we don't flush all the associated tasks now then flush won't be called again because it is waiting
         // for the complete transaction task that is languishing in the queue to do the flush post multi-part.
         // It can't be called eagerly because that would destructively flush single parts as well.
-        if (m_backlog.isEmpty() || !m_backlog.getFirst().getTransactionState().isDone()) {
-            return offered;
+        // Those tasks are kept with their multi-part's segment so they are released along with it.
+        final Segment done = m_segments.peekFirst();
+        if (done == null || !done.m_mpTask.getTransactionState().isDone()) {
+            return 0;
         }
-        m_backlog.removeFirst();
-        Iterator<TransactionTask> iter = m_backlog.iterator();
-        while (iter.hasNext()) {
-            TransactionTask task = iter.next();
-            long lastQueuedTxnId = task.getTxnId();
+        m_segments.removeFirst();
+        m_segmentsByTxnId.remove(done.m_mpTask.getTxnId());
+        int offered = 0;
+        TransactionTask task;
+        while ((task = done.m_followers.pollFirst()) != null) {
             taskQueueOffer(task);
             ++offered;
-            if (task.getTransactionState().isSinglePartition()) {
-                // single part can be immediately removed and offered
-                iter.remove();
-                continue;
-            }
-            else {
-                // leave the mp fragment at the head of the backlog but
-                // iterate and take care of the kooky case explained above.
-                while (iter.hasNext()) {
-                    task = iter.next();
-                    if (task.getTxnId() == lastQueuedTxnId) {
-                        iter.remove();
-                        taskQueueOffer(task);
-                        ++offered;
-                    }
-                }
-                break;
+        }
+        // The completed multi-part leaves the backlog, the next one stays as its head
+        int released = offered + 1;
+        final Segment next = m_segments.peekFirst();
+        if (next != null) {
+            taskQueueOffer(next.m_mpTask);
+            ++offered;
+            for (int ii = 0; ii < next.m_sameTxn.size(); ii++) {
+                taskQueueOffer(next.m_sameTxn.get(ii));
+                ++offered;
+                ++released;
             }
+            next.m_sameTxn.clear();
         }
+        // Only shrink the backlog once everything released is queued, see offer()
+        m_backlogSize -= released;
+        recycle(done);
         return offered;
     }
 
+    private void recycle(Segment segment)
+    {
+        segment.m_mpTask = null;
+        if (m_freeSegments.size() < MAX_FREE_SEGMENTS) {
+            m_freeSegments.addLast(segment);
+        }
+    }
+
     /**
      * Restart the current task at the head of the queue.  This will be called
      * instead of flush by the currently blocking MP transaction in the event a
@@ -169,16 +234,16 @@ public class TransactionTaskQueue
      */
     synchronized void restart()
     {
-        taskQueueOffer(m_backlog.getFirst());
+        taskQueueOffer(m_segments.getFirst().m_mpTask);
     }
 
     /**
      * How many Tasks are un-runnable?
      * @return
      */
-    synchronized int size()
+    int size()
     {
-        return m_backlog.size();
+        return m_backlogSize;
     }
 
     @Override
@@ -187,8 +252,10 @@ public class TransactionTaskQueue
         StringBuilder sb = new StringBuilder();
         sb.append("TransactionTaskQueue:").append("\n");
         sb.append("\tSIZE: ").append(size());
-        if (!m_backlog.isEmpty()) {
-            sb.append("\tHEAD: ").append(m_backlog.getFirst());
+        synchronized (this) {
+            if (!m_segments.isEmpty()) {
+                sb.append("\tHEAD: ").append(m_segments.getFirst().m_mpTask);
+            }
         }
         return sb.toString();
     }
@@ -435,6 +435,167 @@ public class SQLLexer extends SQLPatternFactory
         return statements;
     }
 
+    /**
+     * A statement with its literals taken out by {@link #parameterizeLiterals}.
+     */
+    public static class ParameterizedStatement
+    {
+        /** Statement text with each literal replaced by a placeholder for its kind */
+        public final String key;
+        /** Literal values in the order they appear, as the SQL parser would report them */
+        public final String[] literals;
+
+        ParameterizedStatement(String key, String[] literals)
+        {
+            this.key = key;
+            this.literals = literals;
+        }
+    }
+
+    /**
+     * Replace the string and numeric literals of a single statement with typed placeholders,
+     * without parsing it. Statements that differ only in the values of their literals get the
+     * same key, unless a literal changes kind, e.g. from an integer to a bigint or a decimal.
+     *
+     * Integers and floats are normalized the way the SQL parser reports them. Statements with
+     * comments, parameters, escapes or prefixed strings return null rather than risking a key
+     * shared with a different statement.
+     *
+     * @param sql  text of a single statement
+     * @return     the parameterized statement, or null if it couldn't be parameterized
+     */
+    public static ParameterizedStatement parameterizeLiterals(final String sql)
+    {
+        final StringBuilder key = new StringBuilder(sql.length());
+        final List<String> literals = new ArrayList<String>();
+        final int length = sql.length();
+        int iCur = 0;
+        while (iCur < length) {
+            char c = sql.charAt(iCur);
+            if (Character.isWhitespace(c)) {
+                // Collapse runs of whitespace.
+                while (iCur < length && Character.isWhitespace(sql.charAt(iCur))) {
+                    iCur++;
+                }
+                key.append(' ');
+            }
+            else if (c == '\'') {
+                // String literal, with '' standing for a quote.
+                StringBuilder value = new StringBuilder();
+                iCur++;
+                while (true) {
+                    if (iCur >= length) {
+                        return null;
+                    }
+                    c = sql.charAt(iCur++);
+                    if (c == '\'') {
+                        if (iCur < length && sql.charAt(iCur) == '\'') {
+                            value.append(c);
+                            iCur++;
+                        }
+                        else {
+                            break;
+                        }
+                    }
+                    else if (c == '\\') {
+                        return null;
+                    }
+                    else {
+                        value.append(c);
+                    }
+                }
+                key.append("?s");
+                literals.add(value.toString());
+            }
+            else if (c == '"') {
+                // Quoted identifier, kept as is.
+                int iEnd = sql.indexOf('"', iCur + 1);
+                if (iEnd < 0) {
+                    return null;
+                }
+                key.append(sql, iCur, iEnd + 1);
+                iCur = iEnd + 1;
+            }
+            else if (Character.isLetter(c) || c == '_') {
+                int iStart = iCur;
+                while (iCur < length && isIdentifierPart(sql.charAt(iCur))) {
+                    iCur++;
+                }
+                // Prefixed strings like X'00' have their own types.
+                if (iCur < length && sql.charAt(iCur) == '\'') {
+                    return null;
+                }
+                key.append(sql, iStart, iCur);
+            }
+            else if (Character.isDigit(c) ||
+                     (c == '.' && iCur + 1 < length && Character.isDigit(sql.charAt(iCur + 1)))) {
+                int iStart = iCur;
+                boolean isDecimal = false;
+                boolean isFloat = false;
+                while (iCur < length && Character.isDigit(sql.charAt(iCur))) {
+                    iCur++;
+                }
+                if (iCur < length && sql.charAt(iCur) == '.') {
+                    isDecimal = true;
+                    iCur++;
+                    while (iCur < length && Character.isDigit(sql.charAt(iCur))) {
+                        iCur++;
+                    }
+                }
+                if (iCur < length && (sql.charAt(iCur) == 'e' || sql.charAt(iCur) == 'E')) {
+                    isFloat = true;
+                    iCur++;
+                    if (iCur < length && (sql.charAt(iCur) == '+' || sql.charAt(iCur) == '-')) {
+                        iCur++;
+                    }
+                    if (iCur >= length || !Character.isDigit(sql.charAt(iCur))) {
+                        return null;
+                    }
+                    while (iCur < length && Character.isDigit(sql.charAt(iCur))) {
+                        iCur++;
+                    }
+                }
+                if (iCur < length && (isIdentifierPart(sql.charAt(iCur)) || sql.charAt(iCur) == '.')) {
+                    return null;
+                }
+                String value = sql.substring(iStart, iCur);
+                if (isFloat) {
+                    key.append("?f");
+                    value = Double.toString(Double.parseDouble(value));
+                }
+                else if (isDecimal) {
+                    key.append("?d");
+                }
+                else if (value.length() <= 18) {
+                    long longValue = Long.parseLong(value);
+                    key.append(longValue <= Integer.MAX_VALUE ? "?i" : "?b");
+                    value = Long.toString(longValue);
+                }
+                else {
+                    // Too long to be sure it fits a bigint.
+                    return null;
+                }
+                literals.add(value);
+            }
+            else if (c == '?' || c == ';' ||
+                     (c == '-' && iCur + 1 < length && sql.charAt(iCur + 1) == '-') ||
+                     (c == '/' && iCur + 1 < length && sql.charAt(iCur + 1) == '*')) {
+                // Parameters, comments or several statements.
+                return null;
+            }
+            else {
+                key.append(c);
+                iCur++;
+            }
+        }
+        return new ParameterizedStatement(key.toString(), literals.toArray(new String[literals.size()]));
+    }
+
+    private static boolean isIdentifierPart(char c)
+    {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
     /**
      * Check if a statement is a SELECT.
      * @param statement  statement to check
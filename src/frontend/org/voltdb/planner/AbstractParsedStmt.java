@@ -71,10 +71,16 @@ public abstract class AbstractParsedStmt {
 
     protected String m_contentDeterminismMessage = null;
 
-     // Internal statement counter
-    public static int NEXT_STMT_ID = 0;
-    // Internal parameter counter
-    public static int NEXT_PARAMETER_ID = 0;
+    // Internal statement and parameter counters. They are kept per thread
+    // so that the ad hoc planner threads can parse statements concurrently.
+    private static final ThreadLocal<int[]> NEXT_IDS = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[2];
+        }
+    };
+    private static final int STMT_ID = 0;
+    private static final int PARAMETER_ID = 1;
     // The unique id to identify the statement
     public int m_stmtId;
 
@@ -181,7 +187,7 @@ public abstract class AbstractParsedStmt {
            throw new RuntimeException("Unexpected Element: " + stmtTypeElement.name);
        }
        // Set the unique id
-       retval.m_stmtId = NEXT_STMT_ID++;
+       retval.m_stmtId = nextStmtId();
        return retval;
    }
 
@@ -216,14 +222,29 @@ public abstract class AbstractParsedStmt {
             Database db, String joinOrder) {
 
         // reset the statement counters
-        NEXT_STMT_ID = 0;
-        NEXT_PARAMETER_ID = 0;
+        final int[] nextIds = NEXT_IDS.get();
+        nextIds[STMT_ID] = 0;
+        nextIds[PARAMETER_ID] = 0;
         AbstractParsedStmt retval = getParsedStmt(stmtTypeElement, paramValues, db);
 
         parse(retval, sql, stmtTypeElement, db, joinOrder);
         return retval;
     }
 
+    /**
+     * @return the next unique id for a statement or subquery of the statement being parsed
+     */
+    public static int nextStmtId() {
+        return NEXT_IDS.get()[STMT_ID]++;
+    }
+
+    /**
+     * @return the next unique index for a parameter of the statement being parsed
+     */
+    public static int nextParameterId() {
+        return NEXT_IDS.get()[PARAMETER_ID]++;
+    }
+
     /**
      *
      * @param stmtElement
@@ -499,7 +520,7 @@ public abstract class AbstractParsedStmt {
         }
 
         // This is a TVE from the correlated expression
-        int paramIdx = NEXT_PARAMETER_ID++;
+        int paramIdx = nextParameterId();
         ParameterValueExpression pve = new ParameterValueExpression(paramIdx, expr);
         m_parameterTveMap.put(paramIdx, expr);
         return pve;
@@ -953,13 +974,13 @@ public abstract class AbstractParsedStmt {
     protected AbstractExpression replaceExpressionsWithPve(AbstractExpression expr) {
         assert(expr != null);
         if (expr instanceof TupleValueExpression) {
-            int paramIdx = NEXT_PARAMETER_ID++;
+            int paramIdx = nextParameterId();
             ParameterValueExpression pve = new ParameterValueExpression(paramIdx, expr);
             m_parameterTveMap.put(paramIdx, expr);
             return pve;
         }
         if (expr instanceof AggregateExpression) {
-            int paramIdx = NEXT_PARAMETER_ID++;
+            int paramIdx = nextParameterId();
             ParameterValueExpression pve = new ParameterValueExpression(paramIdx, expr);
             // Disallow aggregation of parent columns in a subquery.
             // except the case HAVING AGG(T1.C1) IN (SELECT T2.C2 ...)
@@ -1253,8 +1274,9 @@ public abstract class AbstractParsedStmt {
                 m_paramsByIndex.put(index, pve);
             }
         }
-        if (max_parameter_id >= NEXT_PARAMETER_ID) {
-            NEXT_PARAMETER_ID = (int)max_parameter_id + 1;
+        final int[] nextIds = NEXT_IDS.get();
+        if (max_parameter_id >= nextIds[PARAMETER_ID]) {
+            nextIds[PARAMETER_ID] = (int)max_parameter_id + 1;
         }
     }
 
@@ -238,6 +238,10 @@ class ParameterizationInfo {
     }
 
     public ParameterSet extractedParamValues(VoltType[] parameterTypes) {
+        return paramValuesForLiterals(paramLiteralValues, parameterTypes);
+    }
+
+    static ParameterSet paramValuesForLiterals(String[] paramLiteralValues, VoltType[] parameterTypes) {
         assert(paramLiteralValues.length == parameterTypes.length);
         Object[] params = new Object[paramLiteralValues.length];
 
@@ -123,7 +123,7 @@ public class ParsedUnionStmt extends AbstractParsedStmt {
             if (childSQL.name.equalsIgnoreCase(SELECT_NODE_NAME)) {
                 childStmt = new ParsedSelectStmt(m_paramValues, m_db);
                 // Assign every child a unique ID
-                childStmt.m_stmtId = AbstractParsedStmt.NEXT_STMT_ID++;
+                childStmt.m_stmtId = AbstractParsedStmt.nextStmtId();
                 childStmt.m_parentStmt = m_parentStmt;
                 childStmt.setParentAsUnionClause();
 
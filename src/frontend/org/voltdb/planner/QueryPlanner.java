@@ -19,6 +19,7 @@ package org.voltdb.planner;
 
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.hsqldb_voltpatches.HSQLInterface;
@@ -237,6 +238,46 @@ public class QueryPlanner {
         return m_paramzInfo.extractedParamValues(parameterTypes);
     }
 
+    /**
+     * Check that the given literal values of the statement only made it into the
+     * parameterized statement as parameters. Some are also kept as attributes,
+     * e.g. the LIMIT, so their values are part of the statement's identity.
+     */
+    public boolean literalsOnlyInParameters(String[] literals) {
+        if (m_paramzInfo == null) {
+            return false;
+        }
+        Set<String> values = new HashSet<String>();
+        for (String literal : literals) {
+            values.add(literal);
+        }
+        return literalsOnlyInParameters(m_paramzInfo.parameterizedXmlSQL, values);
+    }
+
+    private static boolean literalsOnlyInParameters(VoltXMLElement xml, Set<String> values) {
+        for (Map.Entry<String, String> attribute : xml.attributes.entrySet()) {
+            // ids and indexes are assigned by the parser, not taken from the text
+            if (!attribute.getKey().equals("id") && !attribute.getKey().equals("index") &&
+                    values.contains(attribute.getValue())) {
+                return false;
+            }
+        }
+        for (VoltXMLElement child : xml.children) {
+            if (!literalsOnlyInParameters(child, values)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Convert literals taken out of a statement without parsing it to the parameter
+     * values of a cached plan, like {@link #extractedParamValues} does for parsed ones.
+     */
+    public static ParameterSet paramValuesForLiterals(String[] literals, VoltType[] parameterTypes) {
+        return ParameterizationInfo.paramValuesForLiterals(literals, parameterTypes);
+    }
+
     /**
      * Get the best plan for the SQL statement given, assuming the given costModel.
      *
@@ -20,13 +20,17 @@ package org.voltdb.planner;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.voltdb.VoltType;
 import org.voltdb.catalog.Database;
+import org.voltdb.catalog.Index;
 import org.voltdb.expressions.AbstractExpression;
+import org.voltdb.expressions.AbstractSubqueryExpression;
 import org.voltdb.expressions.ExpressionUtil;
 import org.voltdb.expressions.TupleValueExpression;
 import org.voltdb.planner.parseinfo.BranchNode;
@@ -37,12 +41,19 @@ import org.voltdb.planner.parseinfo.SubqueryLeafNode;
 import org.voltdb.plannodes.AbstractJoinPlanNode;
 import org.voltdb.plannodes.AbstractPlanNode;
 import org.voltdb.plannodes.AbstractReceivePlanNode;
+import org.voltdb.plannodes.HashJoinPlanNode;
 import org.voltdb.plannodes.IndexScanPlanNode;
 import org.voltdb.plannodes.MaterializedScanPlanNode;
+import org.voltdb.plannodes.MergeJoinPlanNode;
 import org.voltdb.plannodes.NestLoopIndexPlanNode;
 import org.voltdb.plannodes.NestLoopPlanNode;
+import org.voltdb.plannodes.SeqScanPlanNode;
+import org.voltdb.types.ExpressionType;
+import org.voltdb.types.IndexLookupType;
+import org.voltdb.types.IndexType;
 import org.voltdb.types.JoinType;
 import org.voltdb.types.PlanNodeType;
+import org.voltdb.types.SortDirectionType;
 import org.voltdb.utils.PermutationGenerator;
 
 /**
@@ -62,16 +73,25 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
     /** The list of all possible join orders, assembled by queueAllJoinOrders */
     private ArrayDeque<JoinNode> m_joinOrders = new ArrayDeque<JoinNode>();
 
+    // Merge joins scan whole indexes, which only the statistics cost model weighs fairly
+    // against the index scans of the other plans
+    private final boolean m_considerMergeJoins;
+    // Set while building the variant of a plan that uses this join type for every join it can
+    private PlanNodeType m_preferredJoinType = null;
+
     /**
      *
      * @param db The catalog's Database object.
      * @param selectStmt The parsed and dissected statement object describing the sql to execute.
      * @param partitioning in/out param first element is partition key value, forcing a single-partition statement if non-null,
      * second may be an inferred partition key if no explicit single-partitioning was specified
+     * @param hasStatistics True if plans are costed from gathered table statistics
      */
-    SelectSubPlanAssembler(Database db, ParsedSelectStmt selectStmt, StatementPartitioning partitioning)
+    SelectSubPlanAssembler(Database db, ParsedSelectStmt selectStmt, StatementPartitioning partitioning,
+                           boolean hasStatistics)
     {
         super(db, selectStmt, partitioning);
+        m_considerMergeJoins = hasStatistics;
         if (selectStmt.hasJoinOrder()) {
             // If a join order was provided or large number of tables join
             m_joinOrders.addAll(selectStmt.getJoinOrder());
@@ -313,7 +333,34 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
 
             generateMorePlansForJoinTree(joinTree);
         }
-        return m_plans.poll();
+        AbstractPlanNode plan = m_plans.poll();
+        if (plan != null) {
+            connectSubqueryPlans(plan);
+        }
+        return plan;
+    }
+
+    /**
+     * The plans of a join order share the best cost plans of their FROM clause sub-queries,
+     * which are left attached to the plan built last. Re-attach them to the plan being handed
+     * out so that it gets costed and completed with them, whichever plan it is.
+     *
+     * @param plan The plan to attach the sub-query plans to.
+     */
+    private static void connectSubqueryPlans(AbstractPlanNode plan) {
+        if (plan instanceof SeqScanPlanNode &&
+                ((SeqScanPlanNode)plan).getTableScan() instanceof StmtSubqueryScan) {
+            AbstractPlanNode subQueryRoot =
+                    ((StmtSubqueryScan)((SeqScanPlanNode)plan).getTableScan()).getBestCostPlan().rootPlanGraph;
+            if (subQueryRoot.getParentCount() == 0 || subQueryRoot.getParent(0) != plan) {
+                subQueryRoot.disconnectParents();
+                plan.addAndLinkChild(subQueryRoot);
+            }
+            return;
+        }
+        for (int i = 0; i < plan.getChildCount(); ++i) {
+            connectSubqueryPlans(plan.getChild(i));
+        }
     }
 
     /**
@@ -535,6 +582,13 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
                     continue;
                 }
                 m_plans.add(plan);
+                // Let the cost model weigh hash and merge joins against the nested loops
+                if (plan.hasAnyNodeOfType(PlanNodeType.NESTLOOP)) {
+                    addJoinVariantPlan(rootNode, PlanNodeType.HASHJOIN);
+                    if (m_considerMergeJoins) {
+                        addJoinVariantPlan(rootNode, PlanNodeType.MERGEJOIN);
+                    }
+                }
             }
             return;
         }
@@ -545,6 +599,22 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
         }
     }
 
+    /**
+     * Rebuild the plan for the current access paths using the given join type
+     * wherever it applies, and add it to the generated plans if it applied anywhere.
+     *
+     * @param rootNode The root node for the whole join tree.
+     * @param joinType HASHJOIN or MERGEJOIN
+     */
+    private void addJoinVariantPlan(JoinNode rootNode, PlanNodeType joinType) {
+        m_preferredJoinType = joinType;
+        AbstractPlanNode plan = getSelectSubPlanForJoinNode(rootNode);
+        m_preferredJoinType = null;
+        if (plan != null && plan.hasAnyNodeOfType(joinType)) {
+            m_plans.add(plan);
+        }
+    }
+
     /**
      * Given a specific join node and access path set for inner and outer tables, construct the plan
      * that gives the right tuples.
@@ -704,7 +774,6 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
 
         AbstractJoinPlanNode ajNode = null;
         if (canHaveNLJ) {
-            NestLoopPlanNode nljNode = new NestLoopPlanNode();
             // get all the clauses that join the applicable two tables
             // Copy innerAccessPath.joinExprs to leave it unchanged,
             // avoiding accumulation of redundant expressions when
@@ -745,24 +814,43 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
                 // the inner node ONLY, that can not be pushed down.
                 joinClauses.addAll(innerAccessPath.otherExprs);
             }
-            nljNode.setJoinPredicate(ExpressionUtil.combinePredicates(joinClauses));
 
-            // combine the tails plan graph with the new head node
-            nljNode.addAndLinkChild(outerPlan);
-
-            // If successful in the special case, the NLJ plan must be modified to cause the
-            // partitioned inner data to be sent to the coordinator prior to the join.
-            // This is done by adding send and receive plan nodes between the NLJ and its
-            // right child node.
-            if (needInnerSendReceive) {
-                // This trick only works once per plan.
-                if (outerPlan.hasAnyNodeOfClass(AbstractReceivePlanNode.class) || innerPlan.hasAnyNodeOfClass(AbstractReceivePlanNode.class)) {
-                    return null;
-                }
-                innerPlan = addSendReceivePair(innerPlan);
+            // The inner plan does not depend on the outer row here, so an equi-join
+            // can hash the inner rows once rather than rescanning them for every outer row.
+            // Joins that an index matches are left to the nested loop index plans.
+            // When both inputs can be scanned in join key order, they can instead be merged
+            // in a single pass, even where an NLIJ would look up the inner index per outer row.
+            AbstractJoinPlanNode nljNode = null;
+            if (m_preferredJoinType == PlanNodeType.MERGEJOIN) {
+                nljNode = getMergeJoinNode(joinNode, joinClauses, outerPlan, innerPlan, needInnerSendReceive);
             }
+            else if (m_preferredJoinType == PlanNodeType.HASHJOIN && ! hasJoinIndexAccessPath(innerJoinNode)) {
+                nljNode = getHashJoinNode(joinNode, joinClauses);
+            }
+            if (nljNode == null) {
+                nljNode = new NestLoopPlanNode();
+                nljNode.setJoinPredicate(ExpressionUtil.combinePredicates(joinClauses));
+            }
+
+            // The merge join node comes linked to its ordered inputs
+            if (nljNode.getChildCount() == 0) {
+                // combine the tails plan graph with the new head node
+                nljNode.addAndLinkChild(outerPlan);
 
-            nljNode.addAndLinkChild(innerPlan);
+                // If successful in the special case, the NLJ plan must be modified to cause the
+                // partitioned inner data to be sent to the coordinator prior to the join.
+                // This is done by adding send and receive plan nodes between the NLJ and its
+                // right child node.
+                if (needInnerSendReceive) {
+                    // This trick only works once per plan.
+                    if (outerPlan.hasAnyNodeOfClass(AbstractReceivePlanNode.class) || innerPlan.hasAnyNodeOfClass(AbstractReceivePlanNode.class)) {
+                        return null;
+                    }
+                    innerPlan = addSendReceivePair(innerPlan);
+                }
+
+                nljNode.addAndLinkChild(innerPlan);
+            }
             ajNode = nljNode;
         }
         else if (canHaveNLIJ) {
@@ -792,6 +880,247 @@ public class SelectSubPlanAssembler extends SubPlanAssembler {
         return ajNode;
     }
 
+    /**
+     * Check whether any access path of the inner leaf node looks up its index
+     * with values from the outer tables.
+     */
+    private static boolean hasJoinIndexAccessPath(JoinNode innerJoinNode) {
+        if (innerJoinNode instanceof BranchNode) {
+            return false;
+        }
+        for (AccessPath path : innerJoinNode.m_accessPaths) {
+            if (path.index != null &&
+                    hasInnerOuterIndexExpression(innerJoinNode.getTableAlias(),
+                                                 path.indexExprs, path.initialExpr, path.endExprs)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Build a hash join node for a join whose clauses include at least one equality
+     * between an expression of the outer tables and an expression of the inner tables.
+     * Those equalities become the hash keys and the other clauses stay as the join predicate.
+     *
+     * @param joinNode The join node to build the plan for.
+     * @param joinClauses The clauses that join the outer and inner branches.
+     * @return a hash join node or null if the join can not use one.
+     */
+    private static HashJoinPlanNode getHashJoinNode(BranchNode joinNode, List<AbstractExpression> joinClauses) {
+        // The executor null-pads unmatched outer rows but does not track unmatched inner rows
+        if (joinNode.getJoinType() != JoinType.INNER && joinNode.getJoinType() != JoinType.LEFT) {
+            return null;
+        }
+        Collection<String> outerTables = joinNode.getLeftNode().generateTableJoinOrder();
+        Collection<String> innerTables = joinNode.getRightNode().generateTableJoinOrder();
+        HashJoinPlanNode hjNode = new HashJoinPlanNode();
+        List<AbstractExpression> otherClauses = new ArrayList<AbstractExpression>();
+        for (AbstractExpression clause : joinClauses) {
+            if (clause.getExpressionType() == ExpressionType.COMPARE_EQUAL &&
+                    isJoinKeyPair(clause.getLeft(), clause.getRight())) {
+                if (isJoinKey(clause.getLeft(), outerTables) && isJoinKey(clause.getRight(), innerTables)) {
+                    hjNode.addHashExpressions(clause.getLeft(), clause.getRight());
+                    continue;
+                }
+                if (isJoinKey(clause.getRight(), outerTables) && isJoinKey(clause.getLeft(), innerTables)) {
+                    hjNode.addHashExpressions(clause.getRight(), clause.getLeft());
+                    continue;
+                }
+            }
+            otherClauses.add(clause);
+        }
+        if (hjNode.getOuterHashExpressions().isEmpty()) {
+            return null;
+        }
+        hjNode.setJoinPredicate(ExpressionUtil.combinePredicates(otherClauses));
+        return hjNode;
+    }
+
+    /**
+     * Build a merge join node for a join whose clauses include an equality between
+     * an expression of the outer tables and an expression of the inner tables that
+     * both inputs can be produced in ascending order of. That equality becomes the
+     * merge key and the other clauses stay as the join predicate.
+     * The node is returned linked to the ordered outer and inner plans, with the inner
+     * plan sent to the coordinator through a merging receive in the special case.
+     *
+     * @param joinNode The join node to build the plan for.
+     * @param joinClauses The clauses that join the outer and inner branches.
+     * @param outerPlan The outer node plan-sub-graph.
+     * @param innerPlan The inner node plan-sub-graph.
+     * @param needInnerSendReceive True if the inner data must be sent to the coordinator before the join.
+     * @return a merge join node or null if the join can not use one.
+     */
+    private static MergeJoinPlanNode getMergeJoinNode(BranchNode joinNode,
+                                                      List<AbstractExpression> joinClauses,
+                                                      AbstractPlanNode outerPlan,
+                                                      AbstractPlanNode innerPlan,
+                                                      boolean needInnerSendReceive) {
+        // The executor null-pads unmatched outer rows but does not track unmatched inner rows
+        if (joinNode.getJoinType() != JoinType.INNER && joinNode.getJoinType() != JoinType.LEFT) {
+            return null;
+        }
+        // The send/receive trick only works once per plan.
+        if (needInnerSendReceive &&
+                (outerPlan.hasAnyNodeOfClass(AbstractReceivePlanNode.class) ||
+                 innerPlan.hasAnyNodeOfClass(AbstractReceivePlanNode.class))) {
+            return null;
+        }
+        Collection<String> outerTables = joinNode.getLeftNode().generateTableJoinOrder();
+        Collection<String> innerTables = joinNode.getRightNode().generateTableJoinOrder();
+        MergeJoinPlanNode mjNode = new MergeJoinPlanNode();
+        List<AbstractExpression> otherClauses = new ArrayList<AbstractExpression>();
+        for (AbstractExpression clause : joinClauses) {
+            // Only one key is merged on. Ordering on it says nothing about the order of the others.
+            if (mjNode.getOuterKeyExpressions().isEmpty() &&
+                    clause.getExpressionType() == ExpressionType.COMPARE_EQUAL &&
+                    isJoinKeyPair(clause.getLeft(), clause.getRight())) {
+                AbstractExpression outerKey = null;
+                AbstractExpression innerKey = null;
+                if (isJoinKey(clause.getLeft(), outerTables) && isJoinKey(clause.getRight(), innerTables)) {
+                    outerKey = clause.getLeft();
+                    innerKey = clause.getRight();
+                }
+                else if (isJoinKey(clause.getRight(), outerTables) && isJoinKey(clause.getLeft(), innerTables)) {
+                    outerKey = clause.getRight();
+                    innerKey = clause.getLeft();
+                }
+                if (outerKey != null) {
+                    AbstractPlanNode orderedOuterPlan = getPlanOrderedOn(joinNode.getLeftNode(), outerPlan, outerKey);
+                    AbstractPlanNode orderedInnerPlan = (orderedOuterPlan == null) ? null :
+                            getPlanOrderedOn(joinNode.getRightNode(), innerPlan, innerKey);
+                    if (orderedInnerPlan != null) {
+                        mjNode.addKeyExpressions(outerKey, innerKey);
+                        outerPlan = orderedOuterPlan;
+                        innerPlan = orderedInnerPlan;
+                        continue;
+                    }
+                }
+            }
+            otherClauses.add(clause);
+        }
+        if (mjNode.getOuterKeyExpressions().isEmpty()) {
+            return null;
+        }
+        mjNode.setJoinPredicate(ExpressionUtil.combinePredicates(otherClauses));
+        mjNode.addAndLinkChild(outerPlan);
+        if (needInnerSendReceive) {
+            // The partitions' ordered results are merged into one ordered input on the coordinator
+            innerPlan = addSendMergeReceivePair(innerPlan, mjNode.getInnerKeyExpressions().get(0));
+        }
+        mjNode.addAndLinkChild(innerPlan);
+        return mjNode;
+    }
+
+    /**
+     * Get a plan for a join tree node that produces its rows in ascending order of the key.
+     * A sequential scan of a table is replaced with a full scan of an index that leads with the key.
+     *
+     * @param node The join tree node the plan was built for.
+     * @param plan The plan built for the node's current access path.
+     * @param key An expression of the node's tables.
+     * @return an ordered plan or null if the node's rows can not be produced in key order.
+     */
+    private static AbstractPlanNode getPlanOrderedOn(JoinNode node, AbstractPlanNode plan, AbstractExpression key) {
+        if (isOrderedOn(plan, key)) {
+            return plan;
+        }
+        if (node instanceof BranchNode || node instanceof SubqueryLeafNode ||
+                ! (plan instanceof SeqScanPlanNode)) {
+            return null;
+        }
+        AccessPath naivePath = node.m_currentAccessPath;
+        for (Index index : node.getTableScan().getIndexes()) {
+            if ( ! IndexType.isScannable(index.getType()) || ! index.getPredicatejson().isEmpty()) {
+                continue;
+            }
+            AccessPath path = new AccessPath();
+            path.index = index;
+            path.use = IndexUseType.INDEX_SCAN;
+            // A full scan runs forward through the index. Its sort direction stays INVALID,
+            // since a scan with a direction is taken to provide the statement's ORDER BY.
+            path.lookupType = IndexLookupType.GTE;
+            path.otherExprs.addAll(naivePath.otherExprs);
+            path.joinExprs.addAll(naivePath.joinExprs);
+            node.m_currentAccessPath = path;
+            AbstractPlanNode orderedPlan = getAccessPlanForTable(node);
+            node.m_currentAccessPath = naivePath;
+            if (isOrderedOn(orderedPlan, key)) {
+                return orderedPlan;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check whether a plan produces its rows in ascending order of the key.
+     * Joins keep the order of their outer input, so the order is set by the
+     * index scan at the bottom of the outer-most branch.
+     */
+    private static boolean isOrderedOn(AbstractPlanNode plan, AbstractExpression key) {
+        AbstractPlanNode node = plan;
+        while (node instanceof AbstractJoinPlanNode) {
+            // The unmatched inner rows of a FULL join come last
+            if (((AbstractJoinPlanNode) node).getJoinType() == JoinType.FULL) {
+                return false;
+            }
+            node = node.getChild(0);
+        }
+        if ( ! (node instanceof IndexScanPlanNode)) {
+            return false;
+        }
+        IndexScanPlanNode scanNode = (IndexScanPlanNode) node;
+        // These scan the index backwards
+        if (scanNode.getSortDirection() == SortDirectionType.DESC ||
+                scanNode.getLookupType() == IndexLookupType.LT ||
+                scanNode.getLookupType() == IndexLookupType.LTE) {
+            return false;
+        }
+        for (TupleValueExpression tve : ExpressionUtil.getTupleValueExpressions(key)) {
+            if ( ! scanNode.getTargetTableAlias().equals(tve.getTableAlias())) {
+                return false;
+            }
+        }
+        return scanNode.isOutputOrdered(Collections.singletonList(key),
+                                        Collections.singletonList(scanNode.getSortDirection()));
+    }
+
+    /**
+     * An expression can be a key for one side of an equi-join if it is computed
+     * from the columns of that side alone.
+     */
+    private static boolean isJoinKey(AbstractExpression expr, Collection<String> tableAliases) {
+        if (expr.hasAnySubexpressionOfClass(AbstractSubqueryExpression.class)) {
+            return false;
+        }
+        List<TupleValueExpression> tves = ExpressionUtil.getTupleValueExpressions(expr);
+        if (tves.isEmpty()) {
+            return false;
+        }
+        for (TupleValueExpression tve : tves) {
+            if ( ! tableAliases.contains(tve.getTableAlias())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Equal keys must hash and compare alike, so both sides need the same type
+     * and, for strings, the same length units.
+     */
+    private static boolean isJoinKeyPair(AbstractExpression left, AbstractExpression right) {
+        VoltType type = left.getValueType();
+        if (type == null || type != right.getValueType()) {
+            return false;
+        }
+        if (type == VoltType.GEOGRAPHY || type == VoltType.GEOGRAPHY_POINT) {
+            return false;
+        }
+        return ! type.isVariableLength() || left.getInBytes() == right.getInBytes();
+    }
+
     /**
      * A method to filter out single-TVE expressions.
      *
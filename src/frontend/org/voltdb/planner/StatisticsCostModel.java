@@ -0,0 +1,220 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.voltdb.planner;
+
+import java.util.HashMap;
+
+import org.voltdb.compiler.DatabaseEstimates;
+import org.voltdb.compiler.DatabaseEstimates.ColumnEstimates;
+import org.voltdb.expressions.AbstractExpression;
+import org.voltdb.expressions.ComparisonExpression;
+import org.voltdb.expressions.ConstantValueExpression;
+import org.voltdb.expressions.ParameterValueExpression;
+import org.voltdb.expressions.TupleValueExpression;
+import org.voltdb.expressions.VectorValueExpression;
+import org.voltdb.types.ExpressionType;
+
+/**
+ * Cost model for databases with gathered statistics. Like the {@link TrivialCostModel}
+ * it charges a plan for every tuple it reads, the scans and joins having estimated
+ * those from the row counts, distinct value counts and histograms in the
+ * {@link DatabaseEstimates}. On top of that every tuple the partitions send to the
+ * coordinator of a multi-partition plan costs as much as reading a few.
+ *
+ * The static helpers estimate the fraction of rows that pass a predicate, for the
+ * plan nodes to use when the tables they read have statistics.
+ */
+public class StatisticsCostModel extends AbstractCostModel {
+
+    static final double SENT_TUPLE_COST = 3.0;
+
+    // Keeps the estimates of big cross joins from overflowing when they get added up
+    private static final long MAX_TUPLE_COUNT_ESTIMATE = 1L << 50;
+
+    /**
+     * @return the cost model to plan against the given estimates with
+     */
+    public static AbstractCostModel forEstimates(DatabaseEstimates estimates) {
+        if (estimates.hasStatistics()) {
+            return new StatisticsCostModel();
+        }
+        return new TrivialCostModel();
+    }
+
+    @Override
+    public double getPlanCost(PlanStatistics stats) {
+        double cost = 0;
+        for (int i = 0; i < stats.getLevelCount(); i++) {
+            HashMap<StatsField, Long> level = stats.getStatisticsForLevel(i);
+            Long tuplesRead = level.get(StatsField.TUPLES_READ);
+            Long tuplesSent = level.get(StatsField.TUPLES_SENT);
+            cost += (tuplesRead == null) ? 0 : tuplesRead.longValue();
+            cost += (tuplesSent == null) ? 0 : tuplesSent.longValue() * SENT_TUPLE_COST;
+        }
+        return cost;
+    }
+
+    /**
+     * Scale a tuple count estimate, e.g. by a selectivity or by the number of times
+     * an inner scan gets repeated, keeping it at least 1.
+     */
+    public static long scaleTupleCount(double tupleCount, double factor) {
+        double scaled = Math.ceil(tupleCount * factor);
+        if (scaled < 1.0) {
+            return 1;
+        }
+        return (long) Math.min(scaled, MAX_TUPLE_COUNT_ESTIMATE);
+    }
+
+    /**
+     * Estimate the fraction of rows that pass a predicate. Comparisons of a column to a
+     * constant use the statistics of the column, anything else gets a fixed guess.
+     *
+     * @param predicate the predicate, null passes every row
+     * @param estimates the estimates to find column statistics in
+     */
+    public static double estimateSelectivity(AbstractExpression predicate, DatabaseEstimates estimates) {
+        if (predicate == null) {
+            return 1.0;
+        }
+        ExpressionType type = predicate.getExpressionType();
+        switch (type) {
+        case CONJUNCTION_AND:
+            return estimateSelectivity(predicate.getLeft(), estimates) *
+                   estimateSelectivity(predicate.getRight(), estimates);
+        case CONJUNCTION_OR: {
+            double left = estimateSelectivity(predicate.getLeft(), estimates);
+            double right = estimateSelectivity(predicate.getRight(), estimates);
+            return left + right - left * right;
+        }
+        case OPERATOR_NOT:
+            return 1.0 - estimateSelectivity(predicate.getLeft(), estimates);
+        case COMPARE_EQUAL:
+        case COMPARE_NOTDISTINCT:
+        case COMPARE_NOTEQUAL:
+        case COMPARE_LESSTHAN:
+        case COMPARE_LESSTHANOREQUALTO:
+        case COMPARE_GREATERTHAN:
+        case COMPARE_GREATERTHANOREQUALTO:
+            return estimateComparisonSelectivity((ComparisonExpression) predicate, estimates);
+        case COMPARE_IN:
+            if (predicate.getRight() instanceof VectorValueExpression) {
+                double equality = equalitySelectivity(columnEstimatesFor(predicate.getLeft(), estimates));
+                return Math.min(1.0, equality * predicate.getRight().getArgs().size());
+            }
+            return DatabaseEstimates.DEFAULT_RANGE_SELECTIVITY;
+        default:
+            return DatabaseEstimates.DEFAULT_RANGE_SELECTIVITY;
+        }
+    }
+
+    private static double estimateComparisonSelectivity(ComparisonExpression comparison,
+                                                        DatabaseEstimates estimates) {
+        if (!(comparison.getLeft() instanceof TupleValueExpression)) {
+            if (!(comparison.getRight() instanceof TupleValueExpression)) {
+                return DatabaseEstimates.DEFAULT_RANGE_SELECTIVITY;
+            }
+            comparison = comparison.reverseOperator();
+        }
+        ColumnEstimates column = columnEstimatesFor(comparison.getLeft(), estimates);
+        AbstractExpression other = comparison.getRight();
+        switch (comparison.getExpressionType()) {
+        case COMPARE_EQUAL:
+        case COMPARE_NOTDISTINCT:
+            if (other instanceof TupleValueExpression) {
+                // An equi-join matches a row on the side with fewer distinct values
+                // to a share of the rows on the other side
+                return Math.min(equalitySelectivity(column),
+                                equalitySelectivity(columnEstimatesFor(other, estimates)));
+            }
+            return equalitySelectivity(column);
+        case COMPARE_NOTEQUAL:
+            return 1.0 - equalitySelectivity(column);
+        case COMPARE_LESSTHAN:
+        case COMPARE_LESSTHANOREQUALTO:
+            return rangeSelectivity(column, other, true);
+        default:
+            return rangeSelectivity(column, other, false);
+        }
+    }
+
+    public static double equalitySelectivity(ColumnEstimates column) {
+        if (column == null) {
+            return DatabaseEstimates.DEFAULT_EQUALITY_SELECTIVITY;
+        }
+        return column.equalitySelectivity();
+    }
+
+    /**
+     * Estimate the fraction of a column's values below or above a bound, using the
+     * histogram of the column when the bound is a known number.
+     */
+    public static double rangeSelectivity(ColumnEstimates column, AbstractExpression bound, boolean below) {
+        if (column == null) {
+            return DatabaseEstimates.DEFAULT_RANGE_SELECTIVITY;
+        }
+        double value = numericValueOf(bound);
+        if (Double.isNaN(value)) {
+            return DatabaseEstimates.DEFAULT_RANGE_SELECTIVITY;
+        }
+        double fraction = column.fractionBelow(value);
+        if (fraction < 0.0) {
+            return DatabaseEstimates.DEFAULT_RANGE_SELECTIVITY;
+        }
+        return below ? fraction : 1.0 - fraction;
+    }
+
+    /**
+     * @return the statistics of the column a tuple value expression reads, or null
+     */
+    public static ColumnEstimates columnEstimatesFor(AbstractExpression expr, DatabaseEstimates estimates) {
+        if (!(expr instanceof TupleValueExpression)) {
+            return null;
+        }
+        TupleValueExpression tve = (TupleValueExpression) expr;
+        if (tve.getTableName() == null || tve.getColumnName() == null) {
+            return null;
+        }
+        return estimates.getEstimatesForTable(tve.getTableName()).getEstimatesForColumn(tve.getColumnName());
+    }
+
+    /**
+     * The number a constant, or a parameter that stands in for a constant of an ad hoc
+     * statement, compares against. NaN when it isn't a known number.
+     */
+    private static double numericValueOf(AbstractExpression expr) {
+        if (expr instanceof ParameterValueExpression) {
+            expr = ((ParameterValueExpression) expr).getOriginalValue();
+        }
+        if (!(expr instanceof ConstantValueExpression) ||
+                expr.getValueType() == null || !expr.getValueType().isNumber()) {
+            return Double.NaN;
+        }
+        String value = ((ConstantValueExpression) expr).getValue();
+        if (value == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(value);
+        }
+        catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -28,5 +28,6 @@ public enum StatsField {
     TREE_INDEX_LEVELS_TRAVERSED,
     HASH_VALUES_COMPUTED,
     MESSAGES_SENT,
+    TUPLES_SENT,
     BYTES_SENT
 }
@@ -48,7 +48,9 @@ import org.voltdb.plannodes.AbstractPlanNode;
 import org.voltdb.plannodes.AbstractScanPlanNode;
 import org.voltdb.plannodes.IndexScanPlanNode;
 import org.voltdb.plannodes.MaterializedScanPlanNode;
+import org.voltdb.plannodes.MergeReceivePlanNode;
 import org.voltdb.plannodes.NestLoopIndexPlanNode;
+import org.voltdb.plannodes.OrderByPlanNode;
 import org.voltdb.plannodes.ReceivePlanNode;
 import org.voltdb.plannodes.SendPlanNode;
 import org.voltdb.plannodes.SeqScanPlanNode;
@@ -1455,6 +1457,27 @@ public abstract class SubPlanAssembler {
         return recvNode;
     }
 
+    /**
+     * Insert a send merge-receive pair above the supplied scanNode,
+     * which produces its rows in ascending order of the sort key on each partition.
+     * @param scanNode that needs to be distributed
+     * @param sortKey expression the rows are ordered by
+     * @return return the newly created merge-receive node (which is linked to the new sends)
+     */
+    protected static AbstractPlanNode addSendMergeReceivePair(AbstractPlanNode scanNode, AbstractExpression sortKey) {
+        SendPlanNode sendNode = new SendPlanNode();
+        sendNode.addAndLinkChild(scanNode);
+
+        MergeReceivePlanNode recvNode = new MergeReceivePlanNode();
+        recvNode.addAndLinkChild(sendNode);
+
+        OrderByPlanNode orderbyNode = new OrderByPlanNode();
+        orderbyNode.addSort((AbstractExpression) sortKey.clone(), SortDirectionType.ASC);
+        recvNode.addInlinePlanNode(orderbyNode);
+
+        return recvNode;
+    }
+
     /**
      * Given an access path, build the single-site or distributed plan that will
      * assess the data from the table according to the path.
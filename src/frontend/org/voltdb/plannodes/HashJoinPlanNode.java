@@ -0,0 +1,203 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.plannodes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.json_voltpatches.JSONException;
+import org.json_voltpatches.JSONObject;
+import org.json_voltpatches.JSONStringer;
+import org.voltdb.catalog.Cluster;
+import org.voltdb.catalog.Database;
+import org.voltdb.compiler.DatabaseEstimates;
+import org.voltdb.compiler.ScalarValueHints;
+import org.voltdb.expressions.AbstractExpression;
+import org.voltdb.planner.StatisticsCostModel;
+import org.voltdb.types.JoinType;
+import org.voltdb.types.PlanNodeType;
+import org.voltdb.types.SortDirectionType;
+
+/**
+ * Equi-join that builds a hash table on the inner input keyed by the inner hash
+ * expressions and probes it once per outer tuple with the outer hash expressions.
+ * Any other join conditions are applied to each matching pair as the join predicate.
+ * The output keeps the order of the outer input, like a NestLoopPlanNode.
+ */
+public class HashJoinPlanNode extends AbstractJoinPlanNode {
+
+    public enum Members {
+        OUTER_HASH_EXPRESSIONS,
+        INNER_HASH_EXPRESSIONS;
+    }
+
+    // Discount for reading the inner child once when there are no statistics to cost the difference
+    private static final double INNER_READ_ONCE_DISCOUNT = 0.05;
+
+    // The i-th outer expression is compared for equality to the i-th inner expression
+    private List<AbstractExpression> m_outerHashExpressions = new ArrayList<AbstractExpression>();
+    private List<AbstractExpression> m_innerHashExpressions = new ArrayList<AbstractExpression>();
+
+    public HashJoinPlanNode() {
+        super();
+    }
+
+    @Override
+    public PlanNodeType getPlanNodeType() {
+        return PlanNodeType.HASHJOIN;
+    }
+
+    public List<AbstractExpression> getOuterHashExpressions() {
+        return m_outerHashExpressions;
+    }
+
+    public List<AbstractExpression> getInnerHashExpressions() {
+        return m_innerHashExpressions;
+    }
+
+    /**
+     * Add a pair of equal join keys, one on each side of the join
+     */
+    public void addHashExpressions(AbstractExpression outerExpr, AbstractExpression innerExpr) {
+        m_outerHashExpressions.add((AbstractExpression) outerExpr.clone());
+        m_innerHashExpressions.add((AbstractExpression) innerExpr.clone());
+    }
+
+    @Override
+    public void validate() throws Exception {
+        super.validate();
+
+        if (m_outerHashExpressions.isEmpty() ||
+                m_outerHashExpressions.size() != m_innerHashExpressions.size()) {
+            throw new Exception("ERROR: Hash join has " + m_outerHashExpressions.size() +
+                                " outer and " + m_innerHashExpressions.size() + " inner keys");
+        }
+        for (AbstractExpression expr : m_outerHashExpressions) {
+            expr.validate();
+        }
+        for (AbstractExpression expr : m_innerHashExpressions) {
+            expr.validate();
+        }
+    }
+
+    @Override
+    public void resolveColumnIndexes()
+    {
+        super.resolveColumnIndexes();
+        final NodeSchema outer_schema = m_children.get(0).getOutputSchema();
+        final NodeSchema inner_schema = m_children.get(1).getOutputSchema();
+        resolvePredicate(m_outerHashExpressions, outer_schema, inner_schema);
+        resolvePredicate(m_innerHashExpressions, outer_schema, inner_schema);
+    }
+
+    @Override
+    public void computeCostEstimates(long childOutputTupleCountEstimate,
+                                     Cluster cluster,
+                                     Database db,
+                                     DatabaseEstimates estimates,
+                                     ScalarValueHints[] paramHints)
+    {
+        assert(m_children.size() == 2);
+        AbstractPlanNode outer = m_children.get(0);
+        AbstractPlanNode inner = m_children.get(1);
+        if (estimates.hasStatistics()) {
+            // Each input is read once and every outer tuple makes one probe.
+            // Hashing an inner tuple costs more than a probe, so the smaller input should be inner.
+            m_estimatedProcessedTupleCount = outer.m_estimatedProcessedTupleCount +
+                    inner.m_estimatedProcessedTupleCount + outer.m_estimatedOutputTupleCount +
+                    2 * inner.m_estimatedOutputTupleCount;
+            double selectivity = StatisticsCostModel.estimateSelectivity(m_joinPredicate, estimates) *
+                                 StatisticsCostModel.estimateSelectivity(m_wherePredicate, estimates);
+            for (int ii = 0; ii < m_outerHashExpressions.size(); ii++) {
+                selectivity *= Math.min(
+                        StatisticsCostModel.equalitySelectivity(
+                                StatisticsCostModel.columnEstimatesFor(m_outerHashExpressions.get(ii), estimates)),
+                        StatisticsCostModel.equalitySelectivity(
+                                StatisticsCostModel.columnEstimatesFor(m_innerHashExpressions.get(ii), estimates)));
+            }
+            m_estimatedOutputTupleCount = StatisticsCostModel.scaleTupleCount(outer.m_estimatedOutputTupleCount,
+                    inner.m_estimatedOutputTupleCount * selectivity);
+            if (m_joinType == JoinType.LEFT) {
+                m_estimatedOutputTupleCount = Math.max(m_estimatedOutputTupleCount,
+                                                       outer.m_estimatedOutputTupleCount);
+            }
+            return;
+        }
+
+        // Without statistics a nested loop is costed as if it read its inner child once,
+        // which only a hash join really does, so discount the inner child to break the tie.
+        // The discount stays below the partial index discount (0.1) so index lookups still win.
+        m_estimatedOutputTupleCount = childOutputTupleCountEstimate;
+        m_estimatedProcessedTupleCount = discountEstimatedProcessedTupleCount(outer) +
+                (long)(inner.m_estimatedProcessedTupleCount * (1 - INNER_READ_ONCE_DISCOUNT));
+    }
+
+    @Override
+    public void toJSONString(JSONStringer stringer) throws JSONException
+    {
+        super.toJSONString(stringer);
+        stringer.key(Members.OUTER_HASH_EXPRESSIONS.name()).array();
+        for (AbstractExpression expr : m_outerHashExpressions) {
+            stringer.value(expr);
+        }
+        stringer.endArray();
+        stringer.key(Members.INNER_HASH_EXPRESSIONS.name()).array();
+        for (AbstractExpression expr : m_innerHashExpressions) {
+            stringer.value(expr);
+        }
+        stringer.endArray();
+    }
+
+    @Override
+    public void loadFromJSONObject(JSONObject jobj, Database db) throws JSONException
+    {
+        super.loadFromJSONObject(jobj, db);
+        AbstractExpression.loadFromJSONArrayChild(m_outerHashExpressions, jobj,
+                Members.OUTER_HASH_EXPRESSIONS.name(), null);
+        AbstractExpression.loadFromJSONArrayChild(m_innerHashExpressions, jobj,
+                Members.INNER_HASH_EXPRESSIONS.name(), null);
+    }
+
+    @Override
+    public void findAllExpressionsOfClass(Class< ? extends AbstractExpression> aeClass, Set<AbstractExpression> collected) {
+        super.findAllExpressionsOfClass(aeClass, collected);
+        for (AbstractExpression expr : m_outerHashExpressions) {
+            collected.addAll(expr.findAllSubexpressionsOfClass(aeClass));
+        }
+        for (AbstractExpression expr : m_innerHashExpressions) {
+            collected.addAll(expr.findAllSubexpressionsOfClass(aeClass));
+        }
+    }
+
+    @Override
+    protected String explainPlanForNode(String indent) {
+        String keys = "";
+        String separator = "";
+        for (int ii = 0; ii < m_outerHashExpressions.size(); ii++) {
+            keys += separator + m_outerHashExpressions.get(ii).explain("!?") +
+                    " = " + m_innerHashExpressions.get(ii).explain("!?");
+            separator = " AND ";
+        }
+        return "HASH " + this.m_joinType.toString() + " JOIN" +
+                (m_sortDirection == SortDirectionType.INVALID ? "" : " (" + m_sortDirection + ")") +
+                " on (" + keys + ")" +
+                explainFilters(indent);
+    }
+
+}
@@ -44,6 +44,7 @@ import org.voltdb.expressions.ComparisonExpression;
 import org.voltdb.expressions.ExpressionUtil;
 import org.voltdb.expressions.OperatorExpression;
 import org.voltdb.expressions.TupleValueExpression;
+import org.voltdb.planner.StatisticsCostModel;
 import org.voltdb.planner.parseinfo.StmtTableScan;
 import org.voltdb.planner.parseinfo.StmtTargetTableScan;
 import org.voltdb.types.ExpressionType;
@@ -620,6 +621,18 @@ public class IndexScanPlanNode extends AbstractScanPlanNode {
         if (m_catalogIndex.getUnique() && (colCount == keyWidth)) {
             m_estimatedOutputTupleCount = 1;
         }
+        else if (tableEstimates.analyzed) {
+            // With statistics, count the rows the lookup matches instead of discounting by the key width,
+            // and estimate the post-filters for the output the same way SeqScanPlanNode does.
+            // The non-"covering unique" floor below still applies.
+            tuplesToRead += (int) Math.min(estimateIndexedTupleCount(tableEstimates, estimates),
+                                           Integer.MAX_VALUE - 4);
+            if (tuplesToRead < 4) {
+                tuplesToRead = 4;
+            }
+            m_estimatedOutputTupleCount = StatisticsCostModel.scaleTupleCount(tuplesToRead,
+                    StatisticsCostModel.estimateSelectivity(m_predicate, estimates));
+        }
         else {
             // If not a unique, covering index, favor (discount)
             // the choice with the most columns pre-filtered by the index.
@@ -705,6 +718,51 @@ public class IndexScanPlanNode extends AbstractScanPlanNode {
         //* enable to debug */ System.out.println("DEBUG: USING INDEX " + m_catalogIndex.getTypeName());
     }
 
+    /**
+     * Estimate the number of rows the index lookup matches from the statistics of the indexed columns.
+     */
+    private long estimateIndexedTupleCount(DatabaseEstimates.TableEstimates tableEstimates,
+                                           DatabaseEstimates estimates) {
+        List<ColumnRef> indexedColumns = null;
+        if (m_catalogIndex.getExpressionsjson().isEmpty()) {
+            indexedColumns = CatalogUtil.getSortedCatalogItems(m_catalogIndex.getColumns(), "index");
+        }
+        // The end expression repeats the equality keys, but it may also bound a range
+        // or turn a range scan into an equality lookup on its last key.
+        Set<String> endEqualityColumns = new HashSet<String>();
+        double selectivity = 1.0;
+        for (AbstractExpression expr : ExpressionUtil.uncombinePredicate(m_endExpression)) {
+            if (expr.getExpressionType() != ExpressionType.COMPARE_EQUAL) {
+                selectivity *= StatisticsCostModel.estimateSelectivity(expr, estimates);
+            }
+            else if (expr.getLeft() instanceof TupleValueExpression) {
+                endEqualityColumns.add(((TupleValueExpression) expr.getLeft()).getColumnName());
+            }
+        }
+
+        final int keyCount = m_searchkeyExpressions.size();
+        for (int i = 0; i < keyCount; i++) {
+            DatabaseEstimates.ColumnEstimates column = null;
+            String columnName = null;
+            if (indexedColumns != null) {
+                columnName = indexedColumns.get(i).getColumn().getTypeName();
+                column = tableEstimates.getEstimatesForColumn(columnName);
+            }
+            boolean rangeKey = (i == keyCount - 1) &&
+                               m_lookupType != IndexLookupType.EQ &&
+                               m_lookupType != IndexLookupType.GEO_CONTAINS &&
+                               !endEqualityColumns.contains(columnName);
+            if (rangeKey) {
+                boolean below = m_lookupType == IndexLookupType.LT || m_lookupType == IndexLookupType.LTE;
+                selectivity *= StatisticsCostModel.rangeSelectivity(column, m_searchkeyExpressions.get(i), below);
+            }
+            else {
+                selectivity *= StatisticsCostModel.equalitySelectivity(column);
+            }
+        }
+        return StatisticsCostModel.scaleTupleCount(tableEstimates.maxTuples, selectivity);
+    }
+
     @Override
     public void toJSONString(JSONStringer stringer) throws JSONException {
         super.toJSONString(stringer);
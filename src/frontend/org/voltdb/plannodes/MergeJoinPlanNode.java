@@ -0,0 +1,198 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.plannodes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.json_voltpatches.JSONException;
+import org.json_voltpatches.JSONObject;
+import org.json_voltpatches.JSONStringer;
+import org.voltdb.catalog.Cluster;
+import org.voltdb.catalog.Database;
+import org.voltdb.compiler.DatabaseEstimates;
+import org.voltdb.compiler.ScalarValueHints;
+import org.voltdb.expressions.AbstractExpression;
+import org.voltdb.planner.StatisticsCostModel;
+import org.voltdb.types.JoinType;
+import org.voltdb.types.PlanNodeType;
+import org.voltdb.types.SortDirectionType;
+
+/**
+ * Equi-join of two inputs that both arrive in ascending order of their join keys.
+ * The inputs are read once each, in step, pairing every outer tuple with the run of
+ * inner tuples that has the same key. Runs of equal keys may occur on both sides.
+ * Any other join conditions are applied to each matching pair as the join predicate.
+ * The output keeps the order of the outer input, like a NestLoopPlanNode.
+ */
+public class MergeJoinPlanNode extends AbstractJoinPlanNode {
+
+    public enum Members {
+        OUTER_KEY_EXPRESSIONS,
+        INNER_KEY_EXPRESSIONS;
+    }
+
+    // The i-th outer expression is compared for equality to the i-th inner expression.
+    // Both inputs are sorted on their key expressions in list order.
+    private List<AbstractExpression> m_outerKeyExpressions = new ArrayList<AbstractExpression>();
+    private List<AbstractExpression> m_innerKeyExpressions = new ArrayList<AbstractExpression>();
+
+    public MergeJoinPlanNode() {
+        super();
+    }
+
+    @Override
+    public PlanNodeType getPlanNodeType() {
+        return PlanNodeType.MERGEJOIN;
+    }
+
+    public List<AbstractExpression> getOuterKeyExpressions() {
+        return m_outerKeyExpressions;
+    }
+
+    public List<AbstractExpression> getInnerKeyExpressions() {
+        return m_innerKeyExpressions;
+    }
+
+    /**
+     * Add a pair of equal join keys, one on each side of the join
+     */
+    public void addKeyExpressions(AbstractExpression outerExpr, AbstractExpression innerExpr) {
+        m_outerKeyExpressions.add((AbstractExpression) outerExpr.clone());
+        m_innerKeyExpressions.add((AbstractExpression) innerExpr.clone());
+    }
+
+    @Override
+    public void validate() throws Exception {
+        super.validate();
+
+        if (m_outerKeyExpressions.isEmpty() ||
+                m_outerKeyExpressions.size() != m_innerKeyExpressions.size()) {
+            throw new Exception("ERROR: Merge join has " + m_outerKeyExpressions.size() +
+                                " outer and " + m_innerKeyExpressions.size() + " inner keys");
+        }
+        for (AbstractExpression expr : m_outerKeyExpressions) {
+            expr.validate();
+        }
+        for (AbstractExpression expr : m_innerKeyExpressions) {
+            expr.validate();
+        }
+    }
+
+    @Override
+    public void resolveColumnIndexes()
+    {
+        super.resolveColumnIndexes();
+        final NodeSchema outer_schema = m_children.get(0).getOutputSchema();
+        final NodeSchema inner_schema = m_children.get(1).getOutputSchema();
+        resolvePredicate(m_outerKeyExpressions, outer_schema, inner_schema);
+        resolvePredicate(m_innerKeyExpressions, outer_schema, inner_schema);
+    }
+
+    @Override
+    public void computeCostEstimates(long childOutputTupleCountEstimate,
+                                     Cluster cluster,
+                                     Database db,
+                                     DatabaseEstimates estimates,
+                                     ScalarValueHints[] paramHints)
+    {
+        assert(m_children.size() == 2);
+        AbstractPlanNode outer = m_children.get(0);
+        AbstractPlanNode inner = m_children.get(1);
+        if (estimates.hasStatistics()) {
+            // Each input is read once and every tuple of either input takes part in one comparison step.
+            m_estimatedProcessedTupleCount = outer.m_estimatedProcessedTupleCount +
+                    inner.m_estimatedProcessedTupleCount + outer.m_estimatedOutputTupleCount +
+                    inner.m_estimatedOutputTupleCount;
+            double selectivity = StatisticsCostModel.estimateSelectivity(m_joinPredicate, estimates) *
+                                 StatisticsCostModel.estimateSelectivity(m_wherePredicate, estimates);
+            for (int ii = 0; ii < m_outerKeyExpressions.size(); ii++) {
+                selectivity *= Math.min(
+                        StatisticsCostModel.equalitySelectivity(
+                                StatisticsCostModel.columnEstimatesFor(m_outerKeyExpressions.get(ii), estimates)),
+                        StatisticsCostModel.equalitySelectivity(
+                                StatisticsCostModel.columnEstimatesFor(m_innerKeyExpressions.get(ii), estimates)));
+            }
+            m_estimatedOutputTupleCount = StatisticsCostModel.scaleTupleCount(outer.m_estimatedOutputTupleCount,
+                    inner.m_estimatedOutputTupleCount * selectivity);
+            if (m_joinType == JoinType.LEFT) {
+                m_estimatedOutputTupleCount = Math.max(m_estimatedOutputTupleCount,
+                                                       outer.m_estimatedOutputTupleCount);
+            }
+            return;
+        }
+
+        m_estimatedOutputTupleCount = childOutputTupleCountEstimate;
+        m_estimatedProcessedTupleCount = discountEstimatedProcessedTupleCount(outer) +
+                inner.m_estimatedProcessedTupleCount;
+    }
+
+    @Override
+    public void toJSONString(JSONStringer stringer) throws JSONException
+    {
+        super.toJSONString(stringer);
+        stringer.key(Members.OUTER_KEY_EXPRESSIONS.name()).array();
+        for (AbstractExpression expr : m_outerKeyExpressions) {
+            stringer.value(expr);
+        }
+        stringer.endArray();
+        stringer.key(Members.INNER_KEY_EXPRESSIONS.name()).array();
+        for (AbstractExpression expr : m_innerKeyExpressions) {
+            stringer.value(expr);
+        }
+        stringer.endArray();
+    }
+
+    @Override
+    public void loadFromJSONObject(JSONObject jobj, Database db) throws JSONException
+    {
+        super.loadFromJSONObject(jobj, db);
+        AbstractExpression.loadFromJSONArrayChild(m_outerKeyExpressions, jobj,
+                Members.OUTER_KEY_EXPRESSIONS.name(), null);
+        AbstractExpression.loadFromJSONArrayChild(m_innerKeyExpressions, jobj,
+                Members.INNER_KEY_EXPRESSIONS.name(), null);
+    }
+
+    @Override
+    public void findAllExpressionsOfClass(Class< ? extends AbstractExpression> aeClass, Set<AbstractExpression> collected) {
+        super.findAllExpressionsOfClass(aeClass, collected);
+        for (AbstractExpression expr : m_outerKeyExpressions) {
+            collected.addAll(expr.findAllSubexpressionsOfClass(aeClass));
+        }
+        for (AbstractExpression expr : m_innerKeyExpressions) {
+            collected.addAll(expr.findAllSubexpressionsOfClass(aeClass));
+        }
+    }
+
+    @Override
+    protected String explainPlanForNode(String indent) {
+        String keys = "";
+        String separator = "";
+        for (int ii = 0; ii < m_outerKeyExpressions.size(); ii++) {
+            keys += separator + m_outerKeyExpressions.get(ii).explain("!?") +
+                    " = " + m_innerKeyExpressions.get(ii).explain("!?");
+            separator = " AND ";
+        }
+        return "MERGE " + this.m_joinType.toString() + " JOIN" +
+                (m_sortDirection == SortDirectionType.INVALID ? "" : " (" + m_sortDirection + ")") +
+                " on (" + keys + ")" +
+                explainFilters(indent);
+    }
+
+}
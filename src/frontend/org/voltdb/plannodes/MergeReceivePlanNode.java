@@ -111,6 +111,10 @@ public class MergeReceivePlanNode extends AbstractReceivePlanNode {
                 m_outputSchemaPreInlineAgg.addColumn( SchemaColumn.fromJSONObject(jarray.getJSONObject(i)) );
             }
         }
+        else {
+            // Without an inline aggregate the output schema is the input schema
+            m_outputSchemaPreInlineAgg = m_outputSchema;
+        }
     }
 
     @Override
@@ -29,6 +29,8 @@ import org.voltdb.compiler.ScalarValueHints;
 import org.voltdb.expressions.AbstractExpression;
 import org.voltdb.expressions.AbstractSubqueryExpression;
 import org.voltdb.expressions.TupleValueExpression;
+import org.voltdb.planner.StatisticsCostModel;
+import org.voltdb.types.JoinType;
 import org.voltdb.types.PlanNodeType;
 import org.voltdb.types.SortDirectionType;
 
@@ -231,6 +233,22 @@ public class NestLoopIndexPlanNode extends AbstractJoinPlanNode {
                 (IndexScanPlanNode) getInlinePlanNode(PlanNodeType.INDEXSCAN);
         assert(indexScan != null);
 
+        if (estimates.hasStatistics()) {
+            // With statistics the index scan estimates a single probe, which gets repeated per outer tuple
+            AbstractPlanNode outer = m_children.get(0);
+            m_estimatedProcessedTupleCount = outer.m_estimatedProcessedTupleCount +
+                    StatisticsCostModel.scaleTupleCount(outer.m_estimatedOutputTupleCount,
+                                                        indexScan.getEstimatedProcessedTupleCount());
+            m_estimatedOutputTupleCount = StatisticsCostModel.scaleTupleCount(outer.m_estimatedOutputTupleCount,
+                    indexScan.getEstimatedOutputTupleCount() *
+                    StatisticsCostModel.estimateSelectivity(m_wherePredicate, estimates));
+            if (m_joinType == JoinType.LEFT) {
+                m_estimatedOutputTupleCount = Math.max(m_estimatedOutputTupleCount,
+                                                       outer.m_estimatedOutputTupleCount);
+            }
+            return;
+        }
+
         m_estimatedOutputTupleCount = indexScan.getEstimatedOutputTupleCount() + childOutputTupleCountEstimate;
         // Discount outer child estimates based on the number of its filters
         m_estimatedProcessedTupleCount = indexScan.getEstimatedProcessedTupleCount() + discountEstimatedProcessedTupleCount(m_children.get(0));
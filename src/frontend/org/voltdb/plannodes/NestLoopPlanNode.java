@@ -21,6 +21,8 @@ import org.voltdb.catalog.Cluster;
 import org.voltdb.catalog.Database;
 import org.voltdb.compiler.DatabaseEstimates;
 import org.voltdb.compiler.ScalarValueHints;
+import org.voltdb.planner.StatisticsCostModel;
+import org.voltdb.types.JoinType;
 import org.voltdb.types.PlanNodeType;
 import org.voltdb.types.SortDirectionType;
 
@@ -42,10 +44,27 @@ public class NestLoopPlanNode extends AbstractJoinPlanNode {
                                      DatabaseEstimates estimates,
                                      ScalarValueHints[] paramHints)
     {
+        assert(m_children.size() == 2);
+        if (estimates.hasStatistics()) {
+            // The inner child gets scanned once per outer tuple
+            AbstractPlanNode outer = m_children.get(0);
+            AbstractPlanNode inner = m_children.get(1);
+            m_estimatedProcessedTupleCount = outer.m_estimatedProcessedTupleCount +
+                    StatisticsCostModel.scaleTupleCount(outer.m_estimatedOutputTupleCount,
+                                                        inner.m_estimatedProcessedTupleCount);
+            double selectivity = StatisticsCostModel.estimateSelectivity(m_joinPredicate, estimates) *
+                                 StatisticsCostModel.estimateSelectivity(m_wherePredicate, estimates);
+            m_estimatedOutputTupleCount = StatisticsCostModel.scaleTupleCount(outer.m_estimatedOutputTupleCount,
+                    inner.m_estimatedOutputTupleCount * selectivity);
+            if (m_joinType == JoinType.LEFT) {
+                m_estimatedOutputTupleCount = Math.max(m_estimatedOutputTupleCount,
+                                                       outer.m_estimatedOutputTupleCount);
+            }
+            return;
+        }
 
         m_estimatedOutputTupleCount = childOutputTupleCountEstimate;
         // Discount outer child estimates based on the number of its filters
-        assert(m_children.size() == 2);
         m_estimatedProcessedTupleCount = discountEstimatedProcessedTupleCount(m_children.get(0)) +
                 m_children.get(1).m_estimatedProcessedTupleCount;
     }
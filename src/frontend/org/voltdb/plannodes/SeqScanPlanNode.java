@@ -26,6 +26,7 @@ import org.voltdb.compiler.DatabaseEstimates;
 import org.voltdb.compiler.DatabaseEstimates.TableEstimates;
 import org.voltdb.compiler.ScalarValueHints;
 import org.voltdb.expressions.AbstractExpression;
+import org.voltdb.planner.StatisticsCostModel;
 import org.voltdb.planner.parseinfo.StmtTableScan;
 import org.voltdb.planner.parseinfo.StmtTargetTableScan;
 import org.voltdb.types.PlanNodeType;
@@ -87,6 +88,14 @@ public class SeqScanPlanNode extends AbstractScanPlanNode {
         }
         Table target = ((StmtTargetTableScan)m_tableScan).getTargetTable();
         TableEstimates tableEstimates = estimates.getEstimatesForTable(target.getTypeName());
+        if (tableEstimates.analyzed) {
+            // With statistics the output is estimated from the filters,
+            // the same way IndexScanPlanNode estimates its post-filters.
+            m_estimatedProcessedTupleCount = tableEstimates.maxTuples;
+            m_estimatedOutputTupleCount = StatisticsCostModel.scaleTupleCount(tableEstimates.maxTuples,
+                    StatisticsCostModel.estimateSelectivity(m_predicate, estimates));
+            return;
+        }
         // This maxTuples value estimates the number of tuples fetched from the sequential scan.
         // It's a vague measure of the cost of the scan.
         // Its accuracy depends a lot on what kind of post-filtering or projection needs to happen, if any.
@@ -0,0 +1,278 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.sysprocs.saverestore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+import org.json_voltpatches.JSONObject;
+import org.json_voltpatches.JSONStringer;
+import org.voltdb.ExtensibleSnapshotDigestData;
+import org.voltdb.SnapshotDataFilter;
+import org.voltdb.SnapshotFormat;
+import org.voltdb.SnapshotSiteProcessor;
+import org.voltdb.SnapshotTableTask;
+import org.voltdb.SystemProcedureExecutionContext;
+import org.voltdb.VoltTable;
+import org.voltdb.catalog.Table;
+import org.voltdb.dtxn.SiteTracker;
+import org.voltdb.utils.VoltFile;
+
+import com.google_voltpatches.common.base.Charsets;
+
+/**
+ * Create a snapshot write plan for an incremental snapshot. It is planned like a native
+ * snapshot, but the EE only writes the rows of the tuple blocks modified since the
+ * previous incremental snapshot on the host, along with the ids of every block, to .vpi
+ * files. Each host keeps its own chain. The first snapshot of a chain, and any snapshot
+ * taken when the previous one failed, the catalog or the partition count changed or the
+ * chain got too long, is a base that contains every block.
+ *
+ * A chain is turned back into a regular snapshot with
+ * {@link org.voltdb.utils.IncrementalSnapshotMerger}. The digest, hashinator config and
+ * catalog of an incremental snapshot get the {@link #INCREMENTAL_SUFFIX} so a restore
+ * doesn't pick it up before it is merged.
+ *
+ * The chain is anchored by the .chain files in the snapshot directory, not by memory. A
+ * snapshot writes its .chain file marked incomplete before it starts and marks it complete
+ * when it is done, and the next one continues from the newest .chain file of the host only
+ * if that one completed in this process with the same catalog and partition count. The EE
+ * only tracks the blocks modified since its own last incremental snapshot, so anything
+ * else starts a new base.
+ *
+ * Nothing in this tree initiates an incremental snapshot yet. The plan is created by
+ * {@link org.voltdb.SnapshotSaveAPI} for the incremental format, but @SnapshotSave and the
+ * automated snapshots of {@link org.voltdb.SnapshotDaemon} that would request it are
+ * commercial features.
+ */
+public class IncrementalSnapshotWritePlan extends NativeSnapshotWritePlan
+{
+    /**
+     * Number of incremental snapshots taken on top of a base before starting a new chain
+     */
+    public static final int MAX_CHAIN_LENGTH = Integer.getInteger("SNAPSHOT_INCREMENTAL_MAX_CHAIN", 16);
+
+    public static final String CHAIN_EXTENSION = ".chain";
+    public static final String INCREMENTAL_SUFFIX = ".incremental";
+
+    /*
+     * Identifies the EE block tracking of this process, a chain can't continue past a restart
+     */
+    static final String PROCESS_ID = UUID.randomUUID().toString();
+
+    /**
+     * The contents of a .chain file
+     */
+    static class ChainLink {
+        final String m_nonce;
+        final long m_txnId;
+        final String m_previousNonce;
+        final int m_length;
+        final long m_catalogCRC;
+        final int m_partitionCount;
+        final String m_processId;
+        final boolean m_completed;
+
+        ChainLink(String nonce, long txnId, String previousNonce, int length, long catalogCRC,
+                  int partitionCount, String processId, boolean completed) {
+            m_nonce = nonce;
+            m_txnId = txnId;
+            m_previousNonce = previousNonce;
+            m_length = length;
+            m_catalogCRC = catalogCRC;
+            m_partitionCount = partitionCount;
+            m_processId = processId;
+            m_completed = completed;
+        }
+
+        ChainLink complete() {
+            return new ChainLink(m_nonce, m_txnId, m_previousNonce, m_length, m_catalogCRC,
+                    m_partitionCount, m_processId, true);
+        }
+    }
+
+    private boolean m_base = true;
+
+    public IncrementalSnapshotWritePlan()
+    {
+        super(SnapshotFormat.INCREMENTAL);
+    }
+
+    @Override
+    public Callable<Boolean> createSetup(final String file_path, String pathType,
+                                         final String file_nonce,
+                                         final long txnId,
+                                         Map<Integer, Long> partitionTransactionIds,
+                                         JSONObject jsData,
+                                         final SystemProcedureExecutionContext context,
+                                         final VoltTable result,
+                                         ExtensibleSnapshotDigestData extraSnapshotData,
+                                         SiteTracker tracker,
+                                         HashinatorSnapshotData hashinatorData,
+                                         long timestamp)
+    {
+        final int hostId = context.getHostId();
+        final ChainLink previous = readLastLink(file_path, hostId);
+
+        m_base = previous == null ||
+                 !previous.m_completed ||
+                 !previous.m_processId.equals(PROCESS_ID) ||
+                 previous.m_catalogCRC != context.getCatalogCRC() ||
+                 previous.m_partitionCount != context.getNumberOfPartitions() ||
+                 previous.m_length >= MAX_CHAIN_LENGTH ||
+                 (jsData != null && jsData.optBoolean("incrementalBase"));
+        final ChainLink link = new ChainLink(file_nonce, txnId, m_base ? null : previous.m_nonce,
+                m_base ? 0 : previous.m_length + 1, context.getCatalogCRC(),
+                context.getNumberOfPartitions(), PROCESS_ID, false);
+        SNAP_LOG.info("Incremental snapshot " + file_nonce + (m_base ? " starts a new chain" :
+                " follows " + link.m_previousNonce + ", " + link.m_length + " since the base"));
+
+        final Callable<Boolean> setup = super.createSetup(file_path, pathType, file_nonce, txnId,
+                partitionTransactionIds, jsData, context, result, extraSnapshotData, tracker,
+                hashinatorData, timestamp);
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception
+            {
+                // Until it is marked complete the next snapshot won't continue from this one
+                writeChainFile(file_path, hostId, link);
+                final Boolean created = setup.call();
+                // Queued behind the digest and catalog tasks of the native setup
+                SnapshotSiteProcessor.m_tasksOnSnapshotCompletion.offer(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        hideFromRestore(file_path, SnapshotUtil.constructDigestFilenameForNonce(file_nonce, hostId));
+                        hideFromRestore(file_path,
+                                SnapshotUtil.constructHashinatorConfigFilenameForNonce(file_nonce, hostId));
+                        hideFromRestore(file_path, SnapshotUtil.constructCatalogFilenameForNonce(file_nonce));
+                        writeChainFile(file_path, hostId, link.complete());
+                    }
+                });
+                return created;
+            }
+        };
+    }
+
+    @Override
+    protected SnapshotTableTask createTableTask(Table table)
+    {
+        return new SnapshotTableTask(
+                table,
+                new SnapshotDataFilter[0],
+                null,
+                false,
+                m_base);
+    }
+
+    /**
+     * Block ids only mean something in the copy of a replicated table they came from, so
+     * always write replicated tables from the same site instead of spreading them.
+     */
+    @Override
+    protected void placeReplicatedTasks(Collection<SnapshotTableTask> tasks, List<Long> hsids)
+    {
+        if (!hsids.isEmpty()) {
+            super.placeReplicatedTasks(tasks, hsids.subList(0, 1));
+        }
+    }
+
+    private static void hideFromRestore(String path, String filename)
+    {
+        final File f = new VoltFile(path, filename);
+        if (f.exists() && !f.renameTo(new VoltFile(path, filename + INCREMENTAL_SUFFIX))) {
+            throw new RuntimeException("Failed to rename " + f + " for incremental snapshot");
+        }
+    }
+
+    public static String constructChainFilenameForNonce(String nonce, int hostId)
+    {
+        return (nonce + "-host_" + hostId + CHAIN_EXTENSION);
+    }
+
+    /**
+     * Read the .chain file of the host's most recent incremental snapshot in the directory,
+     * null if it has none
+     */
+    static ChainLink readLastLink(String path, int hostId)
+    {
+        final String suffix = "-host_" + hostId + CHAIN_EXTENSION;
+        final File[] files = new VoltFile(path).listFiles();
+        if (files == null) {
+            return null;
+        }
+        ChainLink last = null;
+        for (File f : files) {
+            if (!f.getName().endsWith(suffix)) {
+                continue;
+            }
+            final String nonce = f.getName().substring(0, f.getName().length() - suffix.length());
+            try {
+                final JSONObject obj = new JSONObject(new String(Files.readAllBytes(f.toPath()), Charsets.UTF_8));
+                final ChainLink link = new ChainLink(nonce,
+                        obj.getLong("txnId"),
+                        obj.isNull("previousNonce") ? null : obj.getString("previousNonce"),
+                        obj.getInt("length"),
+                        obj.optLong("catalogCRC"),
+                        obj.optInt("partitionCount"),
+                        obj.optString("processId"),
+                        obj.optBoolean("completed", true));
+                if (last == null || link.m_txnId > last.m_txnId) {
+                    last = link;
+                }
+            } catch (Exception e) {
+                // A torn chain file can't be continued from, starting a new base is always safe
+                SNAP_LOG.warn("Unable to read incremental snapshot chain file " + f + ", starting a new chain", e);
+                return null;
+            }
+        }
+        return last;
+    }
+
+    static void writeChainFile(String path, int hostId, ChainLink link)
+    {
+        final File f = new VoltFile(path, constructChainFilenameForNonce(link.m_nonce, hostId));
+        try {
+            JSONStringer stringer = new JSONStringer();
+            stringer.object();
+            stringer.key("txnId").value(link.m_txnId);
+            stringer.key("previousNonce").value(link.m_previousNonce);
+            stringer.key("length").value(link.m_length);
+            stringer.key("catalogCRC").value(link.m_catalogCRC);
+            stringer.key("partitionCount").value(link.m_partitionCount);
+            stringer.key("processId").value(link.m_processId);
+            stringer.key("completed").value(link.m_completed);
+            stringer.endObject();
+            final FileOutputStream fos = new FileOutputStream(f);
+            try {
+                fos.write(stringer.toString().getBytes(Charsets.UTF_8));
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to write incremental snapshot chain file " + f, e);
+        }
+    }
+}
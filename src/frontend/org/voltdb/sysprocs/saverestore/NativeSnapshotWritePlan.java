@@ -59,6 +59,18 @@ import com.google_voltpatches.common.collect.Maps;
  */
 public class NativeSnapshotWritePlan extends SnapshotWritePlan
 {
+    private final SnapshotFormat m_format;
+
+    public NativeSnapshotWritePlan()
+    {
+        this(SnapshotFormat.NATIVE);
+    }
+
+    protected NativeSnapshotWritePlan(SnapshotFormat format)
+    {
+        m_format = format;
+    }
+
     @Override
     public Callable<Boolean> createSetup(String file_path, String pathType,
                                             String file_nonce,
@@ -110,7 +122,7 @@ public class NativeSnapshotWritePlan extends SnapshotWritePlan
                     context.getHostId(),
                     file_path,
                     file_nonce,
-                    SnapshotFormat.NATIVE,
+                    m_format,
                     tableArray);
 
         final ArrayList<SnapshotTableTask> partitionedSnapshotTasks =
@@ -118,12 +130,7 @@ public class NativeSnapshotWritePlan extends SnapshotWritePlan
         final ArrayList<SnapshotTableTask> replicatedSnapshotTasks =
             new ArrayList<SnapshotTableTask>();
         for (final Table table : tableArray) {
-            final SnapshotTableTask task =
-                    new SnapshotTableTask(
-                            table,
-                            new SnapshotDataFilter[0],
-                            null,
-                            false);
+            final SnapshotTableTask task = createTableTask(table);
 
             SNAP_LOG.debug("ADDING TASK: " + task);
 
@@ -161,6 +168,15 @@ public class NativeSnapshotWritePlan extends SnapshotWritePlan
                 replicatedSnapshotTasks, isTruncationSnapshot);
     }
 
+    protected SnapshotTableTask createTableTask(Table table)
+    {
+        return new SnapshotTableTask(
+                table,
+                new SnapshotDataFilter[0],
+                null,
+                false);
+    }
+
     private Callable<Boolean> createDeferredSetup(final String file_path,
                                                   final String pathType,
                                                   final String file_nonce,
@@ -263,7 +279,7 @@ public class NativeSnapshotWritePlan extends SnapshotWritePlan
                 table,
                 file_path,
                 file_nonce,
-                SnapshotFormat.NATIVE,
+                m_format,
                 hostId);
 
         if (isActiveActiveDRed && table.getIsdred()) {
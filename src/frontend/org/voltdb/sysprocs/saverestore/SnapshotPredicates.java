@@ -36,6 +36,7 @@ public class SnapshotPredicates {
     public final int m_tableId;
     private final List<Pair<AbstractExpression, Boolean>> m_predicates =
             new ArrayList<Pair<AbstractExpression, Boolean>>();
+    private boolean m_incrementalBase = false;
 
     public SnapshotPredicates(int tableId)
     {
@@ -47,6 +48,14 @@ public class SnapshotPredicates {
         m_predicates.add(Pair.of(predicate, deleteTuples));
     }
 
+    /**
+     * Have an incremental snapshot of the table include every block, starting a new chain.
+     */
+    public void setIncrementalBase(boolean incrementalBase)
+    {
+        m_incrementalBase = incrementalBase;
+    }
+
     public byte[] toBytes()
     {
         byte[][] predicates = new byte[m_predicates.size()][];
@@ -58,6 +67,9 @@ public class SnapshotPredicates {
                 JSONStringer stringer = new JSONStringer();
                 stringer.object();
                 stringer.key("triggersDelete").value(p.getSecond());
+                if (m_incrementalBase) {
+                    stringer.key("incrementalBase").value(true);
+                }
                 // If the predicate is null, EE will serialize all rows to the corresponding data
                 // target. It's the same as passing an always-true expression,
                 // but without the overhead of the evaluating the expression. This avoids the
@@ -0,0 +1,236 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.sysprocs.saverestore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.CoreUtils;
+import org.voltcore.utils.DBBPool.BBContainer;
+
+/**
+ * Reads the table save files of a restore several at a time. Every open file has its
+ * own chunk reader thread reading, checking and decompressing ahead of the consumer, so
+ * with a bounded number of files open at once the decompression of replicated and
+ * partitioned tables overlaps instead of going file by file. Each chunk is handed to a
+ * {@link ChunkHandler} along with the partition it belongs to so it can go straight to the
+ * site that owns that partition.
+ *
+ * The progress of each table is kept by the reader and reported by {@link #getTableStats()}.
+ * Nothing in this tree reads a restore through it yet, the @SnapshotRestore sysproc that
+ * {@link org.voltdb.RestoreAgent} relies on is a commercial feature.
+ */
+public class SnapshotRestoreReader {
+    private static final VoltLogger SNAP_LOG = new VoltLogger("SNAPSHOT");
+
+    /**
+     * Number of save files read at the same time by default
+     */
+    public static final int READ_THREADS = Integer.getInteger("SNAPSHOT_RESTORE_READ_THREADS",
+            Math.max(1, Math.min(8, CoreUtils.availableProcessors())));
+
+
+    public interface ChunkHandler {
+        /**
+         * Called from the reader threads, concurrently for different files, with a
+         * decompressed chunk in VoltTable serialization at position 0. The handler owns
+         * the chunk and has to discard it. Chunks of replicated tables have partition id 0
+         * and belong to every site.
+         */
+        public void handleChunk(TableSaveFile saveFile, int partitionId, BBContainer chunk) throws Exception;
+    }
+
+    /**
+     * Progress of the restore of one table, updated by the reader threads as chunks are handed off.
+     */
+    public static class TableProgress {
+        private final AtomicLong m_files = new AtomicLong();
+        private final AtomicLong m_chunks = new AtomicLong();
+        private final AtomicLong m_bytes = new AtomicLong();
+        private final AtomicLong m_rows = new AtomicLong();
+        private final long m_startNanos = System.nanoTime();
+        private volatile long m_lastChunkNanos = m_startNanos;
+
+        public long getFiles() {
+            return m_files.get();
+        }
+
+        public long getChunks() {
+            return m_chunks.get();
+        }
+
+        public long getBytes() {
+            return m_bytes.get();
+        }
+
+        public long getRows() {
+            return m_rows.get();
+        }
+
+        /**
+         * Time from the first file of the table being opened to its last chunk being handed off
+         */
+        public long getElapsedNanos() {
+            return m_lastChunkNanos - m_startNanos;
+        }
+    }
+
+    private final List<File> m_files;
+    private final int m_readAheadChunks;
+    private final Integer[] m_relevantPartitionIds;
+    private final int m_threads;
+    private volatile boolean m_failed = false;
+    private final ConcurrentHashMap<String, TableProgress> m_tables =
+            new ConcurrentHashMap<String, TableProgress>();
+
+    public SnapshotRestoreReader(
+            List<File> files,
+            int readAheadChunks,
+            Integer[] relevantPartitionIds) {
+        this(files, readAheadChunks, relevantPartitionIds, READ_THREADS);
+    }
+
+    public SnapshotRestoreReader(
+            List<File> files,
+            int readAheadChunks,
+            Integer[] relevantPartitionIds,
+            int threads) {
+        m_files = new ArrayList<File>(files);
+        m_readAheadChunks = readAheadChunks;
+        m_relevantPartitionIds = relevantPartitionIds;
+        m_threads = Math.max(1, threads);
+    }
+
+    /**
+     * Read every file to the end, handing its chunks to the handler, and return once all
+     * of them have been read. The first failure stops the files still being read and is rethrown.
+     */
+    public void read(final ChunkHandler handler) throws IOException {
+        // Start with the biggest files so a large table isn't left to finish on its own at the end
+        Collections.sort(m_files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(b.length(), a.length());
+            }
+        });
+
+        final ExecutorService es = Executors.newFixedThreadPool(
+                Math.min(m_threads, Math.max(1, m_files.size())),
+                CoreUtils.getThreadFactory("Restore Reader"));
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (final File file : m_files) {
+                futures.add(es.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        if (!m_failed) {
+                            readFile(file, handler);
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            IOException failure = null;
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    m_failed = true;
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException ?
+                                (IOException)e.getCause() : new IOException(e.getCause());
+                    }
+                } catch (InterruptedException e) {
+                    m_failed = true;
+                    throw new IOException(e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            es.shutdown();
+        }
+    }
+
+    private void readFile(File file, ChunkHandler handler) throws Exception {
+        final FileInputStream fis = new FileInputStream(file);
+        TableSaveFile saveFile = null;
+        try {
+            saveFile = new TableSaveFile(fis, m_readAheadChunks, m_relevantPartitionIds);
+            TableProgress progress = m_tables.get(saveFile.getTableName());
+            if (progress == null) {
+                final TableProgress newProgress = new TableProgress();
+                progress = m_tables.putIfAbsent(saveFile.getTableName(), newProgress);
+                if (progress == null) {
+                    progress = newProgress;
+                }
+            }
+            progress.m_files.incrementAndGet();
+
+            // The row count follows the table header in every chunk
+            final int rowCountOffset = saveFile.getTableHeader().capacity();
+            while (!m_failed && saveFile.hasMoreChunks()) {
+                final BBContainer c = saveFile.getNextChunk();
+                if (c == null) {
+                    continue;
+                }
+                final int bytes = c.b().remaining();
+                final int rows = c.b().getInt(rowCountOffset);
+                handler.handleChunk(saveFile, ((TableSaveFile.Container)c).partitionId, c);
+
+                progress.m_chunks.incrementAndGet();
+                progress.m_bytes.addAndGet(bytes);
+                progress.m_rows.addAndGet(rows);
+                progress.m_lastChunkNanos = System.nanoTime();
+            }
+        } catch (Exception e) {
+            m_failed = true;
+            SNAP_LOG.warn("Failed to restore from " + file, e);
+            throw e;
+        } finally {
+            if (saveFile != null) {
+                saveFile.close();
+            }
+            fis.close();
+        }
+    }
+
+    /**
+     * Progress of every table this reader has opened a file of, keyed by table name.
+     */
+    public Map<String, TableProgress> getTableStats() {
+        return new TreeMap<String, TableProgress>(m_tables);
+    }
+}
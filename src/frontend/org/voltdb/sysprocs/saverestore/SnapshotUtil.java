@@ -92,6 +92,7 @@ public class SnapshotUtil {
 
     public final static String HASH_EXTENSION = ".hash";
     public final static String COMPLETION_EXTENSION = ".finished";
+    public final static String INCREMENTAL_TABLE_EXTENSION = ".vpi";
 
     public static final String JSON_PATH = "path";
     public static final String JSON_PATH_TYPE = "pathType";
@@ -1156,6 +1157,10 @@ public class SnapshotUtil {
         if (format == SnapshotFormat.CSV) {
             extension = ".csv";
         }
+        else if (format == SnapshotFormat.INCREMENTAL) {
+            // Not a .vpt so restore doesn't mistake the blocks of a delta for a whole table
+            extension = INCREMENTAL_TABLE_EXTENSION;
+        }
 
         StringBuilder filename_builder = new StringBuilder(fileNonce);
         filename_builder.append("-");
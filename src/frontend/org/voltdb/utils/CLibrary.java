@@ -74,4 +74,46 @@ public class CLibrary {
 
     public static native final int getpid();
 
+    /*
+     * Registered separately so a symbol missing on other platforms
+     * doesn't stop the rest of the library from loading
+     */
+    private static final class Affinity {
+        static {
+            Native.register(Affinity.class, "c");
+        }
+
+        static native int sched_setaffinity(int pid, int cpusetsize, long[] mask);
+    }
+
+    /**
+     * Bind the calling thread to a set of CPUs. Only supported on Linux.
+     * @param cpus A CPU number or an inclusive range of them, like 4 or 2-3
+     * @return true if the thread was bound
+     */
+    public static boolean bindCurrentThread(String cpus) {
+        if (!System.getProperty("os.name").equals("Linux")) {
+            return false;
+        }
+        try {
+            final int dash = cpus.indexOf('-');
+            final int first = Integer.parseInt(cpus.substring(0, dash < 0 ? cpus.length() : dash).trim());
+            final int last = dash < 0 ? first : Integer.parseInt(cpus.substring(dash + 1).trim());
+            if (first < 0 || last < first) {
+                return false;
+            }
+            final long mask[] = new long[last / 64 + 1];
+            for (int cpu = first; cpu <= last; cpu++) {
+                mask[cpu / 64] |= 1L << (cpu % 64);
+            }
+            // pid 0 is the calling thread
+            return Affinity.sched_setaffinity(0, mask.length * 8, mask) == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        } catch (Throwable t) {
+            hostLog.warn("Failed to set thread affinity via JNA", t);
+        }
+        return false;
+    }
+
 }
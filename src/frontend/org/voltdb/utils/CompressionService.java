@@ -38,6 +38,10 @@ import com.google_voltpatches.common.util.concurrent.ListenableFuture;
 import com.google_voltpatches.common.util.concurrent.ListeningExecutorService;
 import com.google_voltpatches.common.util.concurrent.MoreExecutors;
 
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
 public final class CompressionService {
 
     static {
@@ -232,6 +236,89 @@ public final class CompressionService {
         return Snappy.uncompress(compressed, uncompressed);
     }
 
+    /*
+     * The bundled LZ4 only works on arrays, so direct buffers are staged through
+     * per thread arrays. A compressed block is prefixed with its uncompressed length.
+     */
+    private static final LZ4Compressor m_lz4Compressor = LZ4Factory.fastestInstance().fastCompressor();
+    private static final LZ4FastDecompressor m_lz4Decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+
+    private static class LZ4Arrays {
+        private byte input[] = new byte[1024 * 32];
+        private byte output[] = new byte[1024 * 32];
+    }
+    private static ThreadLocal<LZ4Arrays> m_lz4Arrays = new ThreadLocal<LZ4Arrays>() {
+        @Override
+        protected LZ4Arrays initialValue() {
+            return new LZ4Arrays();
+        }
+    };
+
+    private static LZ4Arrays getLZ4Arrays(int inputLength, int outputLength) {
+        final LZ4Arrays arrays = m_lz4Arrays.get();
+        if (arrays.input.length < inputLength) {
+            arrays.input = new byte[Math.max(arrays.input.length * 2, inputLength)];
+        }
+        if (arrays.output.length < outputLength) {
+            arrays.output = new byte[Math.max(arrays.output.length * 2, outputLength)];
+        }
+        return arrays;
+    }
+
+    public static int maxCompressedLengthLZ4(int uncompressedSize) {
+        return m_lz4Compressor.maxCompressedLength(uncompressedSize) + 4;
+    }
+
+    /**
+     * Compress the remaining bytes of buffer into output starting at its position. Like
+     * {@link #compressBuffer(ByteBuffer, ByteBuffer)} the output position is left alone
+     * and its limit is set to the end of the compressed bytes.
+     * @return the number of compressed bytes, including the length prefix
+     */
+    public static int compressBufferLZ4(ByteBuffer buffer, ByteBuffer output) throws IOException {
+        final int length = buffer.remaining();
+        final LZ4Arrays arrays = getLZ4Arrays(length, m_lz4Compressor.maxCompressedLength(length));
+        buffer.duplicate().get(arrays.input, 0, length);
+        final int compressedLength = m_lz4Compressor.compress(arrays.input, 0, length, arrays.output, 0);
+
+        final ByteBuffer out = output.duplicate();
+        out.putInt(length);
+        out.put(arrays.output, 0, compressedLength);
+        output.limit(output.position() + compressedLength + 4);
+        return compressedLength + 4;
+    }
+
+    public static int uncompressedLengthLZ4(ByteBuffer compressed) throws IOException {
+        if (compressed.remaining() < 4) {
+            throw new IOException("Truncated LZ4 block");
+        }
+        return compressed.getInt(compressed.position());
+    }
+
+    /**
+     * Decompress a block written by {@link #compressBufferLZ4(ByteBuffer, ByteBuffer)}
+     * into uncompressed starting at its position, which is left alone.
+     * @return the number of uncompressed bytes
+     */
+    public static int decompressBufferLZ4(final ByteBuffer compressed, final ByteBuffer uncompressed) throws IOException {
+        final int length = uncompressedLengthLZ4(compressed);
+        final int compressedLength = compressed.remaining() - 4;
+        final LZ4Arrays arrays = getLZ4Arrays(compressedLength, length);
+        final ByteBuffer in = compressed.duplicate();
+        in.position(in.position() + 4);
+        in.get(arrays.input, 0, compressedLength);
+        try {
+            if (m_lz4Decompressor.decompress(arrays.input, 0, arrays.output, 0, length) != compressedLength) {
+                throw new IOException("Corrupt LZ4 block");
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt LZ4 block", e);
+        }
+        uncompressed.duplicate().put(arrays.output, 0, length);
+        uncompressed.limit(uncompressed.position() + length);
+        return length;
+    }
+
     public static byte[] decompressBytes(byte bytes[]) throws IOException {
         IOBuffers buffers = m_buffers.get();
         BBContainer input = buffers.input;
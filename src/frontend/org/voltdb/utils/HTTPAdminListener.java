@@ -73,6 +73,7 @@ import org.voltdb.AuthenticationResult;
 import org.voltdb.CatalogContext;
 import org.voltdb.ClientResponseImpl;
 import org.voltdb.HTTPClientInterface;
+import org.voltdb.StatsPublisher;
 import org.voltdb.VoltDB;
 import org.voltdb.VoltTable;
 import org.voltdb.client.BatchTimeoutOverrideType;
@@ -322,6 +323,33 @@ public class HTTPAdminListener {
 
     }
 
+    class MetricsRequestHandler extends VoltRequestHandler {
+
+        @Override
+        public void handle(String target,
+                           Request baseRequest,
+                           HttpServletRequest request,
+                           HttpServletResponse response)
+                           throws IOException, ServletException {
+
+            super.handle(target, baseRequest, request, response);
+            if (baseRequest.isHandled()) return;
+            // Served from the latest sample, a scrape never reads the statistics itself
+            String metrics = StatsPublisher.getPrometheusText();
+            if (metrics == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                        "Statistics publishing is not enabled, set STATS_PUBLISH_INTERVAL");
+                baseRequest.setHandled(true);
+                return;
+            }
+            response.setContentType("text/plain; version=0.0.4;charset=utf-8");
+            response.setStatus(HttpServletResponse.SC_OK);
+            baseRequest.setHandled(true);
+            response.getWriter().print(metrics);
+        }
+
+    }
+
     //This is a wrapper to generate JSON for profile of authenticated user.
     private final class Profile {
         private final String user;
@@ -1009,6 +1037,10 @@ public class HTTPAdminListener {
             ContextHandler profileRequestHandler = new ContextHandler("/profile");
             profileRequestHandler.setHandler(new UserProfileHandler());
 
+            ///metrics
+            ContextHandler metricsRequestHandler = new ContextHandler("/metrics");
+            metricsRequestHandler.setHandler(new MetricsRequestHandler());
+
             ContextHandlerCollection handlers = new ContextHandlerCollection();
             handlers.setHandlers(new Handler[] {
                     apiRequestHandler,
@@ -1016,6 +1048,7 @@ public class HTTPAdminListener {
                     ddlRequestHandler,
                     deploymentRequestHandler,
                     profileRequestHandler,
+                    metricsRequestHandler,
                     dbMonitorHandler
             });
 
@@ -0,0 +1,381 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.voltdb.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.json_voltpatches.JSONObject;
+import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltcore.utils.Pair;
+import org.voltdb.DefaultSnapshotDataTarget;
+import org.voltdb.PrivateVoltTableFactory;
+import org.voltdb.SnapshotSiteProcessor;
+import org.voltdb.VoltTable;
+import org.voltdb.sysprocs.saverestore.IncrementalSnapshotWritePlan;
+import org.voltdb.sysprocs.saverestore.SnapshotUtil;
+import org.voltdb.sysprocs.saverestore.TableSaveFile;
+
+import com.google_voltpatches.common.base.Charsets;
+
+/**
+ * Merge a chain of incremental snapshots into a regular native snapshot that can be
+ * restored like any other.
+ *
+ * Every chunk of an incremental table file has a segment per tuple block, a block id and a
+ * row count followed by the rows. The blocks that didn't change since the previous snapshot
+ * of the chain have a row count of -1 and their rows are in an earlier snapshot. The merge
+ * walks the chain from the newest snapshot to the base, writing the rows of every block
+ * from the newest snapshot that has them.
+ */
+public class IncrementalSnapshotMerger {
+
+    private static final VoltLogger LOG = new VoltLogger("SNAPSHOT");
+
+    private static final int UNMODIFIED_BLOCK = -1;
+
+    public static void main(String[] args) {
+        File dir = new File(".");
+        File outdir = null;
+        String nonce = null;
+        String outNonce = null;
+
+        for (int ii = 0; ii < args.length; ii++) {
+            String arg = args[ii];
+            if (arg.equals("--help")) {
+                printHelpAndQuit(0);
+            } else if (ii + 1 >= args.length) {
+                System.err.println("Error: Not enough args following " + arg);
+                printHelpAndQuit(-1);
+            } else if (arg.equals("--dir")) {
+                dir = new File(args[++ii]);
+            } else if (arg.equals("--outdir")) {
+                outdir = new File(args[++ii]);
+            } else if (arg.equals("--nonce")) {
+                nonce = args[++ii];
+            } else if (arg.equals("--outnonce")) {
+                outNonce = args[++ii];
+            } else {
+                System.err.println("Error: Unknown argument " + arg);
+                printHelpAndQuit(-1);
+            }
+        }
+        if (nonce == null || outNonce == null) {
+            System.err.println("Error: --nonce and --outnonce are required");
+            printHelpAndQuit(-1);
+        }
+        if (outdir == null) {
+            outdir = dir;
+        }
+        if (!dir.isDirectory() || !outdir.isDirectory()) {
+            System.err.println("Error: " + dir + " and " + outdir + " must be directories");
+            System.exit(-1);
+        }
+
+        try {
+            merge(dir, nonce, outdir, outNonce);
+        } catch (Exception e) {
+            System.err.println("Error: Failed to merge incremental snapshot " + nonce);
+            e.printStackTrace();
+            System.exit(-1);
+        }
+        System.exit(0);
+    }
+
+    private static void printHelpAndQuit(int code) {
+        System.out.println("Usage: IncrementalSnapshotMerger --nonce <incremental snapshot> --outnonce <merged snapshot>");
+        System.out.println("                                 [--dir <snapshot directory>] [--outdir <output directory>]");
+        System.out.println("Merges the chain of incremental snapshots ending with the named one into a native snapshot.");
+        System.exit(code);
+    }
+
+    /**
+     * Merge the chain of every host with snapshot files in the directory.
+     */
+    public static void merge(File dir, String nonce, File outdir, String outNonce) throws Exception {
+        final String chainPrefix = nonce + "-host_";
+        final File[] chainFiles = dir.listFiles();
+        final Map<Integer, List<String>> chains = new TreeMap<Integer, List<String>>();
+        for (File f : chainFiles) {
+            if (f.getName().startsWith(chainPrefix) && f.getName().endsWith(IncrementalSnapshotWritePlan.CHAIN_EXTENSION)) {
+                final String host = f.getName().substring(chainPrefix.length(),
+                        f.getName().length() - IncrementalSnapshotWritePlan.CHAIN_EXTENSION.length());
+                final int hostId = Integer.parseInt(host);
+                chains.put(hostId, readChain(dir, nonce, hostId));
+            }
+        }
+        if (chains.isEmpty()) {
+            throw new IOException("No incremental snapshot " + nonce + " in " + dir);
+        }
+
+        for (File f : chainFiles) {
+            final String name = f.getName();
+            if (!name.startsWith(nonce + "-") || !name.endsWith(SnapshotUtil.INCREMENTAL_TABLE_EXTENSION)) {
+                continue;
+            }
+            // Table name and host, the same in every snapshot of the chain
+            final String suffix = name.substring(nonce.length(),
+                    name.length() - SnapshotUtil.INCREMENTAL_TABLE_EXTENSION.length());
+            List<String> chain = chains.values().iterator().next();
+            final int hostIndex = suffix.lastIndexOf("-host_");
+            if (hostIndex != -1) {
+                chain = chains.get(Integer.parseInt(suffix.substring(hostIndex + "-host_".length())));
+                if (chain == null) {
+                    throw new IOException("No incremental snapshot chain for " + f);
+                }
+            }
+            final List<File> files = new ArrayList<File>();
+            for (String link : chain) {
+                files.add(new File(dir, link + suffix + SnapshotUtil.INCREMENTAL_TABLE_EXTENSION));
+            }
+            mergeTable(files, new File(outdir, outNonce + suffix + ".vpt"));
+        }
+
+        // The digest, hashinator config and catalog of the newest snapshot describe the merged one
+        for (Integer hostId : chains.keySet()) {
+            copyHidden(dir, SnapshotUtil.constructDigestFilenameForNonce(nonce, hostId),
+                    outdir, SnapshotUtil.constructDigestFilenameForNonce(outNonce, hostId));
+            copyHidden(dir, SnapshotUtil.constructHashinatorConfigFilenameForNonce(nonce, hostId),
+                    outdir, SnapshotUtil.constructHashinatorConfigFilenameForNonce(outNonce, hostId));
+        }
+        copyHidden(dir, SnapshotUtil.constructCatalogFilenameForNonce(nonce),
+                outdir, SnapshotUtil.constructCatalogFilenameForNonce(outNonce));
+    }
+
+    /*
+     * Nonces of the chain from the named snapshot back to its base
+     */
+    private static List<String> readChain(File dir, String nonce, int hostId) throws Exception {
+        final List<String> chain = new ArrayList<String>();
+        String link = nonce;
+        while (link != null) {
+            if (chain.contains(link) || chain.size() > IncrementalSnapshotWritePlan.MAX_CHAIN_LENGTH + 1) {
+                throw new IOException("Incremental snapshot chain of " + nonce + " loops at " + link);
+            }
+            chain.add(link);
+            final File f = new File(dir, IncrementalSnapshotWritePlan.constructChainFilenameForNonce(link, hostId));
+            if (!f.exists()) {
+                throw new IOException("Missing " + f + ", the chain of " + nonce + " is incomplete");
+            }
+            final JSONObject obj = new JSONObject(new String(Files.readAllBytes(f.toPath()), Charsets.UTF_8));
+            if (!obj.optBoolean("completed", true)) {
+                throw new IOException("Incremental snapshot " + link + " in the chain of " + nonce + " didn't complete");
+            }
+            link = obj.isNull("previousNonce") ? null : obj.getString("previousNonce");
+        }
+        return chain;
+    }
+
+    private static void copyHidden(File dir, String name, File outdir, String outName) throws IOException {
+        final File f = new File(dir, name + IncrementalSnapshotWritePlan.INCREMENTAL_SUFFIX);
+        if (f.exists()) {
+            Files.copy(f.toPath(), new File(outdir, outName).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Merge the files of one table, newest first, into a native table file.
+     */
+    static void mergeTable(List<File> files, File output) throws Exception {
+        LOG.info("Merging " + files.get(0).getName() + " from " + files.size() + " snapshots into " + output);
+        final File tmp = new File(output.getPath() + ".tmp");
+        Writer writer = null;
+        // Blocks whose rows are in an older snapshot of the chain
+        Set<Pair<Integer, Long>> needed = null;
+        try {
+            for (File file : files) {
+                final FileInputStream fis = new FileInputStream(file);
+                final TableSaveFile saveFile = new TableSaveFile(fis, 3, null);
+                try {
+                    if (!saveFile.getCompleted()) {
+                        throw new IOException(file + " is not a completed snapshot file");
+                    }
+                    if (writer == null) {
+                        writer = new Writer(tmp, saveFile);
+                    }
+                    needed = mergeFile(saveFile, needed, writer);
+                } finally {
+                    saveFile.close();
+                    fis.close();
+                }
+                if (needed.isEmpty()) {
+                    break;
+                }
+            }
+            if (!needed.isEmpty()) {
+                throw new IOException(needed.size() + " blocks of " + files.get(0) +
+                        " aren't in any snapshot of its chain");
+            }
+            writer.close();
+            writer = null;
+            if (!tmp.renameTo(output)) {
+                throw new IOException("Failed to rename " + tmp + " to " + output);
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+                tmp.delete();
+            }
+        }
+    }
+
+    /*
+     * Write the rows of the needed blocks that are modified in this file, every modified
+     * block if this is the newest file, and return the blocks still needed from older ones.
+     */
+    private static Set<Pair<Integer, Long>> mergeFile(TableSaveFile saveFile,
+                                                      Set<Pair<Integer, Long>> needed,
+                                                      Writer writer) throws Exception {
+        final boolean newest = needed == null;
+        final Set<Pair<Integer, Long>> unmodified = new HashSet<Pair<Integer, Long>>();
+        final Set<Pair<Integer, Long>> modified = new HashSet<Pair<Integer, Long>>();
+        final int bodyOffset = saveFile.getTableHeader().capacity();
+        while (saveFile.hasMoreChunks()) {
+            final BBContainer c = saveFile.getNextChunk();
+            if (c == null) {
+                continue;
+            }
+            try {
+                final int partitionId = ((TableSaveFile.Container)c).partitionId;
+                final ByteBuffer b = c.b();
+                b.position(bodyOffset);
+                final int blockCount = b.getInt();
+                for (int ii = 0; ii < blockCount; ii++) {
+                    final Pair<Integer, Long> block = Pair.of(partitionId, b.getLong());
+                    final int rowCount = b.getInt();
+                    if (rowCount == UNMODIFIED_BLOCK) {
+                        unmodified.add(block);
+                        continue;
+                    }
+                    modified.add(block);
+                    final boolean write = newest || needed.contains(block);
+                    for (int row = 0; row < rowCount; row++) {
+                        final int length = b.getInt(b.position());
+                        if (write) {
+                            writer.writeRow(partitionId, b, length + 4);
+                        } else {
+                            b.position(b.position() + length + 4);
+                        }
+                    }
+                }
+            } finally {
+                c.discard();
+            }
+        }
+
+        final Set<Pair<Integer, Long>> stillNeeded;
+        if (newest) {
+            stillNeeded = unmodified;
+        } else {
+            stillNeeded = needed;
+            for (Pair<Integer, Long> block : needed) {
+                if (!modified.contains(block) && !unmodified.contains(block)) {
+                    throw new IOException("Block " + block + " is missing from " + saveFile.getTableName() +
+                            " of an older snapshot in the chain");
+                }
+            }
+        }
+        stillNeeded.removeAll(modified);
+        return stillNeeded;
+    }
+
+    /**
+     * Buffers rows per partition into native snapshot chunks.
+     */
+    private static class Writer {
+        private final DefaultSnapshotDataTarget m_target;
+        private final Map<Integer, BBContainer> m_chunks = new HashMap<Integer, BBContainer>();
+        private final ArrayDeque<Future<?>> m_outstanding = new ArrayDeque<Future<?>>();
+
+        private Writer(File file, TableSaveFile source) throws IOException {
+            // The schema is the header of the source with no rows
+            final ByteBuffer header = source.getTableHeader().duplicate();
+            header.position(0);
+            final ByteBuffer schema = ByteBuffer.allocate(header.remaining() + 4);
+            schema.put(header).putInt(0).flip();
+            final VoltTable schemaTable = PrivateVoltTableFactory.createVoltTableFromBuffer(schema, true);
+
+            final List<Integer> partitionIds = new ArrayList<Integer>();
+            for (int partitionId : source.getPartitionIds()) {
+                partitionIds.add(partitionId);
+            }
+            m_target = new DefaultSnapshotDataTarget(file, source.getHostId(), source.getClusterName(),
+                    source.getDatabaseName(), source.getTableName(), source.getTotalPartitions(),
+                    source.isReplicated(), partitionIds, schemaTable, source.getTxnId(), source.getTimestamp());
+        }
+
+        private void writeRow(int partitionId, ByteBuffer rows, int length) throws Exception {
+            BBContainer chunk = m_chunks.get(partitionId);
+            if (chunk != null && chunk.b().remaining() < length) {
+                flush(partitionId, chunk);
+                chunk = null;
+            }
+            if (chunk == null) {
+                chunk = DBBPool.allocateDirect(SnapshotSiteProcessor.m_snapshotBufferLength);
+                chunk.b().putInt(partitionId).putInt(0);
+                m_chunks.put(partitionId, chunk);
+            }
+            final ByteBuffer row = rows.slice();
+            row.limit(length);
+            chunk.b().put(row);
+            chunk.b().putInt(4, chunk.b().getInt(4) + 1);
+            rows.position(rows.position() + length);
+        }
+
+        private void flush(int partitionId, final BBContainer chunk) throws Exception {
+            m_chunks.remove(partitionId);
+            chunk.b().flip();
+            m_outstanding.add(m_target.write(new Callable<BBContainer>() {
+                @Override
+                public BBContainer call() {
+                    return chunk;
+                }
+            }, 0));
+            // Don't let the chunks waiting to be written pile up in memory
+            while (m_outstanding.size() > 16) {
+                m_outstanding.poll().get();
+            }
+        }
+
+        private void close() throws Exception {
+            for (Map.Entry<Integer, BBContainer> e : new ArrayList<Map.Entry<Integer, BBContainer>>(m_chunks.entrySet())) {
+                flush(e.getKey(), e.getValue());
+            }
+            for (Future<?> f : m_outstanding) {
+                f.get();
+            }
+            m_target.close();
+        }
+    }
+}
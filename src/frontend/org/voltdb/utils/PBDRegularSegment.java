@@ -22,6 +22,7 @@ import org.voltcore.utils.DBBPool;
 import org.voltcore.utils.DBBPool.BBContainer;
 import org.voltcore.utils.DeferredSerialization;
 import org.voltdb.utils.BinaryDeque.OutputContainerFactory;
+import org.voltdb.utils.PersistentBinaryDeque.Codec;
 
 import com.google_voltpatches.common.base.Preconditions;
 
@@ -30,7 +31,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -53,6 +58,14 @@ public class PBDRegularSegment extends PBDSegment {
 
     private DBBPool.BBContainer m_tmpHeaderBuf = null;
 
+    // Read only mapping of the file, created by the first read of a sealed segment.
+    // Dropped on close, views already handed out keep it alive until they are collected.
+    private MappedByteBuffer m_mapped = null;
+
+    // File offsets of the objects written since the segment was opened empty, null if it wasn't
+    private int[] m_objectOffsets = null;
+    private boolean m_sealed = false;
+
     public PBDRegularSegment(Long index, File file) {
         super(file);
         m_index = index;
@@ -94,6 +107,7 @@ public class PBDRegularSegment extends PBDSegment {
         }
         if (m_fc.size() > 0) {
             m_tmpHeaderBuf.b().clear();
+            m_tmpHeaderBuf.b().limit(SEGMENT_HEADER_BYTES);
             PBDUtils.readBufferFully(m_fc, m_tmpHeaderBuf.b(), COUNT_OFFSET);
             m_numOfEntries = m_tmpHeaderBuf.b().getInt();
             m_size = m_tmpHeaderBuf.b().getInt();
@@ -157,10 +171,13 @@ public class PBDRegularSegment extends PBDSegment {
         assert(m_ras == null);
         m_ras = new RandomAccessFile( m_file, forWrite ? "rw" : "r");
         m_fc = m_ras.getChannel();
-        m_tmpHeaderBuf = DBBPool.allocateDirect(SEGMENT_HEADER_BYTES);
+        m_tmpHeaderBuf = DBBPool.allocateDirect(OBJECT_HEADER_BYTES);
+        m_sealed = false;
 
         if (emptyFile) {
             initNumEntries(0, 0);
+            m_fc.truncate(SEGMENT_HEADER_BYTES);
+            m_objectOffsets = new int[64];
         }
         m_fc.position(SEGMENT_HEADER_BYTES);
 
@@ -181,11 +198,24 @@ public class PBDRegularSegment extends PBDSegment {
         m_syncedSinceLastEdit = false;
     }
 
-    private void incrementNumEntries(int size) throws IOException
+    private void incrementNumEntries(int size, long offset) throws IOException
     {
+        addEntry(size, offset);
+        writeNumEntries();
+    }
+
+    private void addEntry(int size, long offset) {
+        if (m_objectOffsets != null) {
+            if (m_numOfEntries == m_objectOffsets.length) {
+                m_objectOffsets = Arrays.copyOf(m_objectOffsets, m_objectOffsets.length * 2);
+            }
+            m_objectOffsets[m_numOfEntries] = (int)offset;
+        }
         m_numOfEntries++;
         m_size += size;
+    }
 
+    private void writeNumEntries() throws IOException {
         m_tmpHeaderBuf.b().clear();
         m_tmpHeaderBuf.b().putInt(m_numOfEntries);
         m_tmpHeaderBuf.b().putInt(m_size);
@@ -233,6 +263,8 @@ public class PBDRegularSegment extends PBDSegment {
         } finally {
             m_ras = null;
             m_fc = null;
+            m_mapped = null;
+            m_objectOffsets = null;
             m_closed = true;
             reset();
         }
@@ -263,58 +295,59 @@ public class PBDRegularSegment extends PBDSegment {
     }
 
     @Override
-    public boolean offer(DBBPool.BBContainer cont, boolean compress) throws IOException
+    public int offer(List<EncodedObject> objects, int from) throws IOException
     {
         if (m_closed) throw new IOException("Segment closed");
-        final ByteBuffer buf = cont.b();
-        final int remaining = buf.remaining();
-        if (remaining < 32 || !buf.isDirect()) compress = false;
-        final int maxCompressedSize = (compress ? CompressionService.maxCompressedLength(remaining) : remaining) + OBJECT_HEADER_BYTES;
-        if (remaining() < maxCompressedSize) return false;
+        if (m_sealed) throw new IOException("Segment sealed");
+        int available = remaining();
+        int count = 0;
+        while (from + count < objects.size() && objects.get(from + count).m_reservedSize <= available) {
+            available -= objects.get(from + count).entrySize();
+            count++;
+        }
+        if (count == 0) return 0;
 
         m_syncedSinceLastEdit = false;
-        DBBPool.BBContainer destBuf = cont;
-
+        final DBBPool.BBContainer headers = DBBPool.allocateDirectAndPool(count * OBJECT_HEADER_BYTES);
         try {
-            m_tmpHeaderBuf.b().clear();
-
-            if (compress) {
-                destBuf = DBBPool.allocateDirectAndPool(maxCompressedSize);
-                final int compressedSize = CompressionService.compressBuffer(buf, destBuf.b());
-                destBuf.b().limit(compressedSize);
-
-                m_tmpHeaderBuf.b().putInt(compressedSize);
-                m_tmpHeaderBuf.b().putInt(FLAG_COMPRESSED);
-            } else {
-                destBuf = cont;
-                m_tmpHeaderBuf.b().putInt(remaining);
-                m_tmpHeaderBuf.b().putInt(NO_FLAGS);
+            final ByteBuffer[] srcs = new ByteBuffer[count * 2];
+            long offset = m_fc.position();
+            for (int ii = 0; ii < count; ii++) {
+                final EncodedObject object = objects.get(from + ii);
+                final ByteBuffer header = headers.b().duplicate();
+                header.limit((ii + 1) * OBJECT_HEADER_BYTES).position(ii * OBJECT_HEADER_BYTES);
+                header.putInt(object.m_storedSize);
+                header.putInt(object.m_flags);
+                header.putInt(object.m_checksum);
+                header.position(ii * OBJECT_HEADER_BYTES);
+                srcs[ii * 2] = header;
+                srcs[ii * 2 + 1] = object.m_payload.b();
             }
-
-            m_tmpHeaderBuf.b().flip();
-            while (m_tmpHeaderBuf.b().hasRemaining()) {
-                m_fc.write(m_tmpHeaderBuf.b());
+            final ByteBuffer last = srcs[srcs.length - 1];
+            while (last.hasRemaining()) {
+                m_fc.write(srcs);
             }
 
-            while (destBuf.b().hasRemaining()) {
-                m_fc.write(destBuf.b());
+            for (int ii = 0; ii < count; ii++) {
+                final EncodedObject object = objects.get(from + ii);
+                addEntry(object.m_uncompressedSize, offset);
+                offset += object.entrySize();
             }
-
-            incrementNumEntries(remaining);
+            writeNumEntries();
         } finally {
-            destBuf.discard();
-            if (compress) {
-                cont.discard();
-            }
+            headers.discard();
         }
-
-        return true;
+        for (int ii = 0; ii < count; ii++) {
+            objects.get(from + ii).discard();
+        }
+        return count;
     }
 
     @Override
     public int offer(DeferredSerialization ds) throws IOException
     {
         if (m_closed) throw new IOException("closed");
+        if (m_sealed) throw new IOException("Segment sealed");
         final int fullSize = ds.getSerializedSize() + OBJECT_HEADER_BYTES;
         if (remaining() < fullSize) return -1;
 
@@ -325,11 +358,12 @@ public class PBDRegularSegment extends PBDSegment {
             final int written = PBDUtils.writeDeferredSerialization(destBuf.b(), ds);
             destBuf.b().flip();
 
+            final long offset = m_fc.position();
             while (destBuf.b().hasRemaining()) {
                 m_fc.write(destBuf.b());
             }
 
-            incrementNumEntries(written);
+            incrementNumEntries(written, offset);
             return written;
         } finally {
             destBuf.discard();
@@ -341,6 +375,152 @@ public class PBDRegularSegment extends PBDSegment {
         return m_size;
     }
 
+    @Override
+    public void seal() throws IOException {
+        if (m_closed) throw new IOException("Segment closed");
+        if (m_sealed) return;
+
+        if (m_objectOffsets == null) {
+            m_objectOffsets = readObjectOffsets();
+        }
+        final int indexBytes = m_numOfEntries * 4 + 4;
+        final DBBPool.BBContainer footer = DBBPool.allocateDirect(indexBytes + 8);
+        try {
+            final ByteBuffer b = footer.b();
+            for (int ii = 0; ii < m_numOfEntries; ii++) {
+                b.putInt(m_objectOffsets[ii]);
+            }
+            b.putInt(m_numOfEntries);
+            b.putInt(PBDUtils.crc32c(b, 0, indexBytes));
+            b.putInt(FOOTER_MAGIC);
+            b.flip();
+            PBDUtils.writeBuffer(m_fc, b, (int)m_fc.size());
+        } finally {
+            footer.discard();
+        }
+        m_sealed = true;
+        m_syncedSinceLastEdit = false;
+    }
+
+    /*
+     * Walk the object headers of a segment that was opened with its contents
+     */
+    private int[] readObjectOffsets() throws IOException {
+        final int[] offsets = new int[Math.max(m_numOfEntries, 1)];
+        long offset = SEGMENT_HEADER_BYTES;
+        for (int ii = 0; ii < m_numOfEntries; ii++) {
+            offsets[ii] = (int)offset;
+            m_tmpHeaderBuf.b().clear();
+            m_tmpHeaderBuf.b().limit(LEGACY_OBJECT_HEADER_BYTES);
+            PBDUtils.readBufferFully(m_fc, m_tmpHeaderBuf.b(), (int)offset);
+            final int length = m_tmpHeaderBuf.b().getInt();
+            final int flags = m_tmpHeaderBuf.b().getInt();
+            offset += objectHeaderBytes(flags) + length;
+        }
+        return offsets;
+    }
+
+    @Override
+    public void recover() throws IOException {
+        open(true, false);
+        try {
+            getNumEntries();
+            if (!hasValidFooter()) {
+                scanAndSeal();
+            }
+        } finally {
+            closeReadersAndFile();
+        }
+    }
+
+    /*
+     * Check the footer against the header, and the index against its checksum and the
+     * segment length. The footer is only written once every object is on disk, so the
+     * object headers aren't read here, each object's own checksum is checked on read.
+     */
+    private boolean hasValidFooter() throws IOException {
+        final long fileSize = m_fc.size();
+        if (fileSize < SEGMENT_HEADER_BYTES + FOOTER_TRAILER_BYTES) {
+            return false;
+        }
+        m_tmpHeaderBuf.b().clear();
+        m_tmpHeaderBuf.b().limit(FOOTER_TRAILER_BYTES);
+        PBDUtils.readBufferFully(m_fc, m_tmpHeaderBuf.b(), (int)(fileSize - FOOTER_TRAILER_BYTES));
+        final int count = m_tmpHeaderBuf.b().getInt();
+        final int crc = m_tmpHeaderBuf.b().getInt();
+        final int magic = m_tmpHeaderBuf.b().getInt();
+        if (magic != FOOTER_MAGIC || count != m_numOfEntries) {
+            return false;
+        }
+        final long indexStart = fileSize - FOOTER_TRAILER_BYTES - count * 4L;
+        if (indexStart < SEGMENT_HEADER_BYTES) {
+            return false;
+        }
+
+        final MappedByteBuffer index = m_fc.map(MapMode.READ_ONLY, indexStart, count * 4L + 4);
+        if (PBDUtils.crc32c(index, 0, count * 4 + 4) != crc) {
+            return false;
+        }
+        //Objects are packed from the end of the segment header to the start of the index,
+        //each one at least a header and a byte long
+        long expected = SEGMENT_HEADER_BYTES;
+        for (int ii = 0; ii < count; ii++) {
+            final int offset = index.getInt(ii * 4);
+            if (ii == 0 ? offset != expected : offset < expected) {
+                return false;
+            }
+            expected = offset + LEGACY_OBJECT_HEADER_BYTES + 1L;
+        }
+        return count == 0 ? indexStart == SEGMENT_HEADER_BYTES : expected <= indexStart;
+    }
+
+    /*
+     * Keep the objects up to the first one that is torn or fails its checksum, but no more
+     * than the header counts. Objects written before checksums were added are only checked
+     * for a plausible length.
+     */
+    private void scanAndSeal() throws IOException {
+        final long fileSize = m_fc.size();
+        final int[] offsets = new int[Math.max(m_numOfEntries, 1)];
+        int count = 0;
+        long size = 0;
+        long offset = SEGMENT_HEADER_BYTES;
+        if (fileSize > offset) {
+            final MappedByteBuffer data = m_fc.map(MapMode.READ_ONLY, 0, fileSize);
+            while (count < m_numOfEntries && offset + LEGACY_OBJECT_HEADER_BYTES <= fileSize) {
+                final int length = data.getInt((int)offset);
+                final int flags = data.getInt((int)offset + 4);
+                final int headerBytes = objectHeaderBytes(flags);
+                if (length < 1 || offset + headerBytes + length > fileSize) {
+                    break;
+                }
+                final ByteBuffer object = data.duplicate();
+                object.limit((int)offset + headerBytes + length).position((int)offset + headerBytes);
+                if ((flags & FLAG_CHECKSUM) != 0 &&
+                        PBDUtils.crc32c(data, (int)offset + headerBytes, length) != data.getInt((int)offset + 8)) {
+                    break;
+                }
+                final Codec codec = Codec.fromFlags(flags);
+                try {
+                    size += codec != null ? codec.uncompressedLength(object.slice()) : length;
+                } catch (IOException e) {
+                    break;
+                }
+                offsets[count++] = (int)offset;
+                offset += headerBytes + length;
+            }
+        }
+
+        if (count < m_numOfEntries) {
+            LOG.warn("PBD segment " + m_file + " has " + m_numOfEntries + " objects but only the first " +
+                    count + " are intact, truncating it");
+        }
+        initNumEntries(count, (int)size);
+        m_fc.truncate(offset);
+        m_objectOffsets = offsets;
+        seal();
+    }
+
     @Override
     protected int writeTruncatedEntry(BinaryDeque.TruncatorResponse entry, int length) throws IOException
     {
@@ -404,79 +584,187 @@ public class PBDRegularSegment extends PBDSegment {
             try {
                 //Get the length and size prefix and then read the object
                 m_tmpHeaderBuf.b().clear();
-                while (m_tmpHeaderBuf.b().hasRemaining()) {
-                    int read = m_fc.read(m_tmpHeaderBuf.b());
-                    if (read == -1) {
-                        throw new EOFException();
-                    }
-                }
-                m_tmpHeaderBuf.b().flip();
-                final int length = m_tmpHeaderBuf.b().getInt();
-                final int flags = m_tmpHeaderBuf.b().getInt();
-                final boolean compressed = (flags & FLAG_COMPRESSED) != 0;
+                m_tmpHeaderBuf.b().limit(LEGACY_OBJECT_HEADER_BYTES);
+                readFully(m_tmpHeaderBuf.b());
+                final int length = m_tmpHeaderBuf.b().getInt(0);
+                final int flags = m_tmpHeaderBuf.b().getInt(4);
+                final Codec codec = Codec.fromFlags(flags);
+                final boolean checksummed = (flags & FLAG_CHECKSUM) != 0;
                 final int uncompressedLen;
 
                 if (length < 1) {
                     throw new IOException("Read an invalid length");
                 }
+                int checksum = 0;
+                if (checksummed) {
+                    m_tmpHeaderBuf.b().limit(OBJECT_HEADER_BYTES);
+                    readFully(m_tmpHeaderBuf.b());
+                    checksum = m_tmpHeaderBuf.b().getInt(LEGACY_OBJECT_HEADER_BYTES);
+                }
 
                 final DBBPool.BBContainer retcont;
-                if (compressed) {
+                if (codec != null) {
                     final DBBPool.BBContainer compressedBuf = DBBPool.allocateDirectAndPool(length);
                     try {
-                        while (compressedBuf.b().hasRemaining()) {
-                            int read = m_fc.read(compressedBuf.b());
-                            if (read == -1) {
-                                throw new EOFException();
-                            }
-                        }
+                        readFully(compressedBuf.b());
                         compressedBuf.b().flip();
+                        if (checksummed) {
+                            checkChecksum(compressedBuf.b(), 0, length, checksum);
+                        }
 
-                        uncompressedLen = CompressionService.uncompressedLength(compressedBuf.bDR());
+                        uncompressedLen = codec.uncompressedLength(compressedBuf.bDR());
                         retcont = factory.getContainer(uncompressedLen);
-                        retcont.b().limit(uncompressedLen);
-                        CompressionService.decompressBuffer(compressedBuf.bDR(), retcont.b());
+                        try {
+                            retcont.b().limit(uncompressedLen);
+                            codec.decompress(compressedBuf.bDR(), retcont.b());
+                        } catch (IOException e) {
+                            retcont.discard();
+                            throw e;
+                        }
                     } finally {
                         compressedBuf.discard();
                     }
                 } else {
                     uncompressedLen = length;
                     retcont = factory.getContainer(length);
-                    retcont.b().limit(length);
-                    while (retcont.b().hasRemaining()) {
-                        int read = m_fc.read(retcont.b());
-                        if (read == -1) {
-                            throw new EOFException();
+                    try {
+                        retcont.b().limit(length);
+                        readFully(retcont.b());
+                        retcont.b().flip();
+                        if (checksummed) {
+                            checkChecksum(retcont.b(), 0, length, checksum);
                         }
+                    } catch (IOException e) {
+                        retcont.discard();
+                        throw e;
                     }
-                    retcont.b().flip();
                 }
 
                 m_bytesRead += uncompressedLen;
                 m_objectReadIndex++;
 
-                return new DBBPool.BBContainer(retcont.b()) {
-                    private boolean m_discarded = false;
-
-                    @Override
-                    public void discard() {
-                        checkDoubleFree();
-                        if (m_discarded) {
-                            LOG.error("PBD Container discarded more than once");
-                            return;
-                        }
-
-                        m_discarded = true;
-                        retcont.discard();
-                        m_discardCount++;
-                    }
-                };
+                return countDiscard(retcont);
             } finally {
                 m_readOffset = m_fc.position();
                 m_fc.position(writePos);
             }
         }
 
+        private void readFully(ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) {
+                int read = m_fc.read(buf);
+                if (read == -1) {
+                    throw new EOFException();
+                }
+            }
+        }
+
+        private void checkChecksum(ByteBuffer buf, int offset, int length, int expected) throws IOException {
+            if (PBDUtils.crc32c(buf, offset, length) != expected) {
+                throw new IOException("Checksum mismatch reading object " + m_objectReadIndex + " of " + m_file);
+            }
+        }
+
+        @Override
+        public SealedEntry claimSealed() throws IOException {
+            if (m_closed) throw new IOException("Reader closed");
+
+            if (!hasMoreEntries()) {
+                return null;
+            }
+
+            if (m_mapped == null) {
+                m_mapped = m_fc.map(MapMode.READ_ONLY, 0, m_fc.size());
+            }
+            if (m_readOffset + LEGACY_OBJECT_HEADER_BYTES > m_mapped.limit()) {
+                throw new EOFException();
+            }
+            final int length = m_mapped.getInt((int)m_readOffset);
+            final int flags = m_mapped.getInt((int)m_readOffset + 4);
+            if (length < 1) {
+                throw new IOException("Read an invalid length");
+            }
+            final int start = (int)m_readOffset + objectHeaderBytes(flags);
+            if (start + length > m_mapped.limit()) {
+                throw new EOFException();
+            }
+
+            final ByteBuffer view = m_mapped.duplicate();
+            view.limit(start + length).position(start);
+            final boolean checksummed = (flags & FLAG_CHECKSUM) != 0;
+            final MappedEntry entry = new MappedEntry(view.slice(), Codec.fromFlags(flags),
+                    checksummed, checksummed ? m_mapped.getInt((int)m_readOffset + 8) : 0, m_objectReadIndex);
+
+            m_readOffset = start + length;
+            m_bytesRead += entry.uncompressedLength();
+            m_objectReadIndex++;
+            return entry;
+        }
+
+        private DBBPool.BBContainer countDiscard(final DBBPool.BBContainer retcont) {
+            return new DBBPool.BBContainer(retcont.b()) {
+                private boolean m_discarded = false;
+
+                @Override
+                public void discard() {
+                    checkDoubleFree();
+                    if (m_discarded) {
+                        LOG.error("PBD Container discarded more than once");
+                        return;
+                    }
+
+                    m_discarded = true;
+                    retcont.discard();
+                    m_discardCount++;
+                }
+            };
+        }
+
+        private class MappedEntry implements SealedEntry {
+            private final ByteBuffer m_data;
+            private final Codec m_codec;
+            private final boolean m_checksummed;
+            private final int m_checksum;
+            private final int m_index;
+            private final int m_uncompressedLength;
+
+            MappedEntry(ByteBuffer data, Codec codec, boolean checksummed, int checksum, int index)
+                    throws IOException {
+                m_data = data;
+                m_codec = codec;
+                m_checksummed = checksummed;
+                m_checksum = checksum;
+                m_index = index;
+                m_uncompressedLength = codec != null ? codec.uncompressedLength(data) : data.remaining();
+            }
+
+            @Override
+            public int uncompressedLength() {
+                return m_uncompressedLength;
+            }
+
+            @Override
+            public BBContainer read(OutputContainerFactory factory) throws IOException {
+                if (m_checksummed && PBDUtils.crc32c(m_data, 0, m_data.remaining()) != m_checksum) {
+                    throw new IOException("Checksum mismatch reading object " + m_index + " of " + m_file);
+                }
+                final DBBPool.BBContainer retcont = factory.getContainer(m_uncompressedLength);
+                try {
+                    retcont.b().limit(m_uncompressedLength);
+                    if (m_codec != null) {
+                        m_codec.decompress(m_data, retcont.b());
+                    } else {
+                        retcont.b().put(m_data);
+                        retcont.b().flip();
+                    }
+                } catch (IOException e) {
+                    retcont.discard();
+                    throw e;
+                }
+                return countDiscard(retcont);
+            }
+        }
+
         @Override
         public int uncompressedBytesToRead() {
             if (m_closed) throw new RuntimeException("Reader closed");
@@ -19,11 +19,14 @@ package org.voltdb.utils;
 
 import org.voltcore.utils.DBBPool;
 import org.voltcore.utils.DeferredSerialization;
+import org.voltdb.utils.PersistentBinaryDeque.Codec;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.List;
 
 public abstract class PBDSegment {
 
@@ -94,19 +97,132 @@ public abstract class PBDSegment {
          * Has this reader been closed.
          */
         public boolean isClosed();
+
+        /**
+         * Claim the next entry of a sealed segment for this reader without reading it. The segment
+         * is memory mapped on first use, so it must not be appended to afterwards.
+         * Returns null if all entries in this segment were already read by this reader.
+         */
+        public SealedEntry claimSealed() throws IOException;
+    }
+
+    /**
+     * An entry claimed from the memory mapped file of a sealed segment. Reading it only touches
+     * the mapping, so it doesn't need to be serialized with other readers or the writer.
+     */
+    public interface SealedEntry {
+        /**
+         * Number of bytes the entry will occupy once read
+         */
+        public int uncompressedLength();
+
+        /**
+         * Copy or decompress the entry into a container from the factory.
+         * The container must be discarded like one returned by {@link PBDSegmentReader#poll}.
+         */
+        public DBBPool.BBContainer read(BinaryDeque.OutputContainerFactory factory) throws IOException;
+    }
+
+    /**
+     * An object ready to be appended to a segment, compressed if requested and checksummed.
+     * Encoding doesn't touch the segment, so it can be done on any thread. The original
+     * container is discarded once the object has been written, or by {@link #discard()}.
+     */
+    static final class EncodedObject {
+        final DBBPool.BBContainer m_original;
+        // The bytes to store, the original container unless compressed
+        final DBBPool.BBContainer m_payload;
+        final int m_flags;
+        final int m_checksum;
+        final int m_uncompressedSize;
+        final int m_storedSize;
+        // Space the object needs to be appended, the worst case size when compressed
+        final int m_reservedSize;
+        final long m_encodeNanos;
+
+        private EncodedObject(DBBPool.BBContainer original, DBBPool.BBContainer payload, int flags,
+                int uncompressedSize, int reservedSize, long startNanos) {
+            m_original = original;
+            m_payload = payload;
+            m_flags = flags | FLAG_CHECKSUM;
+            m_uncompressedSize = uncompressedSize;
+            m_storedSize = payload.b().remaining();
+            m_reservedSize = OBJECT_HEADER_BYTES + reservedSize;
+            m_checksum = PBDUtils.crc32c(payload.b(), payload.b().position(), m_storedSize);
+            m_encodeNanos = System.nanoTime() - startNanos;
+        }
+
+        /**
+         * @param codec Codec to compress with or null. Heap buffers and tiny objects aren't compressed.
+         */
+        static EncodedObject encode(DBBPool.BBContainer cont, Codec codec) throws IOException {
+            final long start = System.nanoTime();
+            final ByteBuffer buf = cont.b();
+            final int remaining = buf.remaining();
+            if (codec == null || remaining < 32 || !buf.isDirect()) {
+                return new EncodedObject(cont, cont, NO_FLAGS, remaining, remaining, start);
+            }
+            final int maxCompressedSize = codec.maxCompressedLength(remaining);
+            final DBBPool.BBContainer compressed = DBBPool.allocateDirectAndPool(maxCompressedSize);
+            try {
+                compressed.b().limit(codec.compress(buf, compressed.b()));
+            } catch (IOException e) {
+                compressed.discard();
+                throw e;
+            }
+            return new EncodedObject(cont, compressed, codec.flag(), remaining, maxCompressedSize, start);
+        }
+
+        boolean isCompressed() {
+            return m_payload != m_original;
+        }
+
+        int entrySize() {
+            return OBJECT_HEADER_BYTES + m_storedSize;
+        }
+
+        void discardCompressed() {
+            if (isCompressed()) {
+                m_payload.discard();
+            }
+        }
+
+        void discard() {
+            discardCompressed();
+            m_original.discard();
+        }
     }
 
     private static final String TRUNCATOR_CURSOR = "__truncator__";
     static final int NO_FLAGS = 0;
+    // Compressed with Snappy
     static final int FLAG_COMPRESSED = 1;
+    // The length and flags are followed by the CRC32C of the object as stored
+    static final int FLAG_CHECKSUM = 2;
+    // Compressed with LZ4
+    static final int FLAG_LZ4 = 4;
 
     static final int COUNT_OFFSET = 0;
     static final int SIZE_OFFSET = 4;
 
     // Has to be able to hold at least one object (compressed or not)
     public static final int CHUNK_SIZE = (1024 * 1024) * 64;
-    static final int OBJECT_HEADER_BYTES = 8;
+    // Length, flags and checksum of every object written
+    static final int OBJECT_HEADER_BYTES = 12;
+    // Objects written before checksums were added only have a length and flags
+    static final int LEGACY_OBJECT_HEADER_BYTES = 8;
     static final int SEGMENT_HEADER_BYTES = 8;
+
+    /*
+     * A sealed segment ends with an index of the file offset of every object, followed by the
+     * number of objects, the CRC32C of the index and count, and a magic number.
+     */
+    static final int FOOTER_TRAILER_BYTES = 12;
+    static final int FOOTER_MAGIC = 0x50424446;
+
+    static int objectHeaderBytes(int flags) {
+        return (flags & FLAG_CHECKSUM) != 0 ? OBJECT_HEADER_BYTES : LEGACY_OBJECT_HEADER_BYTES;
+    }
     protected final File m_file;
 
     protected boolean m_closed = true;
@@ -156,9 +272,26 @@ public abstract class PBDSegment {
 
     abstract void sync() throws IOException;
 
+    /**
+     * Append the index and footer. Nothing can be offered to the segment afterwards.
+     */
+    abstract void seal() throws IOException;
+
+    /**
+     * Check a segment found on disk before it is used. A segment with a valid footer is only checked
+     * against its index. Any other segment was being written when the process stopped. It is scanned,
+     * cut at the first torn or corrupt object and sealed. Leaves the segment closed.
+     */
+    abstract void recover() throws IOException;
+
     abstract boolean hasAllFinishedReading() throws IOException;
 
-    abstract boolean offer(DBBPool.BBContainer cont, boolean compress) throws IOException;
+    /**
+     * Append encoded objects starting at from with a single gathering write, as many as fit.
+     * The objects written are discarded.
+     * @return the number of objects written, 0 if the next one doesn't fit
+     */
+    abstract int offer(List<EncodedObject> objects, int from) throws IOException;
 
     abstract int offer(DeferredSerialization ds) throws IOException;
 
@@ -194,7 +327,8 @@ public abstract class PBDSegment {
                 break;
             }
 
-            final int compressedLength = (int) (reader.readOffset() - beforePos - OBJECT_HEADER_BYTES);
+            // Stored length of the object including its header
+            final int entryLength = (int) (reader.readOffset() - beforePos);
             final int uncompressedLength = cont.b().limit();
 
             try {
@@ -216,21 +350,24 @@ public abstract class PBDSegment {
                             entriesTruncated = initialEntryCount - (reader.readIndex() - 1);
                             //Don't forget to update the number of entries in the file
                             initNumEntries(reader.readIndex() - 1, sizeInBytes);
-                            m_fc.truncate(reader.readOffset() - (compressedLength + OBJECT_HEADER_BYTES));
+                            m_fc.truncate(reader.readOffset() - entryLength);
+                            seal();
                         }
                     } else {
                         assert retval.status == BinaryDeque.TruncatorResponse.Status.PARTIAL_TRUNCATE;
                         entriesTruncated = initialEntryCount - reader.readIndex();
                         //Partial object truncation
-                        reader.rewindReadOffset(compressedLength + OBJECT_HEADER_BYTES);
+                        reader.rewindReadOffset(entryLength);
                         final long partialEntryBeginOffset = reader.readOffset();
                         m_fc.position(partialEntryBeginOffset);
 
-                        final int written = writeTruncatedEntry(retval, compressedLength);
+                        // The truncated object is never larger than the original uncompressed
+                        final int written = writeTruncatedEntry(retval, uncompressedLength + OBJECT_HEADER_BYTES);
                         sizeInBytes += written;
 
                         initNumEntries(reader.readIndex(), sizeInBytes);
                         m_fc.truncate(partialEntryBeginOffset + written + OBJECT_HEADER_BYTES);
+                        seal();
                     }
 
                     break;
@@ -17,6 +17,8 @@
 
 package org.voltdb.utils;
 
+import org.apache.hadoop_voltpatches.util.PureJavaCrc32C;
+import org.voltcore.utils.DBBPool;
 import org.voltcore.utils.DeferredSerialization;
 
 import java.io.EOFException;
@@ -35,13 +37,34 @@ public class PBDUtils {
             ds.serialize(mbuf);
             written = mbuf.position() - objStartPosition;
             mbuf.putInt(objSizePosition, written);
-            mbuf.putInt(objSizePosition + 4, PBDSegment.NO_FLAGS);
+            mbuf.putInt(objSizePosition + 4, PBDSegment.FLAG_CHECKSUM);
+            mbuf.putInt(objSizePosition + 8, crc32c(mbuf, objStartPosition, written));
         } finally {
             ds.cancel();
         }
         return written;
     }
 
+    /**
+     * CRC32C of length bytes starting at the absolute offset in the buffer.
+     * Uses the native implementation for direct buffers.
+     */
+    public static int crc32c(ByteBuffer buf, int offset, int length)
+    {
+        if (buf.isDirect()) {
+            return DBBPool.getBufferCRC32C(buf, offset, length);
+        }
+        final PureJavaCrc32C crc = new PureJavaCrc32C();
+        if (buf.hasArray()) {
+            crc.update(buf.array(), buf.arrayOffset() + offset, length);
+        } else {
+            for (int ii = 0; ii < length; ii++) {
+                crc.update(buf.get(offset + ii));
+            }
+        }
+        return (int)crc.getValue();
+    }
+
     public static void writeBuffer(FileChannel fc, ByteBuffer buf, int startPos) throws IOException
     {
         int pos = startPos;
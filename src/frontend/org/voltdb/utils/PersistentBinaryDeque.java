@@ -23,23 +23,35 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.CoreUtils;
 import org.voltcore.utils.DBBPool;
 import org.voltcore.utils.DBBPool.BBContainer;
 import org.voltcore.utils.DeferredSerialization;
+import org.voltcore.utils.Pair;
 import org.voltdb.EELibraryLoader;
 import org.voltdb.utils.BinaryDeque.TruncatorResponse.Status;
+import org.voltdb.utils.PBDSegment.EncodedObject;
 import org.voltdb.utils.PBDSegment.PBDSegmentReader;
+import org.voltdb.utils.PBDSegment.SealedEntry;
 
 import com.google_voltpatches.common.base.Joiner;
 import com.google_voltpatches.common.base.Throwables;
+import com.google_voltpatches.common.util.concurrent.ListenableFuture;
+import com.google_voltpatches.common.util.concurrent.ListeningExecutorService;
 
 /**
  * A deque that specializes in providing persistence of binary objects to disk. Any object placed
@@ -50,10 +62,136 @@ import com.google_voltpatches.common.base.Throwables;
  * once all objects from the segment have been polled and all the containers returned by poll have been discarded.
  * Push is implemented by creating new segments at the head of the deque containing the objects to be pushed.
  *
+ * Every change to the deque is serialized on the deque's monitor. When sealed segments are mapped, readers
+ * only hold the monitor to claim the next entry of a segment that is no longer being written, and copy or
+ * decompress it from the mapped file after releasing the monitor. Object counts and sizes are maintained as
+ * entries are added and removed, so they are answered without the monitor.
+ *
+ * With a compression pipeline, offered objects are compressed and checksummed on a shared pool of
+ * compression threads instead of under the monitor. Up to the pipeline depth of them can be in flight,
+ * they are appended in the order they were offered, as many at a time as are ready. They are counted
+ * as soon as they are offered, and every operation other than an offer of a container waits for
+ * them to be written first.
  */
 public class PersistentBinaryDeque implements BinaryDeque {
     private static final VoltLogger LOG = new VoltLogger("HOST");
 
+    /**
+     * Compression used for objects offered with compression allowed. Every object records
+     * how it was compressed, so a deque can be reopened with a different codec.
+     */
+    public enum Codec {
+        SNAPPY(PBDSegment.FLAG_COMPRESSED) {
+            @Override
+            int maxCompressedLength(int length) {
+                return CompressionService.maxCompressedLength(length);
+            }
+
+            @Override
+            int compress(ByteBuffer uncompressed, ByteBuffer compressed) throws IOException {
+                return CompressionService.compressBuffer(uncompressed, compressed);
+            }
+
+            @Override
+            int uncompressedLength(ByteBuffer compressed) throws IOException {
+                return CompressionService.uncompressedLength(compressed);
+            }
+
+            @Override
+            int decompress(ByteBuffer compressed, ByteBuffer uncompressed) throws IOException {
+                return CompressionService.decompressBuffer(compressed, uncompressed);
+            }
+        },
+        LZ4(PBDSegment.FLAG_LZ4) {
+            @Override
+            int maxCompressedLength(int length) {
+                return CompressionService.maxCompressedLengthLZ4(length);
+            }
+
+            @Override
+            int compress(ByteBuffer uncompressed, ByteBuffer compressed) throws IOException {
+                return CompressionService.compressBufferLZ4(uncompressed, compressed);
+            }
+
+            @Override
+            int uncompressedLength(ByteBuffer compressed) throws IOException {
+                return CompressionService.uncompressedLengthLZ4(compressed);
+            }
+
+            @Override
+            int decompress(ByteBuffer compressed, ByteBuffer uncompressed) throws IOException {
+                return CompressionService.decompressBufferLZ4(compressed, uncompressed);
+            }
+        };
+
+        private final int m_flag;
+
+        private Codec(int flag) {
+            m_flag = flag;
+        }
+
+        int flag() {
+            return m_flag;
+        }
+
+        abstract int maxCompressedLength(int length);
+        abstract int compress(ByteBuffer uncompressed, ByteBuffer compressed) throws IOException;
+        abstract int uncompressedLength(ByteBuffer compressed) throws IOException;
+        abstract int decompress(ByteBuffer compressed, ByteBuffer uncompressed) throws IOException;
+
+        /**
+         * @return the codec an object with these flags was compressed with, null if it wasn't
+         */
+        static Codec fromFlags(int flags) {
+            if ((flags & PBDSegment.FLAG_LZ4) != 0) {
+                return LZ4;
+            } else if ((flags & PBDSegment.FLAG_COMPRESSED) != 0) {
+                return SNAPPY;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Number of threads shared by the compression pipelines of all deques
+     */
+    public static final String COMPRESSION_THREADS = "PBD_COMPRESSION_THREADS";
+
+    private static class CompressionPool {
+        static final ListeningExecutorService POOL = CoreUtils.getListeningExecutorService("PBD compression",
+                Integer.getInteger(COMPRESSION_THREADS, Math.max(1, CoreUtils.availableProcessors() / 2)));
+    }
+
+    // Deques that are open, for compression statistics
+    private static final Set<PersistentBinaryDeque> s_openDeques =
+            Collections.newSetFromMap(new ConcurrentHashMap<PersistentBinaryDeque, Boolean>());
+
+    // Indexes of the counters returned by getCompressionStats
+    public static final int COMPRESSED_OBJECTS = 0;
+    public static final int COMPRESSED_INPUT_BYTES = 1;
+    public static final int COMPRESSED_OUTPUT_BYTES = 2;
+    public static final int COMPRESSION_NANOS = 3;
+    public static final int PENDING_OBJECTS = 4;
+
+    /**
+     * Compression counters of every open deque, keyed by the deque's path and nonce.
+     * The values are the codec name and the counters, indexed by the constants above.
+     */
+    public static Map<String, Pair<String, long[]>> getCompressionStats() {
+        final Map<String, Pair<String, long[]>> stats = new TreeMap<String, Pair<String, long[]>>();
+        for (PersistentBinaryDeque pbd : s_openDeques) {
+            final long[] counters = new long[] {
+                    pbd.m_compressedObjects,
+                    pbd.m_compressedInputBytes,
+                    pbd.m_compressedOutputBytes,
+                    pbd.m_compressionNanos,
+                    pbd.m_pendingCount };
+            stats.put(new File(pbd.m_path, pbd.m_nonce).getPath(),
+                    Pair.of(pbd.m_codec.name(), counters));
+        }
+        return stats;
+    }
+
     public static class UnsafeOutputContainerFactory implements OutputContainerFactory {
         @Override
         public BBContainer getContainer(int minimumSize) {
@@ -77,8 +215,9 @@ public class PersistentBinaryDeque implements BinaryDeque {
     }
 
     /**
-     * Used to read entries from the PBD. Multiple readers may be active at the same time,
-     * but only one read or write may happen concurrently.
+     * Used to read entries from the PBD. Multiple readers may be active at the same time.
+     * Reads from the segment being written are serialized with writes, reads from
+     * sealed segments are not when they are mapped.
      */
     private class ReadCursor implements BinaryDequeReader {
         private final String m_cursorId;
@@ -86,7 +225,9 @@ public class PersistentBinaryDeque implements BinaryDeque {
         // Number of objects out of the total
         //that were deleted at the time this cursor was created
         private final int m_numObjectsDeleted;
-        private int m_numRead;
+        private volatile int m_numRead;
+        // Uncompressed bytes this cursor has read from segments that haven't been deleted yet
+        private volatile long m_bytesRead;
 
         public ReadCursor(String cursorId, int numObjectsDeleted) throws IOException {
             m_cursorId = cursorId;
@@ -95,10 +236,13 @@ public class PersistentBinaryDeque implements BinaryDeque {
 
         @Override
         public BBContainer poll(OutputContainerFactory ocf) throws IOException {
+            final PBDSegment segment;
+            final SealedEntry entry;
             synchronized (PersistentBinaryDeque.this) {
                 if (m_closed) {
                     throw new IOException("Reader " + m_cursorId + " has been closed");
                 }
+                writePending(0);
                 assertions();
 
                 moveToValidSegment();
@@ -118,13 +262,25 @@ public class PersistentBinaryDeque implements BinaryDeque {
                     segmentReader = m_segment.getReader(m_cursorId);
                     if (segmentReader == null) segmentReader = m_segment.openForRead(m_cursorId);
                 }
-                BBContainer retcont = segmentReader.poll(ocf);
+                if (!m_mapSealedSegments || m_segment.segmentId() == lastSegmentId) {
+                    BBContainer retcont = segmentReader.poll(ocf);
+
+                    m_numRead++;
+                    m_bytesRead += retcont.b().remaining();
+                    assertions();
+                    assert (retcont.b() != null);
+                    return wrapRetCont(m_segment, retcont);
+                }
 
+                entry = segmentReader.claimSealed();
                 m_numRead++;
+                m_bytesRead += entry.uncompressedLength();
                 assertions();
-                assert (retcont.b() != null);
-                return wrapRetCont(m_segment, retcont);
+                segment = m_segment;
             }
+
+            // The segment can't be deleted until the entry is discarded, and the mapping outlives it anyway
+            return wrapRetCont(segment, entry.read(ocf));
         }
 
         private void moveToValidSegment() {
@@ -140,7 +296,9 @@ public class PersistentBinaryDeque implements BinaryDeque {
             if (m_closed) {
                 throw new IOException("Reader " + m_cursorId + " has been closed");
             }
-            return m_numObjects - m_numObjectsDeleted - m_numRead;
+            // Read the cursor's count first so a concurrent offer and poll can't make this negative
+            final int numRead = m_numRead;
+            return m_numObjects - m_numObjectsDeleted - numRead;
         }
 
         /*
@@ -150,50 +308,18 @@ public class PersistentBinaryDeque implements BinaryDeque {
          */
         @Override
         public long sizeInBytes() throws IOException {
-            synchronized(PersistentBinaryDeque.this) {
-                if (m_closed) {
-                    throw new IOException("Reader " + m_cursorId + " has been closed");
-                }
-                assertions();
-
-                moveToValidSegment();
-                long size = 0;
-                boolean inclusive = true;
-                if (m_segment.isOpenForReading(m_cursorId)) { //this reader has started reading from curr segment.
-                    // Find out how much is left to read.
-                    size = m_segment.getReader(m_cursorId).uncompressedBytesToRead();
-                    inclusive = false;
-                }
-                // Get the size of all unread segments
-                for (PBDSegment currSegment : m_segments.tailMap(m_segment.segmentId(), inclusive).values()) {
-                    size += currSegment.size();
-                }
-                return size;
+            if (m_closed) {
+                throw new IOException("Reader " + m_cursorId + " has been closed");
             }
+            return Math.max(0, m_sizeInBytes - m_bytesRead);
         }
 
         @Override
         public boolean isEmpty() throws IOException {
-            synchronized(PersistentBinaryDeque.this) {
-                if (m_closed) {
-                    throw new IOException("Closed");
-                }
-                assertions();
-
-                moveToValidSegment();
-                boolean inclusive = true;
-                if (m_segment.isOpenForReading(m_cursorId)) { //this reader has started reading from curr segment.
-                    // Check if there are more to read.
-                    if (m_segment.getReader(m_cursorId).hasMoreEntries()) return false;
-                    inclusive = false;
-                }
-
-                for (PBDSegment currSegment : m_segments.tailMap(m_segment.segmentId(), inclusive).values()) {
-                    if (currSegment.getNumEntries() > 0)  return false;
-                }
-
-                return true;
+            if (m_closed) {
+                throw new IOException("Closed");
             }
+            return getNumObjects() == 0;
         }
 
         private BBContainer wrapRetCont(PBDSegment segment, final BBContainer retcont) {
@@ -251,8 +377,32 @@ public class PersistentBinaryDeque implements BinaryDeque {
     private volatile boolean m_closed = false;
     private final HashMap<String, ReadCursor> m_readCursors = new HashMap<>();
     private RandomAccessFile m_cursorsWriter;
-    private int m_numObjects;
-    private int m_numDeleted;
+    // Objects offered or pushed less those truncated, including ones since deleted
+    private volatile int m_numObjects;
+    private volatile int m_numDeleted;
+    // Uncompressed bytes in segments that haven't been deleted
+    private volatile long m_sizeInBytes;
+    private final boolean m_mapSealedSegments;
+
+    private final Codec m_codec;
+    private final int m_pipelineDepth;
+    // Objects offered to the compression pipeline and not yet written, in the order they were offered
+    private final ArrayDeque<ListenableFuture<EncodedObject>> m_pending =
+            new ArrayDeque<ListenableFuture<EncodedObject>>();
+    private final ArrayDeque<Integer> m_pendingSizes = new ArrayDeque<Integer>();
+    private volatile int m_pendingCount;
+    private long m_pendingBytes;
+
+    // Totals for the objects written compressed, updated under the monitor
+    private volatile long m_compressedObjects;
+    private volatile long m_compressedInputBytes;
+    private volatile long m_compressedOutputBytes;
+    private volatile long m_compressionNanos;
+
+    /**
+     * Set to read sealed segments through memory mappings by default
+     */
+    public static final String MAP_SEALED_SEGMENTS = "PBD_MAP_SEALED_SEGMENTS";
 
     /**
      * Create a persistent binary deque with the specified nonce and storage
@@ -278,10 +428,46 @@ public class PersistentBinaryDeque implements BinaryDeque {
      * @throws IOException
      */
     public PersistentBinaryDeque(final String nonce, final File path, VoltLogger logger, final boolean deleteEmpty) throws IOException {
+        this(nonce, path, logger, deleteEmpty, Boolean.getBoolean(MAP_SEALED_SEGMENTS));
+    }
+
+    /**
+     * Create a persistent binary deque with the specified nonce and storage back at the specified path.
+     *
+     * @param nonce
+     * @param path
+     * @param deleteEmpty
+     * @param mapSealedSegments Read segments that are no longer written to through a memory mapping,
+     *                          without holding the deque's monitor
+     * @throws IOException
+     */
+    public PersistentBinaryDeque(final String nonce, final File path, VoltLogger logger, final boolean deleteEmpty,
+            final boolean mapSealedSegments) throws IOException {
+        this(nonce, path, logger, deleteEmpty, mapSealedSegments, Codec.SNAPPY, 0);
+    }
+
+    /**
+     * Create a persistent binary deque with the specified nonce and storage back at the specified path.
+     *
+     * @param nonce
+     * @param path
+     * @param deleteEmpty
+     * @param mapSealedSegments Read segments that are no longer written to through a memory mapping,
+     *                          without holding the deque's monitor
+     * @param codec Codec for objects offered with compression allowed
+     * @param pipelineDepth Number of offered objects that can be waiting to be compressed, 0 to compress
+     *                      them on the offering thread
+     * @throws IOException
+     */
+    public PersistentBinaryDeque(final String nonce, final File path, VoltLogger logger, final boolean deleteEmpty,
+            final boolean mapSealedSegments, final Codec codec, final int pipelineDepth) throws IOException {
         EELibraryLoader.loadExecutionEngineLibrary(true);
         m_path = path;
         m_nonce = nonce;
         m_usageSpecificLog = logger;
+        m_mapSealedSegments = mapSealedSegments;
+        m_codec = codec;
+        m_pipelineDepth = pipelineDepth;
 
         if (!path.exists() || !path.canRead() || !path.canWrite() || !path.canExecute() || !path.isDirectory()) {
             throw new IOException(path + " is not usable ( !exists || !readable " +
@@ -325,6 +511,7 @@ public class PersistentBinaryDeque implements BinaryDeque {
                         PBDSegment qs = newSegment( index, pathname );
                         try {
                             m_initializedFromExistingFiles = true;
+                            qs.recover();
                             if (deleteEmpty) {
                                 if (qs.getNumEntries() == 0) {
                                     LOG.info("Found Empty Segment with entries: " + qs.getNumEntries() + " For: " + pathname.getName());
@@ -390,9 +577,11 @@ public class PersistentBinaryDeque implements BinaryDeque {
         writeSegment.openForWrite(true);
 
         m_numObjects = countNumObjects();
+        m_sizeInBytes = countSizeInBytes();
         // load saved cursors
         readCursorFile(new File(m_path, m_nonce + ".pbd.cursors"));
         assertions();
+        s_openDeques.add(this);
     }
 
     private int countNumObjects() throws IOException {
@@ -404,6 +593,32 @@ public class PersistentBinaryDeque implements BinaryDeque {
         return numObjects;
     }
 
+    // Only valid after getNumEntries has been called on every segment
+    private long countSizeInBytes() {
+        long size = 0;
+        for (PBDSegment segment : m_segments.values()) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /*
+     * Bytes a cursor has left to read, counted from the segments rather than the cursor. Segments
+     * the cursor hasn't opened a reader for count as unread, like in assertions().
+     */
+    private long countUnreadBytes(ReadCursor cursor) {
+        long size = 0;
+        for (PBDSegment segment : m_segments.values()) {
+            PBDSegmentReader reader = segment.getReader(cursor.m_cursorId);
+            if (reader == null) {
+                size += segment.size();
+            } else if (!reader.isClosed()) {
+                size += reader.uncompressedBytesToRead();
+            }
+        }
+        return size;
+    }
+
     private void readCursorFile(File file) {
         try {
             m_cursorsWriter = new RandomAccessFile(file, "rwd");
@@ -425,6 +640,7 @@ public class PersistentBinaryDeque implements BinaryDeque {
             throw new IOException("PBD has been closed");
         }
 
+        writePending(0);
         assertions();
         if (m_segments.isEmpty()) {
             m_usageSpecificLog.debug("PBD " + m_nonce + " has no finished segments");
@@ -464,6 +680,7 @@ public class PersistentBinaryDeque implements BinaryDeque {
         if (lastSegmentIndex == null)  {
             // Reopen the last segment for write
             peekLastSegment().openForWrite(true);
+            resetSizeInBytes();
             return;
         }
         /*
@@ -495,9 +712,24 @@ public class PersistentBinaryDeque implements BinaryDeque {
             m_usageSpecificLog.debug("Segment " + newSegment.file() + " has been created by PBD truncator");
         }
         m_segments.put(newSegment.segmentId(), newSegment);
+        resetSizeInBytes();
         assertions();
     }
 
+    /*
+     * Truncation rewrites segments and closes their readers,
+     * so count the sizes again instead of adjusting them.
+     */
+    private void resetSizeInBytes() throws IOException {
+        for (PBDSegment segment : m_segments.values()) {
+            segment.getNumEntries();
+        }
+        m_sizeInBytes = countSizeInBytes();
+        for (ReadCursor cursor : m_readCursors.values()) {
+            cursor.m_bytesRead = m_sizeInBytes - countUnreadBytes(cursor);
+        }
+    }
+
     private PBDSegment newSegment(long segmentId, File file) {
         return new PBDRegularSegment(segmentId, file);
     }
@@ -543,17 +775,107 @@ public class PersistentBinaryDeque implements BinaryDeque {
             throw new IOException("Closed");
         }
 
+        final Codec codec = object.b().isDirect() && allowCompression ? m_codec : null;
+        final int size = object.b().remaining();
+        // Fail before the object is handed to the pipeline, the caller keeps it
+        final int maxEntrySize = PBDSegment.OBJECT_HEADER_BYTES + (codec == null ? size : codec.maxCompressedLength(size));
+        if (maxEntrySize > PBDSegment.CHUNK_SIZE - 2 * PBDSegment.SEGMENT_HEADER_BYTES) {
+            throw new IOException("Failed to offer object in PBD, maximum object size is " +
+                    (PBDSegment.CHUNK_SIZE - 2 * PBDSegment.SEGMENT_HEADER_BYTES - PBDSegment.OBJECT_HEADER_BYTES));
+        }
+        if (m_pipelineDepth == 0) {
+            final ArrayList<EncodedObject> encoded = new ArrayList<EncodedObject>(1);
+            encoded.add(EncodedObject.encode(object, codec));
+            m_numObjects++;
+            m_sizeInBytes += size;
+            append(encoded);
+        } else {
+            m_pending.add(CompressionPool.POOL.submit(new Callable<EncodedObject>() {
+                @Override
+                public EncodedObject call() throws Exception {
+                    return EncodedObject.encode(object, codec);
+                }
+            }));
+            m_pendingSizes.add(size);
+            m_pendingCount++;
+            m_pendingBytes += size;
+            m_numObjects++;
+            m_sizeInBytes += size;
+            writePending(m_pipelineDepth);
+        }
+        assertions();
+    }
+
+    /*
+     * Write the objects at the head of the compression pipeline that are ready, waiting
+     * for more of them until no more than keep remain. The ones that are ready together
+     * are written together.
+     */
+    private void writePending(int keep) throws IOException {
+        if (m_pending.isEmpty()) {
+            return;
+        }
+        final ArrayList<EncodedObject> ready = new ArrayList<EncodedObject>();
+        try {
+            while (!m_pending.isEmpty() && (m_pending.size() > keep || m_pending.peek().isDone())) {
+                final ListenableFuture<EncodedObject> head = m_pending.poll();
+                final int size = m_pendingSizes.poll();
+                m_pendingCount--;
+                m_pendingBytes -= size;
+                try {
+                    ready.add(head.get());
+                } catch (InterruptedException | ExecutionException e) {
+                    // The object is lost, and the offer that submitted it already returned
+                    m_numObjects--;
+                    m_sizeInBytes -= size;
+                    Throwables.propagateIfPossible(e.getCause(), IOException.class);
+                    throw new IOException("Failed to compress object in PBD", e);
+                }
+            }
+        } finally {
+            append(ready);
+        }
+    }
+
+    /*
+     * Append encoded objects to the tail, rolling to new segments as needed
+     */
+    private void append(ArrayList<EncodedObject> objects) throws IOException {
         PBDSegment tail = peekLastSegment();
-        final boolean compress = object.b().isDirect() && allowCompression;
-        if (!tail.offer(object, compress)) {
-            tail = addSegment(tail);
-            final boolean success = tail.offer(object, compress);
-            if (!success) {
-                throw new IOException("Failed to offer object in PBD");
+        int written = 0;
+        try {
+            while (written < objects.size()) {
+                int count = tail.offer(objects, written);
+                if (count == 0) {
+                    tail = addSegment(tail);
+                    count = tail.offer(objects, written);
+                    if (count == 0) {
+                        throw new IOException("Failed to offer object in PBD");
+                    }
+                }
+                for (int ii = written; ii < written + count; ii++) {
+                    final EncodedObject object = objects.get(ii);
+                    if (object.isCompressed()) {
+                        m_compressedObjects++;
+                        m_compressedInputBytes += object.m_uncompressedSize;
+                        m_compressedOutputBytes += object.m_storedSize;
+                        m_compressionNanos += object.m_encodeNanos;
+                    }
+                }
+                written += count;
+            }
+        } finally {
+            // Objects from the pipeline belong to the deque, others are still the caller's
+            for (int ii = written; ii < objects.size(); ii++) {
+                m_numObjects--;
+                m_sizeInBytes -= objects.get(ii).m_uncompressedSize;
+                if (m_pipelineDepth == 0) {
+                    objects.get(ii).discardCompressed();
+                } else {
+                    objects.get(ii).discard();
+                }
             }
         }
-        m_numObjects++;
-        assertions();
     }
 
     @Override
@@ -563,6 +885,7 @@ public class PersistentBinaryDeque implements BinaryDeque {
             throw new IOException("Closed");
         }
 
+        writePending(0);
         PBDSegment tail = peekLastSegment();
         int written = tail.offer(ds);
         if (written < 0) {
@@ -573,6 +896,7 @@ public class PersistentBinaryDeque implements BinaryDeque {
             }
         }
         m_numObjects++;
+        m_sizeInBytes += written;
         assertions();
         return written;
     }
@@ -585,6 +909,8 @@ public class PersistentBinaryDeque implements BinaryDeque {
                 m_usageSpecificLog.debug("Segment " + tail.file() + " has been closed and deleted because of empty queue");
             }
             closeAndDeleteSegment(tail);
+        } else {
+            tail.seal();
         }
         Long nextIndex = tail.segmentId() + 1;
         tail = newSegment(nextIndex, new VoltFile(m_path, m_nonce + "." + nextIndex + ".pbd"));
@@ -598,8 +924,14 @@ public class PersistentBinaryDeque implements BinaryDeque {
 
     private void closeAndDeleteSegment(PBDSegment segment) throws IOException {
         int toDelete = segment.getNumEntries();
+        int size = segment.size();
         segment.closeAndDelete();
         m_numDeleted += toDelete;
+        m_sizeInBytes -= size;
+        // Segments are only deleted once every cursor has read them
+        for (ReadCursor cursor : m_readCursors.values()) {
+            cursor.m_bytesRead -= size;
+        }
     }
 
     @Override
@@ -653,13 +985,20 @@ public class PersistentBinaryDeque implements BinaryDeque {
                 m_usageSpecificLog.debug("Segment " + writeSegment.file() + " has been created because of a push");
             }
 
+            final ArrayList<EncodedObject> encoded = new ArrayList<EncodedObject>(currentSegmentContents.size());
             while (currentSegmentContents.peek() != null) {
-                writeSegment.offer(currentSegmentContents.pollFirst(), false);
+                BBContainer object = currentSegmentContents.pollFirst();
+                encoded.add(EncodedObject.encode(object, null));
                 m_numObjects++;
+                m_sizeInBytes += object.b().remaining();
+            }
+            if (writeSegment.offer(encoded, 0) != encoded.size()) {
+                throw new IOException("Pushed objects don't fit in a segment");
             }
 
             // Don't close the last one, it'll be used for writes
             if (!m_segments.isEmpty()) {
+                writeSegment.seal();
                 writeSegment.close();
             }
 
@@ -721,6 +1060,7 @@ public class PersistentBinaryDeque implements BinaryDeque {
         if (m_closed) {
             throw new IOException("Closed");
         }
+        writePending(0);
         for (PBDSegment segment : m_segments.values()) {
             if (!segment.isClosed()) {
                 segment.sync();
@@ -734,8 +1074,15 @@ public class PersistentBinaryDeque implements BinaryDeque {
         if (m_closed) {
             return;
         }
+        s_openDeques.remove(this);
+        writePending(0);
         m_readCursors.clear();
 
+        // Seal the segment being written so it doesn't have to be scanned when reopened
+        PBDSegment tail = peekLastSegment();
+        if (tail != null && !tail.isClosed()) {
+            tail.seal();
+        }
         for (PBDSegment segment : m_segments.values()) {
             segment.close();
         }
@@ -749,24 +1096,40 @@ public class PersistentBinaryDeque implements BinaryDeque {
      * although incredibly unlikely
      */
     @Override
-    public synchronized long sizeInBytes() throws IOException {
-        long size = 0;
-        for (PBDSegment segment : m_segments.values()) {
-            size += segment.size();
-        }
-        return size;
+    public long sizeInBytes() throws IOException {
+        return m_sizeInBytes;
     }
 
     @Override
     public synchronized void closeAndDelete() throws IOException {
         if (m_closed) return;
         m_closed = true;
+        s_openDeques.remove(this);
+        discardPending();
         for (PBDSegment qs : m_segments.values()) {
             m_usageSpecificLog.debug("Segment " + qs.file() + " has been closed and deleted due to delete all");
             closeAndDeleteSegment(qs);
         }
     }
 
+    /*
+     * Wait for the objects in the compression pipeline and drop them
+     */
+    private void discardPending() {
+        while (!m_pending.isEmpty()) {
+            final int size = m_pendingSizes.poll();
+            m_pendingCount--;
+            m_pendingBytes -= size;
+            m_numObjects--;
+            m_sizeInBytes -= size;
+            try {
+                m_pending.poll().get().discard();
+            } catch (InterruptedException | ExecutionException e) {
+                LOG.error("Exception compressing PBD object", e);
+            }
+        }
+    }
+
     public static class ByteBufferTruncatorResponse extends TruncatorResponse {
         private final ByteBuffer m_retval;
 
@@ -780,7 +1143,8 @@ public class PersistentBinaryDeque implements BinaryDeque {
         public int writeTruncatedObject(ByteBuffer output) {
             int objectSize = m_retval.remaining();
             output.putInt(objectSize);
-            output.putInt(PBDSegment.NO_FLAGS);
+            output.putInt(PBDSegment.FLAG_CHECKSUM);
+            output.putInt(PBDUtils.crc32c(m_retval, m_retval.position(), objectSize));
             output.put(m_retval);
             return objectSize;
         }
@@ -816,12 +1180,8 @@ public class PersistentBinaryDeque implements BinaryDeque {
 
     @Override
     public int getNumObjects() throws IOException {
-        int numObjects = 0;
-        for (PBDSegment segment : m_segments.values()) {
-            numObjects += segment.getNumEntries();
-        }
-
-        return numObjects;
+        final int numDeleted = m_numDeleted;
+        return m_numObjects - numDeleted;
     }
 
     @Override
@@ -838,7 +1198,17 @@ public class PersistentBinaryDeque implements BinaryDeque {
 
     private void assertions() {
         if (!assertionsOn || m_closed) return;
+        try {
+            assert countNumObjects() + m_pending.size() == getNumObjects() :
+                countNumObjects() + " + " + m_pending.size() + " != " + getNumObjects();
+            assert countSizeInBytes() + m_pendingBytes == m_sizeInBytes :
+                countSizeInBytes() + " + " + m_pendingBytes + " != " + m_sizeInBytes;
+        } catch (Exception e) {
+            Throwables.propagate(e);
+        }
         for (ReadCursor cursor : m_readCursors.values()) {
+            assert m_sizeInBytes - cursor.m_bytesRead == countUnreadBytes(cursor) + m_pendingBytes :
+                (m_sizeInBytes - cursor.m_bytesRead) + " != " + countUnreadBytes(cursor) + " + " + m_pendingBytes;
             int numObjects = 0;
             try {
                 for (PBDSegment segment : m_segments.values()) {
@@ -849,6 +1219,7 @@ public class PersistentBinaryDeque implements BinaryDeque {
                         numObjects += segment.getNumEntries() - reader.readIndex();
                     }
                 }
+                numObjects += m_pending.size();
                 assert numObjects == cursor.getNumObjects() : numObjects + " != " + cursor.getNumObjects();
             } catch (Exception e) {
                 Throwables.propagate(e);
@@ -0,0 +1,403 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with VoltDB.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.voltdb.utils;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.json_voltpatches.JSONException;
+import org.json_voltpatches.JSONObject;
+import org.voltcore.logging.VoltLogger;
+import org.voltdb.CLIConfig;
+import org.voltdb.JdbcDatabaseMetaDataGenerator;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientConfig;
+import org.voltdb.client.ClientFactory;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcCallException;
+import org.voltdb.common.Constants;
+import org.voltdb.compiler.DatabaseEstimates;
+import org.voltdb.compiler.DatabaseEstimates.ColumnEstimates;
+import org.voltdb.compiler.DatabaseEstimates.TableEstimates;
+
+/**
+ * Gathers the table statistics the planner costs plans with and stores them in the
+ * catalog jar with @UpdateClasses, which replans the stored procedures against them.
+ * The ad hoc planner picks them up with the new catalog.
+ *
+ * Row counts come from the TABLE statistics of the partitions. Distinct value counts
+ * and equi-depth histograms come from a couple of scans of each column, so analyzing
+ * big tables is best left to quiet times.
+ */
+public class StatisticsAnalyzer {
+
+    private static final VoltLogger m_log = new VoltLogger("CONSOLE");
+
+    // Most groups the histogram of a column is counted in
+    static final int MAX_HISTOGRAM_GROUPS = 10000;
+
+    private final Client m_client;
+    private final int m_buckets;
+
+    public StatisticsAnalyzer(Client client, int buckets) {
+        m_client = client;
+        m_buckets = buckets;
+    }
+
+    /**
+     * Gather the statistics of the given tables.
+     *
+     * @param tableNames the tables to analyze, all of them if empty
+     */
+    public DatabaseEstimates analyze(Set<String> tableNames) throws IOException, ProcCallException {
+        Map<String, Boolean> partitioned = getTables();
+        Map<String, Long> tupleCounts = getTupleCounts(partitioned);
+        Map<String, Map<String, VoltType>> columns = getColumns();
+
+        DatabaseEstimates estimates = new DatabaseEstimates();
+        for (Entry<String, Boolean> table : partitioned.entrySet()) {
+            String tableName = table.getKey();
+            if (!tableNames.isEmpty() && !tableNames.contains(tableName)) {
+                continue;
+            }
+            Long tupleCount = tupleCounts.get(tableName);
+            TableEstimates tableEstimates =
+                    estimates.setTableStatistics(tableName, tupleCount == null ? 0 : tupleCount);
+            Map<String, VoltType> tableColumns = columns.get(tableName);
+            if (tableColumns == null) {
+                continue;
+            }
+            for (Entry<String, VoltType> column : tableColumns.entrySet()) {
+                ColumnEstimates columnEstimates = analyzeColumn(tableName, column.getKey(), column.getValue());
+                if (columnEstimates != null) {
+                    tableEstimates.columns.put(column.getKey(), columnEstimates);
+                }
+            }
+        }
+        return estimates;
+    }
+
+    /**
+     * Store the statistics in the catalog jar, replacing any gathered earlier.
+     */
+    public void store(DatabaseEstimates estimates) throws IOException, ProcCallException {
+        InMemoryJarfile jarfile = new InMemoryJarfile();
+        try {
+            jarfile.put(DatabaseEstimates.STATISTICS_FILE_NAME,
+                        estimates.toJSONString().getBytes(Constants.UTF8ENCODING));
+        }
+        catch (JSONException e) {
+            throw new IOException("Failed to serialize table statistics", e);
+        }
+        m_client.callProcedure("@UpdateClasses", jarfile.getFullJarBytes(), null);
+    }
+
+    /**
+     * @return whether each table is partitioned, by name
+     */
+    private Map<String, Boolean> getTables() throws IOException, ProcCallException {
+        VoltTable tables = m_client.callProcedure("@SystemCatalog", "TABLES").getResults()[0];
+        Map<String, Boolean> partitioned = new TreeMap<String, Boolean>();
+        while (tables.advanceRow()) {
+            String type = tables.getString("TABLE_TYPE");
+            // Streams keep no rows to plan against
+            if (!"TABLE".equals(type) && !"VIEW".equals(type)) {
+                continue;
+            }
+            boolean isPartitioned = false;
+            String remarks = tables.getString("REMARKS");
+            if (remarks != null) {
+                try {
+                    isPartitioned = new JSONObject(remarks).has(JdbcDatabaseMetaDataGenerator.JSON_PARTITION_COLUMN);
+                }
+                catch (JSONException e) {
+                    // Not partitioning info
+                }
+            }
+            partitioned.put(tables.getString("TABLE_NAME"), isPartitioned);
+        }
+        return partitioned;
+    }
+
+    private Map<String, Map<String, VoltType>> getColumns() throws IOException, ProcCallException {
+        VoltTable columns = m_client.callProcedure("@SystemCatalog", "COLUMNS").getResults()[0];
+        Map<String, Map<String, VoltType>> result = new HashMap<String, Map<String, VoltType>>();
+        while (columns.advanceRow()) {
+            String tableName = columns.getString("TABLE_NAME");
+            Map<String, VoltType> tableColumns = result.get(tableName);
+            if (tableColumns == null) {
+                tableColumns = new TreeMap<String, VoltType>();
+                result.put(tableName, tableColumns);
+            }
+            tableColumns.put(columns.getString("COLUMN_NAME"),
+                             VoltType.typeFromString(columns.getString("TYPE_NAME")));
+        }
+        return result;
+    }
+
+    /**
+     * Add up the rows of each table over the partitions, counting every partition once
+     * and replicated tables once.
+     */
+    private Map<String, Long> getTupleCounts(Map<String, Boolean> partitioned) throws IOException, ProcCallException {
+        VoltTable stats = m_client.callProcedure("@Statistics", "TABLE", 0).getResults()[0];
+        Map<String, Map<Long, Long>> perPartition = new HashMap<String, Map<Long, Long>>();
+        while (stats.advanceRow()) {
+            String tableName = stats.getString("TABLE_NAME");
+            Map<Long, Long> counts = perPartition.get(tableName);
+            if (counts == null) {
+                counts = new HashMap<Long, Long>();
+                perPartition.put(tableName, counts);
+            }
+            // Replicas of a partition have the same rows
+            Long previous = counts.get(stats.getLong("PARTITION_ID"));
+            long count = stats.getLong("TUPLE_COUNT");
+            if (previous == null || previous < count) {
+                counts.put(stats.getLong("PARTITION_ID"), count);
+            }
+        }
+        Map<String, Long> tupleCounts = new HashMap<String, Long>();
+        for (Entry<String, Map<Long, Long>> table : perPartition.entrySet()) {
+            long total = 0;
+            for (long count : table.getValue().values()) {
+                if (Boolean.TRUE.equals(partitioned.get(table.getKey()))) {
+                    total += count;
+                }
+                else {
+                    total = Math.max(total, count);
+                }
+            }
+            tupleCounts.put(table.getKey(), total);
+        }
+        return tupleCounts;
+    }
+
+    private ColumnEstimates analyzeColumn(String tableName, String columnName, VoltType type)
+            throws IOException {
+        if (type == VoltType.GEOGRAPHY || type == VoltType.GEOGRAPHY_POINT) {
+            return null;
+        }
+        ColumnEstimates estimates = new ColumnEstimates();
+        long nonNullCount;
+        VoltTable counts;
+        try {
+            counts = query("SELECT APPROX_COUNT_DISTINCT(" + columnName + "), COUNT(" + columnName +
+                           ") FROM " + tableName + ";");
+        }
+        catch (ProcCallException approxFailed) {
+            // Not every column type has an approximate count
+            try {
+                counts = query("SELECT COUNT(DISTINCT " + columnName + "), COUNT(" + columnName +
+                               ") FROM " + tableName + ";");
+            }
+            catch (ProcCallException e) {
+                m_log.warn("Skipping column " + tableName + "." + columnName + ": " +
+                           e.getClientResponse().getStatusString());
+                return null;
+            }
+        }
+        estimates.distinctValues = counts.fetchRow(0).getLong(0);
+        nonNullCount = counts.fetchRow(0).getLong(1);
+
+        if (!type.isNumber() || nonNullCount == 0) {
+            return estimates;
+        }
+        try {
+            estimates.histogram = histogram(tableName, columnName, estimates.distinctValues);
+        }
+        catch (ProcCallException e) {
+            m_log.warn("No histogram for column " + tableName + "." + columnName + ": " +
+                       e.getClientResponse().getStatusString());
+        }
+        return estimates;
+    }
+
+    /**
+     * Count the rows of the column in one grouped scan, by value when it has few of them
+     * or else by narrow ranges between its minimum and maximum, and read the bounds off
+     * the running totals.
+     */
+    private double[] histogram(String tableName, String columnName, long distinctValues)
+            throws IOException, ProcCallException {
+        String value = "CAST(" + columnName + " AS FLOAT)";
+        String where = " FROM " + tableName + " WHERE " + columnName + " IS NOT NULL";
+        double max;
+        double width;
+        VoltTable groups;
+        // The distinct count is approximate, leave room for it to be low
+        if (distinctValues <= MAX_HISTOGRAM_GROUPS / 2) {
+            groups = query("SELECT " + value + ", COUNT(*)" + where +
+                           " GROUP BY " + value + " ORDER BY " + value + ";");
+            max = 0;
+            width = 0;
+        }
+        else {
+            VoltTable range = query("SELECT MIN(" + value + "), MAX(" + value + ")" + where + ";");
+            double min = range.fetchRow(0).getDouble(0);
+            max = range.fetchRow(0).getDouble(1);
+            width = (max - min) / MAX_HISTOGRAM_GROUPS;
+            if (width == 0) {
+                return equiDepthBounds(new double[] {min}, new long[] {1}, 0, max, m_buckets);
+            }
+            // Parameters can't be matched up between the select list and the grouping
+            String group = "FLOOR((" + value + " - " + floatLiteral(min) + ") / " + floatLiteral(width) + ")";
+            groups = query("SELECT " + group + ", COUNT(*)" + where +
+                           " GROUP BY " + group + " ORDER BY " + group + ";");
+            // Turn the range numbers into their lower ends
+            VoltTable lows = new VoltTable(groups.getTableSchema());
+            while (groups.advanceRow()) {
+                lows.addRow(min + groups.getDouble(0) * width, groups.getLong(1));
+            }
+            groups = lows;
+        }
+        double[] values = new double[groups.getRowCount()];
+        long[] counts = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            groups.advanceRow();
+            values[i] = groups.getDouble(0);
+            counts[i] = groups.getLong(1);
+        }
+        return values.length == 0 ? new double[0] : equiDepthBounds(values, counts, width, max, m_buckets);
+    }
+
+    /**
+     * Bounds of buckets holding the same number of rows, given the row counts of the
+     * column in ascending groups. A group is the single value {@code lows[i]} when
+     * {@code width} is 0 and otherwise the range from {@code lows[i]} up to the next
+     * {@code width}, in which the rows are taken to be spread evenly.
+     */
+    static double[] equiDepthBounds(double[] lows, long[] counts, double width, double max, int buckets) {
+        long rows = 0;
+        for (long count : counts) {
+            rows += count;
+        }
+        double[] bounds = new double[buckets + 1];
+        int group = 0;
+        long before = 0;
+        for (int i = 0; i <= buckets; i++) {
+            long rank = (rows - 1) * i / buckets;
+            while (before + counts[group] <= rank) {
+                before += counts[group++];
+            }
+            if (width == 0) {
+                bounds[i] = lows[group];
+            }
+            else {
+                bounds[i] = Math.min(max, lows[group] + width * (rank - before + 0.5) / counts[group]);
+            }
+        }
+        if (width != 0) {
+            // The extremes are known exactly
+            bounds[0] = lows[0];
+            bounds[buckets] = max;
+        }
+        return bounds;
+    }
+
+    // With an exponent the literal is a FLOAT rather than a DECIMAL
+    private static String floatLiteral(double value) {
+        String literal = Double.toString(value);
+        return "(" + (literal.contains("E") ? literal : literal + "E0") + ")";
+    }
+
+    private VoltTable query(String sql) throws IOException, ProcCallException {
+        ClientResponse response = m_client.callProcedure("@AdHoc", sql);
+        return response.getResults()[0];
+    }
+
+    /**
+     * Configuration options.
+     */
+    public static class StatisticsAnalyzerConfig extends CLIConfig {
+
+        @Option(shortOpt = "s", desc = "list of volt servers to connect to (default: localhost)")
+        String servers = "localhost";
+
+        @Option(desc = "username when connecting to the servers")
+        String user = "";
+
+        @Option(desc = "password to use when connecting to servers")
+        String password = "";
+
+        @Option(desc = "port to use when connecting to database (default: 21212)")
+        int port = Client.VOLTDB_SERVER_PORT;
+
+        @Option(desc = "number of buckets in the histogram of each numeric column (default: 16)")
+        int buckets = 16;
+
+        @Option(desc = "comma separated list of the tables to analyze (default: all)")
+        String tables = "";
+
+        @Option(desc = "gather and print the statistics without storing them", hasArg = false)
+        boolean dryrun = false;
+
+        @Override
+        public void validate() {
+            if (buckets < 1) {
+                exitWithMessageAndUsage("buckets must be >= 1");
+            }
+            if (port < 0) {
+                exitWithMessageAndUsage("port number must be >= 0");
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        StatisticsAnalyzerConfig config = new StatisticsAnalyzerConfig();
+        config.parse(StatisticsAnalyzer.class.getName(), args);
+        config.password = CLIConfig.readPasswordIfNeeded(config.user, config.password, "Enter VoltDB password: ");
+
+        ClientConfig clientConfig = new ClientConfig(config.user, config.password);
+        // Gathering histograms over big tables takes a while
+        clientConfig.setProcedureCallTimeout(0);
+        Client client = ClientFactory.createClient(clientConfig);
+        try {
+            for (String server : config.servers.split(",")) {
+                client.createConnection(server.trim(), config.port);
+            }
+            Set<String> tableNames = new HashSet<String>();
+            for (String table : config.tables.split(",")) {
+                if (!table.trim().isEmpty()) {
+                    tableNames.add(table.trim().toUpperCase());
+                }
+            }
+
+            StatisticsAnalyzer analyzer = new StatisticsAnalyzer(client, config.buckets);
+            DatabaseEstimates estimates = analyzer.analyze(tableNames);
+            System.out.println(estimates.toJSONString());
+            if (!config.dryrun) {
+                analyzer.store(estimates);
+                m_log.info("Stored the statistics in the catalog");
+            }
+        }
+        catch (ProcCallException e) {
+            // @UpdateClasses is refused when the schema comes from a catalog jar instead of DDL
+            m_log.error(e.getClientResponse().getStatusString());
+            System.exit(-1);
+        }
+        finally {
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltdb.DefaultSnapshotDataTarget;
+import org.voltdb.SnapshotSiteProcessor;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.sysprocs.saverestore.SnapshotRestoreReader;
+import org.voltdb.sysprocs.saverestore.TableSaveFile;
+
+/**
+ * Writes a snapshot of synthetic tables, 50 GB by default, and then reads it back with
+ * SnapshotRestoreReader at increasing numbers of concurrently read files, printing
+ * the throughput of every table and of the whole restore.
+ *
+ * Usage: RestoreBench directory [gigabytes] [tables] [partitions] [threads,threads,...]
+ *
+ * Every other table is replicated. Files already in the directory are reused, so drop
+ * the page cache between runs (sync; echo 3 > /proc/sys/vm/drop_caches) to measure
+ * the disks rather than memory.
+ */
+public class RestoreBench {
+
+    private static final VoltTable SCHEMA = new VoltTable(
+            new VoltTable.ColumnInfo("ID", VoltType.BIGINT),
+            new VoltTable.ColumnInfo("CUSTOMER", VoltType.BIGINT),
+            new VoltTable.ColumnInfo("AMOUNT", VoltType.FLOAT),
+            new VoltTable.ColumnInfo("DESCRIPTION", VoltType.STRING));
+
+    private static final String[] WORDS = {
+        "order", "refund", "shipping", "express", "gift", "card", "discount", "return"
+    };
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: RestoreBench directory [gigabytes] [tables] [partitions] [threads,...]");
+            System.exit(1);
+        }
+        final File dir = new File(args[0]);
+        final long gigabytes = args.length > 1 ? Long.parseLong(args[1]) : 50;
+        final int tables = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        final int partitions = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        final String threads = args.length > 4 ? args[4] : "1,2,4,8";
+        dir.mkdirs();
+
+        final List<File> files = new ArrayList<File>();
+        final long bytesPerTable = gigabytes * 1024 * 1024 * 1024 / tables;
+        for (int t = 0; t < tables; t++) {
+            final File file = new File(dir, "RESTOREBENCH-T" + t + ".vpt");
+            files.add(file);
+            if (!file.exists()) {
+                generate(file, "T" + t, t % 2 == 1, partitions, bytesPerTable);
+            }
+        }
+
+        for (String count : threads.split(",")) {
+            read(files, Integer.parseInt(count.trim()));
+        }
+        System.exit(0);
+    }
+
+    private static void generate(File file, String table, boolean replicated, int partitions, long bytes)
+            throws Exception {
+        final List<Integer> partitionIds = new ArrayList<Integer>();
+        for (int p = 0; p < (replicated ? 1 : partitions); p++) {
+            partitionIds.add(p);
+        }
+        System.out.printf("Writing %s, %d MB%s\n", file, bytes >> 20, replicated ? ", replicated" : "");
+        final File tmp = new File(file.getPath() + ".tmp");
+        final DefaultSnapshotDataTarget target = new DefaultSnapshotDataTarget(
+                tmp, 0, "cluster", "database", table, partitions, replicated,
+                partitionIds, SCHEMA, 1, System.currentTimeMillis());
+
+        final Random r = new Random(table.hashCode());
+        final ArrayDeque<Future<?>> outstanding = new ArrayDeque<Future<?>>();
+        long id = 0;
+        long written = 0;
+        int chunk = 0;
+        while (written < bytes) {
+            final BBContainer c = DBBPool.allocateDirect(SnapshotSiteProcessor.m_snapshotBufferLength);
+            final ByteBuffer buf = c.b();
+            buf.putInt(partitionIds.get(chunk++ % partitionIds.size()));
+            final int rowCountPosition = buf.position();
+            buf.putInt(0);
+            int rows = 0;
+            while (buf.remaining() > 256) {
+                final int start = buf.position();
+                buf.putInt(0);
+                buf.putLong(id++);
+                buf.putLong(r.nextInt(1000000));
+                buf.putDouble(r.nextInt(100000) / 100.0);
+                final byte[] description = (WORDS[r.nextInt(WORDS.length)] + " " +
+                        WORDS[r.nextInt(WORDS.length)] + " " + r.nextInt(10000)).getBytes("UTF-8");
+                buf.putInt(description.length);
+                buf.put(description);
+                buf.putInt(start, buf.position() - start - 4);
+                rows++;
+            }
+            buf.putInt(rowCountPosition, rows);
+            buf.flip();
+            written += buf.remaining();
+
+            outstanding.add(target.write(new Callable<BBContainer>() {
+                @Override
+                public BBContainer call() {
+                    return c;
+                }
+            }, 0));
+            // Don't let the chunks waiting to be written pile up in memory
+            while (outstanding.size() > 32) {
+                outstanding.poll().get();
+            }
+        }
+        for (Future<?> f : outstanding) {
+            f.get();
+        }
+        target.close();
+        if (!tmp.renameTo(file)) {
+            throw new Exception("Failed to rename " + tmp + " to " + file);
+        }
+    }
+
+    private static void read(List<File> files, int threads) throws Exception {
+        final AtomicLong bytes = new AtomicLong();
+        final long start = System.nanoTime();
+        final SnapshotRestoreReader reader = new SnapshotRestoreReader(files, 3, null, threads);
+        reader.read(new SnapshotRestoreReader.ChunkHandler() {
+            @Override
+            public void handleChunk(TableSaveFile saveFile, int partitionId, BBContainer chunk) {
+                bytes.addAndGet(chunk.b().remaining());
+                chunk.discard();
+            }
+        });
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("\n%d reader threads: %.1f MB in %.1f seconds, %.1f MB/s\n",
+                threads, bytes.get() / (1024.0 * 1024.0), seconds, bytes.get() / (1024.0 * 1024.0) / seconds);
+        for (Map.Entry<String, SnapshotRestoreReader.TableProgress> e : reader.getTableStats().entrySet()) {
+            final SnapshotRestoreReader.TableProgress progress = e.getValue();
+            final double tableSeconds = progress.getElapsedNanos() / 1e9;
+            System.out.printf("  %-8s %10d rows %10.1f MB/s %12.0f rows/s\n",
+                    e.getKey(),
+                    progress.getRows(),
+                    progress.getBytes() / (1024.0 * 1024.0) / tableSeconds,
+                    progress.getRows() / tableSeconds);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include "harness.h"
+
+#include "common/SQLException.h"
+#include "common/TupleSchema.h"
+#include "common/NValue.hpp"
+#include "common/ValueFactory.hpp"
+#include "common/ValuePeeker.hpp"
+#include "executors/hashjoinexecutor.h"
+#include "expressions/tuplevalueexpression.h"
+#include "storage/tablefactory.h"
+#include "storage/temptable.h"
+#include "storage/TempTableLimits.h"
+
+#include "boost/scoped_ptr.hpp"
+
+#include <vector>
+#include <string>
+
+namespace voltdb {
+
+// Nullable INTEGER columns: an id and a join key for the tables, just the key for the hash
+static TupleSchema* createTupleSchema(int columnCount) {
+    std::vector<ValueType> all_types(columnCount, VALUE_TYPE_INTEGER);
+    std::vector<bool> column_allow_null(columnCount, true);
+    std::vector<int32_t> all_inline_lengths(columnCount,
+                                            NValue::getTupleStorageSize(VALUE_TYPE_INTEGER));
+    return TupleSchema::createTupleSchemaForTest(all_types,
+                                                 all_inline_lengths,
+                                                 column_allow_null);
+}
+
+class HashJoinExecutorTest : public Test
+{
+public:
+    HashJoinExecutorTest()
+        : m_keySchema(createTupleSchema(1))
+        , m_outerKey(0, 1)
+        , m_innerKey(1, 1)
+    {
+        std::vector<std::string> names(2);
+        m_innerTable.reset(TableFactory::buildTempTable("inner_table", createTupleSchema(2), names, NULL));
+        m_outerKeys.push_back(&m_outerKey);
+        m_innerKeys.push_back(&m_innerKey);
+    }
+
+    ~HashJoinExecutorTest()
+    {
+        TupleSchema::freeTupleSchema(m_keySchema);
+    }
+
+    // A NULL key is given as -1
+    void addInnerTuple(int id, int key) {
+        TableTuple& tuple = m_innerTable->tempTuple();
+        tuple.setNValue(0, ValueFactory::getIntegerValue(id));
+        if (key < 0) {
+            tuple.setNValue(1, NValue::getNullValue(VALUE_TYPE_INTEGER));
+        }
+        else {
+            tuple.setNValue(1, ValueFactory::getIntegerValue(key));
+        }
+        m_innerTable->insertTempTuple(tuple);
+    }
+
+    // The ids of the inner tuples that match the key, in the order they are found
+    std::vector<int> probe(JoinHashTable& hashTable, int key) {
+        StandAloneTupleStorage storage(m_innerTable->schema());
+        TableTuple outerTuple = storage.tuple();
+        outerTuple.setNValue(0, ValueFactory::getIntegerValue(0));
+        if (key < 0) {
+            outerTuple.setNValue(1, NValue::getNullValue(VALUE_TYPE_INTEGER));
+        }
+        else {
+            outerTuple.setNValue(1, ValueFactory::getIntegerValue(key));
+        }
+
+        std::vector<int> ids;
+        TableTuple innerTuple(m_innerTable->schema());
+        for (int64_t entry = hashTable.find(outerTuple, m_outerKeys);
+                entry != JoinHashTable::NO_MATCH;
+                entry = hashTable.next(entry)) {
+            innerTuple.move(hashTable.tupleAddress(entry));
+            ids.push_back(ValuePeeker::peekInteger(innerTuple.getNValue(0)));
+        }
+        return ids;
+    }
+
+    TupleSchema* m_keySchema;
+    boost::scoped_ptr<TempTable> m_innerTable;
+    TupleValueExpression m_outerKey;
+    TupleValueExpression m_innerKey;
+    std::vector<AbstractExpression*> m_outerKeys;
+    std::vector<AbstractExpression*> m_innerKeys;
+};
+
+TEST_F(HashJoinExecutorTest, emptyInnerTest)
+{
+    JoinHashTable hashTable(m_keySchema, NULL);
+    hashTable.build(m_innerTable.get(), m_innerKeys, NULL);
+    ASSERT_EQ(0, hashTable.tupleCount());
+    ASSERT_TRUE(probe(hashTable, 1).empty());
+}
+
+TEST_F(HashJoinExecutorTest, duplicateKeysTest)
+{
+    addInnerTuple(1, 10);
+    addInnerTuple(2, 20);
+    addInnerTuple(3, 10);
+    addInnerTuple(4, 30);
+    addInnerTuple(5, 10);
+
+    JoinHashTable hashTable(m_keySchema, NULL);
+    hashTable.build(m_innerTable.get(), m_innerKeys, NULL);
+    ASSERT_EQ(5, hashTable.tupleCount());
+
+    // Duplicates come back in the order of the inner table
+    std::vector<int> ids = probe(hashTable, 10);
+    ASSERT_EQ(3, ids.size());
+    ASSERT_EQ(1, ids[0]);
+    ASSERT_EQ(3, ids[1]);
+    ASSERT_EQ(5, ids[2]);
+
+    ids = probe(hashTable, 30);
+    ASSERT_EQ(1, ids.size());
+    ASSERT_EQ(4, ids[0]);
+
+    ASSERT_TRUE(probe(hashTable, 40).empty());
+}
+
+TEST_F(HashJoinExecutorTest, nullKeysTest)
+{
+    addInnerTuple(1, -1);
+    addInnerTuple(2, 10);
+    addInnerTuple(3, -1);
+
+    JoinHashTable hashTable(m_keySchema, NULL);
+    hashTable.build(m_innerTable.get(), m_innerKeys, NULL);
+    // NULL keys never match so they are not hashed
+    ASSERT_EQ(1, hashTable.tupleCount());
+    ASSERT_TRUE(probe(hashTable, -1).empty());
+    ASSERT_EQ(1, probe(hashTable, 10).size());
+}
+
+TEST_F(HashJoinExecutorTest, memoryLimitTest)
+{
+    for (int ii = 0; ii < 100000; ii++) {
+        addInnerTuple(ii, ii);
+    }
+    TempTableLimits limits(1024 * 1024);
+
+    std::string diagnostic = "Failed to throw an exception";
+    try {
+        JoinHashTable hashTable(m_keySchema, &limits);
+        hashTable.build(m_innerTable.get(), m_innerKeys, NULL);
+    }
+    catch (const SQLException& exc) {
+        if (exc.message().find("temp table memory") != std::string::npos) {
+            diagnostic = "success";
+        }
+        else {
+            diagnostic = "Unexpected message \"" + exc.message() + "\"";
+        }
+    }
+    ASSERT_TRUE_WITH_MESSAGE(diagnostic == "success", diagnostic.c_str());
+    // The memory of the abandoned hash table is given back
+    ASSERT_EQ(0, limits.getAllocated());
+}
+
+} // namespace voltdb
+
+int main()
+{
+    return TestSuite::globalInstance()->runAll();
+}
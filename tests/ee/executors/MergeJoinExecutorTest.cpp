@@ -0,0 +1,218 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+#include "harness.h"
+
+#include "common/SerializableEEException.h"
+#include "common/TupleSchema.h"
+#include "common/NValue.hpp"
+#include "common/ValueFactory.hpp"
+#include "common/ValuePeeker.hpp"
+#include "executors/mergejoinexecutor.h"
+#include "expressions/tuplevalueexpression.h"
+#include "storage/tablefactory.h"
+#include "storage/temptable.h"
+
+#include "boost/scoped_ptr.hpp"
+
+#include <vector>
+#include <string>
+
+namespace voltdb {
+
+// Nullable INTEGER columns: an id and a join key
+static TupleSchema* createTupleSchema(int columnCount) {
+    std::vector<ValueType> all_types(columnCount, VALUE_TYPE_INTEGER);
+    std::vector<bool> column_allow_null(columnCount, true);
+    std::vector<int32_t> all_inline_lengths(columnCount,
+                                            NValue::getTupleStorageSize(VALUE_TYPE_INTEGER));
+    return TupleSchema::createTupleSchemaForTest(all_types,
+                                                 all_inline_lengths,
+                                                 column_allow_null);
+}
+
+class MergeJoinExecutorTest : public Test
+{
+public:
+    MergeJoinExecutorTest()
+        : m_outerKey(0, 1)
+        , m_innerKey(1, 1)
+    {
+        std::vector<std::string> names(2);
+        m_innerTable.reset(TableFactory::buildTempTable("inner_table", createTupleSchema(2), names, NULL));
+        m_outerKeys.push_back(&m_outerKey);
+        m_innerKeys.push_back(&m_innerKey);
+    }
+
+    // A NULL key is given as -1
+    static void setTuple(TableTuple& tuple, int id, int key) {
+        tuple.setNValue(0, ValueFactory::getIntegerValue(id));
+        if (key < 0) {
+            tuple.setNValue(1, NValue::getNullValue(VALUE_TYPE_INTEGER));
+        }
+        else {
+            tuple.setNValue(1, ValueFactory::getIntegerValue(key));
+        }
+    }
+
+    // Inner tuples must be added in key order, NULL keys first like in an index
+    void addInnerTuple(int id, int key) {
+        TableTuple& tuple = m_innerTable->tempTuple();
+        setTuple(tuple, id, key);
+        m_innerTable->insertTempTuple(tuple);
+    }
+
+    // The ids of the inner tuples that match the key, in the order they are found
+    std::vector<int> match(MergeJoinInnerScan& innerScan, int key) {
+        StandAloneTupleStorage storage(m_innerTable->schema());
+        TableTuple outerTuple = storage.tuple();
+        setTuple(outerTuple, 0, key);
+
+        std::vector<int> ids;
+        TableTuple innerTuple(m_innerTable->schema());
+        const std::vector<void*>& run = innerScan.match(outerTuple, m_outerKeys);
+        for (int ii = 0; ii < run.size(); ii++) {
+            innerTuple.move(run[ii]);
+            ids.push_back(ValuePeeker::peekInteger(innerTuple.getNValue(0)));
+        }
+        return ids;
+    }
+
+    boost::scoped_ptr<TempTable> m_innerTable;
+    TupleValueExpression m_outerKey;
+    TupleValueExpression m_innerKey;
+    std::vector<AbstractExpression*> m_outerKeys;
+    std::vector<AbstractExpression*> m_innerKeys;
+};
+
+TEST_F(MergeJoinExecutorTest, emptyInnerTest)
+{
+    MergeJoinInnerScan innerScan(m_innerTable.get(), m_innerKeys, NULL);
+    ASSERT_TRUE(match(innerScan, 1).empty());
+    ASSERT_TRUE(match(innerScan, 2).empty());
+}
+
+TEST_F(MergeJoinExecutorTest, duplicateKeysTest)
+{
+    addInnerTuple(1, 10);
+    addInnerTuple(2, 10);
+    addInnerTuple(3, 10);
+    addInnerTuple(4, 20);
+    addInnerTuple(5, 30);
+    addInnerTuple(6, 30);
+
+    MergeJoinInnerScan innerScan(m_innerTable.get(), m_innerKeys, NULL);
+    // Duplicate outer keys get the same run of duplicate inner keys
+    for (int ii = 0; ii < 2; ii++) {
+        std::vector<int> ids = match(innerScan, 10);
+        ASSERT_EQ(3, ids.size());
+        ASSERT_EQ(1, ids[0]);
+        ASSERT_EQ(2, ids[1]);
+        ASSERT_EQ(3, ids[2]);
+    }
+
+    // Skipping over the run of 20
+    std::vector<int> ids = match(innerScan, 30);
+    ASSERT_EQ(2, ids.size());
+    ASSERT_EQ(5, ids[0]);
+    ASSERT_EQ(6, ids[1]);
+    ASSERT_EQ(2, match(innerScan, 30).size());
+
+    ASSERT_TRUE(match(innerScan, 40).empty());
+}
+
+TEST_F(MergeJoinExecutorTest, gapsTest)
+{
+    addInnerTuple(1, 20);
+    addInnerTuple(2, 40);
+
+    MergeJoinInnerScan innerScan(m_innerTable.get(), m_innerKeys, NULL);
+    // Outer keys before, between and after the inner keys
+    ASSERT_TRUE(match(innerScan, 10).empty());
+    ASSERT_EQ(1, match(innerScan, 20).size());
+    ASSERT_TRUE(match(innerScan, 30).empty());
+    ASSERT_TRUE(match(innerScan, 35).empty());
+    std::vector<int> ids = match(innerScan, 40);
+    ASSERT_EQ(1, ids.size());
+    ASSERT_EQ(2, ids[0]);
+    ASSERT_TRUE(match(innerScan, 50).empty());
+}
+
+TEST_F(MergeJoinExecutorTest, nullKeysTest)
+{
+    addInnerTuple(1, -1);
+    addInnerTuple(2, -1);
+    addInnerTuple(3, 10);
+
+    MergeJoinInnerScan innerScan(m_innerTable.get(), m_innerKeys, NULL);
+    // NULL keys never match, on either side
+    ASSERT_TRUE(match(innerScan, -1).empty());
+    ASSERT_TRUE(match(innerScan, -1).empty());
+    std::vector<int> ids = match(innerScan, 10);
+    ASSERT_EQ(1, ids.size());
+    ASSERT_EQ(3, ids[0]);
+}
+
+TEST_F(MergeJoinExecutorTest, unsortedInnerTest)
+{
+    addInnerTuple(1, 10);
+    addInnerTuple(2, 30);
+    addInnerTuple(3, 20);
+
+    MergeJoinInnerScan innerScan(m_innerTable.get(), m_innerKeys, NULL);
+    ASSERT_EQ(1, match(innerScan, 10).size());
+    bool thrown = false;
+    try {
+        match(innerScan, 30);
+    }
+    catch (const SerializableEEException& exc) {
+        thrown = true;
+    }
+    ASSERT_TRUE(thrown);
+}
+
+TEST_F(MergeJoinExecutorTest, unsortedOuterTest)
+{
+    addInnerTuple(1, 10);
+    addInnerTuple(2, 20);
+
+    MergeJoinInnerScan innerScan(m_innerTable.get(), m_innerKeys, NULL);
+    ASSERT_EQ(1, match(innerScan, 20).size());
+    // NULL outer keys may come anywhere, they do not match
+    ASSERT_TRUE(match(innerScan, -1).empty());
+    bool thrown = false;
+    try {
+        match(innerScan, 10);
+    }
+    catch (const SerializableEEException& exc) {
+        thrown = true;
+    }
+    ASSERT_TRUE(thrown);
+}
+
+} // namespace voltdb
+
+int main()
+{
+    return TestSuite::globalInstance()->runAll();
+}
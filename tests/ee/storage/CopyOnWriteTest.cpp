@@ -56,6 +56,8 @@
 #include "jsoncpp/jsoncpp.h"
 
 #include <iostream>
+#include <map>
+#include <set>
 #include <stdint.h>
 #include <stdarg.h>
 #include <string>
@@ -443,6 +445,98 @@ public:
         }
     }
 
+    /**
+     * Take an incremental snapshot and apply it to the rows of each block of the chain
+     * as the snapshot merger would. Mutation op 0-2 is one of doRandomTableMutation(),
+     * 3 is a forced compaction and -1 is none, it is applied NUM_MUTATIONS times after
+     * every chunk. Check that the chain holds the rows of the table at activation.
+     */
+    void doIncrementalSnapshot(std::map<int64_t, T_ValueSet> &chain, int op, size_t &rowsWritten) {
+        T_ValueSet originalTuples;
+        getTableValueSet(originalTuples);
+
+        char config[4];
+        ::memset(config, 0, 4);
+        ReferenceSerializeInputBE input(config, 4);
+        ASSERT_TRUE(m_table->activateStream(TABLE_STREAM_INCREMENTAL_SNAPSHOT, 0, m_tableId, input));
+
+        std::map<int64_t, T_ValueSet> modified;
+        std::set<int64_t> unmodified;
+        rowsWritten = 0;
+        char serializationBuffer[BUFFER_SIZE];
+        int64_t remaining;
+        do {
+            TupleOutputStreamProcessor outputStreams(serializationBuffer, sizeof(serializationBuffer));
+            std::vector<int> retPositions;
+            remaining = m_table->streamMore(outputStreams, TABLE_STREAM_INCREMENTAL_SNAPSHOT, retPositions);
+            ASSERT_TRUE(remaining >= 0);
+            const size_t serialized = outputStreams.at(0).position();
+            // partition id, block count, then a segment per block
+            size_t ii = sizeof(int32_t);
+            int32_t blockCount = ntohl(*reinterpret_cast<const int32_t*>(&serializationBuffer[ii]));
+            ii += sizeof(int32_t);
+            for (int32_t iblock = 0; iblock < blockCount; iblock++) {
+                int64_t blockId = *reinterpret_cast<const int64_t*>(&serializationBuffer[ii]);
+                ii += sizeof(int64_t);
+                int32_t rowCount = ntohl(*reinterpret_cast<const int32_t*>(&serializationBuffer[ii]));
+                ii += sizeof(int32_t);
+                if (rowCount == TupleOutputStream::UNMODIFIED_BLOCK) {
+                    unmodified.insert(blockId);
+                    continue;
+                }
+                T_ValueSet &rows = modified[blockId];
+                for (int32_t irow = 0; irow < rowCount; irow++) {
+                    int32_t length = ntohl(*reinterpret_cast<const int32_t*>(&serializationBuffer[ii]));
+                    int32_t values[2];
+                    values[0] = ntohl(*reinterpret_cast<const int32_t*>(&serializationBuffer[ii + 4]));
+                    values[1] = ntohl(*reinterpret_cast<const int32_t*>(&serializationBuffer[ii + 8]));
+                    void *valuesVoid = reinterpret_cast<void*>(values);
+                    ASSERT_TRUE(rows.insert(*reinterpret_cast<const int64_t*>(valuesVoid)).second);
+                    ii += sizeof(int32_t) + length;
+                    rowsWritten++;
+                }
+            }
+            ASSERT_EQ(serialized, ii);
+
+            for (int jj = 0; op >= 0 && jj < NUM_MUTATIONS; jj++) {
+                switch (op) {
+                case 0:
+                    doRandomDelete(m_table);
+                    break;
+                case 1:
+                    doRandomInsert(m_table);
+                    break;
+                case 2:
+                    doRandomUpdate(m_table);
+                    break;
+                default:
+                    doForcedCompaction(m_table);
+                    break;
+                }
+            }
+        } while (remaining > 0);
+
+        // A block modified in the snapshot replaces its rows, an unmodified one keeps them
+        std::map<int64_t, T_ValueSet> merged(modified);
+        for (std::set<int64_t>::iterator iter = unmodified.begin(); iter != unmodified.end(); iter++) {
+            if (merged.find(*iter) == merged.end()) {
+                ASSERT_TRUE(chain.find(*iter) != chain.end());
+                merged[*iter] = chain[*iter];
+            }
+        }
+        chain.swap(merged);
+
+        T_ValueSet COWTuples;
+        for (std::map<int64_t, T_ValueSet>::iterator iter = chain.begin(); iter != chain.end(); iter++) {
+            BOOST_FOREACH(int64_t value, iter->second) {
+                ASSERT_TRUE(COWTuples.insert(value).second);
+            }
+        }
+        checkTuples(0, originalTuples, COWTuples);
+        // Every delete held up by the snapshot has been carried out
+        ASSERT_EQ(m_table->activeTupleCount(), m_table->visibleTupleCount());
+    }
+
     // Avoid the need to make each individual test a friend by exposing
     // PersistentTable privates from here. Tests should call these methods
     // instead of adding them as friends.
@@ -1994,6 +2088,80 @@ TEST_F(CopyOnWriteTest, ElasticIndexLowerUpperBounds) {
     ASSERT_TRUE(index.createUpperBoundIterator(3) == index.end());
 }
 
+// Unmodified blocks are passed over without writing their rows.
+TEST_F(CopyOnWriteTest, IncrementalUnmodified) {
+    initTable(1, 65536);
+    addRandomUniqueTuples(m_table, TUPLE_COUNT);
+    std::map<int64_t, T_ValueSet> chain;
+    size_t rowsWritten;
+    doIncrementalSnapshot(chain, -1, rowsWritten);
+    ASSERT_EQ(TUPLE_COUNT, rowsWritten);
+
+    doIncrementalSnapshot(chain, -1, rowsWritten);
+    ASSERT_EQ(0, rowsWritten);
+
+    // Only the blocks of the updated tuples are written
+    for (int ii = 0; ii < NUM_MUTATIONS; ii++) {
+        doRandomUpdate(m_table);
+    }
+    doIncrementalSnapshot(chain, -1, rowsWritten);
+    ASSERT_TRUE(rowsWritten > 0);
+    ASSERT_TRUE(rowsWritten < TUPLE_COUNT);
+    doIncrementalSnapshot(chain, -1, rowsWritten);
+    ASSERT_EQ(0, rowsWritten);
+}
+
+// Updates, deletes and inserts while a snapshot streams show up in the next one.
+TEST_F(CopyOnWriteTest, IncrementalMutationsDuringStream) {
+    initTable(1, 65536);
+    addRandomUniqueTuples(m_table, TUPLE_COUNT);
+    std::map<int64_t, T_ValueSet> chain;
+    size_t rowsWritten;
+    doIncrementalSnapshot(chain, -1, rowsWritten);
+    for (int op = 0; op < 3; op++) {
+        iterate();
+        // Some of the blocks are written so the stream takes more than one chunk
+        for (int ii = 0; ii < 50; ii++) {
+            doRandomUpdate(m_table);
+        }
+        context("mutation %d during the stream", op);
+        doIncrementalSnapshot(chain, op, rowsWritten);
+        ASSERT_TRUE(rowsWritten < TUPLE_COUNT);
+        context("after mutation %d during the stream", op);
+        doIncrementalSnapshot(chain, -1, rowsWritten);
+        ASSERT_TRUE(rowsWritten > 0);
+    }
+    doIncrementalSnapshot(chain, -1, rowsWritten);
+    ASSERT_EQ(0, rowsWritten);
+}
+
+// Compaction while a snapshot streams moves tuples out of blocks the chain still needs.
+TEST_F(CopyOnWriteTest, IncrementalCompactionDuringStream) {
+    initTable(1, 65536);
+    addRandomUniqueTuples(m_table, TUPLE_COUNT);
+    std::map<int64_t, T_ValueSet> chain;
+    size_t rowsWritten;
+    doIncrementalSnapshot(chain, -1, rowsWritten);
+
+    // Leave the blocks sparse enough to compact
+    for (int ii = 0; ii < TUPLE_COUNT / 2; ii++) {
+        doRandomDelete(m_table);
+    }
+    doIncrementalSnapshot(chain, -1, rowsWritten);
+
+    // Compact blocks the scan has passed, and blocks still pending, unmodified or not
+    for (int ii = 0; ii < 50; ii++) {
+        doRandomUpdate(m_table);
+    }
+    size_t blocksBefore = m_table->allocatedBlockCount();
+    doIncrementalSnapshot(chain, 3, rowsWritten);
+    ASSERT_TRUE(rowsWritten < TUPLE_COUNT / 2);
+    ASSERT_TRUE(m_table->allocatedBlockCount() < blocksBefore);
+    doIncrementalSnapshot(chain, -1, rowsWritten);
+    doIncrementalSnapshot(chain, -1, rowsWritten);
+    ASSERT_EQ(0, rowsWritten);
+}
+
 int main() {
     return TestSuite::globalInstance()->runAll();
 }
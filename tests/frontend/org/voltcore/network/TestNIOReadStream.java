@@ -199,6 +199,39 @@ public class TestNIOReadStream extends TestCase {
         assertEquals(252, stream.getInt());
     }
 
+    public void testGetSlice() throws IOException {
+        //Small buffers so the reads span several
+        NetworkDBBPool smallPool = new NetworkDBBPool(64, 8);
+        channel.nextRead = new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+        assertEquals(12, stream.read(channel, 12, smallPool));
+
+        ByteBuffer first = stream.getSlice(4);
+        assertEquals(4, first.remaining());
+        assertEquals(0, first.get(0));
+        assertEquals(3, first.get(3));
+        // Spans two buffers, nothing is consumed
+        assertNull(stream.getSlice(6));
+        assertEquals(8, stream.dataAvailable());
+
+        ByteBuffer second = stream.getSlice(4);
+        assertEquals(4, second.get(0));
+        byte[] rest = new byte[4];
+        stream.getBytes(rest);
+        assertEquals(11, rest[3]);
+
+        // Both buffers are read completely but still referenced, new data must not land in them
+        channel.nextRead = new byte[]{-1, -1, -1, -1, -1, -1, -1, -1};
+        assertEquals(8, stream.read(channel, 8, smallPool));
+        assertEquals(0, first.get(0));
+        assertEquals(7, second.get(3));
+        stream.releaseSlices();
+
+        assertEquals(-1, stream.getInt());
+        assertEquals(4, stream.dataAvailable());
+        stream.shutdown();
+        smallPool.clear();
+    }
+
     public void testEndReadComplete() throws IOException {
         channel.nextRead = new byte[]{1, 2, 3,4 };
         channel.end = true;
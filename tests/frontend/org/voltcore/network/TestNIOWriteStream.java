@@ -163,14 +163,34 @@ public class TestNIOWriteStream extends TestCase {
 
         @Override
         public long write(ByteBuffer src[]) throws IOException {
+            return write(src, 0, src.length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // TODO Auto-generated method stub
+        }
+
+        @Override
+        public boolean isOpen() {
+            return m_open;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length)
+                throws IOException {
             if (!m_open) throw new IOException();
             if (closeAfter > 0 && ++writeCount >= closeAfter) {
                 m_open = false;
             }
+            gatheringWrites++;
 
             if (m_behavior == SINK) {
-                int remaining = src[0].remaining();
-                src[0].position(src[0].limit());
+                long remaining = 0;
+                for (int ii = offset; ii < offset + length; ii++) {
+                    remaining += srcs[ii].remaining();
+                    srcs[ii].position(srcs[ii].limit());
+                }
                 return remaining;
             }
             else if (m_behavior == FULL) {
@@ -182,30 +202,15 @@ public class TestNIOWriteStream extends TestCase {
                 } else {
                     wrotePartial = true;
                 }
-                ByteBuffer copy = ByteBuffer.allocate(src[0].remaining());
-                src[0].get(copy.array(), 0, src[0].remaining()/2);
-                return src[0].remaining();
+                ByteBuffer copy = ByteBuffer.allocate(srcs[offset].remaining());
+                srcs[offset].get(copy.array(), 0, srcs[offset].remaining()/2);
+                return srcs[offset].remaining();
             }
             assert(false);
             return -1;
         }
 
-        @Override
-        public void close() throws IOException {
-            // TODO Auto-generated method stub
-        }
-
-        @Override
-        public boolean isOpen() {
-            return m_open;
-        }
-
-        @Override
-        public long write(ByteBuffer[] srcs, int offset, int length)
-                throws IOException {
-            // TODO Auto-generated method stub
-            return 0;
-        }
+        private int gatheringWrites = 0;
     }
 
 
@@ -352,13 +357,16 @@ public class TestNIOWriteStream extends TestCase {
         tmp2.put((byte)4);
         tmp2.flip();
         wstream.enqueue(tmp);
-        wstream.enqueue(tmp2);
         assertTrue(port.checkWriteSet());
 
+        //First write will succeed and close the channel
+        wstream.swapAndSerializeQueuedWrites(pool);
+        assertEquals(6, wstream.drainTo(channel));
+
+        wstream.enqueue(tmp2);
         boolean threwException = false;
         try {
             wstream.swapAndSerializeQueuedWrites(pool);
-            //First write will succeed leaving 2 in first buffer and 4 in next
             wstream.drainTo( channel);
         } catch (IOException e) {
             threwException = true;
@@ -366,7 +374,7 @@ public class TestNIOWriteStream extends TestCase {
         assertTrue(threwException);
         //Since ACG limit is 2 bytes we should be in backpressure.
         assertTrue(acg.hasBackPressure());
-        assertEquals(6, acg.getPendingBytes());
+        assertEquals(4, acg.getPendingBytes());
         wstream.shutdown();
         //We should be out of backpressure.
         assertFalse(acg.hasBackPressure());
@@ -374,6 +382,25 @@ public class TestNIOWriteStream extends TestCase {
         assertEquals(0, acg.getPendingBytes());
     }
 
+    public void testGatheringWrite() throws IOException {
+        MockChannel channel = new MockChannel(MockChannel.SINK, 0);
+        MockPort port = new MockPort();
+        NIOWriteStream wstream = new NIOWriteStream(port);
+
+        //Pool buffers are 4 bytes so each message gets a buffer of its own
+        for (int ii = 0; ii < 20; ii++) {
+            ByteBuffer tmp = ByteBuffer.allocate(3);
+            tmp.put(0, (byte)ii);
+            wstream.enqueue(tmp);
+        }
+        wstream.swapAndSerializeQueuedWrites(pool);
+        assertEquals(20, wstream.getOutstandingMessageCount());
+        assertEquals(60, wstream.drainTo(channel));
+        assertEquals(1, channel.gatheringWrites);
+        assertTrue(wstream.isEmpty());
+        wstream.shutdown();
+    }
+
     public void testLargeNonDirectWrite() throws IOException {
         MockChannel channel = new MockChannel(MockChannel.SINK, 0);
         MockPort port = new MockPort();
@@ -0,0 +1,199 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltcore.network;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.voltcore.utils.Pair;
+
+public class TestVoltNetworkPool extends TestCase {
+
+    ServerSocketChannel ssc;
+    InetSocketAddress addr;
+    List<SocketChannel> channels = new ArrayList<SocketChannel>();
+    Semaphore messages = new Semaphore(0);
+
+    private class CountingInputHandler extends VoltProtocolHandler {
+        @Override
+        public int getMaxRead() {
+            return 8192;
+        }
+
+        @Override
+        public void handleMessage(ByteBuffer message, Connection c) {
+            messages.release();
+        }
+
+        @Override
+        public Runnable offBackPressure() {
+            return new Runnable() {
+                @Override
+                public void run() {}
+            };
+        }
+
+        @Override
+        public Runnable onBackPressure() {
+            return new Runnable() {
+                @Override
+                public void run() {}
+            };
+        }
+
+        @Override
+        public QueueMonitor writestreamMonitor() {
+            return null;
+        }
+    }
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        ssc = ServerSocketChannel.open();
+        addr = new InetSocketAddress(InetAddress.getLoopbackAddress(), 21212);
+        ssc.bind(addr);
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        for (SocketChannel c : channels) {
+            c.close();
+        }
+        channels.clear();
+        ssc.close();
+    }
+
+    /*
+     * Connect a client socket and register the accepted end with the pool
+     */
+    private SocketChannel connect(VoltNetworkPool pool) throws Exception {
+        SocketChannel client = SocketChannel.open(addr);
+        channels.add(client);
+        SocketChannel accepted = ssc.accept();
+        channels.add(accepted);
+        pool.registerChannel(accepted, new CountingInputHandler());
+        return client;
+    }
+
+    private static void send(SocketChannel client, int count) throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(count * 8);
+        for (int ii = 0; ii < count; ii++) {
+            buf.putInt(4);
+            buf.putInt(ii);
+        }
+        buf.flip();
+        while (buf.hasRemaining()) {
+            client.write(buf);
+        }
+    }
+
+    private static long sum(Map<Integer, Pair<String, long[]>> stats, int counter) {
+        long total = 0;
+        for (Pair<String, long[]> reactor : stats.values()) {
+            total += reactor.getSecond()[counter];
+        }
+        return total;
+    }
+
+    @Test
+    public void testRoundRobinPlacement() throws Exception {
+        VoltNetworkPool pool = new VoltNetworkPool(3, 0, null, "Test",
+                VoltNetworkPool.Placement.ROUND_ROBIN, 0);
+        pool.start();
+        try {
+            for (int ii = 0; ii < 6; ii++) {
+                connect(pool);
+            }
+            Map<Integer, Pair<String, long[]>> stats = pool.getReactorStats(false);
+            assertEquals(3, stats.size());
+            for (Pair<String, long[]> reactor : stats.values()) {
+                assertEquals(2, reactor.getSecond()[VoltNetworkPool.REACTOR_CONNECTIONS]);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testReactorStatsWithBusyPoll() throws Exception {
+        VoltNetworkPool pool = new VoltNetworkPool(2, 0, null, "Test",
+                VoltNetworkPool.Placement.LEAST_LOADED, TimeUnit.MICROSECONDS.toNanos(200));
+        pool.start();
+        try {
+            List<SocketChannel> clients = new ArrayList<SocketChannel>();
+            for (int ii = 0; ii < 4; ii++) {
+                clients.add(connect(pool));
+            }
+            for (SocketChannel client : clients) {
+                send(client, 100);
+            }
+            assertTrue(messages.tryAcquire(400, 10, TimeUnit.SECONDS));
+
+            Map<Integer, Pair<String, long[]>> stats = pool.getReactorStats(true);
+            assertEquals(2, stats.size());
+            // Idle threads are balanced by connection count
+            for (Pair<String, long[]> reactor : stats.values()) {
+                assertEquals(2, reactor.getSecond()[VoltNetworkPool.REACTOR_CONNECTIONS]);
+                assertTrue(reactor.getSecond()[VoltNetworkPool.REACTOR_SELECTS] > 0);
+                assertTrue(reactor.getSecond()[VoltNetworkPool.REACTOR_BUSY_NANOS] <=
+                        reactor.getSecond()[VoltNetworkPool.REACTOR_ELAPSED_NANOS]);
+            }
+            assertEquals(400, sum(stats, VoltNetworkPool.REACTOR_MESSAGES_READ));
+            assertEquals(400 * 8, sum(stats, VoltNetworkPool.REACTOR_BYTES_READ));
+
+            // Counters of closed connections are kept, the interval only covers new traffic
+            send(clients.get(0), 10);
+            assertTrue(messages.tryAcquire(10, 10, TimeUnit.SECONDS));
+            for (SocketChannel client : clients) {
+                client.close();
+            }
+            long deadline = System.currentTimeMillis() + 10000;
+            while (sum(pool.getReactorStats(false), VoltNetworkPool.REACTOR_CONNECTIONS) > 0 &&
+                    System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            stats = pool.getReactorStats(true);
+            assertEquals(0, sum(stats, VoltNetworkPool.REACTOR_CONNECTIONS));
+            assertEquals(10, sum(stats, VoltNetworkPool.REACTOR_MESSAGES_READ));
+            assertEquals(410, sum(pool.getReactorStats(false), VoltNetworkPool.REACTOR_MESSAGES_READ));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltcore.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class TestLongObjectHashMap extends TestCase {
+
+    public void testBasicOps() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+        assertTrue(map.isEmpty());
+        assertNull(map.put(0, "zero"));
+        assertNull(map.put(-1, "minus one"));
+        assertNull(map.put(Long.MIN_VALUE, "min"));
+        assertEquals("zero", map.put(0, "ZERO"));
+        assertEquals(3, map.size());
+        assertEquals("ZERO", map.get(0));
+        assertEquals("min", map.get(Long.MIN_VALUE));
+        assertTrue(map.containsKey(-1));
+        assertFalse(map.containsKey(1));
+        assertEquals("minus one", map.remove(-1));
+        assertNull(map.remove(-1));
+        assertEquals(2, map.size());
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(0));
+    }
+
+    public void testNullValueRejected() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<String>();
+        try {
+            map.put(1, null);
+            fail();
+        } catch (IllegalArgumentException expected) {}
+    }
+
+    /**
+     * Random inserts and removes against a HashMap, with a key space small
+     * enough that probe runs collide and removals have to shift entries back.
+     */
+    public void testAgainstHashMap() {
+        Random r = new Random(42);
+        LongObjectHashMap<Long> map = new LongObjectHashMap<Long>(4);
+        Map<Long, Long> reference = new HashMap<Long, Long>();
+        for (int ii = 0; ii < 200000; ii++) {
+            // Transaction id like keys, a counter shifted over a partition id
+            final long key = ((long)r.nextInt(2000) << 14) | r.nextInt(4);
+            if (r.nextBoolean()) {
+                assertEquals(reference.put(key, (long)ii), map.put(key, (long)ii));
+            } else {
+                assertEquals(reference.remove(key), map.remove(key));
+            }
+            assertEquals(reference.size(), map.size());
+        }
+        for (Map.Entry<Long, Long> e : reference.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+        final Map<Long, Long> visited = new HashMap<Long, Long>();
+        map.forEach(new LongObjectHashMap.Visitor<Long>() {
+            @Override
+            public void visit(long key, Long value) {
+                assertNull(visited.put(key, value));
+            }
+        });
+        assertEquals(reference, visited);
+    }
+}
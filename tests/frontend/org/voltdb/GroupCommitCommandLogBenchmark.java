@@ -0,0 +1,168 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.voltdb.CommandLog.CompletionChecks;
+import org.voltdb.iv2.TxnEgo;
+import org.voltdb.utils.VoltFile;
+
+/**
+ * Measures synchronous command logging throughput and commit latency for a
+ * range of group commit (fsync) intervals. Each logging thread keeps a fixed
+ * number of transactions outstanding and waits for them to become durable.
+ *
+ * Usage: GroupCommitCommandLogBenchmark [dir] [seconds] [threads] [outstanding] [interval ms...]
+ */
+public class GroupCommitCommandLogBenchmark {
+
+    static class LatencyListener extends TestGroupCommitCommandLog.CountingListener {
+        final long[] m_logTimes;
+        final long[] m_latencies;
+        int m_latencyCount = 0;
+        long m_logged = 0;
+        long m_durable = 0;
+
+        LatencyListener(int outstanding, int maxSamples) {
+            super(0);
+            m_logTimes = new long[outstanding];
+            m_latencies = new long[maxSamples];
+        }
+
+        synchronized void awaitCapacity() throws InterruptedException {
+            while (m_logged - m_durable >= m_logTimes.length) {
+                wait();
+            }
+            m_logTimes[(int)(m_logged++ % m_logTimes.length)] = System.nanoTime();
+        }
+
+        @Override
+        public void processDurabilityChecks(CompletionChecks completionChecks) {
+            super.processDurabilityChecks(completionChecks);
+            final long now = System.nanoTime();
+            synchronized (this) {
+                for (int ii = 0; ii < completionChecks.getTaskListSize(); ii++) {
+                    final long logTime = m_logTimes[(int)(m_durable++ % m_logTimes.length)];
+                    if (m_latencyCount < m_latencies.length) {
+                        m_latencies[m_latencyCount++] = now - logTime;
+                    }
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final File dir = new File(args.length > 0 ? args[0] : "/tmp/cl_benchmark");
+        final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        final int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        final int outstanding = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+        int[] intervals = new int[] { 1, 2, 5, 10, 20, 50 };
+        if (args.length > 4) {
+            intervals = new int[args.length - 4];
+            for (int ii = 4; ii < args.length; ii++) {
+                intervals[ii - 4] = Integer.parseInt(args[ii]);
+            }
+        }
+
+        System.out.printf("%12s %14s %12s %12s %12s%n", "fsync (ms)", "txns/sec", "p50 (ms)", "p99 (ms)", "commits");
+        for (int interval : intervals) {
+            run(dir, interval, seconds, threads, outstanding);
+        }
+    }
+
+    private static void run(File dir, int interval, int seconds, int threads, final int outstanding)
+            throws Exception
+    {
+        VoltFile.recursivelyDelete(dir);
+        dir.mkdirs();
+        final GroupCommitCommandLog log = new GroupCommitCommandLog(true, interval, Integer.MAX_VALUE,
+                dir.getPath(), false);
+        log.init(1024, 0, threads, null, null);
+
+        final LatencyListener[] listeners = new LatencyListener[threads];
+        final Thread[] loggers = new Thread[threads];
+        final long[] logged = new long[threads];
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        for (int t = 0; t < threads; t++) {
+            final int partition = t;
+            final LatencyListener listener = listeners[t] = new LatencyListener(outstanding, 4 * 1024 * 1024);
+            log.registerDurabilityListener(listener);
+            loggers[t] = new Thread() {
+                @Override
+                public void run() {
+                    TxnEgo ego = TxnEgo.makeZero(partition);
+                    long count = 0;
+                    try {
+                        while (System.nanoTime() < deadline) {
+                            // Bound the transactions waiting on the next group commit
+                            listener.awaitCapacity();
+                            ego = ego.makeNext();
+                            log.log(TestGroupCommitCommandLog.makeInitiate(count, true, count, "payload"),
+                                    ego.getTxnId(), null, listener, null);
+                            count++;
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    logged[partition] = count;
+                }
+            };
+            loggers[t].start();
+        }
+        for (Thread t : loggers) {
+            t.join();
+        }
+        log.shutdown();
+
+        long total = 0;
+        int commits = 0;
+        int samples = 0;
+        for (int t = 0; t < threads; t++) {
+            total += logged[t];
+            commits = Math.max(commits, listeners[t].m_commits.size());
+            samples += listeners[t].m_latencyCount;
+        }
+        long[] latencies = new long[samples];
+        int pos = 0;
+        for (LatencyListener listener : listeners) {
+            System.arraycopy(listener.m_latencies, 0, latencies, pos, listener.m_latencyCount);
+            pos += listener.m_latencyCount;
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%12d %14.0f %12.2f %12.2f %12d%n", interval, total / (double)seconds,
+                percentile(latencies, 0.5), percentile(latencies, 0.99), commits);
+        VoltFile.recursivelyDelete(dir);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int)(sorted.length * p))] / 1000000.0;
+    }
+}
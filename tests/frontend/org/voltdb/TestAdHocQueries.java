@@ -38,8 +38,10 @@ import org.voltdb.TheHashinator.HashinatorType;
 import org.voltdb.VoltDB.Configuration;
 import org.voltdb.client.Client;
 import org.voltdb.client.ClientFactory;
+import org.voltdb.client.ClientResponse;
 import org.voltdb.client.NoConnectionsException;
 import org.voltdb.client.ProcCallException;
+import org.voltdb.client.ProcedureCallback;
 import org.voltdb.compiler.AsyncCompilerAgent;
 import org.voltdb.compiler.VoltProjectBuilder;
 import org.voltdb.regressionsuites.LocalCluster;
@@ -916,6 +918,53 @@ public class TestAdHocQueries extends AdHocQueryTester {
         }
     }
 
+    @Test
+    // Statements sent by one connection without waiting for each other can be planned
+    // by different planner threads, they still have to run in the order they were sent.
+    public void testDependentDMLFromOneConnection() throws Exception {
+        TestEnv env = new TestEnv(m_catalogJar, m_pathToDeployment, 2, 1, 0);
+        // Plan with several threads whatever the number of cores, the property is read
+        // once so the server needs its own process
+        env.m_cluster.setHasLocalServer(false);
+        env.m_cluster.setJavaProperty("ADHOC_PLANNER_THREADS", "4");
+        try {
+            env.setUp();
+            // Stay under the depth of the connection's planner queue
+            final int rows = AsyncCompilerAgent.MAX_QUEUE_DEPTH / 3 - 1;
+            final List<ClientResponse> responses = new ArrayList<ClientResponse>();
+            final ProcedureCallback callback = new ProcedureCallback() {
+                @Override
+                public void clientCallback(ClientResponse response) {
+                    synchronized (responses) {
+                        responses.add(response);
+                    }
+                }
+            };
+            for (int i = 0; i < rows; i++) {
+                // Each statement only does what it should if the one before it already ran
+                env.m_client.callProcedure(callback, "@AdHoc",
+                        String.format("INSERT INTO BLAH (IVAL, DVAL) VALUES (%d, 0);", i));
+                env.m_client.callProcedure(callback, "@AdHoc",
+                        String.format("UPDATE BLAH SET DVAL = DVAL + 1 WHERE IVAL = %d;", i));
+                env.m_client.callProcedure(callback, "@AdHoc",
+                        String.format("UPDATE BLAH SET DVAL = DVAL * 10 WHERE IVAL = %d AND DVAL = 1;", i));
+            }
+            env.m_client.drain();
+
+            assertEquals(3 * rows, responses.size());
+            for (ClientResponse response : responses) {
+                assertEquals(response.getStatusString(), ClientResponse.SUCCESS, response.getStatus());
+                assertEquals(1, response.getResults()[0].asScalarLong());
+            }
+            VoltTable result = env.m_client.callProcedure("@AdHoc",
+                    "SELECT COUNT(*) FROM BLAH WHERE DVAL = 10;").getResults()[0];
+            assertEquals(rows, result.asScalarLong());
+        }
+        finally {
+            env.tearDown();
+        }
+    }
+
     /**
      * Builds and validates query batch runs.
      */
@@ -28,6 +28,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyInt;
@@ -40,6 +41,7 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -49,6 +51,7 @@ import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
@@ -686,6 +689,106 @@ public class TestClientInterface {
         assertEquals(ClientResponse.UNEXPECTED_FAILURE, resp.getStatus());
     }
 
+    /**
+     * Frame invocations the way the client batches them: the multi-invocation header
+     * followed by each invocation with its own length prefix.
+     */
+    private static ByteBuffer createMultiInvocationFrame(int count, ByteBuffer... invocations) {
+        int size = Constants.MULTI_INVOCATION_HEADER_SIZE;
+        for (ByteBuffer invocation : invocations) {
+            size += 4 + invocation.remaining();
+        }
+        ByteBuffer frame = ByteBuffer.allocate(size);
+        frame.put(Constants.MULTI_INVOCATION_FRAME);
+        frame.putInt(count);
+        for (ByteBuffer invocation : invocations) {
+            frame.putInt(invocation.remaining());
+            frame.put(invocation);
+        }
+        frame.flip();
+        return frame;
+    }
+
+    private List<Iv2InitiateTaskMessage> initMsgsSent(int count) {
+        ArgumentCaptor<Long> destinationCaptor = ArgumentCaptor.forClass(Long.class);
+        ArgumentCaptor<Iv2InitiateTaskMessage> messageCaptor =
+            ArgumentCaptor.forClass(Iv2InitiateTaskMessage.class);
+        verify(m_messenger, times(count)).send(destinationCaptor.capture(), messageCaptor.capture());
+        return messageCaptor.getAllValues();
+    }
+
+    /**
+     * Frames are split by a real handler, which needs an adapter registered under its
+     * own connection id. Responses go to the same queue as the other adapter's.
+     */
+    private Pair<ClientInputHandler, SimpleClientResponseAdapter> createInputHandler() {
+        ClientInputHandler handler = m_ci.new ClientInputHandler("", false);
+        SimpleClientResponseAdapter cxn = new SimpleClientResponseAdapter(handler.connectionId(), "multi") {
+            @Override
+            public void enqueue(ByteBuffer buf) {responses.offer(buf);}
+            @Override
+            public void queueTask(Runnable r) {}
+        };
+        m_ci.bindAdapter(cxn, null);
+        return Pair.of(handler, cxn);
+    }
+
+    private void handleMalformedFrame(ByteBuffer frame, String expectedMessage) {
+        Pair<ClientInputHandler, SimpleClientResponseAdapter> handler = createInputHandler();
+        try {
+            handler.getFirst().handleMessage(frame, handler.getSecond());
+            fail("Malformed multi-invocation frame was accepted");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains(expectedMessage));
+        }
+    }
+
+    @Test
+    public void testMultiInvocationFrame() throws Exception {
+        Pair<ClientInputHandler, SimpleClientResponseAdapter> handler = createInputHandler();
+        handler.getFirst().handleMessage(createMultiInvocationFrame(3,
+                createMsg("hello", 1), createMsg("hello", 2), createMsg("hello", 3)), handler.getSecond());
+
+        // Every invocation in the frame is initiated, in frame order
+        List<Iv2InitiateTaskMessage> messages = initMsgsSent(3);
+        for (int ii = 0; ii < 3; ii++) {
+            assertEquals("hello", messages.get(ii).getStoredProcedureName());
+            assertEquals(ii + 1, messages.get(ii).getStoredProcedureInvocation().getParameterAtIndex(0));
+        }
+        assertTrue(responses.isEmpty());
+    }
+
+    @Test
+    public void testMultiInvocationFrameNegativeCount() throws Exception {
+        handleMalformedFrame(createMultiInvocationFrame(-1, createMsg("hello", 1)), "invocation count -1");
+        verify(m_messenger, never()).send(anyLong(), any(VoltMessage.class));
+    }
+
+    @Test
+    public void testMultiInvocationFrameTruncated() throws Exception {
+        // The count promises more invocations than the frame holds
+        handleMalformedFrame(createMultiInvocationFrame(3, createMsg("hello", 1), createMsg("hello", 2)),
+                "truncated at invocation 2");
+        assertEquals(2, initMsgsSent(2).size());
+    }
+
+    @Test
+    public void testMultiInvocationFrameBadLength() throws Exception {
+        ByteBuffer frame = createMultiInvocationFrame(2, createMsg("hello", 1), createMsg("hello", 2));
+        // Overrun the frame with the length of the second invocation
+        int secondLengthOffset = Constants.MULTI_INVOCATION_HEADER_SIZE + 4 + frame.getInt(Constants.MULTI_INVOCATION_HEADER_SIZE);
+        frame.putInt(secondLengthOffset, frame.limit());
+        handleMalformedFrame(frame, "invocation length " + frame.limit());
+        assertEquals(1, initMsgsSent(1).size());
+
+        reset(m_messenger);
+        frame = createMultiInvocationFrame(2, createMsg("hello", 1), createMsg("hello", 2));
+        frame.putInt(Constants.MULTI_INVOCATION_HEADER_SIZE, 0);
+        handleMalformedFrame(frame, "invocation length 0");
+        verify(m_messenger, never()).send(anyLong(), any(VoltMessage.class));
+    }
+
     @Test
     public void testRejectDupInvocation() throws IOException {
         // by default, the mock initiator returns false for createTransaction()
@@ -0,0 +1,128 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.voltdb.VoltDB.Configuration;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientFactory;
+import org.voltdb.compiler.VoltProjectBuilder;
+import org.voltdb.regressionsuites.LocalCluster;
+import org.voltdb.utils.MiscUtils;
+
+/**
+ * Writes through the community group commit log, kills the server without a
+ * clean shutdown and checks that recover brings every acknowledged row back.
+ */
+public class TestCommunityCommandLogRecovery {
+
+    static final String JAR_NAME = "community_cl.jar";
+    static final VoltProjectBuilder m_builder = new VoltProjectBuilder();
+
+    static final int SP_ROWS = 500;
+    static final int MP_ROWS = 50;
+
+    private LocalCluster m_cluster = null;
+
+    @BeforeClass
+    public static void compileCatalog() throws Exception {
+        m_builder.addLiteralSchema(
+                "CREATE TABLE KV (k BIGINT NOT NULL, v BIGINT, PRIMARY KEY (k));\n" +
+                "PARTITION TABLE KV ON COLUMN k;\n" +
+                "CREATE TABLE REPL (k BIGINT NOT NULL, v BIGINT, PRIMARY KEY (k));\n");
+        // synchronous, so every acknowledged transaction is on disk
+        m_builder.configureLogging(null, null, true, true, 5, Integer.MAX_VALUE, 64);
+        assertTrue(m_builder.compile(Configuration.getPathToCatalogForTest(JAR_NAME), 2, 1, 0));
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (m_cluster != null) {
+            m_cluster.shutDown();
+        }
+    }
+
+    private static long count(Client client, String table) throws Exception {
+        return client.callProcedure("@AdHoc", "SELECT COUNT(*) FROM " + table + ";")
+                .getResults()[0].asScalarLong();
+    }
+
+    @Test
+    public void testRecoverAfterKill() throws Exception {
+        // this is the path the community edition never replayed
+        if (MiscUtils.isPro()) {
+            return;
+        }
+        m_cluster = new LocalCluster(JAR_NAME, 2, 1, 0, BackendTarget.NATIVE_EE_JNI);
+        m_cluster.setHasLocalServer(false);
+        m_cluster.setDeploymentAndVoltDBRoot(
+                m_builder.getPathToDeployment(),
+                m_builder.getPathToVoltRoot().getAbsolutePath());
+        m_cluster.startUp();
+
+        Client client = ClientFactory.createClient();
+        client.createConnection(m_cluster.getListenerAddress(0));
+        for (int i = 0; i < SP_ROWS; i++) {
+            client.callProcedure("KV.insert", i, i * 10);
+        }
+        for (int i = 0; i < MP_ROWS; i++) {
+            client.callProcedure("REPL.insert", i, i * 10);
+        }
+        client.callProcedure("@AdHoc", "UPDATE KV SET v = -1 WHERE k < 10;");
+        client.close();
+
+        // no clean shutdown, the rows only survive in the command log
+        m_cluster.killSingleHost(0);
+        m_cluster.shutDown();
+
+        m_cluster.setForceVoltdbCreate(false);
+        m_cluster.startUp(false);
+
+        client = ClientFactory.createClient();
+        client.createConnection(m_cluster.getListenerAddress(0));
+        assertEquals(SP_ROWS, count(client, "KV"));
+        assertEquals(MP_ROWS, count(client, "REPL"));
+        assertEquals(10, client.callProcedure("@AdHoc", "SELECT COUNT(*) FROM KV WHERE v = -1;")
+                .getResults()[0].asScalarLong());
+        assertEquals(4990, client.callProcedure("@AdHoc", "SELECT v FROM KV WHERE k = 499;")
+                .getResults()[0].asScalarLong());
+
+        // the recovered database keeps logging, and recovers again
+        client.callProcedure("KV.insert", SP_ROWS, 0);
+        client.close();
+        m_cluster.killSingleHost(0);
+        m_cluster.shutDown();
+        m_cluster.startUp(false);
+
+        client = ClientFactory.createClient();
+        client.createConnection(m_cluster.getListenerAddress(0));
+        assertEquals(SP_ROWS + 1, count(client, "KV"));
+        assertEquals(MP_ROWS, count(client, "REPL"));
+        client.close();
+    }
+}
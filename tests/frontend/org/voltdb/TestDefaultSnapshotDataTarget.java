@@ -0,0 +1,99 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.voltdb.DefaultSnapshotDataTarget.RateController;
+
+public class TestDefaultSnapshotDataTarget {
+
+    private static final double DELTA = 0.0001;
+
+    @Test
+    public void testRateHalvesWhileLatencyIsOverTarget() {
+        RateController controller = new RateController(1000, 16, 1024);
+        assertEquals(1024, controller.rateMegabytes(), DELTA);
+
+        for (int i = 0; i < 200; i++) {
+            controller.reportLatency(5000);
+        }
+        assertEquals(512, controller.adjust(), DELTA);
+        controller.reportLatency(5000);
+        assertEquals(256, controller.adjust(), DELTA);
+        controller.reportLatency(5000);
+        assertEquals(128, controller.adjust(), DELTA);
+
+        // never below the minimum
+        for (int i = 0; i < 10; i++) {
+            controller.reportLatency(5000);
+            controller.adjust();
+        }
+        assertEquals(16, controller.rateMegabytes(), DELTA);
+    }
+
+    @Test
+    public void testRateRecoversOnceLatencyDrops() {
+        RateController controller = new RateController(1000, 16, 1024);
+        for (int i = 0; i < 200; i++) {
+            controller.reportLatency(5000);
+        }
+        assertEquals(512, controller.adjust(), DELTA);
+
+        for (int i = 0; i < 200; i++) {
+            controller.reportLatency(100);
+        }
+        assertEquals(640, controller.adjust(), DELTA);
+        controller.reportLatency(100);
+        assertEquals(800, controller.adjust(), DELTA);
+        controller.reportLatency(100);
+        assertEquals(1000, controller.adjust(), DELTA);
+
+        // never above the maximum
+        controller.reportLatency(100);
+        assertEquals(1024, controller.adjust(), DELTA);
+        controller.reportLatency(100);
+        assertEquals(1024, controller.adjust(), DELTA);
+    }
+
+    @Test
+    public void testNoTransactionsIsNotSlow() {
+        RateController controller = new RateController(1000, 16, 1024);
+        for (int i = 0; i < 200; i++) {
+            controller.reportLatency(5000);
+        }
+        assertEquals(512, controller.adjust(), DELTA);
+
+        // the average is still high but nothing ran since the last adjustment
+        assertEquals(640, controller.adjust(), DELTA);
+    }
+
+    @Test
+    public void testMinimumAboveMaximumUsesMaximum() {
+        RateController controller = new RateController(1000, 64, 32);
+        controller.reportLatency(1000000);
+        assertEquals(32, controller.adjust(), DELTA);
+    }
+}
@@ -0,0 +1,341 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.voltcore.utils.InstanceId;
+import org.voltdb.CommandLog.CompletionChecks;
+import org.voltdb.CommandLog.DurabilityListener;
+import org.voltdb.iv2.SpScheduler.DurableUniqueIdListener;
+import org.voltdb.iv2.TransactionTask;
+import org.voltdb.iv2.TxnEgo;
+import org.voltdb.messaging.Iv2InitiateTaskMessage;
+import org.voltdb.utils.VoltFile;
+
+public class TestGroupCommitCommandLog {
+    private File m_dir;
+
+    /**
+     * Counts the transactions made durable by each group commit.
+     */
+    static class CountingListener implements DurabilityListener {
+        int m_pending = 0;
+        final List<Integer> m_commits = new ArrayList<Integer>();
+        CountDownLatch m_durable;
+
+        CountingListener(int expected) {
+            m_durable = new CountDownLatch(expected);
+        }
+
+        class Checks implements CompletionChecks {
+            final int m_count;
+
+            Checks(int count) {
+                m_count = count;
+            }
+
+            @Override
+            public CompletionChecks startNewCheckList(int startSize) {
+                return new Checks(0);
+            }
+
+            @Override
+            public void addTask(TransactionTask task) {}
+
+            @Override
+            public void setLastDurableUniqueId(long uniqueId) {}
+
+            @Override
+            public boolean isChanged() {
+                return m_count > 0;
+            }
+
+            @Override
+            public int getTaskListSize() {
+                return m_count;
+            }
+
+            @Override
+            public void processChecks() {
+                synchronized (CountingListener.this) {
+                    if (m_count > 0) {
+                        m_commits.add(m_count);
+                    }
+                }
+                for (int ii = 0; ii < m_count; ii++) {
+                    m_durable.countDown();
+                }
+            }
+        }
+
+        @Override
+        public void setUniqueIdListener(DurableUniqueIdListener listener) {}
+
+        @Override
+        public void createFirstCompletionCheck(boolean isSyncLogging, boolean commandLoggingEnabled) {}
+
+        @Override
+        public boolean completionCheckInitialized() {
+            return true;
+        }
+
+        @Override
+        public void addTransaction(TransactionTask pendingTask) {
+            m_pending++;
+        }
+
+        @Override
+        public void initializeLastDurableUniqueId(long uniqueId) {}
+
+        @Override
+        public int getNumberOfTasks() {
+            return m_pending;
+        }
+
+        @Override
+        public CompletionChecks startNewTaskList(int nextMaxRowCnt) {
+            Checks checks = new Checks(m_pending);
+            m_pending = 0;
+            return checks;
+        }
+
+        @Override
+        public void processDurabilityChecks(CompletionChecks completionChecks) {
+            completionChecks.processChecks();
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        m_dir = new File("/tmp/" + System.getProperty("user.name") + "/test_group_commit_log");
+        VoltFile.recursivelyDelete(m_dir);
+        m_dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        VoltFile.recursivelyDelete(m_dir);
+    }
+
+    static Iv2InitiateTaskMessage makeInitiate(long uniqueId, boolean isSp, Object... params) {
+        StoredProcedureInvocation spi = new StoredProcedureInvocation();
+        spi.setProcName("LoggedProc");
+        spi.setParams(params);
+        return new Iv2InitiateTaskMessage(0, 0, 0, uniqueId, uniqueId, false, isSp, spi, 0, 0, false);
+    }
+
+    private List<CommandLogSegment.InitiateRecord> readAll() throws IOException {
+        List<CommandLogSegment.InitiateRecord> records = new ArrayList<CommandLogSegment.InitiateRecord>();
+        File[] files = m_dir.listFiles(CommandLogSegment.FILE_FILTER);
+        java.util.Arrays.sort(files);
+        for (File f : files) {
+            CommandLogSegment.Reader reader = new CommandLogSegment.Reader(f);
+            try {
+                CommandLogSegment.InitiateRecord record;
+                while ((record = reader.nextInitiate()) != null) {
+                    records.add(record);
+                }
+                assertFalse(reader.sawTornWrite());
+            } finally {
+                reader.close();
+            }
+        }
+        return records;
+    }
+
+    @Test
+    public void testSynchronousGroupCommit() throws Exception {
+        final int txnCount = 1000;
+        GroupCommitCommandLog log = new GroupCommitCommandLog(true, 5, Integer.MAX_VALUE,
+                m_dir.getPath(), false);
+        log.init(64, 0, 2, null, null);
+        CountingListener listener = new CountingListener(txnCount);
+        log.registerDurabilityListener(listener);
+
+        TxnEgo ego = TxnEgo.makeZero(1);
+        for (int ii = 0; ii < txnCount; ii++) {
+            ego = ego.makeNext();
+            synchronized (listener) {
+                assertNull(log.log(makeInitiate(ii, true, ii, "row" + ii), ego.getTxnId(), null, listener, null));
+            }
+        }
+        assertTrue(listener.m_durable.await(10, TimeUnit.SECONDS));
+        log.shutdown();
+
+        // Transactions were released in groups, not one fsync each
+        assertTrue(listener.m_commits.size() < txnCount);
+
+        List<CommandLogSegment.InitiateRecord> records = readAll();
+        assertEquals(txnCount, records.size());
+        for (int ii = 0; ii < txnCount; ii++) {
+            CommandLogSegment.InitiateRecord record = records.get(ii);
+            assertEquals(1, record.partitionId);
+            assertFalse(record.isMultiPartition());
+            assertEquals(ii, record.message.getUniqueId());
+            assertArrayEquals(new Object[] {ii, "row" + ii},
+                    record.message.getStoredProcedureInvocation().getParams().toArray());
+        }
+    }
+
+    @Test
+    public void testAsynchronousLogAndMultiPartition() throws Exception {
+        GroupCommitCommandLog log = new GroupCommitCommandLog(false, 1, 10,
+                m_dir.getPath(), false);
+        log.init(64, 0, 2, null, null);
+        CountingListener listener = new CountingListener(2);
+        log.registerDurabilityListener(listener);
+        assertTrue(log.canOfferTask());
+
+        long spHandle = TxnEgo.makeZero(0).makeNext().getTxnId();
+        synchronized (listener) {
+            assertTrue(log.log(makeInitiate(1, true, 1), spHandle, null, listener, null).isDone());
+            assertTrue(log.log(makeInitiate(2, false, 2), spHandle + 1, new int[] {0, 1},
+                    listener, null).isDone());
+        }
+        assertTrue(log.logIv2Fault(0, new java.util.HashSet<Long>(), 0, spHandle).get(10, TimeUnit.SECONDS));
+        assertTrue(listener.m_durable.await(10, TimeUnit.SECONDS));
+        log.shutdown();
+
+        // Fault records are skipped by the initiate reader
+        List<CommandLogSegment.InitiateRecord> records = readAll();
+        assertEquals(2, records.size());
+        assertFalse(records.get(0).isMultiPartition());
+        assertTrue(records.get(1).isMultiPartition());
+        assertArrayEquals(new int[] {0, 1}, records.get(1).involvedPartitions);
+    }
+
+    @Test
+    public void testRetentionLimit() throws Exception {
+        final int txnCount = 400;
+        final char[] padding = new char[10 * 1024];
+        java.util.Arrays.fill(padding, 'x');
+        System.setProperty(GroupCommitCommandLog.RETENTION_MB, "2");
+        GroupCommitCommandLog log;
+        try {
+            log = new GroupCommitCommandLog(true, 5, Integer.MAX_VALUE, m_dir.getPath(), false);
+            // 1MB segments, four MB of transactions
+            log.init(8, 0, 2, null, null);
+        } finally {
+            System.clearProperty(GroupCommitCommandLog.RETENTION_MB);
+        }
+        CountingListener listener = new CountingListener(txnCount);
+        log.registerDurabilityListener(listener);
+
+        TxnEgo ego = TxnEgo.makeZero(1);
+        for (int ii = 0; ii < txnCount; ii++) {
+            ego = ego.makeNext();
+            synchronized (listener) {
+                log.log(makeInitiate(ii, true, ii, new String(padding)), ego.getTxnId(), null, listener, null);
+            }
+        }
+        assertTrue(listener.m_durable.await(10, TimeUnit.SECONDS));
+
+        // The oldest segments were deleted and the stats count the ones left
+        File[] files = m_dir.listFiles(CommandLogSegment.FILE_FILTER);
+        assertEquals(2, files.length);
+        java.util.Map<String, Integer> columns = new java.util.HashMap<String, Integer>();
+        for (CommandLogStats.StatName stat : CommandLogStats.StatName.values()) {
+            columns.put(stat.name(), stat.ordinal());
+        }
+        Object[] row = new Object[columns.size()];
+        log.populateCommandLogStats(columns, row);
+        assertEquals(2, row[CommandLogStats.StatName.SEGMENT_COUNT.ordinal()]);
+        log.shutdown();
+
+        // What is left can't recover the database
+        boolean ignoreCrash = VoltDB.ignoreCrash;
+        VoltDB.ignoreCrash = true;
+        try {
+            new DefaultCommandLogReinitiator(0, null, m_dir.getPath());
+            fail();
+        } catch (AssertionError expected) {
+            assertEquals("Faux crash of VoltDB successful.", expected.getMessage());
+            assertTrue(VoltDB.crashMessage.contains("retention limit"));
+        } finally {
+            VoltDB.ignoreCrash = ignoreCrash;
+        }
+    }
+
+    @Test
+    public void testTornWriteStopsReplay() throws Exception {
+        TreeMap<Integer, Long> perPartition = new TreeMap<Integer, Long>();
+        perPartition.put(0, 42L);
+        CommandLogSegment segment = new CommandLogSegment(m_dir, 0, 1024 * 1024,
+                new InstanceId(1, 2), 7, perPartition);
+        java.nio.ByteBuffer batch = java.nio.ByteBuffer.allocate(4096);
+        long spHandle = TxnEgo.makeZero(0).makeNext().getTxnId();
+        for (int ii = 0; ii < 3; ii++) {
+            CommandLogSegment.writeInitiateRecord(batch, 0, spHandle + ii, null, makeInitiate(ii, true, ii));
+        }
+        batch.flip();
+        CommandLogSegment.sealRecords(batch);
+        segment.append(batch);
+        segment.close();
+
+        // Corrupt a byte of the last record's payload
+        File file = new File(m_dir, CommandLogSegment.fileName(0));
+        int lastRecordEnd = CommandLogSegment.headerSize(1) + batch.limit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(lastRecordEnd - 1);
+            byte b = raf.readByte();
+            raf.seek(lastRecordEnd - 1);
+            raf.writeByte(b ^ 0xff);
+        } finally {
+            raf.close();
+        }
+
+        CommandLogSegment.Reader reader = new CommandLogSegment.Reader(file);
+        try {
+            assertEquals(new InstanceId(1, 2), reader.instanceId());
+            assertEquals(7, reader.initialTxnId());
+            assertEquals(Long.valueOf(42), reader.perPartitionTxnId().get(0));
+            assertNotNull(reader.nextInitiate());
+            assertNotNull(reader.nextInitiate());
+            assertNull(reader.nextInitiate());
+            assertTrue(reader.sawTornWrite());
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -22,8 +22,11 @@
  */
 package org.voltdb;
 
+import org.HdrHistogram_voltpatches.AbstractHistogram;
+import org.HdrHistogram_voltpatches.Histogram;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import org.voltcore.utils.CompressionStrategySnappy;
 import org.voltdb.StatsProcProfTable.ProcProfRow;
 
 public class TestStatsProcProfTable {
@@ -200,6 +203,39 @@ public class TestStatsProcProfTable {
         validateEmGood("testSiteNoDedupe", dut, result);
     }
 
+    // a compressed execution time histogram of a site, the way the PROCEDURE statistics ship it
+    static byte[] executionTimes(long from, long to) {
+        Histogram histogram = new Histogram(2);
+        for (long value = from; value <= to; value++) {
+            histogram.recordValue(value);
+        }
+        return AbstractHistogram.toCompressedBytes(histogram.toUncompressedBytes(), CompressionStrategySnappy.INSTANCE);
+    }
+
+    @Test
+    public void testPercentilesAcrossSites() throws Exception {
+        // every site of B runs in a different range, the percentiles are of all of them
+        StatsProcProfTable dut = new StatsProcProfTable();
+        dut.updateTable(true, 1371587140278L, "B", 0L, 100L, 1L, 100L, 50L, 0L, 0L, executionTimes(1, 100));
+        dut.updateTable(true, 1371587140278L, "B", 1L, 100L, 101L, 200L, 150L, 0L, 0L, executionTimes(101, 200));
+        dut.updateTable(true, 1371587140278L, "B", 2L, 200L, 10001L, 10200L, 10100L, 0L, 0L, executionTimes(10001, 10200));
+        // A site that never timed A has no histogram
+        dut.updateTable(true, 1371587140278L, "A", 0L, 0L, 0L, 0L, 0L, 0L, 0L, null);
+
+        VoltTable vt = dut.sortByAverage("testPercentilesAcrossSites");
+        vt.advanceRow();
+        assertEquals("B", vt.getString("PROCEDURE"));
+        // within the 1% of the histograms
+        assertEquals(200, vt.getLong("P50"), 2);
+        assertEquals(10180, vt.getLong("P95"), 102);
+        assertEquals(10196, vt.getLong("P99"), 102);
+        assertEquals(10200, vt.getLong("P999"), 102);
+        vt.advanceRow();
+        assertEquals("A", vt.getString("PROCEDURE"));
+        assertEquals(0, vt.getLong("P50"));
+        assertEquals(0, vt.getLong("P999"));
+    }
+
     @Test
     public void testRounding() throws Exception {
         // need to not double count invocations at replicas, but do look at
@@ -0,0 +1,179 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.voltdb.VoltTable.ColumnInfo;
+import org.voltdb.utils.VoltFile;
+
+public class TestStatsPublisher {
+
+    private static final File TEST_DIR = new File("/tmp/" + System.getProperty("user.name"), "statslog");
+
+    /*
+     * One row per stream with a gauge, a counter and a rate
+     */
+    private static class StreamStats extends StatsSource {
+        private final Map<String, long[]> m_streams = new LinkedHashMap<String, long[]>();
+
+        private StreamStats() {
+            super(false);
+        }
+
+        @Override
+        protected void populateColumnSchema(ArrayList<ColumnInfo> columns) {
+            super.populateColumnSchema(columns);
+            columns.add(new ColumnInfo("PARTITION_ID", VoltType.INTEGER));
+            columns.add(new ColumnInfo("STREAM", VoltType.STRING));
+            columns.add(new ColumnInfo("ROWS", VoltType.BIGINT));
+            columns.add(new ColumnInfo("BYTES_WRITTEN", VoltType.BIGINT));
+            columns.add(new ColumnInfo("RATE", VoltType.FLOAT));
+        }
+
+        @Override
+        protected void updateStatsRow(Object rowKey, Object[] rowValues) {
+            final long[] stream = m_streams.get(rowKey);
+            rowValues[columnNameToIndex.get("PARTITION_ID")] = (int)stream[0];
+            rowValues[columnNameToIndex.get("STREAM")] = rowKey;
+            rowValues[columnNameToIndex.get("ROWS")] = stream[1];
+            rowValues[columnNameToIndex.get("BYTES_WRITTEN")] = stream[1] * 100;
+            rowValues[columnNameToIndex.get("RATE")] = stream[1] / 10.0;
+            super.updateStatsRow(rowKey, rowValues);
+        }
+
+        @Override
+        protected Iterator<Object> getStatsRowKeyIterator(boolean interval) {
+            return new ArrayList<Object>(m_streams.keySet()).iterator();
+        }
+    }
+
+    private StatsAgent m_agent;
+    private StreamStats m_stats;
+
+    @Before
+    public void setUp() throws Exception {
+        VoltFile.recursivelyDelete(TEST_DIR);
+        TEST_DIR.mkdirs();
+        m_agent = new StatsAgent();
+        m_stats = new StreamStats();
+        m_agent.registerStatsSource(StatsSelector.EXPORT, 0, m_stats);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_agent.shutdown();
+        VoltFile.recursivelyDelete(TEST_DIR);
+    }
+
+    @Test
+    public void testPrometheusText() throws Exception {
+        m_stats.m_streams.put("ORDERS", new long[] { 3, 42 });
+        m_stats.m_streams.put("say \"hi\"", new long[] { 4, 7 });
+
+        final Map<String, VoltTable> tables = new LinkedHashMap<String, VoltTable>();
+        tables.put("EXPORT", m_agent.getStatsAggregate(StatsSelector.EXPORT, false, 1L));
+        final String text = StatsPublisher.toPrometheusText(tables);
+
+        assertTrue(text, text.contains("# TYPE voltdb_export_rows gauge\n"));
+        assertTrue(text, text.contains(
+                "voltdb_export_rows{host_id=\"0\",hostname=\"\",partition_id=\"3\",stream=\"ORDERS\"} 42\n"));
+        assertTrue(text, text.contains("stream=\"say \\\"hi\\\"\"} 0.7\n"));
+        assertTrue(text, text.contains("# TYPE voltdb_export_bytes_written_total counter\n"));
+        assertTrue(text, text.contains(
+                "voltdb_export_bytes_written_total{host_id=\"0\",hostname=\"\",partition_id=\"3\",stream=\"ORDERS\"} 4200\n"));
+        assertTrue(text, !text.contains("timestamp"));
+    }
+
+    @Test
+    public void testUnknownSelectorsAreSkipped() {
+        assertEquals(Arrays.asList(StatsSelector.PROCEDURE, StatsSelector.EXPORT),
+                StatsPublisher.parseSelectors("procedure, NOSUCHSELECTOR,,EXPORT"));
+    }
+
+    @Test
+    public void testLogRoundTrip() throws Exception {
+        final StatsPublisher publisher = new StatsPublisher(m_agent, Arrays.asList(StatsSelector.EXPORT), TEST_DIR);
+        final List<List<Object[]>> expected = new ArrayList<List<Object[]>>();
+        for (int sample = 0; sample < 20; sample++) {
+            m_stats.m_streams.put("ORDERS", new long[] { 3, sample * 1000 });
+            // A stream that comes and goes, and one that never changes
+            if (sample % 5 == 0) {
+                m_stats.m_streams.remove("RETURNS");
+            } else {
+                m_stats.m_streams.put("RETURNS", new long[] { 5, sample });
+            }
+            m_stats.m_streams.put("AUDIT", new long[] { 0, 12345 });
+
+            final Map<String, VoltTable> tables = new LinkedHashMap<String, VoltTable>();
+            tables.put("EXPORT", m_agent.getStatsAggregate(StatsSelector.EXPORT, false, 1000L + sample));
+            publisher.publish(1000L + sample, tables);
+
+            final List<Object[]> rows = new ArrayList<Object[]>();
+            final VoltTable table = tables.get("EXPORT");
+            table.resetRowPosition();
+            while (table.advanceRow()) {
+                rows.add(new Object[] { table.getLong("TIMESTAMP"), table.getString("STREAM"),
+                        table.getLong("PARTITION_ID"), table.getLong("ROWS"), table.getDouble("RATE") });
+            }
+            expected.add(rows);
+        }
+        publisher.shutdown();
+
+        final File[] logs = TEST_DIR.listFiles();
+        assertEquals(1, logs.length);
+        final StatsPublisher.LogReader reader = new StatsPublisher.LogReader(logs[0]);
+        try {
+            for (int sample = 0; sample < 20; sample++) {
+                final Map<String, VoltTable> tables = reader.next();
+                assertEquals(1000L + sample, reader.getSampleTime());
+                final VoltTable table = tables.get("EXPORT");
+                assertEquals(expected.get(sample).size(), table.getRowCount());
+                for (Object[] row : expected.get(sample)) {
+                    assertTrue(table.advanceRow());
+                    assertEquals(row[0], table.getLong("TIMESTAMP"));
+                    assertEquals(row[1], table.getString("STREAM"));
+                    assertEquals(row[2], table.getLong("PARTITION_ID"));
+                    assertEquals(row[3], table.getLong("ROWS"));
+                    assertEquals((Double)row[4], table.getDouble("RATE"), 0.0);
+                }
+            }
+            assertNull(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -465,6 +465,43 @@ public class TestVoltProcedure extends TestCase {
         assertTrue(((Long)statsRow[0][9]) > 0L);
     }
 
+    public void testProcedureStatsPercentiles() {
+        NullProcedureWrapper wrapper = new LongProcedure();
+        ProcedureRunner runner = new ProcedureRunner(
+                wrapper, site, null,
+                VoltDB.instance().getCatalogContext().database.getProcedures().get(LongProcedure.class.getName()), null);
+
+        ParameterSet params = ParameterSet.fromArrayNoCopy(1L);
+        for (int ii = 0; ii < 100; ii++) {
+            runner.setupTransaction(null);
+            runner.call(params.toArray());
+        }
+        // Every invocation is timed
+        Object statsRow[][] = agent.m_source.getStatsRows(true, 0L);
+        assertEquals(100L, statsRow[0][6]);
+        assertEquals(100L, statsRow[0][7]);
+        long min = (Long)statsRow[0][8];
+        long max = (Long)statsRow[0][9];
+        long p50 = (Long)statsRow[0][19];
+        long p95 = (Long)statsRow[0][20];
+        long p99 = (Long)statsRow[0][21];
+        long p999 = (Long)statsRow[0][22];
+        assertTrue(min > 0L);
+        assertTrue(min <= p50 && p50 <= p95 && p95 <= p99 && p99 <= p999 && p999 <= max);
+
+        // The interval starts over, the totals since the start don't
+        for (int ii = 0; ii < 10; ii++) {
+            runner.setupTransaction(null);
+            runner.call(params.toArray());
+        }
+        statsRow = agent.m_source.getStatsRows(true, 0L);
+        assertEquals(10L, statsRow[0][6]);
+        assertEquals(10L, statsRow[0][7]);
+        statsRow = agent.m_source.getStatsRows(false, 0L);
+        assertEquals(110L, statsRow[0][6]);
+        assertEquals(110L, statsRow[0][7]);
+    }
+
     public void testGetClusterId() {
         GetClusterIdProcedure gcip = new GetClusterIdProcedure();
         ProcedureRunner runner = new ProcedureRunner(
@@ -0,0 +1,240 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.client;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.StoredProcedureInvocation;
+import org.voltdb.VoltTable;
+
+/**
+ * Drives a Distributer against a loopback stand-in for a VoltDB node that
+ * answers every invocation immediately, so the numbers reflect the client side
+ * call bookkeeping rather than a server. Reports calls per second and the bytes
+ * allocated per call by the calling and client network threads (the stand-in
+ * server's thread is excluded).
+ *
+ * Usage: DistributerBenchmark [seconds] [threads] [port]
+ */
+public class DistributerBenchmark {
+
+    /**
+     * Accepts one connection, completes the login handshake and echoes a
+     * successful empty response for every invocation it reads.
+     */
+    static class LoopbackServer extends Thread {
+        final ServerSocketChannel m_socket;
+        volatile boolean m_shutdown = false;
+
+        LoopbackServer(int port) throws IOException {
+            super("Loopback server");
+            setDaemon(true);
+            m_socket = ServerSocketChannel.open();
+            m_socket.socket().bind(new InetSocketAddress(port));
+        }
+
+        private static void readFully(SocketChannel c, ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) {
+                if (c.read(buf) < 0) {
+                    throw new IOException("Connection closed");
+                }
+            }
+            buf.flip();
+        }
+
+        private static void login(SocketChannel c) throws IOException {
+            readFully(c, ByteBuffer.allocate(4));
+            readFully(c, ByteBuffer.allocate(1));
+            final ByteBuffer scheme = ByteBuffer.allocate(1);
+            readFully(c, scheme);
+            final ByteBuffer length = ByteBuffer.allocate(4);
+            readFully(c, length);
+            readFully(c, ByteBuffer.allocate(length.getInt())); // service
+            length.clear();
+            readFully(c, length);
+            readFully(c, ByteBuffer.allocate(length.getInt())); // username
+            readFully(c, ByteBuffer.allocate(ClientAuthScheme.getDigestLength(ClientAuthScheme.get(scheme.get()))));
+
+            final ByteBuffer response = ByteBuffer.allocate(34);
+            response.putInt(30);
+            response.put((byte)0);//version
+            response.put((byte)0);//success response
+            response.putInt(0);//hostId
+            response.putLong(0);//connectionId
+            response.putLong(0);//instanceId
+            response.putInt(0);//instanceId pt 2
+            response.putInt(0);
+            response.flip();
+            while (response.hasRemaining()) {
+                c.write(response);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                final SocketChannel c = m_socket.accept();
+                c.socket().setTcpNoDelay(true);
+                login(c);
+
+                final ClientResponseImpl template =
+                        new ClientResponseImpl(ClientResponse.SUCCESS, new VoltTable[0], null, 0);
+                final int responseSize = template.getSerializedSize();
+                final ByteBuffer in = ByteBuffer.allocateDirect(256 * 1024);
+                final ByteBuffer out = ByteBuffer.allocateDirect(256 * 1024);
+                final StoredProcedureInvocation spi = new StoredProcedureInvocation();
+                while (!m_shutdown) {
+                    if (c.read(in) < 0) {
+                        return;
+                    }
+                    in.flip();
+                    while (in.remaining() >= 4 && in.remaining() >= 4 + in.getInt(in.position())) {
+                        final int length = in.getInt();
+                        final ByteBuffer frame = in.slice();
+                        frame.limit(length);
+                        in.position(in.position() + length);
+                        spi.initFromBuffer(frame);
+                        if (out.remaining() < 4 + responseSize) {
+                            flush(c, out);
+                        }
+                        template.setClientHandle(spi.getClientHandle());
+                        out.putInt(responseSize);
+                        template.flattenToBuffer(out);
+                    }
+                    in.compact();
+                    flush(c, out);
+                }
+            } catch (IOException e) {
+                if (!m_shutdown) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        private static void flush(SocketChannel c, ByteBuffer out) throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                c.write(out);
+            }
+            out.clear();
+        }
+
+        void shutdown() throws IOException {
+            m_shutdown = true;
+            m_socket.close();
+        }
+    }
+
+    private static long allocatedBytes(List<Long> threadIds) {
+        final com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long id : threadIds) {
+            total += Math.max(0, bean.getThreadAllocatedBytes(id));
+        }
+        return total;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        final int port = args.length > 2 ? Integer.parseInt(args[2]) : 21212;
+
+        final LoopbackServer server = new LoopbackServer(port);
+        server.start();
+
+        final Distributer dist = new Distributer();
+        dist.createConnection("localhost", "", "", port, ClientAuthScheme.HASH_SHA256);
+
+        final AtomicLong handles = new AtomicLong();
+        final AtomicLong responses = new AtomicLong();
+        final ProcedureCallback callback = new ProcedureCallback() {
+            @Override
+            public void clientCallback(ClientResponse clientResponse) {
+                responses.incrementAndGet();
+            }
+        };
+
+        final Thread[] callers = new Thread[threads];
+        final long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(Math.max(1, seconds / 5));
+        final long end = warmupEnd + TimeUnit.SECONDS.toNanos(seconds);
+        final long[] startCounts = new long[2];
+        for (int ii = 0; ii < threads; ii++) {
+            callers[ii] = new Thread("Caller " + ii) {
+                @Override
+                public void run() {
+                    try {
+                        long now;
+                        while ((now = System.nanoTime()) < end) {
+                            final ProcedureInvocation invocation =
+                                    new ProcedureInvocation(handles.getAndIncrement(), "Benchmark", 1L);
+                            // blocks in the rate limiter at max outstanding
+                            dist.queue(invocation, callback, false, now, Distributer.USE_DEFAULT_CLIENT_TIMEOUT);
+                        }
+                    } catch (NoConnectionsException e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+        }
+
+        final List<Long> clientThreads = new ArrayList<>(dist.getThreadIds());
+        for (Thread t : callers) {
+            clientThreads.add(t.getId());
+            t.start();
+        }
+
+        // Skip warm up
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(warmupEnd - System.nanoTime()));
+        startCounts[0] = responses.get();
+        startCounts[1] = allocatedBytes(clientThreads);
+        final long startNanos = System.nanoTime();
+
+        for (Thread t : callers) {
+            t.join();
+        }
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        final long calls = responses.get() - startCounts[0];
+        final long bytes = allocatedBytes(clientThreads) - startCounts[1];
+
+        System.out.printf("threads=%d calls/sec=%.0f bytes allocated/call=%.1f%n",
+                threads,
+                calls / (elapsedNanos / 1e9),
+                calls == 0 ? 0.0 : bytes / (double)calls);
+
+        dist.drain();
+        dist.shutdown();
+        server.shutdown();
+    }
+}
@@ -0,0 +1,171 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestCallbackTable {
+
+    private static final ProcedureCallback NOOP = new NullCallback();
+
+    @Test
+    public void testPutAndRemove() {
+        CallbackTable table = new CallbackTable(16);
+        table.put(5, 100, 0, NOOP, "Foo", 1000, false);
+        table.put(-3, 200, 0, NOOP, "@Sys", 2000, true);
+        assertTrue(table.contains(5));
+        assertTrue(table.contains(-3));
+        assertFalse(table.contains(6));
+
+        CallbackTable.Entry e = table.remove(5);
+        assertNotNull(e);
+        assertEquals(100, e.timestampNanos);
+        assertSame(NOOP, e.callback);
+        assertEquals("Foo", e.name);
+        assertEquals(1000, e.procedureTimeoutNanos);
+        assertFalse(e.ignoreBackpressure);
+        // A call completes exactly once
+        assertNull(table.remove(5));
+        table.release(e);
+        assertFalse(table.contains(5));
+
+        e = table.remove(-3);
+        assertTrue(e.ignoreBackpressure);
+        table.release(e);
+    }
+
+    @Test
+    public void testEntriesAreReused() {
+        CallbackTable table = new CallbackTable(16);
+        table.put(1, 0, 0, NOOP, "Foo", 0, false);
+        CallbackTable.Entry first = table.remove(1);
+        table.release(first);
+        // Same slot, the entry is handed out again
+        table.put(17, 0, 0, NOOP, "Foo", 0, false);
+        CallbackTable.Entry second = table.remove(17);
+        assertSame(first, second);
+        table.release(second);
+    }
+
+    @Test
+    public void testOverflow() {
+        CallbackTable table = new CallbackTable(16);
+        // Many more outstanding calls than slots
+        for (long handle = 0; handle < 1000; handle++) {
+            table.put(handle, handle, 0, NOOP, "Foo", 0, false);
+        }
+        final Set<Long> visited = new HashSet<>();
+        table.forEach(new CallbackTable.Visitor() {
+            @Override
+            public void visit(long handle, long timestampNanos, long timeoutNanos, String name) {
+                assertEquals(handle, timestampNanos);
+                visited.add(handle);
+            }
+        });
+        assertEquals(1000, visited.size());
+        for (long handle = 999; handle >= 0; handle--) {
+            CallbackTable.Entry e = table.remove(handle);
+            assertNotNull(e);
+            assertEquals(handle, e.timestampNanos);
+            table.release(e);
+        }
+        table.forEach(new CallbackTable.Visitor() {
+            @Override
+            public void visit(long handle, long timestampNanos, long timeoutNanos, String name) {
+                throw new AssertionError("Table should be empty");
+            }
+        });
+    }
+
+    @Test
+    public void testRacingRemovers() throws Exception {
+        final CallbackTable table = new CallbackTable(1024);
+        final int calls = 200000;
+        final AtomicInteger completions = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] removers = new Thread[4];
+        final Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (long handle = 0; handle < calls; handle++) {
+                    table.put(handle, 0, 0, NOOP, "Foo", 0, false);
+                }
+            }
+        };
+        for (int ii = 0; ii < removers.length; ii++) {
+            removers[ii] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    // Every remover races for every handle, like response and timeout paths do
+                    for (long handle = 0; handle < calls; handle++) {
+                        while (true) {
+                            CallbackTable.Entry e = table.remove(handle);
+                            if (e != null) {
+                                completions.incrementAndGet();
+                                table.release(e);
+                                break;
+                            }
+                            if (!producer.isAlive() || completions.get() > handle) {
+                                break;
+                            }
+                        }
+                    }
+                }
+            };
+            removers[ii].start();
+        }
+        producer.start();
+        start.countDown();
+        producer.join();
+        for (Thread t : removers) {
+            t.join();
+        }
+        // Pick up anything the removers gave up on
+        for (long handle = 0; handle < calls; handle++) {
+            CallbackTable.Entry e = table.remove(handle);
+            if (e != null) {
+                completions.incrementAndGet();
+                table.release(e);
+            }
+        }
+        assertEquals(calls, completions.get());
+    }
+}
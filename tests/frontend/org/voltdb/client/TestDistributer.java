@@ -47,6 +47,7 @@ import org.voltdb.ClientResponseImpl;
 import org.voltdb.StoredProcedureInvocation;
 import org.voltdb.VoltTable;
 import org.voltdb.VoltType;
+import org.voltdb.common.Constants;
 
 public class TestDistributer extends TestCase {
 
@@ -66,6 +67,23 @@ public class TestDistributer extends TestCase {
 
         @Override
         public void handleMessage(ByteBuffer message, Connection c) {
+            if (message.get(message.position()) == Constants.MULTI_INVOCATION_FRAME) {
+                message.get();
+                final int count = message.getInt();
+                multiInvocationFrames.incrementAndGet();
+                for (int ii = 0; ii < count; ii++) {
+                    final int length = message.getInt();
+                    final ByteBuffer invocation = message.slice();
+                    invocation.limit(length);
+                    message.position(message.position() + length);
+                    handleInvocation(invocation, c);
+                }
+            } else {
+                handleInvocation(message, c);
+            }
+        }
+
+        private void handleInvocation(ByteBuffer message, Connection c) {
             try {
                 StoredProcedureInvocation spi = new StoredProcedureInvocation();
                 spi.initFromBuffer(message);
@@ -138,6 +156,7 @@ public class TestDistributer extends TestCase {
 
         }
         AtomicInteger roundTrips = new AtomicInteger();
+        AtomicInteger multiInvocationFrames = new AtomicInteger();
 
         @Override
         public Runnable offBackPressure() {
@@ -474,6 +493,50 @@ public class TestDistributer extends TestCase {
         }
     }
 
+    @Test
+    public void testInvocationBatching() throws Exception {
+        MockVolt volt = null;
+        try {
+            volt = new MockVolt(20000);
+            volt.start();
+
+            CSL csl = new CSL();
+            Distributer dist = new Distributer(false,
+                    ClientConfig.DEFAULT_PROCEDURE_TIMOUT_NANOS,
+                    ClientConfig.DEFAULT_CONNECTION_TIMOUT_MS,
+                    false, false, null /* subject */);
+            dist.setInvocationBatching(4, TimeUnit.MILLISECONDS.toNanos(20));
+            dist.addClientStatusListener(csl);
+            dist.createConnection("localhost", "", "", 20000, ClientAuthScheme.HASH_SHA1);
+            assertTrue(volt.handler != null);
+
+            final AtomicInteger responses = new AtomicInteger();
+            ProcedureCallback callback = new ProcedureCallback() {
+                @Override
+                public void clientCallback(ClientResponse clientResponse) {
+                    assertEquals(ClientResponse.SUCCESS, clientResponse.getStatus());
+                    responses.incrementAndGet();
+                }
+            };
+            // Two full frames, the last invocation is sent alone when the linger expires
+            for (int handle = 1; handle <= 9; handle++) {
+                dist.queue(new ProcedureInvocation(handle, "i1", new Integer(handle)),
+                        callback, true, System.nanoTime(), 0);
+            }
+            dist.drain();
+
+            assertEquals(9, responses.get());
+            assertEquals(9, volt.handler.roundTrips.get());
+            assertEquals(2, volt.handler.multiInvocationFrames.get());
+            assertFalse(csl.m_exceptionHandled);
+        }
+        finally {
+            if (volt != null) {
+                volt.shutdown();
+            }
+        }
+    }
+
     @Test
     public void testQueueMixed() throws Exception {
 
@@ -0,0 +1,166 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package org.voltdb.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+public class TestRateLimiter {
+
+    private static final long NO_TIMEOUT = TimeUnit.MINUTES.toNanos(2);
+
+    @Test
+    public void testRateLimit() throws Exception {
+        RateLimiter limiter = new RateLimiter();
+        limiter.setLimits(2000, 100);
+        final int calls = 500;
+        final long start = System.nanoTime();
+        for (int ii = 0; ii < calls; ii++) {
+            final long now = System.nanoTime();
+            final long after = limiter.sendTxnWithOptionalBlockAndReturnCurrentTime(now, NO_TIMEOUT, false);
+            limiter.transactionResponseReceived(after, after - now, 0, false);
+        }
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // 500 calls at 2000/s take 250ms, less the 10ms burst the bucket starts with
+        assertTrue("Took " + elapsedMillis + "ms", elapsedMillis >= 230);
+        assertTrue("Took " + elapsedMillis + "ms", elapsedMillis < 1000);
+    }
+
+    @Test
+    public void testRateLimitTimeout() throws Exception {
+        RateLimiter limiter = new RateLimiter();
+        limiter.setLimits(10, 100);
+        long now = System.nanoTime();
+        limiter.sendTxnWithOptionalBlockAndReturnCurrentTime(now, NO_TIMEOUT, false);
+        try {
+            // The next permit is 100ms away
+            limiter.sendTxnWithOptionalBlockAndReturnCurrentTime(now, TimeUnit.MILLISECONDS.toNanos(10), false);
+            fail();
+        } catch (TimeoutException expected) {}
+        // Calls that ignore backpressure are never held back
+        assertEquals(now, limiter.sendTxnWithOptionalBlockAndReturnCurrentTime(now, 0, true));
+    }
+
+    @Test
+    public void testMaxOutstanding() throws Exception {
+        final RateLimiter limiter = new RateLimiter();
+        limiter.setLimits(Integer.MAX_VALUE, 2);
+        long now = System.nanoTime();
+        limiter.sendTxnWithOptionalBlockAndReturnCurrentTime(now, NO_TIMEOUT, false);
+        limiter.sendTxnWithOptionalBlockAndReturnCurrentTime(now, NO_TIMEOUT, false);
+        assertEquals(2, limiter.getOutstanding());
+        try {
+            limiter.sendTxnWithOptionalBlockAndReturnCurrentTime(System.nanoTime(),
+                    TimeUnit.MILLISECONDS.toNanos(10), false);
+            fail();
+        } catch (TimeoutException expected) {}
+
+        // A response lets a blocked caller through
+        Thread responder = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {}
+                limiter.transactionResponseReceived(System.nanoTime(), 1, 0, false);
+            }
+        };
+        responder.start();
+        now = System.nanoTime();
+        final long after = limiter.sendTxnWithOptionalBlockAndReturnCurrentTime(now, NO_TIMEOUT, false);
+        assertTrue(after - now >= TimeUnit.MILLISECONDS.toNanos(40));
+        responder.join();
+        assertEquals(2, limiter.getOutstanding());
+    }
+
+    /*
+     * Run one tuning interval with a fake clock. Callers keep the limiter saturated
+     * and every response has the given latencies.
+     */
+    private static long runInterval(RateLimiter limiter, long clock, long roundTripNanos, int internalLatency)
+            throws Exception {
+        final int limit = limiter.getLimits()[1];
+        for (int ii = 0; ii < limit; ii++) {
+            limiter.sendTxnWithOptionalBlockAndReturnCurrentTime(System.nanoTime(), NO_TIMEOUT, false);
+        }
+        try {
+            limiter.sendTxnWithOptionalBlockAndReturnCurrentTime(System.nanoTime(), 0, false);
+            fail();
+        } catch (TimeoutException expected) {}
+        for (int ii = 0; ii < limit; ii++) {
+            // The last response closes the interval
+            clock += ii == limit - 1 ? RateLimiter.TUNING_INTERVAL_NANOS : 1;
+            limiter.transactionResponseReceived(clock, roundTripNanos, internalLatency, false);
+        }
+        return clock;
+    }
+
+    @Test
+    public void testAdaptiveConcurrency() throws Exception {
+        RateLimiter limiter = new RateLimiter();
+        limiter.enableAdaptiveConcurrency(Integer.MAX_VALUE, 60);
+        assertEquals(RateLimiter.Mode.ADAPTIVE, limiter.getMode());
+        assertEquals(RateLimiter.INITIAL_TUNED_OUTSTANDING, limiter.getLimits()[1]);
+
+        // Latency at the baseline, the limit grows to the ceiling
+        final long baseline = TimeUnit.MILLISECONDS.toNanos(1);
+        long clock = 0;
+        for (int ii = 0; ii < 50; ii++) {
+            clock = runInterval(limiter, clock, baseline, 1);
+        }
+        assertEquals(60, limiter.getLimits()[1]);
+
+        // Latency triples, most of the outstanding transactions are queued so the limit drops
+        for (int ii = 0; ii < 10; ii++) {
+            clock = runInterval(limiter, clock, 3 * baseline, 3);
+        }
+        assertTrue(limiter.getLimits()[1] < 60);
+        assertEquals(0, limiter.getOutstanding());
+    }
+
+    @Test
+    public void testAutoTune() throws Exception {
+        RateLimiter limiter = new RateLimiter();
+        limiter.enableAutoTuning(5);
+        assertEquals(RateLimiter.INITIAL_TUNED_OUTSTANDING, limiter.getLimits()[1]);
+
+        long clock = 0;
+        for (int ii = 0; ii < 4; ii++) {
+            clock = runInterval(limiter, clock, 1, 1);
+        }
+        final int raised = limiter.getLimits()[1];
+        assertEquals(RateLimiter.INITIAL_TUNED_OUTSTANDING + 4 * RateLimiter.MINIMUM_MOVEMENT, raised);
+
+        // Over the target latency the limit comes down
+        clock = runInterval(limiter, clock, 1, 10);
+        assertEquals(raised - RateLimiter.MINIMUM_MOVEMENT, limiter.getLimits()[1]);
+    }
+}
@@ -0,0 +1,152 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.voltdb.VoltType;
+
+public class TestExportColumnarCodec {
+
+    // The export metadata columns followed by a mix of the supported types
+    private static final List<Integer> TYPES = Arrays.asList(
+            (int)VoltType.BIGINT.getValue(), (int)VoltType.BIGINT.getValue(),
+            (int)VoltType.BIGINT.getValue(), (int)VoltType.BIGINT.getValue(),
+            (int)VoltType.BIGINT.getValue(), (int)VoltType.TINYINT.getValue(),
+            (int)VoltType.INTEGER.getValue(), (int)VoltType.SMALLINT.getValue(),
+            (int)VoltType.TIMESTAMP.getValue(), (int)VoltType.FLOAT.getValue(),
+            (int)VoltType.DECIMAL.getValue(), (int)VoltType.STRING.getValue(),
+            (int)VoltType.STRING.getValue(), (int)VoltType.VARBINARY.getValue());
+
+    private static final String[] REGIONS = { "us-east", "us-west", "eu-central" };
+
+    /*
+     * Serialize rows the way the EE does, with some of the user columns null
+     */
+    private static ByteBuffer rows(int count, Random r) {
+        final int nullArrayLength = ((TYPES.size() + 7) & -8) >> 3;
+        final ByteBuffer buf = ByteBuffer.allocate(count * 256).order(ByteOrder.LITTLE_ENDIAN);
+        for (int row = 0; row < count; row++) {
+            final int start = buf.position();
+            buf.putInt(0);
+            final int nullArray = buf.position();
+            buf.put(new byte[nullArrayLength]);
+            for (int col = 0; col < TYPES.size(); col++) {
+                if (col > 5 && r.nextInt(10) == 0) {
+                    buf.put(nullArray + (col >> 3), (byte)(buf.get(nullArray + (col >> 3)) | (0x80 >> (col & 7))));
+                    continue;
+                }
+                switch (VoltType.get(TYPES.get(col).byteValue())) {
+                case TINYINT:
+                    buf.put((byte)r.nextInt(2));
+                    break;
+                case SMALLINT:
+                    buf.putShort((short)r.nextInt());
+                    break;
+                case INTEGER:
+                    buf.putInt(r.nextInt());
+                    break;
+                case BIGINT:
+                    buf.putLong(col == 0 ? 1000000L + row * 3 : col == 3 ? 7 : r.nextLong());
+                    break;
+                case TIMESTAMP:
+                    buf.putLong(1460000000000000L + row * 1000);
+                    break;
+                case FLOAT:
+                    buf.putDouble(r.nextDouble());
+                    break;
+                case DECIMAL:
+                    buf.put((byte)12).put((byte)16).putLong(0).putLong(r.nextLong());
+                    break;
+                case STRING:
+                    final byte[] s = (col == 11 ? REGIONS[r.nextInt(REGIONS.length)] : "event " + r.nextInt()).getBytes();
+                    buf.putInt(s.length).put(s);
+                    break;
+                default:
+                    final byte[] b = new byte[r.nextInt(20)];
+                    r.nextBytes(b);
+                    buf.putInt(b.length).put(b);
+                }
+            }
+            buf.putInt(start, buf.position() - start - 4);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final ExportColumnarCodec codec = new ExportColumnarCodec(TYPES);
+        assertTrue(ExportColumnarCodec.supports(TYPES));
+        final Random r = new Random(42);
+        for (int count : new int[] { 1, 10, 1000 }) {
+            final ByteBuffer rows = rows(count, r);
+            final ByteBuffer columnar = codec.encode(rows);
+            if (count == 1) {
+                // A single row doesn't get smaller
+                assertNull(columnar);
+                continue;
+            }
+            assertNotNull(columnar);
+            assertEquals(0, rows.position());
+            assertTrue(columnar.remaining() < rows.remaining());
+            assertTrue(ExportColumnarCodec.isColumnar(columnar, 0));
+            assertFalse(ExportColumnarCodec.isColumnar(rows, 0));
+
+            final ByteBuffer decoded = ByteBuffer.allocateDirect(ExportColumnarCodec.decodedLength(columnar, 0));
+            codec.decode(columnar, decoded);
+            assertFalse(columnar.hasRemaining());
+            assertFalse(decoded.hasRemaining());
+            decoded.flip();
+            assertEquals(rows, decoded);
+        }
+    }
+
+    @Test
+    public void testUnparseableRows() throws Exception {
+        final ExportColumnarCodec codec = new ExportColumnarCodec(TYPES);
+        final ByteBuffer rows = rows(100, new Random(0));
+        // Rows serialized with a different schema don't encode
+        final List<Integer> types = new ArrayList<Integer>(TYPES);
+        types.add((int)VoltType.BIGINT.getValue());
+        assertNull(new ExportColumnarCodec(types).encode(rows));
+
+        // Neither do truncated rows
+        rows.limit(rows.limit() - 3);
+        assertNull(codec.encode(rows));
+
+        assertFalse(ExportColumnarCodec.supports(Arrays.asList((int)VoltType.GEOGRAPHY.getValue())));
+    }
+}
@@ -0,0 +1,208 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltdb.EELibraryLoader;
+import org.voltdb.MockVoltDB;
+import org.voltdb.VoltDB;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.utils.VoltFile;
+
+public class TestExportDataSource {
+
+    private static final File TEST_DIR = new File("/tmp/" + System.getProperty("user.name"), "exportdatasource");
+    private static final int BUFFER_SIZE = 1000;
+
+    /**
+     * Holds on to scheduled work so the test decides when an ack interval ends.
+     */
+    private static class SchedulingVoltDB extends MockVoltDB {
+        final List<Runnable> m_work = new ArrayList<Runnable>();
+        final List<Long> m_delays = new ArrayList<Long>();
+
+        @Override
+        public synchronized ScheduledFuture<?> scheduleWork(Runnable work, long initialDelay, long delay,
+                TimeUnit unit) {
+            m_work.add(work);
+            m_delays.add(unit.toMillis(initialDelay));
+            return null;
+        }
+
+        synchronized void runScheduledWork() {
+            for (Runnable work : m_work) {
+                work.run();
+            }
+            m_work.clear();
+        }
+    }
+
+    private SchedulingVoltDB m_mockVoltDB;
+    private ExportDataSource m_source;
+
+    @Before
+    public void setUp() throws Exception {
+        // The overflow is checksummed natively
+        EELibraryLoader.loadExecutionEngineLibrary(true);
+        VoltFile.recursivelyDelete(TEST_DIR);
+        TEST_DIR.mkdirs();
+        m_mockVoltDB = new SchedulingVoltDB();
+        m_mockVoltDB.addTable("T", false);
+        m_mockVoltDB.addColumnToTable("T", "C", VoltType.BIGINT, false, "", VoltType.BIGINT);
+        VoltDB.replaceVoltDBInstanceForTest(m_mockVoltDB);
+
+        m_source = new ExportDataSource(new Runnable() {
+            @Override
+            public void run() {}
+        }, "database", "T", 1, "signature", 0, m_mockVoltDB.getTable("T").getColumns(), null,
+        TEST_DIR.getPath());
+        // A replica would poll again from the last ack it received
+        m_source.setMaster();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_source.closeAndDelete().get();
+        m_mockVoltDB.shutdown(null);
+        VoltFile.recursivelyDelete(TEST_DIR);
+    }
+
+    private void push(int buffers) {
+        for (int ii = 0; ii < buffers; ii++) {
+            m_source.pushExportBuffer(ii * BUFFER_SIZE, ByteBuffer.allocateDirect(8 + BUFFER_SIZE), false, false);
+        }
+    }
+
+    private long[] statistics() throws Exception {
+        // Queued behind everything already submitted to the source's executor
+        m_source.sizeInBytes();
+        return m_source.getStatistics();
+    }
+
+    /*
+     * Poll and discard two buffers, leaving the ack of both to a single flush
+     */
+    private void pollAndDiscardTwo() throws Exception {
+        push(3);
+        final BBContainer first = m_source.poll().get();
+        final BBContainer second = m_source.poll().get();
+        assertEquals(BUFFER_SIZE, first.b().remaining());
+        first.discard();
+        second.discard();
+    }
+
+    @Test
+    public void testAcksCoalescedWithinInterval() throws Exception {
+        pollAndDiscardTwo();
+
+        // One flush for both discards, nothing acked until the interval ends
+        assertEquals(Arrays.asList(Long.getLong("EXPORT_ACK_INTERVAL_MS", 5)), m_mockVoltDB.m_delays);
+        long[] stats = statistics();
+        assertEquals(2, stats[1]);
+        assertEquals(2 * BUFFER_SIZE, stats[2]);
+        assertEquals(0, stats[3]);
+        assertEquals(0, stats[4]);
+
+        m_mockVoltDB.runScheduledWork();
+        stats = statistics();
+        assertEquals(0, stats[1]);
+        assertEquals(0, stats[2]);
+        assertEquals(2, stats[3]);
+        // One ack for the highest USO releases both buffers
+        assertEquals(1, stats[4]);
+        assertEquals(m_source.sizeInBytes(), stats[0]);
+        assertTrue(stats[0] > 0);
+
+        // The next discard starts another interval
+        final BBContainer third = m_source.poll().get();
+        third.discard();
+        assertEquals(2, m_mockVoltDB.m_delays.size());
+        m_mockVoltDB.runScheduledWork();
+        stats = statistics();
+        assertEquals(3, stats[3]);
+        assertEquals(2, stats[4]);
+        assertEquals(0, stats[0]);
+        assertEquals(0, m_source.sizeInBytes());
+    }
+
+    @Test
+    public void testStatsColumns() throws Exception {
+        final ExportStats exportStats = new ExportStats() {
+            @Override
+            List<ExportDataSource> getDataSources() {
+                return Arrays.asList(m_source);
+            }
+        };
+        pollAndDiscardTwo();
+        m_mockVoltDB.runScheduledWork();
+        statistics();
+
+        Object[] row = row(exportStats, false);
+        assertEquals(0L, column(exportStats, row, "GENERATION"));
+        assertEquals("T", column(exportStats, row, "TABLE_NAME"));
+        assertEquals(1, column(exportStats, row, "PARTITION_ID"));
+        assertEquals(m_source.sizeInBytes(), column(exportStats, row, "BACKLOG_BYTES"));
+        assertEquals(0, column(exportStats, row, "IN_FLIGHT_BUFFERS"));
+        assertEquals(0L, column(exportStats, row, "IN_FLIGHT_BYTES"));
+        assertEquals(2L, column(exportStats, row, "BUFFERS_ACKED"));
+        assertEquals(1L, column(exportStats, row, "ACKS_SENT"));
+        final double avg = (Double)column(exportStats, row, "AVG_ACK_LATENCY_MILLIS");
+        final double max = (Double)column(exportStats, row, "MAX_ACK_LATENCY_MILLIS");
+        assertTrue(avg >= 0 && max >= avg);
+
+        // Interval rows count the acks since the previous interval
+        row = row(exportStats, true);
+        assertEquals(2L, column(exportStats, row, "BUFFERS_ACKED"));
+        row = row(exportStats, true);
+        assertEquals(0L, column(exportStats, row, "BUFFERS_ACKED"));
+        assertEquals(0L, column(exportStats, row, "ACKS_SENT"));
+        row = row(exportStats, false);
+        assertEquals(2L, column(exportStats, row, "BUFFERS_ACKED"));
+    }
+
+    private static Object[] row(ExportStats stats, boolean interval) {
+        final Object[][] rows = stats.getStatsRows(interval, System.currentTimeMillis());
+        assertEquals(1, rows.length);
+        return rows[0];
+    }
+
+    private static Object column(ExportStats stats, Object[] row, String name) {
+        final VoltTable table = new VoltTable(stats.getColumnSchema().toArray(new VoltTable.ColumnInfo[0]));
+        return row[table.getColumnIndex(name)];
+    }
+}
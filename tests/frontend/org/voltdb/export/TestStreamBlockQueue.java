@@ -0,0 +1,167 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltdb.EELibraryLoader;
+import org.voltdb.VoltType;
+import org.voltdb.utils.VoltFile;
+
+public class TestStreamBlockQueue {
+
+    private static final File TEST_DIR = new File("/tmp/" + System.getProperty("user.name"), "streamblockqueue");
+    private static final String NONCE = "nonce";
+
+    private static final List<Integer> TYPES =
+            Collections.nCopies(8, (int)VoltType.BIGINT.getValue());
+    private static final int ROWS_PER_BLOCK = 100;
+
+    private StreamBlockQueue m_queue;
+
+    @Before
+    public void setUp() throws Exception {
+        EELibraryLoader.loadExecutionEngineLibrary(true);
+        VoltFile.recursivelyDelete(TEST_DIR);
+        TEST_DIR.mkdirs();
+        m_queue = open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_queue.closeAndDelete();
+        VoltFile.recursivelyDelete(TEST_DIR);
+    }
+
+    private static StreamBlockQueue open() throws Exception {
+        final StreamBlockQueue queue = new StreamBlockQueue(TEST_DIR.getPath(), NONCE);
+        queue.setColumnTypes(TYPES, true);
+        return queue;
+    }
+
+    /*
+     * A block of rows serialized the way the EE does, every column of a row holding the
+     * row's number, so a columnar encoding of it is smaller
+     */
+    private static StreamBlock block(long uso) {
+        final int rowLength = 1 + 8 * TYPES.size();
+        final BBContainer cont = DBBPool.allocateDirect(StreamBlock.HEADER_SIZE + ROWS_PER_BLOCK * (4 + rowLength));
+        final ByteBuffer buf = cont.b().order(ByteOrder.LITTLE_ENDIAN);
+        buf.position(StreamBlock.HEADER_SIZE);
+        for (int row = 0; row < ROWS_PER_BLOCK; row++) {
+            buf.putInt(rowLength);
+            buf.put((byte)0);
+            for (int col = 0; col < TYPES.size(); col++) {
+                buf.putLong(uso + row);
+            }
+        }
+        buf.order(ByteOrder.BIG_ENDIAN);
+        buf.flip();
+        return new StreamBlock(cont, uso, false);
+    }
+
+    private static long blockLength() {
+        return ROWS_PER_BLOCK * (4 + 1 + 8 * TYPES.size());
+    }
+
+    private void offer(int blocks) throws Exception {
+        for (int ii = 0; ii < blocks; ii++) {
+            m_queue.offer(block(ii * blockLength()));
+        }
+    }
+
+    private static void assertBlock(StreamBlock sb, long uso) {
+        assertNotNull(sb);
+        assertEquals(uso, sb.uso());
+        assertEquals(blockLength(), sb.totalUso());
+        final BBContainer rows = sb.unreleasedContainer();
+        try {
+            final ByteBuffer buf = rows.b().order(ByteOrder.LITTLE_ENDIAN);
+            buf.position(4 + 1);
+            assertEquals(uso, buf.getLong());
+        } finally {
+            rows.discard();
+        }
+    }
+
+    @Test
+    public void testColumnarBlockKeptUntilAcked() throws Exception {
+        offer(6);
+        // Start a new segment so the blocks are in a sealed one that can be deleted
+        m_queue.close();
+        m_queue = open();
+
+        for (int ii = 0; ii < 6; ii++) {
+            // Not discarded, the blocks are still being exported
+            assertBlock(m_queue.poll(), ii * blockLength());
+        }
+        assertNull(m_queue.poll());
+
+        // Nothing was acked, a crash now has to find every block again
+        m_queue.close();
+        m_queue = open();
+        for (int ii = 0; ii < 6; ii++) {
+            final StreamBlock sb = m_queue.poll();
+            assertBlock(sb, ii * blockLength());
+            sb.discard();
+        }
+        assertNull(m_queue.poll());
+    }
+
+    @Test
+    public void testReadAheadKeepsUsoOrder() throws Exception {
+        // Two blocks in memory and four in the overflow
+        offer(6);
+        StreamBlock sb = m_queue.poll();
+        assertBlock(sb, 0);
+        sb.discard();
+
+        // One block left in memory, load the next two from the overflow behind it
+        m_queue.readAhead(blockLength(), 3);
+        // The overflow isn't empty, so this goes behind the blocks still in it
+        m_queue.offer(block(6 * blockLength()));
+        // Load everything, then offer with the memory deque full
+        m_queue.readAhead(blockLength(), 10);
+        m_queue.offer(block(7 * blockLength()));
+
+        for (int ii = 1; ii < 8; ii++) {
+            sb = m_queue.poll();
+            assertBlock(sb, ii * blockLength());
+            sb.discard();
+        }
+        assertNull(m_queue.poll());
+    }
+}
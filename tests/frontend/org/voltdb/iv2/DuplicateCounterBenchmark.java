@@ -0,0 +1,151 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.iv2;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.voltdb.iv2.SpScheduler.DuplicateCounterKey;
+import org.voltdb.messaging.Iv2InitiateTaskMessage;
+
+/**
+ * Replays the duplicate counter bookkeeping a k=1 partition leader does for
+ * single partition writes: add a counter when the write is replicated, look
+ * it up for the local response, then look it up and remove it for the
+ * replica's response. A fixed window of writes is outstanding. Compares the
+ * TreeMap keyed by DuplicateCounterKey the scheduler used to keep against
+ * DuplicateCounterMap. Counters are created up front so only the bookkeeping
+ * is measured.
+ *
+ * Usage: DuplicateCounterBenchmark [seconds] [outstanding]
+ */
+public class DuplicateCounterBenchmark {
+
+    interface Bookkeeping {
+        void add(long txnId, long spHandle, DuplicateCounter counter);
+        DuplicateCounter get(long txnId, long spHandle);
+        DuplicateCounter remove(long txnId, long spHandle);
+    }
+
+    static class TreeMapBookkeeping implements Bookkeeping {
+        final Map<DuplicateCounterKey, DuplicateCounter> m_counters =
+            new TreeMap<DuplicateCounterKey, DuplicateCounter>();
+
+        @Override
+        public void add(long txnId, long spHandle, DuplicateCounter counter) {
+            DuplicateCounterKey key = new DuplicateCounterKey(txnId, spHandle);
+            if (m_counters.get(key) == null) {
+                m_counters.put(key, counter);
+            }
+        }
+
+        @Override
+        public DuplicateCounter get(long txnId, long spHandle) {
+            return m_counters.get(new DuplicateCounterKey(txnId, spHandle));
+        }
+
+        @Override
+        public DuplicateCounter remove(long txnId, long spHandle) {
+            return m_counters.remove(new DuplicateCounterKey(txnId, spHandle));
+        }
+    }
+
+    static class MapBookkeeping implements Bookkeeping {
+        final DuplicateCounterMap m_counters = new DuplicateCounterMap();
+
+        @Override
+        public void add(long txnId, long spHandle, DuplicateCounter counter) {
+            if (m_counters.get(txnId, spHandle) == null) {
+                m_counters.put(spHandle, counter);
+            }
+        }
+
+        @Override
+        public DuplicateCounter get(long txnId, long spHandle) {
+            return m_counters.get(txnId, spHandle);
+        }
+
+        @Override
+        public DuplicateCounter remove(long txnId, long spHandle) {
+            return m_counters.remove(txnId, spHandle);
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long run(Bookkeeping bookkeeping, DuplicateCounter[] counters, long deadline) {
+        final int window = counters.length;
+        final long[] spHandles = new long[window];
+        // Same as calling TxnEgo.makeNext() without allocating an ego per write
+        final long first = TxnEgo.makeZero(0).getTxnId();
+        long txns = 0;
+        while ((txns & 1023) != 0 || System.nanoTime() < deadline) {
+            final int slot = (int)(txns % window);
+            if (txns >= window) {
+                // Responses for the oldest outstanding write
+                final long oldest = spHandles[slot];
+                if (bookkeeping.get(Iv2InitiateTaskMessage.UNUSED_MP_TXNID, oldest) == null ||
+                        bookkeeping.get(Iv2InitiateTaskMessage.UNUSED_MP_TXNID, oldest) == null ||
+                        bookkeeping.remove(Iv2InitiateTaskMessage.UNUSED_MP_TXNID, oldest) == null) {
+                    throw new AssertionError("Lost counter for " + TxnEgo.txnIdToString(oldest));
+                }
+            }
+            spHandles[slot] = first + ((txns + 1) << TxnEgo.PARTITIONID_BITS);
+            bookkeeping.add(Iv2InitiateTaskMessage.UNUSED_MP_TXNID, spHandles[slot], counters[slot]);
+            txns++;
+        }
+        return txns;
+    }
+
+    public static void main(String[] args) {
+        final int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        final int outstanding = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        final DuplicateCounter[] counters = new DuplicateCounter[outstanding];
+        for (int ii = 0; ii < outstanding; ii++) {
+            counters[ii] = new DuplicateCounter(0, Iv2InitiateTaskMessage.UNUSED_MP_TXNID,
+                    new ArrayList<Long>(), null);
+        }
+        for (int round = 0; round < 2; round++) {
+            // The first round is warm up
+            for (Bookkeeping bookkeeping : new Bookkeeping[] { new TreeMapBookkeeping(), new MapBookkeeping() }) {
+                final long startBytes = allocatedBytes();
+                final long start = System.nanoTime();
+                final long txns = run(bookkeeping, counters, start + TimeUnit.SECONDS.toNanos(seconds));
+                final long elapsed = System.nanoTime() - start;
+                final long bytes = allocatedBytes() - startBytes;
+                if (round > 0) {
+                    System.out.printf("%-20s txns/sec=%.0f bytes allocated/txn=%.1f%n",
+                            bookkeeping.getClass().getSimpleName(), txns / (elapsed / 1e9), bytes / (double)txns);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.iv2;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltcore.utils.CoreUtils;
+import org.voltdb.StarvationTracker;
+
+/**
+ * Measures offer/take throughput of SiteTaskerQueue with a single site thread
+ * draining it and 1, 4 and 16 producer threads, next to the LinkedTransferQueue
+ * it replaced. Producers offer the same task instance over and over so the
+ * bytes allocated per task are the queue's own.
+ *
+ * Usage: SiteTaskerQueueBenchmark [seconds] [producer counts...]
+ */
+public class SiteTaskerQueueBenchmark {
+
+    private static final SiteTasker TASK = new SiteTasker.SiteTaskerRunnable() {
+        @Override
+        void run() {}
+    };
+
+    private static final long MAX_QUEUED = 64 * 1024;
+
+    interface Queue {
+        void offer(SiteTasker task);
+        // Returns the number of tasks consumed
+        int consume(SiteTasker[] batch) throws InterruptedException;
+    }
+
+    static Queue siteTaskerQueue() {
+        final SiteTaskerQueue queue = new SiteTaskerQueue();
+        queue.setStarvationTracker(new StarvationTracker(0));
+        return new Queue() {
+            @Override
+            public void offer(SiteTasker task) {
+                queue.offer(task);
+            }
+
+            @Override
+            public int consume(SiteTasker[] batch) throws InterruptedException {
+                final int count = queue.drainTo(batch);
+                if (count > 0) {
+                    return count;
+                }
+                batch[0] = queue.take();
+                return 1;
+            }
+        };
+    }
+
+    static Queue linkedTransferQueue() {
+        final LinkedTransferQueue<SiteTasker> queue = new LinkedTransferQueue<SiteTasker>();
+        return new Queue() {
+            @Override
+            public void offer(SiteTasker task) {
+                queue.offer(task);
+            }
+
+            @Override
+            public int consume(SiteTasker[] batch) throws InterruptedException {
+                batch[0] = CoreUtils.queueSpinTake(queue);
+                return 1;
+            }
+        };
+    }
+
+    private static long allocatedBytes(Thread[] threads) {
+        final com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (Thread t : threads) {
+            total += Math.max(0, bean.getThreadAllocatedBytes(t.getId()));
+        }
+        return total;
+    }
+
+    private static void run(String name, final Queue queue, int producerCount, int seconds) throws Exception {
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        final AtomicLong offered = new AtomicLong();
+        final AtomicLong consumed = new AtomicLong();
+        final Thread[] threads = new Thread[producerCount];
+        for (int ii = 0; ii < producerCount; ii++) {
+            threads[ii] = new Thread("Producer " + ii) {
+                @Override
+                public void run() {
+                    while (!stop.get()) {
+                        // Keep the producers from running arbitrarily far ahead of the site
+                        if (offered.get() - consumed.get() > MAX_QUEUED) {
+                            Thread.yield();
+                            continue;
+                        }
+                        for (int jj = 0; jj < 100; jj++) {
+                            queue.offer(TASK);
+                        }
+                        offered.addAndGet(100);
+                    }
+                }
+            };
+        }
+
+        final SiteTasker[] batch = new SiteTasker[64];
+        final long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        for (Thread t : threads) {
+            t.start();
+        }
+        while (System.nanoTime() < warmupEnd) {
+            consumed.addAndGet(queue.consume(batch));
+        }
+
+        final Thread[] all = new Thread[producerCount + 1];
+        System.arraycopy(threads, 0, all, 0, producerCount);
+        all[producerCount] = Thread.currentThread();
+        final long startBytes = allocatedBytes(all);
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long taken = 0;
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            final int count = queue.consume(batch);
+            consumed.addAndGet(count);
+            taken += count;
+        }
+        final long bytes = allocatedBytes(all) - startBytes;
+        stop.set(true);
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        System.out.printf("%-22s %10d %16.0f %16.1f%n", name, producerCount,
+                taken / ((now - start) / 1e9), bytes / (double)taken);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int[] producers = new int[] { 1, 4, 16 };
+        if (args.length > 1) {
+            producers = new int[args.length - 1];
+            for (int ii = 1; ii < args.length; ii++) {
+                producers[ii - 1] = Integer.parseInt(args[ii]);
+            }
+        }
+
+        System.out.printf("%-22s %10s %16s %16s%n", "queue", "producers", "tasks/sec", "bytes/task");
+        for (int count : producers) {
+            run("SiteTaskerQueue", siteTaskerQueue(), count, seconds);
+            run("LinkedTransferQueue", linkedTransferQueue(), count, seconds);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.iv2;
+
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.voltcore.messaging.VoltMessage;
+
+public class TestDuplicateCounterMap extends TestCase
+{
+    private static final VoltMessage s_message = mock(VoltMessage.class);
+
+    private static DuplicateCounter counter(long txnId)
+    {
+        return new DuplicateCounter(0, txnId, new ArrayList<Long>(), s_message);
+    }
+
+    public void testSharedSpHandle()
+    {
+        DuplicateCounterMap map = new DuplicateCounterMap();
+        // An SP still waiting on replicas and a completion that took its spHandle
+        DuplicateCounter sp = counter(-1);
+        DuplicateCounter complete = counter(100);
+        DuplicateCounter other = counter(200);
+        map.put(5, sp);
+        map.put(5, complete);
+        map.put(5, other);
+        map.put(6, counter(100));
+        assertEquals(4, map.size());
+        assertSame(sp, map.get(-1, 5));
+        assertSame(complete, map.get(100, 5));
+        assertSame(other, map.get(200, 5));
+        assertNull(map.get(300, 5));
+        assertNull(map.get(-1, 6));
+
+        // Remove from the middle, head and tail of the chain
+        assertSame(complete, map.remove(100, 5));
+        assertNull(map.remove(100, 5));
+        assertSame(sp, map.get(-1, 5));
+        assertSame(other, map.remove(200, 5));
+        assertSame(sp, map.remove(-1, 5));
+        assertNull(map.get(-1, 5));
+        assertEquals(1, map.size());
+    }
+
+    public void testAgainstKeyedMap()
+    {
+        Random r = new Random(7);
+        DuplicateCounterMap map = new DuplicateCounterMap();
+        Map<List<Long>, DuplicateCounter> reference = new HashMap<List<Long>, DuplicateCounter>();
+        for (int ii = 0; ii < 100000; ii++) {
+            final long txnId = r.nextInt(4);
+            final long spHandle = r.nextInt(64);
+            final List<Long> key = Arrays.asList(txnId, spHandle);
+            if (r.nextBoolean()) {
+                if (!reference.containsKey(key)) {
+                    DuplicateCounter counter = counter(txnId);
+                    reference.put(key, counter);
+                    map.put(spHandle, counter);
+                }
+            }
+            else {
+                assertSame(reference.remove(key), map.remove(txnId, spHandle));
+            }
+            assertEquals(reference.size(), map.size());
+        }
+        final Map<List<Long>, DuplicateCounter> visited = new HashMap<List<Long>, DuplicateCounter>();
+        map.forEach(new DuplicateCounterMap.Visitor() {
+            @Override
+            public void visit(long txnId, long spHandle, DuplicateCounter counter) {
+                assertNull(visited.put(Arrays.asList(txnId, spHandle), counter));
+            }
+        });
+        assertEquals(reference, visited);
+    }
+}
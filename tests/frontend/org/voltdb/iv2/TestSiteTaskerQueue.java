@@ -0,0 +1,177 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.iv2;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.voltdb.StarvationTracker;
+
+public class TestSiteTaskerQueue extends TestCase
+{
+    static class Numbered extends SiteTasker.SiteTaskerRunnable {
+        final int m_producer;
+        final int m_seq;
+
+        Numbered(int producer, int seq) {
+            m_producer = producer;
+            m_seq = seq;
+        }
+
+        @Override
+        void run() {}
+    }
+
+    private static SiteTaskerQueue getSiteTaskerQueue() {
+        // No spinning so take() parks right away
+        SiteTaskerQueue queue = new SiteTaskerQueue(0, 0);
+        queue.setStarvationTracker(new StarvationTracker(0));
+        return queue;
+    }
+
+    public void testOrderAcrossChunks() {
+        SiteTaskerQueue queue = getSiteTaskerQueue();
+        assertTrue(queue.isEmpty());
+        final int count = SiteTaskerQueue.CHUNK_SIZE * 3 + 5;
+        for (int ii = 0; ii < count; ii++) {
+            queue.offer(new Numbered(0, ii));
+        }
+        for (int ii = 0; ii < count; ii++) {
+            assertFalse(queue.isEmpty());
+            assertEquals(ii, ((Numbered)queue.peek()).m_seq);
+            assertEquals(ii, ((Numbered)queue.poll()).m_seq);
+        }
+        assertTrue(queue.isEmpty());
+        assertNull(queue.peek());
+        assertNull(queue.poll());
+    }
+
+    public void testDrainTo() {
+        SiteTaskerQueue queue = getSiteTaskerQueue();
+        SiteTasker[] batch = new SiteTasker[4];
+        assertEquals(0, queue.drainTo(batch));
+        for (int ii = 0; ii < 10; ii++) {
+            queue.offer(new Numbered(0, ii));
+        }
+        int seq = 0;
+        int drained;
+        while ((drained = queue.drainTo(batch)) > 0) {
+            assertTrue(drained == 4 || seq == 8);
+            for (int ii = 0; ii < drained; ii++) {
+                assertEquals(seq++, ((Numbered)batch[ii]).m_seq);
+            }
+        }
+        assertEquals(10, seq);
+        assertTrue(queue.isEmpty());
+    }
+
+    public void testManyProducers() throws Exception {
+        final SiteTaskerQueue queue = getSiteTaskerQueue();
+        final int producers = 4;
+        final int perProducer = 100000;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread() {
+                @Override
+                public void run() {
+                    for (int ii = 0; ii < perProducer; ii++) {
+                        queue.offer(new Numbered(producer, ii));
+                    }
+                }
+            };
+            threads[p].start();
+        }
+
+        // Each producer's tasks come out in the order they were offered
+        int[] next = new int[producers];
+        SiteTasker[] batch = new SiteTasker[64];
+        int received = 0;
+        while (received < producers * perProducer) {
+            int drained = queue.drainTo(batch);
+            if (drained == 0) {
+                batch[0] = queue.take();
+                drained = 1;
+            }
+            for (int ii = 0; ii < drained; ii++) {
+                Numbered task = (Numbered)batch[ii];
+                assertEquals(next[task.m_producer]++, task.m_seq);
+            }
+            received += drained;
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    public void testTakeWakesUp() throws Exception {
+        final SiteTaskerQueue queue = getSiteTaskerQueue();
+        final AtomicReference<SiteTasker> taken = new AtomicReference<SiteTasker>();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread site = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    taken.set(queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                done.countDown();
+            }
+        };
+        site.start();
+        // Let the site park
+        Thread.sleep(50);
+        assertEquals(1, done.getCount());
+        Numbered task = new Numbered(0, 0);
+        queue.offer(task);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertSame(task, taken.get());
+        site.join();
+    }
+
+    public void testTakeInterrupted() throws Exception {
+        final SiteTaskerQueue queue = getSiteTaskerQueue();
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        Thread site = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    queue.take();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        };
+        site.start();
+        Thread.sleep(50);
+        site.interrupt();
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+        site.join();
+    }
+}
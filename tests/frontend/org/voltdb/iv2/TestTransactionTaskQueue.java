@@ -27,7 +27,14 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.TestCase;
 
@@ -196,4 +203,208 @@ public class TestTransactionTaskQueue extends TestCase
             assertEquals(expected.getTxnId(), next_poll.getTxnId());
         }
     }
+
+    /*
+     * A multi-part transaction in the stress test. All of its tasks are created
+     * up front by the producer, the last site to run its first fragment offers
+     * the follow on fragments and completions to every involved partition.
+     */
+    private static class StressMp {
+        final int[] m_partitions;
+        final TransactionTask[] m_firsts;
+        final TransactionTask[] m_followOns;
+        final TransactionTask[] m_completes;
+        final AtomicInteger m_pending;
+
+        StressMp(int[] partitions) {
+            m_partitions = partitions;
+            m_firsts = new TransactionTask[partitions.length];
+            m_followOns = new TransactionTask[partitions.length];
+            m_completes = new TransactionTask[partitions.length];
+            m_pending = new AtomicInteger(partitions.length);
+        }
+
+        boolean isFirst(TransactionTask task) {
+            for (TransactionTask first : m_firsts) {
+                if (first == task) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    @Test
+    public void testInterleavedSpMpStress() throws Exception
+    {
+        final int partitions = 4;
+        final int txns = 5000;
+        final Random r = new Random(1234);
+        final SiteTaskerQueue[] siteQueues = new SiteTaskerQueue[partitions];
+        final TransactionTaskQueue[] duts = new TransactionTaskQueue[partitions];
+        // Stands in for the scheduler's mailbox lock that serializes offers
+        final Object[] offerLocks = new Object[partitions];
+        final TransactionTask[] stops = new TransactionTask[partitions];
+        final long[] spHandles = new long[partitions];
+        final List<List<TransactionTask>> expected = new ArrayList<List<TransactionTask>>();
+        final List<List<TransactionTask>> executed = new ArrayList<List<TransactionTask>>();
+        final int[] expectedCount = new int[partitions];
+        final ConcurrentHashMap<Long, StressMp> mps = new ConcurrentHashMap<Long, StressMp>();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        for (int p = 0; p < partitions; p++) {
+            siteQueues[p] = getSiteTaskerQueue();
+            duts[p] = new TransactionTaskQueue(siteQueues[p], 0);
+            offerLocks[p] = new Object();
+            stops[p] = createSpProc(Long.MAX_VALUE, duts[p]);
+            expected.add(new ArrayList<TransactionTask>());
+            executed.add(new ArrayList<TransactionTask>());
+        }
+
+        Thread[] sites = new Thread[partitions];
+        for (int p = 0; p < partitions; p++) {
+            final int partition = p;
+            sites[p] = new Thread("Site " + p) {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            TransactionTask task = (TransactionTask)siteQueues[partition].take();
+                            if (task == stops[partition]) {
+                                return;
+                            }
+                            executed.get(partition).add(task);
+                            if (task instanceof CompleteTransactionTask) {
+                                task.getTransactionState().setDone();
+                                duts[partition].flush(task.getTxnId());
+                                continue;
+                            }
+                            StressMp mp = mps.get(task.getTxnId());
+                            if (mp != null && mp.isFirst(task) && mp.m_pending.decrementAndGet() == 0) {
+                                for (int ii = 0; ii < mp.m_partitions.length; ii++) {
+                                    final int q = mp.m_partitions[ii];
+                                    synchronized (offerLocks[q]) {
+                                        duts[q].offer(mp.m_followOns[ii]);
+                                        duts[q].offer(mp.m_completes[ii]);
+                                    }
+                                }
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            sites[p].start();
+        }
+
+        long mpTxnId = 1;
+        for (int ii = 0; ii < txns; ii++) {
+            final int kind = r.nextInt(10);
+            if (kind < 6) {
+                // Single partition
+                final int p = r.nextInt(partitions);
+                TransactionTask task = createSpProc(++spHandles[p], duts[p]);
+                expected.get(p).add(task);
+                expectedCount[p]++;
+                synchronized (offerLocks[p]) {
+                    duts[p].offer(task);
+                }
+            }
+            else if (kind < 8) {
+                // Every partition, a single part on each partition
+                for (int p = 0; p < partitions; p++) {
+                    TransactionTask task = createSpProc(++spHandles[p], duts[p]);
+                    expected.get(p).add(task);
+                    expectedCount[p]++;
+                    synchronized (offerLocks[p]) {
+                        duts[p].offer(task);
+                    }
+                }
+            }
+            else {
+                // Multi-part on a random subset of at least two partitions
+                final List<Integer> involved = new ArrayList<Integer>();
+                for (int p = 0; p < partitions; p++) {
+                    if (r.nextBoolean()) {
+                        involved.add(p);
+                    }
+                }
+                while (involved.size() < 2) {
+                    final int p = r.nextInt(partitions);
+                    if (!involved.contains(p)) {
+                        involved.add(p);
+                    }
+                }
+                final int[] parts = new int[involved.size()];
+                for (int jj = 0; jj < parts.length; jj++) {
+                    parts[jj] = involved.get(jj);
+                }
+                java.util.Arrays.sort(parts);
+                final long txnId = mpTxnId++;
+                final StressMp mp = new StressMp(parts);
+                final TransactionTask[] firsts = mp.m_firsts;
+                for (int jj = 0; jj < parts.length; jj++) {
+                    final int p = parts[jj];
+                    firsts[jj] = createFrag(++spHandles[p], txnId, duts[p]);
+                    mp.m_followOns[jj] = createFrag(firsts[jj].getTransactionState(), txnId, duts[p]);
+                    mp.m_completes[jj] = createComplete(firsts[jj].getTransactionState(), txnId, duts[p]);
+                    expected.get(p).add(firsts[jj]);
+                    expectedCount[p] += 3;
+                }
+                mps.put(txnId, mp);
+                for (int jj = 0; jj < parts.length; jj++) {
+                    synchronized (offerLocks[parts[jj]]) {
+                        duts[parts[jj]].offer(firsts[jj]);
+                    }
+                }
+            }
+        }
+        for (int p = 0; p < partitions; p++) {
+            synchronized (offerLocks[p]) {
+                duts[p].offer(stops[p]);
+            }
+        }
+        for (Thread site : sites) {
+            site.join(TimeUnit.MINUTES.toMillis(2));
+            assertFalse("Site is stuck", site.isAlive());
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        for (int p = 0; p < partitions; p++) {
+            final List<TransactionTask> log = executed.get(p);
+            assertEquals(expectedCount[p], log.size());
+            assertEquals(0, duts[p].size());
+            // Single parts and multi-parts start in the order they were offered
+            final List<TransactionTask> starts = new ArrayList<TransactionTask>();
+            for (int ii = 0; ii < log.size(); ii++) {
+                final TransactionTask task = log.get(ii);
+                final StressMp mp = mps.get(task.getTxnId());
+                if (mp != null && !mp.isFirst(task)) {
+                    continue;
+                }
+                starts.add(task);
+            }
+            assertEquals(expected.get(p).size(), starts.size());
+            for (int ii = 0; ii < starts.size(); ii++) {
+                assertSame(expected.get(p).get(ii), starts.get(ii));
+            }
+            // Nothing else runs while a multi-part is in progress on the partition
+            long inProgress = Long.MIN_VALUE;
+            for (int ii = 0; ii < log.size(); ii++) {
+                final TransactionTask task = log.get(ii);
+                if (inProgress != Long.MIN_VALUE) {
+                    assertEquals(inProgress, task.getTxnId());
+                    if (task instanceof CompleteTransactionTask) {
+                        inProgress = Long.MIN_VALUE;
+                    }
+                }
+                else if (task instanceof FragmentTask) {
+                    inProgress = task.getTxnId();
+                }
+            }
+        }
+    }
 }
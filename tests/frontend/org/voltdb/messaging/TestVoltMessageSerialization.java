@@ -108,6 +108,31 @@ public class TestVoltMessageSerialization extends TestCase {
         assertTrue(itask.isForReplay());
     }
 
+    public void testInvocationDetachedFromReadBuffer() throws IOException {
+        StoredProcedureInvocation spi = new StoredProcedureInvocation();
+        spi.setClientHandle(25);
+        spi.setProcName("johnisgreat");
+        spi.setParams(57, "gooniestoo", "dudemandude");
+
+        // Stands in for a slice of a network read buffer
+        ByteBuffer readBuffer = ByteBuffer.allocateDirect(spi.getSerializedSize());
+        spi.flattenToBuffer(readBuffer);
+        readBuffer.flip();
+
+        StoredProcedureInvocation spi2 = new StoredProcedureInvocation();
+        spi2.initFromBuffer(readBuffer.duplicate());
+        spi2.detachSerializedParams();
+        assertTrue(spi2.getSerializedParams().hasArray());
+
+        // The read buffer is reused
+        while (readBuffer.hasRemaining()) {
+            readBuffer.put((byte)0);
+        }
+        assertEquals("johnisgreat", spi2.getProcName());
+        assertEquals(25, spi2.getClientHandle());
+        assertEquals("dudemandude", spi2.getParams().toArray()[2]);
+    }
+
     public void testInitiateResponse() throws IOException {
         StoredProcedureInvocation spi = new StoredProcedureInvocation();
         spi.setClientHandle(25);
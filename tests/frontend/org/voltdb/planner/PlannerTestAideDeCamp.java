@@ -60,6 +60,7 @@ public class PlannerTestAideDeCamp {
     int compileCounter = 0;
 
     private CompiledPlan m_currentPlan = null;
+    private DatabaseEstimates m_estimates = new DatabaseEstimates();
 
     /**
      * Loads the schema at ddlurl and setups a voltcompiler / hsql instance.
@@ -85,6 +86,13 @@ public class PlannerTestAideDeCamp {
         return db;
     }
 
+    /**
+     * Plan subsequent statements against gathered table statistics.
+     */
+    public void setEstimates(DatabaseEstimates estimates) {
+        m_estimates = estimates;
+    }
+
     /**
      * Compile a statement and return the head of the plan.
      * @param sql
@@ -134,8 +142,8 @@ public class PlannerTestAideDeCamp {
         // name will look like "basename-stmt-#"
         String name = catalogStmt.getParent().getTypeName() + "-" + catalogStmt.getTypeName();
 
-        DatabaseEstimates estimates = new DatabaseEstimates();
-        TrivialCostModel costModel = new TrivialCostModel();
+        DatabaseEstimates estimates = m_estimates;
+        AbstractCostModel costModel = StatisticsCostModel.forEstimates(estimates);
         StatementPartitioning partitioning;
         if (inferPartitioning) {
             partitioning = StatementPartitioning.inferPartitioning();
@@ -39,11 +39,17 @@ import junit.framework.TestCase;
 import org.apache.commons.lang3.StringUtils;
 import org.json_voltpatches.JSONException;
 import org.voltdb.catalog.Database;
+import org.voltdb.compiler.DatabaseEstimates;
 import org.voltdb.compiler.DeterminismMode;
 import org.voltdb.expressions.AbstractExpression;
+import org.voltdb.expressions.ComparisonExpression;
+import org.voltdb.expressions.ExpressionUtil;
 import org.voltdb.expressions.TupleValueExpression;
+import org.voltdb.plannodes.AbstractJoinPlanNode;
 import org.voltdb.plannodes.AbstractPlanNode;
+import org.voltdb.plannodes.HashJoinPlanNode;
 import org.voltdb.plannodes.OrderByPlanNode;
+import org.voltdb.types.ExpressionType;
 import org.voltdb.types.PlanNodeType;
 import org.voltdb.types.SortDirectionType;
 
@@ -261,6 +267,30 @@ public class PlannerTestCase extends TestCase {
         return aggNodes;
     }
 
+    /**
+     *  Get the condition a join node applies to each pair of rows it joins. For a hash join that
+     *  is the equality of each pair of hash keys, followed by its join predicate if it has one.
+     * @param joinNode     A join plan node
+     * @return the join condition or null if there is none
+     */
+    protected static AbstractExpression getJoinCondition(AbstractPlanNode joinNode) {
+        AbstractExpression predicate = ((AbstractJoinPlanNode) joinNode).getJoinPredicate();
+        if ( ! (joinNode instanceof HashJoinPlanNode)) {
+            return predicate;
+        }
+        HashJoinPlanNode hjNode = (HashJoinPlanNode) joinNode;
+        List<AbstractExpression> clauses = new ArrayList<AbstractExpression>();
+        for (int ii = 0; ii < hjNode.getOuterHashExpressions().size(); ii++) {
+            clauses.add(new ComparisonExpression(ExpressionType.COMPARE_EQUAL,
+                                                 hjNode.getOuterHashExpressions().get(ii),
+                                                 hjNode.getInnerHashExpressions().get(ii)));
+        }
+        if (predicate != null) {
+            clauses.add(predicate);
+        }
+        return ExpressionUtil.combinePredicates(clauses);
+    }
+
 
     protected void setupSchema(URL ddlURL, String basename,
                                boolean planForSinglePartition) throws Exception {
@@ -274,6 +304,10 @@ public class PlannerTestCase extends TestCase {
         m_aide = new PlannerTestAideDeCamp(ddlURL, basename);
     }
 
+    protected void setupStatistics(String json) throws Exception {
+        m_aide.setEstimates(DatabaseEstimates.fromJSONString(json));
+    }
+
     public String getCatalogString() {
         return m_aide.getCatalogString();
     }
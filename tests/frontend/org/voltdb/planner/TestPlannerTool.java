@@ -25,10 +25,17 @@ package org.voltdb.planner;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.voltdb.CatalogContext;
 import org.voltdb.benchmark.tpcc.TPCCProjectBuilder;
 import org.voltdb.catalog.Catalog;
+import org.voltdb.compiler.AdHocCompilerCache;
 import org.voltdb.compiler.AdHocPlannedStatement;
 import org.voltdb.compiler.PlannerTool;
 import org.voltdb.compiler.VoltProjectBuilder;
@@ -43,6 +50,7 @@ import junit.framework.TestCase;
 public class TestPlannerTool extends TestCase {
 
     PlannerTool m_pt = null;
+    byte[] m_catalogHash = null;
 
     public void testSimple() throws IOException {
         TPCCProjectBuilder builder = new TPCCProjectBuilder();
@@ -168,4 +176,101 @@ public class TestPlannerTool extends TestCase {
         // would return a Stream Closed error
         m_pt.planSqlForTest("select * from A;");
     }
+
+    /**
+     * Plan with a catalog of two integer columns that are only ever compared to literals.
+     */
+    private PlannerTool plannerForPairs() throws IOException {
+        VoltProjectBuilder builder = new VoltProjectBuilder();
+        builder.addLiteralSchema("CREATE TABLE P (A INTEGER NOT NULL, B INTEGER NOT NULL, C VARCHAR(10));");
+
+        final File jar = new File("testpairs-oop.jar");
+        jar.deleteOnExit();
+        builder.compile("testpairs-oop.jar");
+        byte[] bytes = MiscUtils.fileToBytes(jar);
+        String serializedCatalog = CatalogUtil.getSerializedCatalogStringFromJar(CatalogUtil.loadAndUpgradeCatalogFromJar(bytes).getFirst());
+        Catalog c = new Catalog();
+        c.execute(serializedCatalog);
+        Supplier<ClusterSettings> settings = ClusterSettings.create().asSupplier();
+        CatalogContext context = new CatalogContext(0, 0, c, settings, bytes, null, new byte[] {}, 0);
+
+        // Plans cached by an earlier test with the same catalog would hide the planning
+        AdHocCompilerCache.clearHashCache();
+        m_catalogHash = context.getCatalogHash();
+        return new PlannerTool(context.cluster, context.database, m_catalogHash);
+    }
+
+    private static void assertParams(AdHocPlannedStatement plan, long... expected) {
+        Object[] params = plan.extractedParamArray();
+        assertEquals(expected.length, params.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], ((Number) params[i]).longValue());
+        }
+    }
+
+    public void testLexedLiteralsBindInOrder() throws Exception {
+        m_pt = plannerForPairs();
+        AdHocPlannedStatement planned = m_pt.planSqlForTest("select * from P where A = 1 and B = 2;");
+        assertParams(planned, 1, 2);
+
+        // Same text apart from the literals, found by the lexer without parsing,
+        // the values have to follow their positions rather than the cached ones
+        AdHocPlannedStatement swapped = m_pt.planSqlForTest("select * from P where A = 2 and B = 1;");
+        assertSame(planned.core, swapped.core);
+        assertParams(swapped, 2, 1);
+
+        AdHocPlannedStatement other = m_pt.planSqlForTest("select * from P where A = 7 and B = 3;");
+        assertSame(planned.core, other.core);
+        assertParams(other, 7, 3);
+
+        // Repeated literals are ambiguous to the lexer's mapping but still bind correctly
+        AdHocPlannedStatement repeated = m_pt.planSqlForTest("select * from P where A = 4 and B = 4;");
+        assertParams(repeated, 4, 4);
+    }
+
+    public void testConcurrentPlanning() throws Exception {
+        m_pt = plannerForPairs();
+        final String[] shapes = new String[] {
+                "select * from P where A = %d and B = %d;",
+                "select C from P where A > %d and B < %d;",
+                "select count(*) from P where A = %d or B = %d;",
+                "delete from P where A = %d and B = %d;" };
+        final int threads = 8;
+        final int statementsPerThread = 200;
+
+        // Every planner thread borrows its own HSQL session and shares the cache,
+        // the literals of each statement must come back bound to its own plan
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                results.add(es.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        for (int i = 0; i < statementsPerThread; i++) {
+                            long first = thread * 10000 + i;
+                            long second = first + 5000;
+                            String sql = String.format(shapes[i % shapes.length], first, second);
+                            assertParams(m_pt.planSqlForTest(sql), first, second);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> result : results) {
+                result.get();
+            }
+        }
+        finally {
+            es.shutdownNow();
+        }
+
+        // One core plan per shape, shared by all the threads, and the literal cache
+        // holds ceil(1000 / 16) statements in each of its 16 default segments
+        AdHocCompilerCache cache = AdHocCompilerCache.getCacheForCatalogHash(m_catalogHash);
+        assertEquals(shapes.length, cache.getCoreCacheSize());
+        assertTrue(cache.getLiteralCacheSize() > 0);
+        assertTrue(cache.getLiteralCacheSize() <= 16 * ((1000 + 15) / 16));
+    }
 }
@@ -0,0 +1,168 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.planner;
+
+import java.util.List;
+
+import org.json_voltpatches.JSONObject;
+import org.voltdb.expressions.TupleValueExpression;
+import org.voltdb.plannodes.AbstractPlanNode;
+import org.voltdb.plannodes.AbstractScanPlanNode;
+import org.voltdb.plannodes.HashJoinPlanNode;
+import org.voltdb.plannodes.NestLoopIndexPlanNode;
+import org.voltdb.plannodes.NestLoopPlanNode;
+import org.voltdb.plannodes.PlanNodeTree;
+import org.voltdb.types.JoinType;
+import org.voltdb.types.PlanNodeType;
+
+public class TestPlansHashJoin extends PlannerTestCase {
+
+    private static final String STATISTICS =
+            "{\"tables\":{" +
+            "\"R1\":{\"tupleCount\":100000,\"columns\":{" +
+                "\"ID\":{\"distinctValues\":100000,\"histogram\":[1,25000,50000,75000,100000]}," +
+                "\"A\":{\"distinctValues\":1000,\"histogram\":[1,250,500,750,1000]}}}," +
+            "\"R2\":{\"tupleCount\":10000,\"columns\":{" +
+                "\"ID\":{\"distinctValues\":10000,\"histogram\":[1,2500,5000,7500,10000]}," +
+                "\"A\":{\"distinctValues\":1000,\"histogram\":[1,250,500,750,1000]}}}," +
+            "\"R3\":{\"tupleCount\":10000,\"columns\":{" +
+                "\"ID\":{\"distinctValues\":10000,\"histogram\":[1,2500,5000,7500,10000]}," +
+                "\"A\":{\"distinctValues\":1000,\"histogram\":[1,250,500,750,1000]}}}" +
+            "}}";
+
+    private static String columnOf(List<? extends Object> exprs, int ii) {
+        return ((TupleValueExpression)exprs.get(ii)).getColumnName();
+    }
+
+    private static String tableOf(AbstractPlanNode pn) {
+        return ((AbstractScanPlanNode)pn).getTargetTableName();
+    }
+
+    public void testNoStatistics() throws Exception {
+        // An unindexed equi-join hashes its inner table rather than rescanning it
+        AbstractPlanNode pn = compile("select * from R1, R2 where R1.A = R2.A");
+        assertTrue(pn.getChild(0).getChild(0) instanceof HashJoinPlanNode);
+
+        // An index lookup still beats it
+        pn = compile("select * from R1, R3 where R1.A = R3.A");
+        assertFalse(pn.hasAnyNodeOfType(PlanNodeType.HASHJOIN));
+        assertTrue(pn.hasAnyNodeOfType(PlanNodeType.NESTLOOPINDEX));
+
+        // Nothing to hash on
+        pn = compile("select * from R1, R2 where R1.A > R2.A");
+        assertTrue(pn.getChild(0).getChild(0) instanceof NestLoopPlanNode);
+    }
+
+    public void testSubquery() throws Exception {
+        AbstractPlanNode pn = compile("select * from R1, (select A, count(*) C from R2 group by A) T " +
+                                      "where R1.A = T.A");
+        pn = pn.getChild(0).getChild(0);
+        assertTrue(pn instanceof HashJoinPlanNode);
+        // Whichever side the sub-query is on, its plan is attached to the scan of it
+        AbstractPlanNode scan = tableOf(pn.getChild(0)).equals("T") ? pn.getChild(0) : pn.getChild(1);
+        assertEquals("T", tableOf(scan));
+        assertEquals(1, scan.getChildCount());
+        assertTrue(scan.getChild(0).hasAnyNodeOfType(PlanNodeType.HASHAGGREGATE));
+
+        setupStatistics(STATISTICS);
+        pn = compile("select * from R1, (select A, count(*) C from R2 group by A) T " +
+                     "where R1.A = T.A and R1.ID > T.C");
+        pn = pn.getChild(0).getChild(0);
+        assertTrue(pn instanceof HashJoinPlanNode);
+        assertNotNull(((HashJoinPlanNode)pn).getJoinPredicate());
+    }
+
+    public void testEquiJoin() throws Exception {
+        setupStatistics(STATISTICS);
+        AbstractPlanNode pn = compile("select * from R1, R2 where R1.A = R2.A and R1.B = R2.B and R1.ID + R2.ID > 5");
+        pn = pn.getChild(0).getChild(0);
+        assertTrue(pn instanceof HashJoinPlanNode);
+        HashJoinPlanNode hj = (HashJoinPlanNode)pn;
+        assertEquals(JoinType.INNER, hj.getJoinType());
+        assertEquals(2, hj.getOuterHashExpressions().size());
+        for (int ii = 0; ii < 2; ii++) {
+            String column = columnOf(hj.getOuterHashExpressions(), ii);
+            assertTrue(column.equals("A") || column.equals("B"));
+            assertEquals(column, columnOf(hj.getInnerHashExpressions(), ii));
+        }
+        // The comparison that can not be hashed stays in the join predicate
+        assertNotNull(hj.getJoinPredicate());
+        // The smaller table is the one that gets hashed
+        assertEquals("R1", tableOf(hj.getChild(0)));
+        assertEquals("R2", tableOf(hj.getChild(1)));
+
+        String explain = compileForSinglePartition("select * from R1, R2 where R1.A = R2.A").toExplainPlanString();
+        assertTrue(explain, explain.contains("HASH INNER JOIN on (R1.A = R2.A)"));
+    }
+
+    public void testLeftJoin() throws Exception {
+        setupStatistics(STATISTICS);
+        AbstractPlanNode pn = compile("select * from R1 left join R2 on R1.A = R2.A and R2.B = 'x'");
+        pn = pn.getChild(0).getChild(0);
+        assertTrue(pn instanceof HashJoinPlanNode);
+        assertEquals(JoinType.LEFT, ((HashJoinPlanNode)pn).getJoinType());
+        assertEquals("R1", tableOf(pn.getChild(0)));
+
+        // The executor can not null-pad the hashed side, so full joins keep nested loops
+        pn = compile("select * from R1 full join R2 on R1.A = R2.A");
+        assertFalse(pn.hasAnyNodeOfType(PlanNodeType.HASHJOIN));
+    }
+
+    public void testNotHashable() throws Exception {
+        setupStatistics(STATISTICS);
+        // A table whose index matches the join is looked up rather than hashed
+        AbstractPlanNode pn = compile("select * from R1, R3 where R1.A = R3.A").getChild(0).getChild(0);
+        if (pn instanceof HashJoinPlanNode) {
+            assertEquals("R1", tableOf(pn.getChild(1)));
+        }
+        else {
+            assertTrue(pn instanceof NestLoopIndexPlanNode);
+        }
+
+        // Strings of different maximum lengths hash alike but numbers of different types do not
+        pn = compile("select * from R1, R2 where R1.B = R2.C");
+        assertTrue(pn.hasAnyNodeOfType(PlanNodeType.HASHJOIN));
+        pn = compile("select * from R1, R2 where R1.A = R2.N");
+        assertFalse(pn.hasAnyNodeOfType(PlanNodeType.HASHJOIN));
+
+        // No equality to hash on
+        pn = compile("select * from R1, R2 where R1.A > R2.A");
+        assertFalse(pn.hasAnyNodeOfType(PlanNodeType.HASHJOIN));
+    }
+
+    public void testLoadFromJSON() throws Exception {
+        setupStatistics(STATISTICS);
+        AbstractPlanNode pn = compile("select R1.ID, R2.ID from R1, R2 where R1.A = R2.A and R1.B = R2.B");
+        assertTrue(pn.hasAnyNodeOfType(PlanNodeType.HASHJOIN));
+        String json = new PlanNodeTree(pn).toJSONString();
+        PlanNodeTree pnt = new PlanNodeTree();
+        pnt.loadFromJSONPlan(new JSONObject(json), getDatabase());
+        assertEquals(json, pnt.toJSONString());
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        setupSchema(TestPlansHashJoin.class.getResource("testplans-hashjoin-ddl.sql"), "testhashjoin", true);
+    }
+}
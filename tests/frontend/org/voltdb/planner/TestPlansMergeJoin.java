@@ -0,0 +1,150 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.planner;
+
+import java.util.List;
+
+import org.json_voltpatches.JSONObject;
+import org.voltdb.expressions.TupleValueExpression;
+import org.voltdb.plannodes.AbstractPlanNode;
+import org.voltdb.plannodes.IndexScanPlanNode;
+import org.voltdb.plannodes.MergeJoinPlanNode;
+import org.voltdb.plannodes.MergeReceivePlanNode;
+import org.voltdb.plannodes.NestLoopIndexPlanNode;
+import org.voltdb.plannodes.OrderByPlanNode;
+import org.voltdb.plannodes.PlanNodeTree;
+import org.voltdb.types.JoinType;
+import org.voltdb.types.PlanNodeType;
+
+public class TestPlansMergeJoin extends PlannerTestCase {
+
+    private static final String STATISTICS =
+            "{\"tables\":{" +
+            "\"R1\":{\"tupleCount\":100000,\"columns\":{" +
+                "\"ID\":{\"distinctValues\":100000,\"histogram\":[1,25000,50000,75000,100000]}," +
+                "\"A\":{\"distinctValues\":10000,\"histogram\":[1,2500,5000,7500,10000]}}}," +
+            "\"R2\":{\"tupleCount\":50000,\"columns\":{" +
+                "\"ID\":{\"distinctValues\":50000,\"histogram\":[1,12500,25000,37500,50000]}," +
+                "\"A\":{\"distinctValues\":10000,\"histogram\":[1,2500,5000,7500,10000]}}}," +
+            "\"R3\":{\"tupleCount\":50000,\"columns\":{" +
+                "\"ID\":{\"distinctValues\":50000,\"histogram\":[1,12500,25000,37500,50000]}," +
+                "\"A\":{\"distinctValues\":10000,\"histogram\":[1,2500,5000,7500,10000]}}}," +
+            "\"P1\":{\"tupleCount\":50000,\"columns\":{" +
+                "\"ID\":{\"distinctValues\":50000,\"histogram\":[1,12500,25000,37500,50000]}," +
+                "\"A\":{\"distinctValues\":10000,\"histogram\":[1,2500,5000,7500,10000]}}}" +
+            "}}";
+
+    private static String columnOf(List<? extends Object> exprs, int ii) {
+        return ((TupleValueExpression)exprs.get(ii)).getColumnName();
+    }
+
+    private static String indexOf(AbstractPlanNode pn) {
+        return ((IndexScanPlanNode)pn).getTargetIndexName();
+    }
+
+    public void testNoStatisticsKeepsIndexJoin() throws Exception {
+        AbstractPlanNode pn = compile("select * from R1, R2 where R1.A = R2.A");
+        assertFalse(pn.hasAnyNodeOfType(PlanNodeType.MERGEJOIN));
+        assertTrue(pn.getChild(0).getChild(0) instanceof NestLoopIndexPlanNode);
+    }
+
+    public void testIndexedEquiJoin() throws Exception {
+        setupStatistics(STATISTICS);
+        AbstractPlanNode pn = compile("select * from R1, R2 where R1.A = R2.A and R1.B = R2.B");
+        pn = pn.getChild(0).getChild(0);
+        assertTrue(pn instanceof MergeJoinPlanNode);
+        MergeJoinPlanNode mj = (MergeJoinPlanNode)pn;
+        assertEquals(JoinType.INNER, mj.getJoinType());
+        // Only the leading index column orders both inputs
+        assertEquals(1, mj.getOuterKeyExpressions().size());
+        assertEquals("A", columnOf(mj.getOuterKeyExpressions(), 0));
+        assertEquals("A", columnOf(mj.getInnerKeyExpressions(), 0));
+        assertNotNull(mj.getJoinPredicate());
+        // Both tables are scanned in key order rather than probed
+        assertEquals("R1_A", indexOf(mj.getChild(0)));
+        assertEquals("R2_A", indexOf(mj.getChild(1)));
+
+        String explain = compile("select * from R1, R2 where R1.A = R2.A").toExplainPlanString();
+        assertTrue(explain, explain.contains("MERGE INNER JOIN on (R1.A = R2.A)"));
+    }
+
+    public void testLeftJoin() throws Exception {
+        setupStatistics(STATISTICS);
+        AbstractPlanNode pn = compile("select * from R1 left join R2 on R1.A = R2.A");
+        pn = pn.getChild(0).getChild(0);
+        assertTrue(pn instanceof MergeJoinPlanNode);
+        assertEquals(JoinType.LEFT, ((MergeJoinPlanNode)pn).getJoinType());
+        assertEquals("R1_A", indexOf(pn.getChild(0)));
+
+        // The executor can not null-pad the inner side, so full joins do not merge
+        pn = compile("select * from R1 full join R2 on R1.A = R2.A");
+        assertFalse(pn.hasAnyNodeOfType(PlanNodeType.MERGEJOIN));
+    }
+
+    public void testUnorderedInput() throws Exception {
+        setupStatistics(STATISTICS);
+        // No index orders R3 on the join key
+        AbstractPlanNode pn = compile("select * from R1, R3 where R1.A = R3.A");
+        assertFalse(pn.hasAnyNodeOfType(PlanNodeType.MERGEJOIN));
+        // R2 is only ordered on B within each value of A
+        pn = compile("select * from R1, R2 where R1.B = R2.B");
+        assertFalse(pn.hasAnyNodeOfType(PlanNodeType.MERGEJOIN));
+    }
+
+    public void testMergeReceive() throws Exception {
+        setupStatistics(STATISTICS);
+        // The partitioned rows have to reach the coordinator before the replicated rows can be null-padded,
+        // so the ordered results of the partitions are merged on the way.
+        List<AbstractPlanNode> frags = compileToFragments("select * from R1 left join P1 on R1.A = P1.A");
+        assertEquals(2, frags.size());
+        List<AbstractPlanNode> mjs = frags.get(0).findAllNodesOfType(PlanNodeType.MERGEJOIN);
+        assertEquals(1, mjs.size());
+        AbstractPlanNode inner = mjs.get(0).getChild(1);
+        assertTrue(inner instanceof MergeReceivePlanNode);
+        OrderByPlanNode orderby = (OrderByPlanNode)inner.getInlinePlanNode(PlanNodeType.ORDERBY);
+        assertEquals("A", columnOf(orderby.getSortExpressions(), 0));
+        assertEquals("P1_A", indexOf(frags.get(1).getChild(0)));
+
+        // The join of a partitioned table with a replicated one happens on each partition
+        frags = compileToFragments("select * from P1, R1 where R1.A = P1.A");
+        assertEquals(2, frags.size());
+        assertTrue(frags.get(1).hasAnyNodeOfType(PlanNodeType.MERGEJOIN));
+        assertFalse(frags.get(0).hasAnyNodeOfType(PlanNodeType.MERGERECEIVE));
+    }
+
+    public void testLoadFromJSON() throws Exception {
+        setupStatistics(STATISTICS);
+        for (AbstractPlanNode pn : compileToFragments("select R1.ID, P1.ID from R1 left join P1 on R1.A = P1.A")) {
+            String json = new PlanNodeTree(pn).toJSONString();
+            PlanNodeTree pnt = new PlanNodeTree();
+            pnt.loadFromJSONPlan(new JSONObject(json), getDatabase());
+            assertEquals(json, pnt.toJSONString());
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        setupSchema(TestPlansMergeJoin.class.getResource("testplans-mergejoin-ddl.sql"), "testmergejoin", false);
+    }
+}
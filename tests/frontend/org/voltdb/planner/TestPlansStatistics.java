@@ -0,0 +1,115 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.planner;
+
+import org.voltdb.compiler.DatabaseEstimates;
+import org.voltdb.compiler.DatabaseEstimates.ColumnEstimates;
+import org.voltdb.compiler.DatabaseEstimates.TableEstimates;
+import org.voltdb.plannodes.AbstractPlanNode;
+import org.voltdb.plannodes.AbstractScanPlanNode;
+import org.voltdb.plannodes.IndexScanPlanNode;
+import org.voltdb.plannodes.NestLoopIndexPlanNode;
+import org.voltdb.types.PlanNodeType;
+
+public class TestPlansStatistics extends PlannerTestCase {
+
+    private static final String STATISTICS =
+            "{\"tables\":{" +
+            "\"ORDERS\":{\"tupleCount\":1000000,\"columns\":{" +
+                "\"ID\":{\"distinctValues\":1000000,\"histogram\":[1,250000,500000,750000,1000000]}," +
+                "\"CUSTOMER\":{\"distinctValues\":100000,\"histogram\":[1,25000,50000,75000,100000]}," +
+                "\"STATUS\":{\"distinctValues\":2,\"histogram\":[0,0,1,1,1]}," +
+                "\"REGION\":{\"distinctValues\":2,\"histogram\":[0,0,0,1,1]}," +
+                "\"AMOUNT\":{\"distinctValues\":50000,\"histogram\":[0,10,20,40,1000]}}}," +
+            "\"CUSTOMERS\":{\"tupleCount\":100,\"columns\":{" +
+                "\"ID\":{\"distinctValues\":100,\"histogram\":[1,25,50,75,100]}," +
+                "\"COUNTRY\":{\"distinctValues\":50,\"histogram\":[0,10,20,30,50]}}}" +
+            "}}";
+
+    private String indexOf(AbstractPlanNode pn) {
+        return ((IndexScanPlanNode)pn).getTargetIndexName();
+    }
+
+    public void testSelectiveIndexWins() throws Exception {
+        final String sql = "select * from ORDERS where CUSTOMER = ? and STATUS = ? and REGION = ?";
+        // Without statistics the index covering more of the filter looks best
+        AbstractPlanNode pn = compile(sql).getChild(0);
+        assertEquals("ORDERS_STATUS_REGION", indexOf(pn));
+
+        // Two values each for STATUS and REGION match a quarter of the table
+        setupStatistics(STATISTICS);
+        pn = compile(sql).getChild(0);
+        assertEquals("ORDERS_CUSTOMER", indexOf(pn));
+    }
+
+    public void testHistogramRange() throws Exception {
+        // The histogram puts no more than an eighth of the orders below 5
+        setupStatistics(STATISTICS);
+        AbstractPlanNode pn = compile("select * from ORDERS where AMOUNT < 5 and STATUS = ? and REGION = ?").getChild(0);
+        assertEquals("ORDERS_AMOUNT", indexOf(pn));
+
+        // but half of them are at or above 20
+        pn = compile("select * from ORDERS where AMOUNT >= 20 and STATUS = ? and REGION = ?").getChild(0);
+        assertEquals("ORDERS_STATUS_REGION", indexOf(pn));
+    }
+
+    public void testSmallTableDrivesJoin() throws Exception {
+        final String sql = "select * from CUSTOMERS C, ORDERS O where O.CUSTOMER = C.ID and O.STATUS = ?";
+        AbstractPlanNode pn = compile(sql).getChild(0).getChild(0);
+        assertTrue(pn instanceof NestLoopIndexPlanNode);
+        assertEquals("ORDERS", ((AbstractScanPlanNode)pn.getChild(0)).getTargetTableName());
+
+        // A hundred customers make a much cheaper outer table than half a million orders
+        setupStatistics(STATISTICS);
+        pn = compile(sql).getChild(0).getChild(0);
+        assertTrue(pn instanceof NestLoopIndexPlanNode);
+        assertEquals("CUSTOMERS", ((AbstractScanPlanNode)pn.getChild(0)).getTargetTableName());
+        IndexScanPlanNode inner = (IndexScanPlanNode)pn.getInlinePlanNode(PlanNodeType.INDEXSCAN);
+        assertEquals("ORDERS_CUSTOMER", inner.getTargetIndexName());
+    }
+
+    public void testEstimatesRoundTrip() throws Exception {
+        DatabaseEstimates estimates = DatabaseEstimates.fromJSONString(STATISTICS);
+        assertTrue(estimates.hasStatistics());
+        estimates = DatabaseEstimates.fromJSONString(estimates.toJSONString());
+
+        TableEstimates orders = estimates.getEstimatesForTable("ORDERS");
+        assertTrue(orders.analyzed);
+        assertEquals(1000000, orders.maxTuples);
+        ColumnEstimates amount = orders.getEstimatesForColumn("AMOUNT");
+        assertEquals(50000, amount.distinctValues);
+        assertEquals(0.125, amount.fractionBelow(5), 0.0001);
+        assertEquals(0.5, amount.fractionBelow(20), 0.0001);
+        assertEquals(1.0, amount.fractionBelow(5000), 0.0);
+
+        // Tables that were never analyzed keep the defaults
+        assertFalse(estimates.getEstimatesForTable("LINEITEM").analyzed);
+        assertFalse(new DatabaseEstimates().hasStatistics());
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        setupSchema(TestPlansStatistics.class.getResource("testplans-statistics-ddl.sql"), "teststatistics", true);
+    }
+}
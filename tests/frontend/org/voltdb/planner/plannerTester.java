@@ -47,6 +47,9 @@ import org.voltdb.plannodes.IndexScanPlanNode;
 import org.voltdb.plannodes.PlanNodeTree;
 import org.voltdb.plannodes.SendPlanNode;
 import org.voltdb.types.PlanNodeType;
+import org.voltdb.utils.MiscUtils;
+
+import com.google_voltpatches.common.base.Charsets;
 
 public class plannerTester {
     private static PlannerTestCase s_singleton = new PlannerTestCase();
@@ -267,6 +270,7 @@ public class plannerTester {
     public static boolean setUp(String config) throws Exception {
         m_baselinePath = (m_fixedBaselinePath != null) ? m_fixedBaselinePath : (config + "/baseline/");
         String ddlFilePath = null;
+        String statisticsFilePath = null;
         m_stmts.clear();
         BufferedReader reader = new BufferedReader(new FileReader(config + "/config"));
         String line = null;
@@ -280,6 +284,13 @@ public class plannerTester {
                 }
                 ddlFilePath = new File(line).getCanonicalPath();
             }
+            // This section of the config file is optional, it plans against gathered table statistics.
+            else if (line.equalsIgnoreCase("Statistics:")) {
+                if ((line = reader.readLine()) == null) {
+                    break;
+                }
+                statisticsFilePath = new File(line).getCanonicalPath();
+            }
             else if (line.equalsIgnoreCase("SQL:")) {
                 boolean atEof = false;
                 while (true) {
@@ -328,6 +339,10 @@ public class plannerTester {
             File ddlFile = new File(ddlFilePath);
             URL ddlURL = ddlFile.toURI().toURL();
             s_singleton.setupSchema(ddlURL, config, false);
+            if (statisticsFilePath != null) {
+                s_singleton.setupStatistics(
+                        new String(MiscUtils.fileToBytes(new File(statisticsFilePath)), Charsets.UTF_8));
+            }
         }
         return success;
     }
@@ -0,0 +1,22 @@
+CREATE TABLE R1 (
+    ID INTEGER NOT NULL,
+    A INTEGER NOT NULL,
+    B VARCHAR(16),
+    PRIMARY KEY (ID)
+);
+
+CREATE TABLE R2 (
+    ID INTEGER NOT NULL,
+    A INTEGER NOT NULL,
+    B VARCHAR(16),
+    C VARCHAR(64),
+    N BIGINT,
+    PRIMARY KEY (ID)
+);
+
+CREATE TABLE R3 (
+    ID INTEGER NOT NULL,
+    A INTEGER NOT NULL,
+    PRIMARY KEY (ID)
+);
+CREATE INDEX R3_A ON R3 (A);
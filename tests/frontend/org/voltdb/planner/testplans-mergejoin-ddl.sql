@@ -0,0 +1,29 @@
+CREATE TABLE R1 (
+    ID INTEGER NOT NULL,
+    A INTEGER NOT NULL,
+    B VARCHAR(16),
+    PRIMARY KEY (ID)
+);
+CREATE INDEX R1_A ON R1 (A);
+
+CREATE TABLE R2 (
+    ID INTEGER NOT NULL,
+    A INTEGER NOT NULL,
+    B VARCHAR(16),
+    PRIMARY KEY (ID)
+);
+CREATE INDEX R2_A ON R2 (A, B);
+
+CREATE TABLE R3 (
+    ID INTEGER NOT NULL,
+    A INTEGER NOT NULL,
+    PRIMARY KEY (ID)
+);
+
+CREATE TABLE P1 (
+    ID INTEGER NOT NULL,
+    A INTEGER NOT NULL,
+    PRIMARY KEY (ID)
+);
+PARTITION TABLE P1 ON COLUMN ID;
+CREATE INDEX P1_A ON P1 (A);
@@ -0,0 +1,19 @@
+CREATE TABLE ORDERS (
+    ID BIGINT NOT NULL,
+    CUSTOMER BIGINT NOT NULL,
+    STATUS INTEGER NOT NULL,
+    REGION INTEGER NOT NULL,
+    AMOUNT FLOAT,
+    PRIMARY KEY (ID)
+);
+CREATE INDEX ORDERS_CUSTOMER ON ORDERS (CUSTOMER);
+CREATE INDEX ORDERS_STATUS_REGION ON ORDERS (STATUS, REGION);
+CREATE INDEX ORDERS_AMOUNT ON ORDERS (AMOUNT);
+
+CREATE TABLE CUSTOMERS (
+    ID BIGINT NOT NULL,
+    NAME VARCHAR(32),
+    COUNTRY INTEGER NOT NULL,
+    PRIMARY KEY (ID)
+);
+CREATE INDEX CUSTOMERS_COUNTRY ON CUSTOMERS (COUNTRY);
@@ -0,0 +1,157 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.regressionsuites;
+
+import java.io.IOException;
+
+import org.voltdb.BackendTarget;
+import org.voltdb.VoltTable;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.NoConnectionsException;
+import org.voltdb.client.ProcCallException;
+import org.voltdb.client.SyncCallback;
+import org.voltdb.compiler.DatabaseEstimates;
+import org.voltdb.compiler.VoltProjectBuilder;
+import org.voltdb.utils.StatisticsAnalyzer;
+
+/**
+ * Runs joins that the planner only turns into hash joins once table
+ * statistics are loaded.
+ */
+public class TestHashJoinSuite extends RegressionSuite {
+
+    private static final long NULL = Long.MIN_VALUE;
+
+    // R2 looks like the smaller table, so it is the one that gets hashed
+    private static final String STATISTICS =
+            "{\"tables\":{" +
+            "\"R1\":{\"tupleCount\":100000,\"columns\":{" +
+                "\"A\":{\"distinctValues\":1000,\"histogram\":[1,250,500,750,1000]}}}," +
+            "\"R2\":{\"tupleCount\":10000,\"columns\":{" +
+                "\"A\":{\"distinctValues\":1000,\"histogram\":[1,250,500,750,1000]}}}" +
+            "}}";
+
+    public TestHashJoinSuite(String name) {
+        super(name);
+    }
+
+    private static void loadStatistics(Client client) throws Exception {
+        new StatisticsAnalyzer(client, 4).store(DatabaseEstimates.fromJSONString(STATISTICS));
+    }
+
+    private static void clearTables(Client client)
+            throws NoConnectionsException, IOException, ProcCallException
+    {
+        client.callProcedure("@AdHoc", "DELETE FROM R1;");
+        client.callProcedure("@AdHoc", "DELETE FROM R2;");
+    }
+
+    private static void assertHashJoin(Client client, String sql, String join) throws Exception {
+        VoltTable vt = client.callProcedure("@Explain", sql).getResults()[0];
+        String explain = vt.fetchRow(0).getString(0);
+        assertTrue(explain, explain.contains(join));
+    }
+
+    public void testLeftJoinNullPadding() throws Exception {
+        Client client = getClient();
+        loadStatistics(client);
+        clearTables(client);
+
+        client.callProcedure("R1.insert", 1, 10, 100);
+        client.callProcedure("R1.insert", 2, 20, 200);
+        client.callProcedure("R1.insert", 3, 30, 300);
+        client.callProcedure("R1.insert", 4, null, 400);
+        client.callProcedure("R2.insert", 1, 10, 1000);
+        client.callProcedure("R2.insert", 2, 10, 2000);
+        client.callProcedure("R2.insert", 3, 30, 3000);
+        client.callProcedure("R2.insert", 4, 40, 4000);
+        client.callProcedure("R2.insert", 5, null, 5000);
+
+        String sql = "SELECT R1.ID, R2.ID FROM R1 LEFT JOIN R2 ON R1.A = R2.A ORDER BY R1.ID, R2.ID;";
+        assertHashJoin(client, sql, "HASH LEFT JOIN");
+        // Unmatched and NULL keys keep their outer row with a NULL inner side
+        validateTableOfLongs(client, sql, new long[][] {
+            {1, 1}, {1, 2}, {2, NULL}, {3, 3}, {4, NULL}});
+
+        // A failed join condition pads rather than drops the outer row
+        sql = "SELECT R1.ID, R2.ID FROM R1 LEFT JOIN R2 ON R1.A = R2.A AND R2.V > 1500 " +
+              "ORDER BY R1.ID, R2.ID;";
+        assertHashJoin(client, sql, "HASH LEFT JOIN");
+        validateTableOfLongs(client, sql, new long[][] {
+            {1, 2}, {2, NULL}, {3, 3}, {4, NULL}});
+
+        // The where clause applies to the padded rows too
+        sql = "SELECT R1.ID FROM R1 LEFT JOIN R2 ON R1.A = R2.A WHERE R2.ID IS NULL ORDER BY R1.ID;";
+        assertHashJoin(client, sql, "HASH LEFT JOIN");
+        validateTableOfLongs(client, sql, new long[][] {{2}, {4}});
+
+        sql = "SELECT R1.ID, R2.ID FROM R1 INNER JOIN R2 ON R1.A = R2.A ORDER BY R1.ID, R2.ID;";
+        assertHashJoin(client, sql, "HASH INNER JOIN");
+        validateTableOfLongs(client, sql, new long[][] {{1, 1}, {1, 2}, {3, 3}});
+    }
+
+    public void testTempTableLimit() throws Exception {
+        Client client = getClient();
+        loadStatistics(client);
+        clearTables(client);
+
+        client.callProcedure("R1.insert", 1, 10, 100);
+        SyncCallback cb = null;
+        for (int ii = 0; ii < 100000; ii++) {
+            cb = new SyncCallback();
+            client.callProcedure(cb, "R2.insert", ii, ii, ii);
+        }
+        client.drain();
+        assertEquals(ClientResponse.SUCCESS, cb.getResponse().getStatus());
+
+        String sql = "SELECT COUNT(*) FROM R1 LEFT JOIN R2 ON R1.A = R2.A;";
+        assertHashJoin(client, sql, "HASH LEFT JOIN");
+        // The hash table of the inner side counts against the temp table limit
+        verifyStmtFails(client, sql, "temp table memory");
+
+        // Once the hashed side is small again the same plan runs
+        client.callProcedure("@AdHoc", "DELETE FROM R2 WHERE ID >= 100;");
+        validateTableOfScalarLongs(client, sql, new long[] {1});
+    }
+
+    static public junit.framework.Test suite() throws IOException
+    {
+        VoltServerConfig config = null;
+        MultiConfigSuiteBuilder builder = new MultiConfigSuiteBuilder(TestHashJoinSuite.class);
+        VoltProjectBuilder project = new VoltProjectBuilder();
+
+        project.addLiteralSchema(
+                "CREATE TABLE R1 (ID BIGINT NOT NULL, A BIGINT, V BIGINT, PRIMARY KEY (ID));\n" +
+                "CREATE TABLE R2 (ID BIGINT NOT NULL, A BIGINT, V BIGINT, PRIMARY KEY (ID));\n");
+        // Statistics are stored in the catalog jar by @UpdateClasses
+        project.setUseDDLSchema(true);
+        project.setMaxTempTableMemory(1);
+
+        config = new LocalCluster("testhashjoin-onesite.jar", 1, 1, 0, BackendTarget.NATIVE_EE_JNI);
+        if (!config.compile(project)) fail();
+        builder.addServerConfig(config);
+        return builder;
+    }
+}
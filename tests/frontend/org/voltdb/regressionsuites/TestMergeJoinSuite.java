@@ -0,0 +1,126 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package org.voltdb.regressionsuites;
+
+import java.io.IOException;
+
+import org.voltdb.BackendTarget;
+import org.voltdb.VoltTable;
+import org.voltdb.client.Client;
+import org.voltdb.compiler.DatabaseEstimates;
+import org.voltdb.compiler.VoltProjectBuilder;
+import org.voltdb.utils.StatisticsAnalyzer;
+
+/**
+ * Runs joins that the planner only turns into merge joins once table
+ * statistics are loaded.
+ */
+public class TestMergeJoinSuite extends RegressionSuite {
+
+    private static final long NULL = Long.MIN_VALUE;
+
+    private static final String STATISTICS =
+            "{\"tables\":{" +
+            "\"R1\":{\"tupleCount\":100000,\"columns\":{" +
+                "\"ID\":{\"distinctValues\":100000,\"histogram\":[1,25000,50000,75000,100000]}," +
+                "\"A\":{\"distinctValues\":10000,\"histogram\":[1,2500,5000,7500,10000]}}}," +
+            "\"P1\":{\"tupleCount\":50000,\"columns\":{" +
+                "\"ID\":{\"distinctValues\":50000,\"histogram\":[1,12500,25000,37500,50000]}," +
+                "\"A\":{\"distinctValues\":10000,\"histogram\":[1,2500,5000,7500,10000]}}}" +
+            "}}";
+
+    public TestMergeJoinSuite(String name) {
+        super(name);
+    }
+
+    private static void assertExplains(Client client, String sql, String... nodes) throws Exception {
+        VoltTable vt = client.callProcedure("@Explain", sql).getResults()[0];
+        String explain = vt.fetchRow(0).getString(0);
+        for (String node : nodes) {
+            assertTrue(explain, explain.contains(node));
+        }
+    }
+
+    public void testDuplicateKeys() throws Exception {
+        Client client = getClient();
+        new StatisticsAnalyzer(client, 4).store(DatabaseEstimates.fromJSONString(STATISTICS));
+
+        client.callProcedure("R1.insert", 1, 10);
+        client.callProcedure("R1.insert", 2, 10);
+        client.callProcedure("R1.insert", 3, 20);
+        client.callProcedure("R1.insert", 4, 30);
+        client.callProcedure("R1.insert", 5, null);
+        client.callProcedure("R1.insert", 6, 40);
+        // The duplicates are spread over the partitions, so the runs are merged on the way in
+        client.callProcedure("P1.insert", 1, 10);
+        client.callProcedure("P1.insert", 2, 10);
+        client.callProcedure("P1.insert", 3, 10);
+        client.callProcedure("P1.insert", 4, 30);
+        client.callProcedure("P1.insert", 5, 35);
+        client.callProcedure("P1.insert", 6, 30);
+        client.callProcedure("P1.insert", 7, null);
+
+        String sql = "SELECT R1.A FROM R1 LEFT JOIN P1 ON R1.A = P1.A;";
+        assertExplains(client, sql, "MERGE LEFT JOIN", "MERGE RECEIVE FROM ALL PARTITIONS");
+        // The merge join keeps the order of R1 on A, with the NULL key first
+        validateTableOfScalarLongs(client, sql, new long[] {
+            NULL, 10, 10, 10, 10, 10, 10, 20, 30, 30, 40});
+
+        sql = "SELECT R1.ID, P1.ID FROM R1 LEFT JOIN P1 ON R1.A = P1.A ORDER BY R1.ID, P1.ID;";
+        validateTableOfLongs(client, sql, new long[][] {
+            {1, 1}, {1, 2}, {1, 3}, {2, 1}, {2, 2}, {2, 3},
+            {3, NULL}, {4, 4}, {4, 6}, {5, NULL}, {6, NULL}});
+
+        // The rest of the join condition filters within a run of equal keys
+        sql = "SELECT R1.ID, P1.ID FROM R1 LEFT JOIN P1 ON R1.A = P1.A AND P1.ID > R1.ID ORDER BY R1.ID, P1.ID;";
+        validateTableOfLongs(client, sql, new long[][] {
+            {1, 2}, {1, 3}, {2, 3}, {3, NULL}, {4, 6}, {5, NULL}, {6, NULL}});
+
+        sql = "SELECT P1.ID, R1.ID FROM P1, R1 WHERE R1.A = P1.A ORDER BY P1.ID, R1.ID;";
+        assertExplains(client, sql, "MERGE INNER JOIN");
+        validateTableOfLongs(client, sql, new long[][] {
+            {1, 1}, {1, 2}, {2, 1}, {2, 2}, {3, 1}, {3, 2}, {4, 4}, {6, 4}});
+    }
+
+    static public junit.framework.Test suite() throws IOException
+    {
+        VoltServerConfig config = null;
+        MultiConfigSuiteBuilder builder = new MultiConfigSuiteBuilder(TestMergeJoinSuite.class);
+        VoltProjectBuilder project = new VoltProjectBuilder();
+
+        project.addLiteralSchema(
+                "CREATE TABLE R1 (ID INTEGER NOT NULL, A INTEGER, PRIMARY KEY (ID));\n" +
+                "CREATE INDEX R1_A ON R1 (A);\n" +
+                "CREATE TABLE P1 (ID INTEGER NOT NULL, A INTEGER, PRIMARY KEY (ID));\n" +
+                "PARTITION TABLE P1 ON COLUMN ID;\n" +
+                "CREATE INDEX P1_A ON P1 (A);\n");
+        // Statistics are stored in the catalog jar by @UpdateClasses
+        project.setUseDDLSchema(true);
+
+        config = new LocalCluster("testmergejoin-twosites.jar", 2, 1, 0, BackendTarget.NATIVE_EE_JNI);
+        if (!config.compile(project)) fail();
+        builder.addServerConfig(config);
+        return builder;
+    }
+}
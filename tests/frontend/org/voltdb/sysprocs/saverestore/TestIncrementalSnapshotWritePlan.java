@@ -0,0 +1,86 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.sysprocs.saverestore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.voltdb.sysprocs.saverestore.IncrementalSnapshotWritePlan.ChainLink;
+import org.voltdb.utils.VoltFile;
+
+public class TestIncrementalSnapshotWritePlan {
+
+    private static final File TEST_DIR = new File("/tmp/" + System.getProperty("user.name"), "incrementalplan");
+
+    @Before
+    public void setUp() throws Exception {
+        VoltFile.recursivelyDelete(TEST_DIR);
+        TEST_DIR.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        VoltFile.recursivelyDelete(TEST_DIR);
+    }
+
+    private static ChainLink link(String nonce, long txnId, String previousNonce, int length, boolean completed) {
+        return new ChainLink(nonce, txnId, previousNonce, length, 42, 8,
+                IncrementalSnapshotWritePlan.PROCESS_ID, completed);
+    }
+
+    @Test
+    public void testChainAnchoredByChainFiles() throws Exception {
+        assertNull(IncrementalSnapshotWritePlan.readLastLink(TEST_DIR.getPath(), 0));
+
+        IncrementalSnapshotWritePlan.writeChainFile(TEST_DIR.getPath(), 0, link("base", 10, null, 0, true));
+        IncrementalSnapshotWritePlan.writeChainFile(TEST_DIR.getPath(), 0, link("inc1", 20, "base", 1, true));
+        // Another host's chain in the same directory
+        IncrementalSnapshotWritePlan.writeChainFile(TEST_DIR.getPath(), 1, link("inc2", 30, "inc1", 2, true));
+
+        ChainLink last = IncrementalSnapshotWritePlan.readLastLink(TEST_DIR.getPath(), 0);
+        assertEquals("inc1", last.m_nonce);
+        assertEquals(20, last.m_txnId);
+        assertEquals("base", last.m_previousNonce);
+        assertEquals(1, last.m_length);
+        assertEquals(42, last.m_catalogCRC);
+        assertEquals(8, last.m_partitionCount);
+        assertEquals(IncrementalSnapshotWritePlan.PROCESS_ID, last.m_processId);
+        assertTrue(last.m_completed);
+
+        // A snapshot that started and never completed is the newest, nothing continues from it
+        IncrementalSnapshotWritePlan.writeChainFile(TEST_DIR.getPath(), 0, link("inc2", 30, "inc1", 2, false));
+        last = IncrementalSnapshotWritePlan.readLastLink(TEST_DIR.getPath(), 0);
+        assertEquals("inc2", last.m_nonce);
+        assertFalse(last.m_completed);
+
+        IncrementalSnapshotWritePlan.writeChainFile(TEST_DIR.getPath(), 0, last.complete());
+        assertTrue(IncrementalSnapshotWritePlan.readLastLink(TEST_DIR.getPath(), 0).m_completed);
+    }
+}
@@ -0,0 +1,221 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.sysprocs.saverestore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltdb.DefaultSnapshotDataTarget;
+import org.voltdb.EELibraryLoader;
+import org.voltdb.PrivateVoltTableFactory;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.utils.VoltFile;
+
+public class TestSnapshotRestoreReader {
+
+    private static final File TEST_DIR = new File("/tmp/" + System.getProperty("user.name"), "restorereader");
+
+    private static final VoltTable SCHEMA = new VoltTable(new VoltTable.ColumnInfo("ID", VoltType.BIGINT));
+
+    private static final int PARTITIONS = 3;
+    private static final int CHUNKS = 6;
+    private static final int ROWS_PER_CHUNK = 100;
+
+    @Before
+    public void setUp() throws Exception {
+        // The save files are checksummed natively
+        EELibraryLoader.loadExecutionEngineLibrary(true);
+        VoltFile.recursivelyDelete(TEST_DIR);
+        TEST_DIR.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        VoltFile.recursivelyDelete(TEST_DIR);
+    }
+
+    /*
+     * Write a table file with chunks going round robin over the partitions, the ids of
+     * the rows are the table number times a million plus their partition times a thousand
+     * plus a sequence number, so every row says where it came from.
+     */
+    private static File writeTable(int table, boolean replicated) throws Exception {
+        final List<Integer> partitionIds = new ArrayList<Integer>();
+        for (int p = 0; p < (replicated ? 1 : PARTITIONS); p++) {
+            partitionIds.add(p);
+        }
+        final File file = new File(TEST_DIR, "T" + table + ".vpt");
+        final DefaultSnapshotDataTarget target = new DefaultSnapshotDataTarget(
+                file, 0, "cluster", "database", "T" + table, PARTITIONS, replicated,
+                partitionIds, SCHEMA, 1, 1);
+        final int[] sequence = new int[PARTITIONS];
+        for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            final int partitionId = partitionIds.get(chunk % partitionIds.size());
+            final BBContainer c = DBBPool.allocateDirect(64 * 1024);
+            final ByteBuffer buf = c.b();
+            buf.putInt(partitionId);
+            buf.putInt(ROWS_PER_CHUNK);
+            for (int ii = 0; ii < ROWS_PER_CHUNK; ii++) {
+                buf.putInt(8);
+                buf.putLong(table * 1000000L + partitionId * 1000L + sequence[partitionId]++);
+            }
+            buf.flip();
+            target.write(new Callable<BBContainer>() {
+                @Override
+                public BBContainer call() {
+                    return c;
+                }
+            }, 0).get();
+        }
+        target.close();
+        return file;
+    }
+
+    private static List<File> writeTables(int count) throws Exception {
+        final List<File> files = new ArrayList<File>();
+        for (int t = 0; t < count; t++) {
+            files.add(writeTable(t, t % 2 == 1));
+        }
+        return files;
+    }
+
+    @Test
+    public void testEveryRowOnce() throws Exception {
+        final List<File> files = writeTables(4);
+        final Set<Long> ids = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        final AtomicInteger misplaced = new AtomicInteger();
+        // Every file has to be open before any of them is read past its first chunk
+        final CountDownLatch allOpen = new CountDownLatch(files.size());
+
+        final SnapshotRestoreReader reader = new SnapshotRestoreReader(files, 3, null, files.size());
+        reader.read(new SnapshotRestoreReader.ChunkHandler() {
+            @Override
+            public void handleChunk(TableSaveFile saveFile, int partitionId, BBContainer chunk) throws Exception {
+                allOpen.countDown();
+                if (!allOpen.await(60, TimeUnit.SECONDS)) {
+                    throw new Exception("Files weren't read concurrently");
+                }
+                try {
+                    final VoltTable table = PrivateVoltTableFactory.createVoltTableFromBuffer(chunk.b(), true);
+                    while (table.advanceRow()) {
+                        final long id = table.getLong(0);
+                        if ((id / 1000) % 1000 != partitionId) {
+                            misplaced.incrementAndGet();
+                        }
+                        if (!ids.add(id)) {
+                            duplicates.incrementAndGet();
+                        }
+                    }
+                } finally {
+                    chunk.discard();
+                }
+            }
+        });
+
+        assertEquals(0, duplicates.get());
+        assertEquals(0, misplaced.get());
+        assertEquals(files.size() * CHUNKS * ROWS_PER_CHUNK, ids.size());
+
+        final Map<String, SnapshotRestoreReader.TableProgress> stats = reader.getTableStats();
+        assertEquals(Arrays.asList("T0", "T1", "T2", "T3"), new ArrayList<String>(stats.keySet()));
+        for (SnapshotRestoreReader.TableProgress progress : stats.values()) {
+            assertEquals(1, progress.getFiles());
+            assertEquals(CHUNKS, progress.getChunks());
+            assertEquals(CHUNKS * ROWS_PER_CHUNK, progress.getRows());
+            assertTrue(progress.getBytes() > CHUNKS * ROWS_PER_CHUNK * 8);
+            assertTrue(progress.getElapsedNanos() >= 0);
+        }
+    }
+
+    @Test
+    public void testRelevantPartitions() throws Exception {
+        final List<File> files = Arrays.asList(writeTable(0, false));
+        final Set<Integer> partitionIds =
+                Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        final AtomicInteger rows = new AtomicInteger();
+
+        final SnapshotRestoreReader reader = new SnapshotRestoreReader(files, 3, new Integer[] { 1 }, 2);
+        reader.read(new SnapshotRestoreReader.ChunkHandler() {
+            @Override
+            public void handleChunk(TableSaveFile saveFile, int partitionId, BBContainer chunk) throws Exception {
+                partitionIds.add(partitionId);
+                rows.addAndGet(chunk.b().getInt(saveFile.getTableHeader().capacity()));
+                chunk.discard();
+            }
+        });
+
+        assertEquals(new HashSet<Integer>(Arrays.asList(1)), partitionIds);
+        assertEquals(CHUNKS / PARTITIONS * ROWS_PER_CHUNK, rows.get());
+        assertEquals(CHUNKS / PARTITIONS * ROWS_PER_CHUNK,
+                reader.getTableStats().get("T0").getRows());
+    }
+
+    @Test
+    public void testFailureStopsTheRestore() throws Exception {
+        final List<File> files = writeTables(4);
+        final AtomicInteger chunks = new AtomicInteger();
+
+        try {
+            new SnapshotRestoreReader(files, 3, null, 2).read(new SnapshotRestoreReader.ChunkHandler() {
+                @Override
+                public void handleChunk(TableSaveFile saveFile, int partitionId, BBContainer chunk)
+                        throws Exception {
+                    chunk.discard();
+                    chunks.incrementAndGet();
+                    if (saveFile.getTableName().equals("T2")) {
+                        throw new IOException("Failed to load T2");
+                    }
+                }
+            });
+            fail();
+        } catch (IOException expected) {
+            assertEquals("Failed to load T2", expected.getMessage());
+        }
+        // Files still to be read are never opened, the ones open stop at their next chunk
+        assertTrue(chunks.get() < files.size() * CHUNKS);
+    }
+}
@@ -0,0 +1,184 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.utils;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.voltcore.logging.VoltLogger;
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltdb.utils.BinaryDeque.BinaryDequeReader;
+
+/**
+ * Measures append and poll throughput of a PersistentBinaryDeque with one writer
+ * thread and 1 to 4 cursors, each polled by its own thread, for compressed and
+ * uncompressed objects. Runs each case with sealed segments read under the deque's
+ * monitor and through memory mappings. The writer stays at most a few segments
+ * ahead of the slowest cursor so most reads are of sealed segments.
+ *
+ * Usage: PersistentBinaryDequeBenchmark [seconds] [object KB] [cursor counts...]
+ */
+public class PersistentBinaryDequeBenchmark {
+
+    private static final VoltLogger LOG = new VoltLogger("EXPORT");
+
+    private static ByteBuffer template(int size) {
+        // Half random half zero, so compressed objects are about half the size
+        final ByteBuffer buf = ByteBuffer.allocateDirect(size);
+        final Random r = new Random(42);
+        while (buf.remaining() >= 16) {
+            buf.putLong(r.nextLong());
+            buf.putLong(0);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    private static void deleteAll(File dir) {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+    }
+
+    private static void run(File dir, boolean mapped, final boolean compress, int cursorCount,
+            final int objectSize, int seconds) throws Exception {
+        deleteAll(dir);
+        final PersistentBinaryDeque pbd = new PersistentBinaryDeque("bench", dir, LOG, true, mapped);
+        final ByteBuffer template = template(objectSize);
+        final long maxBacklog = 3L * PBDSegment.CHUNK_SIZE / objectSize;
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        final AtomicLong offered = new AtomicLong();
+        final AtomicLong[] polled = new AtomicLong[cursorCount];
+        final Thread[] threads = new Thread[cursorCount];
+        for (int ii = 0; ii < cursorCount; ii++) {
+            final BinaryDequeReader reader = pbd.openForRead("cursor" + ii);
+            final AtomicLong count = polled[ii] = new AtomicLong();
+            threads[ii] = new Thread("Cursor " + ii) {
+                @Override
+                public void run() {
+                    try {
+                        while (!stop.get()) {
+                            BBContainer cont = reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY);
+                            if (cont == null) {
+                                Thread.yield();
+                                continue;
+                            }
+                            cont.discard();
+                            count.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+        }
+        final Thread writer = new Thread("Writer") {
+            @Override
+            public void run() {
+                try {
+                    while (!stop.get()) {
+                        long slowest = Long.MAX_VALUE;
+                        for (AtomicLong count : polled) {
+                            slowest = Math.min(slowest, count.get());
+                        }
+                        if (offered.get() - slowest > maxBacklog) {
+                            Thread.yield();
+                            continue;
+                        }
+                        final BBContainer cont = DBBPool.allocateDirectAndPool(objectSize);
+                        cont.b().put(template.duplicate());
+                        cont.b().flip();
+                        pbd.offer(cont, compress);
+                        offered.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+
+        writer.start();
+        for (Thread t : threads) {
+            t.start();
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+
+        final long startOffered = offered.get();
+        long startPolled = 0;
+        for (AtomicLong count : polled) {
+            startPolled += count.get();
+        }
+        final long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        final long elapsed = System.nanoTime() - start;
+        final long appends = offered.get() - startOffered;
+        long polls = -startPolled;
+        for (AtomicLong count : polled) {
+            polls += count.get();
+        }
+        stop.set(true);
+        writer.join();
+        for (Thread t : threads) {
+            t.join();
+        }
+        pbd.closeAndDelete();
+
+        System.out.printf("%-8s %-12s %8d %14.0f %14.0f %12.1f%n",
+                mapped ? "mapped" : "monitor", compress ? "compressed" : "uncompressed", cursorCount,
+                appends / (elapsed / 1e9), polls / (elapsed / 1e9),
+                polls * (double)objectSize / (elapsed / 1e9) / (1024 * 1024));
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        final int objectSize = (args.length > 1 ? Integer.parseInt(args[1]) : 256) * 1024;
+        int[] cursors = new int[] { 1, 2, 3, 4 };
+        if (args.length > 2) {
+            cursors = new int[args.length - 2];
+            for (int ii = 2; ii < args.length; ii++) {
+                cursors[ii - 2] = Integer.parseInt(args[ii]);
+            }
+        }
+
+        final File dir = new File(System.getProperty("java.io.tmpdir"), "pbd-benchmark");
+        dir.mkdirs();
+        System.out.printf("%-8s %-12s %8s %14s %14s %12s%n",
+                "reads", "objects", "cursors", "appends/sec", "polls/sec", "polled MB/s");
+        try {
+            for (boolean compress : new boolean[] { false, true }) {
+                for (int count : cursors) {
+                    run(dir, false, compress, count, objectSize, seconds);
+                    run(dir, true, compress, count, objectSize, seconds);
+                }
+            }
+        } finally {
+            deleteAll(dir);
+            dir.delete();
+        }
+    }
+}
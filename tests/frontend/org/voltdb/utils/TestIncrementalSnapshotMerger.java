@@ -0,0 +1,192 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.voltcore.utils.DBBPool;
+import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltdb.DefaultSnapshotDataTarget;
+import org.voltdb.EELibraryLoader;
+import org.voltdb.PrivateVoltTableFactory;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.sysprocs.saverestore.IncrementalSnapshotWritePlan;
+import org.voltdb.sysprocs.saverestore.TableSaveFile;
+
+import com.google_voltpatches.common.base.Charsets;
+
+public class TestIncrementalSnapshotMerger {
+
+    private static final File TEST_DIR = new File("/tmp/" + System.getProperty("user.name"), "incremental");
+
+    private static final VoltTable SCHEMA = new VoltTable(new VoltTable.ColumnInfo("ID", VoltType.BIGINT));
+
+    @Before
+    public void setUp() throws Exception {
+        // The save files are checksummed natively
+        EELibraryLoader.loadExecutionEngineLibrary(true);
+        VoltFile.recursivelyDelete(TEST_DIR);
+        TEST_DIR.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        VoltFile.recursivelyDelete(TEST_DIR);
+    }
+
+    /*
+     * Write an incremental table file the way the EE streams it, every block is its id
+     * followed by its rows, or only its id for a block that wasn't modified.
+     */
+    private static void writeSnapshot(String nonce, String previousNonce, long[]... blocks) throws Exception {
+        final DefaultSnapshotDataTarget target = new DefaultSnapshotDataTarget(
+                new File(TEST_DIR, nonce + "-T.vpi"), 0, "cluster", "database", "T", 1, true,
+                Arrays.asList(0), SCHEMA, 1, 1);
+        final BBContainer c = DBBPool.allocateDirect(64 * 1024);
+        final ByteBuffer buf = c.b();
+        buf.putInt(0);
+        buf.putInt(blocks.length);
+        for (long[] block : blocks) {
+            buf.putLong(block[0]);
+            if (block.length == 1) {
+                buf.putInt(-1);
+                continue;
+            }
+            buf.putInt(block.length - 1);
+            for (int ii = 1; ii < block.length; ii++) {
+                buf.putInt(8);
+                buf.putLong(block[ii]);
+            }
+        }
+        buf.flip();
+        target.write(new Callable<BBContainer>() {
+            @Override
+            public BBContainer call() {
+                return c;
+            }
+        }, 0).get();
+        target.close();
+
+        writeChainFile(nonce, previousNonce, true);
+    }
+
+    private static void writeChainFile(String nonce, String previousNonce, boolean completed) throws Exception {
+        final String chain = "{\"txnId\":1,\"previousNonce\":" +
+                (previousNonce == null ? "null" : "\"" + previousNonce + "\"") + ",\"length\":0," +
+                "\"completed\":" + completed + "}";
+        final FileOutputStream fos = new FileOutputStream(
+                new File(TEST_DIR, IncrementalSnapshotWritePlan.constructChainFilenameForNonce(nonce, 0)));
+        try {
+            fos.write(chain.getBytes(Charsets.UTF_8));
+        } finally {
+            fos.close();
+        }
+    }
+
+    private static List<Long> readIds(File file) throws Exception {
+        final List<Long> ids = new ArrayList<Long>();
+        final FileInputStream fis = new FileInputStream(file);
+        final TableSaveFile saveFile = new TableSaveFile(fis, 3, null);
+        try {
+            while (saveFile.hasMoreChunks()) {
+                final BBContainer c = saveFile.getNextChunk();
+                if (c == null) {
+                    continue;
+                }
+                final VoltTable table = PrivateVoltTableFactory.createVoltTableFromBuffer(c.b(), true);
+                while (table.advanceRow()) {
+                    ids.add(table.getLong(0));
+                }
+                c.discard();
+            }
+        } finally {
+            saveFile.close();
+            fis.close();
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    @Test
+    public void testNewestRowsOfEveryBlock() throws Exception {
+        writeSnapshot("base", null, new long[] { 1, 10, 11 }, new long[] { 2, 20 }, new long[] { 3, 30 });
+        writeSnapshot("inc1", "base", new long[] { 1 }, new long[] { 2, 21, 22 }, new long[] { 3 });
+        // Block 4 was allocated since the previous snapshot
+        writeSnapshot("inc2", "inc1", new long[] { 1 }, new long[] { 2 }, new long[] { 3 }, new long[] { 4, 40 });
+
+        IncrementalSnapshotMerger.merge(TEST_DIR, "inc2", TEST_DIR, "merged");
+        assertEquals(Arrays.asList(10L, 11L, 21L, 22L, 30L, 40L), readIds(new File(TEST_DIR, "merged-T.vpt")));
+        assertFalse(new File(TEST_DIR, "merged-T.vpt.tmp").exists());
+    }
+
+    @Test
+    public void testBrokenChain() throws Exception {
+        writeSnapshot("base", null, new long[] { 1, 10 });
+        // Block 2 isn't in the base
+        writeSnapshot("inc1", "base", new long[] { 1 }, new long[] { 2 });
+
+        try {
+            IncrementalSnapshotMerger.merge(TEST_DIR, "inc1", TEST_DIR, "merged");
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("missing"));
+        }
+        assertFalse(new File(TEST_DIR, "merged-T.vpt").exists());
+        assertFalse(new File(TEST_DIR, "merged-T.vpt.tmp").exists());
+    }
+
+    @Test
+    public void testIncompleteSnapshotInChain() throws Exception {
+        writeSnapshot("base", null, new long[] { 1, 10 });
+        writeSnapshot("inc1", "base", new long[] { 1, 11 });
+        writeSnapshot("inc2", "inc1", new long[] { 1 });
+        // inc1 failed after its files were written
+        writeChainFile("inc1", "base", false);
+
+        try {
+            IncrementalSnapshotMerger.merge(TEST_DIR, "inc2", TEST_DIR, "merged");
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("didn't complete"));
+        }
+        assertFalse(new File(TEST_DIR, "merged-T.vpt").exists());
+    }
+}
@@ -27,6 +27,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.After;
 import org.junit.Before;
@@ -282,6 +283,62 @@ public class TestPBDMultipleReaders {
         assertEquals(1, m_pbd.numOpenSegments());
     }
 
+    @Test
+    public void testConcurrentReadersOfMappedSegments() throws Exception {
+        m_pbd.close();
+        m_pbd = new PersistentBinaryDeque(TestPersistentBinaryDeque.TEST_NONCE, TestPersistentBinaryDeque.TEST_DIR,
+                logger, true, true);
+
+        final int numBuffers = s_segmentFillCount * 4;
+        final int numReaders = 3;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[numReaders];
+        for (int i=0; i<numReaders; i++) {
+            final BinaryDequeReader reader = m_pbd.openForRead("reader" + i);
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        int expected = 0;
+                        while (expected < numBuffers) {
+                            BBContainer bbC = reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY);
+                            if (bbC == null) {
+                                Thread.yield();
+                                continue;
+                            }
+                            assertEquals(2 * 1024 * 1024, bbC.b().remaining());
+                            assertEquals(expected++, bbC.b().getLong(0));
+                            bbC.discard();
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        // Alternate compressed and uncompressed objects
+        for (int i=0; i<numBuffers; i++) {
+            m_pbd.offer(DBBPool.wrapBB(TestPersistentBinaryDeque.getFilledBuffer(i)), i % 2 == 0);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        for (int i=0; i<numReaders; i++) {
+            BinaryDequeReader reader = m_pbd.openForRead("reader" + i);
+            assertTrue(reader.isEmpty());
+            assertEquals(0, reader.getNumObjects());
+            assertEquals(0, reader.sizeInBytes());
+        }
+        // Only the segment being written is left
+        assertEquals(1, TestPersistentBinaryDeque.getSortedDirectoryListing().size());
+    }
+
     @Before
     public void setUp() throws Exception {
         TestPersistentBinaryDeque.setupTestDir();
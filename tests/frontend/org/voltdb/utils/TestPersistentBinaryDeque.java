@@ -31,6 +31,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.util.Random;
 import java.util.Set;
@@ -44,6 +45,7 @@ import org.junit.Test;
 import org.voltcore.logging.VoltLogger;
 import org.voltcore.utils.DBBPool;
 import org.voltcore.utils.DBBPool.BBContainer;
+import org.voltcore.utils.Pair;
 import org.voltdb.utils.BinaryDeque.BinaryDequeReader;
 import org.voltdb.utils.BinaryDeque.BinaryDequeTruncator;
 import org.voltdb.utils.BinaryDeque.TruncatorResponse;
@@ -1060,6 +1062,236 @@ public class TestPersistentBinaryDeque {
         assert(files[0].getName().equals("pbd_nonce.pbd.cursors") || files[1].getName().equals("pbd_nonce.pbd.cursors"));
     }
 
+    /*
+     * Flip a byte in the middle of an object stored in a segment file
+     */
+    private static void corruptObject(File segment, int objectIndex) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            long offset = PBDSegment.SEGMENT_HEADER_BYTES;
+            for (int ii = 0; ii < objectIndex; ii++) {
+                raf.seek(offset);
+                offset += PBDSegment.OBJECT_HEADER_BYTES + raf.readInt();
+            }
+            raf.seek(offset);
+            long target = offset + PBDSegment.OBJECT_HEADER_BYTES + raf.readInt() / 2;
+            raf.seek(target);
+            int b = raf.read();
+            raf.seek(target);
+            raf.write(b ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testSealedSegmentsHaveFooter() throws Exception {
+        System.out.println("Running testSealedSegmentsHaveFooter");
+        for (int ii = 0; ii < 96; ii++) {
+            m_pbd.offer(DBBPool.wrapBB(getFilledBuffer(ii)));
+        }
+        m_pbd.close();
+
+        // Every segment, including the one being written, is sealed on close
+        for (String name : getSortedDirectoryListing()) {
+            RandomAccessFile raf = new RandomAccessFile(new File(TEST_DIR, name), "r");
+            try {
+                raf.seek(raf.length() - 4);
+                assertEquals(PBDSegment.FOOTER_MAGIC, raf.readInt());
+            } finally {
+                raf.close();
+            }
+        }
+
+        m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, logger );
+        BinaryDequeReader reader = m_pbd.openForRead(CURSOR_ID);
+        assertEquals(96, reader.getNumObjects());
+        for (int ii = 0; ii < 96; ii++) {
+            BBContainer retval = reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY);
+            assertEquals(ii, retval.b().getLong(0));
+            retval.discard();
+        }
+        assertTrue(reader.isEmpty());
+    }
+
+    @Test
+    public void testCorruptObjectInUnsealedSegment() throws Exception {
+        System.out.println("Running testCorruptObjectInUnsealedSegment");
+        for (int ii = 0; ii < 10; ii++) {
+            m_pbd.offer(DBBPool.wrapBB(getFilledBuffer(ii)), ii % 2 == 0);
+        }
+        m_pbd.close();
+
+        // Drop the footer, as if the process died while the segment was being written
+        File segment = new File(TEST_DIR, TEST_NONCE + ".0.pbd");
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            raf.setLength(raf.length() - (10 * 4 + PBDSegment.FOOTER_TRAILER_BYTES));
+        } finally {
+            raf.close();
+        }
+        corruptObject(segment, 6);
+
+        m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, logger );
+        BinaryDequeReader reader = m_pbd.openForRead(CURSOR_ID);
+        assertEquals(6, reader.getNumObjects());
+        for (int ii = 0; ii < 6; ii++) {
+            BBContainer retval = reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY);
+            assertEquals(ii, retval.b().getLong(0));
+            retval.discard();
+        }
+        assertNull(reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY));
+    }
+
+    @Test
+    public void testCorruptObjectInSealedSegment() throws Exception {
+        System.out.println("Running testCorruptObjectInSealedSegment");
+        for (int ii = 0; ii < 96; ii++) {
+            m_pbd.offer(DBBPool.wrapBB(getFilledBuffer(ii)));
+        }
+        m_pbd.close();
+        corruptObject(new File(TEST_DIR, TEST_NONCE + ".0.pbd"), 3);
+
+        // Sealed segments are trusted on open, the checksum is checked when the object is read
+        for (boolean mapped : new boolean[] { false, true }) {
+            m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, logger, true, mapped );
+            BinaryDequeReader reader = m_pbd.openForRead(CURSOR_ID);
+            assertEquals(96, reader.getNumObjects());
+            for (int ii = 0; ii < 3; ii++) {
+                reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY).discard();
+            }
+            try {
+                reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY);
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("Checksum mismatch"));
+            }
+            m_pbd.close();
+        }
+    }
+
+    @Test
+    public void testCorruptIndexInSealedSegment() throws Exception {
+        System.out.println("Running testCorruptIndexInSealedSegment");
+        for (int ii = 0; ii < 10; ii++) {
+            m_pbd.offer(DBBPool.wrapBB(getFilledBuffer(ii)));
+        }
+        m_pbd.close();
+
+        // A damaged index fails its checksum, so the segment is scanned and sealed again
+        File segment = new File(TEST_DIR, TEST_NONCE + ".0.pbd");
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        try {
+            final long offsetOfThirdEntry = raf.length() - PBDSegment.FOOTER_TRAILER_BYTES - 10 * 4 + 2 * 4;
+            raf.seek(offsetOfThirdEntry);
+            raf.writeInt(raf.readInt() + 1);
+        } finally {
+            raf.close();
+        }
+
+        m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, logger );
+        BinaryDequeReader reader = m_pbd.openForRead(CURSOR_ID);
+        assertEquals(10, reader.getNumObjects());
+        for (int ii = 0; ii < 10; ii++) {
+            BBContainer retval = reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY);
+            assertEquals(ii, retval.b().getLong(0));
+            retval.discard();
+        }
+        assertTrue(reader.isEmpty());
+    }
+
+    @Test
+    public void testPipelinedLZ4Offers() throws Exception {
+        System.out.println("Running testPipelinedLZ4Offers");
+        m_pbd.close();
+        m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, logger, true, false,
+                PersistentBinaryDeque.Codec.LZ4, 4 );
+        BinaryDequeReader reader = m_pbd.openForRead(CURSOR_ID);
+
+        // Objects waiting to be compressed are counted and are read in order
+        for (int ii = 0; ii < 96; ii++) {
+            m_pbd.offer(DBBPool.wrapBB(getFilledBuffer(ii)), ii % 3 != 0);
+            assertEquals(ii + 1, reader.getNumObjects());
+        }
+        assertEquals(96L * 1024 * 1024 * 2, reader.sizeInBytes());
+        for (int ii = 0; ii < 48; ii++) {
+            BBContainer cont = reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY);
+            try {
+                assertEquals(getFilledBuffer(ii), cont.b());
+            } finally {
+                cont.discard();
+            }
+        }
+
+        Pair<String, long[]> stats =
+                PersistentBinaryDeque.getCompressionStats().get(new File(TEST_DIR, TEST_NONCE).getPath());
+        assertEquals("LZ4", stats.getFirst());
+        assertEquals(64, stats.getSecond()[PersistentBinaryDeque.COMPRESSED_OBJECTS]);
+        assertEquals(64L * 1024 * 1024 * 2, stats.getSecond()[PersistentBinaryDeque.COMPRESSED_INPUT_BYTES]);
+        assertTrue(stats.getSecond()[PersistentBinaryDeque.COMPRESSED_OUTPUT_BYTES] <
+                stats.getSecond()[PersistentBinaryDeque.COMPRESSED_INPUT_BYTES]);
+        assertEquals(0, stats.getSecond()[PersistentBinaryDeque.PENDING_OBJECTS]);
+
+        for (int ii = 96; ii < 100; ii++) {
+            m_pbd.offer(DBBPool.wrapBB(getFilledBuffer(ii)));
+        }
+        m_pbd.close();
+        assertFalse(PersistentBinaryDeque.getCompressionStats().containsKey(new File(TEST_DIR, TEST_NONCE).getPath()));
+
+        // Reopened with the default codec, the LZ4 objects are still readable.
+        // Segments that were completely read have been deleted.
+        m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, logger );
+        reader = m_pbd.openForRead(CURSOR_ID);
+        final int first = 100 - reader.getNumObjects();
+        assertTrue(first > 0 && first <= 48);
+        for (int ii = first; ii < 100; ii++) {
+            BBContainer cont = reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY);
+            try {
+                assertEquals(getFilledBuffer(ii), cont.b());
+            } finally {
+                cont.discard();
+            }
+        }
+        assertNull(reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY));
+    }
+
+    @Test
+    public void testLegacySegment() throws Exception {
+        System.out.println("Running testLegacySegment");
+        m_pbd.close();
+        tearDownTestDir();
+        setupTestDir();
+
+        // A segment written before objects had checksums, without a footer
+        RandomAccessFile raf = new RandomAccessFile(new File(TEST_DIR, TEST_NONCE + ".0.pbd"), "rw");
+        try {
+            raf.writeInt(3);
+            raf.writeInt(3 * 1024);
+            for (int ii = 0; ii < 3; ii++) {
+                raf.writeInt(1024);
+                raf.writeInt(PBDSegment.NO_FLAGS);
+                ByteBuffer buf = getFilledSmallBuffer(ii);
+                byte[] bytes = new byte[buf.remaining()];
+                buf.get(bytes);
+                raf.write(bytes);
+            }
+        } finally {
+            raf.close();
+        }
+
+        m_pbd = new PersistentBinaryDeque( TEST_NONCE, TEST_DIR, logger );
+        BinaryDequeReader reader = m_pbd.openForRead(CURSOR_ID);
+        assertEquals(3, reader.getNumObjects());
+        assertEquals(3 * 1024, reader.sizeInBytes());
+        for (int ii = 0; ii < 3; ii++) {
+            BBContainer retval = reader.poll(PersistentBinaryDeque.UNSAFE_CONTAINER_FACTORY);
+            assertEquals(1024, retval.b().remaining());
+            assertEquals(ii, retval.b().getLong(0));
+            retval.discard();
+        }
+        assertTrue(reader.isEmpty());
+    }
+
     @Before
     public void setUp() throws Exception {
         setupTestDir();
@@ -24,7 +24,9 @@
 package org.voltdb.utils;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import org.hsqldb_voltpatches.HSQLDDLInfo;
@@ -276,4 +278,46 @@ public class TestSQLLexer {
         checkInvalidHSQLPreprocessing("alter tabel pants blargy blarg;");
         checkValidHSQLPreprocessing("CREATE ASSUMEUNIQUE INDEX absVal ON T2 (     ABS(area * 2) ,   ABS(volume / 2) );", HSQLDDLInfo.Verb.CREATE, HSQLDDLInfo.Noun.INDEX, "absval", "t2", false, false);
     }
+
+    private void checkParameterized(final String sql, final String expectKey, String... expectLiterals)
+    {
+        SQLLexer.ParameterizedStatement result = SQLLexer.parameterizeLiterals(sql);
+        if (expectKey == null) {
+            assertNull(result);
+        }
+        else {
+            assertNotNull(result);
+            assertEquals(expectKey, result.key);
+            assertArrayEquals(expectLiterals, result.literals);
+        }
+    }
+
+    @Test
+    public void testParameterizeLiterals()
+    {
+        checkParameterized("select a from t", "select a from t");
+        checkParameterized("select  a\n from t where b = 'it''s' and c = 5",
+                "select a from t where b = ?s and c = ?i", "it's", "5");
+        // Same key for different values of the same kind
+        checkParameterized("select a from t where b = 'x' and c = 12",
+                "select a from t where b = ?s and c = ?i", "x", "12");
+        // Numbers are reported the way the SQL parser reports them
+        checkParameterized("select * from t where c = 007 and d = 1.50 and e = 1.5e3 and f = 3000000000 limit 10",
+                "select * from t where c = ?i and d = ?d and e = ?f and f = ?b limit ?i",
+                "7", "1.50", "1500.0", "3000000000", "10");
+        checkParameterized("select t1.c2, \"Q'1\" from t1 where c3 in (1,2,3)",
+                "select t1.c2, \"Q'1\" from t1 where c3 in (?i,?i,?i)", "1", "2", "3");
+        checkParameterized("select a-1 from t where a>.5",
+                "select a-?i from t where a>?d", "1", ".5");
+
+        // Anything that could be mistaken for another statement is left to the parser
+        checkParameterized("select a from t where b = ?", null);
+        checkParameterized("select a from t -- where b = 1", null);
+        checkParameterized("select a /* b */ from t", null);
+        checkParameterized("select a from t where b = x'00'", null);
+        checkParameterized("select a from t where b = 'a\\'", null);
+        checkParameterized("select a from t where b = 'open", null);
+        checkParameterized("select a from t where b = 12345678901234567890", null);
+        checkParameterized("select a from t; select b from t", null);
+    }
 }
@@ -0,0 +1,187 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2016 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcCallException;
+import org.voltdb.compiler.DatabaseEstimates;
+import org.voltdb.compiler.DatabaseEstimates.ColumnEstimates;
+
+public class TestStatisticsAnalyzer {
+
+    private static final double DELTA = 0.0001;
+
+    private Client m_client;
+    // The ad hoc queries run by the analyzer, in order
+    private final List<String> m_queries = new ArrayList<String>();
+    // Ad hoc queries starting with this fail
+    private String m_failingQuery = null;
+
+    private static VoltTable table(Object[][] rows, VoltTable.ColumnInfo... columns) {
+        VoltTable table = new VoltTable(columns);
+        for (Object[] row : rows) {
+            table.addRow(row);
+        }
+        return table;
+    }
+
+    private static ClientResponse response(VoltTable table) {
+        ClientResponse response = mock(ClientResponse.class);
+        when(response.getStatus()).thenReturn(ClientResponse.SUCCESS);
+        when(response.getResults()).thenReturn(new VoltTable[] {table});
+        return response;
+    }
+
+    /*
+     * A partitioned table T with an INTEGER column I of 100 rows and a VARCHAR column V.
+     */
+    private ClientResponse answer(Object[] args) throws Exception {
+        String procedure = (String) args[0];
+        if ("@SystemCatalog".equals(procedure) && "TABLES".equals(args[1])) {
+            return response(table(new Object[][] {{"T", "TABLE", "{\"partitionColumn\":\"I\"}"}},
+                    new VoltTable.ColumnInfo("TABLE_NAME", VoltType.STRING),
+                    new VoltTable.ColumnInfo("TABLE_TYPE", VoltType.STRING),
+                    new VoltTable.ColumnInfo("REMARKS", VoltType.STRING)));
+        }
+        if ("@SystemCatalog".equals(procedure)) {
+            return response(table(new Object[][] {{"T", "I", "INTEGER"}, {"T", "V", "VARCHAR"}},
+                    new VoltTable.ColumnInfo("TABLE_NAME", VoltType.STRING),
+                    new VoltTable.ColumnInfo("COLUMN_NAME", VoltType.STRING),
+                    new VoltTable.ColumnInfo("TYPE_NAME", VoltType.STRING)));
+        }
+        if ("@Statistics".equals(procedure)) {
+            return response(table(new Object[][] {{"T", 0, 60}, {"T", 1, 40}},
+                    new VoltTable.ColumnInfo("TABLE_NAME", VoltType.STRING),
+                    new VoltTable.ColumnInfo("PARTITION_ID", VoltType.BIGINT),
+                    new VoltTable.ColumnInfo("TUPLE_COUNT", VoltType.BIGINT)));
+        }
+
+        String sql = (String) args[1];
+        m_queries.add(sql);
+        if (m_failingQuery != null && sql.startsWith(m_failingQuery)) {
+            ProcCallException e = mock(ProcCallException.class);
+            ClientResponse failure = mock(ClientResponse.class);
+            when(failure.getStatusString()).thenReturn("Query failed");
+            when(e.getClientResponse()).thenReturn(failure);
+            throw e;
+        }
+        if (sql.startsWith("SELECT APPROX_COUNT_DISTINCT")) {
+            return response(table(new Object[][] {{10, 100}},
+                    new VoltTable.ColumnInfo("C1", VoltType.BIGINT),
+                    new VoltTable.ColumnInfo("C2", VoltType.BIGINT)));
+        }
+        // Ten values with ten rows each
+        Object[][] groups = new Object[10][];
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = new Object[] {i * 10.0, 10};
+        }
+        return response(table(groups,
+                new VoltTable.ColumnInfo("C1", VoltType.FLOAT),
+                new VoltTable.ColumnInfo("C2", VoltType.BIGINT)));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        m_client = mock(Client.class);
+        when(m_client.callProcedure(anyString(), anyVararg())).thenAnswer(new Answer<ClientResponse>() {
+            @Override
+            public ClientResponse answer(InvocationOnMock invocation) throws Throwable {
+                return TestStatisticsAnalyzer.this.answer(invocation.getArguments());
+            }
+        });
+    }
+
+    @Test
+    public void testHistogramFromOneScan() throws Exception {
+        DatabaseEstimates estimates = new StatisticsAnalyzer(m_client, 4).analyze(Collections.<String>emptySet());
+        assertEquals(100, estimates.getEstimatesForTable("T").maxTuples);
+
+        ColumnEstimates column = estimates.getEstimatesForTable("T").columns.get("I");
+        assertEquals(10, column.distinctValues);
+        assertArrayEquals(new double[] {0, 20, 40, 70, 90}, column.histogram, DELTA);
+        assertEquals(0, estimates.getEstimatesForTable("T").columns.get("V").histogram.length);
+
+        // A count of each column and a single grouped scan of the numeric one
+        assertEquals(3, m_queries.size());
+        assertEquals(1, countQueries("GROUP BY"));
+    }
+
+    @Test
+    public void testHistogramFailure() throws Exception {
+        m_failingQuery = "SELECT CAST(I AS FLOAT)";
+        DatabaseEstimates estimates = new StatisticsAnalyzer(m_client, 4).analyze(Collections.<String>emptySet());
+
+        // The column keeps its distinct count and is estimated without a histogram
+        ColumnEstimates column = estimates.getEstimatesForTable("T").columns.get("I");
+        assertEquals(10, column.distinctValues);
+        assertEquals(0, column.histogram.length);
+        assertEquals(10, estimates.getEstimatesForTable("T").columns.get("V").distinctValues);
+    }
+
+    @Test
+    public void testExactBounds() {
+        double[] bounds = StatisticsAnalyzer.equiDepthBounds(
+                new double[] {1, 2, 3, 4}, new long[] {1, 1, 1, 97}, 0, 0, 4);
+        // A common value fills the buckets it spans
+        assertArrayEquals(new double[] {1, 4, 4, 4, 4}, bounds, DELTA);
+
+        bounds = StatisticsAnalyzer.equiDepthBounds(new double[] {5}, new long[] {3}, 0, 0, 2);
+        assertArrayEquals(new double[] {5, 5, 5}, bounds, DELTA);
+    }
+
+    @Test
+    public void testRangeBounds() {
+        // Rows spread evenly over 0 to 100 in ranges of 10, with none in the middle ranges
+        double[] bounds = StatisticsAnalyzer.equiDepthBounds(
+                new double[] {0, 10, 80, 90}, new long[] {25, 25, 25, 25}, 10, 100, 4);
+        assertArrayEquals(new double[] {0, 9.8, 19.8, 89.8, 100}, bounds, DELTA);
+    }
+
+    private int countQueries(String part) {
+        int count = 0;
+        for (String sql : m_queries) {
+            if (sql.contains(part)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}